@@ -116,7 +116,7 @@ public class CallHistoryActivator
      * @return the instance of <tt>CallHistoryService</tt> created in this
      * activator
      */
-    public static CallHistoryService getCallHistoryService()
+    public static CallHistoryServiceImpl getCallHistoryService()
     {
         return callHistoryService;
     }
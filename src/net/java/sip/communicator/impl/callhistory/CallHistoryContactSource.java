@@ -54,9 +54,19 @@ public class CallHistoryContactSource
     public ContactQuery queryContactSource(String queryString, int contactCount)
     {
         if (queryString != null && queryString.length() > 0)
-            return new CallHistoryContactQuery(
-                CallHistoryActivator.getCallHistoryService()
-                    .findByPeer(queryString, contactCount));
+        {
+            CallHistoryServiceImpl callHistoryService
+                = CallHistoryActivator.getCallHistoryService();
+            Collection<CallRecord> callRecords
+                = callHistoryService.findIndexedByPeer(
+                    queryString, contactCount);
+
+            if (callRecords != null)
+                return new CallHistoryContactQuery(callRecords);
+            else
+                return new CallHistoryContactQuery(
+                    callHistoryService.findByPeer(queryString, contactCount));
+        }
         else
             return new CallHistoryContactQuery(
                 CallHistoryActivator.getCallHistoryService()
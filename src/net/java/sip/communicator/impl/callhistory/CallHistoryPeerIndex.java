@@ -0,0 +1,546 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.callhistory;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.callhistory.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * An index of the call history by peer, used to find the calls with a peer
+ * and to count the missed ones without scanning the whole history.
+ * <p>
+ * Each call gets an id, its position in the index, and the index keeps the
+ * timestamp of its history record. For each peer, by address normalized with
+ * {@link #normalize(String)}, the index keeps the ids of its calls, oldest
+ * first, and the number of its missed calls, so that calls sharing a
+ * timestamp are not mistaken for one another. The most recently used
+ * <tt>CallRecord</tt>s are kept as well, so that showing the same calls again,
+ * as type-ahead does, does not read the history again.
+ * <p>
+ * The index is built once from the history, in chunks, and then kept up to
+ * date as calls are written. Until it is built, the callers fall back to
+ * searching the history.
+ */
+class CallHistoryPeerIndex
+{
+    /**
+     * The logger used by the <tt>CallHistoryPeerIndex</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(CallHistoryPeerIndex.class);
+
+    /**
+     * The number of history records read at once while building the index.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * The maximum number of <tt>CallRecord</tt>s kept.
+     */
+    private static final int MAX_CACHED_RECORDS = 1024;
+
+    /**
+     * The peers by normalized address.
+     */
+    private final Map<String, Peer> peers = new HashMap<String, Peer>();
+
+    /**
+     * The timestamps of the history records of the calls by id, in the first
+     * {@link #callCount} elements.
+     */
+    private long[] timestamps = new long[64];
+
+    /**
+     * The number of calls in the index.
+     */
+    private int callCount = 0;
+
+    /**
+     * The timestamps of the calls added while the index is built, which the
+     * build reads from the history as well, or <tt>null</tt> if the index is
+     * not being built.
+     */
+    private Set<Long> addedWhileBuilding = null;
+
+    /**
+     * The most recently used <tt>CallRecord</tt>s by id.
+     */
+    private final Map<Integer, CallRecord> records
+        = new LinkedHashMap<Integer, CallRecord>(
+                MAX_CACHED_RECORDS, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Integer, CallRecord> eldest)
+            {
+                return size() > MAX_CACHED_RECORDS;
+            }
+        };
+
+    /**
+     * Whether the index has been built from the whole history.
+     */
+    private boolean built = false;
+
+    /**
+     * Whether the index is being built.
+     */
+    private boolean building = false;
+
+    /**
+     * Determines whether the index has been built and can be queried.
+     *
+     * @return <tt>true</tt> if the index has been built; otherwise,
+     * <tt>false</tt>
+     */
+    synchronized boolean isBuilt()
+    {
+        return built;
+    }
+
+    /**
+     * Marks the index as being built unless it is built or being built
+     * already.
+     *
+     * @return <tt>true</tt> if the caller is to build the index with
+     * {@link #build(HistoryReader)}; otherwise, <tt>false</tt>
+     */
+    synchronized boolean startBuilding()
+    {
+        if (built || building)
+            return false;
+        building = true;
+        addedWhileBuilding = new HashSet<Long>();
+        return true;
+    }
+
+    /**
+     * Builds the index by reading the whole history, oldest records first.
+     * Calls added in the meantime by {@link #add(long, CallRecord)} are not
+     * counted twice. The history tells its records apart by timestamp, so no
+     * two of its records share one.
+     *
+     * @param reader the reader of the history
+     */
+    void build(HistoryReader reader)
+    {
+        long time0 = System.currentTimeMillis();
+        long after = Long.MIN_VALUE;
+        int count = 0;
+        boolean succeeded = false;
+
+        try
+        {
+            while (true)
+            {
+                long chunkAfter = after;
+                QueryResultSet<HistoryRecord> rs
+                    = reader.findFirstRecordsAfter(new Date(after), CHUNK_SIZE);
+                int chunkCount = 0;
+
+                while (rs.hasNext())
+                {
+                    HistoryRecord hr = rs.next();
+
+                    addRead(hr.getTimestamp(),
+                        CallHistoryServiceImpl
+                            .convertHistoryRecordToCallRecord(hr));
+                    after = Math.max(after, hr.getTimestamp());
+                    chunkCount++;
+                }
+                count += chunkCount;
+                if ((chunkCount < CHUNK_SIZE) || (after == chunkAfter))
+                    break;
+            }
+            succeeded = true;
+        }
+        catch (RuntimeException ex)
+        {
+            logger.error("Could not build the call history peer index", ex);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                building = false;
+                built = succeeded;
+                addedWhileBuilding = null;
+                if (succeeded && logger.isDebugEnabled())
+                    logger.debug("Indexed " + count + " calls with "
+                            + peers.size() + " peers in "
+                            + (System.currentTimeMillis() - time0) + " ms");
+            }
+        }
+    }
+
+    /**
+     * Adds a call written to the history to the index.
+     *
+     * @param timestamp the timestamp of the history record of the call
+     * @param callRecord the call
+     */
+    synchronized void add(long timestamp, CallRecord callRecord)
+    {
+        if (addedWhileBuilding != null)
+            addedWhileBuilding.add(timestamp);
+        addCall(timestamp, callRecord);
+    }
+
+    /**
+     * Adds a call read from the history while building the index unless it
+     * has been added already by {@link #add(long, CallRecord)}.
+     *
+     * @param timestamp the timestamp of the history record of the call
+     * @param callRecord the call
+     */
+    private synchronized void addRead(long timestamp, CallRecord callRecord)
+    {
+        if ((addedWhileBuilding == null)
+                || !addedWhileBuilding.remove(timestamp))
+            addCall(timestamp, callRecord);
+    }
+
+    /**
+     * Gives a call an id and adds it to its peers.
+     *
+     * @param timestamp the timestamp of the history record of the call
+     * @param callRecord the call
+     */
+    private void addCall(long timestamp, CallRecord callRecord)
+    {
+        int id = callCount;
+
+        if (id == timestamps.length)
+            timestamps = Arrays.copyOf(timestamps, 2 * id);
+        timestamps[id] = timestamp;
+        callCount++;
+
+        boolean missed = isMissed(callRecord);
+        Set<String> keys = new HashSet<String>();
+
+        for (CallPeerRecord peerRecord : callRecord.getPeerRecords())
+        {
+            String key = normalize(peerRecord.getPeerAddress());
+
+            // a peer may have left and joined the call again
+            if (!keys.add(key))
+                continue;
+
+            Peer peer = peers.get(key);
+
+            if (peer == null)
+            {
+                peer = new Peer(key);
+                peers.put(key, peer);
+            }
+            peer.add(id, timestamps);
+            if (missed)
+                peer.missedCount++;
+        }
+
+        records.put(id, callRecord);
+    }
+
+    /**
+     * Finds the calls with the peers whose normalized address contains the
+     * normalized form of a string.
+     *
+     * @param query the string to look for in the addresses of the peers
+     * @param count the maximum number of calls to find
+     * @return the ids of the most recent calls found, most recent first
+     */
+    synchronized int[] find(String query, int count)
+    {
+        String key = normalize(query);
+
+        // the calls of each matching peer from its most recent one, merged
+        // until count calls are found
+        PriorityQueue<Cursor> cursors
+            = new PriorityQueue<Cursor>(
+                    16,
+                    new Comparator<Cursor>()
+                    {
+                        public int compare(Cursor c1, Cursor c2)
+                        {
+                            return
+                                compareCalls(
+                                        c2.peer.ids[c2.index],
+                                        c1.peer.ids[c1.index],
+                                        timestamps);
+                        }
+                    });
+
+        for (Peer peer : peers.values())
+        {
+            if ((peer.size != 0) && peer.key.contains(key))
+                cursors.add(new Cursor(peer));
+        }
+
+        int[] result = new int[Math.min(count, 64)];
+        int resultCount = 0;
+
+        while ((resultCount < count) && !cursors.isEmpty())
+        {
+            Cursor cursor = cursors.poll();
+            int id = cursor.peer.ids[cursor.index];
+
+            // calls with several matching peers once
+            if ((resultCount == 0) || (result[resultCount - 1] != id))
+            {
+                if (resultCount == result.length)
+                {
+                    result
+                        = Arrays.copyOf(
+                                result,
+                                Math.min(count, 2 * result.length));
+                }
+                result[resultCount++] = id;
+            }
+            if (cursor.index > 0)
+            {
+                cursor.index--;
+                cursors.add(cursor);
+            }
+        }
+        return
+            (resultCount == result.length)
+                ? result
+                : Arrays.copyOf(result, resultCount);
+    }
+
+    /**
+     * Returns the number of missed calls from a peer.
+     *
+     * @param address the address of the peer
+     * @return the number of missed calls from the peer
+     */
+    synchronized int countMissedCalls(String address)
+    {
+        Peer peer = peers.get(normalize(address));
+
+        return (peer == null) ? 0 : peer.missedCount;
+    }
+
+    /**
+     * Returns the timestamp of the history record of a call.
+     *
+     * @param id the id of the call
+     * @return the timestamp of the history record of the call
+     */
+    synchronized long getTimestamp(int id)
+    {
+        return timestamps[id];
+    }
+
+    /**
+     * Returns a call kept by the index.
+     *
+     * @param id the id of the call
+     * @return the call or <tt>null</tt> if it is not kept
+     */
+    synchronized CallRecord getRecord(int id)
+    {
+        return records.get(id);
+    }
+
+    /**
+     * Keeps a call read from the history.
+     *
+     * @param id the id of the call
+     * @param callRecord the call
+     */
+    synchronized void putRecord(int id, CallRecord callRecord)
+    {
+        records.put(id, callRecord);
+    }
+
+    /**
+     * Compares two calls by the timestamps of their history records and then
+     * by id.
+     *
+     * @param id1 the id of the first call
+     * @param id2 the id of the second call
+     * @param timestamps the timestamps of the calls by id
+     * @return a negative integer, zero, or a positive integer as the first
+     * call is older than, the same as, or more recent than the second one
+     */
+    private static int compareCalls(int id1, int id2, long[] timestamps)
+    {
+        long t1 = timestamps[id1];
+        long t2 = timestamps[id2];
+
+        if (t1 != t2)
+            return (t1 < t2) ? -1 : 1;
+        return (id1 < id2) ? -1 : ((id1 == id2) ? 0 : 1);
+    }
+
+    /**
+     * Determines whether a call is a missed call, i.e. an incoming call which
+     * was neither answered here nor elsewhere.
+     *
+     * @param callRecord the call
+     * @return <tt>true</tt> if <tt>callRecord</tt> is a missed call;
+     * otherwise, <tt>false</tt>
+     */
+    static boolean isMissed(CallRecord callRecord)
+    {
+        return CallRecord.IN.equals(callRecord.getDirection())
+            && (callRecord.getStartTime() != null)
+            && callRecord.getStartTime().equals(callRecord.getEndTime())
+            && (callRecord.getEndReason()
+                    != CallPeerChangeEvent.NORMAL_CALL_CLEARING);
+    }
+
+    /**
+     * Normalizes the address of a peer so that the forms a protocol uses for
+     * the same peer share an entry: the address is lower cased, stripped of
+     * its <tt>sip:</tt>, <tt>sips:</tt>, <tt>tel:</tt> or <tt>xmpp:</tt>
+     * scheme, of its URI parameters and headers and of its XMPP resource, and
+     * phone numbers are stripped of their visual separators.
+     *
+     * @param address the address of a peer
+     * @return the normalized address
+     */
+    static String normalize(String address)
+    {
+        if (address == null)
+            return "";
+
+        String s = address.trim().toLowerCase(Locale.ENGLISH);
+
+        if (s.startsWith("sip:") || s.startsWith("tel:"))
+            s = s.substring(4);
+        else if (s.startsWith("sips:") || s.startsWith("xmpp:"))
+            s = s.substring(5);
+
+        int end = s.length();
+
+        for (int i = 0; i < end; i++)
+        {
+            char c = s.charAt(i);
+
+            if ((c == ';') || (c == '?') || (c == '/'))
+                end = i;
+        }
+
+        // a phone number such as "+1 (555) 010-2030"
+        StringBuilder digits = null;
+
+        for (int i = 0; i < end; i++)
+        {
+            char c = s.charAt(i);
+
+            if ((c >= '0') && (c <= '9'))
+            {
+                if (digits == null)
+                    digits = new StringBuilder(end);
+                digits.append(c);
+            }
+            else if ((c == '+') && (i == 0))
+            {
+                if (digits == null)
+                    digits = new StringBuilder(end);
+                digits.append(c);
+            }
+            else if ((c != ' ') && (c != '-') && (c != '.') && (c != '(')
+                    && (c != ')'))
+            {
+                digits = null;
+                break;
+            }
+        }
+
+        if (digits != null)
+            return digits.toString();
+        return (end == s.length()) ? s : s.substring(0, end);
+    }
+
+    /**
+     * A position in the calls with a peer, going from the most recent one to
+     * the oldest one.
+     */
+    private static class Cursor
+    {
+        /**
+         * The peer.
+         */
+        final Peer peer;
+
+        /**
+         * The index in the ids of the calls of the peer of the next call.
+         */
+        int index;
+
+        Cursor(Peer peer)
+        {
+            this.peer = peer;
+            this.index = peer.size - 1;
+        }
+    }
+
+    /**
+     * The calls with a peer.
+     */
+    private static class Peer
+    {
+        /**
+         * The normalized address of the peer.
+         */
+        final String key;
+
+        /**
+         * The ids of the calls with the peer, oldest first, in the first
+         * {@link #size} elements.
+         */
+        int[] ids = new int[2];
+
+        /**
+         * The number of calls with the peer.
+         */
+        int size = 0;
+
+        /**
+         * The number of missed calls from the peer.
+         */
+        int missedCount = 0;
+
+        Peer(String key)
+        {
+            this.key = key;
+        }
+
+        /**
+         * Adds a call with the peer.
+         *
+         * @param id the id of the call
+         * @param timestamps the timestamps of the calls by id
+         */
+        void add(int id, long[] timestamps)
+        {
+            // calls are added in order, but while the index is built
+            int index = size;
+
+            while ((index > 0)
+                    && (compareCalls(ids[index - 1], id, timestamps) > 0))
+                index--;
+
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, 2 * size);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+    }
+}
@@ -28,6 +28,8 @@ public class CallHistoryQueryImpl
 
     private final HistoryQuery historyQuery;
 
+    private final String queryString;
+
     /**
      * Creates an instance of <tt>CallHistoryQueryImpl</tt> by specifying the
      * underlying <tt>HistoryQuery</tt>.
@@ -36,6 +38,7 @@ public class CallHistoryQueryImpl
     public CallHistoryQueryImpl(HistoryQuery query)
     {
         this.historyQuery = query;
+        this.queryString = query.getQueryString();
 
         historyQuery.addHistoryRecordsListener(new HistoryQueryListener()
         {
@@ -68,12 +71,28 @@ public class CallHistoryQueryImpl
         }
     }
 
+    /**
+     * Creates an instance of <tt>CallHistoryQueryImpl</tt> whose results are
+     * already known, e.g. found through an index. Such a query is complete
+     * from the start and fires no events.
+     * @param queryString the query string this query was created for
+     * @param callRecords the results of this query
+     */
+    public CallHistoryQueryImpl(String queryString,
+                                Collection<CallRecord> callRecords)
+    {
+        this.historyQuery = null;
+        this.queryString = queryString;
+        this.callRecords.addAll(callRecords);
+    }
+
     /**
      * Cancels this query.
      */
     public void cancel()
     {
-        historyQuery.cancel();
+        if (historyQuery != null)
+            historyQuery.cancel();
     }
 
     /**
@@ -159,6 +178,6 @@ public class CallHistoryQueryImpl
      */
     public String getQueryString()
     {
-        return historyQuery.getQueryString();
+        return queryString;
     }
 }
@@ -74,6 +74,16 @@ public class CallHistoryServiceImpl
 
     private HistoryReader historyReader;
 
+    /**
+     * The index of the default call history by peer.
+     */
+    private final CallHistoryPeerIndex peerIndex = new CallHistoryPeerIndex();
+
+    /**
+     * The timestamp of the last history record written.
+     */
+    private long lastRecordTimestamp = 0;
+
     /**
      * Returns the underlying history service.
      * @return the underlying history service
@@ -296,6 +306,12 @@ public class CallHistoryServiceImpl
     public CallHistoryQuery findByPeer(String address, int recordCount)
         throws RuntimeException
     {
+        Collection<CallRecord> callRecords
+            = findIndexedByPeer(address, recordCount);
+
+        if (callRecords != null)
+            return new CallHistoryQueryImpl(address, callRecords);
+
         CallHistoryQueryImpl callQuery = null;
 
         try
@@ -318,6 +334,183 @@ public class CallHistoryServiceImpl
         return callQuery;
     }
 
+    /**
+     * Finds the calls made by the supplied peer address through the peer
+     * index, i.e. the calls with the peers whose normalized address contains
+     * the normalized form of <tt>address</tt>.
+     *
+     * @param address the address of the peer or a part of it
+     * @param recordCount the maximum number of records to return
+     * @return the most recent calls with the peer, most recent first, or
+     * <tt>null</tt> if the index is not built yet, in which case it is being
+     * built and the history has to be searched instead
+     */
+    Collection<CallRecord> findIndexedByPeer(String address, int recordCount)
+    {
+        CallHistoryPeerIndex index = getPeerIndex();
+
+        if (index == null)
+            return null;
+
+        int[] ids = index.find(address, recordCount);
+        CallRecord[] callRecords = new CallRecord[ids.length];
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            callRecords[i] = index.getRecord(ids[i]);
+            if (callRecords[i] != null)
+                continue;
+
+            // the calls which are not kept are read by their timestamps,
+            // which are unique, so that only the history file holding each of
+            // them is read rather than all the files between the oldest and
+            // the newest of them
+            long timestamp = index.getTimestamp(ids[i]);
+
+            try
+            {
+                QueryResultSet<HistoryRecord> rs
+                    = this.getHistory(null, null).getReader().findByPeriod(
+                            new Date(timestamp - 1), new Date(timestamp + 1));
+
+                while (rs.hasNext())
+                {
+                    HistoryRecord hr = rs.next();
+
+                    if (hr.getTimestamp() == timestamp)
+                    {
+                        callRecords[i] = convertHistoryRecordToCallRecord(hr);
+                        index.putRecord(ids[i], callRecords[i]);
+                        break;
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                logger.error("Could not read history", ex);
+                return null;
+            }
+        }
+
+        List<CallRecord> result = new ArrayList<CallRecord>(ids.length);
+
+        for (CallRecord callRecord : callRecords)
+        {
+            if (callRecord != null)
+                result.add(callRecord);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of missed calls from the peer with the supplied
+     * address, i.e. of incoming calls which were neither answered here nor
+     * elsewhere.
+     *
+     * @param address the address of the peer
+     * @return the number of missed calls from the peer
+     */
+    public int countMissedCalls(String address)
+    {
+        CallHistoryPeerIndex index = getPeerIndex();
+
+        if (index != null)
+            return index.countMissedCalls(address);
+
+        // the index is being built, search the history meanwhile
+        String key = CallHistoryPeerIndex.normalize(address);
+        int count = 0;
+
+        try
+        {
+            QueryResultSet<HistoryRecord> rs
+                = this.getHistory(null, null).getReader().findByKeyword(
+                        address, STRUCTURE_NAMES[4], false);
+
+            while (rs.hasNext())
+            {
+                CallRecord callRecord
+                    = convertHistoryRecordToCallRecord(rs.next());
+
+                if (!CallHistoryPeerIndex.isMissed(callRecord))
+                    continue;
+
+                for (CallPeerRecord peerRecord : callRecord.getPeerRecords())
+                {
+                    if (key.equals(CallHistoryPeerIndex.normalize(
+                            peerRecord.getPeerAddress())))
+                    {
+                        count++;
+                        break;
+                    }
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            logger.error("Could not read history", ex);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the current time as the timestamp of a new history record, or
+     * the millisecond after the timestamp of the last one if it is more
+     * recent, so that no two records share a timestamp.
+     *
+     * @return the timestamp of a new history record
+     */
+    private synchronized long nextRecordTimestamp()
+    {
+        long timestamp
+            = Math.max(System.currentTimeMillis(), lastRecordTimestamp + 1);
+
+        lastRecordTimestamp = timestamp;
+        return timestamp;
+    }
+
+    /**
+     * Returns the index of the default call history by peer if it has been
+     * built. Otherwise, starts building it in the background.
+     *
+     * @return the index of the default call history by peer or <tt>null</tt>
+     * if it is not built yet
+     */
+    private CallHistoryPeerIndex getPeerIndex()
+    {
+        if (peerIndex.isBuilt())
+            return peerIndex;
+
+        final HistoryReader reader;
+
+        try
+        {
+            reader = this.getHistory(null, null).getReader();
+        }
+        catch (IOException ex)
+        {
+            logger.error("Could not read history", ex);
+            return null;
+        }
+
+        if (peerIndex.startBuilding())
+        {
+            Thread indexThread
+                = new Thread("CallHistoryPeerIndex")
+                {
+                    @Override
+                    public void run()
+                    {
+                        peerIndex.build(reader);
+                    }
+                };
+
+            indexThread.setDaemon(true);
+            indexThread.start();
+        }
+        return null;
+    }
+
     /**
      * Returns the history by specified local and remote contact
      * if one of them is null the default is used
@@ -675,7 +868,7 @@ public class CallHistoryServiceImpl
                 callPeerStates.append(item.getState().getStateString());
             }
 
-            historyWriter.addRecord(new String[] {
+            String[] values = new String[] {
                     callRecord.getSourceCall().getProtocolProvider()
                         .getAccountID().getAccountUniqueID(),
                     String.valueOf(callRecord.getStartTime().getTime()),
@@ -686,9 +879,25 @@ public class CallHistoryServiceImpl
                     callPeerEndTime.toString(),
                     callPeerStates.toString(),
                     String.valueOf(callRecord.getEndReason()),
-                    callPeerNames.toString()},
-                    new Date());    // this date is when the history
-                                    // record is written
+                    callPeerNames.toString()};
+            // this date is when the history record is written, and the
+            // readers of the history tell its records apart by it
+            Date timestamp = new Date(nextRecordTimestamp());
+
+            historyWriter.addRecord(values, timestamp);
+
+            // index the call as it will be read back, not the live one which
+            // holds on to its Call
+            if (source == null && destination == null)
+            {
+                peerIndex.add(
+                        timestamp.getTime(),
+                        convertHistoryRecordToCallRecord(
+                                new HistoryRecord(
+                                        recordStructure,
+                                        values,
+                                        timestamp.getTime())));
+            }
         }
         catch (IOException e)
         {
@@ -0,0 +1,425 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import static net.java.sip.communicator.impl.contactlist.MclStorageManager.*;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.util.xml.XMLUtils;
+import org.w3c.dom.*;
+import org.xml.sax.*;
+
+/**
+ * The contact list document of a <tt>MclStorageManager</tt> along with an
+ * index of its meta contact and meta contact group nodes by UID. It creates
+ * the {@link MclStorageJournal} entries describing the changed nodes and
+ * applies them to the document when the journal is replayed.
+ */
+public class MclStorageDocument
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>MclStorageDocument</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MclStorageDocument.class);
+
+    /**
+     * The contact list document.
+     */
+    private final Document document;
+
+    /**
+     * The meta contact nodes of the document, mapped to their UIDs.
+     */
+    private final Map<String, Element> metaContactNodes
+        = new Hashtable<String, Element>();
+
+    /**
+     * The meta contact group nodes of the document, mapped to their UIDs.
+     */
+    private final Map<String, Element> groupNodes
+        = new Hashtable<String, Element>();
+
+    /**
+     * The transformer serializing the nodes written to the journal, created
+     * on first use.
+     */
+    private Transformer nodeTransformer = null;
+
+    /**
+     * Creates the index of the nodes of a contact list document.
+     *
+     * @param document the contact list document, possibly still empty
+     */
+    public MclStorageDocument(Document document)
+    {
+        this.document = document;
+
+        Element root = document.getDocumentElement();
+
+        if (root != null)
+            indexNodes(root);
+    }
+
+    /**
+     * Returns the contact list document.
+     *
+     * @return the contact list document
+     */
+    public Document getDocument()
+    {
+        return document;
+    }
+
+    /**
+     * Returns the node of the meta contact or meta contact group with the
+     * specified UID from the index of the document.
+     *
+     * @param nodeName the name of the node
+     * @param uid the UID of the meta contact or meta contact group
+     * @return the node or null if there is no such node in the document.
+     */
+    public Element findNode(String nodeName, String uid)
+    {
+        Map<String, Element> nodes
+            = META_CONTACT_NODE_NAME.equals(nodeName)
+                ? metaContactNodes
+                : groupNodes;
+        Element node = nodes.get(uid);
+
+        if (node == null || isAttached(node))
+            return node;
+
+        // the indexed node has been removed from the document, maybe
+        // replaced by a node which is not indexed yet
+        node = XMLUtils.locateElement(document.getDocumentElement(),
+            nodeName, UID_ATTR_NAME, uid);
+        if (node == null)
+            nodes.remove(uid);
+        else
+            nodes.put(uid, node);
+
+        return node;
+    }
+
+    /**
+     * Determines whether a node belongs to the tree of the contact list
+     * document.
+     *
+     * @param node the node
+     * @return true if <tt>node</tt> is in the contact list document.
+     */
+    private boolean isAttached(Node node)
+    {
+        while (node != null && node != document)
+            node = node.getParentNode();
+
+        return node != null;
+    }
+
+    /**
+     * Adds the meta contact and meta contact group nodes of a subtree to the
+     * index.
+     *
+     * @param root the root of the subtree
+     */
+    public void indexNodes(Element root)
+    {
+        String[] nodeNames = { META_CONTACT_NODE_NAME, GROUP_NODE_NAME };
+
+        for (String nodeName : nodeNames)
+        {
+            Map<String, Element> nodes
+                = META_CONTACT_NODE_NAME.equals(nodeName)
+                    ? metaContactNodes
+                    : groupNodes;
+
+            if (root.getNodeName().equals(nodeName))
+                nodes.put(root.getAttribute(UID_ATTR_NAME), root);
+
+            NodeList children = root.getElementsByTagName(nodeName);
+
+            for (int i = 0; i < children.getLength(); i++)
+            {
+                Element child = (Element) children.item(i);
+
+                nodes.put(child.getAttribute(UID_ATTR_NAME), child);
+            }
+        }
+    }
+
+    /**
+     * Creates the journal entry describing the current state of the node of
+     * a meta contact or meta contact group.
+     *
+     * @param nodeName the name of the node
+     * @param uid the UID of the meta contact or meta contact group
+     * @return the journal entry
+     * @throws IOException if serializing the node fails
+     */
+    public MclStorageJournal.Entry createJournalEntry(
+        String nodeName, String uid)
+        throws IOException
+    {
+        Element node = findNode(nodeName, uid);
+
+        if (node == null)
+        {
+            return new MclStorageJournal.Entry(
+                MclStorageJournal.REMOVE, nodeName, uid, null, null);
+        }
+
+        // meta contacts are in the child-contacts node of their group and
+        // groups in the subgroups node of their parent, except for the root
+        Node container = node.getParentNode();
+        String parentUID
+            = (container == document.getDocumentElement())
+                ? null
+                : ((Element) container.getParentNode())
+                    .getAttribute(UID_ATTR_NAME);
+
+        try
+        {
+            if (nodeTransformer == null)
+            {
+                nodeTransformer
+                    = TransformerFactory.newInstance().newTransformer();
+                nodeTransformer.setOutputProperty(
+                    OutputKeys.OMIT_XML_DECLARATION, "yes");
+            }
+
+            StringWriter xml = new StringWriter();
+
+            nodeTransformer.transform(
+                new DOMSource(
+                    GROUP_NODE_NAME.equals(nodeName)
+                        ? cloneGroupWithoutMembers(node)
+                        : node),
+                new StreamResult(xml));
+
+            return new MclStorageJournal.Entry(
+                MclStorageJournal.PUT, nodeName, uid, parentUID,
+                xml.toString());
+        }
+        catch (TransformerException ex)
+        {
+            throw new IOException("Failed to serialize " + nodeName + " "
+                + uid + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Copies the node of a meta contact group without its subgroups and child
+     * meta contacts, which have journal entries of their own, so that a change
+     * to a group does not journal its whole subtree.
+     *
+     * @param groupNode the node of the meta contact group
+     * @return a copy of <tt>groupNode</tt> with empty subgroups and child
+     *         contacts nodes
+     */
+    private static Element cloneGroupWithoutMembers(Element groupNode)
+    {
+        Element copy = (Element) groupNode.cloneNode(false);
+        NodeList children = groupNode.getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++)
+        {
+            Node child = children.item(i);
+            String childName = child.getNodeName();
+
+            copy.appendChild(
+                child.cloneNode(
+                    !SUBGROUPS_NODE_NAME.equals(childName)
+                        && !CHILD_CONTACTS_NODE_NAME.equals(childName)));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Applies the entries of a journal to the document, in order. An entry
+     * which cannot be applied is logged and skipped.
+     *
+     * @param builder the builder parsing the nodes of the entries
+     * @param entries the entries of the journal
+     */
+    public void replay(DocumentBuilder builder,
+                       List<MclStorageJournal.Entry> entries)
+    {
+        for (MclStorageJournal.Entry entry : entries)
+        {
+            try
+            {
+                applyJournalEntry(builder, entry);
+            }
+            catch (Exception ex)
+            {
+                logger.error("Failed to replay the change of " + entry.nodeName
+                    + " " + entry.uid, ex);
+            }
+        }
+    }
+
+    /**
+     * Applies a journal entry to the document.
+     *
+     * @param builder the builder parsing the node of the entry
+     * @param entry the journal entry
+     * @throws Exception if the node of the entry cannot be parsed
+     */
+    private void applyJournalEntry(DocumentBuilder builder,
+                                   MclStorageJournal.Entry entry)
+        throws Exception
+    {
+        Element oldNode = findNode(entry.nodeName, entry.uid);
+
+        if (entry.operation == MclStorageJournal.REMOVE)
+        {
+            if (oldNode != null)
+                oldNode.getParentNode().removeChild(oldNode);
+            return;
+        }
+
+        Element container;
+
+        if (entry.parentUID == null)
+            container = document.getDocumentElement();
+        else
+        {
+            Element parentNode = findNode(GROUP_NODE_NAME, entry.parentUID);
+
+            // the entries of a group precede those of its members, so the
+            // parent is only missing if the journal or the file is damaged;
+            // keep the node in the root group rather than lose it
+            if (parentNode == null)
+            {
+                logger.warn("The parent " + entry.parentUID + " of "
+                    + entry.nodeName + " " + entry.uid
+                    + " is missing, restoring it in the root group");
+                parentNode
+                    = XMLUtils.findChild(
+                        document.getDocumentElement(),
+                        GROUP_NODE_NAME);
+            }
+
+            container
+                = XMLUtils.findChild(parentNode,
+                    META_CONTACT_NODE_NAME.equals(entry.nodeName)
+                        ? CHILD_CONTACTS_NODE_NAME
+                        : SUBGROUPS_NODE_NAME);
+        }
+
+        Element newNode
+            = (Element) document.importNode(
+                builder.parse(new InputSource(new StringReader(entry.xml)))
+                    .getDocumentElement(),
+                true);
+
+        // the nodes of the new subtree may have been elsewhere before
+        String[] nodeNames = { META_CONTACT_NODE_NAME, GROUP_NODE_NAME };
+
+        for (String nodeName : nodeNames)
+        {
+            NodeList children = newNode.getElementsByTagName(nodeName);
+
+            for (int i = 0; i < children.getLength(); i++)
+            {
+                Element moved
+                    = findNode(nodeName,
+                        ((Element) children.item(i))
+                            .getAttribute(UID_ATTR_NAME));
+
+                if (moved != null && !isAncestor(oldNode, moved))
+                    moved.getParentNode().removeChild(moved);
+            }
+        }
+
+        // the entry of a group does not contain its members, which stay
+        if (oldNode != null && GROUP_NODE_NAME.equals(entry.nodeName))
+        {
+            moveMembers(oldNode, newNode, SUBGROUPS_NODE_NAME);
+            moveMembers(oldNode, newNode, CHILD_CONTACTS_NODE_NAME);
+        }
+
+        if (oldNode != null && oldNode.getParentNode() == container)
+            container.replaceChild(newNode, oldNode);
+        else
+        {
+            if (oldNode != null)
+                oldNode.getParentNode().removeChild(oldNode);
+            container.appendChild(newNode);
+        }
+
+        indexNodes(newNode);
+    }
+
+    /**
+     * Moves the subgroups or child meta contacts of the previous node of a
+     * group to its new node, except for those the new node already contains.
+     *
+     * @param oldNode the previous node of the group
+     * @param newNode the new node of the group
+     * @param containerName the name of the node containing the members to
+     *        move
+     */
+    private static void moveMembers(Element oldNode, Element newNode,
+                                    String containerName)
+    {
+        Element oldContainer = XMLUtils.findChild(oldNode, containerName);
+        Element newContainer = XMLUtils.findChild(newNode, containerName);
+
+        if (oldContainer == null || newContainer == null)
+            return;
+
+        Node member = oldContainer.getFirstChild();
+
+        while (member != null)
+        {
+            Node next = member.getNextSibling();
+
+            if (member instanceof Element
+                && XMLUtils.locateElement(newContainer, member.getNodeName(),
+                        UID_ATTR_NAME,
+                        ((Element) member).getAttribute(UID_ATTR_NAME))
+                    == null)
+            {
+                newContainer.appendChild(member);
+            }
+            member = next;
+        }
+    }
+
+    /**
+     * Determines whether a node is an ancestor of another one or the node
+     * itself.
+     *
+     * @param ancestor the possible ancestor, may be null
+     * @param node the node
+     * @return true if <tt>ancestor</tt> is <tt>node</tt> or one of its
+     *         ancestors.
+     */
+    private static boolean isAncestor(Node ancestor, Node node)
+    {
+        if (ancestor == null)
+            return false;
+
+        while (node != null && node != ancestor)
+            node = node.getParentNode();
+
+        return node != null;
+    }
+}
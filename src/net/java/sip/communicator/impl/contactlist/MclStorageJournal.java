@@ -0,0 +1,301 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * The journal of the changes made to the meta contact list since its XML file
+ * was last written by the <tt>MclStorageManager</tt>.
+ * <p>
+ * Every change is a delta replacing or removing the node of a single meta
+ * contact or meta contact group, identified by its UID. The node of a group
+ * is journaled without its subgroups and child meta contacts, which have
+ * entries of their own when they change. Deltas are appended
+ * as CRC-checked entries and forced to disk in batches. When the journal
+ * grows too large the manager writes the whole contact list again and resets
+ * the journal. If the application stops before that, the deltas are replayed
+ * over the XML file on the next start. Replaying a delta more than once has
+ * no further effect, so a journal which has not been reset after the XML
+ * file has been written is harmless.
+ */
+public class MclStorageJournal
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>MclStorageJournal</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MclStorageJournal.class);
+
+    /**
+     * The operation of an entry replacing the node of a meta contact or a
+     * meta contact group, or adding it if it does not exist.
+     */
+    static final byte PUT = 1;
+
+    /**
+     * The operation of an entry removing the node of a meta contact or a meta
+     * contact group.
+     */
+    static final byte REMOVE = 2;
+
+    /**
+     * The size of the journal below which it is never compacted. Above it
+     * the journal is compacted once it is larger than the contact list file.
+     */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * The channel to the journal file, opened on first append.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * Creates the journal stored in the given file.
+     *
+     * @param file the journal file
+     */
+    public MclStorageJournal(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Appends entries to the journal and waits for them to be on disk.
+     *
+     * @param entries the entries to append
+     * @throws IOException if writing to the journal fails
+     */
+    public synchronized void append(List<Entry> entries)
+        throws IOException
+    {
+        if (entries.isEmpty())
+            return;
+
+        if (channel == null)
+        {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.position(channel.size());
+        }
+
+        for (Entry entry : entries)
+        {
+            ByteBuffer frame = CrcFrames.frame(entry.encode());
+
+            while (frame.hasRemaining())
+                channel.write(frame);
+        }
+
+        channel.force(false);
+    }
+
+    /**
+     * Reads the entries of the journal, stopping at the first torn entry.
+     *
+     * @return the entries of the journal
+     */
+    public synchronized List<Entry> read()
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        if (!file.exists())
+            return entries;
+
+        try
+        {
+            DataInputStream in
+                = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                byte[] bytes;
+
+                while ((bytes = CrcFrames.readFrame(in)) != null)
+                    entries.add(Entry.decode(bytes));
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read contact list journal " + file, e);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the size of the journal.
+     *
+     * @return the size in bytes of the journal file
+     */
+    public synchronized long size()
+    {
+        return file.length();
+    }
+
+    /**
+     * Determines whether the journal has grown large enough for the contact
+     * list to be written as a whole, i.e. compacted, rather than journaled.
+     *
+     * @param contactListLength the size in bytes of the contact list file
+     * @return <tt>true</tt> if the journal is to be compacted; otherwise,
+     * <tt>false</tt>
+     */
+    public synchronized boolean isCompactionDue(long contactListLength)
+    {
+        return
+            file.length() >= Math.max(MIN_COMPACTION_SIZE, contactListLength);
+    }
+
+    /**
+     * Empties the journal once the contact list has been written.
+     *
+     * @throws IOException if truncating the journal fails
+     */
+    public synchronized void reset()
+        throws IOException
+    {
+        if (channel != null)
+        {
+            channel.truncate(0);
+            channel.position(0);
+        }
+        else if (file.exists() && !file.delete())
+        {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Closes the journal file.
+     */
+    public synchronized void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Failed to close " + file, e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * A change to the node of a meta contact or meta contact group.
+     */
+    public static class Entry
+    {
+        /**
+         * Either {@link MclStorageJournal#PUT} or
+         * {@link MclStorageJournal#REMOVE}.
+         */
+        final byte operation;
+
+        /**
+         * The name of the changed node.
+         */
+        final String nodeName;
+
+        /**
+         * The UID of the meta contact or meta contact group.
+         */
+        final String uid;
+
+        /**
+         * The UID of the meta contact group the node belongs to or
+         * <tt>null</tt> for the root group and for removals.
+         */
+        final String parentUID;
+
+        /**
+         * The XML of the node or <tt>null</tt> for removals.
+         */
+        final String xml;
+
+        Entry(byte operation,
+              String nodeName,
+              String uid,
+              String parentUID,
+              String xml)
+        {
+            this.operation = operation;
+            this.nodeName = nodeName;
+            this.uid = uid;
+            this.parentUID = parentUID;
+            this.xml = xml;
+        }
+
+        /**
+         * Serializes the entry.
+         *
+         * @return the bytes of the entry
+         * @throws IOException never
+         */
+        byte[] encode()
+            throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(operation);
+            out.writeUTF(nodeName);
+            out.writeUTF(uid);
+            out.writeUTF((parentUID == null) ? "" : parentUID);
+            CrcFrames.writeString(out, (xml == null) ? "" : xml);
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Deserializes an entry.
+         *
+         * @param bytes the bytes of the entry
+         * @return the entry
+         * @throws IOException if the entry is malformed
+         */
+        static Entry decode(byte[] bytes)
+            throws IOException
+        {
+            DataInputStream in
+                = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte operation = in.readByte();
+            String nodeName = in.readUTF();
+            String uid = in.readUTF();
+            String parentUID = in.readUTF();
+            String xml = CrcFrames.readString(in);
+
+            return
+                new Entry(
+                        operation,
+                        nodeName,
+                        uid,
+                        (parentUID.length() == 0) ? null : parentUID,
+                        (xml.length() == 0) ? null : xml);
+        }
+    }
+}
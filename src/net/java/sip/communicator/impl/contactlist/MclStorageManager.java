@@ -38,6 +38,12 @@ import org.w3c.dom.*;
  * provider. Unresolved proto groups and contacts will be created for every one
  * of them.
  * <p>
+ * Once the contact list file has been read, changes are not written by
+ * rewriting the whole file. The nodes of the changed meta contacts and groups
+ * are appended to a {@link MclStorageJournal} and the file is only rewritten
+ * (compacted) when the journal grows larger than the file itself. Nodes are
+ * looked up by UID through an index rather than by walking the document.
+ * <p>
  *
  * @author Emil Ivov
  */
@@ -113,13 +119,13 @@ public class MclStorageManager
     /**
      * The name of the XML node corresponding to a meta contact group.
      */
-    private static final String GROUP_NODE_NAME = "group";
+    static final String GROUP_NODE_NAME = "group";
 
     /**
      * The name of the XML node corresponding to a collection of meta contact
      * subgroups.
      */
-    private static final String SUBGROUPS_NODE_NAME = "subgroups";
+    static final String SUBGROUPS_NODE_NAME = "subgroups";
 
     /**
      * The name of the XML attribute that contains group names.
@@ -146,7 +152,7 @@ public class MclStorageManager
     /**
      * The name of the XML attribute that contains unique identifiers
      */
-    private static final String UID_ATTR_NAME = "uid";
+    static final String UID_ATTR_NAME = "uid";
 
     /**
      * The name of the XML attribute that contains unique identifiers for parent
@@ -164,7 +170,7 @@ public class MclStorageManager
     /**
      * The name of the XML node that contains meta contact details.
      */
-    private static final String META_CONTACT_NODE_NAME = "meta-contact";
+    static final String META_CONTACT_NODE_NAME = "meta-contact";
 
     /**
      * The name of the XML node that contains meta contact display names.
@@ -215,7 +221,7 @@ public class MclStorageManager
      * The name of the XML node that contains all meta contact nodes inside a
      * group
      */
-    private static final String CHILD_CONTACTS_NODE_NAME = "child-contacts";
+    static final String CHILD_CONTACTS_NODE_NAME = "child-contacts";
 
     /**
      * A lock that we use when storing the contact list to avoid being exited
@@ -223,6 +229,39 @@ public class MclStorageManager
      */
     private static final Object contactListRWLock = new Object();
 
+    /**
+     * The suffix appended to the name of the contact list file to get the
+     * name of its journal file.
+     */
+    private static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+    /**
+     * The journal of the changes made since the contact list file was last
+     * written.
+     */
+    private MclStorageJournal journal = null;
+
+    /**
+     * The index of the meta contact and meta contact group nodes of
+     * {@link #contactListDocument}.
+     */
+    private MclStorageDocument storageDocument = null;
+
+    /**
+     * The UIDs of the meta contacts and groups changed since the journal was
+     * last written, mapped to the names of their nodes, the most recently
+     * changed last. Guarded by <tt>contactListRWLock</tt>.
+     */
+    private final Map<String, String> changedNodes
+        = new LinkedHashMap<String, String>();
+
+    /**
+     * Indicates whether the whole contact list has to be written rather than
+     * journaled, e.g. because it has been changed without events telling
+     * which nodes changed. Guarded by <tt>contactListRWLock</tt>.
+     */
+    private boolean isCompactionNeeded = false;
+
     /**
      * Determines whether the storage manager has been properly started or in
      * other words that it has successfully found and read the xml contact list
@@ -325,6 +364,10 @@ public class MclStorageManager
             logger.error("The contactlist file can't be found", e);
         }
 
+        journal
+            = new MclStorageJournal(
+                    new File(contactlistFile.getPath() + JOURNAL_FILE_SUFFIX));
+
         try
         {
             // load the contact list
@@ -335,6 +378,7 @@ public class MclStorageManager
             {
                 // if the contact list does not exist - create it.
                 contactListDocument = builder.newDocument();
+                storageDocument = new MclStorageDocument(contactListDocument);
                 initVirginDocument(mclServImpl, contactListDocument);
 
                 // write the contact list so that it is there for the parser
@@ -345,6 +389,8 @@ public class MclStorageManager
                 try
                 {
                     contactListDocument = builder.parse(contactlistFile);
+                    storageDocument
+                        = new MclStorageDocument(contactListDocument);
                 }
                 catch (Throwable ex)
                 {
@@ -355,12 +401,17 @@ public class MclStorageManager
                     contactlistFile.delete();
                     contactlistFile.createNewFile();
                     contactListDocument = builder.newDocument();
+                    storageDocument
+                        = new MclStorageDocument(contactListDocument);
                     initVirginDocument(mclServImpl, contactListDocument);
 
                     // write the contact list so that it is there for the parser
                     storeContactList0();
                 }
             }
+
+            // apply the changes which did not make it to the file
+            replayJournal(builder);
         }
         catch (ParserConfigurationException ex)
         {
@@ -387,11 +438,139 @@ public class MclStorageManager
             if (!isStarted())
                 return;
 
+            this.isCompactionNeeded = true;
+            this.isModified = true;
+            contactListRWLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stores the changes made to the node of a meta contact or meta contact
+     * group.
+     *
+     * @param nodeName the name of the changed node
+     * @param uid the UID of the changed meta contact or meta contact group
+     * @throws IOException if writing fails.
+     */
+    private void scheduleContactListStorage(String nodeName, String uid)
+        throws IOException
+    {
+        synchronized (contactListRWLock)
+        {
+            if (!isStarted())
+                return;
+
+            // keep the most recently changed node last, so that its parent,
+            // if changed too, is journaled before it
+            changedNodes.remove(uid);
+            changedNodes.put(uid, nodeName);
+
             this.isModified = true;
             contactListRWLock.notifyAll();
         }
     }
 
+    /**
+     * Stores the changes made to a subtree of the contact list rooted at the
+     * node of a meta contact group which has been added or recreated.
+     *
+     * @param oldNodes the meta contact and meta contact group nodes of the
+     *        subtree before the change, if any
+     * @param groupNode the node of the meta contact group
+     * @throws IOException if writing fails.
+     */
+    private void scheduleGroupStorage(List<Element> oldNodes,
+                                      Element groupNode)
+        throws IOException
+    {
+        List<Element> newNodes = new ArrayList<Element>();
+        Set<String> newUIDs = new HashSet<String>();
+
+        collectNodes(groupNode, newNodes);
+        for (Element node : newNodes)
+            newUIDs.add(node.getAttribute(UID_ATTR_NAME));
+
+        // the nodes which left the subtree are removed or moved elsewhere
+        for (Element node : oldNodes)
+        {
+            String uid = node.getAttribute(UID_ATTR_NAME);
+
+            if (!newUIDs.contains(uid))
+                scheduleContactListStorage(node.getNodeName(), uid);
+        }
+
+        // groups before their members, which their entries do not contain
+        for (Element node : newNodes)
+        {
+            scheduleContactListStorage(node.getNodeName(),
+                node.getAttribute(UID_ATTR_NAME));
+        }
+    }
+
+    /**
+     * Collects the nodes of a meta contact group, of its child meta contacts
+     * and, recursively, of its subgroups, each group before its members.
+     *
+     * @param groupNode the node of the meta contact group
+     * @param nodes the list to add the nodes to
+     */
+    private static void collectNodes(Element groupNode, List<Element> nodes)
+    {
+        nodes.add(groupNode);
+
+        Element childContacts
+            = XMLUtils.findChild(groupNode, CHILD_CONTACTS_NODE_NAME);
+
+        if (childContacts != null)
+        {
+            nodes.addAll(
+                XMLUtils.findChildren(childContacts, META_CONTACT_NODE_NAME));
+        }
+
+        Element subgroups = XMLUtils.findChild(groupNode, SUBGROUPS_NODE_NAME);
+
+        if (subgroups != null)
+        {
+            for (Element subgroup
+                    : XMLUtils.findChildren(subgroups, GROUP_NODE_NAME))
+                collectNodes(subgroup, nodes);
+        }
+    }
+
+    /**
+     * Appends the nodes changed since the last time to the journal or, if the
+     * journal has grown too large, writes the whole contact list.
+     *
+     * @throws IOException in case writing fails.
+     */
+    private void storeContactListChanges() throws IOException
+    {
+        if (!isCompactionNeeded
+                && !journal.isCompactionDue(contactlistFile.length()))
+        {
+            List<MclStorageJournal.Entry> entries
+                = new ArrayList<MclStorageJournal.Entry>(changedNodes.size());
+
+            for (Map.Entry<String, String> e : changedNodes.entrySet())
+                entries.add(
+                    storageDocument.createJournalEntry(
+                        e.getValue(), e.getKey()));
+
+            try
+            {
+                journal.append(entries);
+                changedNodes.clear();
+                return;
+            }
+            catch (IOException ex)
+            {
+                logger.error("Failed to journal contact list changes", ex);
+            }
+        }
+
+        storeContactList0();
+    }
+
     /**
      * Writes the contact list on the hard disk.
      *
@@ -431,6 +610,11 @@ public class MclStorageManager
             {
                 logger.error("the contactlist file is missing", e);
             }
+
+            // the file now holds all the changes
+            changedNodes.clear();
+            isCompactionNeeded = false;
+            journal.reset();
         }
     }
 
@@ -454,7 +638,7 @@ public class MclStorageManager
                             contactListRWLock.wait(5000);
                             if (isModified)
                             {
-                                storeContactList0();
+                                storeContactListChanges();
                                 isModified = false;
                             }
                         }
@@ -500,6 +684,7 @@ public class MclStorageManager
                 logger
                     .debug("Failed to store contact list before stopping", ex);
             }
+            journal.close();
         }
     }
 
@@ -610,6 +795,7 @@ public class MclStorageManager
                     DocumentBuilderFactory.newInstance();
                 DocumentBuilder builder = factory.newDocumentBuilder();
                 contactListDocument = builder.newDocument();
+                storageDocument = new MclStorageDocument(contactListDocument);
 
                 initVirginDocument(mclServiceImpl, contactListDocument);
 
@@ -1122,6 +1308,7 @@ public class MclStorageManager
 
         metaContactElement
             .setAttribute(UID_ATTR_NAME, metaContact.getMetaUID());
+        storageDocument.indexNodes(metaContactElement);
 
         // create the display name node
         Element displayNameNode =
@@ -1166,6 +1353,7 @@ public class MclStorageManager
             .getGroupName());
 
         metaGroupElement.setAttribute(UID_ATTR_NAME, metaGroup.getMetaUID());
+        storageDocument.indexNodes(metaGroupElement);
 
         // create and fill the proto groups node
         Element protoGroupsElement =
@@ -1254,7 +1442,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1308,7 +1497,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleGroupStorage(new ArrayList<Element>(), newGroupElement);
         }
         catch (IOException ex)
         {
@@ -1347,7 +1536,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(GROUP_NODE_NAME,
+                evt.getSourceMetaContactGroup().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1406,7 +1596,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1492,7 +1683,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1547,7 +1739,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1587,7 +1780,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1733,7 +1927,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getSourceMetaContact().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1775,7 +1970,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getOldParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1834,7 +2030,9 @@ public class MclStorageManager
             // to make things simple, we'll remove the existing meta contact
             // group node and re-create it according to its current state.
             Node parentNode = mcGroupNode.getParentNode();
+            List<Element> oldNodes = new ArrayList<Element>();
 
+            collectNodes(mcGroupNode, oldNodes);
             parentNode.removeChild(mcGroupNode);
 
             Element newGroupElement = createMetaContactGroupNode(mcGroup);
@@ -1843,7 +2041,8 @@ public class MclStorageManager
 
             try
             {
-                scheduleContactListStorage();
+                scheduleGroupStorage(oldNodes, newGroupElement);
+                return;
             }
             catch (IOException ex)
             {
@@ -1866,7 +2065,7 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(GROUP_NODE_NAME, mcGroup.getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1908,7 +2107,8 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1966,7 +2166,10 @@ public class MclStorageManager
 
         try
         {
-            scheduleContactListStorage();
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getOldParent().getMetaUID());
+            scheduleContactListStorage(META_CONTACT_NODE_NAME,
+                evt.getNewParent().getMetaUID());
         }
         catch (IOException ex)
         {
@@ -1992,10 +2195,7 @@ public class MclStorageManager
      */
     private Element findMetaContactNode(String metaContactUID)
     {
-        Element root = (Element) contactListDocument.getFirstChild();
-
-        return XMLUtils.locateElement(root, META_CONTACT_NODE_NAME,
-            UID_ATTR_NAME, metaContactUID);
+        return storageDocument.findNode(META_CONTACT_NODE_NAME, metaContactUID);
     }
 
     /**
@@ -2010,10 +2210,31 @@ public class MclStorageManager
      */
     private Element findMetaContactGroupNode(String metaContactGroupUID)
     {
-        Element root = (Element) contactListDocument.getFirstChild();
+        return storageDocument.findNode(GROUP_NODE_NAME, metaContactGroupUID);
+    }
 
-        return XMLUtils.locateElement(root, GROUP_NODE_NAME, UID_ATTR_NAME,
-            metaContactGroupUID);
+    /**
+     * Applies the changes left in the journal by a previous run to the
+     * document and schedules the compaction of the journal.
+     *
+     * @param builder the builder parsing the nodes of the journal
+     */
+    private void replayJournal(DocumentBuilder builder)
+    {
+        List<MclStorageJournal.Entry> entries = journal.read();
+
+        if (entries.isEmpty())
+            return;
+
+        storageDocument.replay(builder, entries);
+
+        if (logger.isInfoEnabled())
+            logger.info("Replayed " + entries.size()
+                + " contact list changes from the journal");
+
+        // the storage thread writes the replayed changes to the file
+        isCompactionNeeded = true;
+        isModified = true;
     }
 
     /**
@@ -2022,6 +2243,15 @@ public class MclStorageManager
     void removeContactListFile()
     {
         this.contactlistFile.delete();
+
+        try
+        {
+            journal.reset();
+        }
+        catch (IOException ex)
+        {
+            logger.error("Failed to remove the contact list journal", ex);
+        }
     }
 
     /**
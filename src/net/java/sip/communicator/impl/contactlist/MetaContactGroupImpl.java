@@ -429,10 +429,11 @@ public class MetaContactGroupImpl
             MetaContactGroupImpl mGroup
                 = (MetaContactGroupImpl) groupsIter.next();
 
-            if (metaUID.equals(mGroup.getMetaUID()))
-                return mGroup;
-            else
-                mGroup.findMetaContactByMetaUID(metaUID);
+            MetaContactGroup foundGroup
+                = mGroup.findMetaContactGroupByMetaUID(metaUID);
+
+            if (foundGroup != null)
+                return foundGroup;
         }
 
         return null;
@@ -699,6 +700,7 @@ public class MetaContactGroupImpl
         metaContact.setParentGroup(this);
 
         lightAddMetaContact(metaContact);
+        mclServiceImpl.getIndex().add(metaContact);
     }
 
     /**
@@ -756,6 +758,7 @@ public class MetaContactGroupImpl
     {
         metaContact.unsetParentGroup(this);
         lightRemoveMetaContact(metaContact);
+        mclServiceImpl.getIndex().remove(metaContact);
     }
 
     /**
@@ -965,6 +968,8 @@ public class MetaContactGroupImpl
 
         this.subgroupsOrderedCopy =
             new LinkedList<MetaContactGroup>(subgroups);
+
+        mclServiceImpl.getIndex().add((MetaContactGroupImpl) subgroup);
     }
 
     /**
@@ -982,6 +987,8 @@ public class MetaContactGroupImpl
 
         subgroupsOrderedCopy = new LinkedList<MetaContactGroup>(subgroups);
 
+        mclServiceImpl.getIndex().remove(subgroup);
+
         return subgroup;
     }
 
@@ -993,7 +1000,17 @@ public class MetaContactGroupImpl
      */
     boolean removeSubgroup(MetaContactGroup group)
     {
-        return subgroups.remove(group);
+        MetaContactGroupImpl subgroup = (MetaContactGroupImpl) group;
+
+        if (!subgroups.remove(subgroup))
+            return false;
+
+        subgroup.parentMetaContactGroup = null;
+        subgroupsOrderedCopy = new LinkedList<MetaContactGroup>(subgroups);
+
+        mclServiceImpl.getIndex().remove(subgroup);
+
+        return true;
     }
 
     /**
@@ -721,7 +721,10 @@ public class MetaContactImpl
             }
 
             if (parentGroup != null)
+            {
                 parentGroup.lightAddMetaContact(this);
+                parentGroup.getMclServiceImpl().getIndex().add(this, contact);
+            }
 
             ProtocolProviderService contactProvider
                 = contact.getProtocolProvider();
@@ -814,7 +817,11 @@ public class MetaContactImpl
             }
 
             if (parentGroup != null)
+            {
                 parentGroup.lightAddMetaContact(this);
+                parentGroup.getMclServiceImpl().getIndex().remove(
+                        this, contact);
+            }
 
             ProtocolProviderService contactProvider
                 = contact.getProtocolProvider();
@@ -854,6 +861,7 @@ public class MetaContactImpl
             if (contact.getProtocolProvider() == provider)
             {
                 contactsIter.remove();
+                unindex(contact);
                 modified = true;
             }
         }
@@ -887,6 +895,7 @@ public class MetaContactImpl
             if (contact.getParentContactGroup() == protoGroup)
             {
                 contactsIter.remove();
+                unindex(contact);
                 modified = true;
             }
         }
@@ -901,6 +910,20 @@ public class MetaContactImpl
     }
 
 
+    /**
+     * Removes a protocol contact which is no longer encapsulated by this meta
+     * contact from the index of the contact list.
+     *
+     * @param contact the removed protocol contact
+     */
+    private void unindex(Contact contact)
+    {
+        MetaContactGroupImpl parentGroup = this.parentGroup;
+
+        if (parentGroup != null)
+            parentGroup.getMclServiceImpl().getIndex().remove(this, contact);
+    }
+
     /**
      * Sets <tt>parentGroup</tt> as a parent of this meta contact. Do not
      * call this method with a null argument even if a group is removing
@@ -0,0 +1,395 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Maps the UIDs of the meta contacts and meta contact groups of a
+ * <tt>MetaContactListServiceImpl</tt>, and the addresses of the protocol
+ * contacts they encapsulate, to the meta contacts and groups, so that they are
+ * found without walking the whole contact list.
+ * <p>
+ * The index is updated by <tt>MetaContactGroupImpl</tt> and
+ * <tt>MetaContactImpl</tt> as they add and remove children, so everything in
+ * the list is indexed. An entry may outlive its meta contact for a moment,
+ * e.g. while it is being moved to another group, therefore every hit is
+ * checked against the list before it is returned. A hit which is not in the
+ * list any more is removed and, like a miss, answered by searching the list
+ * the old way. What the search finds is indexed again, so the index never
+ * answers differently from the list itself.
+ */
+public class MetaContactListIndex
+{
+    /**
+     * The root group of the indexed contact list.
+     */
+    private final MetaContactGroupImpl rootGroup;
+
+    /**
+     * The meta contacts by UID.
+     */
+    private final ConcurrentMap<String, MetaContactImpl> contactsByUID
+        = new ConcurrentHashMap<String, MetaContactImpl>();
+
+    /**
+     * The meta contact groups by UID.
+     */
+    private final ConcurrentMap<String, MetaContactGroupImpl> groupsByUID
+        = new ConcurrentHashMap<String, MetaContactGroupImpl>();
+
+    /**
+     * The meta contacts by the unique ID of the account and the address of
+     * the protocol contacts they encapsulate.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, MetaContactImpl>>
+        contactsByAddress
+            = new ConcurrentHashMap<String,
+                    ConcurrentMap<String, MetaContactImpl>>();
+
+    /**
+     * Creates the index of the contact list with the given root group.
+     *
+     * @param rootGroup the root group of the contact list
+     */
+    MetaContactListIndex(MetaContactGroupImpl rootGroup)
+    {
+        this.rootGroup = rootGroup;
+
+        add(rootGroup);
+    }
+
+    /**
+     * Indexes a meta contact group together with its subgroups and the meta
+     * contacts they contain.
+     *
+     * @param group the group
+     */
+    void add(MetaContactGroupImpl group)
+    {
+        groupsByUID.put(group.getMetaUID(), group);
+
+        Iterator<MetaContact> contacts = group.getChildContacts();
+
+        while (contacts.hasNext())
+            add((MetaContactImpl) contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            add((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Removes a meta contact group together with its subgroups and the meta
+     * contacts they contain from the index.
+     *
+     * @param group the group
+     */
+    void remove(MetaContactGroupImpl group)
+    {
+        groupsByUID.remove(group.getMetaUID(), group);
+
+        Iterator<MetaContact> contacts = group.getChildContacts();
+
+        while (contacts.hasNext())
+            remove((MetaContactImpl) contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            remove((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Indexes a meta contact and the protocol contacts it encapsulates.
+     *
+     * @param metaContact the meta contact
+     */
+    void add(MetaContactImpl metaContact)
+    {
+        contactsByUID.put(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> protoContacts = metaContact.getContacts();
+
+        while (protoContacts.hasNext())
+            add(metaContact, protoContacts.next());
+    }
+
+    /**
+     * Removes a meta contact and the protocol contacts it encapsulates from
+     * the index.
+     *
+     * @param metaContact the meta contact
+     */
+    void remove(MetaContactImpl metaContact)
+    {
+        contactsByUID.remove(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> protoContacts = metaContact.getContacts();
+
+        while (protoContacts.hasNext())
+            remove(metaContact, protoContacts.next());
+    }
+
+    /**
+     * Indexes a protocol contact encapsulated by a meta contact.
+     *
+     * @param metaContact the meta contact
+     * @param protoContact the protocol contact
+     */
+    void add(MetaContactImpl metaContact, Contact protoContact)
+    {
+        String accountID = getAccountID(protoContact.getProtocolProvider());
+        ConcurrentMap<String, MetaContactImpl> contacts
+            = contactsByAddress.get(accountID);
+
+        if (contacts == null)
+        {
+            ConcurrentMap<String, MetaContactImpl> newContacts
+                = new ConcurrentHashMap<String, MetaContactImpl>();
+
+            contacts = contactsByAddress.putIfAbsent(accountID, newContacts);
+            if (contacts == null)
+                contacts = newContacts;
+        }
+        contacts.put(protoContact.getAddress(), metaContact);
+    }
+
+    /**
+     * Removes a protocol contact encapsulated by a meta contact from the
+     * index.
+     *
+     * @param metaContact the meta contact
+     * @param protoContact the protocol contact
+     */
+    void remove(MetaContactImpl metaContact, Contact protoContact)
+    {
+        ConcurrentMap<String, MetaContactImpl> contacts
+            = contactsByAddress.get(
+                    getAccountID(protoContact.getProtocolProvider()));
+
+        if (contacts != null)
+            contacts.remove(protoContact.getAddress(), metaContact);
+    }
+
+    /**
+     * Returns the meta contact with the given UID.
+     *
+     * @param metaUID the UID of the meta contact
+     * @return the meta contact with UID <tt>metaUID</tt> or <tt>null</tt> if
+     * there is no such meta contact in the list
+     */
+    MetaContact findMetaContactByMetaUID(String metaUID)
+    {
+        MetaContactImpl metaContact = contactsByUID.get(metaUID);
+
+        if (metaContact != null)
+        {
+            if (isInList(metaContact))
+                return metaContact;
+            contactsByUID.remove(metaUID, metaContact);
+        }
+
+        return reindex(rootGroup.findMetaContactByMetaUID(metaUID));
+    }
+
+    /**
+     * Returns the meta contact group with the given UID.
+     *
+     * @param metaUID the UID of the meta contact group
+     * @return the meta contact group with UID <tt>metaUID</tt> or
+     * <tt>null</tt> if there is no such group in the list
+     */
+    MetaContactGroup findMetaContactGroupByMetaUID(String metaUID)
+    {
+        MetaContactGroupImpl group = groupsByUID.get(metaUID);
+
+        if (group != null)
+        {
+            if (isInList(group))
+                return group;
+            groupsByUID.remove(metaUID, group);
+        }
+
+        MetaContactGroup foundGroup
+            = rootGroup.findMetaContactGroupByMetaUID(metaUID);
+
+        if (foundGroup instanceof MetaContactGroupImpl)
+            groupsByUID.put(metaUID, (MetaContactGroupImpl) foundGroup);
+        return foundGroup;
+    }
+
+    /**
+     * Returns the meta contact encapsulating a protocol contact, i.e. a
+     * contact with its address coming from its provider.
+     *
+     * @param protoContact the protocol contact
+     * @return the meta contact encapsulating <tt>protoContact</tt> or
+     * <tt>null</tt> if there is no such meta contact in the list
+     */
+    MetaContact findMetaContactByContact(Contact protoContact)
+    {
+        String address = protoContact.getAddress();
+        ProtocolProviderService provider = protoContact.getProtocolProvider();
+        ConcurrentMap<String, MetaContactImpl> contacts
+            = contactsByAddress.get(getAccountID(provider));
+        MetaContactImpl metaContact
+            = (contacts == null) ? null : contacts.get(address);
+
+        if (metaContact != null)
+        {
+            if (metaContact.getContact(address, provider) != null
+                    && isInList(metaContact))
+                return metaContact;
+            contacts.remove(address, metaContact);
+        }
+
+        return reindex(rootGroup.findMetaContactByContact(protoContact));
+    }
+
+    /**
+     * Returns the meta contact encapsulating a protocol contact with the
+     * given address and coming from the account with the given ID.
+     *
+     * @param contactAddress the address of the protocol contact
+     * @param accountID the unique ID of the account of the protocol contact
+     * @return the meta contact encapsulating the protocol contact or
+     * <tt>null</tt> if there is no such meta contact in the list
+     */
+    MetaContact findMetaContactByContact(String contactAddress,
+                                         String accountID)
+    {
+        ConcurrentMap<String, MetaContactImpl> contacts
+            = contactsByAddress.get(accountID);
+        MetaContactImpl metaContact
+            = (contacts == null) ? null : contacts.get(contactAddress);
+
+        if (metaContact != null)
+        {
+            if (metaContact.getContact(contactAddress, accountID) != null
+                    && isInList(metaContact))
+                return metaContact;
+            contacts.remove(contactAddress, metaContact);
+        }
+
+        return
+            reindex(
+                rootGroup.findMetaContactByContact(contactAddress, accountID));
+    }
+
+    /**
+     * Returns a copy of the index of the meta contacts by UID.
+     *
+     * @return the indexed meta contacts mapped to their UIDs
+     */
+    public Map<String, MetaContact> getMetaContactsByUID()
+    {
+        return new HashMap<String, MetaContact>(contactsByUID);
+    }
+
+    /**
+     * Returns a copy of the index of the meta contact groups by UID.
+     *
+     * @return the indexed meta contact groups mapped to their UIDs
+     */
+    public Map<String, MetaContactGroup> getMetaContactGroupsByUID()
+    {
+        return new HashMap<String, MetaContactGroup>(groupsByUID);
+    }
+
+    /**
+     * Returns a copy of the index of the meta contacts by the addresses of
+     * the protocol contacts they encapsulate.
+     *
+     * @return the indexed meta contacts mapped to the unique IDs of the
+     * accounts and the addresses of their protocol contacts, which are
+     * separated by a space
+     */
+    public Map<String, MetaContact> getMetaContactsByAddress()
+    {
+        Map<String, MetaContact> metaContacts
+            = new HashMap<String, MetaContact>();
+
+        for (Map.Entry<String, ConcurrentMap<String, MetaContactImpl>> e
+                : contactsByAddress.entrySet())
+        {
+            for (Map.Entry<String, MetaContactImpl> contact
+                    : e.getValue().entrySet())
+            {
+                metaContacts.put(
+                        e.getKey() + " " + contact.getKey(),
+                        contact.getValue());
+            }
+        }
+        return metaContacts;
+    }
+
+    /**
+     * Indexes again a meta contact found by searching the list, which the
+     * index missed.
+     *
+     * @param metaContact the meta contact found or <tt>null</tt>
+     * @return <tt>metaContact</tt>
+     */
+    private MetaContact reindex(MetaContact metaContact)
+    {
+        if (metaContact instanceof MetaContactImpl)
+            add((MetaContactImpl) metaContact);
+        return metaContact;
+    }
+
+    /**
+     * Determines whether a meta contact is in the indexed list.
+     *
+     * @param metaContact the meta contact
+     * @return <tt>true</tt> if <tt>metaContact</tt> belongs to a group in the
+     * list
+     */
+    private boolean isInList(MetaContactImpl metaContact)
+    {
+        MetaContactGroupImpl parentGroup = metaContact.getParentGroup();
+
+        return (parentGroup != null) && isInList(parentGroup);
+    }
+
+    /**
+     * Determines whether a meta contact group is in the indexed list.
+     *
+     * @param group the group
+     * @return <tt>true</tt> if <tt>group</tt> is the root group or one of its
+     * descendants
+     */
+    private boolean isInList(MetaContactGroupImpl group)
+    {
+        while (group != rootGroup)
+        {
+            MetaContactGroupImpl parentGroup
+                = (MetaContactGroupImpl) group.getParentMetaContactGroup();
+
+            if (parentGroup == null || !parentGroup.contains(group))
+                return false;
+            group = parentGroup;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the unique ID of the account of a protocol provider.
+     *
+     * @param provider the protocol provider
+     * @return the unique ID of the account of <tt>provider</tt>
+     */
+    private static String getAccountID(ProtocolProviderService provider)
+    {
+        return provider.getAccountID().getAccountUniqueID();
+    }
+}
@@ -114,6 +114,12 @@ public class MetaContactListServiceImpl
      */
     private final MclStorageManager storageManager = new MclStorageManager();
 
+    /**
+     * The index of the meta contacts and meta contact groups of this list by
+     * UID and by the addresses of their protocol contacts.
+     */
+    private final MetaContactListIndex index;
+
     /**
      * Creates an instance of this class.
      */
@@ -124,6 +130,19 @@ public class MetaContactListServiceImpl
                     this,
                     "RootMetaContactGroup",
                     "RootMetaContactGroup");
+        index = new MetaContactListIndex(rootMetaGroup);
+    }
+
+    /**
+     * Returns the index of the meta contacts and meta contact groups of this
+     * list, which the groups and the meta contacts keep up to date as they
+     * change.
+     *
+     * @return the index of this contact list
+     */
+    public MetaContactListIndex getIndex()
+    {
+        return index;
     }
 
     /**
@@ -1483,7 +1502,7 @@ public class MetaContactListServiceImpl
      */
     public MetaContact findMetaContactByContact(Contact contact)
     {
-        return rootMetaGroup.findMetaContactByContact(contact);
+        return index.findMetaContactByContact(contact);
     }
 
     /**
@@ -1506,8 +1525,7 @@ public class MetaContactListServiceImpl
     public MetaContact findMetaContactByContact(String contactAddress,
                                                 String accountID)
     {
-        return rootMetaGroup.findMetaContactByContact(contactAddress
-                                                      , accountID);
+        return index.findMetaContactByContact(contactAddress, accountID);
     }
 
     /**
@@ -1520,8 +1538,7 @@ public class MetaContactListServiceImpl
      */
     public MetaContact findMetaContactByMetaUID(String metaContactID)
     {
-
-        return rootMetaGroup.findMetaContactByMetaUID(metaContactID);
+        return index.findMetaContactByMetaUID(metaContactID);
     }
 
     /**
@@ -1535,7 +1552,7 @@ public class MetaContactListServiceImpl
      */
     public MetaContactGroup findMetaContactGroupByMetaUID(String metaGroupID)
     {
-        return rootMetaGroup.findMetaContactGroupByMetaUID(metaGroupID);
+        return index.findMetaContactGroupByMetaUID(metaGroupID);
     }
 
     /**
@@ -508,7 +508,10 @@ public class OneToOneCallPeerPanel
         }
         else
         {
-            this.peerImage = ImageUtils.getScaledRoundedIcon(image, 100, 100);
+            this.peerImage
+                = AvatarCache.getInstance().getAvatar(
+                    image, 100, 100,
+                    AvatarCache.Shape.ROUNDED);
 
             this.peerImage = getPhotoLabelIcon();
 
@@ -121,7 +121,10 @@ public class ReceivedCallDialog
                 byte[] image = CallManager.getPeerImage(peer);
 
                 if (image != null && image.length > 0)
-                    imageIcon = ImageUtils.getScaledRoundedIcon(image, 50, 50);
+                    imageIcon
+                        = AvatarCache.getInstance().getAvatar(
+                            image, 50, 50,
+                            AvatarCache.Shape.ROUNDED);
                 else
                     // Try to find an image in one of the available contact
                     // sources.
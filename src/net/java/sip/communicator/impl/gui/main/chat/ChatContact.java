@@ -8,6 +8,7 @@ package net.java.sip.communicator.impl.gui.main.chat;
 
 import javax.swing.*;
 
+import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.util.*;
 
 /**
@@ -111,10 +112,11 @@ public abstract class ChatContact<T>
         if ((this.avatar == null)
                 && (this.avatarBytes != null) && (this.avatarBytes.length > 0))
             this.avatar
-                    = ImageUtils.getScaledRoundedIcon(
+                    = AvatarCache.getInstance().getAvatar(
                             this.avatarBytes,
                             AVATAR_ICON_WIDTH,
-                            AVATAR_ICON_HEIGHT);
+                            AVATAR_ICON_HEIGHT,
+                            AvatarCache.Shape.ROUNDED);
         return this.avatar;
     }
 
@@ -12,8 +12,8 @@ import java.awt.event.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import java.util.Map.Entry;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
 import javax.swing.*;
@@ -29,7 +29,6 @@ import net.java.sip.communicator.impl.gui.main.chat.menus.*;
 import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.replacement.*;
-import net.java.sip.communicator.service.replacement.smilies.*;
 import net.java.sip.communicator.util.*;
 import net.java.sip.communicator.util.skin.*;
 import net.java.sip.communicator.util.swing.*;
@@ -70,6 +69,26 @@ public class ChatConversationPanel
      */
     private static final String START_PLAINTEXT_TAG = "<PLAINTEXT>";
 
+    /**
+     * The number of placeholders created for the previews of links, which
+     * gives each of them a distinct HTML id.
+     */
+    private static final AtomicLong previewPlaceholderCount = new AtomicLong();
+
+    /**
+     * The maximum number of messages kept in the document of a chat. Older
+     * ones are removed as new ones are appended and are paged back in from the
+     * history when the user scrolls up to them.
+     */
+    static final int MAX_WINDOW_MESSAGES = 200;
+
+    /**
+     * The number of messages the document of a chat may hold beyond
+     * {@link #MAX_WINDOW_MESSAGES} before the oldest ones are removed, so that
+     * they are removed a few at a time rather than one with each new message.
+     */
+    private static final int WINDOW_SLACK = MAX_WINDOW_MESSAGES / 10;
+
     /**
      * The regular expression (in the form of compiled <tt>Pattern</tt>) which
      * matches URLs for the purposed of turning them into links.
@@ -161,6 +180,33 @@ public class ChatConversationPanel
      */
     private boolean scrollToBottomIsPending = false;
 
+    /**
+     * Whether messages more recent than the last one in {@link #document} have
+     * been removed from it in order to page older ones in.
+     */
+    private boolean isTailEvicted = false;
+
+    /**
+     * The date of the last message which was in {@link #document} when the
+     * most recent messages were removed from it, i.e. the date up to which
+     * they are to be paged in again from the history.
+     */
+    private Date evictedTailEnd;
+
+    /**
+     * The messages appended while the most recent messages are removed from
+     * {@link #document}, as pairs of the message and its content type. They
+     * are appended once the most recent messages have been paged in again.
+     */
+    private final List<String[]> pendingMessages = new ArrayList<String[]>();
+
+    /**
+     * Run when a message is appended while the most recent messages are
+     * removed from {@link #document}, in order to page them in again, or
+     * <tt>null</tt>.
+     */
+    private Runnable tailLoader;
+
     /**
      * The implementation of the routine which scrolls {@link #chatTextPane} to its
      * bottom.
@@ -468,7 +514,8 @@ public class ChatConversationPanel
         String startHistoryDivTag
             = "<DIV identifier=\"" + msgID + "\" style=\"color:#707070;\">";
         String startSystemDivTag
-            = "<DIV identifier=\"systemMessage\" style=\"color:#627EB7;\">";
+            = "<DIV identifier=\"systemMessage\"" + dateAttr
+                + " style=\"color:#627EB7;\">";
         String endDivTag = "</DIV>";
 
         String startPlainTextTag;
@@ -708,6 +755,16 @@ public class ChatConversationPanel
     {
         synchronized (scrollToBottomRunnable)
         {
+            // the messages between the last one shown and the new one have
+            // been paged out, the new one is appended once they are back
+            if (isTailEvicted)
+            {
+                pendingMessages.add(new String[] { chatString, contentType });
+                if ((pendingMessages.size() == 1) && (tailLoader != null))
+                    SwingUtilities.invokeLater(tailLoader);
+                return;
+            }
+
             Element root = document.getDefaultRootElement();
 
 //          Need to call explicitly scrollToBottom, because for some
@@ -753,24 +810,231 @@ public class ChatConversationPanel
             else
                 elem = root.getElement(1);
 
-            /*
-             * Replacements will be processed only if it is enabled in the
-             * property
-             */
-            if (GuiActivator.getConfigurationService().getBoolean(
-                ReplacementProperty.REPLACEMENT_ENABLE, true)
-                || GuiActivator.getConfigurationService().getBoolean(
-                    ReplacementProperty.getPropertyName("SMILEY"), true))
-            {
+            if (isReplacementEnabled())
                 processReplacement(elem, chatString, contentType);
+        }
+    }
+
+    /**
+     * Inserts messages older than the first one in the document before it,
+     * keeping the message shown at the top of the viewport there. If the
+     * document then holds more than {@link #MAX_WINDOW_MESSAGES} messages, the
+     * most recent chat messages are removed from it, while the system, error
+     * and status messages and the file transfers, which cannot be paged in
+     * again, are kept in place.
+     *
+     * @param chatStrings the messages to insert, oldest first
+     * @param contentType the content type of the messages
+     */
+    public void insertMessagesAtStart(
+            List<String> chatStrings,
+            String contentType)
+    {
+        synchronized (scrollToBottomRunnable)
+        {
+            Element root = document.getDefaultRootElement();
+            int first = ChatDocumentPager.getNextEntryIndex(root, 0);
+
+            // at the top of the viewport, the first message is shown, not the
+            // ones inserted before it
+            ViewAnchor anchor
+                = new ViewAnchor(
+                    (first < 0)
+                        ? 0
+                        : root.getElement(first).getStartOffset() + 1);
+            boolean replacementEnabled = isReplacementEnabled();
+
+            // the most recent message first, each before the previous one
+            for (int i = chatStrings.size() - 1; i >= 0; i--)
+            {
+                String chatString = chatStrings.get(i);
+                Element elem;
+
+                try
+                {
+                    elem
+                        = ChatDocumentPager.insertAtStart(
+                            document, chatString);
+                }
+                catch (BadLocationException e)
+                {
+                    logger.error("Insert in the HTMLDocument failed.", e);
+                    continue;
+                }
+                catch (IOException e)
+                {
+                    logger.error("Insert in the HTMLDocument failed.", e);
+                    continue;
+                }
+
+                if (replacementEnabled)
+                    processReplacement(elem, chatString, contentType);
+            }
+
+            try
+            {
+                Date lastMsgDate = getPageLastMsgTimestamp();
+
+                if (ChatDocumentPager.removeNewest(
+                            document, MAX_WINDOW_MESSAGES)
+                        && !isTailEvicted)
+                {
+                    evictedTailEnd = lastMsgDate;
+                    isTailEvicted = true;
+                }
+            }
+            catch (BadLocationException e)
+            {
+                logger.error("Error removing messages from chat: ", e);
+            }
+
+            anchor.restore();
+        }
+    }
+
+    /**
+     * Appends messages more recent than the last one in the document after it
+     * when the most recent ones have been removed from it, keeping the message
+     * shown at the top of the viewport there. The messages are inserted before
+     * the more recent entries kept in place when they were removed. Once the
+     * most recent messages are back, the messages appended meanwhile are
+     * appended after them.
+     *
+     * @param chatStrings the messages to append, oldest first
+     * @param contentType the content type of the messages
+     * @param isLastPage <tt>true</tt> if <tt>chatStrings</tt> end with the
+     * most recent message
+     */
+    public void appendPageToEnd(
+            List<String> chatStrings,
+            String contentType,
+            boolean isLastPage)
+    {
+        synchronized (scrollToBottomRunnable)
+        {
+            ViewAnchor anchor = new ViewAnchor(0);
+            Element root = document.getDefaultRootElement();
+            boolean replacementEnabled = isReplacementEnabled();
+
+            for (String chatString : chatStrings)
+            {
+                Element elem;
+
+                try
+                {
+                    elem = ChatDocumentPager.appendPaged(document, chatString);
+                }
+                catch (BadLocationException e)
+                {
+                    logger.error("Insert in the HTMLDocument failed.", e);
+                    continue;
+                }
+                catch (IOException e)
+                {
+                    logger.error("Insert in the HTMLDocument failed.", e);
+                    continue;
+                }
+
+                if (replacementEnabled && (root.getElementCount() >= 2))
+                    processReplacement(elem, chatString, contentType);
+            }
+            isTailEvicted = !isLastPage;
+            ensureDocumentSize();
+
+            anchor.restore();
+
+            if (!isTailEvicted)
+            {
+                evictedTailEnd = null;
+
+                List<String[]> messages
+                    = new ArrayList<String[]>(pendingMessages);
+
+                pendingMessages.clear();
+                for (String[] message : messages)
+                    appendMessageToEnd(message[0], message[1]);
             }
         }
     }
 
+    /**
+     * Returns the date of the last message which was in the document when the
+     * most recent messages were removed from it, i.e. the date up to which
+     * they are to be paged in again.
+     *
+     * @return the date up to which the most recent messages are to be paged in
+     * again or <tt>null</tt> if they have not been removed
+     */
+    public Date getEvictedTailEnd()
+    {
+        synchronized (scrollToBottomRunnable)
+        {
+            return isTailEvicted ? evictedTailEnd : null;
+        }
+    }
+
+    /**
+     * Determines whether messages have been appended while the most recent
+     * ones are removed from the document, and wait for them to be paged in
+     * again.
+     *
+     * @return <tt>true</tt> if messages wait for the most recent ones to be
+     * paged in again; otherwise, <tt>false</tt>
+     */
+    public boolean hasPendingMessages()
+    {
+        synchronized (scrollToBottomRunnable)
+        {
+            return !pendingMessages.isEmpty();
+        }
+    }
+
+    /**
+     * Sets the routine which pages the most recent messages in again when a
+     * message is appended while they are removed from the document. It is run
+     * on the event dispatch thread and is to call
+     * {@link #appendPageToEnd(List, String, boolean)}.
+     *
+     * @param tailLoader the routine which pages the most recent messages in
+     * again
+     */
+    public void setTailLoader(Runnable tailLoader)
+    {
+        this.tailLoader = tailLoader;
+    }
+
+    /**
+     * Determines whether messages more recent than the last one in the
+     * document have been removed from it in order to page older ones in.
+     *
+     * @return <tt>true</tt> if the most recent messages are to be paged in
+     * again with {@link #appendPageToEnd(List, String, boolean)}; otherwise,
+     * <tt>false</tt>
+     */
+    public boolean isTailEvicted()
+    {
+        return isTailEvicted;
+    }
+
+    /**
+     * Determines whether replacements are to be processed in the messages.
+     *
+     * @return <tt>true</tt> if replacements are enabled; otherwise,
+     * <tt>false</tt>
+     */
+    private boolean isReplacementEnabled()
+    {
+        return
+            GuiActivator.getConfigurationService().getBoolean(
+                    ReplacementProperty.REPLACEMENT_ENABLE, true)
+                || GuiActivator.getConfigurationService().getBoolean(
+                    ReplacementProperty.getPropertyName("SMILEY"), true);
+    }
+
     /**
     * Formats the given message. Processes the messages and replaces links to
     * video/image sources with their previews or any other substitution. Spawns
-    * a separate thread for replacement.
+    * a separate thread for replacement if the message has any.
     * 
     * @param elem the element in the HTML Document.
     * @param chatString the message.
@@ -779,115 +1043,109 @@ public class ChatConversationPanel
                                     final String chatString,
                                     final String contentType)
     {
-       final String chatFinal = chatString;
+       final List<ChatReplacementEngine.Match> matches
+           = ChatReplacementEngine.getInstance().find(chatString);
+
+       if (matches.isEmpty())
+           return;
 
        SwingWorker worker = new SwingWorker()
        {
            public Object construct() throws Exception
            {
-               String temp = "", msgStore = chatFinal;
+               String startPlainTextTag = "";
+               String endPlainTextTag = "";
 
-               boolean isEnabled
-                   = GuiActivator.getConfigurationService().getBoolean(
-                       ReplacementProperty.REPLACEMENT_ENABLE, true);
-
-               Map<String, ReplacementService> listSources
-                   = GuiActivator.getReplacementSources();
-
-               Iterator<Entry<String, ReplacementService>> entrySetIter
-                   = listSources.entrySet().iterator();
-
-               for (int i = 0; i < listSources.size(); i++)
+               if (!HTML_CONTENT_TYPE.equals(contentType))
                {
-                   Map.Entry<String, ReplacementService> entry
-                       = entrySetIter.next();
-
-                   ReplacementService source = entry.getValue();
-
-                   boolean isSmiley
-                       = source instanceof SmiliesReplacementService;
-
-                   if (!(GuiActivator.getConfigurationService().getBoolean(
-                       ReplacementProperty.getPropertyName(source
-                       .getSourceName()), true) && (isEnabled || isSmiley)))
-                       continue;
+                   startPlainTextTag = START_PLAINTEXT_TAG;
+                   endPlainTextTag = END_PLAINTEXT_TAG;
+               }
 
-                   String sourcePattern = source.getPattern();
-                   Pattern p = Pattern.compile(sourcePattern,
-                                   Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+               int startPos = 0;
+               StringBuffer msgBuff = new StringBuffer(chatString.length());
+               List<PreviewPlaceholder> placeholders = null;
 
-                   Matcher m = p.matcher(msgStore);
+               for (ChatReplacementEngine.Match m : matches)
+               {
+                   msgBuff.append(chatString, startPos, m.start);
+                   startPos = m.end;
 
-                   String startPlainTextTag = "";
-                   String endPlainTextTag = "";
+                   PreviewPlaceholder placeholder
+                       = m.isSmiley() ? null : new PreviewPlaceholder();
+                   String temp
+                       = (placeholder == null)
+                           ? m.getReplacement()
+                           : m.getReplacement(placeholder);
 
-                   if (!HTML_CONTENT_TYPE.equals(contentType))
+                   if (temp == null)
                    {
-                       startPlainTextTag = START_PLAINTEXT_TAG;
-                       endPlainTextTag = END_PLAINTEXT_TAG;
+                       // the preview is being fetched, show that until the
+                       // placeholder is patched with it
+                       if (placeholders == null)
+                           placeholders = new ArrayList<PreviewPlaceholder>();
+                       placeholders.add(placeholder);
+
+                       URL loadingURL
+                           = GuiActivator.getResources().getImageURL(
+                               "service.gui.icons.CONNECTING");
+
+                       msgBuff.append("<IMG ID=\"");
+                       msgBuff.append(placeholder.id);
+                       msgBuff.append("\" HEIGHT=\"90\" WIDTH=\"120\" SRC=\"");
+                       if (loadingURL != null)
+                           msgBuff.append(loadingURL);
+                       msgBuff.append("\" BORDER=\"0\" ALT=\"");
+                       msgBuff.append(m.text);
+                       msgBuff.append("\"></IMG>");
                    }
-
-                   int count = 0, startPos = 0;
-                   StringBuffer msgBuff = new StringBuffer();
-
-                   while (m.find())
+                   else if(!temp.equals(m.text)
+                           || ChatReplacementEngine.DIRECT_IMAGE_SOURCE_NAME
+                               .equals(m.source.getSourceName()))
                    {
-                       count++;
-                       msgBuff.append(msgStore.substring(startPos, m.start()));
-                       startPos = m.end();
-
-                       temp = source.getReplacement(m.group());
-
-                       if(!temp.equals(m.group(0)) || source.getSourceName()
-                               .equals("DIRECTIMAGE"))
+                       if(m.isSmiley())
                        {
-                           if(isSmiley)
-                           {
-                               msgBuff.append(endPlainTextTag);
-                               msgBuff.append("<IMG SRC=\"");
-                           }
-                           else
-                           {
-                               msgBuff.append(
-                                   "<IMG HEIGHT=\"90\" WIDTH=\"120\" SRC=\"");
-                           }
-
-                           msgBuff.append(temp);
-                           msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                           msgBuff.append(m.group(0));
-                           msgBuff.append("\"></IMG>");
-
-                           if(isSmiley)
-                               msgBuff.append(startPlainTextTag);
+                           msgBuff.append(endPlainTextTag);
+                           msgBuff.append("<IMG SRC=\"");
                        }
                        else
                        {
                            msgBuff.append(
-                               msgStore.substring(m.start(), m.end()));
+                               "<IMG HEIGHT=\"90\" WIDTH=\"120\" SRC=\"");
                        }
-                   }
 
-                   msgBuff.append(msgStore.substring(startPos));
+                       msgBuff.append(temp);
+                       msgBuff.append("\" BORDER=\"0\" ALT=\"");
+                       msgBuff.append(m.text);
+                       msgBuff.append("\"></IMG>");
 
-                   /*
-                    * replace the msgStore variable with the current replaced
-                    * message before next iteration
-                    */
-                   if (!msgBuff.toString().equals(msgStore))
+                       if(m.isSmiley())
+                           msgBuff.append(startPlainTextTag);
+                   }
+                   else
                    {
-                       msgStore = msgBuff.toString();
+                       msgBuff.append(m.text);
                    }
                }
 
-               if (!msgStore.equals(chatFinal))
+               msgBuff.append(chatString, startPos, chatString.length());
+
+               String msgStore = msgBuff.toString();
+
+               if (!msgStore.equals(chatString))
                {
                    synchronized (scrollToBottomRunnable)
                    {
                        scrollToBottomIsPending = true;
-                       document.setOuterHTML(elem, msgStore.toString()
-                           .substring(msgStore.indexOf("<DIV")));
+                       document.setOuterHTML(elem,
+                           msgStore.substring(msgStore.indexOf("<DIV")));
                    }
                }
+               if (placeholders != null)
+               {
+                   for (PreviewPlaceholder placeholder : placeholders)
+                       placeholder.setInserted();
+               }
                return "";
            }
        };
@@ -895,74 +1153,241 @@ public class ChatConversationPanel
     }
 
     /**
-     * Ensures that the document won't become too big. When the document reaches
-     * a certain size the first message in the page is removed.
+     * An image standing for the preview of a link while it is fetched, patched
+     * with the preview once it is known, or replaced back with the link if
+     * there is none.
      */
-    private void ensureDocumentSize()
+    private class PreviewPlaceholder
+        implements ReplacementListener
     {
-        if (document.getLength() > Chat.CHAT_BUFFER_SIZE)
+        /**
+         * The HTML id of the placeholder image.
+         */
+        final String id = "preview" + previewPlaceholderCount.incrementAndGet();
+
+        /**
+         * Whether the placeholder image has been inserted in the document.
+         */
+        private boolean inserted = false;
+
+        /**
+         * The link.
+         */
+        private String sourceString;
+
+        /**
+         * The URL of the preview, the link if it has none or <tt>null</tt> if
+         * it is not known yet.
+         */
+        private String replacement;
+
+        /**
+         * Notes that the placeholder image has been inserted in the document
+         * and patches it if the preview is known already.
+         */
+        synchronized void setInserted()
         {
-            int msgElementCount = 0;
+            inserted = true;
+            if (replacement != null)
+                schedulePatch();
+        }
 
-            Element firstMsgElement = null;
+        /**
+         * Patches the placeholder image once it is in the document.
+         *
+         * @param sourceString the link
+         * @param replacement the URL of the preview or <tt>sourceString</tt> if
+         * it has none
+         */
+        public synchronized void replacementResolved(
+                String sourceString,
+                String replacement)
+        {
+            this.sourceString = sourceString;
+            this.replacement = replacement;
+            if (inserted)
+                schedulePatch();
+        }
 
-            int firstMsgIndex = 0;
+        /**
+         * Patches the placeholder image in the event dispatch thread.
+         */
+        private void schedulePatch()
+        {
+            final boolean hasPreview = !replacement.equals(sourceString);
+            final String preview = replacement;
 
-            Element rootElement = this.document.getDefaultRootElement();
-            // Count how many messages we have in the document.
-            for (int i = 0; i < rootElement.getElementCount(); i++)
+            SwingUtilities.invokeLater(new Runnable()
             {
-                String idAttr = (String) rootElement.getElement(i)
-                    .getAttributes().getAttribute("identifier");
-
-                if(idAttr != null
-                    && (idAttr.equals("message")
-                        || idAttr.equals("statusMessage")
-                        || idAttr.equals("systemMessage")))
+                public void run()
                 {
-                    if(firstMsgElement == null)
+                    Element img = document.getElement(id);
+
+                    // the message may have been removed meanwhile
+                    if (img == null)
+                        return;
+
+                    int offset = img.getStartOffset();
+
+                    if (hasPreview)
                     {
-                        firstMsgElement = rootElement.getElement(i);
-                        firstMsgIndex = i;
+                        SimpleAttributeSet attrs = new SimpleAttributeSet();
+
+                        attrs.addAttribute(HTML.Attribute.SRC, preview);
+                        document.setCharacterAttributes(
+                            offset, img.getEndOffset() - offset, attrs, false);
+                        return;
                     }
 
-                    msgElementCount++;
+                    // the link text, still in its link
+                    AttributeSet imgAttrs = img.getAttributes();
+                    SimpleAttributeSet attrs = new SimpleAttributeSet();
+                    Object link = imgAttrs.getAttribute(HTML.Tag.A);
+
+                    if (link != null)
+                        attrs.addAttribute(HTML.Tag.A, link);
+                    attrs.addAttribute(
+                        StyleConstants.NameAttribute, HTML.Tag.CONTENT);
+                    try
+                    {
+                        document.replace(
+                            offset, img.getEndOffset() - offset,
+                            (String) imgAttrs.getAttribute(HTML.Attribute.ALT),
+                            attrs);
+                    }
+                    catch (BadLocationException e)
+                    {
+                        logger.error("Failed to remove preview placeholder.",
+                            e);
+                    }
                 }
-            }
+            });
+        }
+    }
 
-            // If we doesn't have any known elements in the document or if we
-            // have only one long message we don't want to remove it.
-            if(firstMsgElement == null || msgElementCount < 2)
-                return;
+    /**
+     * Ensures that the document won't become too big. When the document holds
+     * more than {@link #MAX_WINDOW_MESSAGES} messages, give or take
+     * {@link #WINDOW_SLACK}, the oldest ones are removed along with their
+     * headers.
+     */
+    private void ensureDocumentSize()
+    {
+        List<Element> entries = ChatDocumentPager.getEntries(document);
+
+        if (entries.size() <= MAX_WINDOW_MESSAGES + WINDOW_SLACK)
+            return;
+
+        int excess = entries.size() - MAX_WINDOW_MESSAGES;
+
+        try
+        {
+            int start = entries.get(0).getStartOffset();
+            Element first = entries.get(excess);
+            AttributeSet firstAttrs = first.getAttributes().copyAttributes();
+
+            this.document.remove(start, first.getStartOffset() - start);
+
+            // the removal leaves the attributes of the first removed element,
+            // with its date, on the first kept one
+            this.document.setParagraphAttributes(start, 0, firstAttrs, true);
+        }
+        catch (BadLocationException e)
+        {
+            logger.error("Error removing messages from chat: ", e);
+        }
+    }
+
+    /**
+     * The message shown at the top of the viewport, kept there while messages
+     * are inserted or removed around it.
+     */
+    private class ViewAnchor
+    {
+        /**
+         * The position in the document of the top of the viewport or
+         * <tt>null</tt> if it is not known.
+         */
+        private Position position;
+
+        /**
+         * The distance from the top of the viewport to the top of the text at
+         * {@link #position}.
+         */
+        private int delta;
+
+        /**
+         * Anchors the text shown at the top of the viewport.
+         *
+         * @param minOffset the offset in the document of the first character
+         * which may be anchored
+         */
+        ViewAnchor(int minOffset)
+        {
+            Point viewPosition = getViewport().getViewPosition();
+            int offset = chatTextPane.viewToModel(viewPosition);
 
             try
             {
-                // Remove the header of the message if such exists.
-                if(firstMsgIndex > 0)
+                if (offset >= 0)
                 {
-                    Element headerElement = rootElement.getElement(firstMsgIndex - 1);
+                    offset
+                        = Math.min(
+                            Math.max(offset, minOffset),
+                            document.getLength());
 
-                    String idAttr = (String) headerElement
-                        .getAttributes().getAttribute("identifier");
+                    Rectangle r = chatTextPane.modelToView(offset);
 
-                    if(idAttr != null && idAttr.equals("messageHeader"))
+                    if (r != null)
                     {
-                        this.document.remove(headerElement.getStartOffset(),
-                            headerElement.getEndOffset()
-                                - headerElement.getStartOffset());
+                        position = document.createPosition(offset);
+                        delta = viewPosition.y - r.y;
                     }
                 }
-
-                // Remove the message itself.
-                this.document.remove(firstMsgElement.getStartOffset(),
-                        firstMsgElement.getEndOffset()
-                            - firstMsgElement.getStartOffset());
             }
             catch (BadLocationException e)
             {
-                logger.error("Error removing messages from chat: ", e);
+                position = null;
             }
         }
+
+        /**
+         * Scrolls the viewport back to the anchored text once the document has
+         * been laid out again.
+         */
+        void restore()
+        {
+            if (position == null)
+                return;
+
+            final Document anchoredDocument = document;
+
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    if (chatTextPane.getDocument() != anchoredDocument)
+                        return;
+
+                    validate();
+                    try
+                    {
+                        Rectangle r
+                            = chatTextPane.modelToView(position.getOffset());
+
+                        if (r != null)
+                        {
+                            getViewport().setViewPosition(
+                                new Point(0, Math.max(0, r.y + delta)));
+                        }
+                    }
+                    catch (BadLocationException e)
+                    {
+                        // the anchored text has been removed
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -1330,6 +1755,9 @@ public class ChatConversationPanel
      */
     public void clear()
     {
+        isTailEvicted = false;
+        evictedTailEnd = null;
+        pendingMessages.clear();
         this.document = (HTMLDocument) editorKit.createDefaultDocument();
         Constants.loadSimpleStyle(
             document.getStyleSheet(), chatTextPane.getFont());
@@ -1413,9 +1841,11 @@ public class ChatConversationPanel
     }
 
     /**
-     * Returns the date of the last message in the current page.
+     * Returns the date of the last chat message in the current page, leaving
+     * out the entries which are not in the history and may be kept after it
+     * when the most recent messages are removed from the document.
      *
-     * @return the date of the last message in the current page
+     * @return the date of the last chat message in the current page
      */
     public Date getPageLastMsgTimestamp()
     {
@@ -1425,10 +1855,7 @@ public class ChatConversationPanel
 
         for(int i = rootElement.getElementCount() - 1; i >= 0; i --)
         {
-            String idAttr = (String) rootElement.getElement(i)
-                .getAttributes().getAttribute("identifier");
-
-            if (idAttr != null && idAttr.equals("messageHeader"))
+            if (ChatDocumentPager.isHistoryEntry(rootElement.getElement(i)))
             {
                 lastMessageElement = rootElement.getElement(i);
                 break;
@@ -1559,41 +1986,27 @@ public class ChatConversationPanel
     {
         synchronized (scrollToBottomRunnable)
         {
-            StyleSheet styleSheet = document.getStyleSheet();
-            Style style
-                = styleSheet
-                    .addStyle(
-                        StyleConstants.ComponentElementName,
-                        styleSheet.getStyle("body"));
-
-            // The image must first be wrapped in a style
-            style
-                .addAttribute(
-                    AbstractDocument.ElementNameAttribute,
-                    StyleConstants.ComponentElementName);
-
             TransparentPanel wrapPanel
                 = new TransparentPanel(new BorderLayout());
 
             wrapPanel.add(component, BorderLayout.NORTH);
 
-            style
-                .addAttribute(StyleConstants.ComponentAttribute, wrapPanel);
-            style.addAttribute("identifier", "messageHeader");
-            style.addAttribute("date", component.getDate().getTime());
-
             scrollToBottomIsPending = true;
 
-            // Insert the component style at the end of the text
+            // Insert the component at the end of the text
             try
             {
-                document
-                    .insertString(document.getLength(), "ignored text", style);
+                ChatDocumentPager.appendComponent(
+                    document, wrapPanel, component.getDate().getTime());
             }
             catch (BadLocationException e)
             {
                 logger.error("Insert in the HTMLDocument failed.", e);
             }
+            catch (IOException e)
+            {
+                logger.error("Insert in the HTMLDocument failed.", e);
+            }
         }
     }
 
@@ -1704,40 +2117,19 @@ public class ChatConversationPanel
                     + message.substring(4))
                     + endHeaderTag;
 
-            Map<String, ReplacementService> listSources =
-                GuiActivator.getReplacementSources();
-
-            Iterator<Entry<String, ReplacementService>> entrySetIter =
-                listSources.entrySet().iterator();
             StringBuffer msgStore = new StringBuffer(chatString);
+            List<ChatReplacementEngine.Match> matches
+                = ChatReplacementEngine.getInstance().find(chatString);
 
-            for (int i = 0; i < listSources.size(); i++)
+            // from the end so that the insertions do not move the matches
+            for (int i = matches.size() - 1; i >= 0; i--)
             {
-                Map.Entry<String, ReplacementService> entry =
-                    entrySetIter.next();
-
-                ReplacementService source = entry.getValue();
+                ChatReplacementEngine.Match m = matches.get(i);
 
-                boolean isSmiley = source instanceof SmiliesReplacementService;
-                if (isSmiley)
+                if (m.isSmiley())
                 {
-                    String sourcePattern = source.getPattern();
-                    Pattern p =
-                        Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                            | Pattern.DOTALL);
-                    Matcher m = p.matcher(msgStore);
-
-                    StringBuffer msgTemp = new StringBuffer(chatString);
-
-                    while (m.find())
-                    {
-                        msgTemp.insert(m.start(), startPlainTextTag);
-                        msgTemp.insert(m.end() + startPlainTextTag.length(),
-                            endPlainTextTag);
-
-                    }
-                    if (msgTemp.length() != msgStore.length())
-                        msgStore = msgTemp;
+                    msgStore.insert(m.end, endPlainTextTag);
+                    msgStore.insert(m.start, startPlainTextTag);
                 }
             }
 
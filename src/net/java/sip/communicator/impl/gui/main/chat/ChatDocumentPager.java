@@ -0,0 +1,368 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.regex.*;
+
+import javax.swing.text.*;
+import javax.swing.text.html.*;
+
+/**
+ * Pages the messages of the HTML document of a chat in and out of it.
+ * <p>
+ * The document is made of entries: the root elements which carry an
+ * identifier, other than the bodies of the messages which belong to their
+ * header. Chat messages can be paged in again from the history once removed,
+ * while the other entries, such as system, error and status messages and the
+ * file transfers, cannot. When the most recent messages are removed in order
+ * to page older ones in, the latter are kept in place and the messages paged
+ * in again later are inserted among them by date.
+ */
+public final class ChatDocumentPager
+{
+    /**
+     * The identifier of the blocks holding the components of a chat, such as
+     * its file transfers.
+     */
+    public static final String COMPONENT_IDENTIFIER = "component";
+
+    /**
+     * The date attribute of the first tag of the HTML of a message.
+     */
+    private static final Pattern DATE_PATTERN
+        = Pattern.compile("^<[^>]*\\sdate=['\"](\\d+)['\"]");
+
+    /**
+     * Prevents the initialization of <tt>ChatDocumentPager</tt> instances.
+     */
+    private ChatDocumentPager()
+    {
+    }
+
+    /**
+     * Returns the entries of a document.
+     *
+     * @param document the document
+     * @return the elements which start a message, in document order
+     */
+    public static List<Element> getEntries(HTMLDocument document)
+    {
+        Element root = document.getDefaultRootElement();
+        List<Element> entries = new ArrayList<Element>();
+
+        for (int i = 0, count = root.getElementCount(); i < count; i++)
+        {
+            Element element = root.getElement(i);
+
+            if (isEntry(element))
+                entries.add(element);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the index of the first entry among the children of the root
+     * element from a given index.
+     *
+     * @param root the root element of the document
+     * @param from the index to start from
+     * @return the index of the entry or <tt>-1</tt> if there is none
+     */
+    public static int getNextEntryIndex(Element root, int from)
+    {
+        for (int i = from, count = root.getElementCount(); i < count; i++)
+        {
+            if (isEntry(root.getElement(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Determines whether an element starts a message: message headers, status,
+     * action and system messages and components carry an identifier, as do
+     * the bodies of messages which follow their header.
+     *
+     * @param element the element
+     * @return <tt>true</tt> if <tt>element</tt> starts a message; otherwise,
+     * <tt>false</tt>
+     */
+    public static boolean isEntry(Element element)
+    {
+        AttributeSet attrs = element.getAttributes();
+
+        // isDefined does not resolve the attribute through the style sheet
+        return attrs.isDefined("identifier")
+            && !"message".equals(attrs.getAttribute("identifier"));
+    }
+
+    /**
+     * Determines whether an element starts a chat message, which can be paged
+     * in again from the history once removed. Incoming and outgoing messages
+     * have their header in a <tt>h2</tt> or a <tt>h3</tt>, while the header
+     * of an error message is a <tt>h6</tt>.
+     *
+     * @param element the element
+     * @return <tt>true</tt> if <tt>element</tt> starts a chat message;
+     * otherwise, <tt>false</tt>
+     */
+    public static boolean isHistoryEntry(Element element)
+    {
+        String name = element.getName();
+
+        return isEntry(element)
+            && "messageHeader".equals(
+                    element.getAttributes().getAttribute("identifier"))
+            && (HTML.Tag.H2.toString().equals(name)
+                || HTML.Tag.H3.toString().equals(name));
+    }
+
+    /**
+     * Returns the date of an entry.
+     *
+     * @param entry the entry
+     * @return the date of <tt>entry</tt> in milliseconds or
+     * <tt>Long.MAX_VALUE</tt> if it has none, as if it were the most recent
+     */
+    public static long getDate(Element entry)
+    {
+        Object date = entry.getAttributes().getAttribute("date");
+
+        if (date != null)
+        {
+            try
+            {
+                return Long.parseLong(date.toString());
+            }
+            catch (NumberFormatException e)
+            {
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the date of the HTML of a message, which
+     * <tt>ChatConversationPanel</tt> gives in the date attribute of its first
+     * tag.
+     *
+     * @param chatString the HTML of the message
+     * @return the date of <tt>chatString</tt> in milliseconds or
+     * <tt>Long.MAX_VALUE</tt> if it has none, as if it were the most recent
+     */
+    private static long getDate(String chatString)
+    {
+        Matcher m = DATE_PATTERN.matcher(chatString);
+
+        return m.find() ? Long.parseLong(m.group(1)) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Inserts a message before the first entry of a document.
+     *
+     * @param document the document
+     * @param chatString the HTML of the message
+     * @return the last element of the inserted message
+     * @throws BadLocationException if the message cannot be inserted
+     * @throws IOException if the message cannot be inserted
+     */
+    public static Element insertAtStart(
+            HTMLDocument document,
+            String chatString)
+        throws BadLocationException,
+               IOException
+    {
+        Element root = document.getDefaultRootElement();
+        int first = getNextEntryIndex(root, 0);
+
+        if (first < 0)
+        {
+            document.insertAfterEnd(
+                root.getElement(root.getElementCount() - 1),
+                chatString);
+        }
+        else
+            document.insertBeforeStart(root.getElement(first), chatString);
+
+        // the inserted message ends before the next entry
+        int next = getNextEntryIndex(root, getNextEntryIndex(root, 0) + 1);
+
+        return root.getElement(
+            ((next < 0) ? root.getElementCount() : next) - 1);
+    }
+
+    /**
+     * Appends a message paged in again after the last chat message of a
+     * document, before the entries kept after it which are more recent.
+     *
+     * @param document the document
+     * @param chatString the HTML of the message
+     * @return the element in which the replacements of the message are
+     * processed
+     * @throws BadLocationException if the message cannot be inserted
+     * @throws IOException if the message cannot be inserted
+     */
+    public static Element appendPaged(
+            HTMLDocument document,
+            String chatString)
+        throws BadLocationException,
+               IOException
+    {
+        Element root = document.getDefaultRootElement();
+        long date = getDate(chatString);
+        int before = -1;
+
+        for (int i = root.getElementCount() - 1; i >= 0; i--)
+        {
+            Element element = root.getElement(i);
+
+            if (isHistoryEntry(element))
+                break;
+            if (isEntry(element) && (getDate(element) > date))
+                before = i;
+        }
+
+        int count = root.getElementCount();
+
+        if (before < 0)
+        {
+            document.insertAfterEnd(root.getElement(count - 1), chatString);
+            before = count;
+        }
+        else
+            document.insertBeforeStart(root.getElement(before), chatString);
+
+        // the inserted message ends before the next entry
+        int next = getNextEntryIndex(root, before + 1);
+
+        return root.getElement(
+            ((next < 0) ? root.getElementCount() : next) - 1);
+    }
+
+    /**
+     * Removes the most recent chat messages of a document so that it holds at
+     * most a given number of entries, or as few as possible if there are not
+     * enough chat messages. The other entries, which cannot be paged in again,
+     * are kept in place.
+     *
+     * @param document the document
+     * @param maxEntries the number of entries to keep
+     * @return <tt>true</tt> if messages have been removed; otherwise,
+     * <tt>false</tt>
+     * @throws BadLocationException if the messages cannot be removed
+     */
+    public static boolean removeNewest(HTMLDocument document, int maxEntries)
+        throws BadLocationException
+    {
+        List<Element> entries = getEntries(document);
+        int excess = entries.size() - maxEntries;
+        boolean removed = false;
+        int runStart = -1;
+        int runEnd = -1;
+
+        // from the end, so that the runs of messages before keep their offsets
+        for (int i = entries.size() - 1; (i >= 0) && (excess > 0); i--)
+        {
+            Element entry = entries.get(i);
+
+            if (isHistoryEntry(entry))
+            {
+                if (runStart < 0)
+                {
+                    runEnd
+                        = (i + 1 < entries.size())
+                            ? entries.get(i + 1).getStartOffset()
+                            : -1;
+                }
+                runStart = entry.getStartOffset();
+                excess--;
+            }
+            else if (runStart >= 0)
+            {
+                removeRun(document, runStart, runEnd);
+                removed = true;
+                runStart = -1;
+            }
+        }
+        if (runStart >= 0)
+        {
+            removeRun(document, runStart, runEnd);
+            removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes consecutive messages from a document.
+     *
+     * @param document the document
+     * @param start the offset of the first removed message
+     * @param end the offset of the entry following the removed messages or
+     * <tt>-1</tt> if they end the document
+     * @throws BadLocationException if the messages cannot be removed
+     */
+    private static void removeRun(HTMLDocument document, int start, int end)
+        throws BadLocationException
+    {
+        if (end < 0)
+        {
+            // from the end of the last kept message so that no empty element
+            // is left with the attributes of the removed ones
+            document.remove(start - 1, document.getLength() - start + 1);
+        }
+        else
+            document.remove(start, end - start);
+    }
+
+    /**
+     * Appends a component at the end of a document, in a block of its own so
+     * that it is an entry which is kept when the messages around it are
+     * removed.
+     *
+     * @param document the document
+     * @param component the component
+     * @param date the date of the component in milliseconds
+     * @throws BadLocationException if the component cannot be appended
+     * @throws IOException if the component cannot be appended
+     */
+    public static void appendComponent(
+            HTMLDocument document,
+            Component component,
+            long date)
+        throws BadLocationException,
+               IOException
+    {
+        StyleSheet styleSheet = document.getStyleSheet();
+        Style style
+            = styleSheet.addStyle(
+                StyleConstants.ComponentElementName,
+                styleSheet.getStyle("body"));
+
+        // The component must first be wrapped in a style
+        style.addAttribute(
+            AbstractDocument.ElementNameAttribute,
+            StyleConstants.ComponentElementName);
+        style.addAttribute(StyleConstants.ComponentAttribute, component);
+        style.addAttribute("identifier", "messageHeader");
+        style.addAttribute("date", date);
+
+        Element root = document.getDefaultRootElement();
+
+        document.insertAfterEnd(
+            root.getElement(root.getElementCount() - 1),
+            "<DIV identifier=\"" + COMPONENT_IDENTIFIER + "\" date=\"" + date
+                + "\"></DIV>");
+        document.insertString(
+            root.getElement(root.getElementCount() - 1).getStartOffset(),
+            "ignored text",
+            style);
+    }
+}
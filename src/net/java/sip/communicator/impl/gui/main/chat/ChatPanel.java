@@ -130,6 +130,18 @@ public class ChatPanel
 
     private boolean isHistoryLoaded;
 
+    /**
+     * Whether a page of messages is being loaded from the history because the
+     * user has scrolled to the top or to the bottom of the conversation.
+     */
+    private boolean isLoadingWindowPage = false;
+
+    /**
+     * The date before which the history has no more messages, as found by the
+     * last page loaded when the user scrolled to the top of the conversation.
+     */
+    private Date noHistoryBefore;
+
     private int autoDividerLocation = 0;
 
     /**
@@ -165,6 +177,16 @@ public class ChatPanel
         this.conversationPanel.setPreferredSize(new Dimension(400, 200));
         this.conversationPanel.getChatTextPane()
             .setTransferHandler(new ChatTransferHandler(this));
+        this.conversationPanel.getVerticalScrollBar()
+            .addAdjustmentListener(new WindowPagingListener());
+        this.conversationPanel.setTailLoader(
+            new Runnable()
+            {
+                public void run()
+                {
+                    loadWindowTail();
+                }
+            });
 
         topPanel.setBackground(Color.WHITE);
         topPanel.setBorder(
@@ -583,114 +605,171 @@ public class ChatPanel
     {
         Iterator<Object> iterator = historyList.iterator();
 
-        String messageType;
-
         while (iterator.hasNext())
         {
             Object o = iterator.next();
-            String historyString = "";
+            String historyString;
 
-            if(o instanceof MessageDeliveredEvent)
+            if (o instanceof FileRecord)
             {
-                MessageDeliveredEvent evt
-                    = (MessageDeliveredEvent)o;
+                FileRecord fileRecord = (FileRecord) o;
+
+                FileHistoryConversationComponent component
+                    = new FileHistoryConversationComponent(
+                        chatContainer.getFrame(), fileRecord);
+
+                conversationPanel.addComponent(component);
+                historyString = "";
+            }
+            else
+                historyString = processHistoryObject(o, escapedMessageID);
+
+            if (historyString != null)
+                conversationPanel.appendMessageToEnd(
+                    historyString, ChatConversationPanel.TEXT_CONTENT_TYPE);
+        }
+
+        fireChatHistoryChange();
+    }
+
+    /**
+     * Processes a page of history messages to be inserted in the conversation
+     * panel. File transfers are left out, since they can only be added at the
+     * end of the conversation.
+     *
+     * @param historyList the collection of messages coming from history
+     * @return the processed messages
+     */
+    private List<String> processHistoryPage(Collection<Object> historyList)
+    {
+        List<String> page = new ArrayList<String>(historyList.size());
+
+        for (Object o : historyList)
+        {
+            String historyString = processHistoryObject(o, null);
+
+            if (historyString.length() != 0)
+                page.add(historyString);
+        }
+        return page;
+    }
+
+    /**
+     * Processes a message coming from history.
+     *
+     * @param o the message coming from history
+     * @param escapedMessageID the incoming message needed to be ignored if
+     * contained in history
+     * @return the processed message or an empty string if it is ignored
+     */
+    private String processHistoryObject(Object o, String escapedMessageID)
+    {
+        String messageType;
+        String historyString = "";
+
+        if(o instanceof MessageDeliveredEvent)
+        {
+            MessageDeliveredEvent evt
+                = (MessageDeliveredEvent)o;
 
-                ProtocolProviderService protocolProvider = evt
-                    .getDestinationContact().getProtocolProvider();
+            ProtocolProviderService protocolProvider = evt
+                .getDestinationContact().getProtocolProvider();
 
+            if (isGreyHistoryStyleDisabled(protocolProvider))
+                messageType = Chat.OUTGOING_MESSAGE;
+            else
+                messageType = Chat.HISTORY_OUTGOING_MESSAGE;
+
+            historyString = processHistoryMessage(
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountAddress(protocolProvider),
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountDisplayName(protocolProvider),
+                        evt.getTimestamp(),
+                        messageType,
+                        evt.getSourceMessage().getContent(),
+                        evt.getSourceMessage().getContentType(),
+                        evt.getSourceMessage().getMessageUID());
+        }
+        else if(o instanceof MessageReceivedEvent)
+        {
+            MessageReceivedEvent evt = (MessageReceivedEvent)o;
+
+            ProtocolProviderService protocolProvider
+                = evt.getSourceContact().getProtocolProvider();
+
+            if(!evt.getSourceMessage().getMessageUID()
+                    .equals(escapedMessageID))
+            {
                 if (isGreyHistoryStyleDisabled(protocolProvider))
-                    messageType = Chat.OUTGOING_MESSAGE;
+                    messageType = Chat.INCOMING_MESSAGE;
                 else
-                    messageType = Chat.HISTORY_OUTGOING_MESSAGE;
+                    messageType = Chat.HISTORY_INCOMING_MESSAGE;
 
                 historyString = processHistoryMessage(
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountAddress(protocolProvider),
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountDisplayName(protocolProvider),
+                            evt.getSourceContact().getAddress(),
+                            evt.getSourceContact().getDisplayName(),
                             evt.getTimestamp(),
                             messageType,
                             evt.getSourceMessage().getContent(),
                             evt.getSourceMessage().getContentType(),
                             evt.getSourceMessage().getMessageUID());
             }
-            else if(o instanceof MessageReceivedEvent)
-            {
-                MessageReceivedEvent evt = (MessageReceivedEvent)o;
-
-                ProtocolProviderService protocolProvider
-                    = evt.getSourceContact().getProtocolProvider();
+        }
+        else if(o instanceof ChatRoomMessageDeliveredEvent)
+        {
+            ChatRoomMessageDeliveredEvent evt
+                = (ChatRoomMessageDeliveredEvent)o;
 
-                if(!evt.getSourceMessage().getMessageUID()
-                        .equals(escapedMessageID))
-                {
-                    if (isGreyHistoryStyleDisabled(protocolProvider))
-                        messageType = Chat.INCOMING_MESSAGE;
-                    else
-                        messageType = Chat.HISTORY_INCOMING_MESSAGE;
-
-                    historyString = processHistoryMessage(
-                                evt.getSourceContact().getAddress(),
-                                evt.getSourceContact().getDisplayName(),
-                                evt.getTimestamp(),
-                                messageType,
-                                evt.getSourceMessage().getContent(),
-                                evt.getSourceMessage().getContentType(),
-                                evt.getSourceMessage().getMessageUID());
-                }
-            }
-            else if(o instanceof ChatRoomMessageDeliveredEvent)
-            {
-                ChatRoomMessageDeliveredEvent evt
-                    = (ChatRoomMessageDeliveredEvent)o;
+            ProtocolProviderService protocolProvider = evt
+                .getSourceChatRoom().getParentProvider();
 
-                ProtocolProviderService protocolProvider = evt
-                    .getSourceChatRoom().getParentProvider();
+            historyString = processHistoryMessage(
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountAddress(protocolProvider),
+                        GuiActivator.getUIService().getMainFrame()
+                            .getAccountDisplayName(protocolProvider),
+                        evt.getTimestamp(),
+                        Chat.HISTORY_OUTGOING_MESSAGE,
+                        evt.getMessage().getContent(),
+                        evt.getMessage().getContentType());
+        }
+        else if(o instanceof ChatRoomMessageReceivedEvent)
+        {
+            ChatRoomMessageReceivedEvent evt
+                = (ChatRoomMessageReceivedEvent) o;
 
-                historyString = processHistoryMessage(
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountAddress(protocolProvider),
-                            GuiActivator.getUIService().getMainFrame()
-                                .getAccountDisplayName(protocolProvider),
-                            evt.getTimestamp(),
-                            Chat.HISTORY_OUTGOING_MESSAGE,
-                            evt.getMessage().getContent(),
-                            evt.getMessage().getContentType());
-            }
-            else if(o instanceof ChatRoomMessageReceivedEvent)
+            if(!evt.getMessage().getMessageUID()
+                    .equals(escapedMessageID))
             {
-                ChatRoomMessageReceivedEvent evt
-                    = (ChatRoomMessageReceivedEvent) o;
-
-                if(!evt.getMessage().getMessageUID()
-                        .equals(escapedMessageID))
+                historyString = processHistoryMessage(
+                        evt.getSourceChatRoomMember().getContactAddress(),
+                        evt.getSourceChatRoomMember().getName(),
+                        evt.getTimestamp(),
+                        Chat.HISTORY_INCOMING_MESSAGE,
+                        evt.getMessage().getContent(),
+                        evt.getMessage().getContentType());
+
+                // highlighted as when it was received, wherever it is shown
+                if (chatSession instanceof ConferenceChatSession)
                 {
-                    historyString = processHistoryMessage(
-                            evt.getSourceChatRoomMember().getContactAddress(),
-                            evt.getSourceChatRoomMember().getName(),
-                            evt.getTimestamp(),
-                            Chat.HISTORY_INCOMING_MESSAGE,
-                            evt.getMessage().getContent(),
-                            evt.getMessage().getContentType());
+                    String keyWord
+                        = ((ChatRoomWrapper) chatSession.getDescriptor())
+                            .getChatRoom().getUserNickname();
+
+                    if (keyWord != null)
+                    {
+                        historyString
+                            = conversationPanel.processChatRoomHighlight(
+                                historyString,
+                                evt.getMessage().getContentType(),
+                                keyWord);
+                    }
                 }
             }
-            else if (o instanceof FileRecord)
-            {
-                FileRecord fileRecord = (FileRecord) o;
-
-                FileHistoryConversationComponent component
-                    = new FileHistoryConversationComponent(
-                        chatContainer.getFrame(), fileRecord);
-
-                conversationPanel.addComponent(component);
-            }
-
-            if (historyString != null)
-                conversationPanel.appendMessageToEnd(
-                    historyString, ChatConversationPanel.TEXT_CONTENT_TYPE);
         }
 
-        fireChatHistoryChange();
+        return historyString;
     }
 
     /**
@@ -1995,6 +2074,257 @@ public class ChatPanel
         worker.start();
     }
 
+    /**
+     * Loads the page of history messages preceding the first message in the
+     * conversation panel and inserts it before that message, when the user has
+     * scrolled to the top of the conversation.
+     */
+    private void loadEarlierWindowPage()
+    {
+        if (isLoadingWindowPage
+                || (chatSession == null)
+                || !ConfigurationManager.isHistoryShown()
+                || !isHistoryLoaded
+                || (GuiActivator.getMetaHistoryService() == null))
+            return;
+
+        final Date firstMsgDate = conversationPanel.getPageFirstMsgTimestamp();
+
+        if ((firstMsgDate.getTime() == Long.MAX_VALUE)
+                || firstMsgDate.equals(noHistoryBefore))
+            return;
+
+        isLoadingWindowPage = true;
+
+        SwingWorker worker = new SwingWorker()
+        {
+            private Collection<Object> c;
+
+            public Object construct() throws Exception
+            {
+                c = chatSession.getHistoryBeforeDate(
+                    firstMsgDate,
+                    MESSAGES_PER_PAGE);
+                return c;
+            }
+
+            public void finished()
+            {
+                isLoadingWindowPage = false;
+
+                if ((c == null) || (c.size() < MESSAGES_PER_PAGE))
+                    noHistoryBefore = firstMsgDate;
+
+                // the conversation may have changed meanwhile
+                if ((c != null)
+                        && !c.isEmpty()
+                        && firstMsgDate.equals(
+                            conversationPanel.getPageFirstMsgTimestamp()))
+                {
+                    conversationPanel.insertMessagesAtStart(
+                        processHistoryPage(c),
+                        ChatConversationPanel.TEXT_CONTENT_TYPE);
+                }
+
+                // a message has been appended meanwhile
+                if (conversationPanel.hasPendingMessages())
+                    loadWindowTail();
+            }
+        };
+        worker.start();
+    }
+
+    /**
+     * Loads the page of history messages following the last message in the
+     * conversation panel and appends it after that message, when the user has
+     * scrolled to the bottom of the conversation and the most recent messages
+     * have been removed from it to page older ones in.
+     */
+    private void loadLaterWindowPage()
+    {
+        if (isLoadingWindowPage || !conversationPanel.isTailEvicted())
+            return;
+
+        final Date lastMsgDate = conversationPanel.getPageLastMsgTimestamp();
+        final Date tailEnd = conversationPanel.getEvictedTailEnd();
+
+        isLoadingWindowPage = true;
+
+        SwingWorker worker = new SwingWorker()
+        {
+            private Collection<Object> c;
+
+            public Object construct() throws Exception
+            {
+                c = chatSession.getHistoryAfterDate(
+                    lastMsgDate,
+                    MESSAGES_PER_PAGE);
+                return c;
+            }
+
+            public void finished()
+            {
+                isLoadingWindowPage = false;
+
+                // the conversation may have changed meanwhile
+                if (conversationPanel.isTailEvicted()
+                        && lastMsgDate.equals(
+                            conversationPanel.getPageLastMsgTimestamp()))
+                {
+                    List<Object> page = new ArrayList<Object>();
+                    boolean isLastPage
+                        = (c == null) || (c.size() < MESSAGES_PER_PAGE);
+
+                    // the messages after the removed ones have been appended
+                    // since and wait for them
+                    if (c != null)
+                    {
+                        for (Object o : c)
+                        {
+                            if ((tailEnd != null)
+                                    && (getHistoryTimestamp(o)
+                                            > tailEnd.getTime()))
+                                isLastPage = true;
+                            else
+                                page.add(o);
+                        }
+                    }
+
+                    conversationPanel.appendPageToEnd(
+                        processHistoryPage(page),
+                        ChatConversationPanel.TEXT_CONTENT_TYPE,
+                        isLastPage);
+                }
+
+                // a message has been appended meanwhile
+                if (conversationPanel.hasPendingMessages())
+                    loadWindowTail();
+            }
+        };
+        worker.start();
+    }
+
+    /**
+     * Loads the most recent messages removed from the conversation panel in
+     * order to page older ones in, all at once, and appends them after the
+     * last message in the conversation panel, when a new message is to be
+     * appended after them. The messages which do not fit in the window of the
+     * conversation panel are left out, as the older ones it holds are.
+     */
+    private void loadWindowTail()
+    {
+        if (isLoadingWindowPage || !conversationPanel.isTailEvicted())
+            return;
+
+        final Date lastMsgDate = conversationPanel.getPageLastMsgTimestamp();
+        final Date tailEnd = conversationPanel.getEvictedTailEnd();
+
+        isLoadingWindowPage = true;
+
+        SwingWorker worker = new SwingWorker()
+        {
+            private Collection<Object> c;
+
+            public Object construct() throws Exception
+            {
+                c = chatSession.getHistoryBeforeDate(
+                    new Date(tailEnd.getTime() + 1),
+                    ChatConversationPanel.MAX_WINDOW_MESSAGES);
+                return c;
+            }
+
+            public void finished()
+            {
+                isLoadingWindowPage = false;
+
+                if (!conversationPanel.isTailEvicted())
+                    return;
+
+                // the conversation has changed meanwhile
+                if (!lastMsgDate.equals(
+                        conversationPanel.getPageLastMsgTimestamp()))
+                {
+                    loadWindowTail();
+                    return;
+                }
+
+                List<Object> page = new ArrayList<Object>();
+
+                if (c != null)
+                {
+                    for (Object o : c)
+                    {
+                        if (getHistoryTimestamp(o) > lastMsgDate.getTime())
+                            page.add(o);
+                    }
+                }
+
+                conversationPanel.appendPageToEnd(
+                    processHistoryPage(page),
+                    ChatConversationPanel.TEXT_CONTENT_TYPE,
+                    true);
+            }
+        };
+        worker.start();
+    }
+
+    /**
+     * Returns the time of a message coming from history.
+     *
+     * @param o the message coming from history
+     * @return the time of <tt>o</tt> in milliseconds
+     */
+    private static long getHistoryTimestamp(Object o)
+    {
+        if (o instanceof MessageDeliveredEvent)
+            return ((MessageDeliveredEvent) o).getTimestamp();
+        else if (o instanceof MessageReceivedEvent)
+            return ((MessageReceivedEvent) o).getTimestamp();
+        else if (o instanceof ChatRoomMessageDeliveredEvent)
+            return ((ChatRoomMessageDeliveredEvent) o).getTimestamp();
+        else if (o instanceof ChatRoomMessageReceivedEvent)
+            return ((ChatRoomMessageReceivedEvent) o).getTimestamp();
+        else if (o instanceof FileRecord)
+            return ((FileRecord) o).getDate();
+        else
+            return 0;
+    }
+
+    /**
+     * Pages messages in and out of the conversation panel as the user scrolls
+     * to its top or to its bottom.
+     */
+    private class WindowPagingListener
+        implements AdjustmentListener
+    {
+        /**
+         * The last value of the vertical scroll bar.
+         */
+        private int lastValue = -1;
+
+        public void adjustmentValueChanged(AdjustmentEvent e)
+        {
+            BoundedRangeModel model
+                = conversationPanel.getVerticalScrollBar().getModel();
+            int value = model.getValue();
+            boolean scrolled = (value != lastValue);
+
+            lastValue = value;
+
+            // only when the user scrolls a conversation taller than the
+            // viewport
+            if (!scrolled
+                    || (model.getExtent() >= model.getMaximum()
+                            - model.getMinimum()))
+                return;
+
+            if (value == model.getMinimum())
+                loadEarlierWindowPage();
+            else if (value + model.getExtent() >= model.getMaximum())
+                loadLaterWindowPage();
+        }
+    }
+
     /**
      * From a given collection of messages shows the history in the chat window.
      */
@@ -0,0 +1,964 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.beans.*;
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.impl.gui.*;
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.service.replacement.smilies.*;
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.configuration.*;
+import org.osgi.framework.*;
+
+/**
+ * Finds the text of chat messages which the enabled
+ * <tt>ReplacementService</tt>s replace, in a single scan of each message.
+ * <p>
+ * The smiley strings of the <tt>SmiliesReplacementService</tt>s are matched
+ * by an Aho-Corasick automaton and their replacements are looked up once, the
+ * patterns of the other sources are combined into a single regular expression.
+ * Both are compiled when first needed and compiled again only when a
+ * <tt>ReplacementService</tt> is registered or unregistered, when a
+ * replacement property changes or when the smilies pack is reloaded, instead
+ * of compiling the pattern of each source for each message.
+ */
+public class ChatReplacementEngine
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ChatReplacementEngine</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ChatReplacementEngine.class);
+
+    /**
+     * The name of the source providing previews for any link to an image,
+     * whose matches are replaced even when the replacement is the link itself.
+     */
+    public static final String DIRECT_IMAGE_SOURCE_NAME = "DIRECTIMAGE";
+
+    /**
+     * The prefix of the names of the replacement properties.
+     */
+    private static final String PROPERTY_PREFIX
+        = "net.java.sip.communicator.service.replacement.";
+
+    /**
+     * The <tt>ChatReplacementEngine</tt> shared by all chats.
+     */
+    private static ChatReplacementEngine instance;
+
+    /**
+     * The compiled rules of the enabled sources or <tt>null</tt> if they are
+     * to be compiled again.
+     */
+    private Rules rules;
+
+    /**
+     * The <tt>ConfigurationService</tt> telling which sources are enabled or
+     * <tt>null</tt> to use the one of the UI.
+     */
+    private final ConfigurationService configurationService;
+
+    /**
+     * The sources whose matches are found or <tt>null</tt> to use the
+     * registered <tt>ReplacementService</tt>s.
+     */
+    private final Collection<ReplacementService> sources;
+
+    /**
+     * Initializes a new <tt>ChatReplacementEngine</tt> finding the matches of
+     * the registered <tt>ReplacementService</tt>s enabled in the configuration
+     * of the UI.
+     */
+    private ChatReplacementEngine()
+    {
+        this(null, null);
+    }
+
+    /**
+     * Initializes a new <tt>ChatReplacementEngine</tt> finding the matches of
+     * given sources, whose rules are compiled again only when the smilies
+     * pack of one of them is reloaded.
+     *
+     * @param configurationService the <tt>ConfigurationService</tt> telling
+     * which of <tt>sources</tt> are enabled
+     * @param sources the sources whose matches are found
+     */
+    public ChatReplacementEngine(
+            ConfigurationService configurationService,
+            Collection<ReplacementService> sources)
+    {
+        this.configurationService = configurationService;
+        this.sources = sources;
+    }
+
+    /**
+     * Returns the <tt>ChatReplacementEngine</tt> shared by all chats.
+     *
+     * @return the <tt>ChatReplacementEngine</tt> shared by all chats
+     */
+    static synchronized ChatReplacementEngine getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new ChatReplacementEngine();
+            instance.addListeners();
+        }
+        return instance;
+    }
+
+    /**
+     * Listens to the changes which require the rules to be compiled again.
+     */
+    private void addListeners()
+    {
+        GuiActivator.getConfigurationService().addPropertyChangeListener(
+                new PropertyChangeListener()
+                {
+                    public void propertyChange(PropertyChangeEvent evt)
+                    {
+                        String name = evt.getPropertyName();
+
+                        if ((name != null) && name.startsWith(PROPERTY_PREFIX))
+                            invalidate();
+                    }
+                });
+
+        try
+        {
+            GuiActivator.bundleContext.addServiceListener(
+                    new ServiceListener()
+                    {
+                        public void serviceChanged(ServiceEvent evt)
+                        {
+                            invalidate();
+                        }
+                    },
+                    "(" + Constants.OBJECTCLASS + "="
+                        + ReplacementService.class.getName() + ")");
+        }
+        catch (InvalidSyntaxException e)
+        {
+            logger.error("Failed to listen to replacement sources.", e);
+        }
+    }
+
+    /**
+     * Finds the text of a message which the enabled sources replace. Matches
+     * of the sources other than smilies take precedence, smiley strings are
+     * not matched inside tags and, where smiley strings overlap, the leftmost
+     * longest one is matched.
+     *
+     * @param message the HTML of the message
+     * @return the matches in <tt>message</tt> in order, an empty list if there
+     * are none
+     */
+    public List<Match> find(String message)
+    {
+        return getRules().find(message);
+    }
+
+    /**
+     * Returns the rules of the enabled sources, compiling them if necessary.
+     *
+     * @return the rules of the enabled sources
+     */
+    private synchronized Rules getRules()
+    {
+        if ((rules == null) || rules.isStale())
+        {
+            long time0 = System.currentTimeMillis();
+
+            rules = compile();
+            if (logger.isDebugEnabled())
+                logger.debug("Compiled replacement rules in "
+                        + (System.currentTimeMillis() - time0) + " ms");
+        }
+        return rules;
+    }
+
+    /**
+     * Forgets the rules so that they are compiled again when next needed.
+     */
+    private synchronized void invalidate()
+    {
+        rules = null;
+    }
+
+    /**
+     * Compiles the rules of the enabled sources.
+     *
+     * @return the rules of the enabled sources
+     */
+    private Rules compile()
+    {
+        ConfigurationService cfg
+            = (configurationService == null)
+                ? GuiActivator.getConfigurationService()
+                : configurationService;
+        boolean isEnabled
+            = cfg.getBoolean(ReplacementProperty.REPLACEMENT_ENABLE, true);
+
+        List<SmiliesReplacementService> smileySources
+            = new ArrayList<SmiliesReplacementService>();
+        List<ReplacementService> patternSources
+            = new ArrayList<ReplacementService>();
+
+        for (ReplacementService source
+                : (sources == null)
+                    ? GuiActivator.getReplacementSources().values()
+                    : sources)
+        {
+            boolean isSmiley = source instanceof SmiliesReplacementService;
+
+            if (!(cfg.getBoolean(
+                        ReplacementProperty.getPropertyName(
+                                source.getSourceName()),
+                        true)
+                    && (isEnabled || isSmiley)))
+                continue;
+
+            if (isSmiley)
+                smileySources.add((SmiliesReplacementService) source);
+            else
+                patternSources.add(source);
+        }
+
+        // site specific sources before the one matching any image link
+        Collections.sort(
+                patternSources,
+                new Comparator<ReplacementService>()
+                {
+                    public int compare(
+                            ReplacementService s1,
+                            ReplacementService s2)
+                    {
+                        boolean d1
+                            = DIRECT_IMAGE_SOURCE_NAME.equals(
+                                    s1.getSourceName());
+                        boolean d2
+                            = DIRECT_IMAGE_SOURCE_NAME.equals(
+                                    s2.getSourceName());
+
+                        if (d1 != d2)
+                            return d1 ? 1 : -1;
+                        return
+                            String.valueOf(s1.getSourceName()).compareTo(
+                                    String.valueOf(s2.getSourceName()));
+                    }
+                });
+
+        return new Rules(smileySources, patternSources);
+    }
+
+    /**
+     * Text of a message which a source replaces.
+     */
+    public static class Match
+    {
+        /**
+         * The index of the first character of the match.
+         */
+        public final int start;
+
+        /**
+         * The index after the last character of the match.
+         */
+        public final int end;
+
+        /**
+         * The matched text.
+         */
+        public final String text;
+
+        /**
+         * The source which replaces the matched text.
+         */
+        public final ReplacementService source;
+
+        /**
+         * The replacement of a smiley string, <tt>null</tt> if the source is
+         * to be asked for it.
+         */
+        private final String replacement;
+
+        Match(int start, int end, String text, ReplacementService source,
+                String replacement)
+        {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+            this.source = source;
+            this.replacement = replacement;
+        }
+
+        /**
+         * Determines whether the matched text is a smiley string.
+         *
+         * @return <tt>true</tt> if the matched text is a smiley string;
+         * otherwise, <tt>false</tt>
+         */
+        public boolean isSmiley()
+        {
+            return source instanceof SmiliesReplacementService;
+        }
+
+        /**
+         * Returns the replacement of the matched text, which may require the
+         * source to access the network.
+         *
+         * @return the replacement of the matched text; the matched text if the
+         * source has none
+         */
+        public String getReplacement()
+        {
+            return (replacement == null)
+                ? source.getReplacement(text)
+                : replacement;
+        }
+
+        /**
+         * Returns the replacement of the matched text without waiting for the
+         * source to access the network if it is a
+         * <tt>DelayedReplacementService</tt>.
+         *
+         * @param listener the <tt>ReplacementListener</tt> to notify of the
+         * replacement if it is not known yet
+         * @return the replacement of the matched text, the matched text if the
+         * source has none or <tt>null</tt> if <tt>listener</tt> is to be
+         * notified of it
+         */
+        String getReplacement(ReplacementListener listener)
+        {
+            if ((replacement == null)
+                    && (source instanceof DelayedReplacementService))
+            {
+                return ((DelayedReplacementService) source)
+                    .getReplacement(text, listener);
+            }
+            return getReplacement();
+        }
+    }
+
+    /**
+     * The compiled rules of the enabled sources.
+     */
+    private static class Rules
+    {
+        /**
+         * The <tt>SmiliesReplacementService</tt>s whose smiley strings are
+         * matched.
+         */
+        private final List<SmiliesReplacementService> smileySources;
+
+        /**
+         * The smilies packs of {@link #smileySources}, by which the rules are
+         * known to be stale once the packs have been reloaded.
+         */
+        private final List<Collection<Smiley>> smileyPacks
+            = new ArrayList<Collection<Smiley>>();
+
+        /**
+         * The automaton matching the smiley strings or <tt>null</tt> if there
+         * are none.
+         */
+        private final LiteralMatcher smileyMatcher;
+
+        /**
+         * The source of each smiley string of {@link #smileyMatcher}.
+         */
+        private final ReplacementService[] smileyStringSources;
+
+        /**
+         * The replacement of each smiley string of {@link #smileyMatcher}.
+         */
+        private final String[] smileyReplacements;
+
+        /**
+         * The sources matched by {@link #pattern}.
+         */
+        private final ReplacementService[] patternSources;
+
+        /**
+         * The index in {@link #pattern} of the group enclosing the pattern of
+         * each of {@link #patternSources}.
+         */
+        private final int[] patternGroups;
+
+        /**
+         * The patterns of {@link #patternSources} combined or <tt>null</tt> if
+         * there are no such sources.
+         */
+        private final Pattern pattern;
+
+        Rules(
+                List<SmiliesReplacementService> smileySources,
+                List<ReplacementService> patternSources)
+        {
+            this.smileySources = smileySources;
+
+            List<String> smileyStrings = new ArrayList<String>();
+            List<ReplacementService> smileyStringSources
+                = new ArrayList<ReplacementService>();
+            List<String> smileyReplacements = new ArrayList<String>();
+            Set<String> seen = new HashSet<String>();
+
+            for (SmiliesReplacementService source : smileySources)
+            {
+                Collection<Smiley> smileyPack = source.getSmiliesPack();
+
+                smileyPacks.add(smileyPack);
+                for (Smiley smiley : smileyPack)
+                {
+                    for (String smileyString : smiley.getSmileyStrings())
+                    {
+                        if ((smileyString.length() == 0)
+                                || !seen.add(smileyString))
+                            continue;
+
+                        String replacement
+                            = source.getReplacement(smileyString);
+
+                        // a smiley string without an image is left as is
+                        if (smileyString.equals(replacement))
+                            continue;
+                        smileyStrings.add(smileyString);
+                        smileyStringSources.add(source);
+                        smileyReplacements.add(replacement);
+                    }
+                }
+            }
+            smileyMatcher
+                = smileyStrings.isEmpty()
+                    ? null
+                    : new LiteralMatcher(smileyStrings);
+            this.smileyStringSources
+                = smileyStringSources.toArray(
+                        new ReplacementService[smileyStringSources.size()]);
+            this.smileyReplacements
+                = smileyReplacements.toArray(
+                        new String[smileyReplacements.size()]);
+
+            List<ReplacementService> compiledSources
+                = new ArrayList<ReplacementService>();
+            List<String> compiledPatterns = new ArrayList<String>();
+            List<Integer> groups = new ArrayList<Integer>();
+            String lookbehind = null;
+            int groupCount = 0;
+
+            for (ReplacementService source : patternSources)
+            {
+                String sourcePattern = source.getPattern();
+                int sourceGroupCount;
+
+                try
+                {
+                    sourceGroupCount
+                        = Pattern.compile(sourcePattern)
+                            .matcher("").groupCount();
+                }
+                catch (PatternSyntaxException e)
+                {
+                    logger.error("Invalid pattern of replacement source "
+                            + source.getSourceName(), e);
+                    continue;
+                }
+
+                String sourceLookbehind = getLeadingLookbehind(sourcePattern);
+
+                if (compiledSources.isEmpty())
+                    lookbehind = sourceLookbehind;
+                else if ((lookbehind != null)
+                        && !lookbehind.equals(sourceLookbehind))
+                    lookbehind = null;
+
+                compiledSources.add(source);
+                compiledPatterns.add(sourcePattern);
+                groups.add(groupCount + 1);
+                groupCount += sourceGroupCount + 1;
+            }
+            this.patternSources
+                = compiledSources.toArray(
+                        new ReplacementService[compiledSources.size()]);
+            patternGroups = new int[groups.size()];
+            for (int i = 0; i < patternGroups.length; i++)
+                patternGroups[i] = groups.get(i);
+
+            if (compiledPatterns.isEmpty())
+                pattern = null;
+            else
+            {
+                /*
+                 * The alternatives are tried at each position of a message so
+                 * a lookbehind they all start with, such as the one for the
+                 * text of a link, is checked once rather than once for each
+                 * of them.
+                 */
+                StringBuilder regex = new StringBuilder();
+
+                if (lookbehind != null)
+                    regex.append(lookbehind).append("(?:");
+                for (int i = 0; i < compiledPatterns.size(); i++)
+                {
+                    String sourcePattern = compiledPatterns.get(i);
+
+                    if (i != 0)
+                        regex.append('|');
+                    regex.append('(')
+                        .append(
+                                (lookbehind == null)
+                                    ? sourcePattern
+                                    : sourcePattern.substring(
+                                            lookbehind.length()))
+                        .append(')');
+                }
+                if (lookbehind != null)
+                    regex.append(')');
+
+                pattern
+                    = Pattern.compile(
+                            regex.toString(),
+                            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+            }
+        }
+
+        /**
+         * Returns the lookbehind group a pattern starts with.
+         *
+         * @param pattern the pattern
+         * @return the lookbehind group <tt>pattern</tt> starts with or
+         * <tt>null</tt> if it does not start with one
+         */
+        private static String getLeadingLookbehind(String pattern)
+        {
+            if (!pattern.startsWith("(?<=") && !pattern.startsWith("(?<!"))
+                return null;
+
+            int depth = 0;
+            boolean inClass = false;
+
+            for (int i = 0, length = pattern.length(); i < length; i++)
+            {
+                char c = pattern.charAt(i);
+
+                if (c == '\\')
+                    i++;
+                else if (inClass)
+                {
+                    if (c == ']')
+                        inClass = false;
+                }
+                else if (c == '[')
+                    inClass = true;
+                else if (c == '(')
+                    depth++;
+                else if ((c == ')') && (--depth == 0))
+                    return pattern.substring(0, i + 1);
+            }
+            return null;
+        }
+
+        /**
+         * Determines whether a smilies pack has been reloaded since these rules
+         * were compiled.
+         *
+         * @return <tt>true</tt> if these rules are to be compiled again;
+         * otherwise, <tt>false</tt>
+         */
+        boolean isStale()
+        {
+            for (int i = 0; i < smileySources.size(); i++)
+            {
+                if (smileySources.get(i).getSmiliesPack()
+                        != smileyPacks.get(i))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Finds the text of a message which the sources replace.
+         *
+         * @param message the HTML of the message
+         * @return the matches in <tt>message</tt> in order
+         * @see ChatReplacementEngine#find(String)
+         */
+        List<Match> find(String message)
+        {
+            List<Match> patternMatches = Collections.emptyList();
+
+            if (pattern != null)
+            {
+                Matcher m = pattern.matcher(message);
+
+                while (m.find())
+                {
+                    if (m.end() == m.start())
+                        continue;
+
+                    for (int i = 0; i < patternGroups.length; i++)
+                    {
+                        if (m.start(patternGroups[i]) != -1)
+                        {
+                            if (patternMatches.isEmpty())
+                                patternMatches = new ArrayList<Match>();
+                            patternMatches.add(
+                                    new Match(
+                                            m.start(), m.end(),
+                                            m.group(),
+                                            patternSources[i],
+                                            null));
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (smileyMatcher == null)
+                return patternMatches;
+
+            long[] smileyMatches = smileyMatcher.find(message);
+
+            if (smileyMatches.length == 0)
+                return patternMatches;
+
+            List<Match> matches
+                = new ArrayList<Match>(
+                        patternMatches.size() + smileyMatches.length);
+            int p = 0;
+
+            for (long smileyMatch : smileyMatches)
+            {
+                int start = LiteralMatcher.getStart(smileyMatch);
+                int index = LiteralMatcher.getIndex(smileyMatch);
+                int end = start + smileyMatcher.getLength(index);
+
+                while ((p < patternMatches.size())
+                        && (patternMatches.get(p).end <= start))
+                    matches.add(patternMatches.get(p++));
+
+                // inside the text matched by another source
+                if ((p < patternMatches.size())
+                        && (patternMatches.get(p).start < end))
+                    continue;
+
+                matches.add(
+                        new Match(
+                                start, end,
+                                message.substring(start, end),
+                                smileyStringSources[index],
+                                smileyReplacements[index]));
+            }
+            while (p < patternMatches.size())
+                matches.add(patternMatches.get(p++));
+            return matches;
+        }
+    }
+
+    /**
+     * An Aho-Corasick automaton which finds the leftmost longest occurrences of
+     * a set of strings outside the tags of an HTML text.
+     */
+    private static class LiteralMatcher
+    {
+        /**
+         * The class of each ASCII character, <tt>0</tt> for the characters
+         * which do not occur in the strings.
+         */
+        private final int[] asciiClasses = new int[128];
+
+        /**
+         * The class of each other character occurring in the strings.
+         */
+        private final Map<Character, Integer> otherClasses
+            = new HashMap<Character, Integer>();
+
+        /**
+         * The lengths of the strings.
+         */
+        private final int[] lengths;
+
+        /**
+         * The next state by state and character class.
+         */
+        private final int[][] transitions;
+
+        /**
+         * The indexes of the strings which end in each state, <tt>null</tt>
+         * for the states in which none ends.
+         */
+        private final int[][] outputs;
+
+        LiteralMatcher(List<String> strings)
+        {
+            int classCount = 1;
+
+            lengths = new int[strings.size()];
+            for (int i = 0; i < lengths.length; i++)
+            {
+                String s = strings.get(i);
+
+                lengths[i] = s.length();
+                for (int j = 0; j < s.length(); j++)
+                {
+                    char c = s.charAt(j);
+
+                    if (c < asciiClasses.length)
+                    {
+                        if (asciiClasses[c] == 0)
+                            asciiClasses[c] = classCount++;
+                    }
+                    else if (!otherClasses.containsKey(c))
+                        otherClasses.put(c, classCount++);
+                }
+            }
+
+            // the trie
+            List<int[]> trie = new ArrayList<int[]>();
+            List<List<Integer>> trieOutputs = new ArrayList<List<Integer>>();
+
+            trie.add(new int[classCount]);
+            trieOutputs.add(null);
+            for (int i = 0; i < lengths.length; i++)
+            {
+                String s = strings.get(i);
+                int state = 0;
+
+                for (int j = 0; j < s.length(); j++)
+                {
+                    int c = getClass(s.charAt(j));
+                    int next = trie.get(state)[c];
+
+                    if (next == 0)
+                    {
+                        next = trie.size();
+                        trie.add(new int[classCount]);
+                        trieOutputs.add(null);
+                        trie.get(state)[c] = next;
+                    }
+                    state = next;
+                }
+                if (trieOutputs.get(state) == null)
+                    trieOutputs.set(state, new ArrayList<Integer>(2));
+                trieOutputs.get(state).add(i);
+            }
+
+            // the failure links turned into transitions, breadth first
+            int stateCount = trie.size();
+            int[] failures = new int[stateCount];
+            int[] queue = new int[stateCount];
+            int head = 0, tail = 0;
+
+            transitions = new int[stateCount][];
+            outputs = new int[stateCount][];
+            transitions[0] = trie.get(0);
+            for (int c = 1; c < classCount; c++)
+            {
+                if (transitions[0][c] != 0)
+                    queue[tail++] = transitions[0][c];
+            }
+            outputs[0] = null;
+            while (head < tail)
+            {
+                int state = queue[head++];
+                int[] next = trie.get(state);
+                int failure = failures[state];
+
+                List<Integer> out = trieOutputs.get(state);
+                int[] failureOut = outputs[failure];
+
+                if ((out != null) || (failureOut != null))
+                {
+                    int size
+                        = ((out == null) ? 0 : out.size())
+                            + ((failureOut == null) ? 0 : failureOut.length);
+                    int[] stateOut = new int[size];
+                    int k = 0;
+
+                    if (out != null)
+                        for (int i : out)
+                            stateOut[k++] = i;
+                    if (failureOut != null)
+                        for (int i : failureOut)
+                            stateOut[k++] = i;
+                    outputs[state] = stateOut;
+                }
+
+                for (int c = 1; c < classCount; c++)
+                {
+                    if (next[c] != 0)
+                    {
+                        failures[next[c]] = transitions[failure][c];
+                        queue[tail++] = next[c];
+                    }
+                    else
+                        next[c] = transitions[failure][c];
+                }
+                transitions[state] = next;
+            }
+        }
+
+        /**
+         * Returns the class of a character.
+         *
+         * @param c the character
+         * @return the class of <tt>c</tt>, <tt>0</tt> if it does not occur in
+         * the strings
+         */
+        private int getClass(char c)
+        {
+            if (c < asciiClasses.length)
+                return asciiClasses[c];
+
+            Integer cls = otherClasses.get(c);
+
+            return (cls == null) ? 0 : cls;
+        }
+
+        /**
+         * Returns the length of a string.
+         *
+         * @param index the index of the string
+         * @return the length of the string
+         */
+        int getLength(int index)
+        {
+            return lengths[index];
+        }
+
+        /**
+         * Finds the leftmost longest non-overlapping occurrences of the strings
+         * in a text, leaving out those inside tags.
+         *
+         * @param text the HTML text
+         * @return the occurrences in order, each one encoded in a
+         * <tt>long</tt> to be decoded by {@link #getStart(long)} and
+         * {@link #getIndex(long)}
+         */
+        long[] find(String text)
+        {
+            long[] found = null;
+            int foundCount = 0;
+            int state = 0;
+            boolean inTag = false;
+            int lastTagBoundary = -1;
+
+            for (int i = 0, length = text.length(); i < length; i++)
+            {
+                char c = text.charAt(i);
+
+                if (c == '<')
+                {
+                    inTag = true;
+                    lastTagBoundary = i;
+                }
+                else if (c == '>')
+                {
+                    inTag = false;
+                    lastTagBoundary = i;
+                }
+
+                state = transitions[state][getClass(c)];
+
+                int[] out = outputs[state];
+
+                if ((out == null) || inTag)
+                    continue;
+
+                for (int index : out)
+                {
+                    int start = i + 1 - lengths[index];
+
+                    if (start <= lastTagBoundary)
+                        continue;
+                    if (found == null)
+                        found = new long[8];
+                    else if (foundCount == found.length)
+                        found = Arrays.copyOf(found, 2 * foundCount);
+                    found[foundCount++] = encode(start, index);
+                }
+            }
+
+            if (found == null)
+                return new long[0];
+
+            // by start, the longest first
+            Long[] sorted = new Long[foundCount];
+
+            for (int i = 0; i < foundCount; i++)
+                sorted[i] = found[i];
+            Arrays.sort(
+                    sorted,
+                    new Comparator<Long>()
+                    {
+                        public int compare(Long l1, Long l2)
+                        {
+                            int s1 = getStart(l1), s2 = getStart(l2);
+
+                            if (s1 != s2)
+                                return (s1 < s2) ? -1 : 1;
+                            return
+                                lengths[getIndex(l2)] - lengths[getIndex(l1)];
+                        }
+                    });
+
+            int resultCount = 0;
+            int end = 0;
+
+            for (Long l : sorted)
+            {
+                int start = getStart(l);
+
+                if (start >= end)
+                {
+                    found[resultCount++] = l;
+                    end = start + lengths[getIndex(l)];
+                }
+            }
+            return Arrays.copyOf(found, resultCount);
+        }
+
+        /**
+         * Encodes an occurrence of a string.
+         *
+         * @param start the index of the first character of the occurrence
+         * @param index the index of the string
+         * @return the encoded occurrence
+         */
+        private static long encode(int start, int index)
+        {
+            return ((long) start << 32) | index;
+        }
+
+        /**
+         * Returns the index of the first character of an occurrence.
+         *
+         * @param l the encoded occurrence
+         * @return the index of the first character of the occurrence
+         */
+        static int getStart(long l)
+        {
+            return (int) (l >>> 32);
+        }
+
+        /**
+         * Returns the index of the string of an occurrence.
+         *
+         * @param l the encoded occurrence
+         * @return the index of the string of the occurrence
+         */
+        static int getIndex(long l)
+        {
+            return (int) l;
+        }
+    }
+}
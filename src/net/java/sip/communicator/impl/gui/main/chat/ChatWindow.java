@@ -1033,9 +1033,10 @@ public class ChatWindow
         ImageIcon contactPhotoIcon;
         if (chatAvatar != null && chatAvatar.length > 0)
         {
-            contactPhotoIcon = ImageUtils.getScaledRoundedIcon(chatAvatar,
-                                                                128,
-                                                                128);
+            contactPhotoIcon
+                = AvatarCache.getInstance().getAvatar(
+                    chatAvatar, 128, 128,
+                    AvatarCache.Shape.ROUNDED);
 
             if (contactPhotoIcon != null)
                 this.setIconImage(contactPhotoIcon.getImage());
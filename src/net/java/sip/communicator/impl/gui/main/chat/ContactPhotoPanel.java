@@ -103,9 +103,10 @@ public class ContactPhotoPanel extends JLayeredPane
             this.tooltipIcon = new ImageIcon(chatAvatar);
 
             ImageIcon contactPhotoIcon
-                = ImageUtils.getScaledRoundedIcon(chatAvatar,
-                    ChatContact.AVATAR_ICON_WIDTH ,
-                    ChatContact.AVATAR_ICON_HEIGHT);
+                = AvatarCache.getInstance().getAvatar(chatAvatar,
+                    ChatContact.AVATAR_ICON_WIDTH,
+                    ChatContact.AVATAR_ICON_HEIGHT,
+                    AvatarCache.Shape.ROUNDED);
 
             if (contactPhotoIcon != null)
                 this.photoLabel.setIcon(contactPhotoIcon);
@@ -15,6 +15,7 @@ import javax.swing.*;
 import net.java.sip.communicator.impl.gui.*;
 import net.java.sip.communicator.impl.gui.main.chat.*;
 import net.java.sip.communicator.impl.gui.main.contactlist.*;
+import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.ServerStoredDetails.BinaryDetail;
 import net.java.sip.communicator.service.protocol.ServerStoredDetails.GenericDetail;
@@ -147,8 +148,7 @@ public class ChatContactCellRenderer
 
                                 if(binBytes != null)
                                     this.rightLabel.setIcon(
-                                        ImageUtils.getScaledRoundedIcon(
-                                            binBytes, 25, 25));
+                                        getAvatar(binBytes, list));
                                 break;
                             }
                         }
@@ -193,9 +193,7 @@ public class ChatContactCellRenderer
                         byte[] cImage = c.getImage();
 
                         if (cImage != null)
-                            this.rightLabel.setIcon(
-                                    ImageUtils.getScaledRoundedIcon(
-                                            cImage, 25, 25));
+                            this.rightLabel.setIcon(getAvatar(cImage, list));
                     }
                 }
             }
@@ -214,4 +212,29 @@ public class ChatContactCellRenderer
 
         return this;
     }
+
+    /**
+     * Returns the avatar rendered from the bytes of an image to be shown in a
+     * cell of a list.
+     *
+     * @param imageBytes the bytes of the image
+     * @param list the list to repaint once the avatar has been rendered if it
+     * is not rendered yet
+     * @return the avatar or <tt>null</tt> if it is not rendered yet
+     */
+    private static ImageIcon getAvatar(byte[] imageBytes, final JList list)
+    {
+        return AvatarCache.getInstance().getAvatar(
+            imageBytes,
+            25,
+            25,
+            AvatarCache.Shape.ROUNDED,
+            new Runnable()
+            {
+                public void run()
+                {
+                    list.repaint();
+                }
+            });
+    }
 }
@@ -50,13 +50,6 @@ public class ContactListCellRenderer
      */
     private static final int AVATAR_WIDTH = 30;
 
-    /**
-     * The key of the user data in <tt>MetaContact</tt> which specifies
-     * the avatar cached from previous invocations.
-     */
-    private static final String AVATAR_DATA_KEY
-        = ContactListCellRenderer.class.getName() + ".avatar";
-
     /**
      * The icon indicating an open group.
      */
@@ -239,9 +232,7 @@ public class ContactListCellRenderer
 
             this.setBorder(BorderFactory.createEmptyBorder(1, 3, 1, 3));
 
-            ImageIcon avatar = getAvatar(metaContact);
-            if (avatar != null)
-                this.rightLabel.setIcon(avatar);
+            this.rightLabel.setIcon(getAvatar(metaContact, list));
             this.rightLabel.setText("");
 
             // We should set the bounds of the cell explicitly in order to
@@ -310,43 +301,25 @@ public class ContactListCellRenderer
      * <tt>ImageIcon</tt> value.
      *
      * @param metaContact the <tt>MetaContact</tt> to retrieve the avatar of
+     * @param list the list to repaint once the avatar has been rendered if it
+     * is not rendered yet
      * @return an <tt>ImageIcon</tt> which represents the avatar of the
      * specified <tt>MetaContact</tt>
      */
-    private ImageIcon getAvatar(MetaContact metaContact)
+    private ImageIcon getAvatar(MetaContact metaContact, final JList list)
     {
-        byte[] avatarBytes = metaContact.getAvatar(true);
-        ImageIcon avatar = null;
-
-        // Try to get the avatar from the cache.
-        Object[] avatarCache = (Object[]) metaContact.getData(AVATAR_DATA_KEY);
-        if ((avatarCache != null) && (avatarCache[0] == avatarBytes))
-            avatar = (ImageIcon) avatarCache[1];
-
-        // If the avatar isn't available or it's not up-to-date, create it.
-        if ((avatar == null)
-                && (avatarBytes != null) && (avatarBytes.length > 0))
-            avatar
-                = ImageUtils.getScaledRoundedIcon(
-                        avatarBytes,
-                        AVATAR_WIDTH,
-                        AVATAR_HEIGHT);
-
-        // Cache the avatar in case it has changed.
-        if (avatarCache == null)
-        {
-            if (avatar != null)
-                metaContact.setData(
-                    AVATAR_DATA_KEY,
-                    new Object[] { avatarBytes, avatar });
-        }
-        else
-        {
-            avatarCache[0] = avatarBytes;
-            avatarCache[1] = avatar;
-        }
-
-        return avatar;
+        return AvatarCache.getInstance().getAvatar(
+            metaContact.getAvatar(true),
+            AVATAR_WIDTH,
+            AVATAR_HEIGHT,
+            AvatarCache.Shape.ROUNDED,
+            new Runnable()
+            {
+                public void run()
+                {
+                    list.repaint();
+                }
+            });
     }
 
     /**
@@ -11,6 +11,7 @@ import java.util.regex.*;
 
 import net.java.sip.communicator.impl.gui.*;
 import net.java.sip.communicator.impl.gui.main.contactlist.contactsource.*;
+import net.java.sip.communicator.service.contactlist.*;
 import net.java.sip.communicator.service.contactsource.*;
 
 /**
@@ -38,7 +39,14 @@ public class SearchFilter
     private String filterString;
 
     /**
-     * The pattern to filter.
+     * The filter string normalized by
+     * {@link MetaContactSearchIndex#normalize(String)}.
+     */
+    private String normalizedFilterString;
+
+    /**
+     * The pattern to filter, compiled when first needed by an
+     * <tt>ExtendedContactSourceService</tt>.
      */
     private Pattern filterPattern;
 
@@ -76,7 +84,7 @@ public class SearchFilter
         if (searchSourceType == DEFAULT_SOURCE)
         {
             MetaContactQuery defaultQuery
-                = mclSource.queryMetaContactSource(filterPattern);
+                = mclSource.queryMetaContactSource(filterString);
 
             defaultQuery.addContactQueryListener(GuiActivator.getContactList());
 
@@ -124,7 +132,7 @@ public class SearchFilter
         if (sourceService instanceof ExtendedContactSourceService)
             contactQuery
                 = ((ExtendedContactSourceService) sourceService)
-                    .queryContactSource(filterPattern);
+                    .queryContactSource(getFilterPattern());
         else
             contactQuery = sourceService.queryContactSource(filterString);
 
@@ -144,6 +152,16 @@ public class SearchFilter
      */
     public boolean isMatching(UIContact uiContact)
     {
+        Object descriptor = uiContact.getDescriptor();
+
+        if (descriptor instanceof MetaContact)
+        {
+            return
+                mclSource.getSearchIndex().isMatching(
+                        (MetaContact) descriptor,
+                        normalizedFilterString);
+        }
+
         Iterator<String> searchStrings = uiContact.getSearchStrings();
 
         if (searchStrings != null)
@@ -176,20 +194,34 @@ public class SearchFilter
      */
     public void setFilterString(String filter)
     {
-        // First escape all special characters from the given filter string.
         this.filterString = filter;
+        this.normalizedFilterString = MetaContactSearchIndex.normalize(filter);
+        this.filterPattern = null;
+    }
 
-        // Then create the pattern.
-        // By default, case-insensitive matching assumes that only characters
-        // in the US-ASCII charset are being matched, that's why we use
-        // the UNICODE_CASE flag to enable unicode case-insensitive matching.
-        // Sun Bug ID: 6486934 "RegEx case_insensitive match is broken"
-        this.filterPattern
+    /**
+     * Returns the pattern matching the filter string, compiling it if
+     * necessary.
+     * @return the pattern matching the filter string
+     */
+    private synchronized Pattern getFilterPattern()
+    {
+        if (filterPattern == null)
+        {
+            // First escape all special characters from the given filter
+            // string. By default, case-insensitive matching assumes that only
+            // characters in the US-ASCII charset are being matched, that's why
+            // we use the UNICODE_CASE flag to enable unicode case-insensitive
+            // matching.
+            // Sun Bug ID: 6486934 "RegEx case_insensitive match is broken"
+            filterPattern
                 = Pattern.compile(
                         Pattern.quote(filterString),
                         Pattern.MULTILINE
                             | Pattern.CASE_INSENSITIVE
                             | Pattern.UNICODE_CASE);
+        }
+        return filterPattern;
     }
 
     /**
@@ -213,7 +245,9 @@ public class SearchFilter
      */
     private boolean isMatching(String text)
     {
-        return filterPattern.matcher(text).find();
+        return
+            MetaContactSearchIndex.normalize(text).contains(
+                    normalizedFilterString);
     }
 
     /**
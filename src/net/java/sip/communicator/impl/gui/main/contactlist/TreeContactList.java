@@ -149,6 +149,8 @@ public class TreeContactList
         this.addMouseMotionListener(this);
         this.addTreeExpansionListener(this);
 
+        GuiActivator.getContactListService()
+            .addMetaContactListListener(mclSource.getSearchIndex());
         GuiActivator.getContactListService()
             .addMetaContactListListener(mclSource);
 
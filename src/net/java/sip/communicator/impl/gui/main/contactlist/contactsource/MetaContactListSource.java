@@ -10,7 +10,6 @@ import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
-import java.util.regex.*;
 
 import javax.swing.*;
 
@@ -83,6 +82,12 @@ public class MetaContactListSource
     private static final Logger logger
         = Logger.getLogger(MetaContactListSource.class);
 
+    /**
+     * The index of the text the search matches <tt>MetaContact</tt>s against.
+     */
+    private final MetaContactSearchIndex searchIndex
+        = new MetaContactSearchIndex();
+
     /**
      * Returns the <tt>UIContact</tt> corresponding to the given
      * <tt>MetaContact</tt>.
@@ -182,15 +187,30 @@ public class MetaContactListSource
         return group.equals(GuiActivator.getContactListService().getRoot());
     }
 
+    /**
+     * Returns the <tt>MetaContactSearchIndex</tt> this source searches the
+     * <tt>MetaContactListService</tt> through. It is to be registered as a
+     * <tt>MetaContactListListener</tt> in order to be kept up to date.
+     *
+     * @return the <tt>MetaContactSearchIndex</tt> this source searches the
+     * <tt>MetaContactListService</tt> through
+     */
+    public MetaContactSearchIndex getSearchIndex()
+    {
+        return searchIndex;
+    }
+
     /**
      * Filters the <tt>MetaContactListService</tt> to match the given
-     * <tt>filterPattern</tt> and stores the result in the given
-     * <tt>treeModel</tt>.
-     * @param filterPattern the pattern to filter through
+     * <tt>filterString</tt> and stores the result in the given
+     * <tt>treeModel</tt>. If the filter string extends the one of the last
+     * completed query and the contact list has not changed since, only the
+     * results of that query are checked.
+     * @param filterString the string to filter through
      * @return the created <tt>MetaContactQuery</tt> corresponding to the
      * query this method does
      */
-    public MetaContactQuery queryMetaContactSource(final Pattern filterPattern)
+    public MetaContactQuery queryMetaContactSource(final String filterString)
     {
         final MetaContactQuery query = new MetaContactQuery();
 
@@ -198,18 +218,48 @@ public class MetaContactListSource
         {
             public void run()
             {
-                int resultCount = 0;
-                queryMetaContactSource( filterPattern,
-                        GuiActivator.getContactListService().getRoot(),
-                        query,
-                        resultCount);
+                long startTime = System.nanoTime();
+                String filter = MetaContactSearchIndex.normalize(filterString);
+                long version = searchIndex.getVersion();
+                List<MetaContact> candidates
+                    = searchIndex.getLastResults(filter, version);
+                List<MetaContact> results = new ArrayList<MetaContact>();
+
+                if (candidates != null)
+                {
+                    queryMetaContacts(filter, candidates, query, results);
+                }
+                else
+                {
+                    queryMetaContactSource( filter,
+                            GuiActivator.getContactListService().getRoot(),
+                            query,
+                            0,
+                            results);
+                }
 
                 if (!query.isCanceled())
+                {
+                    searchIndex.setLastResults(filter, version, results);
                     query.fireQueryEvent(
                         MetaContactQueryStatusEvent.QUERY_COMPLETED);
+                }
                 else
                     query.fireQueryEvent(
                         MetaContactQueryStatusEvent.QUERY_CANCELED);
+
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug(
+                        "Search for \"" + filterString + "\" matched "
+                            + results.size() + " contacts in "
+                            + (System.nanoTime() - startTime) / 1000 + " us ("
+                            + ((candidates != null)
+                                ? ("refined from " + candidates.size())
+                                : "full")
+                            + (query.isCanceled() ? ", canceled" : "")
+                            + ")");
+                }
             }
         }.start();
 
@@ -218,18 +268,22 @@ public class MetaContactListSource
 
     /**
      * Filters the children in the given <tt>MetaContactGroup</tt> to match the
-     * given <tt>filterPattern</tt> and stores the result in the given
+     * given <tt>filterString</tt> and stores the result in the given
      * <tt>treeModel</tt>.
-     * @param filterPattern the pattern to filter through
+     * @param filterString the string to filter through, normalized by
+     * {@link MetaContactSearchIndex#normalize(String)}
      * @param parentGroup the <tt>MetaContactGroup</tt> to filter
      * @param query the object that tracks the query
      * @param resultCount the initial result count we would insert directly to
      * the contact list without firing events
+     * @param results the list to add the matching <tt>MetaContact</tt>s to
+     * @return the result count after filtering <tt>parentGroup</tt>
      */
-    public void queryMetaContactSource(Pattern filterPattern,
-                                        MetaContactGroup parentGroup,
-                                        MetaContactQuery query,
-                                        int resultCount)
+    private int queryMetaContactSource(String filterString,
+                                       MetaContactGroup parentGroup,
+                                       MetaContactQuery query,
+                                       int resultCount,
+                                       List<MetaContact> results)
     {
         Iterator<MetaContact> childContacts = parentGroup.getChildContacts();
 
@@ -237,107 +291,126 @@ public class MetaContactListSource
         {
             MetaContact metaContact = childContacts.next();
 
-            if (isMatching(filterPattern, metaContact))
+            if (searchIndex.isMatching(metaContact, filterString))
             {
                 resultCount++;
-
-                if (resultCount <= INITIAL_CONTACT_COUNT)
-                {
-                    UIGroup uiGroup = null;
-                    if (!MetaContactListSource.isRootGroup(parentGroup))
-                    {
-                        synchronized (parentGroup)
-                        {
-                            uiGroup = MetaContactListSource
-                                .getUIGroup(parentGroup);
-
-                            if (uiGroup == null)
-                                uiGroup = MetaContactListSource
-                                    .createUIGroup(parentGroup);
-                        }
-                    }
-
-                    UIContact newUIContact;
-                    synchronized (metaContact)
-                    {
-                        newUIContact
-                            = MetaContactListSource.createUIContact(metaContact);
-                    }
-
-                    GuiActivator.getContactList().addContact(
-                        newUIContact,
-                        uiGroup,
-                        true,
-                        true);
-
-                    query.setInitialResultCount(resultCount);
-                }
-                else
-                    query.fireQueryEvent(metaContact);
+                results.add(metaContact);
+                addResult(metaContact, parentGroup, query, resultCount);
             }
         }
 
         // If in the meantime the query is canceled we return here.
         if(query.isCanceled())
-            return;
+            return resultCount;
 
         Iterator<MetaContactGroup> subgroups = parentGroup.getSubgroups();
         while (subgroups.hasNext() && !query.isCanceled())
         {
             MetaContactGroup subgroup = subgroups.next();
 
-            queryMetaContactSource(filterPattern, subgroup, query, resultCount);
+            resultCount
+                = queryMetaContactSource(
+                        filterString, subgroup, query, resultCount, results);
         }
+        return resultCount;
     }
 
     /**
-     * Checks if the given <tt>metaContact</tt> is matching the given
-     * <tt>filterPattern</tt>.
-     * A <tt>MetaContact</tt> would be matching the filter if one of the
-     * following is true:<br>
-     * - its display name contains the filter string
-     * - at least one of its child protocol contacts has a display name or an
-     * address that contains the filter string.
-     * @param filterPattern the filter pattern to check for matches
-     * @param metaContact the <tt>MetaContact</tt> to check
-     * @return <tt>true</tt> to indicate that the given <tt>metaContact</tt> is
-     * matching the current filter, otherwise returns <tt>false</tt>
+     * Filters the given <tt>MetaContact</tt>s, the results of a previous
+     * query, to match the given <tt>filterString</tt>.
+     * @param filterString the string to filter through, normalized by
+     * {@link MetaContactSearchIndex#normalize(String)}
+     * @param candidates the <tt>MetaContact</tt>s to filter
+     * @param query the object that tracks the query
+     * @param results the list to add the matching <tt>MetaContact</tt>s to
      */
-    private boolean isMatching(Pattern filterPattern, MetaContact metaContact)
+    private void queryMetaContacts(String filterString,
+                                   List<MetaContact> candidates,
+                                   MetaContactQuery query,
+                                   List<MetaContact> results)
     {
-        Matcher matcher = filterPattern.matcher(metaContact.getDisplayName());
+        int resultCount = 0;
 
-        if(matcher.find())
-            return true;
+        for (MetaContact metaContact : candidates)
+        {
+            if (query.isCanceled())
+                return;
 
-        Iterator<Contact> contacts = metaContact.getContacts();
-        while (contacts.hasNext())
+            if (searchIndex.isMatching(metaContact, filterString))
+            {
+                MetaContactGroup parentGroup
+                    = metaContact.getParentMetaContactGroup();
+
+                if (parentGroup == null)
+                    continue;
+
+                resultCount++;
+                results.add(metaContact);
+                addResult(metaContact, parentGroup, query, resultCount);
+            }
+        }
+    }
+
+    /**
+     * Adds a <tt>MetaContact</tt> matching a query to the contact list. The
+     * first results are inserted directly, the others through query events.
+     * @param metaContact the matching <tt>MetaContact</tt>
+     * @param parentGroup the parent group of <tt>metaContact</tt>
+     * @param query the object that tracks the query
+     * @param resultCount the number of results of the query so far, including
+     * <tt>metaContact</tt>
+     */
+    private void addResult(MetaContact metaContact,
+                           MetaContactGroup parentGroup,
+                           MetaContactQuery query,
+                           int resultCount)
+    {
+        if (resultCount <= INITIAL_CONTACT_COUNT)
         {
-            Contact contact = contacts.next();
+            UIGroup uiGroup = null;
+            if (!MetaContactListSource.isRootGroup(parentGroup))
+            {
+                synchronized (parentGroup)
+                {
+                    uiGroup = MetaContactListSource
+                        .getUIGroup(parentGroup);
 
-            matcher = filterPattern.matcher(contact.getDisplayName());
+                    if (uiGroup == null)
+                        uiGroup = MetaContactListSource
+                            .createUIGroup(parentGroup);
+                }
+            }
 
-            if (matcher.find())
-                return true;
+            UIContact newUIContact;
+            synchronized (metaContact)
+            {
+                newUIContact
+                    = MetaContactListSource.createUIContact(metaContact);
+            }
 
-            matcher = filterPattern.matcher(contact.getAddress());
+            GuiActivator.getContactList().addContact(
+                newUIContact,
+                uiGroup,
+                true,
+                true);
 
-            if (matcher.find())
-                return true;
+            query.setInitialResultCount(resultCount);
         }
-        return false;
+        else
+            query.fireQueryEvent(metaContact);
     }
 
     /**
      * Checks if the given <tt>metaGroup</tt> is matching the current filter. A
      * group is matching the current filter only if it contains at least one
      * child <tt>MetaContact</tt>, which is matching the current filter.
-     * @param filterPattern the filter pattern to check for matches
+     * @param filterString the filter string to check for matches, normalized
+     * by {@link MetaContactSearchIndex#normalize(String)}
      * @param metaGroup the <tt>MetaContactGroup</tt> to check
      * @return <tt>true</tt> to indicate that the given <tt>metaGroup</tt> is
      * matching the current filter, otherwise returns <tt>false</tt>
      */
-    public boolean isMatching(Pattern filterPattern, MetaContactGroup metaGroup)
+    public boolean isMatching(String filterString, MetaContactGroup metaGroup)
     {
         Iterator<MetaContact> contacts = metaGroup.getChildContacts();
 
@@ -345,7 +418,7 @@ public class MetaContactListSource
         {
             MetaContact metaContact = contacts.next();
 
-            if (isMatching(filterPattern, metaContact))
+            if (searchIndex.isMatching(metaContact, filterString))
                 return true;
         }
         return false;
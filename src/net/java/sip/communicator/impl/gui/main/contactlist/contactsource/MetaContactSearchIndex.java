@@ -0,0 +1,318 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.contactlist.event.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Keeps, for each <tt>MetaContact</tt>, the text the contact list search
+ * matches against: its display name and the display names and addresses of
+ * its protocol contacts, normalized by {@link #normalize(String)}. The text is
+ * built when first needed and forgotten when the <tt>MetaContact</tt> changes,
+ * as notified by the <tt>MetaContactListService</tt>, so that searching does
+ * not go through the protocol contacts and does not compile a pattern for
+ * each typed character.
+ * <p>
+ * The index also counts the changes of the contact list, which lets a search
+ * refine the results of the previous one only while they are still valid.
+ */
+public class MetaContactSearchIndex
+    implements MetaContactListListener
+{
+    /**
+     * The character separating the strings of a search text, which cannot be
+     * typed in the search field and thus never matches.
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * The search texts by <tt>MetaContact</tt>.
+     */
+    private final ConcurrentMap<MetaContact, String> searchTexts
+        = new ConcurrentHashMap<MetaContact, String>();
+
+    /**
+     * The number of changes of the contact list so far.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * The normalized filter string of the last completed search.
+     */
+    private String lastFilterString;
+
+    /**
+     * The version of the index when the last completed search started.
+     */
+    private long lastVersion;
+
+    /**
+     * The results of the last completed search, in the order they were found.
+     */
+    private List<MetaContact> lastResults;
+
+    /**
+     * Determines whether a <tt>MetaContact</tt> matches a filter string, i.e.
+     * whether its display name or the display name or the address of one of
+     * its protocol contacts contains the filter string, ignoring case and
+     * diacritics.
+     *
+     * @param metaContact the <tt>MetaContact</tt> to check
+     * @param normalizedFilter the filter string normalized by
+     * {@link #normalize(String)}
+     * @return <tt>true</tt> if <tt>metaContact</tt> matches
+     * <tt>normalizedFilter</tt>; otherwise, <tt>false</tt>
+     */
+    public boolean isMatching(MetaContact metaContact, String normalizedFilter)
+    {
+        return getSearchText(metaContact).contains(normalizedFilter);
+    }
+
+    /**
+     * Returns the number of changes of the contact list so far. Results
+     * computed at the same version are still valid.
+     *
+     * @return the number of changes of the contact list so far
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Returns the results of the last completed search if they contain all the
+     * results of a search for a specific filter string, i.e. if the filter
+     * string contains the one of the last search and the contact list has not
+     * changed since.
+     *
+     * @param normalizedFilter the filter string of the new search, normalized
+     * by {@link #normalize(String)}
+     * @param version the version of the index when the new search started
+     * @return the results of the last completed search or <tt>null</tt> if the
+     * whole contact list is to be searched
+     */
+    public synchronized List<MetaContact> getLastResults(
+            String normalizedFilter,
+            long version)
+    {
+        if ((lastResults != null)
+                && (lastVersion == version)
+                && normalizedFilter.contains(lastFilterString))
+            return lastResults;
+        return null;
+    }
+
+    /**
+     * Remembers the results of a completed search so that the next one can
+     * refine them.
+     *
+     * @param normalizedFilter the filter string of the search, normalized by
+     * {@link #normalize(String)}
+     * @param version the version of the index when the search started
+     * @param results the results of the search
+     */
+    public synchronized void setLastResults(String normalizedFilter,
+                                            long version,
+                                            List<MetaContact> results)
+    {
+        lastFilterString = normalizedFilter;
+        lastVersion = version;
+        lastResults = results;
+    }
+
+    /**
+     * Returns the search text of a <tt>MetaContact</tt>, building it if
+     * necessary.
+     *
+     * @param metaContact the <tt>MetaContact</tt>
+     * @return the search text of <tt>metaContact</tt>
+     */
+    private String getSearchText(MetaContact metaContact)
+    {
+        String searchText = searchTexts.get(metaContact);
+
+        if (searchText == null)
+        {
+            long textVersion = version.get();
+            StringBuilder text = new StringBuilder();
+
+            append(text, metaContact.getDisplayName());
+
+            Iterator<Contact> contacts = metaContact.getContacts();
+
+            while (contacts.hasNext())
+            {
+                Contact contact = contacts.next();
+
+                append(text, contact.getDisplayName());
+                append(text, contact.getAddress());
+            }
+
+            searchText = normalize(text.toString());
+            searchTexts.put(metaContact, searchText);
+
+            // the contact list has changed while the text was built, which
+            // may have been from the state before the change; invalidate()
+            // counts the change before forgetting the texts, so either we see
+            // the change here or it forgets the text after we have cached it
+            if (version.get() != textVersion)
+                searchTexts.remove(metaContact, searchText);
+        }
+        return searchText;
+    }
+
+    /**
+     * Appends a string to a search text.
+     *
+     * @param text the search text
+     * @param s the string to append
+     */
+    private static void append(StringBuilder text, String s)
+    {
+        if (s != null)
+            text.append(s).append(SEPARATOR);
+    }
+
+    /**
+     * Normalizes a string for searching: removes its diacritics and converts it
+     * to lower case.
+     *
+     * @param s the string to normalize
+     * @return the normalized string
+     */
+    public static String normalize(String s)
+    {
+        boolean ascii = true;
+
+        for (int i = 0, length = s.length(); i < length; i++)
+        {
+            if (s.charAt(i) >= 0x80)
+            {
+                ascii = false;
+                break;
+            }
+        }
+
+        if (!ascii)
+        {
+            String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+            StringBuilder stripped = new StringBuilder(decomposed.length());
+
+            for (int i = 0, length = decomposed.length(); i < length; i++)
+            {
+                char c = decomposed.charAt(i);
+
+                if (Character.getType(c) != Character.NON_SPACING_MARK)
+                    stripped.append(c);
+            }
+            s = stripped.toString();
+        }
+        return s.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Forgets the search text of a <tt>MetaContact</tt> which has changed.
+     *
+     * @param metaContact the <tt>MetaContact</tt> which has changed
+     */
+    private void invalidate(MetaContact metaContact)
+    {
+        version.incrementAndGet();
+        if (metaContact != null)
+            searchTexts.remove(metaContact);
+    }
+
+    /**
+     * Forgets the search texts of the <tt>MetaContact</tt>s of a group and of
+     * its subgroups.
+     *
+     * @param group the <tt>MetaContactGroup</tt>
+     */
+    private void invalidate(MetaContactGroup group)
+    {
+        version.incrementAndGet();
+
+        Iterator<MetaContact> contacts = group.getChildContacts();
+
+        while (contacts.hasNext())
+            searchTexts.remove(contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            invalidate(subgroups.next());
+    }
+
+    public void metaContactAdded(MetaContactEvent evt)
+    {
+        invalidate(evt.getSourceMetaContact());
+    }
+
+    public void metaContactRenamed(MetaContactRenamedEvent evt)
+    {
+        invalidate(evt.getSourceMetaContact());
+    }
+
+    public void protoContactAdded(ProtoContactEvent evt)
+    {
+        invalidate(evt.getNewParent());
+    }
+
+    public void protoContactModified(ProtoContactEvent evt)
+    {
+        invalidate(evt.getNewParent());
+    }
+
+    public void protoContactRemoved(ProtoContactEvent evt)
+    {
+        invalidate(evt.getOldParent());
+    }
+
+    public void protoContactMoved(ProtoContactEvent evt)
+    {
+        invalidate(evt.getOldParent());
+        invalidate(evt.getNewParent());
+    }
+
+    public void metaContactRemoved(MetaContactEvent evt)
+    {
+        invalidate(evt.getSourceMetaContact());
+    }
+
+    public void metaContactMoved(MetaContactMovedEvent evt)
+    {
+        invalidate(evt.getSourceMetaContact());
+    }
+
+    public void metaContactGroupAdded(MetaContactGroupEvent evt)
+    {
+        invalidate(evt.getSourceMetaContactGroup());
+    }
+
+    public void metaContactGroupModified(MetaContactGroupEvent evt)
+    {
+        version.incrementAndGet();
+    }
+
+    public void metaContactGroupRemoved(MetaContactGroupEvent evt)
+    {
+        invalidate(evt.getSourceMetaContactGroup());
+    }
+
+    public void childContactsReordered(MetaContactGroupEvent evt) {}
+
+    public void metaContactModified(MetaContactModifiedEvent evt) {}
+
+    public void metaContactAvatarUpdated(MetaContactAvatarUpdateEvent evt) {}
+}
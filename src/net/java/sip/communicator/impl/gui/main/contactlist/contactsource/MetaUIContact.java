@@ -36,13 +36,6 @@ import net.java.sip.communicator.util.swing.*;
 public class MetaUIContact
     implements UIContact
 {
-    /**
-     * The key of the user data in <tt>MetaContact</tt> which specifies
-     * the avatar cached from previous invocations.
-     */
-    private static final String AVATAR_DATA_KEY
-        = MetaUIContact.class.getName() + ".avatar";
-
     /**
      * A list of all search strings available for the underlying
      * <tt>MetaContact</tt>.
@@ -60,6 +53,21 @@ public class MetaUIContact
      */
     private ContactNode contactNode;
 
+    /**
+     * Refreshes the contact in the contact list once its avatar has been
+     * rendered.
+     */
+    private final Runnable avatarRefresher = new Runnable()
+    {
+        public void run()
+        {
+            TreeContactList contactList = GuiActivator.getContactList();
+
+            if ((contactList != null) && (contactNode != null))
+                contactList.nodeChanged(contactNode);
+        }
+    };
+
     /**
      * The parent <tt>UIGroup</tt> of this contact.
      */
@@ -307,40 +315,12 @@ public class MetaUIContact
             return null;
         }
 
-        // If the cell is selected we return a zoomed version of the avatar
-        // image.
-        if (isSelected)
-            return ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-
-        // In any other case try to get the avatar from the cache.
-        Object[] avatarCache
-            = (Object[]) metaContact.getData(AVATAR_DATA_KEY);
-        ImageIcon avatar = null;
-
-        if ((avatarCache != null) && (avatarCache[0] == avatarBytes))
-            avatar = (ImageIcon) avatarCache[1];
-
-        // If the avatar isn't available or it's not up-to-date, create it.
-        if (avatar == null)
-        {
-            avatar = ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-        }
-
-        // Cache the avatar in case it has changed.
-        if (avatarCache == null)
-        {
-            if (avatar != null)
-                metaContact.setData(
-                    AVATAR_DATA_KEY,
-                    new Object[] { avatarBytes, avatar });
-        }
-        else
-        {
-            avatarCache[0] = avatarBytes;
-            avatarCache[1] = avatar;
-        }
-
-        return avatar;
+        // The normal and the zoomed version of the avatar of a selected cell
+        // are both kept, and rendered without holding up the painting.
+        return AvatarCache.getInstance().getAvatar(
+            avatarBytes, width, height,
+            AvatarCache.Shape.ROUNDED,
+            avatarRefresher);
     }
 
     /**
@@ -43,6 +43,21 @@ public class SourceUIContact
      */
     private ContactNode contactNode;
 
+    /**
+     * Refreshes the corresponding <tt>ContactNode</tt> once the avatar has
+     * been rendered in the background.
+     */
+    private final Runnable avatarRefresher = new Runnable()
+    {
+        public void run()
+        {
+            TreeContactList contactList = GuiActivator.getContactList();
+
+            if ((contactList != null) && (contactNode != null))
+                contactList.nodeChanged(contactNode);
+        }
+    };
+
     /**
      * The parent <tt>UIGroup</tt>.
      */
@@ -134,23 +149,12 @@ public class SourceUIContact
      */
     public ImageIcon getAvatar(boolean isSelected, int width, int height)
     {
-        byte[] image = sourceContact.getImage();
-
-        if ((image != null) && (image.length > 0))
-        {
-            ImageIcon icon = new ImageIcon(image);
-
-            if (icon.getIconWidth() > width || icon.getIconHeight() > height)
-            {
-                icon
-                    = ImageUtils.getScaledRoundedIcon(
-                            icon.getImage(),
-                            width, height);
-            }
-            return icon;
-        }
-        else
-            return null;
+        return AvatarCache.getInstance().getAvatar(
+            sourceContact.getImage(),
+            width,
+            height,
+            AvatarCache.Shape.ROUNDED_IF_LARGER,
+            avatarRefresher);
     }
 
     /**
@@ -0,0 +1,521 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps the avatars rendered from the raw bytes of contact images, so that the
+ * contact list, its tooltips, the chat window and the call windows do not
+ * decode and scale the same image again each time they show it.
+ * <p>
+ * Rendered avatars are kept by content, i.e. by the SHA-1 digest of the bytes
+ * they are rendered from, and by size and shape. The memory they take is
+ * bounded, the least recently used ones being forgotten first. Avatars may be
+ * rendered in the calling thread or, if the caller is to be notified when they
+ * are ready, in a background thread so that painting does not wait for them.
+ */
+public class AvatarCache
+{
+    /**
+     * The logger used by the <tt>AvatarCache</tt> class and its instances for
+     * logging output.
+     */
+    private static final Logger logger = Logger.getLogger(AvatarCache.class);
+
+    /**
+     * The maximum number of bytes taken by the pixels of the kept avatars.
+     */
+    private static final long MAX_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The shapes avatars are rendered in.
+     */
+    public enum Shape
+    {
+        /**
+         * Scaled within the requested size, with rounded corners.
+         */
+        ROUNDED,
+
+        /**
+         * As is if it fits within the requested size, otherwise scaled within
+         * it with rounded corners.
+         */
+        ROUNDED_IF_LARGER
+    }
+
+    /**
+     * The single <tt>AvatarCache</tt> instance.
+     */
+    private static final AvatarCache instance = new AvatarCache();
+
+    /**
+     * The rendered avatars, the least recently used first.
+     */
+    private final Map<Key, Entry> entries
+        = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+
+    /**
+     * The avatars last rendered from each content and in each shape, whatever
+     * their size, shown while an avatar of another size is rendered.
+     */
+    private final Map<Key, Key> lastRendered = new HashMap<Key, Key>();
+
+    /**
+     * The digests of the contents, kept as long as the byte arrays they are
+     * computed from. Arrays use identity for equality, so a digest is
+     * computed once per array.
+     */
+    private final Map<byte[], String> digests
+        = new WeakHashMap<byte[], String>();
+
+    /**
+     * The avatars being rendered in the background with the callbacks to run
+     * when they are.
+     */
+    private final Map<Key, List<Runnable>> pending
+        = new HashMap<Key, List<Runnable>>();
+
+    /**
+     * The thread which renders avatars in the background.
+     */
+    private final ExecutorService executor
+        = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "AvatarCache");
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    /**
+     * The number of bytes taken by the pixels of the kept avatars.
+     */
+    private long size = 0;
+
+    /**
+     * The number of requests for an avatar which was kept.
+     */
+    private long hitCount = 0;
+
+    /**
+     * The number of requests for an avatar which was not kept.
+     */
+    private long missCount = 0;
+
+    /**
+     * The number of avatars forgotten to stay within the memory budget.
+     */
+    private long evictionCount = 0;
+
+    /**
+     * Returns the <tt>AvatarCache</tt> shared by the user interface.
+     *
+     * @return the <tt>AvatarCache</tt> shared by the user interface
+     */
+    public static AvatarCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns an avatar rendered from the bytes of an image, rendering it in
+     * the calling thread if it is not kept.
+     *
+     * @param imageBytes the bytes of the image
+     * @param width the maximum width of the avatar
+     * @param height the maximum height of the avatar
+     * @param shape the shape of the avatar
+     * @return the avatar or <tt>null</tt> if <tt>imageBytes</tt> is not a
+     * valid image
+     */
+    public ImageIcon getAvatar(
+            byte[] imageBytes,
+            int width,
+            int height,
+            Shape shape)
+    {
+        return getAvatar(imageBytes, width, height, shape, null);
+    }
+
+    /**
+     * Returns an avatar rendered from the bytes of an image. If it is not kept
+     * and <tt>whenRendered</tt> is not <tt>null</tt>, the avatar is rendered in
+     * a background thread and <tt>whenRendered</tt> is run in the event
+     * dispatch thread when it is, typically to repaint the component showing
+     * it.
+     *
+     * @param imageBytes the bytes of the image
+     * @param width the maximum width of the avatar
+     * @param height the maximum height of the avatar
+     * @param shape the shape of the avatar
+     * @param whenRendered the <tt>Runnable</tt> to run when the avatar is
+     * rendered in the background or <tt>null</tt> to render it in the calling
+     * thread
+     * @return the avatar; if it is being rendered in the background, the
+     * avatar last rendered from the same image in another size or
+     * <tt>null</tt>; <tt>null</tt> if <tt>imageBytes</tt> is not a valid image
+     */
+    public ImageIcon getAvatar(
+            byte[] imageBytes,
+            int width,
+            int height,
+            Shape shape,
+            Runnable whenRendered)
+    {
+        if ((imageBytes == null) || (imageBytes.length == 0))
+            return null;
+
+        Key key = new Key(getDigest(imageBytes), width, height, shape);
+
+        synchronized (this)
+        {
+            Entry entry = entries.get(key);
+
+            if (entry != null)
+            {
+                hitCount++;
+                return entry.avatar;
+            }
+            missCount++;
+
+            if (whenRendered != null)
+            {
+                List<Runnable> callbacks = pending.get(key);
+
+                if (callbacks == null)
+                {
+                    callbacks = new ArrayList<Runnable>(1);
+                    pending.put(key, callbacks);
+                    executor.execute(new Renderer(imageBytes, key));
+                }
+                callbacks.add(whenRendered);
+
+                Key lastKey = lastRendered.get(key.getContentKey());
+                Entry last = (lastKey == null) ? null : entries.get(lastKey);
+
+                return (last == null) ? null : last.avatar;
+            }
+        }
+
+        ImageIcon avatar = render(imageBytes, key);
+
+        put(key, avatar);
+        return avatar;
+    }
+
+    /**
+     * Returns the number of requests for an avatar which was kept.
+     *
+     * @return the number of requests for an avatar which was kept
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of requests for an avatar which was not kept.
+     *
+     * @return the number of requests for an avatar which was not kept
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of avatars forgotten to stay within the memory
+     * budget.
+     *
+     * @return the number of avatars forgotten to stay within the memory
+     * budget
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of bytes taken by the pixels of the kept avatars.
+     *
+     * @return the number of bytes taken by the pixels of the kept avatars
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of kept avatars.
+     *
+     * @return the number of kept avatars
+     */
+    public synchronized int getCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the digest of the bytes of an image.
+     *
+     * @param imageBytes the bytes of the image
+     * @return the digest of <tt>imageBytes</tt>
+     */
+    private String getDigest(byte[] imageBytes)
+    {
+        synchronized (digests)
+        {
+            String digest = digests.get(imageBytes);
+
+            if (digest == null)
+            {
+                try
+                {
+                    digest = Sha1Crypto.encode(imageBytes);
+                }
+                catch (Exception e)
+                {
+                    // the array itself identifies the content then
+                    digest = "@" + System.identityHashCode(imageBytes);
+                }
+                digests.put(imageBytes, digest);
+            }
+            return digest;
+        }
+    }
+
+    /**
+     * Keeps a rendered avatar, forgetting the least recently used ones if the
+     * memory budget is exceeded.
+     *
+     * @param key the key of the avatar
+     * @param avatar the avatar or <tt>null</tt> if the image is not valid
+     */
+    private synchronized void put(Key key, ImageIcon avatar)
+    {
+        Entry entry = new Entry(avatar);
+        Entry old = entries.put(key, entry);
+
+        if (old != null)
+            size -= old.size;
+        size += entry.size;
+        if (avatar != null)
+            lastRendered.put(key.getContentKey(), key);
+
+        Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+
+        while ((size > MAX_CACHE_SIZE) && iter.hasNext())
+        {
+            Map.Entry<Key, Entry> eldest = iter.next();
+            Key eldestKey = eldest.getKey();
+
+            if (eldestKey.equals(key))
+                continue;
+
+            iter.remove();
+            size -= eldest.getValue().size;
+            evictionCount++;
+
+            Key contentKey = eldestKey.getContentKey();
+
+            if (eldestKey.equals(lastRendered.get(contentKey)))
+                lastRendered.remove(contentKey);
+        }
+    }
+
+    /**
+     * Renders an avatar.
+     *
+     * @param imageBytes the bytes of the image
+     * @param key the key of the avatar
+     * @return the avatar or <tt>null</tt> if <tt>imageBytes</tt> is not a
+     * valid image
+     */
+    private static ImageIcon render(byte[] imageBytes, Key key)
+    {
+        switch (key.shape)
+        {
+        case ROUNDED_IF_LARGER:
+            ImageIcon icon = new ImageIcon(imageBytes);
+
+            if ((icon.getIconWidth() <= key.width)
+                    && (icon.getIconHeight() <= key.height))
+                return icon;
+            return
+                ImageUtils.getScaledRoundedIcon(
+                        icon.getImage(),
+                        key.width, key.height);
+        default:
+            return
+                ImageUtils.getScaledRoundedIcon(
+                        imageBytes,
+                        key.width, key.height);
+        }
+    }
+
+    /**
+     * Renders an avatar in the background, keeps it and runs the callbacks
+     * waiting for it.
+     */
+    private class Renderer
+        implements Runnable
+    {
+        /**
+         * The bytes of the image.
+         */
+        private final byte[] imageBytes;
+
+        /**
+         * The key of the avatar.
+         */
+        private final Key key;
+
+        Renderer(byte[] imageBytes, Key key)
+        {
+            this.imageBytes = imageBytes;
+            this.key = key;
+        }
+
+        public void run()
+        {
+            ImageIcon avatar = null;
+
+            try
+            {
+                avatar = render(imageBytes, key);
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("Failed to render avatar", e);
+            }
+
+            final List<Runnable> callbacks;
+
+            synchronized (AvatarCache.this)
+            {
+                put(key, avatar);
+                callbacks = pending.remove(key);
+            }
+
+            if (callbacks != null)
+            {
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        for (Runnable callback : callbacks)
+                            callback.run();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * A rendered avatar or the fact that the image it is rendered from is not
+     * valid.
+     */
+    private static class Entry
+    {
+        /**
+         * The avatar or <tt>null</tt> if the image is not valid.
+         */
+        final ImageIcon avatar;
+
+        /**
+         * The number of bytes taken by the pixels of the avatar.
+         */
+        final long size;
+
+        Entry(ImageIcon avatar)
+        {
+            this.avatar = avatar;
+            this.size
+                = (avatar == null)
+                    ? 0
+                    : 4L * avatar.getIconWidth() * avatar.getIconHeight();
+        }
+    }
+
+    /**
+     * Identifies an avatar by the content it is rendered from, its size and
+     * its shape.
+     */
+    private static class Key
+    {
+        /**
+         * The digest of the bytes of the image.
+         */
+        final String digest;
+
+        /**
+         * The maximum width of the avatar.
+         */
+        final int width;
+
+        /**
+         * The maximum height of the avatar.
+         */
+        final int height;
+
+        /**
+         * The shape of the avatar.
+         */
+        final Shape shape;
+
+        Key(String digest, int width, int height, Shape shape)
+        {
+            this.digest = digest;
+            this.width = width;
+            this.height = height;
+            this.shape = shape;
+        }
+
+        /**
+         * Returns the key which identifies the avatars rendered from the same
+         * content and in the same shape as this one, whatever their size.
+         *
+         * @return the key of the content and shape of this avatar
+         */
+        Key getContentKey()
+        {
+            return new Key(digest, 0, 0, shape);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+
+            return (width == other.width)
+                && (height == other.height)
+                && (shape == other.shape)
+                && digest.equals(other.digest);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((digest.hashCode() * 31 + width) * 31 + height) * 31
+                + shape.hashCode();
+        }
+    }
+}
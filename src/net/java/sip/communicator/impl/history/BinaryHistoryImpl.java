@@ -0,0 +1,552 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * A <tt>History</tt> stored in a <tt>HistoryLog</tt> instead of a set of XML
+ * files. The records of the XML files of a history are copied into the log in
+ * the background when it is opened, the files created or modified since the
+ * last copy only. The XML files are left in place, so switching back to the
+ * XML storage finds the records written before, but not the ones written to
+ * the log.
+ *
+ * @see HistoryService#STORAGE_FORMAT_PROPERTY
+ */
+public class BinaryHistoryImpl
+    implements History
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>BinaryHistoryImpl</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(BinaryHistoryImpl.class);
+
+    /**
+     * The file keeping the sizes and modification times of the XML files of
+     * a history when they were last copied into its log.
+     */
+    static final String MIGRATED_FILE = "xml.migrated";
+
+    /**
+     * The thread copying the records of the XML files into the logs.
+     */
+    private static final ExecutorService migrationExecutor
+        = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "HistoryMigration");
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    private final HistoryID id;
+
+    private HistoryRecordStructure historyRecordStructure;
+
+    private final HistoryServiceImpl historyServiceImpl;
+
+    private final File directory;
+
+    private final HistoryLog log;
+
+    private HistoryReader reader;
+
+    private InteractiveHistoryReader interactiveReader;
+
+    private HistoryWriter writer;
+
+    /**
+     * Released once the records of the XML files have been copied into the
+     * log.
+     */
+    private final CountDownLatch migrated = new CountDownLatch(1);
+
+    /**
+     * Whether the files of this history have been closed, which stops the
+     * migration.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates an instance of <tt>BinaryHistoryImpl</tt> by specifying the
+     * history identifier, the directory, the <tt>HistoryRecordStructure</tt>
+     * to use and the parent <tt>HistoryServiceImpl</tt>.
+     * @param id the identifier
+     * @param directory the directory
+     * @param historyRecordStructure the structure
+     * @param historyServiceImpl the parent history service
+     */
+    protected BinaryHistoryImpl(HistoryID id, File directory,
+            HistoryRecordStructure historyRecordStructure,
+            HistoryServiceImpl historyServiceImpl)
+    {
+        this.id = id;
+        this.directory = directory;
+        this.historyServiceImpl = historyServiceImpl;
+        this.historyRecordStructure = historyRecordStructure;
+        this.log = new HistoryLog(directory);
+
+        migrationExecutor.execute(new Migration());
+    }
+
+    /**
+     * Returns the identifier of this history.
+     * @return the identifier of this history
+     */
+    public HistoryID getID()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the current <tt>HistoryRecordStructure</tt>.
+     * @return the current <tt>HistoryRecordStructure</tt>
+     */
+    public HistoryRecordStructure getHistoryRecordsStructure()
+    {
+        return historyRecordStructure;
+    }
+
+    /**
+     * Sets the given <tt>structure</tt> to be the new history records
+     * structure used in this history implementation.
+     * @param structure the new <tt>HistoryRecordStructure</tt> to use
+     */
+    public void setHistoryRecordsStructure(HistoryRecordStructure structure)
+    {
+        this.historyRecordStructure = structure;
+
+        try
+        {
+            File dbDatFile = new File(directory, HistoryServiceImpl.DATA_FILE);
+            DBStructSerializer dbss = new DBStructSerializer(historyServiceImpl);
+            dbss.writeHistory(dbDatFile, this);
+        }
+        catch (IOException e)
+        {
+            logger.debug("Could not create new history structure");
+        }
+    }
+
+    public synchronized HistoryReader getReader()
+    {
+        if (reader == null)
+            reader = new BinaryHistoryReaderImpl(this);
+        return reader;
+    }
+
+    public synchronized InteractiveHistoryReader getInteractiveReader()
+    {
+        if (interactiveReader == null)
+            interactiveReader = new BinaryInteractiveHistoryReaderImpl(this);
+        return interactiveReader;
+    }
+
+    public synchronized HistoryWriter getWriter()
+    {
+        if (writer == null)
+            writer = new BinaryHistoryWriterImpl(this);
+        return writer;
+    }
+
+    /**
+     * Returns the log storing the records of this history, once the records
+     * of its XML files have been copied into it.
+     * @return the log storing the records of this history
+     */
+    HistoryLog getLog()
+    {
+        awaitMigration();
+        return log;
+    }
+
+    /**
+     * Closes the files of this history, stopping the migration of its XML
+     * files if it is running. They are reopened on next use.
+     */
+    void close()
+    {
+        closed = true;
+        awaitMigration();
+        log.close();
+    }
+
+    /**
+     * Appends a record to the log without waiting for the migration of the
+     * XML files, the records of which are ordered with the new ones by
+     * timestamp anyway.
+     *
+     * @param record the record to append
+     * @throws IOException if writing to the log fails
+     */
+    void append(HistoryRecord record)
+        throws IOException
+    {
+        log.append(record);
+    }
+
+    /**
+     * Waits for the migration of the XML files of this history, if any is
+     * running, so that the records it copies are found.
+     */
+    private void awaitMigration()
+    {
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                migrated.await();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Copies into the log the records of the XML files of this history which
+     * have been created or modified since they were last copied, i.e. the
+     * ones written while the XML storage was selected. The size and
+     * modification time of the copied files are kept in
+     * {@link #MIGRATED_FILE}, which is written once all of them are copied,
+     * so a migration which is interrupted starts over from the same files.
+     * Records already in the log, i.e. with the same timestamp and
+     * properties, are not copied again. Changes made in XML to records which
+     * are in the log already are not copied.
+     */
+    private void migrateXmlFiles()
+    {
+        Properties stamps = loadMigratedStamps();
+        List<String> changed = getChangedXmlFiles(stamps);
+
+        if (changed.isEmpty()
+                && !new File(directory, HistoryJournal.JOURNAL_FILE).exists())
+            return;
+
+        int migrated = 0;
+        HistoryImpl xmlHistory
+            = new HistoryImpl(id, directory, historyRecordStructure,
+                    historyServiceImpl);
+
+        // replaying the journal of the XML history may have modified files
+        changed = getChangedXmlFiles(stamps);
+
+        for (String file : HistoryReaderImpl.filterFilesByDate(
+                    changed.iterator(), null, null))
+        {
+            if (closed)
+                return;
+
+            Document doc = xmlHistory.getDocumentForFile(file);
+
+            if (doc == null)
+                continue;
+
+            NodeList nodes = doc.getElementsByTagName("record");
+            List<HistoryRecord> records
+                = new ArrayList<HistoryRecord>(nodes.getLength());
+
+            for (int i = 0; i < nodes.getLength(); i++)
+            {
+                Node node = nodes.item(i);
+                long timestamp
+                    = Long.parseLong(
+                            node.getAttributes()
+                                .getNamedItem("timestamp")
+                                    .getNodeValue());
+
+                records.add(
+                    HistoryReaderImpl.filterByKeyword(
+                            node.getChildNodes(), timestamp,
+                            null, null, false));
+            }
+
+            try
+            {
+                migrated += copyMissingRecords(records);
+            }
+            catch (IOException e)
+            {
+                logger.error("Failed to migrate the XML history file "
+                    + file + " in " + directory, e);
+                return;
+            }
+
+            File xmlFile = new File(directory, file);
+
+            stamps.setProperty(file, getStamp(xmlFile));
+        }
+
+        storeMigratedStamps(stamps);
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Migrated " + migrated
+                + " history records to " + directory);
+        }
+    }
+
+    /**
+     * Appends to the log the records which are not in it already. A record is
+     * in the log if the log has a record with the same timestamp and the
+     * same properties. Records sharing their timestamp with as many records
+     * of the log are considered copied already, whatever their properties,
+     * since they have most likely been updated since.
+     *
+     * @param records the records of an XML file, ordered by timestamp
+     * @return the number of records appended
+     * @throws IOException if reading or writing the log fails
+     */
+    private int copyMissingRecords(List<HistoryRecord> records)
+        throws IOException
+    {
+        int copied = 0;
+        int i = 0;
+
+        while (i < records.size())
+        {
+            long timestamp = records.get(i).getTimestamp();
+            int end = i + 1;
+
+            while (end < records.size()
+                    && records.get(end).getTimestamp() == timestamp)
+                end++;
+
+            List<HistoryRecord> inLog = new LinkedList<HistoryRecord>();
+
+            synchronized (log)
+            {
+                for (int pos = log.firstNotBefore(timestamp);
+                        pos < log.size();
+                        pos++)
+                {
+                    HistoryRecord record = log.get(pos);
+
+                    if (record.getTimestamp() != timestamp)
+                        break;
+                    inLog.add(record);
+                }
+            }
+
+            List<HistoryRecord> missing = new LinkedList<HistoryRecord>();
+
+            for (HistoryRecord record : records.subList(i, end))
+            {
+                if (!removeEqual(inLog, record))
+                    missing.add(record);
+            }
+
+            // the records of the log left unmatched stand for as many
+            // updated versions of the missing ones
+            for (int n = missing.size() - inLog.size(); n > 0; n--)
+            {
+                log.append(missing.get(missing.size() - n));
+                copied++;
+            }
+
+            i = end;
+        }
+        return copied;
+    }
+
+    /**
+     * Removes from a list the first record with the same properties as a
+     * given record.
+     *
+     * @param records the records to remove from
+     * @param record the record to look for
+     * @return <tt>true</tt> if a record has been removed
+     */
+    private static boolean removeEqual(
+            List<HistoryRecord> records,
+            HistoryRecord record)
+    {
+        for (Iterator<HistoryRecord> iter = records.iterator();
+                iter.hasNext();)
+        {
+            HistoryRecord other = iter.next();
+
+            if (Arrays.equals(
+                        record.getPropertyNames(),
+                        other.getPropertyNames())
+                    && Arrays.equals(
+                        record.getPropertyValues(),
+                        other.getPropertyValues()))
+            {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the names of the XML files of this history which have been
+     * created or modified since they were last copied into the log.
+     *
+     * @param stamps the sizes and modification times of the files when they
+     * were last copied, by file name
+     * @return the names of the XML files to copy into the log
+     */
+    private List<String> getChangedXmlFiles(Properties stamps)
+    {
+        List<String> changed = new ArrayList<String>();
+        File[] files = directory.listFiles();
+
+        if (files == null)
+            return changed;
+
+        for (File file : files)
+        {
+            String name = file.getName();
+
+            if (name.endsWith("." + HistoryImpl.SUPPORTED_FILETYPE)
+                    && !getStamp(file).equals(stamps.getProperty(name)))
+                changed.add(name);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns a string identifying the contents of a file, made of its size
+     * and modification time.
+     *
+     * @param file the file
+     * @return the size and modification time of <tt>file</tt>
+     */
+    private static String getStamp(File file)
+    {
+        return file.length() + "/" + file.lastModified();
+    }
+
+    /**
+     * Reads the sizes and modification times of the XML files when they were
+     * last copied into the log. The marker written by the previous versions
+     * of the migration is empty, so all the files are checked again then.
+     *
+     * @return the sizes and modification times of the XML files by name
+     */
+    private Properties loadMigratedStamps()
+    {
+        Properties stamps = new Properties();
+        File file = new File(directory, MIGRATED_FILE);
+
+        if (!file.exists())
+            return stamps;
+
+        InputStream in = null;
+
+        try
+        {
+            in = new FileInputStream(file);
+            stamps.load(in);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to read " + file, e);
+            stamps.clear();
+        }
+        finally
+        {
+            closeQuietly(in);
+        }
+        return stamps;
+    }
+
+    /**
+     * Writes the sizes and modification times of the XML files copied into
+     * the log.
+     *
+     * @param stamps the sizes and modification times of the XML files by
+     * name
+     */
+    private void storeMigratedStamps(Properties stamps)
+    {
+        File file = new File(directory, MIGRATED_FILE);
+        OutputStream out = null;
+
+        try
+        {
+            out = new FileOutputStream(file);
+            stamps.store(out, null);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write " + file, e);
+        }
+        finally
+        {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Closes a stream, ignoring the exception it may throw.
+     *
+     * @param closeable the stream to close or <tt>null</tt>
+     */
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * Runs the migration of the XML files of a history and lets the readers
+     * of the history know when it is over.
+     */
+    private class Migration
+        implements Runnable
+    {
+        public void run()
+        {
+            try
+            {
+                if (!closed)
+                    migrateXmlFiles();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Failed to migrate the XML history in "
+                    + directory, t);
+            }
+            finally
+            {
+                migrated.countDown();
+            }
+        }
+    }
+}
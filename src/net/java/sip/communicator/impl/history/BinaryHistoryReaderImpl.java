@@ -0,0 +1,384 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.event.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * The <tt>HistoryReader</tt> of a <tt>BinaryHistoryImpl</tt>. Period, "last"
+ * and "first after" queries locate their first record with a binary search
+ * over the timestamp index of the <tt>HistoryLog</tt> and only read the
+ * records they return. The results are the same as the ones of
+ * <tt>HistoryReaderImpl</tt> over the same records.
+ */
+public class BinaryHistoryReaderImpl
+    implements HistoryReader
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>BinaryHistoryReaderImpl</tt> class
+     * and its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(BinaryHistoryReaderImpl.class);
+
+    private final BinaryHistoryImpl historyImpl;
+
+    private final Vector<HistorySearchProgressListener> progressListeners
+        = new Vector<HistorySearchProgressListener>();
+
+    /**
+     * Creates the reader of the given history.
+     *
+     * @param historyImpl the history to read from
+     */
+    protected BinaryHistoryReaderImpl(BinaryHistoryImpl historyImpl)
+    {
+        this.historyImpl = historyImpl;
+    }
+
+    public QueryResultSet<HistoryRecord> findByStartDate(Date startDate)
+        throws RuntimeException
+    {
+        return find(startDate, null, null, null, false);
+    }
+
+    public QueryResultSet<HistoryRecord> findByEndDate(Date endDate)
+        throws RuntimeException
+    {
+        return find(null, endDate, null, null, false);
+    }
+
+    public QueryResultSet<HistoryRecord> findByPeriod(Date startDate,
+                                                      Date endDate)
+        throws RuntimeException
+    {
+        return find(startDate, endDate, null, null, false);
+    }
+
+    public QueryResultSet<HistoryRecord> findByKeyword(String keyword,
+                                                       String field)
+        throws RuntimeException
+    {
+        return findByKeywords(new String[] { keyword }, field);
+    }
+
+    public QueryResultSet<HistoryRecord> findByKeyword(String keyword,
+                                                       String field,
+                                                       boolean caseSensitive)
+        throws RuntimeException
+    {
+        return findByKeywords(new String[] { keyword }, field, caseSensitive);
+    }
+
+    public QueryResultSet<HistoryRecord> findByKeywords(String[] keywords,
+                                                        String field)
+        throws RuntimeException
+    {
+        return find(null, null, keywords, field, false);
+    }
+
+    public QueryResultSet<HistoryRecord> findByKeywords(String[] keywords,
+                                                        String field,
+                                                        boolean caseSensitive)
+        throws RuntimeException
+    {
+        return find(null, null, keywords, field, caseSensitive);
+    }
+
+    public QueryResultSet<HistoryRecord> findByPeriod(Date startDate,
+                                                      Date endDate,
+                                                      String[] keywords,
+                                                      String field)
+        throws UnsupportedOperationException
+    {
+        return find(startDate, endDate, keywords, field, false);
+    }
+
+    public QueryResultSet<HistoryRecord> findByPeriod(Date startDate,
+                                                      Date endDate,
+                                                      String[] keywords,
+                                                      String field,
+                                                      boolean caseSensitive)
+        throws UnsupportedOperationException
+    {
+        return find(startDate, endDate, keywords, field, caseSensitive);
+    }
+
+    public QueryResultSet<HistoryRecord> findLast(int count)
+        throws RuntimeException
+    {
+        HistoryLog log = historyImpl.getLog();
+
+        synchronized (log)
+        {
+            int end = size(log);
+
+            return read(log, Math.max(0, end - count), end);
+        }
+    }
+
+    public QueryResultSet<HistoryRecord> findFirstRecordsAfter(Date date,
+                                                               int count)
+        throws RuntimeException
+    {
+        HistoryLog log = historyImpl.getLog();
+
+        synchronized (log)
+        {
+            try
+            {
+                int start = log.firstAfter(date.getTime());
+
+                return read(log, start, Math.min(log.size(), start + count));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Failed to read history", e);
+            }
+        }
+    }
+
+    public QueryResultSet<HistoryRecord> findLastRecordsBefore(Date date,
+                                                               int count)
+        throws RuntimeException
+    {
+        HistoryLog log = historyImpl.getLog();
+
+        synchronized (log)
+        {
+            try
+            {
+                int end = log.firstNotBefore(date.getTime());
+
+                return read(log, Math.max(0, end - count), end);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Failed to read history", e);
+            }
+        }
+    }
+
+    public int countRecords()
+        throws UnsupportedOperationException
+    {
+        return size(historyImpl.getLog());
+    }
+
+    public void addSearchProgressListener(
+            HistorySearchProgressListener listener)
+    {
+        synchronized (progressListeners)
+        {
+            progressListeners.add(listener);
+        }
+    }
+
+    public void removeSearchProgressListener(
+            HistorySearchProgressListener listener)
+    {
+        synchronized (progressListeners)
+        {
+            progressListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Reads the records between the given positions of the timestamp order.
+     *
+     * @param log the log to read from
+     * @param start the first position, inclusive
+     * @param end the last position, exclusive
+     * @return the records
+     */
+    private QueryResultSet<HistoryRecord> read(HistoryLog log,
+                                               int start,
+                                               int end)
+    {
+        TreeSet<HistoryRecord> result
+            = new TreeSet<HistoryRecord>(
+                    new HistoryReaderImpl.HistoryRecordComparator());
+
+        for (int pos = start; pos < end; pos++)
+        {
+            HistoryRecord record = get(log, pos);
+
+            if (record != null)
+                result.add(record);
+        }
+
+        return new OrderedQueryResultSet<HistoryRecord>(result);
+    }
+
+    /**
+     * Finds the records in the given period matching the given keywords.
+     *
+     * @param startDate the start of the period, exclusive, or <tt>null</tt>
+     * @param endDate the end of the period, exclusive, or <tt>null</tt>
+     * @param keywords the keywords to search for, or <tt>null</tt>
+     * @param field the field to search the keywords in
+     * @param caseSensitive whether the keyword match is case sensitive
+     * @return the found records
+     */
+    private QueryResultSet<HistoryRecord> find(
+        Date startDate, Date endDate,
+        String[] keywords, String field, boolean caseSensitive)
+    {
+        HistoryLog log = historyImpl.getLog();
+        // chronological, as the XML reader returns them
+        TreeSet<HistoryRecord> result
+            = new TreeSet<HistoryRecord>(
+                    Collections.reverseOrder(
+                            new HistoryReaderImpl.HistoryRecordComparator()));
+
+        fireProgressStateChanged(startDate, endDate, keywords,
+            HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
+
+        synchronized (log)
+        {
+            try
+            {
+                int start
+                    = (startDate == null)
+                        ? 0
+                        : log.firstAfter(startDate.getTime());
+                int end
+                    = (endDate == null)
+                        ? log.size()
+                        : log.firstNotBefore(endDate.getTime());
+                int lastProgress
+                    = HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE;
+
+                for (int pos = start; pos < end; pos++)
+                {
+                    HistoryRecord record = get(log, pos);
+
+                    if (record != null
+                            && matches(record, keywords, field, caseSensitive))
+                    {
+                        result.add(record);
+                    }
+
+                    int progress
+                        = (int) ((long) (pos - start + 1)
+                            * HistorySearchProgressListener
+                                .PROGRESS_MAXIMUM_VALUE
+                            / (end - start));
+
+                    if (progress != lastProgress
+                            && progress < HistorySearchProgressListener
+                                .PROGRESS_MAXIMUM_VALUE)
+                    {
+                        lastProgress = progress;
+                        fireProgressStateChanged(
+                            startDate, endDate, keywords, progress);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Failed to read history", e);
+            }
+        }
+
+        fireProgressStateChanged(startDate, endDate, keywords,
+            HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+
+        return new OrderedQueryResultSet<HistoryRecord>(result);
+    }
+
+    /**
+     * Checks whether the value of the property <tt>field</tt> of a record
+     * contains all the given keywords. Records without such property match,
+     * as they do in <tt>HistoryReaderImpl</tt>.
+     *
+     * @param record the record to check
+     * @param keywords the keywords, or <tt>null</tt> to match any record
+     * @param field the name of the property to check
+     * @param caseSensitive whether the match is case sensitive
+     * @return <tt>true</tt> if the record matches
+     */
+    static boolean matches(HistoryRecord record, String[] keywords,
+                           String field, boolean caseSensitive)
+    {
+        if (keywords == null || field == null)
+            return true;
+
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (field.equals(names[i])
+                    && !HistoryReaderImpl.matchKeyword(
+                            values[i], keywords, caseSensitive))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the record at a position of the timestamp order, logging and
+     * skipping it if it cannot be read.
+     *
+     * @param log the log to read from
+     * @param position the position of the record
+     * @return the record or <tt>null</tt> if it could not be read
+     */
+    static HistoryRecord get(HistoryLog log, int position)
+    {
+        try
+        {
+            return log.get(position);
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to read history record", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the size of the given log or <tt>0</tt> if it cannot be opened.
+     *
+     * @param log the log
+     * @return the number of records in <tt>log</tt>
+     */
+    static int size(HistoryLog log)
+    {
+        try
+        {
+            return log.size();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to open history", e);
+            return 0;
+        }
+    }
+
+    private void fireProgressStateChanged(Date startDate, Date endDate,
+                                          String[] keywords, int progress)
+    {
+        ProgressEvent event
+            = new ProgressEvent(this, startDate, endDate, keywords, progress);
+
+        synchronized (progressListeners)
+        {
+            for (HistorySearchProgressListener l : progressListeners)
+                l.progressChanged(event);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * The <tt>HistoryWriter</tt> of a <tt>BinaryHistoryImpl</tt>. Records are
+ * stored the same way <tt>HistoryWriterImpl</tt> stores them in XML: the
+ * <tt>_CDATA</tt> suffix is removed from property names, <tt>null</tt> values
+ * are skipped and <tt>\0</tt> characters are replaced with spaces.
+ */
+public class BinaryHistoryWriterImpl
+    implements HistoryWriter
+{
+    private static final String CDATA_SUFFIX = "_CDATA";
+
+    private final BinaryHistoryImpl historyImpl;
+
+    private final String[] structPropertyNames;
+
+    /**
+     * Creates the writer of the given history.
+     *
+     * @param historyImpl the history to write to
+     */
+    protected BinaryHistoryWriterImpl(BinaryHistoryImpl historyImpl)
+    {
+        this.historyImpl = historyImpl;
+        this.structPropertyNames
+            = historyImpl.getHistoryRecordsStructure().getPropertyNames();
+    }
+
+    public void addRecord(HistoryRecord record)
+        throws IOException
+    {
+        addRecord(record.getPropertyNames(), record.getPropertyValues(),
+                record.getTimestamp());
+    }
+
+    public void addRecord(String[] propertyValues)
+        throws IOException
+    {
+        addRecord(structPropertyNames, propertyValues,
+                System.currentTimeMillis());
+    }
+
+    public void addRecord(String[] propertyValues, Date timestamp)
+        throws IOException
+    {
+        addRecord(structPropertyNames, propertyValues, timestamp.getTime());
+    }
+
+    /**
+     * Appends a new record to the log of the history.
+     *
+     * @param propertyNames the names of the properties
+     * @param propertyValues the values of the properties
+     * @param date the timestamp of the record
+     * @throws IOException if writing fails
+     */
+    private void addRecord(String[] propertyNames,
+                           String[] propertyValues,
+                           long date)
+        throws IOException
+    {
+        List<String> names = new ArrayList<String>(propertyNames.length);
+        List<String> values = new ArrayList<String>(propertyNames.length);
+
+        for (int i = 0; i < propertyNames.length; i++)
+        {
+            if (propertyValues[i] == null)
+                continue;
+
+            String propertyName = propertyNames[i];
+
+            if (propertyName.endsWith(CDATA_SUFFIX))
+                propertyName = propertyName.replaceFirst(CDATA_SUFFIX, "");
+
+            names.add(propertyName);
+            values.add(propertyValues[i].replaceAll("\0", " "));
+        }
+
+        historyImpl.append(
+            new HistoryRecord(
+                    names.toArray(new String[names.size()]),
+                    values.toArray(new String[values.size()]),
+                    date));
+    }
+
+    /**
+     * Updates a record by searching for record with idProperty which have
+     * idValue and updating/creating the property with newValue. Records are
+     * searched from the newest as updates are almost always about recent
+     * records.
+     *
+     * @param idProperty name of the id property
+     * @param idValue value of the id property
+     * @param property the property to change
+     * @param newValue the value of the changed property.
+     */
+    public void updateRecord(String idProperty, String idValue,
+            String property, String newValue)
+        throws IOException
+    {
+        HistoryLog log = historyImpl.getLog();
+
+        synchronized (log)
+        {
+            for (int pos = log.size() - 1; pos >= 0; pos--)
+            {
+                int slot = log.getSlot(pos);
+                HistoryRecord record = log.read(slot);
+                String[] names = record.getPropertyNames();
+                String[] values = record.getPropertyValues();
+                boolean matches = false;
+
+                for (int i = 0; i < names.length; i++)
+                {
+                    if (names[i].equals(idProperty)
+                            && values[i].equals(idValue))
+                    {
+                        matches = true;
+                        break;
+                    }
+                }
+
+                if (!matches)
+                    continue;
+
+                int index = Arrays.asList(names).indexOf(property);
+
+                if (index < 0)
+                {
+                    String[] newNames = new String[names.length + 1];
+                    String[] newValues = new String[values.length + 1];
+
+                    System.arraycopy(names, 0, newNames, 0, names.length);
+                    System.arraycopy(values, 0, newValues, 0, values.length);
+                    newNames[names.length] = property;
+                    newValues[values.length] = newValue.replaceAll("\0", " ");
+                    names = newNames;
+                    values = newValues;
+                }
+                else
+                    values[index] = newValue.replaceAll("\0", " ");
+
+                log.replace(slot,
+                    new HistoryRecord(names, values, record.getTimestamp()));
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.event.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * The <tt>InteractiveHistoryReader</tt> of a <tt>BinaryHistoryImpl</tt>. As
+ * <tt>InteractiveHistoryReaderImpl</tt>, it delivers the matching records
+ * from the newest to the oldest and can be canceled at any time.
+ */
+public class BinaryInteractiveHistoryReaderImpl
+    implements InteractiveHistoryReader
+{
+    /**
+     * The <tt>BinaryHistoryImpl</tt> where this reader is registered.
+     */
+    private final BinaryHistoryImpl history;
+
+    /**
+     * Creates the interactive reader of the given history.
+     *
+     * @param history the history to read from
+     */
+    public BinaryInteractiveHistoryReaderImpl(BinaryHistoryImpl history)
+    {
+        this.history = history;
+    }
+
+    public HistoryQuery findByKeyword(String keyword,
+                                      String field,
+                                      int recordCount)
+    {
+        return findByKeywords(new String[]{keyword}, field, recordCount);
+    }
+
+    public HistoryQuery findByKeywords(final String[] keywords,
+                                       final String field,
+                                       final int recordCount)
+    {
+        StringBuilder queryString = new StringBuilder();
+        for (String s : keywords)
+        {
+            queryString.append(' ');
+            queryString.append(s);
+        }
+
+        final HistoryQueryImpl query
+            = new HistoryQueryImpl(queryString.toString());
+
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                find(keywords, field, recordCount, query);
+            }
+        }.start();
+
+        return query;
+    }
+
+    /**
+     * Finds the newest records matching the given keywords.
+     *
+     * @param keywords the keywords to search for
+     * @param field the field, where to search the keywords
+     * @param resultCount the desired number of results
+     * @param query the query tracking the results
+     */
+    private void find(String[] keywords,
+                      String field,
+                      int resultCount,
+                      HistoryQueryImpl query)
+    {
+        HistoryLog log = history.getLog();
+
+        for (int pos = BinaryHistoryReaderImpl.size(log) - 1;
+                pos >= 0 && resultCount > 0 && !query.isCanceled();
+                pos--)
+        {
+            HistoryRecord record = BinaryHistoryReaderImpl.get(log, pos);
+
+            if (record != null
+                    && BinaryHistoryReaderImpl.matches(
+                            record, keywords, field, false))
+            {
+                query.addHistoryRecord(record);
+                resultCount--;
+            }
+        }
+
+        if (query.isCanceled())
+            query.setStatus(HistoryQueryStatusEvent.QUERY_CANCELED);
+        else
+            query.setStatus(HistoryQueryStatusEvent.QUERY_COMPLETED);
+    }
+}
@@ -24,6 +24,16 @@ public class HistoryActivator
      */
     private ServiceRegistration serviceRegistration;
 
+    /**
+     * The registration of the statistics of the history document cache.
+     */
+    private ServiceRegistration cacheStatisticsRegistration;
+
+    /**
+     * The registered history service.
+     */
+    private HistoryServiceImpl historyService;
+
     /**
      * Initialize and start history service
      *
@@ -32,9 +42,14 @@ public class HistoryActivator
      */
     public void start(BundleContext bundleContext) throws Exception
     {
+        historyService = new HistoryServiceImpl(bundleContext);
         serviceRegistration =
             bundleContext.registerService(HistoryService.class.getName(),
-                new HistoryServiceImpl(bundleContext), null);
+                historyService, null);
+        cacheStatisticsRegistration =
+            bundleContext.registerService(
+                HistoryCacheStatistics.class.getName(),
+                historyService.getDocumentCache(), null);
     }
 
     /**
@@ -46,10 +61,20 @@ public class HistoryActivator
     public void stop(BundleContext bundleContext)
         throws Exception
     {
+        if (cacheStatisticsRegistration != null)
+        {
+            cacheStatisticsRegistration.unregister();
+            cacheStatisticsRegistration = null;
+        }
         if (serviceRegistration != null)
         {
             serviceRegistration.unregister();
             serviceRegistration = null;
         }
+        if (historyService != null)
+        {
+            historyService.stop();
+            historyService = null;
+        }
     }
 }
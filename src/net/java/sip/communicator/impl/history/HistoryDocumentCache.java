@@ -0,0 +1,438 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.lang.ref.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+import org.w3c.dom.*;
+
+/**
+ * The cache of parsed history documents shared by all the
+ * <tt>HistoryImpl</tt>s of a <tt>HistoryServiceImpl</tt>.
+ * <p>
+ * Documents are kept in least recently used order and evicted once the cache
+ * holds more than a maximum number of documents or more than a maximum
+ * estimated size. The size of a document is estimated from the size of its
+ * file, a DOM tree taking several times the size of its XML. Evicted
+ * documents are still reachable through soft references until the garbage
+ * collector needs the memory.
+ * <p>
+ * Documents with changes not written to disk yet, or being appended to by a
+ * <tt>HistoryWriterImpl</tt>, are pinned: they are never evicted and do not
+ * count towards the bounds of the cache.
+ */
+public class HistoryDocumentCache
+    implements HistoryCacheStatistics
+{
+    /**
+     * The default maximum number of cached documents.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    /**
+     * The default maximum estimated size in bytes of the cached documents.
+     */
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The ratio between the memory taken by a DOM tree and the size of the
+     * XML it has been parsed from.
+     */
+    private static final int DOM_SIZE_RATIO = 6;
+
+    /**
+     * The estimated size of a document which has not been written yet.
+     */
+    private static final int MIN_DOCUMENT_SIZE = 4 * 1024;
+
+    /**
+     * Whether documents are cached. Pinned documents are kept even if they
+     * are not.
+     */
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final long maxSize;
+
+    /**
+     * The cached documents in least recently used order.
+     */
+    private final LinkedHashMap<File, Entry> entries
+        = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+
+    /**
+     * The pinned documents.
+     */
+    private final Map<File, Entry> pinned = new HashMap<File, Entry>();
+
+    /**
+     * The soft references to the evicted documents.
+     */
+    private final Map<File, SoftEntry> evicted = new HashMap<File, SoftEntry>();
+
+    /**
+     * The queue the soft references of collected documents are put in.
+     */
+    private final ReferenceQueue<Document> collected
+        = new ReferenceQueue<Document>();
+
+    /**
+     * The estimated size of the documents in {@link #entries}.
+     */
+    private long size = 0;
+
+    private long pinnedSize = 0;
+
+    private long hits = 0;
+
+    private long softHits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    /**
+     * Creates a cache with the given bounds.
+     *
+     * @param enabled whether documents which are not pinned are cached
+     * @param maxEntries the maximum number of documents to cache
+     * @param maxSize the maximum estimated size of the cached documents
+     */
+    public HistoryDocumentCache(boolean enabled, int maxEntries, long maxSize)
+    {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached document of a file.
+     *
+     * @param file the file of the document
+     * @return the document of <tt>file</tt> or <tt>null</tt> if it is not
+     * cached and has to be parsed
+     */
+    public synchronized Document get(File file)
+    {
+        purgeCollected();
+
+        Entry entry = pinned.get(file);
+
+        if (entry == null)
+            entry = entries.get(file);
+
+        if (entry != null)
+        {
+            hits++;
+            return entry.document;
+        }
+
+        SoftEntry softEntry = evicted.remove(file);
+        Document document = (softEntry == null) ? null : softEntry.get();
+
+        if (document != null)
+        {
+            softHits++;
+            put(file, document);
+            return document;
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Returns the document of a file if it is still in memory, without
+     * counting a miss or caching it again when it is only softly reachable.
+     * Used by the readers which stream the files they would otherwise parse.
+     *
+     * @param file the file of the document
+     * @return the document of <tt>file</tt> or <tt>null</tt> if it is not in
+     * memory
+     */
+    public synchronized Document peek(File file)
+    {
+        purgeCollected();
+
+        Entry entry = pinned.get(file);
+
+        if (entry == null)
+            entry = entries.get(file);
+
+        if (entry != null)
+        {
+            hits++;
+            return entry.document;
+        }
+
+        SoftEntry softEntry = evicted.get(file);
+
+        return (softEntry == null) ? null : softEntry.get();
+    }
+
+    /**
+     * Caches a parsed document, evicting the least recently used documents
+     * if the cache exceeds its bounds.
+     *
+     * @param file the file of the document
+     * @param document the document
+     */
+    public synchronized void put(File file, Document document)
+    {
+        if (!enabled || pinned.containsKey(file))
+            return;
+
+        Entry old = entries.put(file, new Entry(document, estimateSize(file)));
+
+        if (old != null)
+            size -= old.size;
+        size += entries.get(file).size;
+        evicted.remove(file);
+
+        evict();
+    }
+
+    /**
+     * Pins a document in the cache so that it is never evicted.
+     *
+     * @param file the file of the document
+     * @param document the document
+     */
+    public synchronized void pin(File file, Document document)
+    {
+        Entry entry = entries.remove(file);
+
+        if (entry != null)
+            size -= entry.size;
+        else
+        {
+            entry = pinned.get(file);
+            if (entry == null)
+                entry = new Entry(document, estimateSize(file));
+            else
+                pinnedSize -= entry.size;
+        }
+        entry.document = document;
+
+        pinned.put(file, entry);
+        pinnedSize += entry.size;
+        evicted.remove(file);
+    }
+
+    /**
+     * Unpins a document, which then becomes a regular cache entry and may be
+     * evicted.
+     *
+     * @param file the file of the document
+     */
+    public synchronized void unpin(File file)
+    {
+        Entry entry = pinned.remove(file);
+
+        if (entry != null)
+        {
+            pinnedSize -= entry.size;
+            if (enabled)
+                put(file, entry.document);
+        }
+    }
+
+    /**
+     * Updates the estimated size of a document after its file has been
+     * written.
+     *
+     * @param file the file of the document
+     */
+    public synchronized void written(File file)
+    {
+        Entry entry = pinned.get(file);
+
+        if (entry != null)
+        {
+            pinnedSize -= entry.size;
+            entry.size = estimateSize(file);
+            pinnedSize += entry.size;
+        }
+        else if ((entry = entries.get(file)) != null)
+        {
+            size -= entry.size;
+            entry.size = estimateSize(file);
+            size += entry.size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes the documents of the files of a directory, e.g. because the
+     * directory has been deleted or moved.
+     *
+     * @param directory the directory
+     */
+    public synchronized void removeAll(File directory)
+    {
+        for (Iterator<Map.Entry<File, Entry>> iter
+                    = entries.entrySet().iterator();
+                iter.hasNext();)
+        {
+            Map.Entry<File, Entry> e = iter.next();
+
+            if (directory.equals(e.getKey().getParentFile()))
+            {
+                size -= e.getValue().size;
+                iter.remove();
+            }
+        }
+        for (Iterator<Map.Entry<File, Entry>> iter
+                    = pinned.entrySet().iterator();
+                iter.hasNext();)
+        {
+            Map.Entry<File, Entry> e = iter.next();
+
+            if (directory.equals(e.getKey().getParentFile()))
+            {
+                pinnedSize -= e.getValue().size;
+                iter.remove();
+            }
+        }
+        for (Iterator<File> iter = evicted.keySet().iterator(); iter.hasNext();)
+        {
+            if (directory.equals(iter.next().getParentFile()))
+                iter.remove();
+        }
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    public synchronized long getSoftHitCount()
+    {
+        return softHits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size() + pinned.size();
+    }
+
+    public synchronized int getPinnedCount()
+    {
+        return pinned.size();
+    }
+
+    public synchronized long getEstimatedSize()
+    {
+        return size + pinnedSize;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Evicts the least recently used documents until the cache is within its
+     * bounds.
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<File, Entry>> iter = entries.entrySet().iterator();
+
+        while ((entries.size() > maxEntries || size > maxSize)
+                && iter.hasNext())
+        {
+            Map.Entry<File, Entry> e = iter.next();
+            Entry entry = e.getValue();
+
+            iter.remove();
+            size -= entry.size;
+            evictions++;
+            evicted.put(
+                e.getKey(),
+                new SoftEntry(e.getKey(), entry.document, collected));
+        }
+    }
+
+    /**
+     * Forgets the soft references to the documents which have been collected.
+     */
+    private void purgeCollected()
+    {
+        Reference<? extends Document> ref;
+
+        while ((ref = collected.poll()) != null)
+        {
+            File file = ((SoftEntry) ref).file;
+
+            if (evicted.get(file) == ref)
+                evicted.remove(file);
+        }
+    }
+
+    /**
+     * Estimates the memory taken by the document of a file.
+     *
+     * @param file the file
+     * @return the estimated size in bytes of the document of <tt>file</tt>
+     */
+    private static long estimateSize(File file)
+    {
+        return Math.max(file.length(), MIN_DOCUMENT_SIZE) * DOM_SIZE_RATIO;
+    }
+
+    /**
+     * A cached document and its estimated size.
+     */
+    private static class Entry
+    {
+        Document document;
+
+        long size;
+
+        Entry(Document document, long size)
+        {
+            this.document = document;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A soft reference to an evicted document which remembers its file.
+     */
+    private static class SoftEntry
+        extends SoftReference<Document>
+    {
+        final File file;
+
+        SoftEntry(File file, Document document, ReferenceQueue<Document> queue)
+        {
+            super(document, queue);
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Reads the records of the XML files of a <tt>HistoryImpl</tt> one by one.
+ * <p>
+ * Files are pulled with StAX, so a query holds a single record in memory
+ * rather than the DOM tree of the whole file, and stops parsing as soon as
+ * its handler has seen enough records. Files whose document is already in
+ * memory, e.g. the one a <tt>HistoryWriterImpl</tt> appends to and which may
+ * have records not written to disk yet, are read from their document.
+ */
+public class HistoryFileReader
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>HistoryFileReader</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryFileReader.class);
+
+    /**
+     * The factory of the StAX readers. Access is synchronized as factories are
+     * not required to be thread safe.
+     */
+    private static final XMLInputFactory inputFactory
+        = XMLInputFactory.newInstance();
+
+    static
+    {
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+    }
+
+    /**
+     * Receives the records read from a file.
+     */
+    interface RecordHandler
+    {
+        /**
+         * Handles a record.
+         *
+         * @param index the index of the record in its file
+         * @param timestamp the timestamp of the record
+         * @param names the names of the properties of the record
+         * @param values the values of the properties of the record,
+         * <tt>null</tt> for the properties without a value
+         * @return <tt>true</tt> to continue reading the file, <tt>false</tt>
+         * to stop
+         */
+        boolean handleRecord(int index,
+                             long timestamp,
+                             String[] names,
+                             String[] values);
+    }
+
+    /**
+     * Reads the records of a file of a history in document order.
+     *
+     * @param historyImpl the history
+     * @param filename the name of the file
+     * @param handler the handler of the records
+     */
+    static void read(HistoryImpl historyImpl,
+                     String filename,
+                     RecordHandler handler)
+    {
+        File file = new File(historyImpl.getDirectory(), filename);
+        Document doc
+            = historyImpl.getHistoryServiceImpl().getDocumentCache()
+                .peek(file);
+
+        if (doc != null)
+        {
+            read(doc, 0, handler);
+            return;
+        }
+
+        CountingHandler countingHandler = new CountingHandler(handler);
+
+        try
+        {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+            try
+            {
+                read(in, countingHandler);
+            }
+            finally
+            {
+                in.close();
+            }
+            return;
+        }
+        catch (Exception e)
+        {
+            logger.error("Error occured while reading " + file, e);
+        }
+
+        // parse the file the usual way, which tries to fix it, and skip the
+        // records the handler has already seen
+        doc = historyImpl.getDocumentForFile(filename);
+        if (doc != null)
+            read(doc, countingHandler.count, handler);
+    }
+
+    /**
+     * Reads the records of an XML file until the handler asks to stop.
+     *
+     * @param in the content of the file
+     * @param handler the handler of the records
+     * @throws XMLStreamException if the file is not well formed
+     */
+    private static void read(InputStream in, RecordHandler handler)
+        throws XMLStreamException
+    {
+        XMLStreamReader reader;
+
+        synchronized (inputFactory)
+        {
+            reader = inputFactory.createXMLStreamReader(in);
+        }
+
+        try
+        {
+            List<String> names = new ArrayList<String>();
+            List<String> values = new ArrayList<String>();
+            int index = 0;
+            int depth = 0;
+
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                // the root element
+                if (++depth == 1 || !"record".equals(reader.getLocalName()))
+                    continue;
+
+                long timestamp
+                    = Long.parseLong(
+                        reader.getAttributeValue(null, "timestamp"));
+
+                names.clear();
+                values.clear();
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+                {
+                    String value = reader.getElementText();
+
+                    names.add(reader.getLocalName());
+                    values.add((value.length() == 0) ? null : value);
+                }
+                depth--;
+
+                if (!handler.handleRecord(
+                        index++,
+                        timestamp,
+                        names.toArray(new String[names.size()]),
+                        values.toArray(new String[values.size()])))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the records of a document until the handler asks to stop.
+     *
+     * @param doc the document
+     * @param firstIndex the index of the first record to read
+     * @param handler the handler of the records
+     */
+    private static void read(Document doc, int firstIndex, RecordHandler handler)
+    {
+        synchronized (doc)
+        {
+            NodeList nodes = doc.getElementsByTagName("record");
+
+            for (int i = firstIndex; i < nodes.getLength(); i++)
+            {
+                Node node = nodes.item(i);
+                NodeList propertyNodes = node.getChildNodes();
+                List<String> names = new ArrayList<String>();
+                List<String> values = new ArrayList<String>();
+                long timestamp
+                    = Long.parseLong(
+                        node.getAttributes().getNamedItem("timestamp")
+                            .getNodeValue());
+
+                for (int j = 0; j < propertyNodes.getLength(); j++)
+                {
+                    Node propertyNode = propertyNodes.item(j);
+
+                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
+                    {
+                        Node nodeValue = propertyNode.getFirstChild();
+
+                        names.add(propertyNode.getNodeName());
+                        values.add(
+                            (nodeValue == null)
+                                ? null
+                                : nodeValue.getNodeValue());
+                    }
+                }
+
+                if (!handler.handleRecord(
+                        i,
+                        timestamp,
+                        names.toArray(new String[names.size()]),
+                        values.toArray(new String[values.size()])))
+                {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the records passed to a handler, so that reading can resume
+     * after them.
+     */
+    private static class CountingHandler
+        implements RecordHandler
+    {
+        private final RecordHandler handler;
+
+        int count = 0;
+
+        CountingHandler(RecordHandler handler)
+        {
+            this.handler = handler;
+        }
+
+        public boolean handleRecord(int index,
+                                    long timestamp,
+                                    String[] names,
+                                    String[] values)
+        {
+            count++;
+            return handler.handleRecord(index, timestamp, names, values);
+        }
+    }
+}
@@ -31,6 +31,12 @@ public class HistoryImpl
      */
     public static final String SUPPORTED_FILETYPE = "xml";
 
+    /**
+     * The extension of the temporary file a history file is written to
+     * before it replaces the history file.
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
     private HistoryID id;
 
     private HistoryRecordStructure historyRecordStructure;
@@ -48,8 +54,17 @@ public class HistoryImpl
 
     private HistoryWriter writer;
 
-    private SortedMap<String, Object> historyDocuments
-        = new TreeMap<String, Object>();
+    /**
+     * The files of this history by file name. Their parsed documents are
+     * kept in the <tt>HistoryDocumentCache</tt> of the history service.
+     */
+    private SortedMap<String, File> historyDocuments
+        = new TreeMap<String, File>();
+
+    /**
+     * The index used to answer keyword queries.
+     */
+    private final HistoryKeywordIndex keywordIndex;
 
     /**
      * Creates an instance of <tt>HistoryImpl</tt> by specifying the history
@@ -80,8 +95,13 @@ public class HistoryImpl
             this.historyRecordStructure = historyRecordStructure;
             this.reader = null;
             this.writer = null;
+            this.keywordIndex = new HistoryKeywordIndex(this, directory);
 
             this.reloadDocumentList();
+
+            // records written behind by a previous run which did not get
+            // to their files
+            HistoryJournal.replay(this, directory);
         } finally {
             log.logExit();
         }
@@ -157,6 +177,35 @@ public class HistoryImpl
         return writer;
     }
 
+    /**
+     * Returns the index used to answer keyword queries on this history.
+     * @return the index used to answer keyword queries on this history
+     */
+    HistoryKeywordIndex getKeywordIndex()
+    {
+        return keywordIndex;
+    }
+
+    /**
+     * Writes the records kept only in the journal of the write-behind mode
+     * to their files and closes the journal and the keyword index file.
+     */
+    void close()
+    {
+        if (writer != null)
+            ((HistoryWriterImpl) writer).close();
+        keywordIndex.close();
+    }
+
+    /**
+     * Returns the directory this history is stored in.
+     * @return the directory this history is stored in
+     */
+    File getDirectory()
+    {
+        return directory;
+    }
+
     protected HistoryServiceImpl getHistoryServiceImpl()
     {
         return this.historyServiceImpl;
@@ -174,6 +223,14 @@ public class HistoryImpl
 
             for (int i = 0; i < files.length; i++)
             {
+                if (files[i].getName().endsWith(
+                        SUPPORTED_FILETYPE + TEMPORARY_EXTENSION))
+                {
+                    files[i] = recoverTemporaryFile(files[i]);
+                    if (files[i] == null)
+                        continue;
+                }
+
                 if (!files[i].isDirectory())
                 {
                     String filename = files[i].getName();
@@ -187,6 +244,42 @@ public class HistoryImpl
         }
     }
 
+    /**
+     * Deals with the temporary file of a history file left by a write which
+     * did not complete. The temporary file is complete if the history file is
+     * missing, as it is only deleted once the temporary file is on disk.
+     *
+     * @param tmpFile the temporary file
+     * @return the history file recovered from <tt>tmpFile</tt> or
+     * <tt>null</tt> if <tt>tmpFile</tt> has been discarded
+     */
+    private static File recoverTemporaryFile(File tmpFile)
+    {
+        String path = tmpFile.getPath();
+        File file
+            = new File(
+                    path.substring(
+                            0,
+                            path.length() - TEMPORARY_EXTENSION.length()));
+
+        if (!file.exists() && tmpFile.renameTo(file))
+        {
+            log.info("Recovered history file " + file);
+            return file;
+        }
+
+        tmpFile.delete();
+        return null;
+    }
+
+    /**
+     * Returns the document of the given file, creating the file if it does
+     * not exist yet. The document is pinned in the cache until
+     * {@link #unpinDocument(String)} is called.
+     *
+     * @param filename the name of the file
+     * @return the document of the file
+     */
     protected Document createDocument(String filename)
     {
         Document retVal = null;
@@ -201,13 +294,41 @@ public class HistoryImpl
                         .newDocument();
                 retVal.appendChild(retVal.createElement("history"));
 
-                this.historyDocuments.put(filename, retVal);
+                this.historyDocuments.put(filename,
+                        new File(this.directory, filename));
             }
+
+            if (retVal != null)
+                pinDocument(filename, retVal);
         }
 
         return retVal;
     }
 
+    /**
+     * Pins the document of a file in the cache, so that it is not evicted
+     * while it has changes not written to disk or is being appended to.
+     *
+     * @param filename the name of the file
+     * @param doc the document of the file
+     */
+    protected void pinDocument(String filename, Document doc)
+    {
+        this.historyServiceImpl.getDocumentCache().pin(
+                new File(this.directory, filename), doc);
+    }
+
+    /**
+     * Allows the document of a file to be evicted from the cache.
+     *
+     * @param filename the name of the file
+     */
+    protected void unpinDocument(String filename)
+    {
+        this.historyServiceImpl.getDocumentCache().unpin(
+                new File(this.directory, filename));
+    }
+
     protected void writeFile(String filename) throws InvalidParameterException,
             IOException {
         File file = new File(this.directory, filename);
@@ -220,18 +341,23 @@ public class HistoryImpl
                         + "filename does not exist in the document list.");
             }
 
-            Object obj = this.historyDocuments.get(filename);
+            HistoryDocumentCache cache
+                = this.historyServiceImpl.getDocumentCache();
+            Document doc = cache.get(file);
 
-            if (obj instanceof Document)
-            {
-                Document doc = (Document) obj;
+            if (doc == null)
+                return;
 
-                synchronized (doc)
-                {
-                    XMLUtils.writeXML(doc, file);
-                }
+            synchronized (doc)
+            {
+                writeXML(doc, file);
             }
+            cache.written(file);
         }
+
+        // outside the lock on the documents, which the index takes after its
+        // own
+        this.keywordIndex.fileWritten(filename);
     }
 
     protected void writeFile(String filename, Document doc)
@@ -249,8 +375,50 @@ public class HistoryImpl
 
             synchronized (doc)
             {
-                XMLUtils.writeXML(doc, file);
+                writeXML(doc, file);
             }
+            this.historyServiceImpl.getDocumentCache().written(file);
+        }
+
+        this.keywordIndex.fileWritten(filename);
+    }
+
+    /**
+     * Writes a document to a history file so that the file holds either its
+     * previous or its new content, whatever happens. The document is written
+     * to a temporary file which is forced to disk and then replaces the
+     * history file.
+     *
+     * @param doc the document to write
+     * @param file the history file
+     * @throws IOException if writing the document fails
+     */
+    private static void writeXML(Document doc, File file)
+        throws IOException
+    {
+        File tmpFile = new File(file.getPath() + TEMPORARY_EXTENSION);
+        FileOutputStream out = new FileOutputStream(tmpFile);
+
+        try
+        {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+            XMLUtils.writeXML(doc, writer);
+            writer.flush();
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        // renameTo does not replace an existing file on every platform. The
+        // temporary file is complete so it is recovered if the application
+        // stops in between.
+        if (!tmpFile.renameTo(file)
+                && !(file.delete() && tmpFile.renameTo(file)))
+        {
+            throw new IOException("Failed to write " + file);
         }
     }
 
@@ -271,22 +439,17 @@ public class HistoryImpl
                         + "filename does not exist in the document list.");
             }
 
-            Object obj = this.historyDocuments.get(filename);
-            if (obj instanceof Document)
-            {
-                // Document already loaded. Use it directly
-                retVal = (Document) obj;
-            } else if (obj instanceof File)
-            {
-                File file = (File) obj;
+            File file = this.historyDocuments.get(filename);
+            HistoryDocumentCache cache
+                = this.historyServiceImpl.getDocumentCache();
 
+            retVal = cache.get(file);
+            if (retVal == null)
+            {
                 try {
                     retVal = this.historyServiceImpl.parse(file);
                 } catch (Exception e)
                 {
-//                    throw new RuntimeException("Error occured while "
-//                            + "parsing XML document.", e);
-//                    log.error("Error occured while parsing XML document.", e);
                     log.error("Error occured while parsing XML document.", e);
 
                     // will try to fix the xml file
@@ -298,11 +461,7 @@ public class HistoryImpl
                 }
 
                 // Cache the loaded document for reuse if configured
-                if(historyServiceImpl.isCacheEnabled())
-                    this.historyDocuments.put(filename, retVal);
-            } else {
-                // TODO: Assert: Assert.fail("Internal error - the data type " +
-                // "should be either Document or File.");
+                cache.put(file, retVal);
             }
         }
 
@@ -0,0 +1,342 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * The journal of the records appended to the documents of a
+ * <tt>HistoryImpl</tt> but not written to their XML files yet, used by
+ * the write-behind mode of <tt>HistoryWriterImpl</tt>.
+ * <p>
+ * Every record is appended to the journal file as a CRC-checked entry and
+ * forced to disk before <tt>addRecord</tt> returns. Threads appending at the
+ * same time share a single force (group commit). Once the documents are
+ * written to their files and these are on disk the journal is reset. If the application stops before that, the
+ * journal is replayed into the XML files when the history is opened again.
+ * Entries carry the index of their record in its file, so records which made
+ * it to the file before the journal was reset are not added twice.
+ */
+public class HistoryJournal
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>HistoryJournal</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(HistoryJournal.class);
+
+    /**
+     * The name of the journal file in the history directory.
+     */
+    public static final String JOURNAL_FILE = "journal.hjl";
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * The channel to the journal file, opened on first append.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * The number of bytes appended to the journal since it was created. It
+     * is not affected by resets so that it can order the appends.
+     */
+    private long appended = 0;
+
+    /**
+     * The value of {@link #appended} up to which the journal is known to be
+     * on disk.
+     */
+    private long synced = 0;
+
+    /**
+     * The lock serializing the forces of the channel.
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * Creates the journal of the history stored in the given directory.
+     *
+     * @param directory the directory of the history
+     */
+    HistoryJournal(File directory)
+    {
+        this.file = new File(directory, JOURNAL_FILE);
+    }
+
+    /**
+     * Appends a record to the journal and waits for it to be on disk.
+     *
+     * @param filename the name of the file the record belongs to
+     * @param recordIndex the index of the record in its file
+     * @param record the record element
+     * @throws IOException if writing to the journal fails
+     */
+    void append(String filename, int recordIndex, Element record)
+        throws IOException
+    {
+        ByteBuffer frame
+            = CrcFrames.frame(encode(filename, recordIndex, record));
+        long end;
+
+        synchronized (this)
+        {
+            if (channel == null)
+            {
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                channel.position(channel.size());
+            }
+            while (frame.hasRemaining())
+                channel.write(frame);
+            appended += frame.limit();
+            end = appended;
+        }
+
+        sync(end);
+    }
+
+    /**
+     * Empties the journal once all its records have been written to their
+     * files and these have been forced to disk.
+     *
+     * @throws IOException if truncating the journal fails
+     */
+    synchronized void reset()
+        throws IOException
+    {
+        if (channel != null)
+        {
+            channel.truncate(0);
+            channel.position(0);
+        }
+    }
+
+    /**
+     * Closes the journal file.
+     */
+    synchronized void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Failed to close " + file, e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Replays the records of a journal left by a previous run into the files
+     * of a history and deletes it.
+     *
+     * @param historyImpl the history
+     * @param directory the directory of the history
+     */
+    static void replay(HistoryImpl historyImpl, File directory)
+    {
+        File file = new File(directory, JOURNAL_FILE);
+
+        if (!file.exists())
+            return;
+
+        int replayed = 0;
+
+        try
+        {
+            Set<String> files = new HashSet<String>();
+            Set<String> changedFiles = new LinkedHashSet<String>();
+            DataInputStream in
+                = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                while (true)
+                {
+                    byte[] entry = CrcFrames.readFrame(in);
+
+                    if (entry == null)
+                        break;
+
+                    if (apply(historyImpl, entry, files, changedFiles))
+                        replayed++;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            for (String filename : changedFiles)
+            {
+                historyImpl.writeFile(filename,
+                        historyImpl.createDocument(filename));
+            }
+            for (String filename : files)
+                historyImpl.unpinDocument(filename);
+
+            file.delete();
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to replay history journal " + file, e);
+        }
+
+        if (replayed > 0 && logger.isInfoEnabled())
+        {
+            logger.info("Replayed " + replayed + " history records from "
+                + file);
+        }
+    }
+
+    /**
+     * Adds the record of a journal entry to its document unless it is
+     * already there.
+     *
+     * @param historyImpl the history
+     * @param entry the journal entry
+     * @param files the set to add the name of the file of the record to
+     * @param changedFiles the set to add the name of the changed file to
+     * @return <tt>true</tt> if the record has been added
+     * @throws IOException if the entry is malformed
+     */
+    private static boolean apply(HistoryImpl historyImpl,
+                                 byte[] entry,
+                                 Set<String> files,
+                                 Set<String> changedFiles)
+        throws IOException
+    {
+        DataInputStream in
+            = new DataInputStream(new ByteArrayInputStream(entry));
+        String filename = in.readUTF();
+        int recordIndex = in.readInt();
+        Document doc = historyImpl.createDocument(filename);
+
+        files.add(filename);
+        if (doc == null
+                || doc.getElementsByTagName("record").getLength() > recordIndex)
+        {
+            return false;
+        }
+
+        Element record = doc.createElement("record");
+
+        record.setAttribute("timestamp", in.readUTF());
+        for (int i = in.readInt(); i > 0; i--)
+        {
+            Element property = doc.createElement(in.readUTF());
+            boolean cdata = in.readBoolean();
+            String value = CrcFrames.readString(in);
+
+            property.appendChild(
+                cdata
+                    ? doc.createCDATASection(value)
+                    : doc.createTextNode(value));
+            record.appendChild(property);
+        }
+
+        doc.getFirstChild().appendChild(record);
+        changedFiles.add(filename);
+        historyImpl.getKeywordIndex().recordWritten(
+                filename, recordIndex, record,
+                historyImpl.getHistoryRecordsStructure().getPropertyNames());
+        return true;
+    }
+
+    /**
+     * Forces the journal to disk up to <tt>end</tt>, unless another thread
+     * has already done it.
+     *
+     * @param end the value of {@link #appended} which has to be on disk
+     * @throws IOException if forcing fails
+     */
+    private void sync(long end)
+        throws IOException
+    {
+        synchronized (syncLock)
+        {
+            if (synced >= end)
+                return;
+
+            FileChannel channel;
+            long target;
+
+            synchronized (this)
+            {
+                channel = this.channel;
+                if (channel == null)
+                    return;
+                target = appended;
+            }
+
+            channel.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * Serializes a record element into a journal entry.
+     *
+     * @param filename the name of the file of the record
+     * @param recordIndex the index of the record in its file
+     * @param record the record element
+     * @return the entry
+     * @throws IOException never
+     */
+    private static byte[] encode(String filename,
+                                 int recordIndex,
+                                 Element record)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Node> properties = new ArrayList<Node>();
+        NodeList childNodes = record.getChildNodes();
+
+        for (int i = 0; i < childNodes.getLength(); i++)
+        {
+            Node child = childNodes.item(i);
+
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                    && child.getFirstChild() != null)
+            {
+                properties.add(child);
+            }
+        }
+
+        out.writeUTF(filename);
+        out.writeInt(recordIndex);
+        out.writeUTF(record.getAttribute("timestamp"));
+        out.writeInt(properties.size());
+        for (Node property : properties)
+        {
+            Node value = property.getFirstChild();
+
+            out.writeUTF(property.getNodeName());
+            out.writeBoolean(value.getNodeType() == Node.CDATA_SECTION_NODE);
+            CrcFrames.writeString(out, value.getNodeValue());
+        }
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+}
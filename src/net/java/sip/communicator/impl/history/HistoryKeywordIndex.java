@@ -0,0 +1,1119 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.w3c.dom.*;
+
+/**
+ * An inverted index of the terms found in the records of a
+ * <tt>HistoryImpl</tt>, used to answer keyword queries without matching a
+ * regular expression against every record of every file.
+ * <p>
+ * Terms are the maximal runs of letters and digits of the property values,
+ * lower cased character by character, and are indexed per property name. As
+ * keyword queries match substrings, a keyword is looked up through its
+ * longest run of letters and digits: every record containing the keyword has
+ * a term containing that run. The terms containing the run are found through
+ * the trigrams of the terms, so a lookup does not go through all the terms.
+ * The index returns candidates, which the readers verify with the same match
+ * as before, so case sensitive queries and keywords spanning several terms
+ * keep their exact semantics.
+ * <p>
+ * The index is kept in memory and persisted in an append-only file of
+ * CRC-checked entries, one per added or updated record and one per written
+ * history file, holding its length and modification time. The entries are
+ * buffered and reach the file when a history file has been written. The index
+ * is loaded on the first keyword query, never by the writers: until then,
+ * they only note the history files whose records changed. The history files
+ * which changed since the index last saw them, on disk or in memory, are
+ * indexed again when it is loaded, so that records which made it to a file
+ * but not to the index are found. The index is rebuilt from the XML files if
+ * its file is missing, corrupted or cannot be brought up to date.
+ */
+public class HistoryKeywordIndex
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>HistoryKeywordIndex</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryKeywordIndex.class);
+
+    /**
+     * The name of the file storing the index in the history directory.
+     */
+    public static final String INDEX_FILE = "keywords.idx";
+
+    /**
+     * The version of the format of the index file. Files with another
+     * version are rebuilt.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The record index of the entry starting the index file, which holds
+     * {@link #FORMAT_VERSION}.
+     */
+    private static final int HEADER = -2;
+
+    /**
+     * The record index of the entries which register a history file along
+     * with its length and modification time when it was last indexed or
+     * written. They allow empty or unreadable files to be known to the index
+     * and changed files to be indexed again.
+     */
+    private static final int FILE_MARKER = -1;
+
+    /**
+     * The history this index is for.
+     */
+    private final HistoryImpl historyImpl;
+
+    /**
+     * The file storing this index.
+     */
+    private final File file;
+
+    /**
+     * The terms of every property, keyed by property name.
+     */
+    private final Map<String, FieldTerms> terms
+        = new HashMap<String, FieldTerms>();
+
+    /**
+     * The records lacking a property, keyed by property name. Such records
+     * match any keyword searched in that property.
+     */
+    private final Map<String, Postings> missing
+        = new HashMap<String, Postings>();
+
+    /**
+     * The first record id of every indexed history file.
+     */
+    private final Map<String, Integer> fileFirstIds
+        = new HashMap<String, Integer>();
+
+    /**
+     * The number of records indexed for every history file.
+     */
+    private final Map<String, Integer> fileRecordCounts
+        = new HashMap<String, Integer>();
+
+    /**
+     * The length and modification time of every history file when it was
+     * last indexed or written.
+     */
+    private final Map<String, long[]> fileStamps
+        = new HashMap<String, long[]>();
+
+    /**
+     * The history file registered last, the only one whose records may
+     * follow the ones already indexed.
+     */
+    private String lastFile = null;
+
+    /**
+     * The file name of every record id.
+     */
+    private final List<String> recordFiles = new ArrayList<String>();
+
+    /**
+     * The index of every record id in its file.
+     */
+    private Postings recordIndexes = new Postings();
+
+    /**
+     * Whether the index has been loaded.
+     */
+    private boolean loaded = false;
+
+    /**
+     * The history files whose records have been added or updated while the
+     * index was not loaded, which are indexed again when it is.
+     */
+    private final Set<String> staleFiles = new HashSet<String>();
+
+    /**
+     * The stream buffering the entries appended to the index file or
+     * <tt>null</tt> if it has not been opened since the index was loaded.
+     */
+    private DataOutputStream appender = null;
+
+    /**
+     * Creates the keyword index of a history.
+     *
+     * @param historyImpl the history
+     * @param directory the directory of the history
+     */
+    HistoryKeywordIndex(HistoryImpl historyImpl, File directory)
+    {
+        this.historyImpl = historyImpl;
+        this.file = new File(directory, INDEX_FILE);
+    }
+
+    /**
+     * Adds a record which is about to be written to a history file. The
+     * records of a file are to be added in order and before they are written,
+     * so that the index never misses a record of the file. If the index has
+     * not been loaded yet, the file is only noted as stale so that the
+     * writer, which holds the lock of the history documents, does not wait
+     * for the index to load.
+     *
+     * @param filename the name of the history file
+     * @param recordIndex the index of the record in the file
+     * @param record the record element
+     * @param propertyNames the property names of the history structure
+     */
+    synchronized void recordWritten(String filename,
+                                    int recordIndex,
+                                    Element record,
+                                    String[] propertyNames)
+    {
+        if (!loaded)
+        {
+            staleFiles.add(filename);
+            return;
+        }
+
+        try
+        {
+            byte[] entry = encode(filename, recordIndex, record, propertyNames);
+
+            apply(entry);
+            append(entry);
+        }
+        catch (IOException e)
+        {
+            invalidate(e);
+        }
+    }
+
+    /**
+     * Records the length and modification time of a history file which has
+     * just been written, so that the file is not indexed again when the
+     * index is next loaded, and writes the entries buffered so far. Nothing
+     * is done if the index has not been loaded yet, since loading checks it
+     * against the history files anyway.
+     *
+     * @param filename the name of the history file
+     */
+    synchronized void fileWritten(String filename)
+    {
+        if (!loaded)
+            return;
+
+        try
+        {
+            byte[] marker = encodeMarker(filename);
+
+            apply(marker);
+            append(marker);
+            appender.flush();
+        }
+        catch (IOException e)
+        {
+            invalidate(e);
+        }
+    }
+
+    /**
+     * Finds the records which may contain all the given keywords in the
+     * property <tt>field</tt>.
+     *
+     * @param field the name of the property
+     * @param keywords the keywords
+     * @return the candidate records, as their record indexes keyed by history
+     * file name, or <tt>null</tt> if the index cannot answer the query and
+     * the history has to be scanned
+     */
+    synchronized Map<String, SortedSet<Integer>> findCandidates(
+            String field,
+            String[] keywords)
+    {
+        if (field == null || keywords == null || keywords.length == 0)
+            return null;
+
+        try
+        {
+            ensureLoaded();
+        }
+        catch (IOException e)
+        {
+            invalidate(e);
+            return null;
+        }
+
+        // all the records lack an unknown field and thus match
+        if (!terms.containsKey(field) && !missing.containsKey(field))
+            return null;
+
+        FieldTerms fieldTerms = terms.get(field);
+        BitSet candidates = null;
+
+        for (String keyword : keywords)
+        {
+            String run = longestRun(keyword);
+
+            if (run == null)
+                return null;
+
+            BitSet keywordCandidates = new BitSet(recordFiles.size());
+
+            if (fieldTerms != null)
+                fieldTerms.addRecords(run, keywordCandidates);
+
+            if (candidates == null)
+                candidates = keywordCandidates;
+            else
+                candidates.and(keywordCandidates);
+        }
+
+        Postings fieldMissing = missing.get(field);
+
+        if (fieldMissing != null)
+            fieldMissing.addTo(candidates);
+
+        Map<String, SortedSet<Integer>> result
+            = new HashMap<String, SortedSet<Integer>>();
+
+        for (int id = candidates.nextSetBit(0);
+                id >= 0;
+                id = candidates.nextSetBit(id + 1))
+        {
+            String filename = recordFiles.get(id);
+            SortedSet<Integer> indexes = result.get(filename);
+
+            if (indexes == null)
+            {
+                indexes = new TreeSet<Integer>();
+                result.put(filename, indexes);
+            }
+            indexes.add(recordIndexes.get(id));
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the buffered entries to the index file and closes it. The index
+     * stays loaded and opens the file again when an entry is next appended.
+     */
+    synchronized void close()
+    {
+        closeAppender();
+    }
+
+    /**
+     * Drops the in-memory index and deletes its file, so that it gets rebuilt
+     * on next use.
+     *
+     * @param cause the reason to invalidate the index
+     */
+    private void invalidate(Exception cause)
+    {
+        logger.error("Invalidating the keyword index " + file, cause);
+
+        clear();
+        file.delete();
+    }
+
+    /**
+     * Writes the buffered entries to the index file and closes it, if open.
+     */
+    private void closeAppender()
+    {
+        if (appender == null)
+            return;
+
+        try
+        {
+            appender.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to close keyword index " + file, e);
+        }
+        appender = null;
+    }
+
+    /**
+     * Loads the index from its file if not already done, indexing again the
+     * history files which changed since and rebuilding it if it is missing,
+     * corrupted or cannot be brought up to date.
+     *
+     * @throws IOException if the index cannot be rebuilt
+     */
+    private void ensureLoaded()
+        throws IOException
+    {
+        if (loaded)
+            return;
+
+        boolean valid = false;
+
+        if (file.exists())
+        {
+            try
+            {
+                load();
+                valid = update();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Corrupted keyword index " + file, e);
+            }
+        }
+
+        if (!valid)
+        {
+            clear();
+            rebuild();
+        }
+        staleFiles.clear();
+        loaded = true;
+    }
+
+    /**
+     * Reads all the entries of the index file. A torn entry at the end of the
+     * file, left by a crash, is truncated.
+     *
+     * @throws IOException if the file cannot be read or is corrupted
+     */
+    private void load()
+        throws IOException
+    {
+        long length = file.length();
+        long validLength = 0;
+        DataInputStream in
+            = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            byte[] entry;
+
+            while ((entry = CrcFrames.readFrame(in)) != null)
+            {
+                if (validLength == 0)
+                    checkHeader(entry);
+                else
+                    apply(entry);
+                validLength += CrcFrames.HEADER_SIZE + entry.length;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if (validLength == 0)
+            throw new IOException("Missing header");
+
+        if (validLength < length)
+        {
+            logger.warn("Truncating torn keyword index entry in " + file
+                + " at " + validLength);
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try
+            {
+                raf.setLength(validLength);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Indexes again the history files which changed since the index last saw
+     * them, i.e. whose length or modification time changed or whose records
+     * changed in memory while the index was not loaded.
+     *
+     * @return <tt>true</tt> if the index is up to date, <tt>false</tt> if it
+     * has to be rebuilt
+     * @throws IOException if reading a file or writing the index fails
+     */
+    private boolean update()
+        throws IOException
+    {
+        DataOutputStream out = null;
+        int updatedFiles = 0;
+
+        try
+        {
+            Iterator<String> fileIter
+                = HistoryReaderImpl.filterFilesByDate(
+                        historyImpl.getFileList(), null, null).iterator();
+
+            while (fileIter.hasNext())
+            {
+                String filename = fileIter.next();
+
+                if (!staleFiles.contains(filename)
+                        && Arrays.equals(
+                                fileStamps.get(filename),
+                                getStamp(filename)))
+                    continue;
+
+                if (out == null)
+                {
+                    out
+                        = new DataOutputStream(
+                                new BufferedOutputStream(
+                                        new FileOutputStream(file, true)));
+                }
+                if (!indexFile(filename, out))
+                    return false;
+                updatedFiles++;
+            }
+        }
+        finally
+        {
+            if (out != null)
+                out.close();
+        }
+
+        if (updatedFiles > 0 && logger.isInfoEnabled())
+        {
+            logger.info("Indexed " + updatedFiles + " changed history files"
+                + " in keyword index " + file);
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the index by reading all the files of the history and writes
+     * it to a new index file.
+     *
+     * @throws IOException if writing the index file fails
+     */
+    private void rebuild()
+        throws IOException
+    {
+        long start = System.currentTimeMillis();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out
+            = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+        try
+        {
+            CrcFrames.writeFrame(out, encodeHeader());
+
+            Iterator<String> fileIter
+                = HistoryReaderImpl.filterFilesByDate(
+                        historyImpl.getFileList(), null, null).iterator();
+
+            while (fileIter.hasNext())
+            {
+                String filename = fileIter.next();
+
+                if (!indexFile(filename, out))
+                    throw new IOException("Failed to index " + filename);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        file.delete();
+        if (!tmpFile.renameTo(file))
+            throw new IOException("Failed to write " + file);
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Rebuilt keyword index " + file + " with "
+                + recordFiles.size() + " records in "
+                + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Indexes all the records of a history file and registers the file with
+     * its current length and modification time.
+     *
+     * @param filename the name of the history file
+     * @param out the stream to write the entries to
+     * @return <tt>true</tt> if the file has been indexed, <tt>false</tt> if
+     * it has more records than the index has room for, i.e. it is not the
+     * last file and records have been added to it
+     * @throws IOException if writing the entries fails
+     */
+    private boolean indexFile(String filename, DataOutputStream out)
+        throws IOException
+    {
+        // the file may change while it is read, so its stamp is taken first
+        byte[] marker = encodeMarker(filename);
+        String[] propertyNames
+            = historyImpl.getHistoryRecordsStructure().getPropertyNames();
+        Document doc = historyImpl.getDocumentForFile(filename);
+        NodeList nodes
+            = (doc == null) ? null : doc.getElementsByTagName("record");
+        int count = (nodes == null) ? 0 : nodes.getLength();
+        Integer indexedCount = fileRecordCounts.get(filename);
+
+        if (indexedCount != null
+                && count > indexedCount
+                && !filename.equals(lastFile))
+        {
+            return false;
+        }
+
+        // register even the files which could not be read so that the index
+        // is not considered out of date
+        apply(marker);
+        for (int i = 0; i < count; i++)
+        {
+            byte[] entry
+                = encode(filename, i, (Element) nodes.item(i), propertyNames);
+
+            apply(entry);
+            CrcFrames.writeFrame(out, entry);
+        }
+        CrcFrames.writeFrame(out, marker);
+        return true;
+    }
+
+    /**
+     * Returns the length and modification time of a history file.
+     *
+     * @param filename the name of the history file
+     * @return the length and modification time of the file
+     */
+    private long[] getStamp(String filename)
+    {
+        File historyFile = new File(historyImpl.getDirectory(), filename);
+
+        return new long[] { historyFile.length(), historyFile.lastModified() };
+    }
+
+    /**
+     * Appends an entry to the index file, through the buffer flushed when a
+     * history file has been written. Should the application stop before, the
+     * entries of the records of the file are lost along with the marker of the
+     * file, which is therefore indexed again when the index is next loaded.
+     *
+     * @param entry the entry
+     * @throws IOException if writing fails
+     */
+    private void append(byte[] entry)
+        throws IOException
+    {
+        if (appender == null)
+        {
+            appender
+                = new DataOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(file, true)));
+        }
+        CrcFrames.writeFrame(appender, entry);
+    }
+
+    /**
+     * Adds the terms of an index entry to the in-memory index. If the entry
+     * is about a record already indexed (i.e. the record has been updated),
+     * the new terms are added to the old ones: the readers verify every
+     * candidate so stale terms are harmless.
+     *
+     * @param entry the entry
+     * @throws IOException if the entry is malformed
+     */
+    private void apply(byte[] entry)
+        throws IOException
+    {
+        DataInputStream in
+            = new DataInputStream(new ByteArrayInputStream(entry));
+        String filename = in.readUTF();
+        int recordIndex = in.readInt();
+
+        if (recordIndex == HEADER)
+            throw new IOException("Unexpected header");
+
+        Integer firstId = fileFirstIds.get(filename);
+
+        if (firstId == null)
+        {
+            firstId = recordFiles.size();
+            fileFirstIds.put(filename, firstId);
+            fileRecordCounts.put(filename, 0);
+            lastFile = filename;
+        }
+
+        if (recordIndex == FILE_MARKER)
+        {
+            fileStamps.put(filename, new long[] { in.readLong(), in.readLong() });
+            return;
+        }
+
+        int id = firstId + recordIndex;
+
+        if (recordIndex < 0 || id > recordFiles.size())
+            throw new IOException("Unexpected record " + recordIndex);
+
+        if (id == recordFiles.size())
+        {
+            recordFiles.add(filename);
+            recordIndexes.add(recordIndex);
+            fileRecordCounts.put(filename, recordIndex + 1);
+        }
+        else if (!filename.equals(recordFiles.get(id)))
+            throw new IOException("Unexpected record " + recordIndex);
+
+        for (int i = in.readInt(); i > 0; i--)
+        {
+            String field = in.readUTF();
+            String term = CrcFrames.readString(in);
+            FieldTerms fieldTerms = terms.get(field);
+
+            if (fieldTerms == null)
+            {
+                fieldTerms = new FieldTerms();
+                terms.put(field, fieldTerms);
+            }
+            fieldTerms.add(term, id);
+        }
+
+        for (int i = in.readInt(); i > 0; i--)
+        {
+            String field = in.readUTF();
+            Postings postings = missing.get(field);
+
+            if (postings == null)
+            {
+                postings = new Postings();
+                missing.put(field, postings);
+            }
+            postings.addUnique(id);
+        }
+    }
+
+    /**
+     * Clears the in-memory index.
+     */
+    private void clear()
+    {
+        closeAppender();
+        terms.clear();
+        missing.clear();
+        fileFirstIds.clear();
+        fileRecordCounts.clear();
+        fileStamps.clear();
+        lastFile = null;
+        recordFiles.clear();
+        recordIndexes = new Postings();
+        loaded = false;
+    }
+
+    /**
+     * Checks that an entry is the header of an index file of the current
+     * format.
+     *
+     * @param entry the first entry of the index file
+     * @throws IOException if the entry is not such a header
+     */
+    private static void checkHeader(byte[] entry)
+        throws IOException
+    {
+        DataInputStream in
+            = new DataInputStream(new ByteArrayInputStream(entry));
+
+        if (in.readUTF().length() != 0
+                || in.readInt() != HEADER
+                || in.readInt() != FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported keyword index format");
+        }
+    }
+
+    /**
+     * Creates the entry starting an index file.
+     *
+     * @return the entry
+     * @throws IOException never
+     */
+    private static byte[] encodeHeader()
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeUTF("");
+        out.writeInt(HEADER);
+        out.writeInt(FORMAT_VERSION);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates the entry registering a history file with its current length
+     * and modification time.
+     *
+     * @param filename the name of the history file
+     * @return the entry
+     * @throws IOException never
+     */
+    private byte[] encodeMarker(String filename)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        long[] stamp = getStamp(filename);
+
+        out.writeUTF(filename);
+        out.writeInt(FILE_MARKER);
+        out.writeLong(stamp[0]);
+        out.writeLong(stamp[1]);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates the index entry of a record.
+     *
+     * @param filename the name of the file of the record
+     * @param recordIndex the index of the record in the file
+     * @param record the record element
+     * @param propertyNames the property names of the history structure
+     * @return the entry
+     * @throws IOException never
+     */
+    private static byte[] encode(String filename,
+                                 int recordIndex,
+                                 Element record,
+                                 String[] propertyNames)
+        throws IOException
+    {
+        Set<String> fieldTerms = new LinkedHashSet<String>();
+        Set<String> missingFields = new HashSet<String>();
+
+        for (String propertyName : propertyNames)
+        {
+            if (propertyName.endsWith("_CDATA"))
+                propertyName = propertyName.replaceFirst("_CDATA", "");
+            missingFields.add(propertyName);
+        }
+
+        NodeList propertyNodes = record.getChildNodes();
+
+        for (int i = 0; i < propertyNodes.getLength(); i++)
+        {
+            Node propertyNode = propertyNodes.item(i);
+
+            if (propertyNode.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+
+            Node valueNode = propertyNode.getFirstChild();
+
+            if (valueNode == null)
+                continue;
+
+            String field = propertyNode.getNodeName();
+
+            missingFields.remove(field);
+            tokenize(field, valueNode.getNodeValue(), fieldTerms);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeUTF(filename);
+        out.writeInt(recordIndex);
+        out.writeInt(fieldTerms.size());
+        for (String fieldTerm : fieldTerms)
+        {
+            int separator = fieldTerm.indexOf('\0');
+
+            out.writeUTF(fieldTerm.substring(0, separator));
+            CrcFrames.writeString(out, fieldTerm.substring(separator + 1));
+        }
+        out.writeInt(missingFields.size());
+        for (String field : missingFields)
+            out.writeUTF(field);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Splits a value into terms and adds them to <tt>fieldTerms</tt> as
+     * <tt>field\0term</tt>.
+     *
+     * @param field the property name of the value
+     * @param value the value
+     * @param fieldTerms the set to add the terms to
+     */
+    private static void tokenize(String field,
+                                 String value,
+                                 Set<String> fieldTerms)
+    {
+        if (value == null)
+            return;
+
+        StringBuilder term = new StringBuilder();
+        int length = value.length();
+
+        for (int i = 0; i <= length; i++)
+        {
+            char c = (i < length) ? value.charAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(c))
+                term.append(Character.toLowerCase(c));
+            else if (term.length() > 0)
+            {
+                fieldTerms.add(field + '\0' + term);
+                term.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Returns the longest run of letters and digits of a keyword, lower cased
+     * the same way the terms are.
+     *
+     * @param keyword the keyword
+     * @return the longest run of letters and digits of <tt>keyword</tt> or
+     * <tt>null</tt> if it has none
+     */
+    static String longestRun(String keyword)
+    {
+        int longestStart = 0;
+        int longestLength = 0;
+        int runStart = 0;
+        int length = keyword.length();
+
+        for (int i = 0; i <= length; i++)
+        {
+            if (i < length && Character.isLetterOrDigit(keyword.charAt(i)))
+                continue;
+
+            if (i - runStart > longestLength)
+            {
+                longestStart = runStart;
+                longestLength = i - runStart;
+            }
+            runStart = i + 1;
+        }
+
+        if (longestLength == 0)
+            return null;
+
+        char[] run = new char[longestLength];
+
+        for (int i = 0; i < longestLength; i++)
+            run[i] = Character.toLowerCase(keyword.charAt(longestStart + i));
+        return new String(run);
+    }
+
+    /**
+     * The terms of a property, along with the trigrams of the terms so that
+     * the terms containing a run of letters and digits are found without
+     * going through all of them.
+     */
+    private static class FieldTerms
+    {
+        /**
+         * The length of the grams the terms are indexed by.
+         */
+        private static final int GRAM_LENGTH = 3;
+
+        /**
+         * The terms by term id.
+         */
+        private final List<String> terms = new ArrayList<String>();
+
+        /**
+         * The id of every term.
+         */
+        private final Map<String, Integer> termIds
+            = new HashMap<String, Integer>();
+
+        /**
+         * The records containing every term, by term id.
+         */
+        private final List<Postings> termRecords = new ArrayList<Postings>();
+
+        /**
+         * The ids of the terms containing every gram. A term is padded with
+         * <tt>\0</tt> characters so that it has a gram starting at each of
+         * its characters, which allows shorter runs to be looked up as the
+         * prefix of grams.
+         */
+        private final TreeMap<String, Postings> grams
+            = new TreeMap<String, Postings>();
+
+        /**
+         * Adds a term of a record.
+         *
+         * @param term the term
+         * @param id the id of the record
+         */
+        void add(String term, int id)
+        {
+            Integer termId = termIds.get(term);
+
+            if (termId == null)
+            {
+                termId = terms.size();
+                terms.add(term);
+                termIds.put(term, termId);
+                termRecords.add(new Postings());
+
+                String padded = term + "\0\0";
+
+                for (int i = 0; i < term.length(); i++)
+                {
+                    String gram = padded.substring(i, i + GRAM_LENGTH);
+                    Postings gramTerms = grams.get(gram);
+
+                    if (gramTerms == null)
+                    {
+                        gramTerms = new Postings();
+                        grams.put(gram, gramTerms);
+                    }
+                    gramTerms.addUnique(termId);
+                }
+            }
+            termRecords.get(termId).addUnique(id);
+        }
+
+        /**
+         * Adds the records having a term which contains a run of letters and
+         * digits.
+         *
+         * @param run the run, lower cased the same way the terms are
+         * @param records the set to add the ids of the records to
+         */
+        void addRecords(String run, BitSet records)
+        {
+            if (run.length() < GRAM_LENGTH)
+            {
+                // every occurrence of the run starts a gram
+                BitSet seenTerms = new BitSet(terms.size());
+
+                for (Postings gramTerms
+                        : grams.subMap(run, run + Character.MAX_VALUE)
+                            .values())
+                {
+                    for (int i = 0; i < gramTerms.size(); i++)
+                    {
+                        int termId = gramTerms.get(i);
+
+                        if (!seenTerms.get(termId))
+                        {
+                            seenTerms.set(termId);
+                            termRecords.get(termId).addTo(records);
+                        }
+                    }
+                }
+                return;
+            }
+
+            // the terms containing the run contain all its grams, so only the
+            // terms of its rarest gram are checked
+            Postings rarestGramTerms = null;
+
+            for (int i = 0; i + GRAM_LENGTH <= run.length(); i++)
+            {
+                Postings gramTerms
+                    = grams.get(run.substring(i, i + GRAM_LENGTH));
+
+                if (gramTerms == null)
+                    return;
+                if (rarestGramTerms == null
+                        || gramTerms.size() < rarestGramTerms.size())
+                {
+                    rarestGramTerms = gramTerms;
+                }
+            }
+
+            for (int i = 0; i < rarestGramTerms.size(); i++)
+            {
+                int termId = rarestGramTerms.get(i);
+
+                if (terms.get(termId).contains(run))
+                    termRecords.get(termId).addTo(records);
+            }
+        }
+    }
+
+    /**
+     * A growable, ascending list of record ids.
+     */
+    private static class Postings
+    {
+        private int[] ids = new int[4];
+
+        private int size = 0;
+
+        /**
+         * Appends an id.
+         *
+         * @param id the id
+         */
+        void add(int id)
+        {
+            if (size == ids.length)
+            {
+                int[] newIds = new int[size * 2];
+
+                System.arraycopy(ids, 0, newIds, 0, size);
+                ids = newIds;
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Adds an id unless already present. Ids are almost always added in
+         * ascending order, updated records being the exception.
+         *
+         * @param id the id
+         */
+        void addUnique(int id)
+        {
+            if (size == 0 || ids[size - 1] < id)
+                add(id);
+            else if (ids[size - 1] != id
+                    && Arrays.binarySearch(ids, 0, size, id) < 0)
+            {
+                add(id);
+                Arrays.sort(ids, 0, size);
+            }
+        }
+
+        int get(int index)
+        {
+            return ids[index];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * Sets the bits of all the ids of this list.
+         *
+         * @param bits the set to add the ids to
+         */
+        void addTo(BitSet bits)
+        {
+            for (int i = 0; i < size; i++)
+                bits.set(ids[i]);
+        }
+    }
+}
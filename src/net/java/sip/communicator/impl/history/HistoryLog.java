@@ -0,0 +1,794 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * An append-only, segmented binary log of <tt>HistoryRecord</tt>s together
+ * with an offset index sorted by record timestamp.
+ * <p>
+ * Records are appended to segment files (<tt>00000.hlog</tt>,
+ * <tt>00001.hlog</tt>, ...) which are rolled once they exceed
+ * {@link #SEGMENT_MAX_SIZE}. Every frame in a segment is laid out as
+ * <tt>length, crc32, payload</tt> so that a torn write at the end of the last
+ * segment is detected and truncated when the log is opened.
+ * <p>
+ * Each record gets a slot in the index file (<tt>index.hidx</tt>), holding its
+ * timestamp, segment and offset in fixed-size entries. Updating a record
+ * appends its new version to the log and rewrites the slot in place, so the
+ * data files are never modified. The index is kept in memory as parallel
+ * arrays plus a slot permutation ordered by timestamp, which allows to locate
+ * the records in a period with a binary search instead of parsing every file.
+ * If the index is missing or behind the segments, it is rebuilt by scanning
+ * the segments.
+ */
+public class HistoryLog
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>HistoryLog</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(HistoryLog.class);
+
+    /**
+     * The extension of the segment files.
+     */
+    public static final String SEGMENT_EXTENSION = ".hlog";
+
+    /**
+     * The name of the index file.
+     */
+    public static final String INDEX_FILE = "index.hidx";
+
+    /**
+     * The size after which a segment is closed and a new one is started.
+     */
+    public static final int SEGMENT_MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The size in bytes of a single index entry: timestamp, segment, offset.
+     */
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Frame type of a newly appended record.
+     */
+    private static final byte TYPE_RECORD = 0;
+
+    /**
+     * Frame type of a new version of an already existing record.
+     */
+    private static final byte TYPE_REPLACE = 1;
+
+    /**
+     * The directory holding the segments and the index.
+     */
+    private final File directory;
+
+    /**
+     * The open segments indexed by segment number.
+     */
+    private final List<RandomAccessFile> segments
+        = new ArrayList<RandomAccessFile>();
+
+    /**
+     * The index file.
+     */
+    private RandomAccessFile indexFile = null;
+
+    /**
+     * The timestamps of the records by slot.
+     */
+    private long[] timestamps = new long[0];
+
+    /**
+     * The segment numbers of the records by slot.
+     */
+    private int[] segmentNumbers = new int[0];
+
+    /**
+     * The offsets of the records in their segments by slot.
+     */
+    private int[] offsets = new int[0];
+
+    /**
+     * The slots ordered by timestamp. Records with equal timestamps keep
+     * the order in which they were appended.
+     */
+    private int[] order = new int[0];
+
+    /**
+     * The number of records in this log.
+     */
+    private int count = 0;
+
+    /**
+     * Whether {@link #order} has to be rebuilt because a record has been
+     * appended out of order.
+     */
+    private boolean orderDirty = false;
+
+    /**
+     * Creates a <tt>HistoryLog</tt> stored in the given directory. The log is
+     * opened lazily on first use.
+     *
+     * @param directory the directory to store the log in
+     */
+    public HistoryLog(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Checks whether there is a log stored in the directory of this instance.
+     *
+     * @return <tt>true</tt> if the directory contains at least one segment
+     */
+    public boolean exists()
+    {
+        return getSegmentFile(0).exists();
+    }
+
+    /**
+     * Returns the number of records in this log.
+     *
+     * @return the number of records in this log
+     * @throws IOException if the log cannot be opened
+     */
+    public synchronized int size()
+        throws IOException
+    {
+        ensureOpen();
+        return count;
+    }
+
+    /**
+     * Appends a record to this log.
+     *
+     * @param record the record to append
+     * @return the slot of the appended record
+     * @throws IOException if writing to the log fails
+     */
+    public synchronized int append(HistoryRecord record)
+        throws IOException
+    {
+        ensureOpen();
+
+        int slot = count;
+        long position = writeFrame(encode(TYPE_RECORD, -1, record));
+
+        addSlot(record.getTimestamp(),
+                (int) (position >>> 32), (int) position);
+        writeIndexEntry(slot);
+
+        return slot;
+    }
+
+    /**
+     * Replaces the record at <tt>slot</tt> with a new version. The timestamp
+     * of the record is preserved.
+     *
+     * @param slot the slot of the record to replace
+     * @param record the new version of the record
+     * @throws IOException if writing to the log fails
+     */
+    public synchronized void replace(int slot, HistoryRecord record)
+        throws IOException
+    {
+        ensureOpen();
+
+        if (slot < 0 || slot >= count)
+            throw new IndexOutOfBoundsException("slot " + slot);
+
+        HistoryRecord stored
+            = new HistoryRecord(
+                    record.getPropertyNames(),
+                    record.getPropertyValues(),
+                    timestamps[slot]);
+        long position = writeFrame(encode(TYPE_REPLACE, slot, stored));
+
+        segmentNumbers[slot] = (int) (position >>> 32);
+        offsets[slot] = (int) position;
+        writeIndexEntry(slot);
+    }
+
+    /**
+     * Reads the record at the given position of the timestamp order.
+     *
+     * @param position the position in the timestamp order, between
+     * <tt>0</tt> and {@link #size()}
+     * @return the record
+     * @throws IOException if reading from the log fails
+     */
+    public synchronized HistoryRecord get(int position)
+        throws IOException
+    {
+        return read(getSlot(position));
+    }
+
+    /**
+     * Returns the slot of the record at the given position of the timestamp
+     * order.
+     *
+     * @param position the position in the timestamp order
+     * @return the slot of the record
+     * @throws IOException if the log cannot be opened
+     */
+    public synchronized int getSlot(int position)
+        throws IOException
+    {
+        ensureOrdered();
+
+        if (position < 0 || position >= count)
+            throw new IndexOutOfBoundsException("position " + position);
+
+        return order[position];
+    }
+
+    /**
+     * Reads the record stored at the given slot.
+     *
+     * @param slot the slot of the record
+     * @return the record
+     * @throws IOException if reading from the log fails
+     */
+    public synchronized HistoryRecord read(int slot)
+        throws IOException
+    {
+        ensureOpen();
+
+        if (slot < 0 || slot >= count)
+            throw new IndexOutOfBoundsException("slot " + slot);
+
+        RandomAccessFile segment = segments.get(segmentNumbers[slot]);
+
+        segment.seek(offsets[slot]);
+        int length = segment.readInt();
+        int crc = segment.readInt();
+        byte[] payload = new byte[length];
+
+        segment.readFully(payload);
+        if (crc != CrcFrames.crc(payload))
+        {
+            throw new IOException(
+                    "Corrupted history record in " + directory
+                        + " at slot " + slot);
+        }
+
+        return decode(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    /**
+     * Returns the position in the timestamp order of the first record with
+     * timestamp strictly after <tt>timestamp</tt>.
+     *
+     * @param timestamp the timestamp to search for
+     * @return the position of the first record after <tt>timestamp</tt>, or
+     * {@link #size()} if there is no such record
+     * @throws IOException if the log cannot be opened
+     */
+    public synchronized int firstAfter(long timestamp)
+        throws IOException
+    {
+        ensureOrdered();
+
+        int low = 0;
+        int high = count;
+
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (timestamps[order[mid]] <= timestamp)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position in the timestamp order of the first record with
+     * timestamp equal or after <tt>timestamp</tt>, i.e. the number of records
+     * strictly before <tt>timestamp</tt>.
+     *
+     * @param timestamp the timestamp to search for
+     * @return the position of the first record not before
+     * <tt>timestamp</tt>, or {@link #size()} if there is no such record
+     * @throws IOException if the log cannot be opened
+     */
+    public synchronized int firstNotBefore(long timestamp)
+        throws IOException
+    {
+        ensureOrdered();
+
+        int low = 0;
+        int high = count;
+
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (timestamps[order[mid]] < timestamp)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Closes the files of this log. The log is reopened on its next use.
+     */
+    public synchronized void close()
+    {
+        for (RandomAccessFile segment : segments)
+            closeQuietly(segment);
+        segments.clear();
+
+        closeQuietly(indexFile);
+        indexFile = null;
+
+        count = 0;
+        orderDirty = false;
+    }
+
+    /**
+     * Opens the segments and loads the index if not already done.
+     *
+     * @throws IOException if the log cannot be opened
+     */
+    private void ensureOpen()
+        throws IOException
+    {
+        if (indexFile != null)
+            return;
+
+        if (!directory.exists() && !directory.mkdirs())
+        {
+            throw new IOException(
+                    "Could not create history directory " + directory);
+        }
+
+        for (int i = 0; getSegmentFile(i).exists(); i++)
+            segments.add(new RandomAccessFile(getSegmentFile(i), "rw"));
+
+        indexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        try
+        {
+            loadIndex();
+        }
+        catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the index entries and recovers the records which were written to
+     * the segments but have not made it to the index.
+     *
+     * @throws IOException if reading the index or the segments fails
+     */
+    private void loadIndex()
+        throws IOException
+    {
+        int entries = (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+        byte[] index = new byte[entries * INDEX_ENTRY_SIZE];
+
+        indexFile.seek(0);
+        indexFile.readFully(index);
+
+        DataInputStream in
+            = new DataInputStream(new ByteArrayInputStream(index));
+
+        count = 0;
+
+        int lastSegment = 0;
+        int lastOffset = -1;
+
+        for (int i = 0; i < entries; i++)
+        {
+            long timestamp = in.readLong();
+            int segment = in.readInt();
+            int offset = in.readInt();
+
+            if (segment < 0
+                    || segment >= segments.size()
+                    || offset < 0
+                    || offset + CrcFrames.HEADER_SIZE
+                        > segments.get(segment).length())
+            {
+                // the index is ahead of the data, drop what follows
+                logger.warn("Dropping stale history index entries in "
+                    + directory);
+                break;
+            }
+
+            addSlot(timestamp, segment, offset);
+
+            if (segment > lastSegment
+                    || (segment == lastSegment && offset > lastOffset))
+            {
+                lastSegment = segment;
+                lastOffset = offset;
+            }
+        }
+
+        // Scan whatever follows the frame of the last appended record.
+        // Frames after it may be records missing from the index or new
+        // versions of older records, applying them again is harmless.
+        int scanSegment = 0;
+        long scanOffset = 0;
+
+        if (count > 0)
+        {
+            scanSegment = segmentNumbers[count - 1];
+            scanOffset = frameEnd(scanSegment, offsets[count - 1]);
+
+            if (frameEnd(lastSegment, lastOffset)
+                    > segments.get(lastSegment).length())
+            {
+                // The last indexed frame is torn. It may be a new version of
+                // an older record so rebuild the whole index from the data.
+                logger.warn("Rebuilding the history index of " + directory);
+                count = 0;
+                orderDirty = false;
+                scanSegment = 0;
+                scanOffset = 0;
+            }
+        }
+
+        indexFile.setLength((long) count * INDEX_ENTRY_SIZE);
+        recover(scanSegment, scanOffset);
+    }
+
+    /**
+     * Returns the position following the frame at the given position.
+     *
+     * @param segmentNumber the segment of the frame
+     * @param offset the offset of the frame
+     * @return the offset of the end of the frame
+     * @throws IOException if reading the segment fails
+     */
+    private long frameEnd(int segmentNumber, int offset)
+        throws IOException
+    {
+        RandomAccessFile segment = segments.get(segmentNumber);
+
+        segment.seek(offset);
+        return offset + CrcFrames.HEADER_SIZE + (long) segment.readInt();
+    }
+
+    /**
+     * Scans the segments starting at the given position and adds to the index
+     * all the frames found there. A torn frame at the end of the last segment
+     * is truncated.
+     *
+     * @param segmentNumber the segment to start from
+     * @param offset the offset to start from
+     * @throws IOException if reading the segments fails
+     */
+    private void recover(int segmentNumber, long offset)
+        throws IOException
+    {
+        int recovered = 0;
+
+        for (int s = segmentNumber; s < segments.size(); s++)
+        {
+            RandomAccessFile segment = segments.get(s);
+            long length = segment.length();
+            long position = (s == segmentNumber) ? offset : 0;
+
+            while (position < length)
+            {
+                byte[] payload = null;
+
+                if (position + CrcFrames.HEADER_SIZE <= length)
+                {
+                    segment.seek(position);
+                    int frameLength = segment.readInt();
+                    int crc = segment.readInt();
+
+                    if (frameLength >= 0
+                            && position + CrcFrames.HEADER_SIZE + frameLength
+                                <= length)
+                    {
+                        payload = new byte[frameLength];
+                        segment.readFully(payload);
+                        if (crc != CrcFrames.crc(payload))
+                            payload = null;
+                    }
+                }
+
+                if (payload == null)
+                {
+                    logger.warn("Truncating torn history record in "
+                        + directory + " segment " + s + " at " + position);
+                    segment.setLength(position);
+                    break;
+                }
+
+                DataInputStream in
+                    = new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = in.readByte();
+                int slot = (type == TYPE_REPLACE) ? in.readInt() : count;
+                long timestamp = in.readLong();
+
+                if (type == TYPE_RECORD)
+                {
+                    addSlot(timestamp, s, (int) position);
+                    writeIndexEntry(slot);
+                    recovered++;
+                }
+                else if (slot >= 0 && slot < count)
+                {
+                    segmentNumbers[slot] = s;
+                    offsets[slot] = (int) position;
+                    writeIndexEntry(slot);
+                    recovered++;
+                }
+
+                position += CrcFrames.HEADER_SIZE + payload.length;
+            }
+        }
+
+        if (recovered > 0 && logger.isInfoEnabled())
+        {
+            logger.info("Recovered " + recovered
+                + " history records missing from the index of " + directory);
+        }
+    }
+
+    /**
+     * Adds a slot to the in-memory index.
+     *
+     * @param timestamp the timestamp of the record
+     * @param segment the segment number of the record
+     * @param offset the offset of the record in its segment
+     */
+    private void addSlot(long timestamp, int segment, int offset)
+    {
+        if (count == timestamps.length)
+        {
+            int capacity = Math.max(16, count * 2);
+
+            timestamps = copyOf(timestamps, capacity);
+            segmentNumbers = copyOf(segmentNumbers, capacity);
+            offsets = copyOf(offsets, capacity);
+            order = copyOf(order, capacity);
+        }
+
+        timestamps[count] = timestamp;
+        segmentNumbers[count] = segment;
+        offsets[count] = offset;
+        order[count] = count;
+
+        if (!orderDirty
+                && count > 0
+                && timestamps[order[count - 1]] > timestamp)
+        {
+            orderDirty = true;
+        }
+
+        count++;
+    }
+
+    /**
+     * Makes sure the log is open and {@link #order} is sorted by timestamp.
+     *
+     * @throws IOException if the log cannot be opened
+     */
+    private void ensureOrdered()
+        throws IOException
+    {
+        ensureOpen();
+
+        if (!orderDirty)
+            return;
+
+        Integer[] sorted = new Integer[count];
+
+        for (int i = 0; i < count; i++)
+            sorted[i] = i;
+
+        // Arrays.sort on objects is stable, equal timestamps keep their order
+        Arrays.sort(sorted, new Comparator<Integer>()
+        {
+            public int compare(Integer slot1, Integer slot2)
+            {
+                long t1 = timestamps[slot1];
+                long t2 = timestamps[slot2];
+
+                return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < count; i++)
+            order[i] = sorted[i];
+        orderDirty = false;
+    }
+
+    /**
+     * Writes a frame at the end of the current segment, rolling to a new
+     * segment if the current one is full.
+     *
+     * @param payload the payload of the frame
+     * @return the position of the frame, segment number in the high 32 bits
+     * and offset in the low 32 bits
+     * @throws IOException if writing fails
+     */
+    private long writeFrame(byte[] payload)
+        throws IOException
+    {
+        int segmentNumber = segments.size() - 1;
+
+        if (segmentNumber < 0
+                || segments.get(segmentNumber).length() >= SEGMENT_MAX_SIZE)
+        {
+            segmentNumber++;
+            segments.add(
+                new RandomAccessFile(getSegmentFile(segmentNumber), "rw"));
+        }
+
+        RandomAccessFile segment = segments.get(segmentNumber);
+        long offset = segment.length();
+        segment.seek(offset);
+        segment.write(CrcFrames.frame(payload).array());
+
+        return ((long) segmentNumber << 32) | offset;
+    }
+
+    /**
+     * Writes the index entry of the given slot.
+     *
+     * @param slot the slot to write
+     * @throws IOException if writing fails
+     */
+    private void writeIndexEntry(int slot)
+        throws IOException
+    {
+        byte[] entry = new byte[INDEX_ENTRY_SIZE];
+        long timestamp = timestamps[slot];
+
+        writeInt(entry, 0, (int) (timestamp >>> 32));
+        writeInt(entry, 4, (int) timestamp);
+        writeInt(entry, 8, segmentNumbers[slot]);
+        writeInt(entry, 12, offsets[slot]);
+
+        indexFile.seek((long) slot * INDEX_ENTRY_SIZE);
+        indexFile.write(entry);
+    }
+
+    /**
+     * Returns the file of the segment with the given number.
+     *
+     * @param segmentNumber the number of the segment
+     * @return the file of the segment
+     */
+    private File getSegmentFile(int segmentNumber)
+    {
+        String name = Integer.toString(segmentNumber);
+
+        while (name.length() < 5)
+            name = "0" + name;
+
+        return new File(directory, name + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Serializes a record into a frame payload.
+     *
+     * @param type the type of the frame
+     * @param slot the slot replaced by this frame if its type is
+     * <tt>TYPE_REPLACE</tt>
+     * @param record the record
+     * @return the payload
+     * @throws IOException never
+     */
+    private static byte[] encode(byte type, int slot, HistoryRecord record)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+
+        out.writeByte(type);
+        if (type == TYPE_REPLACE)
+            out.writeInt(slot);
+        out.writeLong(record.getTimestamp());
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++)
+        {
+            CrcFrames.writeString(out, names[i]);
+            CrcFrames.writeString(out, values[i]);
+        }
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes a record from a frame payload.
+     *
+     * @param in the payload
+     * @return the record
+     * @throws IOException if the payload is malformed
+     */
+    private static HistoryRecord decode(DataInputStream in)
+        throws IOException
+    {
+        if (in.readByte() == TYPE_REPLACE)
+            in.readInt();
+
+        long timestamp = in.readLong();
+        int size = in.readInt();
+        String[] names = new String[size];
+        String[] values = new String[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            names[i] = CrcFrames.readString(in);
+            values[i] = CrcFrames.readString(in);
+        }
+
+        return new HistoryRecord(names, values, timestamp);
+    }
+
+    /**
+     * Writes an int in big-endian order into a byte array.
+     *
+     * @param bytes the array
+     * @param offset the offset in the array
+     * @param value the value
+     */
+    private static void writeInt(byte[] bytes, int offset, int value)
+    {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static long[] copyOf(long[] array, int length)
+    {
+        long[] copy = new long[length];
+
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static int[] copyOf(int[] array, int length)
+    {
+        int[] copy = new int[length];
+
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Failed to close " + closeable, e);
+            }
+        }
+    }
+}
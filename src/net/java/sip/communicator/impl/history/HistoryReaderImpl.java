@@ -164,80 +164,30 @@ public class HistoryReaderImpl
 
         while(leftCount > 0 && currentFile >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
-
-            if(doc == null)
-            {
-                currentFile--;
-                continue;
-            }
-
-            // will get nodes and construct a List of nodes
-            // so we can easyly get sublist of it
-            List<Node> nodes = new ArrayList<Node>();
-            NodeList nodesList = doc.getElementsByTagName("record");
-            for (int i = 0; i < nodesList.getLength(); i++)
-            {
-                nodes.add(nodesList.item(i));
-            }
-
-            List<Node> lNodes = null;
-
-            if (nodes.size() > leftCount)
-            {
-                lNodes = nodes.subList(nodes.size() - leftCount , nodes.size());
-                leftCount = 0;
-            }
-            else
-            {
-                lNodes = nodes;
-                leftCount -= nodes.size();
-            }
-
-            Iterator<Node> i = lNodes.iterator();
-            while (i.hasNext())
-            {
-                Node node = i.next();
-
-                NodeList propertyNodes = node.getChildNodes();
-
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                long timestamp = Long.parseLong(ts);
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
+            // the files are streamed from their start, so only the last
+            // records seen are kept
+            final LinkedList<HistoryRecord> lastRecords
+                = new LinkedList<HistoryRecord>();
+            final int maxRecords = leftCount;
+
+            HistoryFileReader.read(historyImpl, filelist.get(currentFile),
+                new HistoryFileReader.RecordHandler()
                 {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
+                    public boolean handleRecord(int index,
+                                                long timestamp,
+                                                String[] names,
+                                                String[] values)
                     {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
-
-                        if(nodeValue == null)
-                            continue;
-
-                        nameVals.add(propertyNode.getNodeName());
-                        nameVals.add(nodeValue.getNodeValue());
+                        lastRecords.add(
+                            createRecord(timestamp, names, values, false));
+                        if (lastRecords.size() > maxRecords)
+                            lastRecords.removeFirst();
+                        return true;
                     }
-                }
-
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
-
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
+                });
 
-                result.add(record);
-            }
+            result.addAll(lastRecords);
+            leftCount -= lastRecords.size();
 
             currentFile--;
         }
@@ -311,85 +261,43 @@ public class HistoryReaderImpl
      * @return QueryResultSet the found records
      * @throws RuntimeException
      */
-    public QueryResultSet<HistoryRecord> findFirstRecordsAfter(Date date, int count) throws
-        RuntimeException
+    public QueryResultSet<HistoryRecord> findFirstRecordsAfter(
+            final Date date, int count)
+        throws RuntimeException
     {
-        TreeSet<HistoryRecord> result
+        final TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
 
         Vector<String> filelist =
             filterFilesByDate(this.historyImpl.getFileList(), date, null);
 
-        int leftCount = count;
+        final int[] leftCount = { count };
         int currentFile = 0;
 
-        while(leftCount > 0 && currentFile < filelist.size())
+        while(leftCount[0] > 0 && currentFile < filelist.size())
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
-
-            if(doc == null)
-            {
-                currentFile++;
-                continue;
-            }
-
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            Node node;
-            for (int i = 0; i < nodes.getLength() && leftCount > 0; i++)
-            {
-                node = nodes.item(i);
-
-                NodeList propertyNodes = node.getChildNodes();
-
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                long timestamp = Long.parseLong(ts);
-
-                if(!isInPeriod(timestamp, date, null))
-                    continue;
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                boolean isRecordOK = true;
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
+            HistoryFileReader.read(historyImpl, filelist.get(currentFile),
+                new HistoryFileReader.RecordHandler()
                 {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
+                    public boolean handleRecord(int index,
+                                                long timestamp,
+                                                String[] names,
+                                                String[] values)
                     {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
-
-                        if(nodeValue != null)
-                        {
-                            nameVals.add(propertyNode.getNodeName());
-                            nameVals.add(nodeValue.getNodeValue());
-                        }
-                        else
-                            isRecordOK = false;
-                    }
-                }
-
-                // if we found a broken record - just skip it
-                if(!isRecordOK)
-                    continue;
+                        if(!isInPeriod(timestamp, date, null))
+                            return true;
 
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
+                        HistoryRecord record
+                            = createRecord(timestamp, names, values, true);
 
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
+                        // if we found a broken record - just skip it
+                        if(record == null)
+                            return true;
 
-                result.add(record);
-                leftCount--;
-            }
+                        result.add(record);
+                        return --leftCount[0] > 0;
+                    }
+                });
 
             currentFile++;
         }
@@ -405,8 +313,9 @@ public class HistoryReaderImpl
      * @return QueryResultSet the found records
      * @throws RuntimeException
      */
-    public QueryResultSet<HistoryRecord> findLastRecordsBefore(Date date, int count) throws
-        RuntimeException
+    public QueryResultSet<HistoryRecord> findLastRecordsBefore(
+            final Date date, int count)
+        throws RuntimeException
     {
         // the files are supposed to be ordered from oldest to newest
         Vector<String> filelist =
@@ -420,70 +329,43 @@ public class HistoryReaderImpl
 
         while(leftCount > 0 && currentFile >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
-
-            if(doc == null)
-            {
-                currentFile--;
-                continue;
-            }
-
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            Node node;
-            for (int i = nodes.getLength() - 1; i >= 0 && leftCount > 0; i--)
-            {
-                node = nodes.item(i);
-                NodeList propertyNodes = node.getChildNodes();
-
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                long timestamp = Long.parseLong(ts);
-
-                if(!isInPeriod(timestamp, null, date))
-                    continue;
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                boolean isRecordOK = true;
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
+            // the files are streamed from their start, so only the last
+            // matching records seen are kept
+            final LinkedList<HistoryRecord> lastRecords
+                = new LinkedList<HistoryRecord>();
+            final int maxRecords = leftCount;
+
+            HistoryFileReader.read(historyImpl, filelist.get(currentFile),
+                new HistoryFileReader.RecordHandler()
                 {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
+                    public boolean handleRecord(int index,
+                                                long timestamp,
+                                                String[] names,
+                                                String[] values)
                     {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
+                        if(!isInPeriod(timestamp, null, date))
+                            return true;
 
-                        if(nodeValue != null)
-                        {
-                            nameVals.add(propertyNode.getNodeName());
-                            nameVals.add(nodeValue.getNodeValue());
-                        }
-                        else
-                            isRecordOK = false;
-                    }
-                }
+                        HistoryRecord record
+                            = createRecord(timestamp, names, values, true);
 
-                // if we found a broken record - just skip it
-                if(!isRecordOK)
-                    continue;
+                        // if we found a broken record - just skip it
+                        if(record == null)
+                            return true;
 
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
-
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
+                        lastRecords.add(record);
+                        if (lastRecords.size() > maxRecords)
+                            lastRecords.removeFirst();
+                        return true;
+                    }
+                });
 
-                result.add(record);
-                leftCount--;
-            }
+            // newest first, so that the newest of the records with the same
+            // timestamp is kept
+            Iterator<HistoryRecord> iter = lastRecords.descendingIterator();
+            while (iter.hasNext())
+                result.add(iter.next());
+            leftCount -= lastRecords.size();
 
             currentFile--;
         }
@@ -491,87 +373,120 @@ public class HistoryReaderImpl
         return new OrderedQueryResultSet<HistoryRecord>(result);
     }
 
+    /**
+     * Searches for the records in a period containing keywords. The records
+     * are read file by file, oldest first, as the returned
+     * <tt>QueryResultSet</tt> is iterated, so that they come in chronological
+     * order, and the progress of the search is reported as the files are
+     * read.
+     *
+     * @param startDate start of the interval in which we search
+     * @param endDate end of the interval in which we search
+     * @param keywords array of keywords we search for
+     * @param field the field where to look for the keyword
+     * @param caseSensitive is keywords search case sensitive
+     * @return the found records
+     */
     private QueryResultSet<HistoryRecord> find(
-        Date startDate, Date endDate,
-        String[] keywords, String field, boolean caseSensitive)
+        final Date startDate, final Date endDate,
+        final String[] keywords, final String field,
+        final boolean caseSensitive)
     {
-        TreeSet<HistoryRecord> result
-            = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
-
-        Vector<String> filelist
+        final Vector<String> filelist
             = filterFilesByDate(this.historyImpl.getFileList(),
-                                startDate, endDate);
+                                startDate, endDate, false);
 
-        double currentProgress
-            = HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE;
-        double fileProgressStep
-            = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
+        final double fileProgressStep;
 
         if(filelist.size() != 0)
             fileProgressStep
                 = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
                     / filelist.size();
+        else
+            fileProgressStep
+                = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
 
         // start progress - minimum value
         fireProgressStateChanged(startDate, endDate,
             keywords, HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
 
-        Iterator<String> fileIterator = filelist.iterator();
-        while (fileIterator.hasNext())
+        if(filelist.size() == 0)
         {
-            String filename = fileIterator.next();
-
-            Document doc = this.historyImpl.getDocumentForFile(filename);
-
-            if(doc == null)
-                continue;
-
-            NodeList nodes = doc.getElementsByTagName("record");
+            fireProgressStateChanged(startDate, endDate, keywords,
+                                     HistorySearchProgressListener.
+                                     PROGRESS_MAXIMUM_VALUE);
+        }
 
-            double nodesProgressStep = fileProgressStep;
+        // only the records which may contain the keywords are read when the
+        // keyword index can answer the query
+        final Map<String, SortedSet<Integer>> candidates
+            = this.historyImpl.getKeywordIndex()
+                .findCandidates(field, keywords);
 
-            if(nodes.getLength() != 0)
-                nodesProgressStep = fileProgressStep / nodes.getLength();
+        return new LazyQueryResultSet<HistoryRecord>(filelist.size())
+        {
+            /**
+             * The number of files whose reading has been reported.
+             */
+            private int reportedFiles = 0;
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            @Override
+            protected List<HistoryRecord> loadBatch(int index)
             {
-                node = nodes.item(i);
-
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                        .getNodeValue();
-                long timestamp = Long.parseLong(ts);
+                String filename = filelist.get(index);
+                final TreeSet<HistoryRecord> result
+                    = new TreeSet<HistoryRecord>(
+                            Collections.reverseOrder(
+                                    new HistoryRecordComparator()));
+                final SortedSet<Integer> recordIndexes
+                    = (candidates == null) ? null : candidates.get(filename);
+
+                if (candidates == null || recordIndexes != null)
+                {
+                    HistoryFileReader.read(historyImpl, filename,
+                        new HistoryFileReader.RecordHandler()
+                        {
+                            public boolean handleRecord(int index,
+                                                        long timestamp,
+                                                        String[] names,
+                                                        String[] values)
+                            {
+                                if ((recordIndexes == null
+                                            || recordIndexes.contains(index))
+                                        && isInPeriod(
+                                            timestamp, startDate, endDate))
+                                {
+                                    HistoryRecord record =
+                                        filterByKeyword(names, values,
+                                            timestamp, keywords, field,
+                                            caseSensitive);
+
+                                    if(record != null)
+                                        result.add(record);
+                                }
+                                return true;
+                            }
+                        });
+                }
 
-                if(isInPeriod(timestamp, startDate, endDate))
+                if (index == reportedFiles)
                 {
-                    NodeList propertyNodes = node.getChildNodes();
+                    reportedFiles++;
 
-                    HistoryRecord record =
-                        filterByKeyword(propertyNodes, timestamp,
-                                        keywords, field, caseSensitive);
+                    // the last file reaches the maximum value
+                    int progress
+                        = (reportedFiles == filelist.size())
+                            ? HistorySearchProgressListener
+                                .PROGRESS_MAXIMUM_VALUE
+                            : (int) (reportedFiles * fileProgressStep);
 
-                    if(record != null)
-                    {
-                        result.add(record);
-                    }
+                    fireProgressStateChanged(
+                        startDate, endDate, keywords, progress);
                 }
 
-                currentProgress += nodesProgressStep;
-                fireProgressStateChanged(
-                    startDate, endDate, keywords, (int)currentProgress);
+                return new ArrayList<HistoryRecord>(result);
             }
-        }
-
-//      if maximum value is not reached fire an event
-        if((int)currentProgress
-                < HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE)
-        {
-            fireProgressStateChanged(startDate, endDate, keywords,
-                                     HistorySearchProgressListener.
-                                     PROGRESS_MAXIMUM_VALUE);
-        }
-
-        return new OrderedQueryResultSet<HistoryRecord>(result);
+        };
     }
 
     /**
@@ -620,35 +535,92 @@ public class HistoryReaderImpl
                                             String field,
                                             boolean caseSensitive)
     {
-        ArrayList<String> nameVals = new ArrayList<String>();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> values = new ArrayList<String>();
         int len = propertyNodes.getLength();
         for (int j = 0; j < len; j++)
         {
             Node propertyNode = propertyNodes.item(j);
             if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
             {
-                String nodeName = propertyNode.getNodeName();
-
                 Node nestedNode = propertyNode.getFirstChild();
 
-                if(nestedNode == null)
-                    continue;
-
+                names.add(propertyNode.getNodeName());
                 // Get nested TEXT node's value
-                String nodeValue = nestedNode.getNodeValue();
+                values.add(
+                    (nestedNode == null) ? null : nestedNode.getNodeValue());
+            }
+        }
 
-                if(field != null && field.equals(nodeName)
-                   && !matchKeyword(nodeValue, keywords, caseSensitive))
-                {
-                    return null; // doesn't match the given keyword(s)
-                                // so return nothing
-                }
+        return filterByKeyword(
+                names.toArray(new String[names.size()]),
+                values.toArray(new String[values.size()]),
+                timestamp, keywords, field, caseSensitive);
+    }
 
-                nameVals.add(nodeName);
-                // Get nested TEXT node's value
-                nameVals.add(nodeValue);
+    /**
+     * If there is keyword restriction and doesn't match the conditions
+     * return null. Otherwise return the HistoryRecord with the given
+     * properties.
+     *
+     * @param names the names of the properties
+     * @param values the values of the properties, <tt>null</tt> for the
+     * properties without a value which are left out
+     * @param timestamp Date
+     * @param keywords String[]
+     * @param field String
+     * @param caseSensitive boolean
+     * @return HistoryRecord
+     */
+    static HistoryRecord filterByKeyword(   String[] names,
+                                            String[] values,
+                                            long timestamp,
+                                            String[] keywords,
+                                            String field,
+                                            boolean caseSensitive)
+    {
+        for (int j = 0; j < names.length; j++)
+        {
+            if(values[j] != null
+               && field != null && field.equals(names[j])
+               && !matchKeyword(values[j], keywords, caseSensitive))
+            {
+                return null; // doesn't match the given keyword(s)
+                            // so return nothing
+            }
+        }
+
+        return createRecord(timestamp, names, values, false);
+    }
 
+    /**
+     * Creates a <tt>HistoryRecord</tt> from the properties read from a file.
+     *
+     * @param timestamp the timestamp of the record
+     * @param names the names of the properties
+     * @param values the values of the properties, <tt>null</tt> for the
+     * properties without a value
+     * @param strict whether a property without a value makes the record
+     * broken rather than being left out
+     * @return the record or <tt>null</tt> if it is broken
+     */
+    static HistoryRecord createRecord(long timestamp,
+                                      String[] names,
+                                      String[] values,
+                                      boolean strict)
+    {
+        ArrayList<String> nameVals = new ArrayList<String>();
+        for (int j = 0; j < names.length; j++)
+        {
+            if(values[j] == null)
+            {
+                if(strict)
+                    return null;
+                continue;
             }
+
+            nameVals.add(names[j]);
+            nameVals.add(values[j]);
         }
 
         String[] propertyNames = new String[nameVals.size() / 2];
@@ -924,14 +896,22 @@ public class HistoryReaderImpl
         if(lastFile == null)
             return result;
 
-        Document doc = this.historyImpl.getDocumentForFile(lastFile);
+        final int[] lastFileRecords = { 0 };
 
-        if(doc == null)
-            return result;
-
-        NodeList nodes = doc.getElementsByTagName("record");
+        HistoryFileReader.read(historyImpl, lastFile,
+            new HistoryFileReader.RecordHandler()
+            {
+                public boolean handleRecord(int index,
+                                            long timestamp,
+                                            String[] names,
+                                            String[] values)
+                {
+                    lastFileRecords[0]++;
+                    return true;
+                }
+            });
 
-        result += nodes.getLength();
+        result += lastFileRecords[0];
 
         return result;
     }
@@ -940,7 +920,7 @@ public class HistoryReaderImpl
      * Used to compare HistoryRecords
      * ant to be ordered in TreeSet
      */
-    private static class HistoryRecordComparator
+    static class HistoryRecordComparator
         implements Comparator<HistoryRecord>
     {
         public int compare(HistoryRecord h1, HistoryRecord h2)
@@ -55,6 +55,40 @@ public class HistoryServiceImpl
 
     private final boolean cacheEnabled;
 
+    /**
+     * The cache of the parsed documents of all the XML histories.
+     */
+    private final HistoryDocumentCache documentCache;
+
+    /**
+     * Whether histories are stored in a <tt>HistoryLog</tt> rather than in
+     * XML files.
+     */
+    private final boolean binaryStorage;
+
+    /**
+     * Whether the XML histories write their records behind a journal.
+     */
+    private final boolean writeBehind;
+
+    /**
+     * The maximum time in milliseconds a record written behind waits for its
+     * file to be written.
+     */
+    private final long writeBehindMaxDelay;
+
+    /**
+     * The number of records written behind which triggers the writing of
+     * their files.
+     */
+    private final int writeBehindMaxRecords;
+
+    /**
+     * The timer running the writes of the records written behind, created on
+     * first use.
+     */
+    private Timer writeBehindTimer = null;
+
     /**
      *  Characters and their replacement in created folder names
      */
@@ -83,9 +117,30 @@ public class HistoryServiceImpl
     {
         this.builder =
             DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        ConfigurationService configService
+            = getConfigurationService(bundleContext);
+
         this.cacheEnabled =
-            getConfigurationService(bundleContext).getBoolean(
-                CACHE_ENABLED_PROPERTY, false);
+            configService.getBoolean(CACHE_ENABLED_PROPERTY, false);
+        this.documentCache =
+            new HistoryDocumentCache(
+                cacheEnabled,
+                configService.getInt(
+                    CACHE_MAX_ENTRIES_PROPERTY,
+                    HistoryDocumentCache.DEFAULT_MAX_ENTRIES),
+                configService.getLong(
+                    CACHE_MAX_SIZE_PROPERTY,
+                    HistoryDocumentCache.DEFAULT_MAX_SIZE));
+        this.binaryStorage =
+            STORAGE_FORMAT_BINARY.equalsIgnoreCase(
+                configService.getString(
+                    STORAGE_FORMAT_PROPERTY, STORAGE_FORMAT_XML));
+        this.writeBehind =
+            configService.getBoolean(WRITE_BEHIND_ENABLED_PROPERTY, false);
+        this.writeBehindMaxDelay =
+            configService.getLong(WRITE_BEHIND_MAX_DELAY_PROPERTY, 1000);
+        this.writeBehindMaxRecords =
+            configService.getInt(WRITE_BEHIND_MAX_RECORDS_PROPERTY, 50);
         this.fileAccessService = getFileAccessService(bundleContext);
     }
 
@@ -173,8 +228,7 @@ public class HistoryServiceImpl
                         "There is already a history with the specified ID.");
             } else {
                 File dir = this.createHistoryDirectories(id);
-                HistoryImpl history = new HistoryImpl(id, dir, recordStructure,
-                        this);
+                History history = createHistoryImpl(id, dir, recordStructure);
 
                 File dbDatFile = new File(dir, HistoryServiceImpl.DATA_FILE);
                 DBStructSerializer dbss = new DBStructSerializer(this);
@@ -188,6 +242,108 @@ public class HistoryServiceImpl
         return retVal;
     }
 
+    /**
+     * Creates the <tt>History</tt> implementation of the configured storage
+     * format for a history stored in the given directory.
+     *
+     * @param id the identifier of the history
+     * @param directory the directory of the history
+     * @param recordStructure the structure of the records of the history
+     * @return the new <tt>History</tt>
+     */
+    History createHistoryImpl(HistoryID id, File directory,
+            HistoryRecordStructure recordStructure)
+    {
+        if (binaryStorage)
+            return new BinaryHistoryImpl(id, directory, recordStructure, this);
+        else
+            return new HistoryImpl(id, directory, recordStructure, this);
+    }
+
+    /**
+     * Writes the records written behind to their files and closes the files
+     * held open by the loaded histories.
+     */
+    void stop()
+    {
+        synchronized (this.histories)
+        {
+            for (History history : histories.values())
+            {
+                if (history instanceof BinaryHistoryImpl)
+                    ((BinaryHistoryImpl) history).close();
+                else if (history instanceof HistoryImpl)
+                    ((HistoryImpl) history).close();
+            }
+        }
+
+        synchronized (this)
+        {
+            if (writeBehindTimer != null)
+            {
+                writeBehindTimer.cancel();
+                writeBehindTimer = null;
+            }
+        }
+    }
+
+    /**
+     * Closes the files held open by the given history, if loaded, so that its
+     * directory can be moved or deleted.
+     *
+     * @param id the identifier of the history
+     */
+    private void closeHistory(HistoryID id)
+    {
+        History history = histories.get(id);
+
+        if (history instanceof BinaryHistoryImpl)
+            ((BinaryHistoryImpl) history).close();
+        else if (history instanceof HistoryImpl)
+            ((HistoryImpl) history).close();
+    }
+
+    /**
+     * Returns whether the XML histories write their records behind a
+     * journal.
+     * @return whether the XML histories write their records behind a journal
+     */
+    boolean isWriteBehindEnabled()
+    {
+        return writeBehind;
+    }
+
+    /**
+     * Returns the maximum time a record written behind waits for its file to
+     * be written.
+     * @return the maximum delay in milliseconds
+     */
+    long getWriteBehindMaxDelay()
+    {
+        return writeBehindMaxDelay;
+    }
+
+    /**
+     * Returns the number of records written behind which triggers the
+     * writing of their files.
+     * @return the maximum number of records waiting for their files
+     */
+    int getWriteBehindMaxRecords()
+    {
+        return writeBehindMaxRecords;
+    }
+
+    /**
+     * Returns the timer running the writes of the records written behind.
+     * @return the timer running the writes of the records written behind
+     */
+    synchronized Timer getWriteBehindTimer()
+    {
+        if (writeBehindTimer == null)
+            writeBehindTimer = new Timer("HistoryWriteBehind", true);
+        return writeBehindTimer;
+    }
+
     protected FileAccessService getFileAccessService()
     {
         return this.fileAccessService;
@@ -294,6 +450,15 @@ public class HistoryServiceImpl
         return cacheEnabled;
     }
 
+    /**
+     * Returns the cache of the parsed documents of the XML histories.
+     * @return the cache of the parsed documents of the XML histories
+     */
+    HistoryDocumentCache getDocumentCache()
+    {
+        return documentCache;
+    }
+
     /**
      * Permamently removes local stored History
      *
@@ -304,10 +469,13 @@ public class HistoryServiceImpl
         throws IOException
     {
         // get the history directory corresponding the given id
+        closeHistory(id);
+
         File dir = this.createHistoryDirectories(id);
         if (logger.isTraceEnabled())
             logger.trace("Removing history directory " + dir);
         deleteDirAndContent(dir);
+        documentCache.removeAll(dir);
     }
 
     /**
@@ -389,6 +557,8 @@ public class HistoryServiceImpl
         if(!isHistoryCreated(oldId))// || !isHistoryExisting(newId))
             return;
 
+        closeHistory(oldId);
+
         File oldDir = this.createHistoryDirectories(oldId);
         File newDir = getDirForHistory(newId);
 
@@ -403,6 +573,7 @@ public class HistoryServiceImpl
         }
 
         histories.remove(oldId);
+        documentCache.removeAll(oldDir);
     }
 
     /**
@@ -12,6 +12,7 @@ import java.util.*;
 
 import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
 
 import org.jitsi.util.xml.XMLUtils;
 import org.w3c.dom.*;
@@ -22,6 +23,13 @@ import org.w3c.dom.*;
 public class HistoryWriterImpl
     implements HistoryWriter
 {
+    /**
+     * The <tt>Logger</tt> used by the <tt>HistoryWriterImpl</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryWriterImpl.class);
+
     /**
      * Maximum records per file.
      */
@@ -43,6 +51,36 @@ public class HistoryWriterImpl
 
     private int currentDocElements = -1;
 
+    /**
+     * The journal the records are appended to in write-behind mode or
+     * <tt>null</tt> if every record is written to its file right away.
+     */
+    private final HistoryJournal journal;
+
+    /**
+     * The names of the files with records written behind, i.e. only in the
+     * journal. Guarded by <tt>docWriteLock</tt>.
+     */
+    private final Set<String> dirtyFiles = new LinkedHashSet<String>();
+
+    /**
+     * The number of records written behind. Guarded by
+     * <tt>docWriteLock</tt>.
+     */
+    private int pendingRecords = 0;
+
+    /**
+     * The task scheduled to write the records written behind to their files.
+     * Guarded by <tt>docWriteLock</tt>.
+     */
+    private TimerTask commitTask = null;
+
+    /**
+     * Whether {@link #commitTask} runs without waiting for the maximum delay.
+     * Guarded by <tt>docWriteLock</tt>.
+     */
+    private boolean commitImmediately = false;
+
     protected HistoryWriterImpl(HistoryImpl historyImpl)
     {
         this.historyImpl = historyImpl;
@@ -50,6 +88,11 @@ public class HistoryWriterImpl
         HistoryRecordStructure struct = this.historyImpl
                 .getHistoryRecordsStructure();
         this.structPropertyNames = struct.getPropertyNames();
+
+        this.journal
+            = historyImpl.getHistoryServiceImpl().isWriteBehindEnabled()
+                ? new HistoryJournal(historyImpl.getDirectory())
+                : null;
     }
 
     public void addRecord(HistoryRecord record)
@@ -100,62 +143,95 @@ public class HistoryWriterImpl
             }
         }
 
-        synchronized (this.currentDoc)
+        Element elem;
+        int recordIndex;
+        String file;
+
+        // The keyword index is given the records in the order of their
+        // indexes and before they are written, hence under docWriteLock,
+        // which is taken before the lock on the document as in flush().
+        synchronized (this.docWriteLock)
         {
-            Node root = this.currentDoc.getFirstChild();
-            synchronized (root)
+            synchronized (this.currentDoc)
             {
-                Element elem = this.currentDoc.createElement("record");
-                elem.setAttribute("timestamp", Long.toString(date));
-
-                for (int i = 0; i < propertyNames.length; i++)
+                Node root = this.currentDoc.getFirstChild();
+                synchronized (root)
                 {
-                    String propertyName = propertyNames[i];
+                    elem = this.currentDoc.createElement("record");
+                    elem.setAttribute("timestamp", Long.toString(date));
 
-                    if(propertyName.endsWith(CDATA_SUFFIX))
+                    for (int i = 0; i < propertyNames.length; i++)
                     {
-                        if (propertyValues[i] != null)
+                        String propertyName = propertyNames[i];
+
+                        if(propertyName.endsWith(CDATA_SUFFIX))
                         {
-                            propertyName = propertyName.replaceFirst(CDATA_SUFFIX, "");
+                            if (propertyValues[i] != null)
+                            {
+                                propertyName = propertyName.replaceFirst(CDATA_SUFFIX, "");
 
-                            Element propertyElement = this.currentDoc
-                                .createElement(propertyName);
+                                Element propertyElement = this.currentDoc
+                                    .createElement(propertyName);
 
-                            Text value = this.currentDoc
-                                .createCDATASection(propertyValues[i].replaceAll("\0", " "));
-                            propertyElement.appendChild(value);
+                                Text value = this.currentDoc
+                                    .createCDATASection(propertyValues[i].replaceAll("\0", " "));
+                                propertyElement.appendChild(value);
 
-                            elem.appendChild(propertyElement);
+                                elem.appendChild(propertyElement);
+                            }
                         }
-                    }
-                    else
-                    {
-                        if (propertyValues[i] != null)
+                        else
                         {
-                            Element propertyElement = this.currentDoc
-                                .createElement(propertyName);
+                            if (propertyValues[i] != null)
+                            {
+                                Element propertyElement = this.currentDoc
+                                    .createElement(propertyName);
 
-                            Text value = this.currentDoc
-                                .createTextNode(propertyValues[i].replaceAll("\0", " "));
-                            propertyElement.appendChild(value);
+                                Text value = this.currentDoc
+                                    .createTextNode(propertyValues[i].replaceAll("\0", " "));
+                                propertyElement.appendChild(value);
 
-                            elem.appendChild(propertyElement);
+                                elem.appendChild(propertyElement);
+                            }
                         }
                     }
+
+                    root.appendChild(elem);
+                    this.currentDocElements++;
+                    recordIndex
+                        = this.currentDoc.getElementsByTagName("record")
+                            .getLength() - 1;
+                    file = this.currentFile;
                 }
+            }
+
+            this.historyImpl.getKeywordIndex().recordWritten(
+                    file, recordIndex, elem, structPropertyNames);
 
-                root.appendChild(elem);
-                this.currentDocElements++;
+            if (this.journal != null)
+            {
+                // mark the file dirty before journaling the record, so that a
+                // commit either writes the record or leaves it in the journal
+                this.dirtyFiles.add(file);
+                this.pendingRecords++;
+            }
+            else if(historyImpl.getHistoryServiceImpl().isCacheEnabled())
+                this.historyImpl.writeFile(this.currentFile);
+            else
+            {
+                this.historyImpl.writeFile(
+                        this.currentFile, this.currentDoc);
             }
         }
 
-        // write changes
-        synchronized (this.docWriteLock)
+        if (this.journal != null)
         {
-            if(historyImpl.getHistoryServiceImpl().isCacheEnabled())
-                this.historyImpl.writeFile(this.currentFile);
-            else
-                this.historyImpl.writeFile(this.currentFile, this.currentDoc);
+            this.journal.append(file, recordIndex, elem);
+
+            synchronized (this.docWriteLock)
+            {
+                scheduleCommit();
+            }
         }
     }
 
@@ -170,6 +246,13 @@ public class HistoryWriterImpl
     {
         boolean loaded = false;
 
+        // the previous document is complete and may now be evicted
+        if (this.currentFile != null)
+        {
+            flushQuietly();
+            this.historyImpl.unpinDocument(this.currentFile);
+        }
+
         if (loadLastFile)
         {
             Iterator<String> files = historyImpl.getFileList();
@@ -185,6 +268,9 @@ public class HistoryWriterImpl
                 this.currentDoc = this.historyImpl.getDocumentForFile(file);
                 this.currentFile = file;
                 loaded = true;
+
+                if (this.currentDoc != null)
+                    this.historyImpl.pinDocument(file, this.currentDoc);
             }
 
             // if something happened and file was not loaded
@@ -227,6 +313,9 @@ public class HistoryWriterImpl
             String property, String newValue)
         throws IOException
     {
+        // the record may still be written behind
+        flush();
+
         Iterator<String> fileIterator = this.historyImpl.getFileList();
         String filename = null;
         while (fileIterator.hasNext())
@@ -241,6 +330,7 @@ public class HistoryWriterImpl
             NodeList nodes = doc.getElementsByTagName("record");
 
             boolean changed = false;
+            int changedIndex = -1;
 
             Node node;
             for (int i = 0; i < nodes.getLength(); i++)
@@ -283,6 +373,7 @@ public class HistoryWriterImpl
                 }
 
                 changed = true;
+                changedIndex = i;
                 break;
             }
 
@@ -291,6 +382,10 @@ public class HistoryWriterImpl
                 // write changes
                 synchronized (this.docWriteLock)
                 {
+                    this.historyImpl.getKeywordIndex().recordWritten(
+                            filename, changedIndex,
+                            (Element) nodes.item(changedIndex),
+                            structPropertyNames);
                     this.historyImpl.writeFile(filename, doc);
                 }
 
@@ -306,4 +401,104 @@ public class HistoryWriterImpl
             }
         }
     }
+
+    /**
+     * Writes the records written behind to their files and empties the
+     * journal.
+     *
+     * @throws IOException if writing a file or the journal fails
+     */
+    void flush()
+        throws IOException
+    {
+        if (this.journal == null)
+            return;
+
+        synchronized (this.docWriteLock)
+        {
+            if (this.commitTask != null)
+            {
+                this.commitTask.cancel();
+                this.commitTask = null;
+            }
+
+            if (this.dirtyFiles.isEmpty())
+                return;
+
+            // the files are on disk once written, only then may the records
+            // leave the journal
+            for (String filename : this.dirtyFiles)
+                this.historyImpl.writeFile(filename);
+
+            this.journal.reset();
+            this.dirtyFiles.clear();
+            this.pendingRecords = 0;
+        }
+    }
+
+    /**
+     * Writes the records written behind to their files and closes the
+     * journal.
+     */
+    void close()
+    {
+        if (this.journal == null)
+            return;
+
+        flushQuietly();
+        this.journal.close();
+    }
+
+    /**
+     * Calls {@link #flush()} and logs its failure. The records stay in the
+     * journal and will be replayed if their files cannot be written.
+     */
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch (IOException e)
+        {
+            logger.error("Failed to write history records to their files", e);
+        }
+    }
+
+    /**
+     * Schedules the writing of the records written behind to their files,
+     * right away if enough of them are waiting. Must be called with
+     * <tt>docWriteLock</tt> held.
+     */
+    private void scheduleCommit()
+    {
+        if (this.dirtyFiles.isEmpty())
+            return;
+
+        HistoryServiceImpl historyService
+            = this.historyImpl.getHistoryServiceImpl();
+        boolean full
+            = this.pendingRecords >= historyService.getWriteBehindMaxRecords();
+
+        if (this.commitTask != null)
+        {
+            if (!full || this.commitImmediately)
+                return;
+            this.commitTask.cancel();
+        }
+
+        this.commitTask
+            = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    flushQuietly();
+                }
+            };
+        this.commitImmediately = full;
+        historyService.getWriteBehindTimer().schedule(
+                this.commitTask,
+                full ? 0 : historyService.getWriteBehindMaxDelay());
+    }
 }
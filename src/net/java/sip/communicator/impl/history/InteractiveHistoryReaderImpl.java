@@ -139,10 +139,21 @@ public class InteractiveHistoryReaderImpl
             = HistoryReaderImpl.filterFilesByDate(  history.getFileList(),
                                                     startDate, endDate, true);
         Iterator<String> fileIterator = filelist.iterator();
+        Map<String, SortedSet<Integer>> candidates
+            = history.getKeywordIndex().findCandidates(field, keywords);
 
         while (fileIterator.hasNext() && resultCount > 0 && !query.isCanceled())
         {
             String filename = fileIterator.next();
+            SortedSet<Integer> recordIndexes = null;
+
+            if (candidates != null)
+            {
+                recordIndexes = candidates.get(filename);
+                if (recordIndexes == null)
+                    continue;
+            }
+
             Document doc = history.getDocumentForFile(filename);
 
             if(doc == null)
@@ -154,6 +165,9 @@ public class InteractiveHistoryReaderImpl
                   i >= 0 && !query.isCanceled();
                   i--)
             {
+                if (recordIndexes != null && !recordIndexes.contains(i))
+                    continue;
+
                 Node node = nodes.item(i);
                 String ts = node.getAttributes().getNamedItem("timestamp")
                         .getNodeValue();
@@ -0,0 +1,210 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+/**
+ * A <tt>QueryResultSet</tt> which loads its records in batches, e.g. one per
+ * history file, as the iteration reaches them.
+ * <p>
+ * Only the batch the iteration is in is kept in memory, together with the
+ * size of every batch loaded so far. Going back to a batch which has been
+ * dropped loads it again.
+ *
+ * @param <T> element type of query
+ */
+public abstract class LazyQueryResultSet<T>
+    implements QueryResultSet<T>
+{
+    /**
+     * The number of batches.
+     */
+    private final int batchCount;
+
+    /**
+     * The position of the first record of each batch loaded so far, followed
+     * by the position after its last record.
+     */
+    private final int[] offsets;
+
+    /**
+     * The number of batches loaded so far.
+     */
+    private int loadedBatchCount = 0;
+
+    /**
+     * The index of the batch in {@link #batch}.
+     */
+    private int batchIndex = -1;
+
+    /**
+     * The batch kept in memory.
+     */
+    private List<T> batch = null;
+
+    private int currentPos = -1;
+
+    /**
+     * Creates a result set of the given number of batches.
+     *
+     * @param batchCount the number of batches
+     */
+    protected LazyQueryResultSet(int batchCount)
+    {
+        this.batchCount = batchCount;
+        this.offsets = new int[batchCount + 1];
+    }
+
+    /**
+     * Loads the records of a batch. Batches are loaded in order the first
+     * time and may be loaded again afterwards.
+     *
+     * @param index the index of the batch
+     * @return the records of the batch
+     */
+    protected abstract List<T> loadBatch(int index);
+
+    /**
+     * Returns <tt>true</tt> if the iteration has more elements.
+     *
+     * @return <tt>true</tt> if the iterator has more elements.
+     */
+    public boolean hasNext()
+    {
+        return isAvailable(this.currentPos + 1);
+    }
+
+    /**
+     * Returns true if the iteration has elements preceeding the current one.
+     *
+     * @return true if the iterator has preceeding elements.
+     */
+    public boolean hasPrev()
+    {
+        return this.currentPos - 1 >= 0;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     *
+     * @return the next element in the iteration.
+     */
+    public T next()
+    {
+        this.currentPos++;
+
+        return get(this.currentPos);
+    }
+
+    /**
+     * A strongly-typed variant of <tt>next()</tt>.
+     *
+     * @return the next history record.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T nextRecord() throws NoSuchElementException
+    {
+        return this.next();
+    }
+
+    /**
+     * Returns the previous element in the iteration.
+     *
+     * @return the previous element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T prev() throws NoSuchElementException
+    {
+        this.currentPos--;
+
+        if (this.currentPos < 0)
+        {
+            throw new NoSuchElementException();
+        }
+
+        return get(this.currentPos);
+    }
+
+    /**
+     * A strongly-typed variant of <tt>prev()</tt>.
+     *
+     * @return the previous history record.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T prevRecord() throws NoSuchElementException
+    {
+        return this.prev();
+    }
+
+    /**
+     * Removes from the underlying collection the last element returned by
+     * the iterator (optional operation).
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Cannot remove elements "
+                + "from underlaying collection.");
+    }
+
+    /**
+     * Loads the batches up to the one containing a position.
+     *
+     * @param pos the position
+     * @return <tt>true</tt> if there is a record at <tt>pos</tt>
+     */
+    private boolean isAvailable(int pos)
+    {
+        while (pos >= this.offsets[this.loadedBatchCount]
+                && this.loadedBatchCount < this.batchCount)
+        {
+            this.batch = loadBatch(this.loadedBatchCount);
+            this.batchIndex = this.loadedBatchCount;
+            this.offsets[this.loadedBatchCount + 1]
+                = this.offsets[this.loadedBatchCount] + this.batch.size();
+            this.loadedBatchCount++;
+        }
+
+        return pos >= 0 && pos < this.offsets[this.loadedBatchCount];
+    }
+
+    /**
+     * Returns the record at a position, loading its batch if needed.
+     *
+     * @param pos the position
+     * @return the record at <tt>pos</tt>
+     * @throws NoSuchElementException if there is no record at <tt>pos</tt>
+     */
+    private T get(int pos)
+        throws NoSuchElementException
+    {
+        if (!isAvailable(pos))
+            throw new NoSuchElementException();
+
+        if (pos < this.offsets[this.batchIndex]
+                || pos >= this.offsets[this.batchIndex + 1])
+        {
+            int index = 0;
+
+            while (pos >= this.offsets[index + 1])
+                index++;
+
+            this.batch = loadBatch(index);
+            this.batchIndex = index;
+        }
+
+        int i = pos - this.offsets[this.batchIndex];
+
+        // the batch may have changed since it was first loaded
+        if (i >= this.batch.size())
+            throw new NoSuchElementException();
+
+        return this.batch.get(i);
+    }
+}
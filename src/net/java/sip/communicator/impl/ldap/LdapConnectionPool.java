@@ -0,0 +1,276 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import java.util.*;
+
+import javax.naming.*;
+import javax.naming.directory.*;
+import javax.naming.ldap.*;
+
+import net.java.sip.communicator.service.ldap.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps the connections to one directory server open between searches so that
+ * type-ahead does not open a new connection, and with SSL a new TLS session,
+ * for each typed character.
+ * <p>
+ * A connection is used by one search at a time: it is taken from the pool by
+ * {@link #getContext()} and given back by {@link #release(LdapContext,
+ * boolean)}. A connection which has been idle for a while is checked with a
+ * read of the root DSE before it is used again, and one which has been idle
+ * for too long is closed.
+ */
+class LdapConnectionPool
+{
+    /**
+     * The logger used by the <tt>LdapConnectionPool</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(LdapConnectionPool.class);
+
+    /**
+     * The maximum number of idle connections kept open.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    /**
+     * The time in milliseconds a connection may be idle before it is checked
+     * again.
+     */
+    private static final long CHECK_INTERVAL = 30 * 1000;
+
+    /**
+     * The time in milliseconds after which an idle connection is closed.
+     */
+    private static final long MAX_IDLE_TIME = 5 * 60 * 1000;
+
+    /**
+     * The settings used to create the connections.
+     */
+    private final Hashtable<String, String> env;
+
+    /**
+     * The name of the directory, for logging.
+     */
+    private final String name;
+
+    /**
+     * The idle connections, the most recently used first.
+     */
+    private final LinkedList<IdleContext> idleContexts
+        = new LinkedList<IdleContext>();
+
+    /**
+     * Whether this pool has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a pool.
+     *
+     * @param env the settings used to create the connections
+     * @param name the name of the directory, for logging
+     */
+    LdapConnectionPool(Hashtable<String, String> env, String name)
+    {
+        this.env = env;
+        this.name = name;
+    }
+
+    /**
+     * Returns a connection to the directory, an idle one if there is a
+     * healthy one, a new one otherwise.
+     *
+     * @return a connection to the directory
+     * @throws NamingException if a new connection cannot be established
+     */
+    LdapContext getContext()
+        throws NamingException
+    {
+        long now = System.currentTimeMillis();
+
+        while (true)
+        {
+            IdleContext idle;
+
+            synchronized (idleContexts)
+            {
+                idle = idleContexts.poll();
+            }
+            if (idle == null)
+                break;
+
+            long idleTime = now - idle.since;
+
+            if (idleTime > MAX_IDLE_TIME)
+                close(idle.context);
+            else if ((idleTime <= CHECK_INTERVAL) || isHealthy(idle.context))
+                return idle.context;
+        }
+
+        return connect();
+    }
+
+    /**
+     * Gives back a connection taken from this pool.
+     *
+     * @param context the connection
+     * @param reusable <tt>false</tt> if the connection has failed and is to be
+     * closed
+     */
+    void release(LdapContext context, boolean reusable)
+    {
+        if (reusable)
+        {
+            try
+            {
+                // controls stick to the context, do not leak them to the next
+                // search
+                context.setRequestControls(null);
+            }
+            catch (NamingException e)
+            {
+                reusable = false;
+            }
+        }
+
+        if (reusable)
+        {
+            synchronized (idleContexts)
+            {
+                if (!closed && (idleContexts.size() < MAX_IDLE_CONNECTIONS))
+                {
+                    idleContexts.addFirst(
+                            new IdleContext(
+                                    context,
+                                    System.currentTimeMillis()));
+                    return;
+                }
+            }
+        }
+        close(context);
+    }
+
+    /**
+     * Closes the idle connections and those given back afterwards.
+     */
+    void close()
+    {
+        List<IdleContext> contexts;
+
+        synchronized (idleContexts)
+        {
+            closed = true;
+            contexts = new ArrayList<IdleContext>(idleContexts);
+            idleContexts.clear();
+        }
+        for (IdleContext idle : contexts)
+            close(idle.context);
+    }
+
+    /**
+     * Establishes a new connection to the directory.
+     *
+     * @return the new connection
+     * @throws NamingException if the connection cannot be established
+     */
+    private LdapContext connect()
+        throws NamingException
+    {
+        logger.trace("connecting to directory \"" + name + "\"");
+        long time0 = System.currentTimeMillis();
+        LdapContext context = new InitialLdapContext(env, null);
+        long time1 = System.currentTimeMillis();
+        logger.trace("connection to directory \"" + name + "\" took " +
+                (time1-time0)  + " ms");
+        return context;
+    }
+
+    /**
+     * Checks that an idle connection still works by reading the root DSE
+     * without any attribute.
+     *
+     * @param context the connection
+     * @return <tt>true</tt> if the connection works; otherwise, <tt>false</tt>
+     * in which case it has been closed
+     */
+    private boolean isHealthy(LdapContext context)
+    {
+        SearchControls controls = new SearchControls();
+
+        controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+        controls.setReturningAttributes(new String[] { "1.1" });
+        controls.setTimeLimit(
+                Integer.parseInt(LdapConstants.LDAP_CONNECT_TIMEOUT));
+        try
+        {
+            NamingEnumeration<SearchResult> results
+                = context.search("", "(objectClass=*)", controls);
+
+            try
+            {
+                while (results.hasMore())
+                    results.next();
+            }
+            finally
+            {
+                results.close();
+            }
+            return true;
+        }
+        catch (NamingException e)
+        {
+            logger.trace("idle connection to directory \"" + name +
+                    "\" failed: " + e);
+            close(context);
+            return false;
+        }
+    }
+
+    /**
+     * Closes a connection.
+     *
+     * @param context the connection
+     */
+    private void close(LdapContext context)
+    {
+        try
+        {
+            context.close();
+        }
+        catch (NamingException e)
+        {
+            logger.trace("disconnection from directory \"" + name +
+                    "\" failed!");
+        }
+    }
+
+    /**
+     * An idle connection along with the time it was given back.
+     */
+    private static class IdleContext
+    {
+        /**
+         * The connection.
+         */
+        final LdapContext context;
+
+        /**
+         * The time in milliseconds the connection was given back.
+         */
+        final long since;
+
+        IdleContext(LdapContext context, long since)
+        {
+            this.context = context;
+            this.since = since;
+        }
+    }
+}
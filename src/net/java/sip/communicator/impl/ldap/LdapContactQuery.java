@@ -50,6 +50,12 @@ public class LdapContactQuery
      */
     private final Object objLock = new Object();
 
+    /**
+     * Whether the LDAP search has ended, which may happen before
+     * {@link #run()} waits for it when results are known already.
+     */
+    private boolean searchEnded = false;
+
     /**
      * Initializes a new <tt>LdapContactQuery</tt> instance which is to perform
      * a specific <tt>query</tt> on behalf of a specific <tt>contactSource</tt>.
@@ -206,7 +212,8 @@ public class LdapContactQuery
         {
             try
             {
-                objLock.wait();
+                while(!searchEnded)
+                    objLock.wait();
             }
             catch(InterruptedException e)
             {
@@ -289,10 +296,12 @@ public class LdapContactQuery
     private void processLdapResponse(LdapEvent evt)
     {
         if(evt.getCause() == LdapEvent.LdapEventCause.SEARCH_ACHIEVED ||
-                evt.getCause() == LdapEvent.LdapEventCause.SEARCH_CANCELLED)
+                evt.getCause() == LdapEvent.LdapEventCause.SEARCH_CANCELLED ||
+                evt.getCause() == LdapEvent.LdapEventCause.SEARCH_ERROR)
         {
             synchronized(objLock)
             {
+                searchEnded = true;
                 objLock.notify();
             }
         }
@@ -342,6 +351,7 @@ public class LdapContactQuery
         {
             synchronized(objLock)
             {
+                searchEnded = true;
                 objLock.notify();
             }
 
@@ -434,6 +444,7 @@ public class LdapContactQuery
 
         synchronized(objLock)
         {
+            searchEnded = true;
             objLock.notify();
         }
         super.cancel();
@@ -6,10 +6,13 @@
  */
 package net.java.sip.communicator.impl.ldap;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.naming.*;
 import javax.naming.directory.*;
+import javax.naming.ldap.*;
 
 import net.java.sip.communicator.service.ldap.*;
 import net.java.sip.communicator.service.ldap.event.*;
@@ -51,6 +54,56 @@ public class LdapDirectoryImpl
     private HashMap<LdapQuery, LdapPendingSearch> pendingSearches =
         new HashMap<LdapQuery, LdapPendingSearch>();
 
+    /**
+     * The maximum number of results asked for at once with the paged results
+     * control (cf. RFC 2696).
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The maximum number of searches performed at once on all the directories.
+     */
+    private static final int SEARCH_THREADS = 4;
+
+    /**
+     * The threads performing the searches of all the directories.
+     */
+    private static final ScheduledThreadPoolExecutor searchExecutor
+        = new ScheduledThreadPoolExecutor(
+                SEARCH_THREADS,
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread searchThread = new Thread(r, "LdapSearch");
+
+                        // setting the classloader is necessary so that the
+                        // BundleContext can be accessed from classes
+                        // instantiated from JNDI (specifically from our
+                        // custom SocketFactory)
+                        searchThread.setContextClassLoader(
+                                LdapDirectoryImpl.class.getClassLoader());
+                        searchThread.setDaemon(true);
+                        return searchThread;
+                    }
+                });
+
+    static
+    {
+        searchExecutor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        searchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The connections to this directory kept open between searches.
+     */
+    private final LdapConnectionPool connectionPool;
+
+    /**
+     * The results of the last searches performed on this directory.
+     */
+    private final LdapSearchCache searchCache = new LdapSearchCache();
+
     /**
      * Name of avatar attribute.
      */
@@ -168,8 +221,6 @@ public class LdapDirectoryImpl
         this.env.put("com.sun.jndi.ldap.read.timeout", LDAP_READ_TIMEOUT);
         this.env.put(Context.PROVIDER_URL, settings.getEncryption().
                 protocolString() + settings.getHostname() + portText +"/");
-        //connection pooling
-        this.env.put("com.sun.jndi.ldap.connect.pool", "true");
 
         /* TODO STARTTLS */
         switch(this.settings.getEncryption())
@@ -208,6 +259,10 @@ public class LdapDirectoryImpl
         {
             searchableAttrs.add(s);
         }
+
+        // connection pooling, JNDI's own pool does not keep SSL connections
+        this.connectionPool =
+            new LdapConnectionPool(this.env, this.settings.getName());
     }
 
     /**
@@ -251,40 +306,13 @@ public class LdapDirectoryImpl
     }
 
     /**
-     * Connects to the remote directory
+     * Closes the connections kept open to this directory and forgets the
+     * results of the last searches. Called when this directory is removed.
      */
-    private InitialDirContext connect()
-        throws NamingException
+    void dispose()
     {
-        logger.trace("connecting to directory \"" + this + "\"");
-        long time0 = System.currentTimeMillis();
-        InitialDirContext dirContext =
-            new InitialDirContext(this.env);
-        long time1 = System.currentTimeMillis();
-        logger.trace("connection to directory \"" + this + "\" took " +
-                (time1-time0)  + " ms");
-        return dirContext;
-    }
-
-    /**
-     * closes the ldap connection
-     */
-    private void disconnect(InitialDirContext dirContext)
-    {
-        if(dirContext == null)
-            throw new NullPointerException("dirContext is null");
-
-        try
-        {
-            dirContext.close();
-        }
-        catch(NamingException e)
-        {
-            logger.trace("disconnection from directory \"" + this +
-                    "\" failed!");
-        }
-
-        logger.trace("disconnection achieved!");
+        this.connectionPool.close();
+        this.searchCache.clear();
     }
 
     /**
@@ -327,23 +355,64 @@ public class LdapDirectoryImpl
         for(int i = 0 ; i < intermediateQueryStrings.length ; i++)
             serversList.add(this);
 
-        // when the pendingSearches element will be empty,
-        // all intermediate query strings will have been searched
-        // and the search will be finished
-        this.pendingSearches.put(query, new LdapPendingSearch(serversList,
-                caller));
+        synchronized(this)
+        {
+            // type-ahead supersedes the searches for the beginning of the
+            // query, which have not returned yet and are not wanted anymore
+            String queryString = query.toString();
+
+            for(LdapQuery pendingQuery : this.pendingSearches.keySet())
+            {
+                String pendingQueryString = pendingQuery.toString();
+
+                if(pendingQuery.getState() == LdapQuery.State.PENDING
+                        && queryString.length() > pendingQueryString.length()
+                        && queryString.startsWith(pendingQueryString))
+                {
+                    logger.trace("query \"" + pendingQuery + "\" superseded" +
+                            " by \"" + queryString + "\" on directory \"" +
+                            this + "\"");
+                    pendingQuery.setState(LdapQuery.State.CANCELLED);
+                }
+            }
+
+            // when the pendingSearches element will be empty,
+            // all intermediate query strings will have been searched
+            // and the search will be finished
+            this.pendingSearches.put(query, new LdapPendingSearch(serversList,
+                    caller));
+        }
 
         // really performs the search
         for(String queryString : intermediateQueryStrings)
             this.performSearch(query, queryString, searchSettings, this);
     }
 
+    /**
+     * Schedules the search of one of the intermediate query strings of a query
+     * on the shared search threads. The results are served from
+     * {@link #searchCache} if this search has been performed recently,
+     * otherwise they are read page by page through a pooled connection.
+     *
+     * @param query the initial query
+     * @param realQueryString the intermediate query string to search
+     * @param searchSettings the settings of the search
+     * @param caller the listener to send the results to
+     */
     private void performSearch(final LdapQuery query,
             final String realQueryString,
             final LdapSearchSettings searchSettings,
             final LdapListener caller)
     {
-        Thread searchThread = new Thread()
+        final SearchControls searchControls =
+            buildSearchControls(searchSettings);
+        final String cacheKey = LdapSearchCache.getKey(realQueryString,
+                searchControls.getSearchScope(),
+                searchControls.getCountLimit());
+        final List<LdapSearchCache.Result> cachedResults =
+            searchCache.get(cacheKey);
+
+        Runnable searchTask = new Runnable()
         {
             int cancelState = 0;
 
@@ -353,63 +422,56 @@ public class LdapDirectoryImpl
                         " (initial query: \"" + query.toString() +
                         "\") on directory \"" + LdapDirectoryImpl.this + "\"");
 
-                SearchControls searchControls =
-                    buildSearchControls(searchSettings);
-
                 LdapEvent endEvent = null;
-                InitialDirContext dirContext = null;
+                LdapContext dirContext = null;
+                boolean reusable = true;
+                List<LdapSearchCache.Result> results =
+                    new ArrayList<LdapSearchCache.Result>();
 
                 try
                 {
-                    if(searchSettings.isDelaySet())
-                        Thread.sleep(searchSettings.getDelay());
-
-                    checkCancel();
-                    dirContext = connect();
                     checkCancel();
 
                     long time0 = System.currentTimeMillis();
 
-                    NamingEnumeration<?> results = dirContext.search(
-                            LdapDirectoryImpl.this.settings.getBaseDN(),
-                            buildSearchFilter(realQueryString),
-                            searchControls
-                            );
-
-                    checkCancel();
-
-                    while (results.hasMore())
+                    if(cachedResults != null)
+                    {
+                        for(LdapSearchCache.Result result : cachedResults)
+                        {
+                            checkCancel();
+                            fireResult(query, result, caller);
+                        }
+                    }
+                    else
                     {
+                        dirContext = connectionPool.getContext();
                         checkCancel();
-
-                        SearchResult searchResult =
-                            (SearchResult) results.next();
-                        Map<String, Set<String>> retrievedAttributes =
-                            retrieveAttributes(searchResult);
-                        LdapPersonFound person =
-                            buildPerson(
-                                query,
-                                searchResult.getName(),
-                                retrievedAttributes
-                                );
-                        LdapEvent resultEvent =
-                            new LdapEvent(LdapDirectoryImpl.this,
-                                    LdapEvent.LdapEventCause.NEW_SEARCH_RESULT,
-                                    (Object) person);
-                        fireLdapEvent(resultEvent, caller);
+                        try
+                        {
+                            search(dirContext, realQueryString,
+                                    searchControls, query, caller, results);
+                        }
+                        catch(SizeLimitExceededException e)
+                        {
+                            // the server stopped at the count limit of the
+                            // search, the results found are complete
+                        }
+                        searchCache.put(cacheKey, results);
                     }
 
                     long time1 = System.currentTimeMillis();
                     logger.trace("search for real query \"" + realQueryString +
                             "\" (initial query: \"" + query.toString() +
                             "\") on directory \"" + LdapDirectoryImpl.this +
-                            "\" took " + (time1-time0) + "ms");
+                            "\" took " + (time1-time0) + "ms" +
+                            ((cachedResults == null) ? "" : " (cached)"));
 
                     endEvent = new LdapEvent(LdapDirectoryImpl.this,
                             LdapEvent.LdapEventCause.SEARCH_ACHIEVED, query);
                 }
                 catch(OperationNotSupportedException e)
                 {
+                    reusable = false;
                     logger.trace(
                             "use bind DN without password during search" +
                             " for real query \"" +
@@ -424,6 +486,7 @@ public class LdapDirectoryImpl
                 }
                 catch(AuthenticationException e)
                 {
+                    reusable = false;
                     logger.trace(
                             "authentication failed during search" +
                             " for real query \"" +
@@ -438,6 +501,7 @@ public class LdapDirectoryImpl
                 }
                 catch(NamingException e)
                 {
+                    reusable = false;
                     logger.trace(
                             "an external exception was thrown during search" +
                             " for real query \"" +
@@ -463,17 +527,82 @@ public class LdapDirectoryImpl
                             );
 
                 }
-                catch(InterruptedException e)
-                {
-                    // whether sleep was interrupted
-                    // is not that important
-                }
                 finally
                 {
-                    fireLdapEvent(endEvent, caller);
                     if(dirContext != null)
-                        disconnect(dirContext);
+                        connectionPool.release(dirContext, reusable);
+                    fireLdapEvent(endEvent, caller);
+                }
+            }
+
+            /**
+             * Searches the directory page by page, sending the results to
+             * <tt>caller</tt> as they arrive.
+             *
+             * @param dirContext the connection to search through
+             * @param realQueryString the query string to search
+             * @param searchControls the controls of the search
+             * @param query the initial query
+             * @param caller the listener to send the results to
+             * @param results the list to add the results to
+             */
+            private void search(LdapContext dirContext,
+                    String realQueryString,
+                    SearchControls searchControls,
+                    LdapQuery query,
+                    LdapListener caller,
+                    List<LdapSearchCache.Result> results)
+                throws NamingException,
+                       LdapQueryCancelledException
+            {
+                long countLimit = searchControls.getCountLimit();
+                int pageSize = PAGE_SIZE;
+
+                if((countLimit > 0) && (countLimit < pageSize))
+                    pageSize = (int) countLimit;
+
+                byte[] cookie = null;
+
+                do
+                {
+                    dirContext.setRequestControls(
+                            createPagedResultsControls(pageSize, cookie));
+
+                    NamingEnumeration<SearchResult> answer = dirContext.search(
+                            LdapDirectoryImpl.this.settings.getBaseDN(),
+                            buildSearchFilter(realQueryString),
+                            searchControls
+                            );
+
+                    try
+                    {
+                        checkCancel();
+
+                        while (answer.hasMore())
+                        {
+                            checkCancel();
+
+                            SearchResult searchResult = answer.next();
+                            LdapSearchCache.Result result =
+                                new LdapSearchCache.Result(
+                                        searchResult.getName(),
+                                        retrieveAttributes(searchResult));
+
+                            results.add(result);
+                            fireResult(query, result, caller);
+                            if((countLimit > 0)
+                                    && (results.size() >= countLimit))
+                                return;
+                        }
+                    }
+                    finally
+                    {
+                        answer.close();
+                    }
+
+                    cookie = getPagedResultsCookie(dirContext);
                 }
+                while(cookie != null);
             }
 
             /**
@@ -495,12 +624,91 @@ public class LdapDirectoryImpl
             }
         };
 
-        // setting the classloader is necessary so that the BundleContext can be
-        // accessed from classes instantiated from JNDI (specifically from our
-        // custom SocketFactory)
-        searchThread.setContextClassLoader(getClass().getClassLoader());
-        searchThread.setDaemon(true);
-        searchThread.start();
+        // results known already are sent at once, a server search waits for
+        // the delay in case the query is superseded in the meantime
+        long delay = 0;
+
+        if((cachedResults == null) && searchSettings.isDelaySet())
+            delay = searchSettings.getDelay();
+        searchExecutor.schedule(searchTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds a person from an entry found by a search and sends it to a
+     * listener.
+     *
+     * @param query the initial query
+     * @param result the entry found
+     * @param caller the listener to send the person to
+     */
+    private void fireResult(LdapQuery query, LdapSearchCache.Result result,
+            LdapListener caller)
+    {
+        LdapPersonFound person =
+            buildPerson(query, result.dn, result.attributes);
+        LdapEvent resultEvent =
+            new LdapEvent(this, LdapEvent.LdapEventCause.NEW_SEARCH_RESULT,
+                    (Object) person);
+        fireLdapEvent(resultEvent, caller);
+    }
+
+    /**
+     * Creates the request controls asking for a page of results.
+     *
+     * @param pageSize the number of results of the page
+     * @param cookie the cookie returned with the previous page or
+     * <tt>null</tt> for the first page
+     * @return the request controls asking for a page of results
+     */
+    private static Control[] createPagedResultsControls(int pageSize,
+            byte[] cookie)
+    {
+        try
+        {
+            // servers which do not support paging ignore the control and send
+            // all the results at once
+            return new Control[] {
+                    (cookie == null)
+                        ? new PagedResultsControl(pageSize, Control.NONCRITICAL)
+                        : new PagedResultsControl(pageSize, cookie,
+                                Control.CRITICAL)
+                };
+        }
+        catch(IOException e)
+        {
+            // encoding the control in memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cookie the server sent with the last page of results.
+     *
+     * @param dirContext the connection the page was read through
+     * @return the cookie to ask for the next page with or <tt>null</tt> if
+     * the last page was the last one
+     */
+    private static byte[] getPagedResultsCookie(LdapContext dirContext)
+        throws NamingException
+    {
+        Control[] controls = dirContext.getResponseControls();
+
+        if(controls != null)
+        {
+            for(Control control : controls)
+            {
+                if(control instanceof PagedResultsResponseControl)
+                {
+                    byte[] cookie =
+                        ((PagedResultsResponseControl) control).getCookie();
+
+                    return ((cookie == null) || (cookie.length == 0))
+                        ? null
+                        : cookie;
+                }
+            }
+        }
+        return null;
     }
 
     private static String[]
@@ -880,7 +1088,8 @@ public class LdapDirectoryImpl
     public Collection<String> searchChildren(final String dn)
     {
         final Vector<String> nodes = new Vector<String>();
-        InitialDirContext dirContext = null;
+        LdapContext dirContext = null;
+        boolean reusable = true;
 
         if(dn.equals(""))
         {
@@ -894,7 +1103,7 @@ public class LdapDirectoryImpl
             logger.trace("starting search...");
             try
             {
-                dirContext = connect();
+                dirContext = connectionPool.getContext();
                 NamingEnumeration<?> result = dirContext.search(
                         dn, "(objectClass=*)", searchCtl);
                 while (result.hasMore())
@@ -911,12 +1120,13 @@ public class LdapDirectoryImpl
             }
             catch (NamingException e)
             {
+                reusable = false;
                 logger.trace("error when performing ldap search query" + e);
             }
             finally
             {
                 if(dirContext != null)
-                    disconnect(dirContext);
+                    connectionPool.release(dirContext, reusable);
             }
         }
         else
@@ -928,7 +1138,7 @@ public class LdapDirectoryImpl
             logger.trace("starting search...");
             try
             {
-                dirContext = connect();
+                dirContext = connectionPool.getContext();
                 NamingEnumeration<?> result = dirContext.search(
                         dn, "(objectClass=*)", searchCtl);
                 while (result.hasMore())
@@ -940,13 +1150,14 @@ public class LdapDirectoryImpl
             }
             catch (NamingException e)
             {
+                reusable = false;
                 logger.trace("error when performing ldap search query" + e);
                 e.printStackTrace();
             }
             finally
             {
                 if(dirContext != null)
-                    disconnect(dirContext);
+                    connectionPool.release(dirContext, reusable);
             }
         }
 
@@ -963,7 +1174,8 @@ public class LdapDirectoryImpl
     byte[] fetchPhotoForPerson(String dn)
     {
         byte[] photo = null;
-        InitialDirContext dirContext = null;
+        LdapContext dirContext = null;
+        boolean reusable = true;
 
         /* use our custom search control */
 
@@ -975,7 +1187,7 @@ public class LdapDirectoryImpl
         logger.trace("starting photo retrieval...");
         try
         {
-            dirContext = connect();
+            dirContext = connectionPool.getContext();
             String newBaseDN;
             if(settings.getBaseDN().equals(""))
                 newBaseDN = dn;
@@ -1000,13 +1212,14 @@ public class LdapDirectoryImpl
         }
         catch (NamingException e)
         {
+            reusable = false;
             logger.trace("error when performing photo retrieval" + e);
             e.printStackTrace();
         }
         finally
         {
             if(dirContext != null)
-                disconnect(dirContext);
+                connectionPool.release(dirContext, reusable);
         }
 
         return photo;
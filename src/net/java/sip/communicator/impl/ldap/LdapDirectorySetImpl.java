@@ -92,6 +92,9 @@ public class LdapDirectorySetImpl
     {
         LdapDirectory removed = this.serverMap.remove(name);
 
+        if(removed instanceof LdapDirectoryImpl)
+            ((LdapDirectoryImpl) removed).dispose();
+
         if(configService != null)
             removed.getSettings().persistentRemove();
 
@@ -0,0 +1,175 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.ldap;
+
+import java.util.*;
+
+/**
+ * Keeps the results of the last searches performed on one directory server
+ * for a little while, so that typing a query again, or erasing characters of
+ * it, does not query the server again.
+ * <p>
+ * Results are kept by search filter, scope and count limit, the filter being
+ * normalized so that queries differing in case or spacing only share their
+ * results. They are kept as the distinguished names and attributes read from
+ * the server rather than as <tt>LdapPersonFound</tt>s, which are bound to the
+ * query they were found for. The number of kept searches is bounded, the least
+ * recently used ones being forgotten first, and so is the time they are kept.
+ */
+class LdapSearchCache
+{
+    /**
+     * The maximum number of searches whose results are kept.
+     */
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * The time in milliseconds the results of a search are kept.
+     */
+    private static final long TIME_TO_LIVE = 5 * 60 * 1000;
+
+    /**
+     * The results of the most recently used searches by key.
+     */
+    private final Map<String, Results> entries
+        = new LinkedHashMap<String, Results>(MAX_ENTRIES, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Results> eldest)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    /**
+     * Returns the results of a search.
+     *
+     * @param key the key of the search as returned by {@link #getKey(String,
+     * int, long)}
+     * @return the results of the search or <tt>null</tt> if they are not known
+     * or have expired
+     */
+    synchronized List<Result> get(String key)
+    {
+        Results results = entries.get(key);
+
+        if (results == null)
+            return null;
+        if (System.currentTimeMillis() - results.time > TIME_TO_LIVE)
+        {
+            entries.remove(key);
+            return null;
+        }
+        return results.results;
+    }
+
+    /**
+     * Adds or replaces the results of a search.
+     *
+     * @param key the key of the search as returned by {@link #getKey(String,
+     * int, long)}
+     * @param results the results of the search
+     */
+    synchronized void put(String key, List<Result> results)
+    {
+        entries.put(
+                key,
+                new Results(
+                        Collections.unmodifiableList(results),
+                        System.currentTimeMillis()));
+    }
+
+    /**
+     * Forgets all the results.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Returns the key of a search.
+     *
+     * @param queryString the query string the search filter is built from
+     * @param scope the scope of the search
+     * @param countLimit the maximum number of results of the search, 0 for no
+     * limit
+     * @return the key of the search
+     */
+    static String getKey(String queryString, int scope, long countLimit)
+    {
+        StringBuilder key = new StringBuilder(queryString.length() + 16);
+        boolean space = false;
+
+        for (int i = 0, length = queryString.length(); i < length; i++)
+        {
+            char c = queryString.charAt(i);
+
+            if (Character.isWhitespace(c))
+                space = (key.length() != 0);
+            else
+            {
+                if (space)
+                {
+                    key.append(' ');
+                    space = false;
+                }
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return key.append('\u0000').append(scope)
+                .append('\u0000').append(countLimit)
+                    .toString();
+    }
+
+    /**
+     * An entry found by a search.
+     */
+    static class Result
+    {
+        /**
+         * The distinguished name of the entry relative to the base DN.
+         */
+        final String dn;
+
+        /**
+         * The attributes of the entry.
+         */
+        final Map<String, Set<String>> attributes;
+
+        Result(String dn, Map<String, Set<String>> attributes)
+        {
+            this.dn = dn;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * The results of a search along with the time they were found.
+     */
+    private static class Results
+    {
+        /**
+         * The entries found.
+         */
+        final List<Result> results;
+
+        /**
+         * The time in milliseconds the entries were found.
+         */
+        final long time;
+
+        Results(List<Result> results, long time)
+        {
+            this.results = results;
+            this.time = time;
+        }
+    }
+}
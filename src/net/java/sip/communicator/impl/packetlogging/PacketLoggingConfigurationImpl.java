@@ -18,6 +18,55 @@ import org.jitsi.service.packetlogging.*;
 public class PacketLoggingConfigurationImpl
     extends PacketLoggingConfiguration
 {
+    /**
+     * The property of the maximum number of packets waiting to be saved.
+     */
+    public static final String PACKET_LOGGING_QUEUE_SIZE_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging.PACKET_LOGGING_QUEUE_SIZE";
+
+    /**
+     * The property telling whether the oldest packet waiting to be saved is
+     * dropped, rather than the new one, when too many packets are waiting.
+     */
+    public static final String PACKET_LOGGING_DROP_OLDEST_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging.PACKET_LOGGING_DROP_OLDEST";
+
+    /**
+     * The property of the time in milliseconds after which a new log file is
+     * started even if the current one is not full.
+     */
+    public static final String
+        PACKET_LOGGING_FILE_ROTATION_INTERVAL_PROPERTY_NAME
+            = "net.java.sip.communicator.packetlogging."
+                + "PACKET_LOGGING_FILE_ROTATION_INTERVAL";
+
+    /**
+     * The default maximum number of packets waiting to be saved.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    /**
+     * The maximum number of packets waiting to be saved.
+     */
+    private final int queueSize;
+
+    /**
+     * Whether the oldest packet waiting to be saved is dropped when the queue
+     * is full.
+     */
+    private final boolean dropOldest;
+
+    /**
+     * The time in milliseconds after which a new log file is started, or
+     * <tt>0</tt> to start one only when the current one is full.
+     */
+    private final long rotationInterval;
+
+    /**
+     * The configuration service the values are loaded from and saved to.
+     */
+    private final ConfigurationService configService;
+
     /**
      * Creates new PacketLoggingConfiguration and load values from
      * configuration service and if missing uses already defined
@@ -25,10 +74,22 @@ public class PacketLoggingConfigurationImpl
      */
     PacketLoggingConfigurationImpl()
     {
-        // load values from config service
-        ConfigurationService configService =
-                PacketLoggingActivator.getConfigurationService();
+        this(PacketLoggingActivator.getConfigurationService());
+    }
+
+    /**
+     * Creates new PacketLoggingConfiguration and load values from
+     * the given configuration service and if missing uses already defined
+     * default values.
+     *
+     * @param configService the configuration service to load the values from
+     * and to save them to.
+     */
+    public PacketLoggingConfigurationImpl(ConfigurationService configService)
+    {
+        this.configService = configService;
 
+        // load values from config service
         super.setGlobalLoggingEnabled(
             configService.getBoolean(
                 PACKET_LOGGING_ENABLED_PROPERTY_NAME,
@@ -57,6 +118,49 @@ public class PacketLoggingConfigurationImpl
             configService.getInt(
                 PACKET_LOGGING_FILE_COUNT_PROPERTY_NAME,
                 getLogfileCount()));
+
+        queueSize
+            = configService.getInt(
+                PACKET_LOGGING_QUEUE_SIZE_PROPERTY_NAME,
+                DEFAULT_QUEUE_SIZE);
+        dropOldest
+            = configService.getBoolean(
+                PACKET_LOGGING_DROP_OLDEST_PROPERTY_NAME,
+                false);
+        rotationInterval
+            = configService.getLong(
+                PACKET_LOGGING_FILE_ROTATION_INTERVAL_PROPERTY_NAME,
+                0);
+    }
+
+    /**
+     * Returns the maximum number of packets waiting to be saved.
+     * @return the maximum number of packets waiting to be saved.
+     */
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    /**
+     * Checks whether the oldest packet waiting to be saved is dropped, rather
+     * than the new one, when too many packets are waiting.
+     * @return <tt>true</tt> if the oldest packet is dropped.
+     */
+    public boolean isDropOldest()
+    {
+        return dropOldest;
+    }
+
+    /**
+     * Returns the time after which a new log file is started even if the
+     * current one is not full.
+     * @return the rotation interval in milliseconds, or <tt>0</tt> if files
+     * are rotated on size only.
+     */
+    public long getRotationInterval()
+    {
+        return rotationInterval;
     }
 
     /**
@@ -67,7 +171,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setGlobalLoggingEnabled(enabled);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
             PACKET_LOGGING_ENABLED_PROPERTY_NAME, enabled);
     }
 
@@ -80,7 +184,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setSipLoggingEnabled(enabled);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
             PACKET_LOGGING_SIP_ENABLED_PROPERTY_NAME,
             enabled);
     }
@@ -94,7 +198,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setJabberLoggingEnabled(enabled);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
             PACKET_LOGGING_JABBER_ENABLED_PROPERTY_NAME,
             enabled);
     }
@@ -108,7 +212,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setRTPLoggingEnabled(enabled);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
             PACKET_LOGGING_RTP_ENABLED_PROPERTY_NAME,
             enabled);
     }
@@ -122,7 +226,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setIce4JLoggingEnabled(enabled);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
             PACKET_LOGGING_ICE4J_ENABLED_PROPERTY_NAME,
             enabled);
     }
@@ -135,7 +239,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setLimit(limit);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
                 PACKET_LOGGING_FILE_SIZE_PROPERTY_NAME,
                 limit);
     }
@@ -148,7 +252,7 @@ public class PacketLoggingConfigurationImpl
     {
         super.setLogfileCount(logfileCount);
 
-        PacketLoggingActivator.getConfigurationService().setProperty(
+        configService.setProperty(
                 PACKET_LOGGING_FILE_COUNT_PROPERTY_NAME,
                 logfileCount);
     }
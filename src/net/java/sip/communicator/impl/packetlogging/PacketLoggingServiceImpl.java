@@ -7,7 +7,9 @@
 package net.java.sip.communicator.impl.packetlogging;
 
 import java.io.*;
-import java.util.*;
+import java.nio.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 import net.java.sip.communicator.util.*;
 
@@ -29,19 +31,46 @@ public class PacketLoggingServiceImpl
             = Logger.getLogger(PacketLoggingServiceImpl.class);
 
     /**
-     * The OutputStream we are currently writing to.
+     * The maximum number of packets saved with a single write.
      */
-    private FileOutputStream outputStream = null;
+    private static final int BATCH_SIZE = 64;
 
     /**
-     * The thread that queues packets and saves them to file.
+     * The size of the longest record header: the pcap packet header and the
+     * fake ethernet, ipv6 and tcp headers.
      */
-    private SaverThread saverThread = new SaverThread();
+    private static final int MAX_RECORD_HEADER_LENGTH = 16 + 14 + 40 + 32;
+
+    /**
+     * The time in milliseconds between two warnings about dropped packets.
+     */
+    private static final long DROP_WARNING_INTERVAL = 10000;
 
     /**
      * The current configuration.
      */
-    private PacketLoggingConfiguration packetLoggingConfiguration = null;
+    private final PacketLoggingConfigurationImpl packetLoggingConfiguration;
+
+    /**
+     * The files the packets are saved to, the current one first, or
+     * <tt>null</tt> to use the files in the log directory.
+     */
+    private final File[] logFiles;
+
+    /**
+     * The packets waiting to be saved.
+     */
+    private final PacketQueue<Packet> packetQueue;
+
+    /**
+     * The number of packets dropped because the queue was full.
+     */
+    private final AtomicLong droppedPackets = new AtomicLong();
+
+    /**
+     * The thread that queues packets and saves them to file.
+     */
+    private SaverThread saverThread = new SaverThread();
 
     /**
      * The fake ethernet header we use as template. 
@@ -117,12 +146,6 @@ public class PacketLoggingServiceImpl
                 (byte)0x6e, (byte)0xcc, (byte)0x76, (byte)0xbd  // options
             };
 
-    /**
-     * Using this object to lock and protectd the two counters
-     * used for tcp seq and ack numbers.
-     */
-    private Object tcpCounterLock = new Object();
-
     /**
      * The seq that the sender will send.
      */
@@ -134,14 +157,35 @@ public class PacketLoggingServiceImpl
     private long dstCount = 1;
 
     /**
-     * A counter watching how much has been written to the file. 
+     * The writer of the log files, created when the first packet is saved.
      */
-    private long written = 0;
+    private PcapFileWriter writer = null;
+
+    /**
+     * Creates the packet logger, configured by the configuration service
+     * and saving the packets to the files in the log directory.
+     */
+    public PacketLoggingServiceImpl()
+    {
+        this(new PacketLoggingConfigurationImpl(), null);
+    }
 
     /**
-     * All the files we can use for writing.
+     * Creates the packet logger with the given configuration, saving the
+     * packets to the given files.
+     *
+     * @param configuration the configuration of the packet logger.
+     * @param logFiles the files the packets are saved to, the current one
+     * first, or <tt>null</tt> to use the files in the log directory.
      */
-    private File[] files;
+    public PacketLoggingServiceImpl(
+            PacketLoggingConfigurationImpl configuration,
+            File[] logFiles)
+    {
+        packetLoggingConfiguration = configuration;
+        this.logFiles = logFiles;
+        packetQueue = new PacketQueue<Packet>(configuration.getQueueSize());
+    }
 
     /**
      * Starting the packet logger. Generating the files we can use,
@@ -154,12 +198,16 @@ public class PacketLoggingServiceImpl
 
     /**
      * Generates the files we will later use for writing.
+     * @return the files we will later use for writing.
      * @throws Exception
      */
-    private void getFileNames()
+    private File[] getFileNames()
         throws Exception
     {
-        files = new File[getConfiguration().getLogfileCount()];
+        if(logFiles != null)
+            return logFiles;
+
+        File[] files = new File[getConfiguration().getLogfileCount()];
         for(int i = 0; i < getConfiguration().getLogfileCount(); i++)
         {
             files[i] = PacketLoggingActivator.getFileAccessService()
@@ -167,107 +215,36 @@ public class PacketLoggingServiceImpl
                     PacketLoggingActivator.LOGGING_DIR_NAME
                         + File.separator + "jitsi" + i + ".pcap");
         }
+        return files;
     }
 
     /**
-     * Rotates any existing files and use the newly created first one
-     * for writing.
-     * @throws IOException
-     */
-    private void rotateFiles()
-        throws IOException
-    {
-        if(outputStream != null)
-        {
-            outputStream.flush();
-            outputStream.close();
-        }
-
-        for (int i = getConfiguration().getLogfileCount() -2; i >= 0; i--)
-        {
-            File f1 = files[i];
-            File f2 = files[i+1];
-            if (f1.exists())
-            {
-                if (f2.exists())
-                {
-                    f2.delete();
-                }
-                f1.renameTo(f2);
-            }
-        }
-
-        outputStream = new FileOutputStream(files[0]);
-        written = 0;
-        createGlobalHeader();
-    }
-
-    /**
-     * Stops the packet logging.
+     * Stops the packet logging. The packets already queued are saved and
+     * the current file is closed by the saver thread before it exits.
      */
     public void stop()
     {
         saverThread.stopRunning();
 
-        if(outputStream != null)
+        try
         {
-            try
-            {
-                outputStream.flush();
-                outputStream.close();
-            }
-            catch(IOException e)
-            {
-                e.printStackTrace();
-            }
-            outputStream = null;
+            saverThread.join(1000);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Creates pcap file global header.
-     * @throws IOException
+     * Returns the number of packets which have not been logged because too
+     * many packets were waiting to be saved.
+     *
+     * @return the number of dropped packets.
      */
-    private void createGlobalHeader()
-            throws IOException
+    public long getDroppedPacketCount()
     {
-        /* magic number(swapped) */
-        outputStream.write(0xd4);
-        outputStream.write(0xc3);
-        outputStream.write(0xb2);
-        outputStream.write(0xa1);
-
-        /* major version number */
-        outputStream.write(0x02);
-        outputStream.write(0x00);
-
-        /* minor version number */
-        outputStream.write(0x04);
-        outputStream.write(0x00);
-
-        /* GMT to local correction */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* accuracy of timestamps */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* max length of captured packets, in octets */
-        outputStream.write(0xff);
-        outputStream.write(0xff);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* data link type(ethernet) */
-        outputStream.write(0x01);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        return droppedPackets.get();
     }
 
     /**
@@ -360,17 +337,32 @@ public class PacketLoggingServiceImpl
             int packetOffset,
             int packetLength)
     {
-        saverThread.queuePacket(
-            new Packet(protocol,
-                       sourceAddress,
-                       sourcePort,
-                       destinationAddress,
-                       destinationPort,
-                       transport,
-                       sender,
-                       packetContent,
-                       packetOffset,
-                       packetLength));
+        Packet packet
+            = new Packet(protocol,
+                         sourceAddress,
+                         sourcePort,
+                         destinationAddress,
+                         destinationPort,
+                         transport,
+                         sender,
+                         packetContent,
+                         packetOffset,
+                         packetLength);
+
+        while(!packetQueue.offer(packet))
+        {
+            if(!packetLoggingConfiguration.isDropOldest())
+            {
+                droppedPackets.incrementAndGet();
+                return;
+            }
+
+            // make room for the new packet
+            if(packetQueue.poll() != null)
+                droppedPackets.incrementAndGet();
+        }
+
+        saverThread.packetQueued();
     }
 
     /**
@@ -380,21 +372,52 @@ public class PacketLoggingServiceImpl
      */
     public PacketLoggingConfiguration getConfiguration()
     {
-        if(packetLoggingConfiguration == null)
-            packetLoggingConfiguration = new PacketLoggingConfigurationImpl();
-
         return packetLoggingConfiguration;
     }
 
     /**
-     * Dump the packet to the output file stream.
+     * Creates the writer of the log files if needed.
      *
-     * @param packet the packet ot save.
-     * @throws Exception when error occurs saving to file stream or when
-     *  rotating files.
+     * @return the writer of the log files.
+     * @throws Exception when the log files cannot be obtained.
      */
-    private void savePacket(Packet packet)
+    private PcapFileWriter getWriter()
         throws Exception
+    {
+        if(writer == null)
+        {
+            writer = new PcapFileWriter(
+                    getFileNames(),
+                    packetLoggingConfiguration.getLimit(),
+                    packetLoggingConfiguration.getRotationInterval());
+        }
+        return writer;
+    }
+
+    /**
+     * Closes the current log file.
+     */
+    private void closeWriter()
+    {
+        if(writer != null)
+        {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Puts the pcap record header and the fake ethernet, ip and transport
+     * headers of a packet in a buffer. Called by the saver thread only, which
+     * owns the header arrays.
+     *
+     * @param packet the packet to save.
+     * @param headers the header arrays of the saver thread.
+     * @param out the buffer to put the headers in.
+     */
+    private void putRecordHeader(Packet packet,
+                                 RecordHeaders headers,
+                                 ByteBuffer out)
     {
         // if one of the addresses is ipv4 we are using ipv4,
         // local udp addresses come as 0.0.0.0.0....0.0.0 when
@@ -406,9 +429,7 @@ public class PacketLoggingServiceImpl
 
         if(isIPv4)
         {
-            ipHeader = new byte[ipHeaderTemplate.length];
-            System.arraycopy(
-                    ipHeaderTemplate, 0, ipHeader, 0, ipHeader.length);
+            ipHeader = headers.ipHeader;
             System.arraycopy(packet.sourceAddress,
                     0,
                     ipHeader,
@@ -422,9 +443,7 @@ public class PacketLoggingServiceImpl
         }
         else
         {
-            ipHeader = new byte[ip6HeaderTemplate.length];
-            System.arraycopy(
-                    ip6HeaderTemplate, 0, ipHeader, 0, ipHeader.length);
+            ipHeader = headers.ip6Header;
             System.arraycopy(packet.sourceAddress,
                     0,
                     ipHeader,
@@ -442,10 +461,8 @@ public class PacketLoggingServiceImpl
         short len;
         if(packet.transport == TransportName.UDP)
         {
-            byte[] udpHeader = new byte[udpHeaderTemplate.length];
+            byte[] udpHeader = headers.udpHeader;
             transportHeader = udpHeader;
-            System.arraycopy(udpHeaderTemplate, 0,
-                    udpHeader, 0, udpHeader.length);
 
             writeShort(packet.sourcePort, udpHeader, 0);
             writeShort(packet.destinationPort, udpHeader, 2);
@@ -454,47 +471,32 @@ public class PacketLoggingServiceImpl
         }
         else
         {
-            transportHeader = new byte[tcpHeaderTemplate.length];
-            System.arraycopy(tcpHeaderTemplate, 0, transportHeader,
-                   0, transportHeader.length);
+            transportHeader = headers.tcpHeader;
 
             writeShort(packet.sourcePort, transportHeader, 0);
             writeShort(packet.destinationPort, transportHeader, 2);
 
             len = (short)(packet.packetLength + transportHeader.length);
 
+            long seqnum;
+            long acknum;
             if(packet.sender)
             {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
-                {
-                    seqnum = srcCount;
-                    srcCount += packet.packetLength;
-                    acknum = dstCount;
-                }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
+                seqnum = srcCount;
+                srcCount += packet.packetLength;
+                acknum = dstCount;
             }
             else
             {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
-                {
-                    seqnum = dstCount;
-                    dstCount += packet.packetLength;
-                    acknum = srcCount;
-                }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
+                seqnum = dstCount;
+                dstCount += packet.packetLength;
+                acknum = srcCount;
             }
+
+            intToBytes((int)(seqnum & 0xffffffff),
+                   transportHeader, 4);
+            intToBytes((int)(acknum & 0xffffffff),
+                   transportHeader, 8);
         }
 
         // now set ip header total length
@@ -508,6 +510,9 @@ public class PacketLoggingServiceImpl
             else
                 ipHeader[9] = (byte)0x06;
 
+           // the checksum is computed with the checksum field set to 0000
+           ipHeader[10] = 0;
+           ipHeader[11] = 0;
            int chk2 = computeChecksum(ipHeader);
            ipHeader[10] = (byte) (chk2 >> 8);
            ipHeader[11] = (byte) (chk2 & 0xff);
@@ -522,57 +527,21 @@ public class PacketLoggingServiceImpl
                 ipHeader[6] = (byte)0x06;
         }
 
-        long current = System.currentTimeMillis();
-        int tsSec = (int)(current/1000);
-        int tsUsec = (int)((current%1000) * 1000);
+        int tsSec = (int)(packet.timestamp/1000);
+        int tsUsec = (int)((packet.timestamp%1000) * 1000);
         int feakHeaderLen = fakeEthernetHeader.length +
                 ipHeader.length + transportHeader.length;
         int inclLen = packet.packetLength + feakHeaderLen;
         int origLen = inclLen;
 
-        synchronized(this)
-        {
-            // open files only if needed
-            if(outputStream == null)
-            {
-                getFileNames();
-                rotateFiles();// this one opens the file for write
-            }
+        out.putInt(tsSec);
+        out.putInt(tsUsec);
+        out.putInt(inclLen);
+        out.putInt(origLen);
 
-            if(getConfiguration().getLimit() > 0
-                && written > getConfiguration().getLimit())
-                rotateFiles();
-
-            addInt(tsSec);
-            addInt(tsUsec);
-            addInt(inclLen);
-            addInt(origLen);
-
-            outputStream.write(fakeEthernetHeader);
-            outputStream.write(ipHeader);
-            outputStream.write(transportHeader);
-            outputStream.write(
-                    packet.packetContent,
-                    packet.packetOffset,
-                    packet.packetLength);
-            outputStream.flush();
-
-            written += inclLen + 16;
-        }
-    }
-
-    /**
-     * Writes int to the file. Used for packet headers.
-     * @param d the value to write.
-     * @throws IOException
-     */
-    private void addInt(int d)
-        throws IOException
-    {
-        outputStream.write ((d & 0xff));
-        outputStream.write(((d & 0xff00) >> 8));
-        outputStream.write(((d & 0xff0000) >> 16));
-        outputStream.write(((d & 0xff000000) >> 24));
+        out.put(fakeEthernetHeader);
+        out.put(ipHeader);
+        out.put(transportHeader);
     }
 
     /**
@@ -685,6 +654,11 @@ public class PacketLoggingServiceImpl
          */
         int packetLength;
 
+        /**
+         * The time the packet has been logged.
+         */
+        long timestamp;
+
         /**
          * Creates a packet with the needed data. 
          * @param protocol the source protocol that logs this packet.
@@ -721,9 +695,25 @@ public class PacketLoggingServiceImpl
             this.packetContent = packetContent;
             this.packetOffset = packetOffset;
             this.packetLength = packetLength;
+            this.timestamp = System.currentTimeMillis();
         }
     }
 
+    /**
+     * The fake ip and transport headers of the packets being saved, copied
+     * from the templates once and then updated for each packet.
+     */
+    private static class RecordHeaders
+    {
+        final byte[] ipHeader = ipHeaderTemplate.clone();
+
+        final byte[] ip6Header = ip6HeaderTemplate.clone();
+
+        final byte[] udpHeader = udpHeaderTemplate.clone();
+
+        final byte[] tcpHeader = tcpHeaderTemplate.clone();
+    }
+
     /**
      * Dumps packet in separate thread so we don't block
      * our calling thread.
@@ -734,52 +724,159 @@ public class PacketLoggingServiceImpl
         /**
          * start/stop indicator.
          */
-        private boolean stopped = true;
+        private volatile boolean stopped = false;
 
         /**
-         * List of packets queued to be written in the file.
+         * Whether this thread is parked waiting for packets.
          */
-        private List<Packet> packetsToDump = new ArrayList<Packet>();
+        private volatile boolean waiting = false;
 
         /**
-         * Sends instant messages in separate thread so we don't block
-         * our calling thread.
+         * The packets being saved.
          */
-        public void run()
+        private final Packet[] batch = new Packet[BATCH_SIZE];
+
+        /**
+         * The header arrays of this thread.
+         */
+        private final RecordHeaders headers = new RecordHeaders();
+
+        /**
+         * The record headers of the packets being saved.
+         */
+        private final ByteBuffer headerBuffer
+            = ByteBuffer.allocate(BATCH_SIZE * MAX_RECORD_HEADER_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * The buffers of a gathering write: the record header and the content
+         * of each packet being saved.
+         */
+        private final ByteBuffer[] buffers = new ByteBuffer[2 * BATCH_SIZE];
+
+        /**
+         * The number of dropped packets we have last warned about.
+         */
+        private long reportedDrops = 0;
+
+        /**
+         * The time we have last warned about dropped packets.
+         */
+        private long lastDropWarning = 0;
+
+        /**
+         * Creates the saver thread.
+         */
+        SaverThread()
         {
-            stopped = false;
+            super("PacketLoggingSaver");
+            setDaemon(true);
+        }
 
-            while(!stopped)
+        /**
+         * Saves the queued packets in batches until stopped.
+         */
+        public void run()
+        {
+            try
             {
-                Packet pktToSave = null;
-
-                synchronized(this)
+                while(!stopped)
                 {
-                    if(packetsToDump.isEmpty())
+                    if(saveBatch() == 0)
                     {
-                        try
-                        {
-                            wait();
-                        }
-                        catch (InterruptedException iex)
-                        {
-                        }
+                        waiting = true;
+                        if(packetQueue.isEmpty() && !stopped)
+                            LockSupport.parkNanos(this, 1000000000L);
+                        waiting = false;
                     }
+                }
 
-                    if(!packetsToDump.isEmpty())
-                        pktToSave = packetsToDump.remove(0);
+                // save what has been queued before we were stopped
+                int saved;
+                do
+                {
+                    saved = saveBatch();
                 }
+                while(saved > 0);
+            }
+            finally
+            {
+                closeWriter();
+            }
+        }
+
+        /**
+         * Takes out a batch of packets and saves them with a single write.
+         *
+         * @return the number of packets taken out of the queue.
+         */
+        private int saveBatch()
+        {
+            int count = packetQueue.drainTo(batch, BATCH_SIZE);
 
-                if(pktToSave != null)
+            if(count == 0)
+                return 0;
+
+            headerBuffer.clear();
+            for(int i = 0; i < count; i++)
+            {
+                Packet packet = batch[i];
+                int start = headerBuffer.position();
+
+                putRecordHeader(packet, headers, headerBuffer);
+
+                ByteBuffer header = headerBuffer.duplicate();
+
+                header.position(start);
+                header.limit(headerBuffer.position());
+                buffers[2 * i] = header;
+                buffers[2 * i + 1]
+                    = ByteBuffer.wrap(
+                            packet.packetContent,
+                            packet.packetOffset,
+                            packet.packetLength);
+                batch[i] = null;
+            }
+
+            try
+            {
+                getWriter().write(buffers, 2 * count);
+            }
+            catch(Throwable t)
+            {
+                logger.error("Error writing packet to file", t);
+
+                // start again with a new file on the next write
+                closeWriter();
+            }
+
+            for(int i = 0; i < 2 * count; i++)
+                buffers[i] = null;
+
+            warnAboutDrops();
+
+            return count;
+        }
+
+        /**
+         * Logs a warning, at most every {@link #DROP_WARNING_INTERVAL}, if
+         * packets have been dropped since the last one.
+         */
+        private void warnAboutDrops()
+        {
+            long drops = droppedPackets.get();
+
+            if(drops != reportedDrops)
+            {
+                long now = System.currentTimeMillis();
+
+                if(now - lastDropWarning >= DROP_WARNING_INTERVAL)
                 {
-                    try
-                    {
-                        savePacket(pktToSave);
-                    }
-                    catch(Throwable t)
-                    {
-                        logger.error("Error writing packet to file", t);
-                    }
+                    logger.warn("Packet logging queue full, dropped "
+                        + (drops - reportedDrops) + " packets ("
+                        + drops + " in total)");
+                    reportedDrops = drops;
+                    lastDropWarning = now;
                 }
             }
         }
@@ -787,20 +884,19 @@ public class PacketLoggingServiceImpl
         /**
          * Interrupts this sender so that it would no longer send messages.
          */
-        public synchronized void stopRunning()
+        public void stopRunning()
         {
             stopped = true;
-            notifyAll();
+            LockSupport.unpark(this);
         }
 
         /**
-         * Schedule new packet for save.
-         * @param packet new packet to save.
+         * Wakes this thread up if it is waiting for packets.
          */
-        public synchronized void queuePacket(Packet packet)
+        public void packetQueued()
         {
-            packetsToDump.add(packet);
-            notifyAll();
+            if(waiting)
+                LockSupport.unpark(this);
         }
     }
 }
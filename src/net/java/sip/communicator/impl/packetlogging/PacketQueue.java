@@ -0,0 +1,169 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A bounded lock-free queue of packets waiting to be saved.
+ * <p>
+ * The queue is a ring of slots, each with a sequence number telling whether it
+ * is ready to be filled or to be emptied at the current position of the
+ * queue. Threads claim a slot by advancing the head or the tail with a
+ * compare-and-set, so any number of threads can log packets while the saver
+ * thread takes them out, and a producer can also take out the oldest packet
+ * to make room when the queue is full.
+ *
+ * @param <T> the type of the queued elements
+ */
+public class PacketQueue<T>
+{
+    /**
+     * The capacity of the queue minus one, the capacity being a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The slots of the queue.
+     */
+    private final AtomicReferenceArray<T> elements;
+
+    /**
+     * The sequence number of each slot. A slot can be filled at tail position
+     * <tt>t</tt> when its sequence is <tt>t</tt> and emptied at head position
+     * <tt>h</tt> when its sequence is <tt>h + 1</tt>.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The position of the next element to take out.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The position of the next element to put in.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a queue able to hold at least the given number of elements.
+     *
+     * @param capacity the minimum capacity of the queue, rounded up to a power
+     * of two
+     */
+    public PacketQueue(int capacity)
+    {
+        int size = 1;
+
+        while (size < capacity)
+            size <<= 1;
+
+        mask = size - 1;
+        elements = new AtomicReferenceArray<T>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Adds an element at the tail of the queue unless it is full.
+     *
+     * @param element the element to add
+     * @return <tt>true</tt> if the element has been added, <tt>false</tt> if
+     * the queue is full
+     */
+    public boolean offer(T element)
+    {
+        while (true)
+        {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long diff = sequences.get(index) - t;
+
+            if (diff == 0)
+            {
+                if (tail.compareAndSet(t, t + 1))
+                {
+                    elements.lazySet(index, element);
+                    sequences.set(index, t + 1);
+                    return true;
+                }
+            }
+            else if (diff < 0)
+                return false;
+        }
+    }
+
+    /**
+     * Takes out the element at the head of the queue.
+     *
+     * @return the element at the head of the queue or <tt>null</tt> if the
+     * queue is empty
+     */
+    public T poll()
+    {
+        while (true)
+        {
+            long h = head.get();
+            int index = (int) (h & mask);
+            long diff = sequences.get(index) - (h + 1);
+
+            if (diff == 0)
+            {
+                if (head.compareAndSet(h, h + 1))
+                {
+                    T element = elements.get(index);
+
+                    elements.lazySet(index, null);
+                    sequences.set(index, h + mask + 1);
+                    return element;
+                }
+            }
+            else if (diff < 0)
+                return null;
+        }
+    }
+
+    /**
+     * Takes out up to <tt>max</tt> elements from the head of the queue.
+     *
+     * @param batch the array to put the elements in
+     * @param max the maximum number of elements to take out
+     * @return the number of elements put in <tt>batch</tt>
+     */
+    public int drainTo(T[] batch, int max)
+    {
+        int count = 0;
+        T element;
+
+        while (count < max && (element = poll()) != null)
+            batch[count++] = element;
+        return count;
+    }
+
+    /**
+     * Determines whether the queue is empty.
+     *
+     * @return <tt>true</tt> if there is no element to take out
+     */
+    public boolean isEmpty()
+    {
+        long h = head.get();
+
+        return sequences.get((int) (h & mask)) - (h + 1) < 0;
+    }
+
+    /**
+     * Returns the number of elements the queue can hold.
+     *
+     * @return the capacity of the queue
+     */
+    public int capacity()
+    {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Writes pcap records to a set of rotating files. The current file is always
+ * the first one. When it grows over the size limit, or has been written to
+ * for longer than the rotation interval, the files are shifted by one, the
+ * last one is dropped and a new first file is started, so that only a fixed
+ * number of files is kept.
+ */
+public class PcapFileWriter
+{
+    /**
+     * Our Logger.
+     */
+    private static final Logger logger = Logger.getLogger(PcapFileWriter.class);
+
+    /**
+     * The pcap global header: magic number (swapped), version 2.4, GMT to
+     * local correction, accuracy of timestamps, max length of captured
+     * packets and data link type (ethernet).
+     */
+    private static final byte[] GLOBAL_HEADER
+        = new byte[]{
+                (byte)0xd4, (byte)0xc3, (byte)0xb2, (byte)0xa1,
+                (byte)0x02, (byte)0x00, (byte)0x04, (byte)0x00,
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                (byte)0xff, (byte)0xff, (byte)0x00, (byte)0x00,
+                (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00
+        };
+
+    /**
+     * The files we write to, the current one first.
+     */
+    private final File[] files;
+
+    /**
+     * The size over which the current file is rotated, or <tt>0</tt> for no
+     * limit.
+     */
+    private final long limit;
+
+    /**
+     * The time in milliseconds after which the current file is rotated, or
+     * <tt>0</tt> to rotate on size only.
+     */
+    private final long rotationInterval;
+
+    /**
+     * The channel to the current file.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * How much has been written to the current file.
+     */
+    private long written = 0;
+
+    /**
+     * The time the current file has been started.
+     */
+    private long startTime = 0;
+
+    /**
+     * Creates a writer using the given files.
+     *
+     * @param files the files to write to, the current one first
+     * @param limit the size over which the current file is rotated, or
+     * <tt>0</tt> for no limit
+     * @param rotationInterval the time in milliseconds after which the
+     * current file is rotated, or <tt>0</tt> to rotate on size only
+     */
+    public PcapFileWriter(File[] files, long limit, long rotationInterval)
+    {
+        this.files = files;
+        this.limit = limit;
+        this.rotationInterval = rotationInterval;
+    }
+
+    /**
+     * Writes records to the current file with a single gathering write,
+     * rotating the files first if needed.
+     *
+     * @param buffers the buffers holding the records
+     * @param length the number of buffers to write
+     * @throws IOException if writing or rotating fails
+     */
+    public void write(ByteBuffer[] buffers, int length)
+        throws IOException
+    {
+        if (length == 0)
+            return;
+
+        long now = System.currentTimeMillis();
+
+        if (channel == null
+                || (limit > 0 && written > limit)
+                || (rotationInterval > 0 && now - startTime > rotationInterval))
+            rotateFiles(now);
+
+        ByteBuffer last = buffers[length - 1];
+        int offset = 0;
+
+        do
+        {
+            written += channel.write(buffers, offset, length - offset);
+            while (offset < length && !buffers[offset].hasRemaining())
+                offset++;
+        }
+        while (last.hasRemaining());
+    }
+
+    /**
+     * Closes the current file.
+     */
+    public void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.error("Error closing packet log file", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Rotates any existing files and starts a new first one.
+     *
+     * @param now the current time
+     * @throws IOException if the new file cannot be created
+     */
+    private void rotateFiles(long now)
+        throws IOException
+    {
+        close();
+
+        for (int i = files.length - 2; i >= 0; i--)
+        {
+            File f1 = files[i];
+            File f2 = files[i+1];
+            if (f1.exists())
+            {
+                if (f2.exists())
+                {
+                    f2.delete();
+                }
+                f1.renameTo(f2);
+            }
+        }
+
+        channel = new FileOutputStream(files[0]).getChannel();
+        written = 0;
+        startTime = now;
+
+        ByteBuffer header = ByteBuffer.wrap(GLOBAL_HEADER);
+
+        while (header.hasRemaining())
+            written += channel.write(header);
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps the avatars of the contacts on disk so that they do not have to be
+ * downloaded again at each login.
+ * <p>
+ * The avatars are content addressed: each one is kept in a file named after
+ * the SHA-1 hash of its bytes, the hash advertised in the "vcard-temp:x:update"
+ * presence extension (cf. XEP-0153). An index remembers the hash of the last
+ * avatar of each contact, by bare JID, so that avatars can also be found
+ * before the presence of their contacts has been received. The number of
+ * files is bounded, the least recently used ones being removed first. Without
+ * a directory nothing is kept.
+ */
+class AvatarCache
+{
+    /**
+     * The logger used by the <tt>AvatarCache</tt> class and its instances
+     * for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(AvatarCache.class);
+
+    /**
+     * The maximum number of avatars kept in the directory.
+     */
+    private static final int MAX_FILES = 2048;
+
+    /**
+     * The extension of the files of the avatars.
+     */
+    private static final String FILE_EXTENSION = ".avatar";
+
+    /**
+     * The name of the file of the index.
+     */
+    private static final String INDEX_FILE_NAME = "index.properties";
+
+    /**
+     * The directory the avatars are kept in or <tt>null</tt>.
+     */
+    private final File directory;
+
+    /**
+     * The hashes of the last avatars of the contacts by bare JID.
+     */
+    private final Properties index = new Properties();
+
+    /**
+     * Whether the index has changed since it was last saved.
+     */
+    private boolean indexChanged = false;
+
+    /**
+     * The number of avatar files in the directory, counted when first needed
+     * so that the directory is listed only when files have to be removed.
+     */
+    private int fileCount = -1;
+
+    /**
+     * Creates a cache and loads its index.
+     *
+     * @param directory the directory to keep the avatars in or <tt>null</tt>
+     */
+    AvatarCache(File directory)
+    {
+        this.directory = directory;
+
+        if (directory != null)
+            loadIndex();
+    }
+
+    /**
+     * Returns the hash of the last avatar known for a contact.
+     *
+     * @param jid the bare JID of the contact
+     * @return the hash of the avatar or <tt>null</tt> if it is not known
+     */
+    synchronized String getHash(String jid)
+    {
+        return index.getProperty(jid);
+    }
+
+    /**
+     * Returns an avatar.
+     *
+     * @param hash the SHA-1 hash of the avatar in hexadecimal representation
+     * @return the avatar or <tt>null</tt> if it is not in the cache
+     */
+    byte[] get(String hash)
+    {
+        File file = getFile(hash);
+
+        if ((file == null) || !file.isFile())
+            return null;
+
+        try
+        {
+            byte[] avatar = new byte[(int) file.length()];
+            DataInputStream in
+                = new DataInputStream(new FileInputStream(file));
+
+            try
+            {
+                in.readFully(avatar);
+            }
+            finally
+            {
+                in.close();
+            }
+
+            // the files are removed by age, keep the used ones
+            file.setLastModified(System.currentTimeMillis());
+            return avatar;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read avatar file " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds an avatar and makes it the last avatar of a contact.
+     *
+     * @param jid the bare JID of the contact
+     * @param hash the SHA-1 hash of <tt>avatar</tt> in hexadecimal
+     * representation
+     * @param avatar the avatar
+     */
+    void put(String jid, String hash, byte[] avatar)
+    {
+        File file = getFile(hash);
+
+        if (file == null)
+            return;
+
+        if (!file.isFile())
+        {
+            File tmpFile = null;
+
+            try
+            {
+                // contacts may share an avatar and have it written at once
+                tmpFile = File.createTempFile(hash, ".tmp", directory);
+
+                FileOutputStream out = new FileOutputStream(tmpFile);
+
+                try
+                {
+                    out.write(avatar);
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                if (!tmpFile.renameTo(file) && !file.isFile())
+                    throw new IOException("Cannot rename " + tmpFile);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Cannot write avatar file " + file, e);
+                return;
+            }
+            finally
+            {
+                if ((tmpFile != null) && tmpFile.exists() && !tmpFile.delete())
+                    logger.warn("Cannot delete " + tmpFile);
+            }
+            trim();
+        }
+
+        synchronized (this)
+        {
+            if (!hash.equals(index.setProperty(jid, hash)))
+                indexChanged = true;
+        }
+    }
+
+    /**
+     * Forgets the last avatar of a contact.
+     *
+     * @param jid the bare JID of the contact
+     */
+    synchronized void remove(String jid)
+    {
+        if (index.remove(jid) != null)
+            indexChanged = true;
+    }
+
+    /**
+     * Saves the index if it has changed since it was last saved.
+     */
+    synchronized void saveIndex()
+    {
+        if (!indexChanged || (directory == null))
+            return;
+
+        File file = new File(directory, INDEX_FILE_NAME);
+        File tmpFile = new File(directory, INDEX_FILE_NAME + ".tmp");
+
+        try
+        {
+            OutputStream out
+                = new BufferedOutputStream(new FileOutputStream(tmpFile));
+
+            try
+            {
+                index.store(out, null);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+                throw new IOException("Cannot rename " + tmpFile);
+            indexChanged = false;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot write avatar index " + file, e);
+        }
+    }
+
+    /**
+     * Loads the index.
+     */
+    private void loadIndex()
+    {
+        File file = new File(directory, INDEX_FILE_NAME);
+
+        if (!file.isFile())
+            return;
+
+        try
+        {
+            InputStream in
+                = new BufferedInputStream(new FileInputStream(file));
+
+            try
+            {
+                index.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read avatar index " + file, e);
+            index.clear();
+        }
+    }
+
+    /**
+     * Removes the least recently used files if there are too many, counting
+     * a file which has just been written.
+     */
+    private synchronized void trim()
+    {
+        if (fileCount < 0)
+            fileCount = listFiles().length;
+        else
+            fileCount++;
+        if (fileCount <= MAX_FILES)
+            return;
+
+        File[] files = listFiles();
+
+        Arrays.sort(
+                files,
+                new Comparator<File>()
+                {
+                    public int compare(File f1, File f2)
+                    {
+                        long m1 = f1.lastModified();
+                        long m2 = f2.lastModified();
+
+                        return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+                    }
+                });
+        fileCount = files.length;
+        for (int i = 0; i < files.length - MAX_FILES; i++)
+        {
+            if (files[i].delete())
+                fileCount--;
+            else
+                logger.warn("Cannot delete " + files[i]);
+        }
+    }
+
+    /**
+     * Lists the avatar files in the directory.
+     *
+     * @return the avatar files in the directory
+     */
+    private File[] listFiles()
+    {
+        File[] files
+            = directory.listFiles(
+                    new FileFilter()
+                    {
+                        public boolean accept(File file)
+                        {
+                            return file.getName().endsWith(FILE_EXTENSION);
+                        }
+                    });
+
+        return (files == null) ? new File[0] : files;
+    }
+
+    /**
+     * Returns the file of an avatar.
+     *
+     * @param hash the SHA-1 hash of the avatar in hexadecimal representation
+     * @return the file of the avatar or <tt>null</tt> if there is no directory
+     * or <tt>hash</tt> is not a valid SHA-1 hash
+     */
+    private File getFile(String hash)
+    {
+        if ((directory == null) || !isValidHash(hash))
+            return null;
+        return new File(directory, hash + FILE_EXTENSION);
+    }
+
+    /**
+     * Determines whether a string is the lowercase hexadecimal representation
+     * of a SHA-1 hash. Hashes come from the network and name files, anything
+     * else is rejected.
+     *
+     * @param hash the string
+     * @return <tt>true</tt> if <tt>hash</tt> is a valid SHA-1 hash
+     */
+    static boolean isValidHash(String hash)
+    {
+        if ((hash == null) || (hash.length() != 40))
+            return false;
+
+        for (int i = 0; i < hash.length(); i++)
+        {
+            char c = hash.charAt(i);
+
+            if (!(((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'f'))))
+                return false;
+        }
+        return true;
+    }
+}
@@ -30,6 +30,12 @@ public class ContactJabberImpl
      */
     private byte[] image = null;
 
+    /**
+     * The SHA-1 hash of {@link #image} in hexadecimal representation, computed
+     * when first needed.
+     */
+    private String imageSha1 = null;
+
     /**
      * The status of the contact as per the last status update we've
      * received for it.
@@ -181,8 +187,43 @@ public class ContactJabberImpl
      *  @param imgBytes the bytes of the image that we'd like to set.
      */
     public void setImage(byte[] imgBytes)
+    {
+        setImage(imgBytes, null);
+    }
+
+    /**
+     *  Set the image of the contact along with its SHA-1 hash when it is
+     *  already known.
+     *
+     *  @param imgBytes the bytes of the image that we'd like to set.
+     *  @param imgSha1 the SHA-1 hash of <tt>imgBytes</tt> in hexadecimal
+     *  representation or <tt>null</tt> to have it computed when needed.
+     */
+    synchronized void setImage(byte[] imgBytes, String imgSha1)
     {
         this.image = imgBytes;
+        this.imageSha1 = imgSha1;
+    }
+
+    /**
+     * Returns the SHA-1 hash of the image of this contact as advertised in the
+     * "vcard-temp:x:update" presence extension. The hash is computed once per
+     * image rather than for every presence packet.
+     *
+     * @return the SHA-1 hash of the image in hexadecimal representation, an
+     * empty string if the contact has no image or <tt>null</tt> if the image
+     * has not been retrieved yet.
+     */
+    synchronized String getImageSha1()
+    {
+        if ((imageSha1 == null) && (image != null))
+        {
+            imageSha1
+                = (image.length == 0)
+                    ? ""
+                    : VCardTempXUpdatePresenceExtension.getImageSha1(image);
+        }
+        return imageSha1;
     }
 
     /**
@@ -1439,8 +1439,6 @@ public class OperationSetPersistentPresenceJabberImpl
             return;
         }
 
-        byte[] currentAvatar = sourceContact.getImage(false);
-
         // Get the packet extension which contains the photo tag.
         DefaultPacketExtension defaultPacketExtension =
             (DefaultPacketExtension) packet.getExtension(
@@ -1448,50 +1446,43 @@ public class OperationSetPersistentPresenceJabberImpl
                     VCardTempXUpdatePresenceExtension.NAMESPACE);
         if(defaultPacketExtension != null)
         {
-            try
-            {
-                String packetPhotoSHA1 =
-                    defaultPacketExtension.getValue("photo");
-                // If this presence packet has a photo tag with a SHA-1 hash
-                // which differs from the current avatar SHA-1 hash, then Jitsi
-                // retreives the new avatar image and updates this contact image
-                // in the contact list.
-                if(packetPhotoSHA1 != null
-                        && !packetPhotoSHA1.equals(
-                            VCardTempXUpdatePresenceExtension.getImageSha1(
-                                currentAvatar))
-                  )
-                {
-                    byte[] newAvatar = null;
+            String packetPhotoSHA1 =
+                defaultPacketExtension.getValue("photo");
+            // If this presence packet has a photo tag with a SHA-1 hash
+            // which differs from the current avatar SHA-1 hash, then Jitsi
+            // retreives the new avatar image and updates this contact image
+            // in the contact list. The hash of the current avatar is computed
+            // once per avatar rather than for each presence packet.
+            if(packetPhotoSHA1 == null)
+                return;
 
-                    // If there is an avatar image, retreives it. 
-                    if(packetPhotoSHA1.length() != 0)
-                    {
-                        // Retrieves the new contact avatar image.
-                        VCard vCard = new VCard();
-                        vCard.load(parentProvider.getConnection(), userID);
-                        newAvatar = vCard.getAvatar();
-                    }
-                    // Else removes the current avatar image, since the contact
-                    // has removed it from the server.
-                    else
-                    {
-                        newAvatar = new byte[0];
-                    }
+            packetPhotoSHA1 = packetPhotoSHA1.trim().toLowerCase();
+            if(packetPhotoSHA1.equals(sourceContact.getImageSha1()))
+                return;
 
-                    // Sets the new avatar image to the Jitsi contact.
-                    sourceContact.setImage(newAvatar);
-                    // Fires a property change event to update the contact list.
-                    this.fireContactPropertyChangeEvent(
-                        ContactPropertyChangeEvent.PROPERTY_IMAGE,
+            // If there is an avatar image, retreives it from the avatar cache
+            // or the server, without blocking the processing of the packets.
+            if(packetPhotoSHA1.length() != 0)
+            {
+                ssContactList.addContactForImageUpdate(
                         sourceContact,
-                        currentAvatar,
-                        newAvatar);
-                }
+                        packetPhotoSHA1);
             }
-            catch(XMPPException ex)
+            // Else removes the current avatar image, since the contact
+            // has removed it from the server.
+            else
             {
-                logger.info("Can not retrieve vCard from: " + packet.getFrom(), ex);
+                byte[] currentAvatar = sourceContact.getImage(false);
+                byte[] newAvatar = new byte[0];
+
+                // Sets the new avatar image to the Jitsi contact.
+                sourceContact.setImage(newAvatar, "");
+                // Fires a property change event to update the contact list.
+                this.fireContactPropertyChangeEvent(
+                    ContactPropertyChangeEvent.PROPERTY_IMAGE,
+                    sourceContact,
+                    currentAvatar,
+                    newAvatar);
             }
         }
     }
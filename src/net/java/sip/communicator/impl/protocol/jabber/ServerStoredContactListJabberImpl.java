@@ -6,16 +6,21 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.customavatar.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.service.fileaccess.*;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smackx.packet.*;
 import org.osgi.framework.*;
 
 /**
@@ -66,7 +71,23 @@ public class ServerStoredContactListJabberImpl
         = new Vector<ServerStoredGroupListener>();
 
     /**
-     *  Thread retreiving images for contacts
+     * The name of the directory of the avatar cache.
+     */
+    private static final String AVATAR_CACHE_DIR_NAME = "avatarcache";
+
+    /**
+     * The number of threads retrieving the images of the contacts of a
+     * contact list.
+     */
+    private static final int IMAGE_RETRIEVER_POOL_SIZE = 4;
+
+    /**
+     * The cache of the avatars shared by the contact lists.
+     */
+    private static AvatarCache avatarCache;
+
+    /**
+     *  Retrieves images for contacts
      */
     private ImageRetriever imageRetriever = null;
 
@@ -772,10 +793,13 @@ public class ServerStoredContactListJabberImpl
      */
     void cleanup()
     {
-        if(imageRetriever != null)
+        synchronized(this)
         {
-            imageRetriever.quit();
-            imageRetriever = null;
+            if(imageRetriever != null)
+            {
+                imageRetriever.quit();
+                imageRetriever = null;
+            }
         }
 
         if(this.roster != null)
@@ -1048,14 +1072,27 @@ public class ServerStoredContactListJabberImpl
      * @param c ContactJabberImpl
      */
     protected void addContactForImageUpdate(ContactJabberImpl c)
+    {
+        addContactForImageUpdate(c, null);
+    }
+
+    /**
+     * Adds a contact for image update because it has advertised a new image.
+     * The image is taken from the avatar cache if it is there and retrieved
+     * from the server otherwise, never in the calling thread.
+     *
+     * @param c ContactJabberImpl
+     * @param hash the SHA-1 hash of the new image in hexadecimal
+     * representation or <tt>null</tt> to retrieve the last known image
+     */
+    synchronized void addContactForImageUpdate(
+            ContactJabberImpl c,
+            String hash)
     {
         if(imageRetriever == null)
-        {
             imageRetriever = new ImageRetriever();
-            imageRetriever.start();
-        }
 
-        imageRetriever.addContact(c);
+        imageRetriever.addContact(c, hash);
     }
 
     /**
@@ -1388,111 +1425,219 @@ public class ServerStoredContactListJabberImpl
     }
 
     /**
-     * Thread retrieving images.
+     * Retrieves the images of the contacts on a small pool of daemon threads,
+     * from the avatar cache when possible and from the server otherwise. A
+     * contact has at most one retrieval queued or running at a time, later
+     * requests for it being merged into that one.
      */
     private class ImageRetriever
-        extends Thread
     {
         /**
-         * list with the accounts with missing image
+         * The executor running the retrievals.
          */
-        private final List<ContactJabberImpl> contactsForUpdate
-            = new Vector<ContactJabberImpl>();
+        private final ThreadPoolExecutor executor;
 
         /**
-         * Should we stop.
+         * The retrievals queued or running by bare JID of their contacts.
          */
-        private boolean running = false;
+        private final Map<String, ImageRequest> requests
+            = new HashMap<String, ImageRequest>();
 
         /**
          * Creates image retrieving.
          */
         ImageRetriever()
         {
-            setDaemon(true);
+            executor
+                = new ThreadPoolExecutor(
+                        IMAGE_RETRIEVER_POOL_SIZE,
+                        IMAGE_RETRIEVER_POOL_SIZE,
+                        60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory()
+                        {
+                            private final AtomicInteger count
+                                = new AtomicInteger();
+
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread thread
+                                    = new Thread(
+                                            r,
+                                            "ImageRetriever-"
+                                                + count.incrementAndGet());
+
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            executor.allowCoreThreadTimeOut(true);
         }
 
         /**
-         * Thread entry point.
+         * Queues a contact for image retrieval unless it already is.
+         *
+         * @param contact the contact
+         * @param hash the SHA-1 hash of the image to retrieve as advertised by
+         * the contact or <tt>null</tt> to retrieve the last known one
          */
-        public void run()
+        void addContact(ContactJabberImpl contact, String hash)
         {
-            try
-            {
-                Collection<ContactJabberImpl> copyContactsForUpdate = null;
-                running = true;
-                while (running)
-                {
-                    synchronized(contactsForUpdate)
-                    {
-                        if(contactsForUpdate.isEmpty())
-                            contactsForUpdate.wait();
+            String address = contact.getAddress();
 
-                        if(!running)
-                            return;
-
-                        copyContactsForUpdate
-                            = new Vector<ContactJabberImpl>(contactsForUpdate);
-                        contactsForUpdate.clear();
-                    }
+            synchronized(requests)
+            {
+                ImageRequest request = requests.get(address);
 
-                    Iterator<ContactJabberImpl> iter
-                        = copyContactsForUpdate.iterator();
-                    while (iter.hasNext())
-                    {
-                        ContactJabberImpl contact = iter.next();
+                if (request != null)
+                {
+                    // the latest advertised image is the one wanted
+                    if (hash != null)
+                        request.hash = hash;
+                    return;
+                }
 
-                        byte[] imgBytes = getAvatar(contact);
+                request = new ImageRequest(contact, hash);
+                requests.put(address, request);
+                submit(request);
+            }
+        }
 
-                        if(imgBytes != null)
-                        {
-                            byte[] oldImage = contact.getImage(false);
+        /**
+         * Stops retrieving images.
+         */
+        void quit()
+        {
+            executor.shutdownNow();
+            synchronized(requests)
+            {
+                requests.clear();
+            }
+            getAvatarCache().saveIndex();
+        }
 
-                            contact.setImage(imgBytes);
-                            parentOperationSet.fireContactPropertyChangeEvent(
-                                ContactPropertyChangeEvent.PROPERTY_IMAGE,
-                                contact, oldImage, imgBytes);
-                        }
-                        else
-                            // set an empty image data so it won't be queried again
-                            contact.setImage(new byte[0]);
-                    }
-                }
+        /**
+         * Submits a retrieval to the executor.
+         *
+         * @param request the retrieval
+         */
+        private void submit(ImageRequest request)
+        {
+            try
+            {
+                executor.execute(request);
             }
-            catch (InterruptedException ex)
+            catch (RejectedExecutionException ex)
             {
-                logger.error("ImageRetriever error waiting will stop now!", ex);
+                // we've quit
+                requests.remove(request.contact.getAddress());
             }
         }
 
         /**
-         * Add contact for retrieving
-         * if the provider is register notify the retriever to get the nicks
-         * if we are not registered add a listener to wait for registering
+         * Notifies that a retrieval has completed and runs it again if a newer
+         * image has been advertised meanwhile. Saves the index of the avatar
+         * cache once there is nothing left to retrieve, rather than after each
+         * image.
          *
-         * @param contact ContactJabberImpl
+         * @param request the retrieval
+         * @param hash the SHA-1 hash the retrieval started with
          */
-        synchronized void addContact(ContactJabberImpl contact)
+        private void completed(ImageRequest request, String hash)
         {
-            synchronized(contactsForUpdate)
+            boolean idle;
+
+            synchronized(requests)
             {
-                if (!contactsForUpdate.contains(contact))
+                if ((request.hash != null) && !request.hash.equals(hash))
                 {
-                    contactsForUpdate.add(contact);
-                    contactsForUpdate.notifyAll();
+                    submit(request);
+                    return;
                 }
+
+                requests.remove(request.contact.getAddress());
+                idle = requests.isEmpty();
             }
+            if (idle)
+                getAvatarCache().saveIndex();
         }
 
         /**
-         * Stops this thread.
+         * Retrieves the image of a contact and sets it.
+         *
+         * @param contact the contact
+         * @param hash the SHA-1 hash of the image advertised by the contact or
+         * <tt>null</tt> to retrieve the last known one
          */
-        void quit()
+        private void retrieve(ContactJabberImpl contact, String hash)
         {
-            synchronized(contactsForUpdate)
+            AvatarCache cache = getAvatarCache();
+            String address = contact.getAddress();
+            String cachedHash = (hash == null) ? cache.getHash(address) : hash;
+            byte[] imgBytes = null;
+            String imgSha1 = null;
+
+            if (cachedHash != null)
             {
-                running = false;
-                contactsForUpdate.notifyAll();
+                imgBytes = cache.get(cachedHash);
+                if (imgBytes != null)
+                    imgSha1 = cachedHash;
+            }
+
+            if (imgBytes == null)
+            {
+                if (hash == null)
+                    imgBytes = getAvatar(contact);
+                else
+                {
+                    // the details already retrieved may hold the old image
+                    try
+                    {
+                        VCard vCard = new VCard();
+
+                        vCard.load(jabberProvider.getConnection(), address);
+                        imgBytes = vCard.getAvatar();
+                    }
+                    catch (Exception ex)
+                    {
+                        logger.info(
+                                "Can not retrieve vCard from: " + address,
+                                ex);
+                        return;
+                    }
+                }
+
+                if ((imgBytes != null) && (imgBytes.length != 0))
+                {
+                    imgSha1
+                        = VCardTempXUpdatePresenceExtension.getImageSha1(
+                                imgBytes);
+                    if (imgSha1 != null)
+                        cache.put(address, imgSha1, imgBytes);
+                }
+            }
+
+            if((imgBytes != null) && (imgBytes.length != 0))
+            {
+                byte[] oldImage = contact.getImage(false);
+
+                contact.setImage(imgBytes, imgSha1);
+                parentOperationSet.fireContactPropertyChangeEvent(
+                    ContactPropertyChangeEvent.PROPERTY_IMAGE,
+                    contact, oldImage, imgBytes);
+            }
+            else if (hash == null)
+                // set an empty image data so it won't be queried again
+                contact.setImage(new byte[0], "");
+            else
+            {
+                byte[] oldImage = contact.getImage(false);
+
+                cache.remove(address);
+                contact.setImage(new byte[0], "");
+                parentOperationSet.fireContactPropertyChangeEvent(
+                    ContactPropertyChangeEvent.PROPERTY_IMAGE,
+                    contact, oldImage, new byte[0]);
             }
         }
 
@@ -1543,6 +1688,91 @@ public class ServerStoredContactListJabberImpl
 
             return result;
         }
+
+        /**
+         * The retrieval of the image of a contact.
+         */
+        private class ImageRequest
+            implements Runnable
+        {
+            /**
+             * The contact.
+             */
+            final ContactJabberImpl contact;
+
+            /**
+             * The SHA-1 hash of the image advertised by the contact or
+             * <tt>null</tt> to retrieve the last known one. Guarded by
+             * {@link ImageRetriever#requests}.
+             */
+            String hash;
+
+            ImageRequest(ContactJabberImpl contact, String hash)
+            {
+                this.contact = contact;
+                this.hash = hash;
+            }
+
+            public void run()
+            {
+                String hash;
+
+                synchronized(requests)
+                {
+                    hash = this.hash;
+                }
+
+                try
+                {
+                    retrieve(contact, hash);
+                }
+                catch (RuntimeException ex)
+                {
+                    logger.error(
+                            "Cannot retrieve image for contact " + contact,
+                            ex);
+                }
+                finally
+                {
+                    completed(this, hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cache of the avatars shared by the contact lists, creating
+     * it in the private persistent directory of the application.
+     *
+     * @return the cache of the avatars.
+     */
+    static synchronized AvatarCache getAvatarCache()
+    {
+        if (avatarCache == null)
+        {
+            File directory = null;
+
+            try
+            {
+                FileAccessService fileAccessService
+                    = JabberActivator.getFileAccessService();
+
+                if (fileAccessService != null)
+                {
+                    directory
+                        = fileAccessService.getPrivatePersistentDirectory(
+                                AVATAR_CACHE_DIR_NAME);
+                    if (!directory.isDirectory() && !directory.mkdirs())
+                        directory = null;
+                }
+            }
+            catch (Exception ex)
+            {
+                logger.warn("Cannot create the avatar cache directory", ex);
+            }
+            avatarCache = new AvatarCache(directory);
+        }
+        return avatarCache;
     }
 
     /**
@@ -77,7 +77,9 @@ public class VCardTempXUpdatePresenceExtension
             VCardTempXUpdatePresenceExtension.getImageSha1(imageBytes);
 
         // If the image has changed, then recomputes the XML string.
-        if(tmpImageSha1 != imageSha1)
+        if(tmpImageSha1 == null
+                ? imageSha1 != null
+                : !tmpImageSha1.equals(imageSha1))
         {
             imageSha1 = tmpImageSha1;
             this.computeXML();
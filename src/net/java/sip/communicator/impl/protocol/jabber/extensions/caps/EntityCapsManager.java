@@ -17,6 +17,7 @@ import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
@@ -47,13 +48,25 @@ public class EntityCapsManager
         = Logger.getLogger(EntityCapsManager.class);
 
     /**
-     * The prefix of the <tt>ConfigurationService</tt> properties which persist
-     * {@link #caps2discoverInfo}.
+     * The prefix of the <tt>ConfigurationService</tt> properties which used to
+     * persist {@link #caps2discoverInfo} and which are now migrated to
+     * {@link #capsStore}.
      */
     private static final String CAPS_PROPERTY_NAME_PREFIX
         = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
             + "EntityCapsManager.CAPS.";
 
+    /**
+     * The name of the file of {@link #capsStore}.
+     */
+    private static final String CAPS_STORE_FILE_NAME = "entitycaps.bin";
+
+    /**
+     * The maximum number of parsed <tt>DiscoverInfo</tt>s kept in
+     * {@link #caps2discoverInfo}.
+     */
+    private static final int MAX_DISCOVER_INFOS = 256;
+
     /**
      * An empty array of <tt>UserCapsNodeListener</tt> elements explicitly
      * defined in order to reduce unnecessary allocations.
@@ -74,10 +87,27 @@ public class EntityCapsManager
      * the hash method is also associated with the entity capabilities along
      * with the node and the ver in order to disambiguate cases of equal ver
      * values for different entity capabilities constructed using different hash
-     * methods.
+     * methods. Only the most recently used ones are kept, the others are read
+     * again from {@link #capsStore} when needed.
      */
     private static final Map<Caps, DiscoverInfo> caps2discoverInfo
-        = new ConcurrentHashMap<Caps, DiscoverInfo>();
+        = new LinkedHashMap<Caps, DiscoverInfo>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Caps, DiscoverInfo> eldest)
+            {
+                return size() > MAX_DISCOVER_INFOS;
+            }
+        };
+
+    /**
+     * The <tt>EntityCapsStore</tt> which remembers the entity capabilities
+     * across application instances. Created when first needed.
+     */
+    private static EntityCapsStore capsStore;
 
     /**
      * Map of Full JID -&gt; DiscoverInfo/null. In case of c2s connection the
@@ -138,41 +168,139 @@ public class EntityCapsManager
 
         synchronized (caps2discoverInfo)
         {
-            DiscoverInfo oldInfo = caps2discoverInfo.put(caps, info);
+            caps2discoverInfo.put(caps, info);
 
             /*
              * If the specified info is a new association for the specified
              * node, remember it across application instances in order to not
-             * query for it over the network.
+             * query for it over the network. The ver is a hash of the info so
+             * a known association does not have to be written again.
              */
-            if ((oldInfo == null) || !oldInfo.equals(info))
+            EntityCapsStore store = getCapsStore();
+            String key = getCapsKey(caps);
+
+            if (!store.contains(key))
             {
                 String xml = info.getChildElementXML();
 
                 if ((xml != null) && (xml.length() != 0))
+                    store.put(key, xml);
+            }
+        }
+    }
+
+    /**
+     * Gets the key in {@link #capsStore} which is or is to be associated with
+     * a specific <tt>Caps</tt> value. It is also the suffix of the name of the
+     * <tt>ConfigurationService</tt> property which used to be associated with
+     * it.
+     *
+     * @param caps the <tt>Caps</tt> value for which the associated key is to be
+     * returned
+     * @return the key in {@link #capsStore} which is or is to be associated
+     * with a specific <tt>Caps</tt> value
+     */
+    private static String getCapsKey(Caps caps)
+    {
+        return caps.node + '#' + caps.hash + '#' + caps.ver;
+    }
+
+    /**
+     * Gets the <tt>EntityCapsStore</tt> which remembers the entity
+     * capabilities across application instances, creating it and moving to it
+     * the entity capabilities remembered in the <tt>ConfigurationService</tt>
+     * by previous versions if necessary.
+     *
+     * @return the <tt>EntityCapsStore</tt> which remembers the entity
+     * capabilities across application instances
+     */
+    private static synchronized EntityCapsStore getCapsStore()
+    {
+        if (capsStore == null)
+        {
+            File file = null;
+
+            try
+            {
+                FileAccessService fileAccessService
+                    = JabberActivator.getFileAccessService();
+
+                if (fileAccessService != null)
                 {
-                    JabberActivator
-                        .getConfigurationService()
-                            .setProperty(getCapsPropertyName(caps), xml);
+                    file
+                        = fileAccessService.getPrivatePersistentFile(
+                                CAPS_STORE_FILE_NAME);
                 }
             }
+            catch (Exception ex)
+            {
+                logger.warn(
+                        "Entity capabilities will only be remembered in memory",
+                        ex);
+            }
+            capsStore = new EntityCapsStore(file);
+
+            if (file != null)
+            {
+                migrateCapsProperties(
+                        JabberActivator.getConfigurationService(),
+                        capsStore);
+            }
         }
+        return capsStore;
     }
 
     /**
-     * Gets the name of the property in the <tt>ConfigurationService</tt> which
-     * is or is to be associated with a specific <tt>Caps</tt> value.
+     * Moves the entity capabilities remembered as
+     * <tt>ConfigurationService</tt> properties by previous versions to a
+     * specific <tt>EntityCapsStore</tt>, removing the properties with a single
+     * save of the configuration.
      *
-     * @param caps the <tt>Caps</tt> value for which the associated
-     * <tt>ConfigurationService</tt> property name is to be returned
-     * @return the name of the property in the <tt>ConfigurationService</tt>
-     * which is or is to be associated with a specific <tt>Caps</tt> value
+     * @param configurationService the <tt>ConfigurationService</tt> to move
+     * the entity capabilities out of
+     * @param store the <tt>EntityCapsStore</tt> to move the entity
+     * capabilities to
      */
-    private static String getCapsPropertyName(Caps caps)
+    public static void migrateCapsProperties(
+            ConfigurationService configurationService,
+            EntityCapsStore store)
     {
-        return
-            CAPS_PROPERTY_NAME_PREFIX
-                + caps.node + '#' + caps.hash + '#' + caps.ver;
+        if (configurationService == null)
+            return;
+
+        List<String> propertyNames
+            = configurationService.getPropertyNamesByPrefix(
+                    CAPS_PROPERTY_NAME_PREFIX,
+                    false);
+
+        if ((propertyNames == null) || propertyNames.isEmpty())
+            return;
+
+        Map<String, String> entries = new HashMap<String, String>();
+        Map<String, Object> removed = new HashMap<String, Object>();
+
+        for (String propertyName : propertyNames)
+        {
+            String xml = configurationService.getString(propertyName);
+
+            if ((xml != null) && (xml.length() != 0))
+            {
+                entries.put(
+                        propertyName.substring(
+                                CAPS_PROPERTY_NAME_PREFIX.length()),
+                        xml);
+            }
+            removed.put(propertyName, null);
+        }
+        store.putAll(entries);
+        configurationService.setProperties(removed);
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info(
+                    "Moved " + entries.size()
+                        + " entity capabilities out of the configuration");
+        }
     }
 
     /**
@@ -420,75 +548,34 @@ public class EntityCapsManager
              */
             if (discoverInfo == null)
             {
-                ConfigurationService configurationService
-                    = JabberActivator.getConfigurationService();
-                String capsPropertyName = getCapsPropertyName(caps);
-                String xml = configurationService.getString(capsPropertyName);
+                EntityCapsStore store = getCapsStore();
+                String key = getCapsKey(caps);
+                String xml = store.get(key);
 
                 if ((xml != null) && (xml.length() != 0))
                 {
-                    IQProvider discoverInfoProvider
-                        = (IQProvider)
-                            ProviderManager.getInstance().getIQProvider(
-                                    "query",
-                                    "http://jabber.org/protocol/disco#info");
+                    discoverInfo = parseDiscoverInfo(xml);
 
-                    if (discoverInfoProvider != null)
+                    if (discoverInfo != null)
                     {
-                        XmlPullParser parser = new MXParser();
-
-                        try
+                        if (caps.isValid(discoverInfo))
+                            caps2discoverInfo.put(caps, discoverInfo);
+                        else
                         {
-                            parser.setFeature(
-                                    XmlPullParser.FEATURE_PROCESS_NAMESPACES,
-                                    true);
-                            parser.setInput(new StringReader(xml));
-                            // Start the parser.
-                            parser.next();
-                        }
-                        catch (XmlPullParserException xppex)
-                        {
-                            parser = null;
-                        }
-                        catch (IOException ioex)
-                        {
-                            parser = null;
-                        }
-
-                        if (parser != null)
-                        {
-                            try
-                            {
-                                discoverInfo
-                                    = (DiscoverInfo)
-                                        discoverInfoProvider.parseIQ(parser);
-                            }
-                            catch (Exception ex)
-                            {
-                            }
-
-                            if (discoverInfo != null)
-                            {
-                                if (caps.isValid(discoverInfo))
-                                    caps2discoverInfo.put(caps, discoverInfo);
-                                else
-                                {
-                                    logger.error(
-                                            "Invalid DiscoverInfo for "
-                                                + caps.getNodeVer()
-                                                + ": "
-                                                + discoverInfo);
-                                    /*
-                                     * The discoverInfo doesn't seem valid
-                                     * according to the caps which means that we
-                                     * must have stored invalid information.
-                                     * Delete the invalid information in order
-                                     * to not try to validate it again.
-                                     */
-                                    configurationService.removeProperty(
-                                            capsPropertyName);
-                                }
-                            }
+                            logger.error(
+                                    "Invalid DiscoverInfo for "
+                                        + caps.getNodeVer()
+                                        + ": "
+                                        + discoverInfo);
+                            /*
+                             * The discoverInfo doesn't seem valid according to
+                             * the caps which means that we must have stored
+                             * invalid information. Delete the invalid
+                             * information in order to not try to validate it
+                             * again.
+                             */
+                            store.remove(key);
+                            discoverInfo = null;
                         }
                     }
                 }
@@ -497,6 +584,52 @@ public class EntityCapsManager
         }
     }
 
+    /**
+     * Parses the XML of a <tt>DiscoverInfo</tt>.
+     *
+     * @param xml the XML of the <tt>DiscoverInfo</tt>
+     * @return the <tt>DiscoverInfo</tt> or <tt>null</tt> if <tt>xml</tt> cannot
+     * be parsed
+     */
+    private static DiscoverInfo parseDiscoverInfo(String xml)
+    {
+        IQProvider discoverInfoProvider
+            = (IQProvider)
+                ProviderManager.getInstance().getIQProvider(
+                        "query",
+                        "http://jabber.org/protocol/disco#info");
+
+        if (discoverInfoProvider == null)
+            return null;
+
+        XmlPullParser parser = new MXParser();
+
+        try
+        {
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(new StringReader(xml));
+            // Start the parser.
+            parser.next();
+        }
+        catch (XmlPullParserException xppex)
+        {
+            return null;
+        }
+        catch (IOException ioex)
+        {
+            return null;
+        }
+
+        try
+        {
+            return (DiscoverInfo) discoverInfoProvider.parseIQ(parser);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
     /**
      * Removes from, to and packet-id from <tt>info</tt>.
      *
@@ -981,6 +1114,42 @@ public class EntityCapsManager
             return nodeVer;
         }
 
+        /**
+         * Determines whether a specific object is a <tt>Caps</tt> value with
+         * the same node, hash (algorithm) and ver as this one. The ext is not
+         * compared because it does not take part in the ver.
+         *
+         * @param obj the object to compare to this <tt>Caps</tt> value
+         * @return <tt>true</tt> if <tt>obj</tt> is a <tt>Caps</tt> value with
+         * the same node, hash and ver as this one; otherwise, <tt>false</tt>
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof Caps))
+                return false;
+
+            Caps caps = (Caps) obj;
+
+            return
+                nodeVer.equals(caps.nodeVer)
+                    && hash.equals(caps.hash);
+        }
+
+        /**
+         * Returns a hash code value for this <tt>Caps</tt> value, computed from
+         * its node, hash (algorithm) and ver.
+         *
+         * @return a hash code value for this <tt>Caps</tt> value
+         */
+        @Override
+        public int hashCode()
+        {
+            return nodeVer.hashCode() ^ hash.hashCode();
+        }
+
         /**
          * Determines whether a specific <tt>DiscoverInfo</tt> is valid
          * according to this <tt>Caps</tt> i.e. whether the
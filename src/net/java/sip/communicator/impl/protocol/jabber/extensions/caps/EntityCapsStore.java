@@ -0,0 +1,666 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.caps;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Remembers the disco#info XML of entity capabilities across application
+ * instances, keyed by node, hash and ver, so that it does not have to be
+ * queried over the network again.
+ * <p>
+ * The XML is kept in a single append-only file of records: an entry is added
+ * by appending it, marked as used by appending a small record at most once a
+ * day and removed by appending a removal record. Only the index of the
+ * entries, i.e. their keys, the day they were last used and the position of
+ * their XML in the file, is kept in memory and it is read from the file when
+ * first needed. Entries which have not been used for {@link #EXPIRY_DAYS}
+ * days are dropped and the number of entries is bounded, the least recently
+ * used being dropped first. The file is rewritten without the dropped and
+ * superseded records when they take more space than the live ones. Without a
+ * file the entries are only kept in memory.
+ */
+public class EntityCapsStore
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>EntityCapsStore</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(EntityCapsStore.class);
+
+    /**
+     * The number of days after which an entry which has not been used is
+     * dropped.
+     */
+    public static final int EXPIRY_DAYS = 90;
+
+    /**
+     * The maximum number of entries.
+     */
+    public static final int MAX_ENTRIES = 2048;
+
+    /**
+     * The value identifying the format of the file.
+     */
+    private static final int MAGIC = 0x43415053;
+
+    /**
+     * The type of the record adding an entry.
+     */
+    private static final byte PUT = 1;
+
+    /**
+     * The type of the record marking an entry as used.
+     */
+    private static final byte TOUCH = 2;
+
+    /**
+     * The type of the record removing an entry.
+     */
+    private static final byte REMOVE = 3;
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * The file the entries are kept in or <tt>null</tt>.
+     */
+    private final File file;
+
+    /**
+     * The entries by key, the least recently used first.
+     */
+    private final LinkedHashMap<String, Record> index
+        = new LinkedHashMap<String, Record>(16, 0.75f, true);
+
+    /**
+     * Whether the index has been read from the file.
+     */
+    private boolean loaded = false;
+
+    /**
+     * The number of bytes of the file taken by the XML of the live entries.
+     */
+    private long liveLength = 0;
+
+    /**
+     * The length of the file.
+     */
+    private long fileLength = 0;
+
+    /**
+     * Creates a store.
+     *
+     * @param file the file to keep the entries in or <tt>null</tt> to keep
+     * them only in memory
+     */
+    public EntityCapsStore(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Determines whether there is an entry for a specific key.
+     *
+     * @param key the node, hash and ver of the entry
+     * @return <tt>true</tt> if there is an entry for <tt>key</tt>
+     */
+    public synchronized boolean contains(String key)
+    {
+        load();
+        return index.containsKey(key);
+    }
+
+    /**
+     * Returns the XML of an entry and marks it as used.
+     *
+     * @param key the node, hash and ver of the entry
+     * @return the XML of the entry or <tt>null</tt> if there is none
+     */
+    public synchronized String get(String key)
+    {
+        load();
+
+        Record record = index.get(key);
+
+        if (record == null)
+            return null;
+
+        String xml = record.xml;
+
+        if (xml == null)
+        {
+            try
+            {
+                xml = read(record);
+            }
+            catch (IOException ioe)
+            {
+                logger.error("Failed to read entity capabilities " + key, ioe);
+                remove(key);
+                return null;
+            }
+        }
+
+        int today = today();
+
+        if (record.day < today)
+        {
+            record.day = today;
+            append(TOUCH, key, today, null);
+        }
+        return xml;
+    }
+
+    /**
+     * Adds or replaces an entry.
+     *
+     * @param key the node, hash and ver of the entry
+     * @param xml the XML of the entry
+     */
+    public synchronized void put(String key, String xml)
+    {
+        load();
+        putRecord(key, xml, today());
+        trim(true);
+        compactIfNecessary();
+    }
+
+    /**
+     * Adds several entries at once, only writing the file once.
+     *
+     * @param entries the XML of the entries by node, hash and ver
+     */
+    public synchronized void putAll(Map<String, String> entries)
+    {
+        load();
+
+        int today = today();
+
+        for (Map.Entry<String, String> e : entries.entrySet())
+        {
+            if (!index.containsKey(e.getKey()))
+                index.put(e.getKey(), new Record(today, e.getValue()));
+        }
+        trim(false);
+        compact();
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key the node, hash and ver of the entry
+     */
+    public synchronized void remove(String key)
+    {
+        load();
+
+        Record record = index.remove(key);
+
+        if (record != null)
+        {
+            liveLength -= record.length;
+            append(REMOVE, key, 0, null);
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size()
+    {
+        load();
+        return index.size();
+    }
+
+    /**
+     * Adds or replaces an entry and appends it to the file.
+     *
+     * @param key the node, hash and ver of the entry
+     * @param xml the XML of the entry
+     * @param day the day the entry has been last used
+     */
+    private void putRecord(String key, String xml, int day)
+    {
+        Record record = new Record(day, xml);
+        Record oldRecord = index.put(key, record);
+
+        if (oldRecord != null)
+            liveLength -= oldRecord.length;
+
+        long position = append(PUT, key, day, xml);
+
+        // keep the XML in memory if it could not be written
+        if (position >= 0)
+        {
+            record.xml = null;
+            record.position = position;
+            record.length = (int) (fileLength - position);
+            liveLength += record.length;
+        }
+    }
+
+    /**
+     * Drops the least recently used entries if there are too many.
+     *
+     * @param append <tt>true</tt> to append the removal of the dropped entries
+     * to the file, <tt>false</tt> if the file is about to be rewritten
+     */
+    private void trim(boolean append)
+    {
+        Iterator<Map.Entry<String, Record>> iter
+            = index.entrySet().iterator();
+
+        while ((index.size() > MAX_ENTRIES) && iter.hasNext())
+        {
+            Map.Entry<String, Record> e = iter.next();
+
+            liveLength -= e.getValue().length;
+            iter.remove();
+            if (append)
+                append(REMOVE, e.getKey(), 0, null);
+        }
+    }
+
+    /**
+     * Reads the index from the file the first time it is needed, dropping the
+     * expired entries.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        if ((file == null) || !file.isFile())
+            return;
+
+        long length = file.length();
+        long position = 0;
+        List<Map.Entry<String, Record>> records
+            = new ArrayList<Map.Entry<String, Record>>();
+        Map<String, Record> recordsByKey = new HashMap<String, Record>();
+
+        try
+        {
+            DataInputStream in
+                = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                if (in.readInt() != MAGIC)
+                    throw new IOException("Not an entity capabilities file");
+                position = 4;
+
+                while (true)
+                {
+                    byte type;
+
+                    try
+                    {
+                        type = in.readByte();
+                    }
+                    catch (EOFException eofe)
+                    {
+                        break;
+                    }
+
+                    byte[] keyBytes = new byte[in.readUnsignedShort()];
+
+                    in.readFully(keyBytes);
+
+                    String key = new String(keyBytes, "UTF-8");
+                    int day = in.readInt();
+                    long recordEnd = position + 1 + 2 + keyBytes.length + 4;
+
+                    if (type == PUT)
+                    {
+                        int xmlLength = in.readInt();
+
+                        recordEnd += 4 + xmlLength;
+                        // skipping does not stop at the end of the file
+                        if ((xmlLength < 0) || (recordEnd > length))
+                            throw new EOFException();
+                        in.skipBytes(xmlLength);
+
+                        Record record = new Record(day, null);
+
+                        record.position = position;
+                        record.length = (int) (recordEnd - position);
+                        recordsByKey.put(key, record);
+                    }
+                    else if (type == TOUCH)
+                    {
+                        Record record = recordsByKey.get(key);
+
+                        if (record != null)
+                            record.day = Math.max(record.day, day);
+                    }
+                    else if (type == REMOVE)
+                        recordsByKey.remove(key);
+                    else
+                        throw new IOException("Unknown record type " + type);
+                    position = recordEnd;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (EOFException eofe)
+        {
+            // a record was being written when the application stopped
+            logger.warn("Truncated entity capabilities file " + file);
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Failed to read entity capabilities file " + file,
+                    ioe);
+            recordsByKey.clear();
+            position = 0;
+        }
+
+        records.addAll(recordsByKey.entrySet());
+        Collections.sort(
+                records,
+                new Comparator<Map.Entry<String, Record>>()
+                {
+                    public int compare(
+                            Map.Entry<String, Record> e1,
+                            Map.Entry<String, Record> e2)
+                    {
+                        Record r1 = e1.getValue();
+                        Record r2 = e2.getValue();
+
+                        if (r1.day != r2.day)
+                            return r1.day - r2.day;
+                        return
+                            (r1.position < r2.position)
+                                ? -1
+                                : ((r1.position == r2.position) ? 0 : 1);
+                    }
+                });
+
+        int oldest = today() - EXPIRY_DAYS;
+
+        for (Map.Entry<String, Record> e : records)
+        {
+            Record record = e.getValue();
+
+            if (record.day >= oldest)
+            {
+                index.put(e.getKey(), record);
+                liveLength += record.length;
+            }
+        }
+        fileLength = position;
+        trim(false);
+
+        if ((index.size() != recordsByKey.size()) || (position != length))
+            compact();
+        else
+            compactIfNecessary();
+    }
+
+    /**
+     * Rewrites the file if the dropped and superseded records take more space
+     * than the live ones.
+     */
+    private void compactIfNecessary()
+    {
+        if ((file != null)
+                && (fileLength > 4096)
+                && (fileLength > 2 * liveLength))
+            compact();
+    }
+
+    /**
+     * Rewrites the file with the live entries only, through a temporary file
+     * so that a failed write does not lose them.
+     */
+    private void compact()
+    {
+        if (file == null)
+            return;
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            Map<String, String> xmls = new HashMap<String, String>();
+
+            for (Map.Entry<String, Record> e : index.entrySet())
+            {
+                Record record = e.getValue();
+
+                xmls.put(
+                        e.getKey(),
+                        (record.xml == null) ? read(record) : record.xml);
+            }
+
+            DataOutputStream out
+                = new DataOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(tmpFile)));
+            Map<String, long[]> extents = new HashMap<String, long[]>();
+
+            try
+            {
+                out.writeInt(MAGIC);
+                for (Map.Entry<String, Record> e : index.entrySet())
+                {
+                    String key = e.getKey();
+                    long position = out.size();
+
+                    writeRecord(
+                            out,
+                            PUT, key, e.getValue().day, xmls.get(key));
+                    extents.put(
+                            key,
+                            new long[] { position, out.size() - position });
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+                throw new IOException("Failed to rename " + tmpFile);
+
+            fileLength = 4;
+            liveLength = 0;
+            for (Map.Entry<String, Record> e : index.entrySet())
+            {
+                Record record = e.getValue();
+                long[] extent = extents.get(e.getKey());
+
+                record.xml = null;
+                record.position = extent[0];
+                record.length = (int) extent[1];
+                fileLength += record.length;
+                liveLength += record.length;
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.error(
+                    "Failed to write entity capabilities file " + file,
+                    ioe);
+            if (tmpFile.exists() && !tmpFile.delete())
+                logger.warn("Failed to delete " + tmpFile);
+        }
+    }
+
+    /**
+     * Appends a record to the file.
+     *
+     * @param type the type of the record
+     * @param key the node, hash and ver of the entry of the record
+     * @param day the day the entry has been last used
+     * @param xml the XML of the entry if <tt>type</tt> is {@link #PUT}
+     * @return the position of the record in the file or <tt>-1</tt> if it
+     * could not be appended
+     */
+    private long append(byte type, String key, int day, String xml)
+    {
+        if (file == null)
+            return -1;
+
+        try
+        {
+            boolean create = !file.isFile() || (fileLength == 0);
+            DataOutputStream out
+                = new DataOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(file, !create)));
+            long position;
+
+            try
+            {
+                if (create)
+                {
+                    out.writeInt(MAGIC);
+                    fileLength = out.size();
+                }
+                position = fileLength;
+                writeRecord(out, type, key, day, xml);
+                fileLength += out.size() - (create ? 4 : 0);
+            }
+            finally
+            {
+                out.close();
+            }
+            return position;
+        }
+        catch (IOException ioe)
+        {
+            logger.error(
+                    "Failed to write entity capabilities file " + file,
+                    ioe);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the XML of an entry from the file.
+     *
+     * @param record the record of the entry
+     * @return the XML of the entry
+     * @throws IOException if the file cannot be read
+     */
+    private String read(Record record)
+        throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try
+        {
+            in.seek(record.position);
+            if (in.readByte() != PUT)
+                throw new IOException("Not an entry at " + record.position);
+            in.skipBytes(in.readUnsignedShort() + 4);
+
+            byte[] xml = new byte[in.readInt()];
+
+            in.readFully(xml);
+            return new String(xml, "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a record.
+     *
+     * @param out the stream to write the record to
+     * @param type the type of the record
+     * @param key the node, hash and ver of the entry of the record
+     * @param day the day the entry has been last used
+     * @param xml the XML of the entry if <tt>type</tt> is {@link #PUT}
+     * @throws IOException if the record cannot be written
+     */
+    private static void writeRecord(
+            DataOutputStream out,
+            byte type,
+            String key,
+            int day,
+            String xml)
+        throws IOException
+    {
+        byte[] keyBytes = key.getBytes("UTF-8");
+
+        if (keyBytes.length > 0xFFFF)
+            throw new IOException("Key too long: " + key);
+        out.writeByte(type);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(day);
+        if (type == PUT)
+        {
+            byte[] xmlBytes = xml.getBytes("UTF-8");
+
+            out.writeInt(xmlBytes.length);
+            out.write(xmlBytes);
+        }
+    }
+
+    /**
+     * Returns the current day.
+     *
+     * @return the number of days since the epoch
+     */
+    private static int today()
+    {
+        return (int) (System.currentTimeMillis() / DAY);
+    }
+
+    /**
+     * An entry of the store.
+     */
+    private static class Record
+    {
+        /**
+         * The day the entry has been last used, in days since the epoch.
+         */
+        int day;
+
+        /**
+         * The XML of the entry if it is not in the file, <tt>null</tt>
+         * otherwise.
+         */
+        String xml;
+
+        /**
+         * The position of the record of the entry in the file.
+         */
+        long position;
+
+        /**
+         * The length of the record of the entry in the file.
+         */
+        int length;
+
+        Record(int day, String xml)
+        {
+            this.day = day;
+            this.xml = xml;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+import javax.sip.header.*;
+
+import org.jitsi.util.xml.XMLUtils;
+import org.w3c.dom.*;
+
+/**
+ * The body of a NOTIFY sent by a resource list server as described in RFC 4662
+ * "A Session Initiation Protocol (SIP) Event Notification Extension for
+ * Resource Lists": a multipart/related body whose root part is a Resource
+ * List Meta-Information (RLMI) document listing the resources of the list and
+ * the state of their virtual subscriptions, and whose other parts are the
+ * event package bodies of the resources, referenced by their Content-ID. A
+ * resource which is itself a list has a nested multipart/related part of the
+ * same form, whose resources are reported in place of the list.
+ */
+public class EventListNotification
+{
+    /**
+     * The content type of a NOTIFY carrying the state of a resource list.
+     */
+    static final String MULTIPART = "multipart";
+
+    /**
+     * The content subtype of a NOTIFY carrying the state of a resource list.
+     */
+    static final String RELATED = "related";
+
+    /**
+     * The content subtype of the root part of a NOTIFY carrying the state of a
+     * resource list.
+     */
+    static final String RLMI_XML = "rlmi+xml";
+
+    /**
+     * The option tag of the resource list extension.
+     */
+    static final String EVENTLIST = "eventlist";
+
+    private static final String RLMI_NS_VALUE = "urn:ietf:params:xml:ns:rlmi";
+    private static final String LIST_ELEMENT = "list";
+    private static final String RESOURCE_ELEMENT = "resource";
+    private static final String INSTANCE_ELEMENT = "instance";
+    private static final String URI_ATTRIBUTE = "uri";
+    private static final String VERSION_ATTRIBUTE = "version";
+    private static final String FULL_STATE_ATTRIBUTE = "fullState";
+    private static final String STATE_ATTRIBUTE = "state";
+    private static final String CID_ATTRIBUTE = "cid";
+
+    /**
+     * The version of the RLMI document.
+     */
+    private final int version;
+
+    /**
+     * Whether the notification carries the state of all the resources of the
+     * list or only of the ones which have changed.
+     */
+    private final boolean fullState;
+
+    /**
+     * The resources the notification carries the state of.
+     */
+    private final List<Resource> resources = new ArrayList<Resource>();
+
+    /**
+     * Parses the body of a NOTIFY carrying the state of a resource list.
+     *
+     * @param contentType the Content-Type header of the NOTIFY
+     * @param content the body of the NOTIFY
+     * @throws IOException if the body is not a valid resource list
+     * notification
+     */
+    public EventListNotification(ContentTypeHeader contentType,
+                                 byte[] content)
+        throws IOException
+    {
+        this(
+                contentType.getParameter("boundary"),
+                contentType.getParameter("start"),
+                content);
+    }
+
+    /**
+     * Parses a multipart/related body carrying the state of a resource list.
+     *
+     * @param boundary the boundary parameter of the content type of the body
+     * @param start the start parameter of the content type of the body or
+     * <tt>null</tt> if the root part is the first one
+     * @param content the body
+     * @throws IOException if the body is not a valid resource list
+     * notification
+     */
+    public EventListNotification(String boundary, String start,
+                                 byte[] content)
+        throws IOException
+    {
+        if (boundary == null)
+            throw new IOException("No boundary in the multipart body");
+
+        Map<String, byte[]> parts = new HashMap<String, byte[]>();
+        Map<String, String> partTypes = new HashMap<String, String>();
+        byte[] root = null;
+
+        start = unquote(start);
+        for (byte[] part : split(content, boundary))
+        {
+            Map<String, String> headers = new HashMap<String, String>();
+            int bodyStart = parseHeaders(part, headers);
+            byte[] body = Arrays.copyOfRange(part, bodyStart, part.length);
+            String contentID = unquote(headers.get("content-id"));
+
+            // the root part is the one with the start Content-ID or the first
+            if ((root == null)
+                    && ((start == null) || start.equals(contentID)))
+                root = body;
+            else if (contentID != null)
+            {
+                parts.put(contentID, body);
+                partTypes.put(contentID, headers.get("content-type"));
+            }
+        }
+
+        if (root == null)
+            throw new IOException("No RLMI document in the notification");
+
+        Element list;
+
+        try
+        {
+            list = XMLUtils.createDocument(new String(root, "UTF-8"))
+                .getDocumentElement();
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Invalid RLMI document", e);
+        }
+
+        if (!LIST_ELEMENT.equals(list.getLocalName()))
+            throw new IOException("No list element in the RLMI document");
+
+        try
+        {
+            version = Integer.parseInt(list.getAttribute(VERSION_ATTRIBUTE));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Invalid RLMI version", e);
+        }
+        fullState
+            = Boolean.parseBoolean(list.getAttribute(FULL_STATE_ATTRIBUTE));
+
+        NodeList resourceNodes
+            = list.getElementsByTagNameNS(RLMI_NS_VALUE, RESOURCE_ELEMENT);
+
+        for (int i = 0; i < resourceNodes.getLength(); i++)
+        {
+            Element resource = (Element) resourceNodes.item(i);
+            String uri = resource.getAttribute(URI_ATTRIBUTE);
+            NodeList instances
+                = resource.getElementsByTagNameNS(
+                        RLMI_NS_VALUE,
+                        INSTANCE_ELEMENT);
+            String state = null;
+            byte[] body = null;
+            String bodyType = null;
+
+            // a resource can have several instances, the active one wins
+            for (int j = 0; j < instances.getLength(); j++)
+            {
+                Element instance = (Element) instances.item(j);
+                String instanceState = instance.getAttribute(STATE_ATTRIBUTE);
+                String cid = instance.getAttribute(CID_ATTRIBUTE);
+                byte[] instanceBody = parts.get(cid);
+
+                if ((state == null)
+                        || SubscriptionStateHeader.ACTIVE.equalsIgnoreCase(
+                                instanceState))
+                {
+                    state = instanceState;
+                    if (instanceBody != null)
+                    {
+                        body = instanceBody;
+                        bodyType = partTypes.get(cid);
+                    }
+                }
+            }
+
+            if ((body != null) && isEventList(bodyType))
+            {
+                // a nested list, it is not a contact of ours but its
+                // resources are
+                resources.addAll(
+                        new EventListNotification(
+                                getParameter(bodyType, "boundary"),
+                                getParameter(bodyType, "start"),
+                                body)
+                            .getResources());
+            }
+            else
+                resources.add(new Resource(uri, state, body));
+        }
+    }
+
+    /**
+     * Returns the version of the RLMI document.
+     *
+     * @return the version of the RLMI document
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Determines whether the notification carries the state of all the
+     * resources of the list or only of the ones which have changed.
+     *
+     * @return <tt>true</tt> if the notification carries the state of all the
+     * resources of the list
+     */
+    public boolean isFullState()
+    {
+        return fullState;
+    }
+
+    /**
+     * Returns the resources the notification carries the state of.
+     *
+     * @return the resources the notification carries the state of
+     */
+    public List<Resource> getResources()
+    {
+        return resources;
+    }
+
+    /**
+     * Determines whether a NOTIFY carries the state of a resource list.
+     *
+     * @param contentType the Content-Type header of the NOTIFY
+     * @return <tt>true</tt> if the NOTIFY carries a multipart/related body
+     */
+    public static boolean isEventList(ContentTypeHeader contentType)
+    {
+        return (contentType != null)
+            && MULTIPART.equalsIgnoreCase(contentType.getContentType())
+            && RELATED.equalsIgnoreCase(contentType.getContentSubType());
+    }
+
+    /**
+     * Determines whether a part of a multipart body is a nested resource list
+     * notification.
+     *
+     * @param contentType the Content-Type header of the part or <tt>null</tt>
+     * @return <tt>true</tt> if the part is a multipart/related body
+     */
+    private static boolean isEventList(String contentType)
+    {
+        if (contentType == null)
+            return false;
+
+        int end = contentType.indexOf(';');
+
+        return (MULTIPART + "/" + RELATED).equalsIgnoreCase(
+                ((end < 0) ? contentType : contentType.substring(0, end))
+                    .trim());
+    }
+
+    /**
+     * Returns a parameter of a Content-Type header.
+     *
+     * @param contentType the Content-Type header
+     * @param name the name of the parameter
+     * @return the value of the parameter, quotes included, or <tt>null</tt>
+     * if there is no such parameter
+     */
+    private static String getParameter(String contentType, String name)
+    {
+        String[] parameters = contentType.split(";");
+
+        for (int i = 1; i < parameters.length; i++)
+        {
+            int equals = parameters[i].indexOf('=');
+
+            if ((equals > 0)
+                    && name.equalsIgnoreCase(
+                            parameters[i].substring(0, equals).trim()))
+                return parameters[i].substring(equals + 1).trim();
+        }
+        return null;
+    }
+
+    /**
+     * Splits a multipart body into its parts.
+     *
+     * @param content the multipart body
+     * @param boundary the boundary of the parts
+     * @return the parts, headers included
+     * @throws IOException if the body is not terminated
+     */
+    private static List<byte[]> split(byte[] content, String boundary)
+        throws IOException
+    {
+        byte[] delimiter = ("--" + unquote(boundary)).getBytes("US-ASCII");
+        List<byte[]> parts = new ArrayList<byte[]>();
+        int index = indexOfDelimiter(content, delimiter, 0);
+
+        while (index >= 0)
+        {
+            int partStart = index + delimiter.length;
+
+            // the close delimiter
+            if (partStart + 1 < content.length
+                    && content[partStart] == '-'
+                    && content[partStart + 1] == '-')
+                return parts;
+
+            partStart = skipLine(content, partStart);
+
+            int next = indexOfDelimiter(content, delimiter, partStart);
+
+            if (next < 0)
+                break;
+
+            // the CRLF before the delimiter belongs to it
+            int partEnd = next;
+
+            if (partEnd > partStart && content[partEnd - 1] == '\n')
+                partEnd--;
+            if (partEnd > partStart && content[partEnd - 1] == '\r')
+                partEnd--;
+            parts.add(Arrays.copyOfRange(content, partStart, partEnd));
+            index = next;
+        }
+        throw new IOException("Unterminated multipart body");
+    }
+
+    /**
+     * Parses the headers of a part.
+     *
+     * @param part the part
+     * @param headers the map to put the headers in, by lowercase name
+     * @return the index of the body of the part
+     */
+    private static int parseHeaders(byte[] part, Map<String, String> headers)
+        throws IOException
+    {
+        int index = 0;
+
+        while (index < part.length)
+        {
+            int next = skipLine(part, index);
+            String line = new String(part, index, next - index, "UTF-8").trim();
+
+            index = next;
+            if (line.length() == 0)
+                break;
+
+            int colon = line.indexOf(':');
+
+            if (colon > 0)
+                headers.put(
+                        line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the start of the line following the one containing
+     * a given index.
+     *
+     * @param content the bytes
+     * @param index the index
+     * @return the index of the start of the next line
+     */
+    private static int skipLine(byte[] content, int index)
+    {
+        while (index < content.length && content[index] != '\n')
+            index++;
+        return Math.min(index + 1, content.length);
+    }
+
+    /**
+     * Returns the index of the first delimiter of the parts of a multipart
+     * body, which is at the start of a line and followed by the end of the
+     * line or by the two hyphens of the close delimiter, so that a boundary
+     * which is the start of another one, e.g. the boundary of a nested part,
+     * is not taken for it.
+     *
+     * @param content the multipart body
+     * @param delimiter the two hyphens and the boundary
+     * @param from the index to start the search from
+     * @return the index of the delimiter in <tt>content</tt> or <tt>-1</tt>
+     */
+    private static int indexOfDelimiter(byte[] content, byte[] delimiter,
+                                        int from)
+    {
+        for (int index = indexOf(content, delimiter, from);
+                index >= 0;
+                index = indexOf(content, delimiter, index + 1))
+        {
+            if (index > 0 && content[index - 1] != '\n')
+                continue;
+
+            int end = index + delimiter.length;
+
+            if (end == content.length)
+                return index;
+
+            byte next = content[end];
+
+            if (next == '\r' || next == '\n' || next == ' ' || next == '\t'
+                    || (next == '-'
+                        && end + 1 < content.length
+                        && content[end + 1] == '-'))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a sequence of bytes.
+     *
+     * @param content the bytes to search
+     * @param pattern the sequence to search for
+     * @param from the index to start the search from
+     * @return the index of <tt>pattern</tt> in <tt>content</tt> or <tt>-1</tt>
+     */
+    private static int indexOf(byte[] content, byte[] pattern, int from)
+    {
+        outer:
+        for (int i = from; i <= content.length - pattern.length; i++)
+        {
+            for (int j = 0; j < pattern.length; j++)
+                if (content[i + j] != pattern[j])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the quotes and angle brackets around a header parameter or a
+     * Content-ID.
+     *
+     * @param value the value
+     * @return <tt>value</tt> without quotes and angle brackets
+     */
+    private static String unquote(String value)
+    {
+        if (value == null)
+            return null;
+
+        value = value.trim();
+        if (value.length() > 1 && value.startsWith("\"")
+                && value.endsWith("\""))
+            value = value.substring(1, value.length() - 1);
+        if (value.length() > 1 && value.startsWith("<")
+                && value.endsWith(">"))
+            value = value.substring(1, value.length() - 1);
+        return value;
+    }
+
+    /**
+     * The state of a resource of a list.
+     */
+    public static class Resource
+    {
+        /**
+         * The URI of the resource.
+         */
+        public final String uri;
+
+        /**
+         * The state of the virtual subscription to the resource, one of the
+         * states of the Subscription-State header.
+         */
+        public final String state;
+
+        /**
+         * The event package body of the resource or <tt>null</tt> if there is
+         * none.
+         */
+        public final byte[] content;
+
+        Resource(String uri, String state, byte[] content)
+        {
+            this.uri = uri;
+            this.state = state;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Follows the versions of the RLMI documents of the notifications of a
+ * resource list subscription (RFC 4662). Notifications older than the last
+ * one applied are ignored. A gap in the versions of partial notifications
+ * means changes have been missed, and the full state of the list is then
+ * requested once, until a notification carrying it arrives.
+ */
+public class EventListVersion
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>EventListVersion</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(EventListVersion.class);
+
+    /**
+     * The notification is older than the last one applied and is ignored.
+     */
+    public static final int IGNORE = 0;
+
+    /**
+     * The notification is applied.
+     */
+    public static final int APPLY = 1;
+
+    /**
+     * The notification is applied and the full state of the list is to be
+     * requested, notifications having been missed.
+     */
+    public static final int APPLY_AND_REQUEST_FULL_STATE = 2;
+
+    /**
+     * The version of the last notification applied.
+     */
+    private int version = -1;
+
+    /**
+     * Whether the full state of the list has been requested and not received
+     * yet.
+     */
+    private boolean fullStateRequested = false;
+
+    /**
+     * Determines what to do with a notification and takes its version as the
+     * last one applied unless it is ignored.
+     *
+     * @param newVersion the version of the RLMI document of the notification
+     * @param fullState whether the notification carries the full state of the
+     * list
+     * @return {@link #IGNORE}, {@link #APPLY} or
+     * {@link #APPLY_AND_REQUEST_FULL_STATE}
+     */
+    public synchronized int update(int newVersion, boolean fullState)
+    {
+        if (newVersion <= version)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug(
+                        "Ignoring resource list notification version "
+                            + newVersion);
+            return IGNORE;
+        }
+
+        int action = APPLY;
+
+        if (fullState)
+            fullStateRequested = false;
+        else if ((version >= 0)
+                && (newVersion != version + 1)
+                && !fullStateRequested)
+        {
+            logger.warn(
+                    "Missed resource list notifications "
+                        + (version + 1) + " to " + (newVersion - 1)
+                        + ", requesting the full state of the list");
+            fullStateRequested = true;
+            action = APPLY_AND_REQUEST_FULL_STATE;
+        }
+        version = newVersion;
+        return action;
+    }
+
+    /**
+     * Notes that the full state of the list could not be requested, so that
+     * it is requested again on the next gap.
+     */
+    public synchronized void fullStateRequestFailed()
+    {
+        fullStateRequested = false;
+    }
+}
@@ -444,6 +444,34 @@ public class EventPackageSubscriber
         }
         req.setHeader(accept);
 
+        // resource lists (rfc4662)
+        if (subscription.isEventList())
+        {
+            try
+            {
+                req.addHeader(
+                    headerFactory.createAcceptHeader(
+                        "application",
+                        EventListNotification.RLMI_XML));
+                req.addHeader(
+                    headerFactory.createAcceptHeader(
+                        EventListNotification.MULTIPART,
+                        EventListNotification.RELATED));
+                req.setHeader(
+                    headerFactory.createSupportedHeader(
+                        EventListNotification.EVENTLIST));
+            }
+            catch (ParseException e)
+            {
+                logger.error("wrong accept or supported header", e);
+                throw new OperationFailedException(
+                        "An unexpected error occurred while"
+                        + "constructing the eventlist headers",
+                        OperationFailedException.INTERNAL_ERROR,
+                        e);
+            }
+        }
+
         // Expires
         ExpiresHeader expHeader;
         try
@@ -566,7 +594,10 @@ public class EventPackageSubscriber
         ContentTypeHeader ctheader
             = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
         if ((ctheader != null)
-                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType))
+                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType)
+                && !((subscription != null)
+                        && subscription.isEventList()
+                        && EventListNotification.isEventList(ctheader)))
         {
             // send a 415 response (rfc3261)
             Response response;
@@ -1168,6 +1199,21 @@ public class EventPackageSubscriber
             super(toAddress, eventId);
         }
 
+        /**
+         * Determines whether this <tt>Subscription</tt> is to a resource list
+         * in the sense of RFC 4662 "A Session Initiation Protocol (SIP) Event
+         * Notification Extension for Resource Lists", in which case its
+         * SUBSCRIBE requests declare support for the extension and its NOTIFY
+         * requests may carry multipart/related bodies.
+         *
+         * @return <tt>true</tt> if this <tt>Subscription</tt> is to a resource
+         * list; otherwise, <tt>false</tt>
+         */
+        protected boolean isEventList()
+        {
+            return false;
+        }
+
         /**
          * Notifies this <tt>Subscription</tt> that an active NOTIFY
          * <tt>Request</tt> has been received and it may process the
@@ -701,7 +701,7 @@ public class EventPackageSupport
             if (this.timerTask != timerTask)
             {
                 if (this.timerTask != null)
-                    this.timerTask.cancel();
+                    TimerScheduler.cancelTask(this.timerTask);
 
                 this.timerTask = timerTask;
             }
@@ -0,0 +1,290 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.concurrent.*;
+
+/**
+ * A hashed wheel of short timeouts. Adding or cancelling a timeout takes
+ * constant time whatever the number of pending timeouts, which makes the wheel
+ * cheaper than a delay queue for the many short timeouts of the SIP stack that
+ * are cancelled before they expire.
+ * <p>
+ * The wheel is a ring of buckets, each holding the timeouts expiring in one
+ * tick. It is turned by a task of the given executor only while there are
+ * timeouts pending, and expired timeouts are run on the same executor. A
+ * timeout expires up to one tick after its delay.
+ */
+class HashedWheelTimer
+{
+    /**
+     * The executor turning the wheel and running the expired timeouts.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * The duration of a tick in nanoseconds.
+     */
+    private final long tickDuration;
+
+    /**
+     * The buckets of the wheel, each being the head of a doubly linked list
+     * of timeouts.
+     */
+    private final Timeout[] wheel;
+
+    /**
+     * The number of buckets minus one, the number of buckets being a power of
+     * two.
+     */
+    private final int mask;
+
+    /**
+     * The time the ticks are counted from.
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * The next tick to process.
+     */
+    private long currentTick = 0;
+
+    /**
+     * The number of pending timeouts.
+     */
+    private int pending = 0;
+
+    /**
+     * The task turning the wheel or <tt>null</tt> if the wheel is stopped.
+     */
+    private ScheduledFuture<?> ticker = null;
+
+    /**
+     * Turns the wheel by processing the ticks which have elapsed.
+     */
+    private final Runnable tick
+        = new Runnable()
+        {
+            public void run()
+            {
+                expireTimeouts();
+            }
+        };
+
+    /**
+     * Creates a wheel.
+     *
+     * @param executor the executor turning the wheel and running the expired
+     * timeouts
+     * @param tickDuration the duration of a tick in milliseconds
+     * @param ticksPerWheel the minimum number of buckets of the wheel, rounded
+     * up to a power of two
+     */
+    HashedWheelTimer(
+            ScheduledExecutorService executor,
+            long tickDuration,
+            int ticksPerWheel)
+    {
+        int size = 1;
+
+        while (size < ticksPerWheel)
+            size <<= 1;
+
+        this.executor = executor;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the longest delay the wheel holds without going round more than
+     * once.
+     *
+     * @return the span of the wheel in milliseconds
+     */
+    long getMaxDelay()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(tickDuration * wheel.length);
+    }
+
+    /**
+     * Schedules a task to run on the executor after a delay.
+     *
+     * @param task the task
+     * @param delay the delay in milliseconds
+     * @return the timeout which cancels <tt>task</tt>
+     */
+    synchronized Timeout newTimeout(Runnable task, long delay)
+    {
+        if (pending == 0)
+        {
+            // the wheel has not turned while stopped, skip what has elapsed
+            currentTick = elapsedTicks();
+            ticker
+                = executor.scheduleAtFixedRate(
+                        tick,
+                        tickDuration, tickDuration,
+                        TimeUnit.NANOSECONDS);
+        }
+
+        long deadline
+            = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+        long deadlineTick
+            = (deadline - startTime + tickDuration - 1) / tickDuration;
+
+        if (deadlineTick < currentTick)
+            deadlineTick = currentTick;
+
+        Timeout timeout = new Timeout(task);
+
+        timeout.bucket = (int) (deadlineTick & mask);
+        timeout.rounds = (deadlineTick - currentTick) / wheel.length;
+        timeout.next = wheel[timeout.bucket];
+        if (timeout.next != null)
+            timeout.next.previous = timeout;
+        wheel[timeout.bucket] = timeout;
+        pending++;
+
+        return timeout;
+    }
+
+    /**
+     * Processes the ticks which have elapsed, running the timeouts which have
+     * expired, and stops the wheel if no timeout is left.
+     */
+    private synchronized void expireTimeouts()
+    {
+        long elapsedTicks = elapsedTicks();
+
+        while (currentTick <= elapsedTicks && pending > 0)
+        {
+            int bucket = (int) (currentTick & mask);
+            Timeout timeout = wheel[bucket];
+
+            while (timeout != null)
+            {
+                Timeout next = timeout.next;
+
+                if (timeout.rounds <= 0)
+                {
+                    unlink(timeout);
+                    executor.execute(timeout.task);
+                }
+                else
+                    timeout.rounds--;
+                timeout = next;
+            }
+            currentTick++;
+        }
+
+        if (pending == 0 && ticker != null)
+        {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    /**
+     * Cancels a timeout unless it has already expired.
+     *
+     * @param timeout the timeout
+     * @return <tt>true</tt> if <tt>timeout</tt> has been cancelled before it
+     * expired
+     */
+    private synchronized boolean cancel(Timeout timeout)
+    {
+        if (timeout.bucket < 0)
+            return false;
+
+        unlink(timeout);
+        if (pending == 0 && ticker != null)
+        {
+            ticker.cancel(false);
+            ticker = null;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a timeout from its bucket.
+     *
+     * @param timeout the timeout
+     */
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.previous == null)
+            wheel[timeout.bucket] = timeout.next;
+        else
+            timeout.previous.next = timeout.next;
+        if (timeout.next != null)
+            timeout.next.previous = timeout.previous;
+
+        timeout.previous = timeout.next = null;
+        timeout.bucket = -1;
+        pending--;
+    }
+
+    /**
+     * Returns the number of ticks elapsed since the wheel was created.
+     *
+     * @return the number of ticks elapsed since the wheel was created
+     */
+    private long elapsedTicks()
+    {
+        return (System.nanoTime() - startTime) / tickDuration;
+    }
+
+    /**
+     * A task waiting in the wheel.
+     */
+    class Timeout
+    {
+        /**
+         * The task to run when the timeout expires.
+         */
+        private final Runnable task;
+
+        /**
+         * The bucket holding the timeout or <tt>-1</tt> once it has expired
+         * or has been cancelled.
+         */
+        private int bucket;
+
+        /**
+         * The number of times the wheel has to go round before the timeout
+         * expires.
+         */
+        private long rounds;
+
+        /**
+         * The previous timeout in the same bucket.
+         */
+        private Timeout previous;
+
+        /**
+         * The next timeout in the same bucket.
+         */
+        private Timeout next;
+
+        private Timeout(Runnable task)
+        {
+            this.task = task;
+        }
+
+        /**
+         * Cancels the timeout unless it has already expired.
+         *
+         * @return <tt>true</tt> if the timeout has been cancelled before it
+         * expired
+         */
+        boolean cancel()
+        {
+            return HashedWheelTimer.this.cancel(this);
+        }
+    }
+}
@@ -6,6 +6,7 @@
  */
 package net.java.sip.communicator.impl.protocol.sip;
 
+import java.io.*;
 import java.net.URI;
 import java.text.*;
 import java.util.*;
@@ -115,6 +116,14 @@ public class OperationSetPresenceSipImpl
      */
     private PollOfflineContactsTask pollingTask = null;
 
+    /**
+     * The subscription to the resource list server delivering the presence of
+     * all our contacts, if we use one instead of subscribing to our contacts
+     * one by one.
+     */
+    private volatile ResourceListSubscription resourceListSubscription
+        = null;
+
     /**
      * If we should be totally silenced, just doing local operations
      */
@@ -154,7 +163,6 @@ public class OperationSetPresenceSipImpl
     private static final String BASIC_ELEMENT   = "basic";
     private static final String CONTACT_ELEMENT = "contact";
     private static final String NOTE_ELEMENT    = "note";
-    private static final String PRIORITY_ATTRIBUTE  = "priority";
 
     // rpid elements and attributes
     private static final String RPID_NS_ELEMENT = "xmlns:rpid";
@@ -163,31 +171,37 @@ public class OperationSetPresenceSipImpl
     private static final String DM_NS_ELEMENT   = "xmlns:dm";
     private static final String DM_NS_VALUE     =
                                     "urn:ietf:params:xml:ns:pidf:data-model";
-    private static final String PERSON_ELEMENT  = "person";
     private static final String NS_PERSON_ELT   = "dm:person";
-    private static final String ACTIVITY_ELEMENT= "activities";
     private static final String NS_ACTIVITY_ELT = "rpid:activities";
-    private static final String AWAY_ELEMENT    = "away";
     private static final String NS_AWAY_ELT     = "rpid:away";
-    private static final String BUSY_ELEMENT    = "busy";
     private static final String NS_BUSY_ELT     = "rpid:busy";
-    private static final String OTP_ELEMENT     = "on-the-phone";
     private static final String NS_OTP_ELT      = "rpid:on-the-phone";
-    private static final String STATUS_ICON_ELEMENT = "status-icon";
     private static final String NS_STATUS_ICON_ELT  = "rpid:status-icon";
 
-    // namespace wildcard
-    private static final String ANY_NS          = "*";
+    /**
+     * The maximum number of serialised PIDF documents kept in
+     * {@link #pidfBodies}.
+     */
+    private static final int MAX_PIDF_BODIES = 16;
+
+    /**
+     * The PIDF documents last generated by {@link #getPidfPresenceStatus(
+     * ContactSipImpl)}, by contact URI, so that they are serialised again only
+     * when the presence status or the status icon of the contact change rather
+     * than for every PUBLISH and NOTIFY.
+     */
+    private final Map<String, PidfBody> pidfBodies
+        = new LinkedHashMap<String, PidfBody>(MAX_PIDF_BODIES, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
 
-    private static final String WATCHERINFO_NS_VALUE
-            = "urn:ietf:params:xml:ns:watcherinfo";
-    private static final String WATCHERINFO_ELEMENT= "watcherinfo";
-    private static final String STATE_ATTRIBUTE = "state";
-    private static final String VERSION_ATTRIBUTE = "version";
-    private static final String WATCHERLIST_ELEMENT= "watcher-list";
-    private static final String RESOURCE_ATTRIBUTE = "resource";
-    private static final String PACKAGE_ATTRIBUTE = "package";
-    private static final String WATCHER_ELEMENT= "watcher";
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, PidfBody> eldest)
+            {
+                return size() > MAX_PIDF_BODIES;
+            }
+        };
 
     /**
      * The <code>EventPackageNotifier</code> which provides the ability of this
@@ -424,7 +438,7 @@ public class OperationSetPresenceSipImpl
 
         if (!this.useDistantPA && (this.republishTask != null))
         {
-            this.republishTask.cancel();
+            TimerScheduler.cancelTask(this.republishTask);
             this.republishTask = null;
         }
     }
@@ -1261,7 +1275,7 @@ public class OperationSetPresenceSipImpl
 
                 // just to be sure to not have two refreshing task
                 if (this.republishTask != null)
-                    this.republishTask.cancel();
+                    TimerScheduler.cancelTask(this.republishTask);
 
                 this.republishTask = new RePublishTask();
 
@@ -1967,14 +1981,58 @@ public class OperationSetPresenceSipImpl
      * this contact or null if an error occurs.
      */
      public byte[] getPidfPresenceStatus(ContactSipImpl contact)
+     {
+         String contactUri = contact.getSipAddress().getURI().toString();
+         PresenceStatus presenceStatus = contact.getPresenceStatus();
+         URI imageUri = ssContactList.getImageUri();
+         PidfBody body;
+
+         synchronized (pidfBodies)
+         {
+             body = pidfBodies.get(contactUri);
+         }
+
+         if ((body == null)
+                 || !body.presenceStatus.equals(presenceStatus)
+                 || !isEquals(body.imageUri, imageUri))
+         {
+             byte[] content
+                 = createPidfPresenceStatus(contact, contactUri, imageUri);
+
+             if (content == null)
+                 return null;
+
+             body = new PidfBody(presenceStatus, imageUri, content);
+             synchronized (pidfBodies)
+             {
+                 pidfBodies.put(contactUri, body);
+             }
+         }
+
+         return body.content.clone();
+     }
+
+    /**
+     * Converts the <tt>PresenceStatus</tt> of <tt>contact</tt> into a PIDF
+     * document.
+     *
+     * @param contact The contact which interest us
+     * @param contactUri the URI of <tt>contact</tt>
+     * @param imageUri the URI of our avatar or <tt>null</tt>
+     *
+     * @return a PIDF document representing the current presence status of
+     * this contact or null if an error occurs.
+     */
+     private byte[] createPidfPresenceStatus(
+             ContactSipImpl contact,
+             String contactUri,
+             URI imageUri)
      {
          Document doc = this.createDocument();
 
          if (doc == null)
              return null;
 
-         String contactUri = contact.getSipAddress().getURI().toString();
-
          // <presence>
          Element presence = doc.createElement(PRESENCE_ELEMENT);
          presence.setAttribute(NS_ELEMENT, PIDF_NS_VALUE);
@@ -1993,7 +2051,6 @@ public class OperationSetPresenceSipImpl
          person.appendChild(activities);
 
          // <status-icon>
-         URI imageUri = ssContactList.getImageUri();
          if(imageUri != null)
          {
              Element statusIcon = doc.createElement(NS_STATUS_ICON_ELT);
@@ -2077,39 +2134,26 @@ public class OperationSetPresenceSipImpl
       */
      public void setPidfPresenceStatus(String presenceDoc)
      {
-         Document doc = convertDocument(presenceDoc);
-
-         if (doc == null)
-             return;
-
          if (logger.isDebugEnabled())
              logger.debug("parsing:\n" + presenceDoc);
 
-         // <presence>
-         NodeList presList = doc.getElementsByTagNameNS(PIDF_NS_VALUE,
-                 PRESENCE_ELEMENT);
+         PresenceDocumentReader.Presence presence;
 
-         if (presList.getLength() == 0)
+         try
          {
-             presList = doc.getElementsByTagNameNS(ANY_NS, PRESENCE_ELEMENT);
-
-             if (presList.getLength() == 0)
-             {
-                 logger.error("no presence element in this document");
-                 return;
-             }
+             presence = PresenceDocumentReader.readPresence(presenceDoc);
          }
-         if (presList.getLength() > 1)
+         catch (Exception e)
          {
-             logger.warn("more than one presence element in this document");
+             logger.error("Can't parse the pidf document", e);
+             return;
          }
-         Node presNode = presList.item(0);
-         if (presNode.getNodeType() != Node.ELEMENT_NODE)
+
+         if (presence == null)
          {
-             logger.error("the presence node is not an element");
+             logger.error("no presence element in this document");
              return;
          }
-         Element presence = (Element) presNode;
 
          // RPID area
 
@@ -2118,108 +2162,48 @@ public class OperationSetPresenceSipImpl
          // ignore namespaces here
 
          PresenceStatus personStatus = null;
-         URI personStatusIcon = null;
-         NodeList personList = presence.getElementsByTagNameNS(ANY_NS,
-                 PERSON_ELEMENT);
 
-         //if (personList.getLength() > 1) {
-         //    logger.error("more than one person in this document");
-         //    return;
-         //}
+         if (PresenceDocumentReader.Presence.AWAY.equals(presence.activity))
+         {
+             personStatus = sipStatusEnum.getStatus(SipStatusEnum.AWAY);
+         }
+         else if (PresenceDocumentReader.Presence.BUSY.equals(
+                 presence.activity))
+         {
+             personStatus = sipStatusEnum.getStatus(SipStatusEnum.BUSY);
+         }
+         else if (PresenceDocumentReader.Presence.ON_THE_PHONE.equals(
+                 presence.activity))
+         {
+             personStatus = sipStatusEnum.getStatus(SipStatusEnum.ON_THE_PHONE);
+         }
+
+         URI personStatusIcon = null;
+         String statusIcon = presence.statusIcon;
 
-         if (personList.getLength() > 0)
+         if (statusIcon != null && statusIcon.trim().length() != 0)
          {
-             Node personNode = personList.item(0);
-             if (personNode.getNodeType() != Node.ELEMENT_NODE)
+             try
              {
-                 logger.error("the person node is not an element");
-                 return;
+                 personStatusIcon = URI.create(statusIcon);
              }
-             Element person = (Element) personNode;
-
-             NodeList activityList =
-                 person.getElementsByTagNameNS(ANY_NS, ACTIVITY_ELEMENT);
-             if (activityList.getLength() > 0)
+             catch (IllegalArgumentException ex)
              {
-                 Element activity = null;
-                 // find the first correct activity
-                 for (int i = 0; i < activityList.getLength(); i++)
-                 {
-                     Node activityNode = activityList.item(i);
-
-                     if (activityNode.getNodeType() != Node.ELEMENT_NODE)
-                         continue;
+                 logger.error("Person's status icon uri: " +
+                         statusIcon + " is invalid");
+             }
+         }
 
-                     activity = (Element) activityNode;
+         if(personStatusIcon != null)
+         {
+             String contactID = presence.entity;
 
-                     NodeList statusList = activity.getChildNodes();
-                     for (int j = 0; j < statusList.getLength(); j++)
-                     {
-                         Node statusNode = statusList.item(j);
-                         if (statusNode.getNodeType() == Node.ELEMENT_NODE)
-                         {
-                             String statusname = statusNode.getLocalName();
-                             if (statusname.equals(AWAY_ELEMENT))
-                             {
-                                 personStatus = sipStatusEnum
-                                     .getStatus(SipStatusEnum.AWAY);
-                                 break;
-                             }
-                             else if (statusname.equals(BUSY_ELEMENT))
-                             {
-                                 personStatus = sipStatusEnum
-                                     .getStatus(SipStatusEnum.BUSY);
-                                 break;
-                             }
-                             else if (statusname.equals(OTP_ELEMENT))
-                             {
-                                 personStatus = sipStatusEnum
-                                     .getStatus(SipStatusEnum.ON_THE_PHONE);
-                                 break;
-                             }
-                         }
-                     }
-                     if (personStatus != null)
-                         break;
-                 }
-             }
-             NodeList statusIconList = person.getElementsByTagNameNS(ANY_NS,
-                     STATUS_ICON_ELEMENT);
-             if (statusIconList.getLength() > 0)
+             if (contactID.startsWith("pres:"))
              {
-                 Element statusIcon;
-                 Node statusIconNode = statusIconList.item(0);
-                 if (statusIconNode.getNodeType() == Node.ELEMENT_NODE)
-                 {
-                     statusIcon = (Element) statusIconNode;
-                     String content = getTextContent(statusIcon);
-                     if (content != null && content.trim().length() != 0)
-                     {
-                         try
-                         {
-                             personStatusIcon = URI.create(content);
-                         }
-                         catch (IllegalArgumentException ex)
-                         {
-                             logger.error("Person's status icon uri: " +
-                                     content + " is invalid");
-                         }
-                     }
-                 }
+                 contactID = contactID.substring("pres:".length());
              }
-         }
-
-          if(personStatusIcon != null)
-          {
-              String contactID =
-                  XMLUtils.getAttribute(presNode, ENTITY_ATTRIBUTE);
-
-              if (contactID.startsWith("pres:"))
-              {
-                  contactID = contactID.substring("pres:".length());
-              }
-              Contact contact = resolveContactID(contactID);
-              updateContactIcon((ContactSipImpl) contact, personStatusIcon);
+             Contact contact = resolveContactID(contactID);
+             updateContactIcon((ContactSipImpl) contact, personStatusIcon);
          }
 
          // Vector containing the list of status to set for each contact in
@@ -2228,29 +2212,17 @@ public class OperationSetPresenceSipImpl
          List<Object[]> newPresenceStates = new Vector<Object[]>(3, 2);
 
          // <tuple>
-         NodeList tupleList = getPidfChilds(presence, TUPLE_ELEMENT);
-         for (int i = 0; i < tupleList.getLength(); i++)
+         for (PresenceDocumentReader.Tuple tuple : presence.tuples)
          {
-             Node tupleNode = tupleList.item(i);
-
-             if (tupleNode.getNodeType() != Node.ELEMENT_NODE)
-                 continue;
-
-             Element tuple = (Element) tupleNode;
-
-             // <contact>
-             NodeList contactList = getPidfChilds(tuple, CONTACT_ELEMENT);
-
              // we use a vector here and not an unique contact to handle an
              // error case where many contacts are associated with a status
              // Vector<ContactSipImpl>
              List<Object[]> sipcontact = new Vector<Object[]>(1, 3);
              String contactID = null;
-             if (contactList.getLength() == 0)
+             if (tuple.contacts.isEmpty())
              {
                  // use the entity attribute of the presence node
-                 contactID = XMLUtils.getAttribute(
-                         presNode, ENTITY_ATTRIBUTE);
+                 contactID = presence.entity;
                  // also accept entity URIs starting with pres: instead of sip:
                  if (contactID.startsWith("pres:"))
                  {
@@ -2266,16 +2238,10 @@ public class OperationSetPresenceSipImpl
              else
              {
                  // this is normally not permitted by RFC3863
-                 for (int j = 0; j < contactList.getLength(); j++)
+                 for (PresenceDocumentReader.TupleContact contact
+                         : tuple.contacts)
                  {
-                     Node contactNode = contactList.item(j);
-
-                     if (contactNode.getNodeType() != Node.ELEMENT_NODE)
-                         continue;
-
-                     Element contact = (Element) contactNode;
-
-                     contactID = getTextContent(contact);
+                     contactID = contact.uri;
                      // also accept entity URIs starting with pres: instead
                      // of sip:
                      if (contactID.startsWith("pres:"))
@@ -2291,7 +2257,7 @@ public class OperationSetPresenceSipImpl
                      Object tab[] = new Object[2];
 
                      // search if the contact has a priority
-                     String prioStr = contact.getAttribute(PRIORITY_ATTRIBUTE);
+                     String prioStr = contact.priority;
                      Float prio = null;
                      try
                      {
@@ -2362,82 +2328,24 @@ public class OperationSetPresenceSipImpl
                  continue;
              }
 
-             // <status>
-             NodeList statusList = getPidfChilds(tuple, STATUS_ELEMENT);
-
-             // in case of many status, just consider the last one
-             // this is normally not permitted by RFC3863
-             int index = statusList.getLength() - 1;
-             Node statusNode = null;
-             do
-             {
-                 Node temp = statusList.item(index);
-                 if (temp.getNodeType() == Node.ELEMENT_NODE)
-                 {
-                     statusNode = temp;
-                     break;
-                 }
-                 index--;
-             }
-             while (index >= 0);
-
-             Element basic = null;
+             // <status> and <basic>, the last ones if there are many
+             String basic = tuple.basic;
 
-             if (statusNode == null)
+             if (logger.isDebugEnabled())
              {
-                 if (logger.isDebugEnabled())
+                 if (!tuple.hasStatus)
                      logger.debug("no valid status in this tuple");
-             }
-             else
-             {
-                 Element status = (Element) statusNode;
-
-                 // <basic>
-                 NodeList basicList = getPidfChilds(status, BASIC_ELEMENT);
-
-                 // in case of many basic, just consider the last one
-                 // this is normally not permitted by RFC3863
-                 index = basicList.getLength() - 1;
-                 Node basicNode = null;
-                 do
-                 {
-                     Node temp = basicList.item(index);
-                     if (temp.getNodeType() == Node.ELEMENT_NODE)
-                     {
-                         basicNode = temp;
-                         break;
-                     }
-                     index--;
-                 }
-                 while (index >= 0);
-
-                 if (basicNode == null)
-                 {
-                     if (logger.isDebugEnabled())
-                         logger.debug("no valid <basic> in this status");
-                 }
-                 else
-                 {
-                     basic = (Element) basicNode;
-                 }
+                 else if (basic == null)
+                     logger.debug("no valid <basic> in this status");
              }
 
              // search for a <note> that can define a more precise
              // status this is not recommended by RFC3863 but some im
              // clients use this.
-             NodeList noteList = getPidfChilds(tuple, NOTE_ELEMENT);
-
              boolean changed = false;
-             for (int k = 0; k < noteList.getLength() && !changed; k++)
+             for (int k = 0; k < tuple.notes.size() && !changed; k++)
              {
-                 Node noteNode = noteList.item(k);
-
-                 if (noteNode.getNodeType() != Node.ELEMENT_NODE)
-                     continue;
-
-                 Element note = (Element) noteNode;
-
-                 String state = getTextContent(note);
+                 String state = tuple.notes.get(k);
 
                  Iterator<PresenceStatus> states
                      = sipStatusEnum.getSupportedStatusSet();
@@ -2458,7 +2366,7 @@ public class OperationSetPresenceSipImpl
 
              if (changed == false && basic != null)
              {
-                 if (getTextContent(basic).equalsIgnoreCase(ONLINE_STATUS))
+                 if (basic.equalsIgnoreCase(ONLINE_STATUS))
                  {
                      // if its online(open) we use the person status
                      // if any, otherwise just mark as online
@@ -2477,8 +2385,7 @@ public class OperationSetPresenceSipImpl
                                  newPresenceStates);
                      }
                  }
-                 else if (getTextContent(basic).equalsIgnoreCase(
-                         OFFLINE_STATUS))
+                 else if (basic.equalsIgnoreCase(OFFLINE_STATUS))
                  {
                      // if its offline we ignore person status
                      newPresenceStates = setStatusForContacts(
@@ -2524,51 +2431,36 @@ public class OperationSetPresenceSipImpl
             return;
         }
 
-        Document doc = convertDocument(watcherInfoDoc);
-
-         if (doc == null)
-             return;
-
          if (logger.isDebugEnabled())
              logger.debug("parsing:\n" + watcherInfoDoc);
 
-        // <watcherinfo>
-        NodeList watchList = doc.getElementsByTagNameNS(
-                WATCHERINFO_NS_VALUE, WATCHERINFO_ELEMENT);
-        if (watchList.getLength() == 0)
-        {
-            watchList = doc.getElementsByTagNameNS(
-                     ANY_NS, WATCHERINFO_ELEMENT);
+        PresenceDocumentReader.WatcherInfo watcherInfo;
 
-            if (watchList.getLength() == 0)
-            {
-                logger.error("no watcherinfo element in this document");
-                return;
-            }
-        }
-        if (watchList.getLength() > 1)
+        try
         {
-            logger.warn("more than one watcherinfo element in this document");
+            watcherInfo
+                = PresenceDocumentReader.readWatcherInfo(watcherInfoDoc);
         }
-        Node watcherInfoNode = watchList.item(0);
-        if (watcherInfoNode.getNodeType() != Node.ELEMENT_NODE)
+        catch (Exception e)
         {
-            logger.error("the watcherinfo node is not an element");
+            logger.error("Can't parse the watcherinfo document", e);
             return;
         }
 
-        Element watcherInfo = (Element)watcherInfoNode;
+        if (watcherInfo == null)
+        {
+            logger.error("no watcherinfo element in this document");
+            return;
+        }
 
         // we don't take in account whether the state is full or partial.
         if(logger.isDebugEnabled())
-            logger.debug("Watcherinfo is with state: "
-                    + watcherInfo.getAttribute(STATE_ATTRIBUTE));
+            logger.debug("Watcherinfo is with state: " + watcherInfo.state);
 
         int currentVersion = -1;
         try
         {
-            currentVersion =
-                Integer.parseInt(watcherInfo.getAttribute(VERSION_ATTRIBUTE));
+            currentVersion = Integer.parseInt(watcherInfo.version);
         }
         catch(Throwable t)
         {
@@ -2584,33 +2476,21 @@ public class OperationSetPresenceSipImpl
             subscriber.version = currentVersion;
 
         // we need watcher list only for our resource
-        Element wlist = XMLUtils.locateElement(
-                watcherInfo, WATCHERLIST_ELEMENT, RESOURCE_ATTRIBUTE,
-                parentProvider.getRegistrarConnection()
-                    .getAddressOfRecord().getURI().toString());
+        PresenceDocumentReader.WatcherList wlist
+            = watcherInfo.getWatcherList(
+                    parentProvider.getRegistrarConnection()
+                        .getAddressOfRecord().getURI().toString());
 
-        if(wlist == null ||
-            !wlist.getAttribute(PACKAGE_ATTRIBUTE).equals(PRESENCE_ELEMENT))
+        if(wlist == null || !PRESENCE_ELEMENT.equals(wlist.eventPackage))
         {
             logger.error("Watcher list for us is missing in this document!");
             return;
         }
 
-        NodeList watcherList = wlist.getElementsByTagNameNS(ANY_NS,
-                 WATCHER_ELEMENT);
-        for(int i = 0; i < watcherList.getLength(); i++)
+        for (PresenceDocumentReader.Watcher watcher : wlist.watchers)
         {
-            Node watcherNode = watcherList.item(i);
-            if (watcherNode.getNodeType() != Node.ELEMENT_NODE)
-            {
-                logger.error("the watcher node is not an element");
-                return;
-            }
-
-            Element watcher = (Element)watcherNode;
-
-            String status = watcher.getAttribute(STATUS_ELEMENT);
-            String contactID = getTextContent(watcher);
+            String status = watcher.status;
+            String contactID = watcher.uri;
 
             //String event - subscribe, approved, deactivated, probation,
             //rejected, timeout, giveup, noresource
@@ -2699,52 +2579,6 @@ public class OperationSetPresenceSipImpl
                 newImage);
     }
 
-     /**
-      * Secured call to XMLUtils.getText (no null returned but an empty string)
-      *
-      * @param node the node with which call <tt>XMLUtils.getText()</tt>
-      *
-      * @return the string contained in the node or an empty string if there is
-      * no text information in the node.
-      */
-     private String getTextContent(Element node)
-     {
-         String res = XMLUtils.getText(node);
-
-         if (res == null)
-         {
-             logger.warn("no text for element '" + node.getNodeName() + "'");
-             return "";
-         }
-
-         return res;
-     }
-
-     /**
-      * Gets the list of the descendant of an element in the pidf namespace.
-      * If the list is empty, we try to get this list in any namespace.
-      * This method is useful for being able to read pidf document without any
-      * namespace or with a wrong namespace.
-      *
-      * @param element the base element concerned.
-      * @param childName the name of the descendants to match on.
-      *
-      * @return The list of all the descendant node.
-      */
-     private NodeList getPidfChilds(Element element, String childName)
-     {
-         NodeList res;
-
-         res = element.getElementsByTagNameNS(PIDF_NS_VALUE, childName);
-
-         if (res.getLength() == 0)
-         {
-             res = element.getElementsByTagNameNS(ANY_NS, childName);
-         }
-
-         return res;
-     }
-
      /**
       * Associate the provided presence state to the contacts considering the
       * current presence states and priorities.
@@ -2858,6 +2692,157 @@ public class OperationSetPresenceSipImpl
          }
      }
 
+    /**
+     * Subscribes to the presence of each contact in the list and starts
+     * polling the ones we cannot subscribe to.
+     */
+    private synchronized void subscribeToAllContacts()
+    {
+        if (pollingTask != null)
+            return;
+
+        for (ContactSipImpl contact : ssContactList
+                .getAllContacts(ssContactList.getRootGroup()))
+        {
+            forcePollContact(contact);
+        }
+
+        // create the new polling task
+        pollingTask = new PollOfflineContactsTask();
+
+        // start polling the offline contacts
+        timer.schedule(pollingTask, pollingTaskPeriod, pollingTaskPeriod);
+    }
+
+    /**
+     * Subscribes to a resource list server (RFC 4662) which will deliver the
+     * presence of all our contacts in a single subscription.
+     *
+     * @param uri the URI of the resource list service
+     * @return <tt>true</tt> if the subscription request has been sent,
+     * <tt>false</tt> if we have to subscribe to our contacts one by one
+     */
+    private boolean subscribeToResourceList(String uri)
+    {
+        try
+        {
+            ResourceListSubscription rls
+                = new ResourceListSubscription(
+                        parentProvider.parseAddressString(uri));
+
+            resourceListSubscription = rls;
+            subscriber.subscribe(rls);
+            return true;
+        }
+        catch (Exception ex)
+        {
+            logger.error("Failed to subscribe to the resource list " + uri, ex);
+            resourceListSubscription = null;
+            return false;
+        }
+    }
+
+    /**
+     * Falls back to subscribing to our contacts one by one after the
+     * subscription to the resource list server has failed or been terminated.
+     *
+     * @param rls the failed subscription to the resource list server
+     */
+    private void resourceListSubscriptionFailed(ResourceListSubscription rls)
+    {
+        if (resourceListSubscription != rls)
+            return;
+        resourceListSubscription = null;
+
+        if (parentProvider.isRegistered())
+            subscribeToAllContacts();
+    }
+
+    /**
+     * Applies the state of the resources of a resource list notification to
+     * our contacts. Contacts missing from a notification carrying the full
+     * state of the list are not in the list of the server, so we subscribe to
+     * them one by one.
+     *
+     * @param notification the resource list notification
+     */
+    private void setResourceListStatus(EventListNotification notification)
+    {
+        Set<ContactSipImpl> notified
+            = Collections.newSetFromMap(
+                    new IdentityHashMap<ContactSipImpl, Boolean>());
+
+        for (EventListNotification.Resource resource
+                : notification.getResources())
+        {
+            ContactSipImpl contact = resolveContactID(resource.uri);
+
+            if (contact == null)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("No contact for resource " + resource.uri);
+                continue;
+            }
+            notified.add(contact);
+
+            if (resource.content != null)
+                setPidfPresenceStatus(new String(resource.content));
+
+            if (SubscriptionStateHeader.TERMINATED.equalsIgnoreCase(
+                    resource.state))
+            {
+                changePresenceStatusForContact(
+                        contact,
+                        sipStatusEnum.getStatus(SipStatusEnum.OFFLINE));
+                contact.setSubscriptionState(
+                        SubscriptionStateHeader.TERMINATED);
+            }
+            else
+                updateSubscriptionState(contact, resource.state);
+        }
+
+        if (notification.isFullState())
+        {
+            for (ContactSipImpl contact : ssContactList
+                    .getAllContacts(ssContactList.getRootGroup()))
+            {
+                if (!notified.contains(contact))
+                    forcePollContact(contact);
+            }
+        }
+    }
+
+    /**
+     * Updates the state of our subscription to a contact, noting that our
+     * authorization request has been accepted if it was pending.
+     *
+     * @param contact the contact
+     * @param state the state of the subscription, one of the states of the
+     * Subscription-State header
+     */
+    private void updateSubscriptionState(ContactSipImpl contact, String state)
+    {
+        if(SubscriptionStateHeader.PENDING.equalsIgnoreCase(state))
+        {
+            contact.setSubscriptionState(SubscriptionStateHeader.PENDING);
+        }
+        else if(SubscriptionStateHeader.ACTIVE.equalsIgnoreCase(state))
+        {
+            // if contact was in pending state
+            // our authorization request was accepted
+            if(SubscriptionStateHeader.PENDING
+                    .equals(contact.getSubscriptionState())
+               && authorizationHandler != null)
+            {
+                authorizationHandler.processAuthorizationResponse(
+                        new AuthorizationResponse(
+                                AuthorizationResponse.ACCEPT, ""),
+                        contact);
+            }
+            contact.setSubscriptionState(SubscriptionStateHeader.ACTIVE);
+        }
+    }
+
     /**
      * Unsubscribe to every contact.
      */
@@ -2867,6 +2852,22 @@ public class OperationSetPresenceSipImpl
         {
             logger.debug("Trying to unsubscribe to every contact");
         }
+
+        ResourceListSubscription rls = resourceListSubscription;
+
+        resourceListSubscription = null;
+        if (rls != null)
+        {
+            try
+            {
+                subscriber.unsubscribe(rls.getAddress(), false);
+            }
+            catch (Throwable ex)
+            {
+                logger.error("Failed to unsubscribe to the resource list", ex);
+            }
+        }
+
         // Send event notifications saying that all our buddies are offline.
         for (ContactSipImpl contact : ssContactList
                 .getUniqueContacts(ssContactList.getRootGroup()))
@@ -3114,24 +3115,24 @@ public class OperationSetPresenceSipImpl
             * anything because we've already set it up in response to
             * the first REGISTERED.
             */
-            if ((!presenceEnabled) || (pollingTask != null))
+            if ((!presenceEnabled)
+                    || (pollingTask != null)
+                    || (resourceListSubscription != null))
             {
                 return;
             }
 
-            // Subcribe to each contact in the list
-            for (ContactSipImpl contact : ssContactList
-                    .getAllContacts(ssContactList.getRootGroup()))
+            // Subscribe to the whole list at once if the server allows it,
+            // otherwise to each contact in the list
+            String resourceListServiceUri
+                = ssContactList.getResourceListServiceUri();
+
+            if ((resourceListServiceUri == null)
+                    || !subscribeToResourceList(resourceListServiceUri))
             {
-                forcePollContact(contact);
+                subscribeToAllContacts();
             }
 
-            // create the new polling task
-            pollingTask = new PollOfflineContactsTask();
-
-            // start polling the offline contacts
-            timer.schedule(pollingTask, pollingTaskPeriod, pollingTaskPeriod);
-
             if(this.useDistantPA)
             {
                 try
@@ -3156,6 +3157,13 @@ public class OperationSetPresenceSipImpl
             }
             // Destroy XCAP contacts
             ssContactList.destroy();
+
+            ResourceListSubscription rls = resourceListSubscription;
+
+            resourceListSubscription = null;
+            if (rls != null)
+                subscriber.removeSubscription(rls.getAddress());
+
             // if connection failed we have lost network connectivity
             // we must fire that all contacts has gone offline
             for (ContactSipImpl contact : ssContactList
@@ -3402,31 +3410,7 @@ public class OperationSetPresenceSipImpl
                         .getHeader(SubscriptionStateHeader.NAME);
 
             if(stateHeader != null)
-            {
-                if(SubscriptionStateHeader.PENDING
-                        .equals(stateHeader.getState()))
-                {
-                    contact.setSubscriptionState(
-                            SubscriptionStateHeader.PENDING);
-                }
-                else if(SubscriptionStateHeader.ACTIVE
-                        .equals(stateHeader.getState()))
-                {
-                    // if contact was in pending state
-                    // our authorization request was accepted
-                    if(SubscriptionStateHeader.PENDING
-                            .equals(contact.getSubscriptionState())
-                       && authorizationHandler != null)
-                    {
-                        authorizationHandler.processAuthorizationResponse(
-                                new AuthorizationResponse(
-                                        AuthorizationResponse.ACCEPT, ""),
-                                contact);
-                    }
-                    contact.setSubscriptionState(
-                            SubscriptionStateHeader.ACTIVE);
-                }
-            }
+                updateSubscriptionState(contact, stateHeader.getState());
         }
 
         /*
@@ -3557,6 +3541,150 @@ public class OperationSetPresenceSipImpl
         }
     }
 
+    /**
+     * Represents a subscription to the presence event package of a resource
+     * list server (RFC 4662), which delivers the presence of all our contacts
+     * in multipart/related NOTIFY requests.
+     */
+    private class ResourceListSubscription
+        extends EventPackageSubscriber.Subscription
+    {
+        /**
+         * The versions of the resource list notifications we have applied.
+         */
+        private final EventListVersion versions = new EventListVersion();
+
+        /**
+         * Initializes a new <tt>ResourceListSubscription</tt> to a specific
+         * resource list service.
+         *
+         * @param toAddress the address of the resource list service
+         */
+        public ResourceListSubscription(Address toAddress)
+        {
+            super(toAddress);
+        }
+
+        @Override
+        protected boolean isEventList()
+        {
+            return true;
+        }
+
+        /**
+         * Applies the state of the resources carried by a NOTIFY, ignoring
+         * the notifications older than the last one applied. A gap in the
+         * versions of partial notifications means we have missed changes, so
+         * we refresh the subscription, which makes the server send the full
+         * state of the list (RFC 4662, section 5.2).
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * @param rawContent the body of the NOTIFY
+         */
+        @Override
+        protected void processActiveRequest(
+                RequestEvent requestEvent, byte[] rawContent)
+        {
+            if (rawContent == null)
+                return;
+
+            ContentTypeHeader contentType
+                = (ContentTypeHeader) requestEvent.getRequest().getHeader(
+                        ContentTypeHeader.NAME);
+
+            // the server does not know of resource lists and treats the list
+            // as a single presentity
+            if (!EventListNotification.isEventList(contentType))
+            {
+                setPidfPresenceStatus(new String(rawContent));
+                return;
+            }
+
+            EventListNotification notification;
+
+            try
+            {
+                notification
+                    = new EventListNotification(contentType, rawContent);
+            }
+            catch (IOException ex)
+            {
+                logger.error("Invalid resource list notification", ex);
+                return;
+            }
+
+            int action
+                = versions.update(
+                        notification.getVersion(),
+                        notification.isFullState());
+
+            if (action == EventListVersion.IGNORE)
+                return;
+
+            setResourceListStatus(notification);
+
+            if (action == EventListVersion.APPLY_AND_REQUEST_FULL_STATE)
+            {
+                try
+                {
+                    // a SUBSCRIBE within the dialog
+                    subscriber.subscribe(this);
+                }
+                catch (OperationFailedException ex)
+                {
+                    logger.error(
+                            "Failed to refresh the resource list subscription",
+                            ex);
+                    versions.fullStateRequestFailed();
+                }
+            }
+        }
+
+        /**
+         * Falls back to subscribing to our contacts one by one.
+         *
+         * @param responseEvent the <tt>ResponseEvent</tt> carrying the
+         * failure response
+         * @param statusCode the status code of the failure response
+         */
+        @Override
+        protected void processFailureResponse(
+                ResponseEvent responseEvent, int statusCode)
+        {
+            logger.info(
+                    "Resource list subscription failed with " + statusCode
+                        + ", subscribing to contacts one by one");
+            resourceListSubscriptionFailed(this);
+        }
+
+        @Override
+        protected void processSuccessResponse(
+                ResponseEvent responseEvent, int statusCode)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug(
+                        "Subscribed to resource list " + getAddress()
+                            + " status:" + statusCode);
+        }
+
+        /**
+         * Falls back to subscribing to our contacts one by one.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the
+         * terminating NOTIFY
+         * @param reasonCode the reason of the termination
+         */
+        @Override
+        protected void processTerminatedRequest(
+                RequestEvent requestEvent, String reasonCode)
+        {
+            logger.info(
+                    "Resource list subscription terminated (" + reasonCode
+                        + "), subscribing to contacts one by one");
+            resourceListSubscriptionFailed(this);
+        }
+    }
+
     /**
      * Represents a subscription to the presence.winfo event package.
      *
@@ -3665,4 +3793,33 @@ public class OperationSetPresenceSipImpl
             logger.error("Subscription to presence watcher info terminated!");
         }
     }
+
+    /**
+     * A serialised PIDF document along with the state it has been generated
+     * from.
+     */
+    private static class PidfBody
+    {
+        /**
+         * The presence status the document has been generated from.
+         */
+        final PresenceStatus presenceStatus;
+
+        /**
+         * The URI of the avatar the document has been generated from.
+         */
+        final URI imageUri;
+
+        /**
+         * The document.
+         */
+        final byte[] content;
+
+        PidfBody(PresenceStatus presenceStatus, URI imageUri, byte[] content)
+        {
+            this.presenceStatus = presenceStatus;
+            this.imageUri = imageUri;
+            this.content = content;
+        }
+    }
 }
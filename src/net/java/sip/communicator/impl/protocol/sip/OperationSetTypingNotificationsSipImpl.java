@@ -102,7 +102,7 @@ public class OperationSetTypingNotificationsSipImpl
     /**
      * The global timer managing the tasks.
      */
-    private Timer timer = new Timer();
+    private final TimerScheduler timer = new TimerScheduler();
 
     /**
      * The timer tasks for received events, it timer time is reached this
@@ -298,7 +298,7 @@ public class OperationSetTypingNotificationsSipImpl
             if(task != null)
             {
                 typingTasks.remove(task);
-                task.cancel();                
+                TimerScheduler.cancelTask(task);
             }
 
             // when a task is canceled it cannot be
@@ -541,7 +541,7 @@ public class OperationSetTypingNotificationsSipImpl
 
         if(task != null)
         {
-            task.cancel();
+            TimerScheduler.cancelTask(task);
 
             fireTypingNotificationsEvent(from, STATE_STOPPED);
         }
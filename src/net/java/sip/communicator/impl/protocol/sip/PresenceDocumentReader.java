@@ -0,0 +1,716 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+/**
+ * Reads the bodies of presence and watcherinfo NOTIFYs, i.e. PIDF (RFC 3863)
+ * documents with their RPID (RFC 4480) extensions and watcherinfo (RFC 3858)
+ * documents, in a single StAX pass into small value objects holding only what
+ * <tt>OperationSetPresenceSipImpl</tt> uses from them, instead of building and
+ * walking the DOM tree of every body.
+ * <p>
+ * The reader is as tolerant as the DOM walk it replaces: the namespaces of
+ * RPID elements are ignored, and PIDF elements are taken in the PIDF namespace
+ * if there are some there and in any namespace otherwise. The text of an
+ * element is its first text child, like <tt>XMLUtils.getText</tt>.
+ */
+public class PresenceDocumentReader
+{
+    private static final String PIDF_NS_VALUE = "urn:ietf:params:xml:ns:pidf";
+    private static final String PRESENCE_ELEMENT = "presence";
+    private static final String ENTITY_ATTRIBUTE = "entity";
+    private static final String TUPLE_ELEMENT = "tuple";
+    private static final String STATUS_ELEMENT = "status";
+    private static final String BASIC_ELEMENT = "basic";
+    private static final String CONTACT_ELEMENT = "contact";
+    private static final String NOTE_ELEMENT = "note";
+    private static final String PRIORITY_ATTRIBUTE = "priority";
+    private static final String PERSON_ELEMENT = "person";
+    private static final String ACTIVITY_ELEMENT = "activities";
+    private static final String STATUS_ICON_ELEMENT = "status-icon";
+
+    private static final String WATCHERINFO_ELEMENT = "watcherinfo";
+    private static final String STATE_ATTRIBUTE = "state";
+    private static final String VERSION_ATTRIBUTE = "version";
+    private static final String WATCHERLIST_ELEMENT = "watcher-list";
+    private static final String RESOURCE_ATTRIBUTE = "resource";
+    private static final String PACKAGE_ATTRIBUTE = "package";
+    private static final String WATCHER_ELEMENT = "watcher";
+
+    /**
+     * The factory of the StAX readers. Access is synchronized as factories are
+     * not required to be thread safe.
+     */
+    private static final XMLInputFactory inputFactory
+        = XMLInputFactory.newInstance();
+
+    static
+    {
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+    }
+
+    /**
+     * Reads a PIDF document.
+     *
+     * @param document the PIDF document
+     * @return the <tt>Presence</tt> read from <tt>document</tt> or
+     * <tt>null</tt> if it has no presence element
+     * @throws XMLStreamException if <tt>document</tt> is not well formed
+     */
+    public static Presence readPresence(String document)
+        throws XMLStreamException
+    {
+        XMLStreamReader reader = createReader(document);
+
+        try
+        {
+            if (!skipTo(reader, PRESENCE_ELEMENT))
+                return null;
+
+            Presence presence
+                = new Presence(
+                        reader.getAttributeValue(null, ENTITY_ATTRIBUTE));
+            boolean personRead = false;
+            int depth = 1;
+
+            while (depth > 0)
+            {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                String name = reader.getLocalName();
+
+                if (TUPLE_ELEMENT.equals(name))
+                {
+                    presence.tuples.add(readTuple(reader));
+                }
+                else if (PERSON_ELEMENT.equals(name) && !personRead)
+                {
+                    // only the first person is considered
+                    readPerson(reader, presence);
+                    personRead = true;
+                }
+                else
+                    depth++;
+            }
+
+            presence.tuples = pick(presence.tuples);
+            return presence;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a watcherinfo document.
+     *
+     * @param document the watcherinfo document
+     * @return the <tt>WatcherInfo</tt> read from <tt>document</tt> or
+     * <tt>null</tt> if it has no watcherinfo element
+     * @throws XMLStreamException if <tt>document</tt> is not well formed
+     */
+    public static WatcherInfo readWatcherInfo(String document)
+        throws XMLStreamException
+    {
+        XMLStreamReader reader = createReader(document);
+
+        try
+        {
+            if (!skipTo(reader, WATCHERINFO_ELEMENT))
+                return null;
+
+            WatcherInfo watcherInfo
+                = new WatcherInfo(
+                        reader.getAttributeValue(null, STATE_ATTRIBUTE),
+                        reader.getAttributeValue(null, VERSION_ATTRIBUTE));
+            WatcherList watcherList = null;
+            int watcherListDepth = 0;
+            int depth = 1;
+
+            while (depth > 0)
+            {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    if (depth == watcherListDepth)
+                        watcherList = null;
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                String name = reader.getLocalName();
+
+                if (WATCHER_ELEMENT.equals(name) && (watcherList != null))
+                {
+                    String status
+                        = reader.getAttributeValue(null, STATUS_ELEMENT);
+
+                    watcherList.watchers.add(
+                            new Watcher(status, readText(reader)));
+                    continue;
+                }
+
+                depth++;
+                if (WATCHERLIST_ELEMENT.equals(name) && (watcherList == null))
+                {
+                    watcherList
+                        = new WatcherList(
+                                reader.getAttributeValue(
+                                        null,
+                                        RESOURCE_ATTRIBUTE),
+                                reader.getAttributeValue(
+                                        null,
+                                        PACKAGE_ATTRIBUTE));
+                    watcherListDepth = depth;
+                    watcherInfo.watcherLists.add(watcherList);
+                }
+            }
+            return watcherInfo;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the person element the reader is on, up to its end.
+     *
+     * @param reader the reader
+     * @param presence the presence to store the activity and the status icon
+     * of the person in
+     * @throws XMLStreamException if the document is not well formed
+     */
+    private static void readPerson(XMLStreamReader reader, Presence presence)
+        throws XMLStreamException
+    {
+        int activitiesDepth = 0;
+        boolean statusIconRead = false;
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                if (depth == activitiesDepth)
+                    activitiesDepth = 0;
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT)
+                continue;
+
+            String name = reader.getLocalName();
+
+            if (STATUS_ICON_ELEMENT.equals(name) && !statusIconRead)
+            {
+                presence.statusIcon = readText(reader);
+                statusIconRead = true;
+                continue;
+            }
+
+            depth++;
+            if (ACTIVITY_ELEMENT.equals(name) && (activitiesDepth == 0))
+                activitiesDepth = depth;
+            else if ((activitiesDepth != 0)
+                    && (depth == activitiesDepth + 1)
+                    && (presence.activity == null)
+                    && (Presence.AWAY.equals(name)
+                            || Presence.BUSY.equals(name)
+                            || Presence.ON_THE_PHONE.equals(name)))
+                presence.activity = name;
+        }
+    }
+
+    /**
+     * Reads the tuple element the reader is on, up to its end.
+     *
+     * @param reader the reader
+     * @return the tuple
+     * @throws XMLStreamException if the document is not well formed
+     */
+    private static Tuple readTuple(XMLStreamReader reader)
+        throws XMLStreamException
+    {
+        Tuple tuple = new Tuple(isPidf(reader));
+        List<TupleContact> contacts = new ArrayList<TupleContact>();
+        List<Text> notes = new ArrayList<Text>();
+        List<Text> statuses = new ArrayList<Text>();
+        List<Text> basics = null;
+        boolean statusPidf = false;
+        int statusDepth = 0;
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                if (depth == statusDepth)
+                {
+                    statuses.add(new Text(statusPidf, pickLast(basics)));
+                    statusDepth = 0;
+                }
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT)
+                continue;
+
+            String name = reader.getLocalName();
+            boolean pidf = isPidf(reader);
+
+            if (CONTACT_ELEMENT.equals(name))
+            {
+                String priority
+                    = reader.getAttributeValue(null, PRIORITY_ATTRIBUTE);
+
+                contacts.add(
+                        new TupleContact(
+                                pidf,
+                                nonNull(readText(reader)),
+                                priority));
+            }
+            else if (NOTE_ELEMENT.equals(name))
+            {
+                notes.add(new Text(pidf, nonNull(readText(reader))));
+            }
+            else if (BASIC_ELEMENT.equals(name) && (statusDepth != 0))
+            {
+                basics.add(new Text(pidf, nonNull(readText(reader))));
+            }
+            else
+            {
+                depth++;
+                if (STATUS_ELEMENT.equals(name) && (statusDepth == 0))
+                {
+                    statusDepth = depth;
+                    statusPidf = pidf;
+                    basics = new ArrayList<Text>();
+                }
+            }
+        }
+
+        tuple.contacts = pick(contacts);
+
+        // in case of many statuses, the last one is considered, which is
+        // normally not permitted by RFC3863
+        Text status = pickLastText(statuses);
+
+        tuple.hasStatus = (status != null);
+        tuple.basic = (status == null) ? null : status.value;
+
+        List<Text> pickedNotes = pick(notes);
+
+        tuple.notes = new ArrayList<String>(pickedNotes.size());
+        for (Text note : pickedNotes)
+            tuple.notes.add(note.value);
+        return tuple;
+    }
+
+    /**
+     * Returns the value of the last of the basic elements of a status, taken
+     * in the PIDF namespace if there are some there.
+     *
+     * @param basics the basic elements of a status
+     * @return the value of the last basic element or <tt>null</tt> if there
+     * is none
+     */
+    private static String pickLast(List<Text> basics)
+    {
+        // in case of many basics, the last one is considered, which is
+        // normally not permitted by RFC3863
+        Text basic = pickLastText(basics);
+
+        return (basic == null) ? null : basic.value;
+    }
+
+    /**
+     * Returns the last of a list of elements, taken in the PIDF namespace if
+     * there are some there.
+     *
+     * @param elements the elements
+     * @return the last element or <tt>null</tt> if there is none
+     */
+    private static Text pickLastText(List<Text> elements)
+    {
+        List<Text> picked = pick(elements);
+
+        return picked.isEmpty() ? null : picked.get(picked.size() - 1);
+    }
+
+    /**
+     * Returns the elements of a list which are in the PIDF namespace if there
+     * are some, all the elements otherwise.
+     *
+     * @param elements the elements
+     * @return the elements in the PIDF namespace or all the elements
+     */
+    private static <T extends PidfElement> List<T> pick(List<T> elements)
+    {
+        List<T> pidfElements = null;
+
+        for (T element : elements)
+        {
+            if (element.pidf)
+            {
+                if (pidfElements == null)
+                    pidfElements = new ArrayList<T>(elements.size());
+                pidfElements.add(element);
+            }
+        }
+        return (pidfElements == null) ? elements : pidfElements;
+    }
+
+    /**
+     * Returns a text or the empty string if it is <tt>null</tt>, as an
+     * element without text is read as an empty one.
+     *
+     * @param text the text
+     * @return <tt>text</tt> or the empty string if it is <tt>null</tt>
+     */
+    private static String nonNull(String text)
+    {
+        return (text == null) ? "" : text;
+    }
+
+    /**
+     * Determines whether the element the reader is on is in the PIDF
+     * namespace.
+     *
+     * @param reader the reader
+     * @return <tt>true</tt> if the current element is in the PIDF namespace
+     */
+    private static boolean isPidf(XMLStreamReader reader)
+    {
+        return PIDF_NS_VALUE.equals(reader.getNamespaceURI());
+    }
+
+    /**
+     * Creates a reader of a document.
+     *
+     * @param document the document
+     * @return a reader of <tt>document</tt>
+     * @throws XMLStreamException if the reader cannot be created
+     */
+    private static XMLStreamReader createReader(String document)
+        throws XMLStreamException
+    {
+        synchronized (inputFactory)
+        {
+            return inputFactory.createXMLStreamReader(
+                    new StringReader(document));
+        }
+    }
+
+    /**
+     * Moves the reader to the first element with a local name.
+     *
+     * @param reader the reader
+     * @param name the local name of the element
+     * @return <tt>true</tt> if the reader is on the element, <tt>false</tt> if
+     * the document has no such element
+     * @throws XMLStreamException if the document is not well formed
+     */
+    private static boolean skipTo(XMLStreamReader reader, String name)
+        throws XMLStreamException
+    {
+        while (reader.hasNext())
+        {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && name.equals(reader.getLocalName()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the element the reader is on, up to its end, and returns its
+     * first text child.
+     *
+     * @param reader the reader
+     * @return the first text child of the element or <tt>null</tt> if it has
+     * none
+     * @throws XMLStreamException if the document is not well formed
+     */
+    private static String readText(XMLStreamReader reader)
+        throws XMLStreamException
+    {
+        String text = null;
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            switch (reader.next())
+            {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if ((text == null) && (depth == 1))
+                    text = reader.getText();
+                break;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * An element which may or may not be in the PIDF namespace.
+     */
+    private static class PidfElement
+    {
+        /**
+         * Whether the element is in the PIDF namespace.
+         */
+        final boolean pidf;
+
+        PidfElement(boolean pidf)
+        {
+            this.pidf = pidf;
+        }
+    }
+
+    /**
+     * The text of an element.
+     */
+    private static class Text
+        extends PidfElement
+    {
+        final String value;
+
+        Text(boolean pidf, String value)
+        {
+            super(pidf);
+            this.value = value;
+        }
+    }
+
+    /**
+     * The presence of an entity read from a PIDF document.
+     */
+    public static class Presence
+    {
+        /**
+         * The local name of the RPID away activity.
+         */
+        public static final String AWAY = "away";
+
+        /**
+         * The local name of the RPID busy activity.
+         */
+        public static final String BUSY = "busy";
+
+        /**
+         * The local name of the RPID on-the-phone activity.
+         */
+        public static final String ON_THE_PHONE = "on-the-phone";
+
+        /**
+         * The entity attribute of the presence element.
+         */
+        public final String entity;
+
+        /**
+         * The first of the <tt>AWAY</tt>, <tt>BUSY</tt> and
+         * <tt>ON_THE_PHONE</tt> activities of the person or <tt>null</tt>.
+         */
+        public String activity;
+
+        /**
+         * The status icon of the person or <tt>null</tt>.
+         */
+        public String statusIcon;
+
+        /**
+         * The tuples of the presence.
+         */
+        public List<Tuple> tuples = new ArrayList<Tuple>();
+
+        Presence(String entity)
+        {
+            this.entity = (entity == null) ? "" : entity;
+        }
+    }
+
+    /**
+     * A tuple of a PIDF document.
+     */
+    public static class Tuple
+        extends PidfElement
+    {
+        /**
+         * The contacts of the tuple, normally at most one.
+         */
+        public List<TupleContact> contacts;
+
+        /**
+         * Whether the tuple has a status.
+         */
+        public boolean hasStatus;
+
+        /**
+         * The basic status of the tuple or <tt>null</tt> if its status has no
+         * basic element.
+         */
+        public String basic;
+
+        /**
+         * The notes of the tuple.
+         */
+        public List<String> notes;
+
+        private Tuple(boolean pidf)
+        {
+            super(pidf);
+        }
+    }
+
+    /**
+     * A contact of a tuple of a PIDF document.
+     */
+    public static class TupleContact
+        extends PidfElement
+    {
+        /**
+         * The URI of the contact.
+         */
+        public final String uri;
+
+        /**
+         * The priority attribute of the contact or <tt>null</tt>.
+         */
+        public final String priority;
+
+        private TupleContact(boolean pidf, String uri, String priority)
+        {
+            super(pidf);
+            this.uri = uri;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * The watchers of a resource read from a watcherinfo document.
+     */
+    public static class WatcherInfo
+    {
+        /**
+         * The state attribute of the watcherinfo element.
+         */
+        public final String state;
+
+        /**
+         * The version attribute of the watcherinfo element.
+         */
+        public final String version;
+
+        /**
+         * The watcher lists of the document.
+         */
+        public final List<WatcherList> watcherLists
+            = new ArrayList<WatcherList>();
+
+        private WatcherInfo(String state, String version)
+        {
+            this.state = state;
+            this.version = version;
+        }
+
+        /**
+         * Returns the first watcher list of a resource.
+         *
+         * @param resource the URI of the resource
+         * @return the watcher list of <tt>resource</tt> or <tt>null</tt>
+         */
+        public WatcherList getWatcherList(String resource)
+        {
+            for (WatcherList watcherList : watcherLists)
+                if (resource.equals(watcherList.resource))
+                    return watcherList;
+            return null;
+        }
+    }
+
+    /**
+     * A watcher list of a watcherinfo document.
+     */
+    public static class WatcherList
+    {
+        /**
+         * The URI of the watched resource or <tt>null</tt>.
+         */
+        public final String resource;
+
+        /**
+         * The event package watched or <tt>null</tt>.
+         */
+        public final String eventPackage;
+
+        /**
+         * The watchers of the resource.
+         */
+        public final List<Watcher> watchers = new ArrayList<Watcher>();
+
+        private WatcherList(String resource, String eventPackage)
+        {
+            this.resource = resource;
+            this.eventPackage = eventPackage;
+        }
+    }
+
+    /**
+     * A watcher of a watcherinfo document.
+     */
+    public static class Watcher
+    {
+        /**
+         * The status of the subscription of the watcher or <tt>null</tt>.
+         */
+        public final String status;
+
+        /**
+         * The URI of the watcher or <tt>null</tt>.
+         */
+        public final String uri;
+
+        private Watcher(String status, String uri)
+        {
+            this.status = status;
+            this.uri = uri;
+        }
+    }
+}
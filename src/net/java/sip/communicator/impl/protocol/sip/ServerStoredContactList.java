@@ -37,6 +37,13 @@ public abstract class ServerStoredContactList
      */
     protected final static String ROOT_GROUP_NAME = "RootGroup";
 
+    /**
+     * The name of the property under which the user may specify the URI of a
+     * resource list server (RFC 4662) subscription to which delivers the
+     * presence of the whole contact list.
+     */
+    public static final String RLS_SERVICE_URI = "RLS_SERVICE_URI";
+
     /**
      * The provider that is on top of us.
      */
@@ -457,6 +464,19 @@ public abstract class ServerStoredContactList
      */
     public abstract void destroy();
 
+    /**
+     * Gets the URI of the resource list server subscription to which delivers
+     * the presence of the contacts in this list.
+     *
+     * @return the URI of the resource list service or <tt>null</tt> if the
+     * presence of the contacts has to be subscribed to one by one.
+     */
+    public String getResourceListServiceUri()
+    {
+        return sipProvider.getAccountID().getAccountPropertyString(
+                RLS_SERVICE_URI);
+    }
+
     /**
      * Gets the pres-content image uri.
      *
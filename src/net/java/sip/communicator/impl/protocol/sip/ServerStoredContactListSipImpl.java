@@ -116,6 +116,17 @@ public class ServerStoredContactListSipImpl
      */
     private RulesetType presRules;
 
+    /**
+     * The URI of the resource list service we have published on the XCAP
+     * server or <tt>null</tt> if there is none.
+     */
+    private String rlsServiceUri;
+
+    /**
+     * The names of the lists the published resource list service is made of.
+     */
+    private List<String> rlsListNames;
+
     /**
      * Creates a ServerStoredContactList wrapper for the specified BuddyList.
      *
@@ -220,7 +231,7 @@ public class ServerStoredContactListSipImpl
             // Update resoure-lists
             try
             {
-                updateResourceLists();
+                updateResourceLists(parentGroup, newContact, true);
             }
             catch (XCapException e)
             {
@@ -304,7 +315,7 @@ public class ServerStoredContactListSipImpl
             // Update resoure-lists
             try
             {
-                updateResourceLists();
+                updateResourceLists(parentGroup, contact, false);
             }
             catch (XCapException e)
             {
@@ -741,6 +752,10 @@ public class ServerStoredContactListSipImpl
             {
                 updateResourceLists();
             }
+            else
+            {
+                updateRlsServices();
+            }
             // Process pres-rules
             if (xCapClient.isPresRulesSupported())
             {
@@ -832,6 +847,8 @@ public class ServerStoredContactListSipImpl
     synchronized public void destroy()
     {
         xCapClient.disconnect();
+        rlsServiceUri = null;
+        rlsListNames = null;
 
         List<ContactSipImpl> contacts = getAllContacts(rootGroup);
         for (ContactSipImpl contact : contacts)
@@ -1393,6 +1410,118 @@ public class ServerStoredContactListSipImpl
         resourceLists.getList().add(serverRootList);
 
         xCapClient.putResourceLists(resourceLists);
+        updateRlsServices();
+    }
+
+    /**
+     * Puts to the server the addition or the removal of a single contact as
+     * an XCAP element rather than the whole resource-lists. The whole
+     * resource-lists is put if the server does not take the element, e.g. if
+     * its resource-lists has changed since it has been last read or written.
+     *
+     * @param group the group the contact has been added to or removed from.
+     * @param contact the contact.
+     * @param added <tt>true</tt> if the contact has been added,
+     * <tt>false</tt> if it has been removed.
+     * @throws XCapException if there is some error during operation.
+     */
+    private synchronized void updateResourceLists(
+            ContactGroupSipImpl group,
+            ContactSipImpl contact,
+            boolean added)
+        throws XCapException
+    {
+        if (!xCapClient.isConnected()
+            || !xCapClient.isResourceListsSupported())
+        {
+            return;
+        }
+
+        List<String> listPath = new LinkedList<String>();
+
+        if (group == rootGroup)
+            listPath.add(ROOT_GROUP_NAME);
+        else
+        {
+            for (ContactGroupSipImpl g = group;
+                    (g != null) && (g != rootGroup);
+                    g = (ContactGroupSipImpl) g.getParentContactGroup())
+                listPath.add(0, g.getGroupName());
+        }
+
+        boolean updated
+            = added
+                ? xCapClient.putResourceListsEntry(listPath, contact.getEntry())
+                : xCapClient.deleteResourceListsEntry(
+                        listPath,
+                        contact.getUri());
+
+        if (!updated)
+            updateResourceLists();
+    }
+
+    /**
+     * Publishes on the XCAP server a resource list service made of the lists
+     * of the resource-lists unless it is already published or a resource list
+     * service has been configured for the account.
+     */
+    private void updateRlsServices()
+    {
+        if (sipProvider.getAccountID().getAccountPropertyString(
+                    RLS_SERVICE_URI) != null
+            || !xCapClient.isConnected()
+            || !xCapClient.isResourceListsSupported()
+            || !xCapClient.isRlsServicesSupported())
+        {
+            return;
+        }
+
+        List<String> listNames = new ArrayList<String>();
+        for (ListType list : rootGroup.getList().getLists())
+        {
+            listNames.add(list.getName());
+        }
+        listNames.add(ROOT_GROUP_NAME);
+
+        if (rlsServiceUri != null && listNames.equals(rlsListNames))
+            return;
+
+        try
+        {
+            SipURI userUri = (SipURI) sipProvider.parseAddressString(
+                    sipProvider.getAccountID().getAccountPropertyString(
+                            ProtocolProviderFactory.USER_ID)).getURI();
+            String serviceUri = "sip:" + userUri.getUser() + "-buddies@"
+                    + userUri.getHost();
+
+            xCapClient.putRlsServices(serviceUri, listNames);
+            rlsServiceUri = serviceUri;
+            rlsListNames = listNames;
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to publish the resource list service, " +
+                    "presence will be subscribed to contact by contact", e);
+            rlsServiceUri = null;
+            rlsListNames = null;
+        }
+    }
+
+    /**
+     * Gets the URI of the resource list server subscription to which delivers
+     * the presence of the contacts in this list. It is the one configured for
+     * the account if any, otherwise the one we have published on the XCAP
+     * server.
+     *
+     * @return the URI of the resource list service or <tt>null</tt> if the
+     * presence of the contacts has to be subscribed to one by one.
+     */
+    @Override
+    public synchronized String getResourceListServiceUri()
+    {
+        String uri = super.getResourceListServiceUri();
+
+        return (uri != null) ? uri : rlsServiceUri;
     }
 
     /**
@@ -0,0 +1,146 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of the candidate recipients of a
+ * <tt>SipStackSharing</tt>, indexed by the user ID of their accounts and by
+ * the value of the custom contact address parameter they register with. It
+ * lets the dispatching of a new request look only at the providers whose user
+ * matches the Request-URI instead of at every registered account.
+ * <p>
+ * <tt>SipStackSharing</tt> builds a new snapshot whenever a provider is added
+ * or removed or changes its registration state, and dispatches from the
+ * current one without locking.
+ */
+class SipListenerIndex
+{
+    /**
+     * The index of a stack without listeners.
+     */
+    static final SipListenerIndex EMPTY
+        = new SipListenerIndex(
+                Collections.<ProtocolProviderServiceSipImpl>emptyList());
+
+    /**
+     * All the candidate recipients.
+     */
+    private final ProtocolProviderServiceSipImpl[] listeners;
+
+    /**
+     * The candidate recipients by the user ID of their account.
+     */
+    private final Map<String, ProtocolProviderServiceSipImpl[]> byUserID
+        = new HashMap<String, ProtocolProviderServiceSipImpl[]>();
+
+    /**
+     * The candidate recipients by the user ID of their account and the value
+     * of their custom contact address parameter, for the user IDs shared by
+     * several accounts.
+     */
+    private final Map<String, Map<String, ProtocolProviderServiceSipImpl>>
+        byCustomParam
+            = new HashMap<String, Map<String, ProtocolProviderServiceSipImpl>>();
+
+    /**
+     * Indexes the given candidate recipients.
+     *
+     * @param listeners the candidate recipients
+     */
+    SipListenerIndex(Collection<ProtocolProviderServiceSipImpl> listeners)
+    {
+        this.listeners
+            = listeners.toArray(
+                    new ProtocolProviderServiceSipImpl[listeners.size()]);
+
+        Map<String, List<ProtocolProviderServiceSipImpl>> users
+            = new HashMap<String, List<ProtocolProviderServiceSipImpl>>();
+
+        for (ProtocolProviderServiceSipImpl listener : this.listeners)
+        {
+            String userID = listener.getAccountID().getUserID();
+            List<ProtocolProviderServiceSipImpl> sameUser = users.get(userID);
+
+            if (sameUser == null)
+            {
+                sameUser = new ArrayList<ProtocolProviderServiceSipImpl>(1);
+                users.put(userID, sameUser);
+            }
+            sameUser.add(listener);
+        }
+
+        for (Map.Entry<String, List<ProtocolProviderServiceSipImpl>> e
+                : users.entrySet())
+        {
+            List<ProtocolProviderServiceSipImpl> sameUser = e.getValue();
+
+            byUserID.put(
+                    e.getKey(),
+                    sameUser.toArray(
+                        new ProtocolProviderServiceSipImpl[sameUser.size()]));
+
+            if (sameUser.size() > 1)
+            {
+                Map<String, ProtocolProviderServiceSipImpl> params
+                    = new HashMap<String, ProtocolProviderServiceSipImpl>();
+
+                for (ProtocolProviderServiceSipImpl listener : sameUser)
+                {
+                    String param
+                        = listener.getContactAddressCustomParamValue();
+
+                    // the first one wins, as it did with the linear scan
+                    if (param != null && !params.containsKey(param))
+                        params.put(param, listener);
+                }
+                byCustomParam.put(e.getKey(), params);
+            }
+        }
+    }
+
+    /**
+     * Returns all the candidate recipients.
+     *
+     * @return all the candidate recipients
+     */
+    ProtocolProviderServiceSipImpl[] getListeners()
+    {
+        return listeners;
+    }
+
+    /**
+     * Returns the candidate recipients whose account has the given user ID.
+     *
+     * @param userID the user ID
+     * @return the candidate recipients whose account has <tt>userID</tt>, or
+     * <tt>null</tt> if there is none
+     */
+    ProtocolProviderServiceSipImpl[] getListenersForUser(String userID)
+    {
+        return byUserID.get(userID);
+    }
+
+    /**
+     * Returns the candidate recipient whose account has the given user ID and
+     * which registers with the given custom contact address parameter value.
+     *
+     * @param userID the user ID
+     * @param paramValue the value of the custom contact address parameter
+     * @return the candidate recipient or <tt>null</tt> if there is none
+     */
+    ProtocolProviderServiceSipImpl getListenerForCustomParam(
+            String userID,
+            String paramValue)
+    {
+        Map<String, ProtocolProviderServiceSipImpl> params
+            = byCustomParam.get(userID);
+
+        return (params == null) ? null : params.get(paramValue);
+    }
+}
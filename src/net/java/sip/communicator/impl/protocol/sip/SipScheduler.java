@@ -0,0 +1,412 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Runs the delayed and periodic tasks of all the SIP protocol providers on a
+ * small, bounded pool of daemon threads instead of a <tt>Timer</tt> thread per
+ * task owner. One-shot tasks with short delays, which are the bulk of them
+ * and are mostly cancelled before they run, wait in a
+ * <tt>HashedWheelTimer</tt>; the others wait in the queue of a
+ * <tt>ScheduledExecutorService</tt>.
+ * <p>
+ * Tasks are counted by type, which lets {@link #getStatistics()} report how
+ * many have been scheduled, how many have run and how late they ran.
+ */
+public class SipScheduler
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>SipScheduler</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(SipScheduler.class);
+
+    /**
+     * The number of threads running the tasks.
+     */
+    private static final int POOL_SIZE = 4;
+
+    /**
+     * The duration in milliseconds of a tick of the wheel of short timeouts.
+     * A task in the wheel is handed to the executor at the first tick after
+     * its deadline, so it starts up to a tick late plus the time it waits for
+     * a free thread of the executor; the worst case is thus more than a tick.
+     */
+    private static final long TICK_DURATION = 50;
+
+    /**
+     * The number of ticks of the wheel of short timeouts.
+     */
+    private static final int TICKS_PER_WHEEL = 1024;
+
+    /**
+     * The scheduler shared by the SIP protocol providers.
+     */
+    private static SipScheduler instance;
+
+    /**
+     * The executor running the tasks and holding those with long delays.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The wheel holding the one-shot tasks with short delays.
+     */
+    private final HashedWheelTimer wheel;
+
+    /**
+     * The statistics of the tasks by type.
+     */
+    private final ConcurrentMap<String, TaskStatistics> statistics
+        = new ConcurrentHashMap<String, TaskStatistics>();
+
+    /**
+     * Returns the scheduler shared by the SIP protocol providers.
+     *
+     * @return the scheduler shared by the SIP protocol providers
+     */
+    public static synchronized SipScheduler getInstance()
+    {
+        if (instance == null)
+            instance = new SipScheduler();
+        return instance;
+    }
+
+    /**
+     * Creates a scheduler.
+     */
+    private SipScheduler()
+    {
+        executor
+            = new ScheduledThreadPoolExecutor(
+                    POOL_SIZE,
+                    new ThreadFactory()
+                    {
+                        private final AtomicInteger count
+                            = new AtomicInteger();
+
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread
+                                = new Thread(
+                                        r,
+                                        "SipScheduler-"
+                                            + count.incrementAndGet());
+
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+
+        wheel = new HashedWheelTimer(executor, TICK_DURATION, TICKS_PER_WHEEL);
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task the task
+     * @param type the type the task is counted as
+     * @param delay the delay in milliseconds
+     * @return the <tt>ScheduledTask</tt> which cancels <tt>task</tt>
+     */
+    public ScheduledTask schedule(Runnable task, String type, long delay)
+    {
+        Task t = new Task(task, getStatistics(type), delay, 0);
+
+        if (delay <= wheel.getMaxDelay())
+            t.timeout = wheel.newTimeout(t, delay);
+        else
+            t.future = executor.schedule(t, delay, TimeUnit.MILLISECONDS);
+        return t;
+    }
+
+    /**
+     * Schedules a task to run repeatedly, separated by a period, after a
+     * delay.
+     *
+     * @param task the task
+     * @param type the type the task is counted as
+     * @param delay the delay in milliseconds before the first run
+     * @param period the time in milliseconds between the end of a run and the
+     * start of the next one
+     * @return the <tt>ScheduledTask</tt> which cancels <tt>task</tt>
+     */
+    public ScheduledTask schedule(
+            Runnable task,
+            String type,
+            long delay,
+            long period)
+    {
+        if (period <= 0)
+            throw new IllegalArgumentException("Non-positive period.");
+
+        Task t = new Task(task, getStatistics(type), delay, period);
+
+        t.future
+            = executor.scheduleWithFixedDelay(
+                    t,
+                    delay, period,
+                    TimeUnit.MILLISECONDS);
+        return t;
+    }
+
+    /**
+     * Returns the statistics of the tasks scheduled so far, by type.
+     *
+     * @return the statistics of the tasks scheduled so far, by type
+     */
+    public Map<String, TaskStatistics> getStatistics()
+    {
+        return
+            Collections.unmodifiableMap(
+                    new TreeMap<String, TaskStatistics>(statistics));
+    }
+
+    /**
+     * Returns the statistics of the tasks of a type.
+     *
+     * @param type the type of the tasks
+     * @return the statistics of the tasks of type <tt>type</tt>
+     */
+    private TaskStatistics getStatistics(String type)
+    {
+        TaskStatistics s = statistics.get(type);
+
+        if (s == null)
+        {
+            TaskStatistics newS = new TaskStatistics();
+
+            s = statistics.putIfAbsent(type, newS);
+            if (s == null)
+                s = newS;
+        }
+        return s;
+    }
+
+    /**
+     * A task scheduled with a <tt>SipScheduler</tt>.
+     */
+    public interface ScheduledTask
+    {
+        /**
+         * Cancels the task. It will not run any more, though a run which has
+         * already started is let finish.
+         *
+         * @return <tt>true</tt> if a run of the task has been prevented
+         */
+        boolean cancel();
+    }
+
+    /**
+     * The counts of the tasks of a type.
+     */
+    public static class TaskStatistics
+    {
+        private final AtomicLong scheduled = new AtomicLong();
+
+        private final AtomicLong fired = new AtomicLong();
+
+        private final AtomicLong cancelled = new AtomicLong();
+
+        private final AtomicLong totalLateness = new AtomicLong();
+
+        private final AtomicLong maxLateness = new AtomicLong();
+
+        /**
+         * Returns the number of tasks which have been scheduled.
+         *
+         * @return the number of tasks which have been scheduled
+         */
+        public long getScheduledCount()
+        {
+            return scheduled.get();
+        }
+
+        /**
+         * Returns the number of runs of the tasks, counting every run of the
+         * periodic ones.
+         *
+         * @return the number of runs of the tasks
+         */
+        public long getFiredCount()
+        {
+            return fired.get();
+        }
+
+        /**
+         * Returns the number of tasks which have been cancelled before they
+         * ran, or before their next run for the periodic ones.
+         *
+         * @return the number of tasks which have been cancelled
+         */
+        public long getCancelledCount()
+        {
+            return cancelled.get();
+        }
+
+        /**
+         * Returns the average time the tasks have run after the time they
+         * were scheduled for.
+         *
+         * @return the average lateness in milliseconds of the tasks
+         */
+        public double getAverageLateness()
+        {
+            long fired = this.fired.get();
+
+            return
+                (fired == 0)
+                    ? 0
+                    : totalLateness.get() / (fired * 1000000.0);
+        }
+
+        /**
+         * Returns the longest time a task has run after the time it was
+         * scheduled for.
+         *
+         * @return the maximum lateness in milliseconds of the tasks
+         */
+        public double getMaxLateness()
+        {
+            return maxLateness.get() / 1000000.0;
+        }
+
+        /**
+         * Records a run which started a number of nanoseconds late.
+         *
+         * @param lateness the lateness in nanoseconds of the run
+         */
+        private void fired(long lateness)
+        {
+            if (lateness < 0)
+                lateness = 0;
+
+            fired.incrementAndGet();
+            totalLateness.addAndGet(lateness);
+
+            long max;
+
+            while (lateness > (max = maxLateness.get())
+                    && !maxLateness.compareAndSet(max, lateness));
+        }
+
+        @Override
+        public String toString()
+        {
+            return
+                "scheduled=" + getScheduledCount()
+                    + ", fired=" + getFiredCount()
+                    + ", cancelled=" + getCancelledCount()
+                    + ", avgLateMs=" + getAverageLateness()
+                    + ", maxLateMs=" + getMaxLateness();
+        }
+    }
+
+    /**
+     * Runs a scheduled task, counting its runs and logging what it throws so
+     * that neither the thread nor the next runs of the task are lost.
+     */
+    private static class Task
+        implements Runnable,
+                   ScheduledTask
+    {
+        private final Runnable task;
+
+        private final TaskStatistics statistics;
+
+        private final long period;
+
+        /**
+         * The time in nanoseconds the next run is scheduled for.
+         */
+        private volatile long nextRunTime;
+
+        /**
+         * Whether the task has been cancelled or, for a one-shot task, has
+         * started its run.
+         */
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        /**
+         * The timeout holding the task if it waits in the wheel.
+         */
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        /**
+         * The future of the task if it waits in the executor.
+         */
+        private volatile Future<?> future;
+
+        Task(Runnable task, TaskStatistics statistics, long delay, long period)
+        {
+            this.task = task;
+            this.statistics = statistics;
+            this.period = period;
+
+            nextRunTime
+                = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+            statistics.scheduled.incrementAndGet();
+        }
+
+        public void run()
+        {
+            if ((period > 0)
+                    ? finished.get()
+                    : !finished.compareAndSet(false, true))
+                return;
+
+            statistics.fired(System.nanoTime() - nextRunTime);
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                // ThreadDeath should always be re-thrown.
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+
+                logger.error("Error running scheduled task " + task, t);
+            }
+            finally
+            {
+                if (period > 0)
+                {
+                    nextRunTime
+                        = System.nanoTime()
+                            + TimeUnit.MILLISECONDS.toNanos(period);
+                }
+            }
+        }
+
+        public boolean cancel()
+        {
+            if (!finished.compareAndSet(false, true))
+                return false;
+
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            Future<?> future = this.future;
+
+            if (timeout != null)
+                timeout.cancel();
+            else if (future != null)
+                future.cancel(false);
+            statistics.cancelled.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import gov.nist.javax.sip.stack.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import javax.sip.*;
 import javax.sip.address.*;
@@ -73,12 +74,47 @@ public class SipStackSharing
     /**
      * The candidate recipients to choose from when dispatching messages
      * received from one the JAIN-SIP <tt>SipProvider</tt>-s. for thread safety
-     * issues reasons, better iterate on a copy of that set using
-     * <tt>getSipListeners()</tt>.
+     * issues reasons, dispatching uses the snapshot in
+     * <tt>listenerIndex</tt> instead of this set.
      */
     private final Set<ProtocolProviderServiceSipImpl> listeners
         = new HashSet<ProtocolProviderServiceSipImpl>();
 
+    /**
+     * The snapshot of <tt>listeners</tt>, indexed by user ID, that new
+     * requests are dispatched from.
+     */
+    private volatile SipListenerIndex listenerIndex = SipListenerIndex.EMPTY;
+
+    /**
+     * Rebuilds <tt>listenerIndex</tt> when the registration of one of our
+     * listeners changes, as the values it is indexed by may have changed.
+     */
+    private final RegistrationStateChangeListener listenerIndexUpdater
+        = new RegistrationStateChangeListener()
+        {
+            public void registrationStateChanged(
+                    RegistrationStateChangeEvent evt)
+            {
+                updateListenerIndex();
+            }
+        };
+
+    /**
+     * The number of requests dispatched with <tt>findTargetFor()</tt>.
+     */
+    private final AtomicLong dispatchCount = new AtomicLong();
+
+    /**
+     * The total time in nanoseconds spent in <tt>findTargetFor()</tt>.
+     */
+    private final AtomicLong dispatchTime = new AtomicLong();
+
+    /**
+     * The longest time in nanoseconds spent in <tt>findTargetFor()</tt>.
+     */
+    private final AtomicLong maxDispatchTime = new AtomicLong();
+
     /**
      * The property indicating the preferred UDP and TCP
      * port to bind to for clear communications.
@@ -149,9 +185,11 @@ public class SipStackSharing
             if(this.listeners.size() == 0)
                 startListening();
             this.listeners.add(listener);
+            updateListenerIndex();
             if (logger.isTraceEnabled())
                 logger.trace(this.listeners.size() + " listeners now");
         }
+        listener.addRegistrationStateChangeListener(listenerIndexUpdater);
     }
 
     /**
@@ -163,9 +201,11 @@ public class SipStackSharing
      */
     public void removeSipListener(ProtocolProviderServiceSipImpl listener)
     {
+        listener.removeRegistrationStateChangeListener(listenerIndexUpdater);
         synchronized(this.listeners)
         {
             this.listeners.remove(listener);
+            updateListenerIndex();
 
             int listenerCount = listeners.size();
             if (logger.isTraceEnabled())
@@ -176,18 +216,52 @@ public class SipStackSharing
     }
 
     /**
-     * Returns a copy of the <tt>listeners</tt> (= candidate recipients) set.
-     *
-     * @return a copy of the <tt>listeners</tt> set.
+     * Replaces the snapshot of the <tt>listeners</tt> (= candidate recipients)
+     * set that new requests are dispatched from.
      */
-    private Set<ProtocolProviderServiceSipImpl> getSipListeners()
+    private void updateListenerIndex()
     {
         synchronized(this.listeners)
         {
-            return new HashSet<ProtocolProviderServiceSipImpl>(this.listeners);
+            listenerIndex = new SipListenerIndex(this.listeners);
         }
     }
 
+    /**
+     * Returns the number of new requests that have been dispatched to one of
+     * our listeners (or failed to).
+     *
+     * @return the number of dispatched requests.
+     */
+    public long getDispatchCount()
+    {
+        return dispatchCount.get();
+    }
+
+    /**
+     * Returns the average time spent choosing the listener a new request is
+     * dispatched to.
+     *
+     * @return the average dispatch time in nanoseconds.
+     */
+    public long getAverageDispatchTime()
+    {
+        long count = dispatchCount.get();
+
+        return (count == 0) ? 0 : dispatchTime.get() / count;
+    }
+
+    /**
+     * Returns the longest time spent choosing the listener a new request is
+     * dispatched to.
+     *
+     * @return the longest dispatch time in nanoseconds.
+     */
+    public long getMaxDispatchTime()
+    {
+        return maxDispatchTime.get();
+    }
+
     /**
      * Returns the JAIN-SIP <tt>ListeningPoint</tt> associated to the given
      * transport string.
@@ -821,21 +895,39 @@ public class SipStackSharing
             return null;
         }
 
-        List<ProtocolProviderServiceSipImpl> currentListenersCopy
-            = new ArrayList<ProtocolProviderServiceSipImpl>(
-                                this.getSipListeners());
-
-        // Let's first narrow down candidate choice by comparing
-        // addresses and ports (no point in delivering to a provider with a
-        // non matching IP address  since they will reject it anyway).
-        filterByAddress(currentListenersCopy, request);
+        long startTime = System.nanoTime();
 
-        if(currentListenersCopy.size() == 0)
+        try
         {
-            logger.error("no listeners");
-            return null;
+            return findTargetFor(request, listenerIndex);
+        }
+        finally
+        {
+            long time = System.nanoTime() - startTime;
+            long max = maxDispatchTime.get();
+
+            dispatchCount.incrementAndGet();
+            dispatchTime.addAndGet(time);
+            while(time > max && !maxDispatchTime.compareAndSet(max, time))
+                max = maxDispatchTime.get();
+            if (logger.isTraceEnabled())
+                logger.trace("dispatch took " + time + " ns");
         }
+    }
 
+    /**
+     * Finds the recipient of <tt>request</tt> among the listeners of a
+     * snapshot of the candidate recipients. Only the providers whose user ID
+     * is the user of the Request-URI are considered, unless there is none.
+     *
+     * @param request the <tt>Request</tt> to find a recipient for.
+     * @param index the snapshot of the candidate recipients.
+     * @return a suitable <tt>ProtocolProviderServiceSipImpl</tt>.
+     */
+    private ProtocolProviderServiceSipImpl findTargetFor(
+            Request request,
+            SipListenerIndex index)
+    {
         URI requestURI = request.getRequestURI();
 
         if(requestURI.isSipURI())
@@ -847,12 +939,22 @@ public class SipStackSharing
 
             // check if the Request-URI username is
             // one of ours usernames
-            for(ProtocolProviderServiceSipImpl listener : currentListenersCopy)
+            ProtocolProviderServiceSipImpl[] sameUser
+                = (requestUser == null)
+                    ? null
+                    : index.getListenersForUser(requestUser);
+
+            if(sameUser != null)
             {
-                String ourUserID = listener.getAccountID().getUserID();
-                //logger.trace(ourUserID + " *** " + requestUser);
-                if(ourUserID.equals(requestUser))
+                for(ProtocolProviderServiceSipImpl listener : sameUser)
                 {
+                    // Let's narrow down candidate choice by comparing
+                    // addresses and ports (no point in delivering to a
+                    // provider with a non matching IP address since they will
+                    // reject it anyway).
+                    if(!isFromSameConnection(listener, request))
+                        continue;
+
                     if (logger.isTraceEnabled())
                         logger.trace("suitable candidate found: "
                                 + listener.getAccountID());
@@ -877,14 +979,28 @@ public class SipStackSharing
             {
                 // check if a custom param exists in the contact
                 // address (set for registrar accounts)
-                for (ProtocolProviderServiceSipImpl candidate : candidates)
+                String hostValue = ((SipURI) requestURI).getParameter(
+                        SipStackSharing.CONTACT_ADDRESS_CUSTOM_PARAM_NAME);
+                if (hostValue != null)
                 {
-                    String hostValue = ((SipURI) requestURI).getParameter(
-                            SipStackSharing.CONTACT_ADDRESS_CUSTOM_PARAM_NAME);
-                    if (hostValue == null)
-                        continue;
-                    if (hostValue.equals(candidate
-                                .getContactAddressCustomParamValue()))
+                    ProtocolProviderServiceSipImpl candidate
+                        = index.getListenerForCustomParam(
+                                requestUser, hostValue);
+
+                    if (candidate == null || !candidates.contains(candidate))
+                    {
+                        candidate = null;
+                        for (ProtocolProviderServiceSipImpl c : candidates)
+                        {
+                            if (hostValue.equals(
+                                    c.getContactAddressCustomParamValue()))
+                            {
+                                candidate = c;
+                                break;
+                            }
+                        }
+                    }
+                    if (candidate != null)
                     {
                         if (logger.isTraceEnabled())
                             logger.trace("Will dispatch to \""
@@ -939,8 +1055,21 @@ public class SipStackSharing
             }
 
             // fallback on any account
-            ProtocolProviderServiceSipImpl target =
-                currentListenersCopy.iterator().next();
+            ProtocolProviderServiceSipImpl target = null;
+
+            for(ProtocolProviderServiceSipImpl listener : index.getListeners())
+            {
+                if(isFromSameConnection(listener, request))
+                {
+                    target = listener;
+                    break;
+                }
+            }
+            if(target == null)
+            {
+                logger.error("no listeners");
+                return null;
+            }
             if (logger.isDebugEnabled())
                 logger.debug("Will randomly dispatch to \"" + target
                         .getAccountID()
@@ -958,36 +1087,26 @@ public class SipStackSharing
     }
 
     /**
-     * Removes from the specified list of candidates providers connected to a
-     * registrar that does not match the IP address that we are receiving a
-     * request from.
+     * Determines whether a candidate may receive a request, i.e. whether it
+     * is registrarless or connected to the registrar matching the IP address
+     * that we are receiving the request from.
      *
-     * @param candidates the list of providers we've like to filter.
+     * @param candidate the provider we'd like to check.
      * @param request the request that we are currently dispatching
+     * @return <tt>false</tt> if <tt>candidate</tt> is connected to another
+     * registrar, <tt>true</tt> otherwise.
      */
-    private void filterByAddress(
-                    List<ProtocolProviderServiceSipImpl> candidates,
-                    Request                              request)
+    private static boolean isFromSameConnection(
+                    ProtocolProviderServiceSipImpl candidate,
+                    Request                        request)
     {
-        Iterator<ProtocolProviderServiceSipImpl> iterPP = candidates.iterator();
-        while (iterPP.hasNext())
-        {
-            ProtocolProviderServiceSipImpl candidate = iterPP.next();
-
-            if(candidate.getRegistrarConnection() == null)
-            {
-                //RegistrarLess connections are ok
-                continue;
-            }
-
-            if (   !candidate.getRegistrarConnection().isRegistrarless()
-                && !candidate.getRegistrarConnection()
-                        .isRequestFromSameConnection(request))
-            {
-                iterPP.remove();
-            }
-        }
+        SipRegistrarConnection registrarConnection
+            = candidate.getRegistrarConnection();
 
+        //RegistrarLess connections are ok
+        return registrarConnection == null
+            || registrarConnection.isRegistrarless()
+            || registrarConnection.isRequestFromSameConnection(request);
     }
 
     /**
@@ -1201,6 +1320,12 @@ public class SipStackSharing
     Map<String, TimerTask> resetListeningPointsTimers
             = new HashMap<String, TimerTask>();
 
+    /**
+     * Schedules the checks of the waiting timers.
+     */
+    private final TimerScheduler resetListeningPointScheduler
+        = new TimerScheduler();
+
     /**
      * Listens for network changes and if we have a down interface
      * and we have a tcp/tls provider which is staying for 20 seconds in
@@ -1281,10 +1406,13 @@ public class SipStackSharing
         {
             if(evt.getNewState() == RegistrationState.UNREGISTERING)
             {
-                new Timer().schedule(this, TIME_FOR_PP_TO_UNREGISTER);
+                resetListeningPointScheduler.schedule(
+                        this,
+                        TIME_FOR_PP_TO_UNREGISTER);
             }
             else
             {
+                TimerScheduler.cancelTask(this);
                 protocolProvider.removeRegistrationStateChangeListener(this);
                 resetListeningPointsTimers.remove(
                     protocolProvider.getRegistrarConnection().getTransport());
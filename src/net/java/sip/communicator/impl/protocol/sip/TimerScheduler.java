@@ -7,6 +7,7 @@
 package net.java.sip.communicator.impl.protocol.sip;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represents an analogy of <code>Timer</code> which does not have the
@@ -14,40 +15,86 @@ import java.util.*;
  * construction time. It also allows the currently scheduled
  * <code>TimerTask</code>s to be canceled while still being able to schedule new
  * <code>TimerTask</code>s later on.
+ * <p>
+ * The <code>TimerTask</code>s are run by the <code>SipScheduler</code> shared
+ * by all the SIP protocol providers rather than by a thread of their own.
+ * Since it cannot tell when a <code>TimerTask</code> is canceled, a
+ * <code>TimerTask</code> scheduled with a <code>TimerScheduler</code> has to be
+ * canceled with {@link #cancelTask(TimerTask)} rather than with
+ * {@link TimerTask#cancel()}.
  * 
  * @author Lubomir Marinov
  */
 public class TimerScheduler
 {
+    /**
+     * The <code>TimerScheduler</code>s of the currently scheduled
+     * <code>TimerTask</code>s.
+     */
+    private static final ConcurrentMap<TimerTask, TimerScheduler> schedulers
+        = new ConcurrentHashMap<TimerTask, TimerScheduler>();
 
     /**
-     * The timer which will handle all scheduled tasks.
+     * The currently scheduled <code>TimerTask</code>s and their
+     * <code>SipScheduler</code> counterparts.
      */
-    private Timer timer;
+    private final Map<TimerTask, SipScheduler.ScheduledTask> tasks
+        = new HashMap<TimerTask, SipScheduler.ScheduledTask>();
+
+    /**
+     * Cancels a <code>TimerTask</code> scheduled with any
+     * <code>TimerScheduler</code>, so that it will not run any more.
+     *
+     * @param task the <code>TimerTask</code> to cancel
+     * @return <tt>true</tt> if a run of <tt>task</tt> has been prevented
+     */
+    public static boolean cancelTask(TimerTask task)
+    {
+        TimerScheduler scheduler = schedulers.get(task);
+
+        return (scheduler != null) && scheduler.cancel(task);
+    }
 
     /**
      * Discarding any currently scheduled <code>TimerTask</code>s.
      */
     public synchronized void cancel()
     {
-       if (timer != null)
-       {
-           timer.cancel();
-           timer = null;
-       }
+        for (Map.Entry<TimerTask, SipScheduler.ScheduledTask> e
+                : tasks.entrySet())
+        {
+            schedulers.remove(e.getKey(), this);
+            e.getValue().cancel();
+        }
+        tasks.clear();
     }
 
     /**
-     * Gets the timer which handles all scheduled tasks. If it still doesn't
-     * exists, a new <tt>Timer</tt> is created.
-     * 
-     * @return the <tt>Timer</tt> which handles all scheduled tasks
+     * Cancels one of the currently scheduled <code>TimerTask</code>s.
+     *
+     * @param task the <code>TimerTask</code> to cancel
+     * @return <tt>true</tt> if a run of <tt>task</tt> has been prevented
      */
-    private synchronized Timer getTimer()
+    private synchronized boolean cancel(TimerTask task)
     {
-       if (timer == null)
-           timer = new Timer(true);
-       return timer;
+        SipScheduler.ScheduledTask scheduledTask = tasks.remove(task);
+
+        if (scheduledTask == null)
+            return false;
+
+        schedulers.remove(task, this);
+        return scheduledTask.cancel();
+    }
+
+    /**
+     * Forgets a one-shot <code>TimerTask</code> which is about to run.
+     *
+     * @param task the <code>TimerTask</code> which is about to run
+     */
+    private synchronized void forget(TimerTask task)
+    {
+        if (tasks.remove(task) != null)
+            schedulers.remove(task, this);
     }
 
     /**
@@ -61,9 +108,25 @@ public class TimerScheduler
      *            the delay in milliseconds before the specified
      *            <code>TimerTask</code> is executed
      */
-    public synchronized void schedule(TimerTask task, long delay)
+    public synchronized void schedule(final TimerTask task, long delay)
     {
-        getTimer().schedule(task, delay);
+        checkNotScheduled(task);
+
+        SipScheduler.ScheduledTask scheduledTask
+            = SipScheduler.getInstance().schedule(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            forget(task);
+                            task.run();
+                        }
+                    },
+                    task.getClass().getName(),
+                    delay);
+
+        tasks.put(task, scheduledTask);
+        schedulers.put(task, this);
     }
 
     /**
@@ -83,6 +146,28 @@ public class TimerScheduler
      */
     public synchronized void schedule(TimerTask task, long delay, long period)
     {
-        getTimer().schedule(task, delay, period);
+        checkNotScheduled(task);
+
+        SipScheduler.ScheduledTask scheduledTask
+            = SipScheduler.getInstance().schedule(
+                    task,
+                    task.getClass().getName(),
+                    delay, period);
+
+        tasks.put(task, scheduledTask);
+        schedulers.put(task, this);
+    }
+
+    /**
+     * Makes sure a <code>TimerTask</code> is not scheduled twice, as
+     * <code>Timer</code> does.
+     *
+     * @param task the <code>TimerTask</code> about to be scheduled
+     * @throws IllegalStateException if <tt>task</tt> is already scheduled
+     */
+    private static void checkNotScheduled(TimerTask task)
+    {
+        if (schedulers.containsKey(task))
+            throw new IllegalStateException("Task already scheduled.");
     }
 }
@@ -9,6 +9,7 @@ package net.java.sip.communicator.impl.protocol.sip.xcap;
 import java.io.*;
 import java.net.*;
 import java.net.URI;
+import java.util.*;
 
 import javax.net.ssl.*;
 import javax.sip.address.*;
@@ -30,6 +31,7 @@ import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.*;
 import org.apache.http.impl.client.*;
 import org.apache.http.params.*;
+import org.jitsi.service.fileaccess.*;
 import org.osgi.framework.*;
 
 /**
@@ -62,6 +64,11 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
+    /**
+     * HTTP If-Match header.
+     */
+    public static final String HEADER_IF_MATCH = "If-Match";
+
     /**
      * XCap-error content type.
      */
@@ -73,6 +80,16 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     private static int DEFAULT_TIMEOUT = 10 * 1000;
 
+    /**
+     * The name of the directory the XCAP resources are cached in.
+     */
+    private static final String CACHE_DIR_NAME = "xcap-cache";
+
+    /**
+     * The cache of the XCAP resources shared by the clients.
+     */
+    private static XCapDocumentCache cache;
+
     /**
      * Current server uri.
      */
@@ -108,6 +125,13 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     private CertificateService certificateVerification;
 
+    /**
+     * The last known entity tags of the documents of the user, by document
+     * selector.
+     */
+    private final Map<String, String> documentETags
+        = new HashMap<String, String>();
+
     /**
      * Creates an instance of this XCAP client.
      */
@@ -115,13 +139,19 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
     {
         timeout = DEFAULT_TIMEOUT;
 
+        BundleContext bundleContext = SipActivator.getBundleContext();
+
+        // there is no bundle context outside of the OSGi framework
+        if (bundleContext == null)
+            return;
+
         ServiceReference guiVerifyReference
-            = SipActivator.getBundleContext().getServiceReference(
+            = bundleContext.getServiceReference(
                 CertificateService.class.getName());
 
         if(guiVerifyReference != null)
             certificateVerification
-                = (CertificateService)SipActivator.getBundleContext()
+                = (CertificateService)bundleContext
                     .getService(guiVerifyReference);
     }
 
@@ -167,6 +197,10 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
         this.userAddress = null;
         this.password = null;
         connected = false;
+        synchronized (documentETags)
+        {
+            documentETags.clear();
+        }
     }
 
     /**
@@ -180,11 +214,15 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
     public XCapHttpResponse get(XCapResourceId resourceId)
             throws XCapException
     {
-        return get(getResourceURI(resourceId));
+        XCapHttpResponse response = get(getResourceURI(resourceId));
+        updateETag(resourceId, response);
+        return response;
     }
 
     /**
-     * Gets resource from the server.
+     * Gets resource from the server. If the resource is in the cache, it is
+     * only downloaded if it has changed since, otherwise the response is made
+     * of the cached resource.
      *
      * @param uri the resource uri.
      * @return the server response.
@@ -199,13 +237,42 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
         {
             HttpGet getMethod = new HttpGet(uri);
             getMethod.setHeader("Connection", "close");
+            XCapDocumentCache.Resource cached = getCache().get(uri);
+            if (cached != null)
+            {
+                getMethod.setHeader(HEADER_IF_NONE_MATCH, cached.eTag);
+            }
             Credentials credentials =
                     new UsernamePasswordCredentials(getUserName(), password);
             httpClient.getCredentialsProvider().
                     setCredentials(AuthScope.ANY, credentials);
 
             HttpResponse response = httpClient.execute(getMethod);
-            XCapHttpResponse result = createResponse(response);
+            XCapHttpResponse result;
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (cached != null && statusCode == HttpStatus.SC_NOT_MODIFIED)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Resource " + uri + " has not changed");
+                }
+                result = new XCapHttpResponse();
+                result.setHttpCode(HttpStatus.SC_OK);
+                result.setContentType(cached.contentType);
+                result.setContent(cached.content);
+                result.setETag(cached.eTag);
+                return result;
+            }
+            result = createResponse(response);
+            if (statusCode == HttpStatus.SC_OK && result.getETag() != null)
+            {
+                getCache().put(uri, result.getETag(),
+                        result.getContentType(), result.getContent());
+            }
+            else if (cached != null)
+            {
+                getCache().remove(uri);
+            }
             if (logger.isDebugEnabled())
             {
                 byte[] contentBytes = result.getContent();
@@ -291,6 +358,23 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     public XCapHttpResponse put(XCapResource resource)
             throws XCapException
+    {
+        return put(resource, null);
+    }
+
+    /**
+     * Puts the resource to the server if its document has not changed since
+     * it has been given an entity tag.
+     *
+     * @param resource the resource  to be saved on the server.
+     * @param eTag the entity tag the document of the resource must have or
+     *             <tt>null</tt> to put the resource unconditionally.
+     * @return the server response.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public XCapHttpResponse put(XCapResource resource, String eTag)
+            throws XCapException
     {
         DefaultHttpClient httpClient = createHttpClient();
         try
@@ -298,6 +382,10 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
             URI resourceUri = getResourceURI(resource.getId());
             HttpPut putMethod = new HttpPut(resourceUri);
             putMethod.setHeader("Connection", "close");
+            if (eTag != null)
+            {
+                putMethod.setHeader(HEADER_IF_MATCH, eTag);
+            }
             StringEntity stringEntity = new StringEntity(resource.getContent());
             stringEntity.setContentType(resource.getContentType());
             stringEntity.setContentEncoding("UTF-8");
@@ -316,7 +404,20 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
                 logger.debug(logMessage);
             }
             HttpResponse response = httpClient.execute(putMethod);
-            return createResponse(response);
+            XCapHttpResponse result = createResponse(response);
+            updateETag(resource.getId(), result);
+            int statusCode = result.getHttpCode();
+            if (resource.getId().getNode() == null
+                    && result.getETag() != null
+                    && (statusCode == HttpStatus.SC_OK
+                            || statusCode == HttpStatus.SC_CREATED))
+            {
+                // the server now has what we have just put
+                getCache().put(resourceUri, result.getETag(),
+                        resource.getContentType(),
+                        resource.getContent().getBytes("UTF-8"));
+            }
+            return result;
         }
         catch (IOException e)
         {
@@ -341,6 +442,23 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     public XCapHttpResponse delete(XCapResourceId resourceId)
             throws XCapException
+    {
+        return delete(resourceId, null);
+    }
+
+    /**
+     * Deletes the resource from the server if its document has not changed
+     * since it has been given an entity tag.
+     *
+     * @param resourceId resource identifier.
+     * @param eTag the entity tag the document of the resource must have or
+     *             <tt>null</tt> to delete the resource unconditionally.
+     * @return the server response.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public XCapHttpResponse delete(XCapResourceId resourceId, String eTag)
+            throws XCapException
     {
         assertConnected();
         DefaultHttpClient httpClient = createHttpClient();
@@ -349,6 +467,10 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
             URI resourceUri = getResourceURI(resourceId);
             HttpDelete deleteMethod = new HttpDelete(resourceUri);
             deleteMethod.setHeader("Connection", "close");
+            if (eTag != null)
+            {
+                deleteMethod.setHeader(HEADER_IF_MATCH, eTag);
+            }
             Credentials credentials =
                     new UsernamePasswordCredentials(getUserName(), password);
             httpClient.getCredentialsProvider().
@@ -362,7 +484,13 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
                 logger.debug(logMessage);
             }
             HttpResponse response = httpClient.execute(deleteMethod);
-            return createResponse(response);
+            XCapHttpResponse result = createResponse(response);
+            updateETag(resourceId, result);
+            if (resourceId.getNode() == null)
+            {
+                getCache().remove(resourceUri);
+            }
+            return result;
         }
         catch (IOException e)
         {
@@ -377,6 +505,77 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
         }
     }
 
+    /**
+     * Returns the last known entity tag of the document of a resource.
+     *
+     * @param resourceId the resource identifier.
+     * @return the entity tag of the document of the resource or <tt>null</tt>
+     *         if it is not known.
+     */
+    protected String getETag(XCapResourceId resourceId)
+    {
+        synchronized (documentETags)
+        {
+            return documentETags.get(resourceId.getDocument());
+        }
+    }
+
+    /**
+     * Remembers the entity tag a response gives to the document of a
+     * resource. Any entity tag of an XCAP resource is the one of its document.
+     *
+     * @param resourceId the resource identifier.
+     * @param response   the server response.
+     */
+    private void updateETag(XCapResourceId resourceId,
+                            XCapHttpResponse response)
+    {
+        synchronized (documentETags)
+        {
+            if (response.getETag() != null)
+            {
+                documentETags.put(resourceId.getDocument(),
+                        response.getETag());
+            }
+            else if (response.getHttpCode() == HttpStatus.SC_NOT_FOUND
+                    && resourceId.getNode() == null)
+            {
+                documentETags.remove(resourceId.getDocument());
+            }
+        }
+    }
+
+    /**
+     * Returns the cache of the XCAP resources, kept in the private persistent
+     * directory of the user if there is one.
+     *
+     * @return the cache of the XCAP resources.
+     */
+    private static synchronized XCapDocumentCache getCache()
+    {
+        if (cache == null)
+        {
+            File directory = null;
+            try
+            {
+                FileAccessService fileAccessService
+                        = SipActivator.getFileAccessService();
+                if (fileAccessService != null)
+                {
+                    directory = fileAccessService
+                            .getPrivatePersistentDirectory(CACHE_DIR_NAME);
+                }
+            }
+            catch (Exception e)
+            {
+                logger.warn("XCAP resources will only be cached in memory",
+                        e);
+            }
+            cache = new XCapDocumentCache(directory);
+        }
+        return cache;
+    }
+
     /**
      * Gets user name.
      *
@@ -459,24 +658,27 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
     {
         //TODO: move to HttpUtil
         DefaultHttpClient httpClient = new DefaultHttpClient();
-        try
+        // make sure we use Certificate Verification Service if
+        // for some reason the certificate needs to be shown to user
+        // for approval, when there is one
+        if (certificateVerification != null)
         {
-            // make sure we use Certificate Verification Service if
-            // for some reason the certificate needs to be shown to user
-            // for approval
-            ClientConnectionManager ccm = httpClient.getConnectionManager();
-            SchemeRegistry sr = ccm.getSchemeRegistry();
-            SSLContext ctx =
-                certificateVerification.getSSLContext(
-                    certificateVerification.getTrustManager(uri.getHost()));
-            org.apache.http.conn.ssl.SSLSocketFactory ssf =
-                new org.apache.http.conn.ssl.SSLSocketFactory(ctx,
-                    SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-            sr.register(new Scheme("https", 443, ssf));
-        }
-        catch(Throwable e)
-        {
-            logger.error("Cannot add our trust manager to httpClient", e);
+            try
+            {
+                ClientConnectionManager ccm = httpClient.getConnectionManager();
+                SchemeRegistry sr = ccm.getSchemeRegistry();
+                SSLContext ctx =
+                    certificateVerification.getSSLContext(
+                        certificateVerification.getTrustManager(uri.getHost()));
+                org.apache.http.conn.ssl.SSLSocketFactory ssf =
+                    new org.apache.http.conn.ssl.SSLSocketFactory(ctx,
+                        SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+                sr.register(new Scheme("https", 443, ssf));
+            }
+            catch(Throwable e)
+            {
+                logger.error("Cannot add our trust manager to httpClient", e);
+            }
         }
         HttpParams httpParams = httpClient.getParams();
         HttpConnectionParams.setConnectionTimeout(httpParams, timeout);
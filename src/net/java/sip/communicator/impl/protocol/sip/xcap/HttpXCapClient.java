@@ -65,6 +65,20 @@ public interface HttpXCapClient
     public XCapHttpResponse put(XCapResource resource)
             throws XCapException;
 
+    /**
+     * Puts the resource to the server if its document has not changed since
+     * it has been given an entity tag.
+     *
+     * @param resource the resource  to be saved on the server.
+     * @param eTag the entity tag the document of the resource must have or
+     *             <tt>null</tt> to put the resource unconditionally.
+     * @return the server response.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public XCapHttpResponse put(XCapResource resource, String eTag)
+            throws XCapException;
+
     /**
      * Deletes the resource from the server.
      *
@@ -76,6 +90,20 @@ public interface HttpXCapClient
     public XCapHttpResponse delete(XCapResourceId resourceId)
             throws XCapException;
 
+    /**
+     * Deletes the resource from the server if its document has not changed
+     * since it has been given an entity tag.
+     *
+     * @param resourceId resource identifier.
+     * @param eTag the entity tag the document of the resource must have or
+     *             <tt>null</tt> to delete the resource unconditionally.
+     * @return the server response.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public XCapHttpResponse delete(XCapResourceId resourceId, String eTag)
+            throws XCapException;
+
     /**
      * Gets connected user name.
      *
@@ -6,6 +6,8 @@
  */
 package net.java.sip.communicator.impl.protocol.sip.xcap;
 
+import java.util.*;
+
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.resourcelists.*;
 
 /**
@@ -48,6 +50,41 @@ public interface ResourceListsClient
     public void putResourceLists(ResourceListsType resourceLists)
             throws XCapException;
 
+    /**
+     * Puts an entry of a list of the resource-lists to the server, without
+     * putting the rest of the resource-lists, provided the resource-lists on
+     * the server is the one last read or written by the client.
+     *
+     * @param listPath the names of the list of the entry and of the lists it
+     *                 is nested in, from the outermost.
+     * @param entry    the entry to be saved on the server.
+     * @return <tt>true</tt> if the entry has been saved, <tt>false</tt> if the
+     *         server has refused it and the whole resource-lists has to be
+     *         put instead.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public boolean putResourceListsEntry(List<String> listPath, EntryType entry)
+            throws XCapException;
+
+    /**
+     * Deletes an entry of a list of the resource-lists from the server,
+     * without putting the rest of the resource-lists, provided the
+     * resource-lists on the server is the one last read or written by the
+     * client.
+     *
+     * @param listPath the names of the list of the entry and of the lists it
+     *                 is nested in, from the outermost.
+     * @param uri      the uri of the entry to be deleted.
+     * @return <tt>true</tt> if the entry has been deleted, <tt>false</tt> if
+     *         the server has refused it and the whole resource-lists has to be
+     *         put instead.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public boolean deleteResourceListsEntry(List<String> listPath, String uri)
+            throws XCapException;
+
     /**
      * Gets the resource-lists from the server.
      *
@@ -0,0 +1,47 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap;
+
+import java.util.*;
+
+/**
+ * XCAP rls-services client interface.
+ * <p/>
+ * Compliant with rfc4826
+ */
+public interface RlsServicesClient
+{
+    /**
+     * Rls-services content type
+     */
+    public static String CONTENT_TYPE = "application/rls-services+xml";
+
+    /**
+     * Rls-services namespace
+     */
+    public static String NAMESPACE = "urn:ietf:params:xml:ns:rls-services";
+
+    /**
+     * Rls-services uri format
+     */
+    public static String DOCUMENT_FORMAT = "rls-services/users/%2s/index";
+
+    /**
+     * Puts to the server a rls-services document with a single presence
+     * service whose resources are the given lists of the resource-lists
+     * document of the user.
+     *
+     * @param serviceUri the SIP URI of the service.
+     * @param listNames  the names of the lists of the resource-lists document
+     *                   the service is made of.
+     * @throws IllegalStateException if the user has not been connected, or
+     *                               rls-services is not supported.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public void putRlsServices(String serviceUri, List<String> listNames)
+            throws XCapException;
+}
@@ -15,7 +15,7 @@ package net.java.sip.communicator.impl.protocol.sip.xcap;
  */
 public interface XCapClient extends HttpXCapClient, 
         XCapCapsClient, ResourceListsClient,
-        PresRulesClient, PresContentClient
+        PresRulesClient, PresContentClient, RlsServicesClient
 {
     /**
      * Gets information about XCAP resource-lists support information.
@@ -38,4 +38,11 @@ public interface XCapClient extends HttpXCapClient,
      */
     public boolean isPresContentSupported();
 
+    /**
+     * Gets information about XCAP rls-services support information.
+     *
+     * @return true if rls-services is supported.
+     */
+    public boolean isRlsServicesSupported();
+
 }
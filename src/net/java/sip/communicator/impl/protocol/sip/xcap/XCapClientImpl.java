@@ -8,6 +8,8 @@ package net.java.sip.communicator.impl.protocol.sip.xcap;
 
 import java.io.*;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.util.*;
 
 import javax.sip.address.*;
 
@@ -16,8 +18,10 @@ import net.java.sip.communicator.impl.protocol.sip.xcap.model.*;
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.commonpolicy.*;
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.prescontent.*;
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.resourcelists.*;
+import net.java.sip.communicator.impl.protocol.sip.xcap.model.rlsservices.*;
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.xcapcaps.*;
 import net.java.sip.communicator.util.*;
+import net.java.sip.communicator.util.Logger;
 
 import org.apache.http.*;
 import org.jitsi.util.*;
@@ -32,6 +36,12 @@ import org.jitsi.util.*;
  */
 public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
 {
+    /**
+     * Class logger.
+     */
+    private static final Logger logger =
+            Logger.getLogger(XCapClientImpl.class);
+
     /**
      * Current xcap-caps.
      */
@@ -52,6 +62,11 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
      */
     private boolean presContentSupported;
 
+    /**
+     * Indicates whether or not rls-services is supported.
+     */
+    private boolean rlsServicesSupported;
+
     /**
      * Connects user to XCap server. Loads xcap-caps server capabilities and
      * anaylyze if resource-lists, pres-rules, pres-content is supported.
@@ -89,6 +104,10 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
             {
                 presContentSupported = true;
             }
+            if (RlsServicesClient.NAMESPACE.equals(namespace))
+            {
+                rlsServicesSupported = true;
+            }
         }
     }
 
@@ -100,6 +119,7 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
         super.disconnect();
         xCapCaps = null;
         resourceListsSupported = false;
+        rlsServicesSupported = false;
     }
 
     /**
@@ -184,6 +204,122 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
         deleteResource(resourceId);
     }
 
+    /**
+     * Puts an entry of a list of the resource-lists to the server, without
+     * putting the rest of the resource-lists, provided the resource-lists on
+     * the server is the one last read or written by the client.
+     *
+     * @param listPath the names of the list of the entry and of the lists it
+     *                 is nested in, from the outermost.
+     * @param entry    the entry to be saved on the server.
+     * @return <tt>true</tt> if the entry has been saved, <tt>false</tt> if the
+     *         server has refused it and the whole resource-lists has to be
+     *         put instead.
+     * @throws IllegalStateException if the user has not been connected, or
+     *                               resource-lists is not supported.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public boolean putResourceListsEntry(List<String> listPath, EntryType entry)
+            throws XCapException
+    {
+        assertConnected();
+        assertResourceListsSupported();
+        String resourceListsDocument = getResourceListsDocument();
+        String eTag = getETag(new XCapResourceId(resourceListsDocument));
+        if (eTag == null)
+        {
+            // without the version of the document on the server we cannot
+            // tell whether the entry would go where we think it goes
+            return false;
+        }
+        XCapResourceId resourceId = new XCapResourceId(resourceListsDocument,
+                getEntryNodeSelector(listPath, entry.getUri()));
+        try
+        {
+            String xml = ResourceListsParser.toXml(entry);
+            XCapResource resource = new XCapResource(resourceId, xml,
+                    ResourceListsClient.ELEMENT_CONTENT_TYPE);
+            return isElementUpdated(resourceId, this.put(resource, eTag));
+        }
+        catch (ParsingException e)
+        {
+            throw new XCapException("Entry cannot be parsed", e);
+        }
+    }
+
+    /**
+     * Deletes an entry of a list of the resource-lists from the server,
+     * without putting the rest of the resource-lists, provided the
+     * resource-lists on the server is the one last read or written by the
+     * client.
+     *
+     * @param listPath the names of the list of the entry and of the lists it
+     *                 is nested in, from the outermost.
+     * @param uri      the uri of the entry to be deleted.
+     * @return <tt>true</tt> if the entry has been deleted, <tt>false</tt> if
+     *         the server has refused it and the whole resource-lists has to be
+     *         put instead.
+     * @throws IllegalStateException if the user has not been connected, or
+     *                               resource-lists is not supported.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public boolean deleteResourceListsEntry(List<String> listPath, String uri)
+            throws XCapException
+    {
+        assertConnected();
+        assertResourceListsSupported();
+        String resourceListsDocument = getResourceListsDocument();
+        String eTag = getETag(new XCapResourceId(resourceListsDocument));
+        if (eTag == null)
+        {
+            return false;
+        }
+        XCapResourceId resourceId = new XCapResourceId(resourceListsDocument,
+                getEntryNodeSelector(listPath, uri));
+        return isElementUpdated(resourceId, this.delete(resourceId, eTag));
+    }
+
+    /**
+     * Puts to the server a rls-services document with a single presence
+     * service whose resources are the given lists of the resource-lists
+     * document of the user.
+     *
+     * @param serviceUri the SIP URI of the service.
+     * @param listNames  the names of the lists of the resource-lists document
+     *                   the service is made of.
+     * @throws IllegalStateException if the user has not been connected, or
+     *                               rls-services is not supported.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public void putRlsServices(String serviceUri, List<String> listNames)
+            throws XCapException
+    {
+        assertConnected();
+        assertRlsServicesSupported();
+        List<String> anchors = new ArrayList<String>(listNames.size());
+        for (String listName : listNames)
+        {
+            XCapResourceId listId = new XCapResourceId(
+                    getResourceListsDocument(),
+                    getListNodeSelector(Collections.singletonList(listName)));
+            anchors.add(getResourceURI(listId).toString());
+        }
+        XCapResourceId resourceId =
+                new XCapResourceId(getRlsServicesDocument());
+        try
+        {
+            String xml = RlsServicesParser.toXml(serviceUri, anchors,
+                    "presence");
+            XCapResource resource = new XCapResource(resourceId, xml,
+                    RlsServicesClient.CONTENT_TYPE);
+            putResource(resource);
+        }
+        catch (ParsingException e)
+        {
+            throw new XCapException("RlsServices cannot be parsed", e);
+        }
+    }
+
     /**
      * Gets the resource-lists from the server.
      *
@@ -530,6 +666,21 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
         }
     }
 
+    /**
+     * Utility method throwing an exception if the rls-services
+     * is not supported.
+     *
+     * @throws IllegalStateException if the user is not connected.
+     */
+    protected void assertRlsServicesSupported()
+    {
+        if (!rlsServicesSupported)
+        {
+            throw new IllegalStateException(
+                    "XCAP server doesn't support rls-services");
+        }
+    }
+
     /**
      * Utility method throwing an exception if the pres-content
      * is not supported.
@@ -663,6 +814,48 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
         }
     }
 
+    /**
+     * Analyzes the response to the put or the delete of an XCAP element.
+     * Refusals which putting the whole document may get over, i.e. the
+     * document has changed, or has no such parent element, or would not be
+     * valid, are reported as such rather than thrown.
+     *
+     * @param resourceId the element identifier.
+     * @param response   the server response.
+     * @return <tt>true</tt> if the element has been put or deleted,
+     *         <tt>false</tt> if the server has refused it.
+     * @throws XCapException if there is some other error.
+     */
+    private boolean isElementUpdated(XCapResourceId resourceId,
+                                     XCapHttpResponse response)
+            throws XCapException
+    {
+        int httpCode = response.getHttpCode();
+        if (httpCode == HttpStatus.SC_OK || httpCode == HttpStatus.SC_CREATED)
+        {
+            return true;
+        }
+        if (httpCode == HttpStatus.SC_PRECONDITION_FAILED
+                || httpCode == HttpStatus.SC_NOT_FOUND
+                || httpCode == HttpStatus.SC_CONFLICT)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(String.format(
+                        "Error %1s while updating %2s on XCAP server. %3s",
+                        httpCode,
+                        resourceId.toString(),
+                        getXCapErrorMessage(response)));
+            }
+            return false;
+        }
+        String errorMessage = String.format(
+                "Error %1s while updating %2s on XCAP server",
+                httpCode,
+                resourceId.toString());
+        throw new XCapException(errorMessage);
+    }
+
     /**
      * Deletes XCAP resources from the server. Analyzes HTTP code and tryes to
      * get xcap-error if possible.
@@ -709,6 +902,72 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
                 userAddress.getURI().toString());
     }
 
+    /**
+     * Returns rls-services uri according to rfc4826.
+     *
+     * @return rls-services uri.
+     */
+    private String getRlsServicesDocument()
+    {
+        return String.format(RlsServicesClient.DOCUMENT_FORMAT,
+                userAddress.getURI().toString());
+    }
+
+    /**
+     * Returns the node selector of a list of the resource-lists.
+     *
+     * @param listPath the names of the list and of the lists it is nested in,
+     *                 from the outermost.
+     * @return the node selector of the list.
+     */
+    private static String getListNodeSelector(List<String> listPath)
+    {
+        // XCapResourceId puts "/~~" between the document and the node
+        // selector, which starts with the separator of its first step
+        StringBuilder selector = new StringBuilder("/resource-lists");
+        for (String listName : listPath)
+        {
+            selector.append("/list%5b@name=%22")
+                    .append(encodeNodeSelectorValue(listName))
+                    .append("%22%5d");
+        }
+        return selector.toString();
+    }
+
+    /**
+     * Returns the node selector of an entry of a list of the resource-lists.
+     *
+     * @param listPath the names of the list of the entry and of the lists it
+     *                 is nested in, from the outermost.
+     * @param uri      the uri of the entry.
+     * @return the node selector of the entry.
+     */
+    private static String getEntryNodeSelector(List<String> listPath,
+                                               String uri)
+    {
+        return getListNodeSelector(listPath) + "/entry%5b@uri=%22"
+                + encodeNodeSelectorValue(uri) + "%22%5d";
+    }
+
+    /**
+     * Percent-encodes a value to be put in a node selector.
+     *
+     * @param value the value.
+     * @return the encoded value.
+     */
+    private static String encodeNodeSelectorValue(String value)
+    {
+        try
+        {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Returns xcap-caps uri according to rfc4825.
      *
@@ -767,4 +1026,12 @@ public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
     {
         return presContentSupported;
     }
+
+    /**
+     * Indicates whether or not rls-services is supported.
+     */
+    public boolean isRlsServicesSupported()
+    {
+        return rlsServicesSupported;
+    }
 }
@@ -0,0 +1,335 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap;
+
+import java.io.*;
+import java.net.URI;
+import java.security.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Keeps the XCAP resources last read from or written to the server along with
+ * their entity tags, so that they are downloaded again only when they have
+ * changed on the server.
+ * <p>
+ * Resources are kept by URI in a directory, one file each, and the most
+ * recently used ones in memory too. The number of files is bounded, the least
+ * recently written ones being removed first. Without a directory the cache
+ * only keeps resources in memory.
+ */
+class XCapDocumentCache
+{
+    /**
+     * The logger used by the <tt>XCapDocumentCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(XCapDocumentCache.class);
+
+    /**
+     * The maximum number of resources kept in memory.
+     */
+    private static final int MAX_MEMORY_ENTRIES = 32;
+
+    /**
+     * The maximum number of resources kept in the directory.
+     */
+    private static final int MAX_FILES = 512;
+
+    /**
+     * The extension of the files of the cache.
+     */
+    private static final String FILE_EXTENSION = ".xcap";
+
+    /**
+     * The directory the resources are kept in or <tt>null</tt>.
+     */
+    private final File directory;
+
+    /**
+     * The most recently used resources by URI.
+     */
+    private final Map<String, Resource> entries
+        = new LinkedHashMap<String, Resource>(
+                MAX_MEMORY_ENTRIES, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Resource> eldest)
+            {
+                return size() > MAX_MEMORY_ENTRIES;
+            }
+        };
+
+    /**
+     * Creates a cache.
+     *
+     * @param directory the directory to keep the resources in or
+     * <tt>null</tt> to keep them only in memory
+     */
+    XCapDocumentCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a resource.
+     *
+     * @param uri the URI of the resource
+     * @return the resource or <tt>null</tt> if it is not in the cache
+     */
+    synchronized Resource get(URI uri)
+    {
+        String key = uri.toString();
+        Resource resource = entries.get(key);
+
+        if ((resource == null) && (directory != null))
+        {
+            resource = read(getFile(key), key);
+            if (resource != null)
+                entries.put(key, resource);
+        }
+        return resource;
+    }
+
+    /**
+     * Adds or replaces a resource.
+     *
+     * @param uri the URI of the resource
+     * @param eTag the entity tag of the resource
+     * @param contentType the content type of the resource
+     * @param content the content of the resource
+     */
+    synchronized void put(
+            URI uri,
+            String eTag,
+            String contentType,
+            byte[] content)
+    {
+        String key = uri.toString();
+        Resource resource = new Resource(eTag, contentType, content);
+
+        entries.put(key, resource);
+        if (directory != null)
+        {
+            write(getFile(key), key, resource);
+            trim();
+        }
+    }
+
+    /**
+     * Removes a resource.
+     *
+     * @param uri the URI of the resource
+     */
+    synchronized void remove(URI uri)
+    {
+        String key = uri.toString();
+
+        entries.remove(key);
+        if (directory != null)
+        {
+            File file = getFile(key);
+
+            if (file.exists() && !file.delete())
+                logger.warn("Cannot delete " + file);
+        }
+    }
+
+    /**
+     * Reads a resource from its file.
+     *
+     * @param file the file
+     * @param key the URI of the resource
+     * @return the resource or <tt>null</tt> if it cannot be read
+     */
+    private static Resource read(File file, String key)
+    {
+        if (!file.isFile())
+            return null;
+
+        try
+        {
+            DataInputStream in
+                = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                // different URIs may share a file name, however unlikely
+                if (!key.equals(in.readUTF()))
+                    return null;
+
+                String eTag = in.readUTF();
+                String contentType = in.readUTF();
+                byte[] content = new byte[in.readInt()];
+
+                in.readFully(content);
+                return
+                    new Resource(
+                            eTag,
+                            (contentType.length() == 0) ? null : contentType,
+                            content);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read XCAP cache file " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a resource to its file, through a temporary file so that a
+     * failed write does not leave a truncated resource behind.
+     *
+     * @param file the file
+     * @param key the URI of the resource
+     * @param resource the resource
+     */
+    private void write(File file, String key, Resource resource)
+    {
+        File tmpFile = new File(directory, file.getName() + ".tmp");
+
+        try
+        {
+            DataOutputStream out
+                = new DataOutputStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream(tmpFile)));
+
+            try
+            {
+                out.writeUTF(key);
+                out.writeUTF(resource.eTag);
+                out.writeUTF(
+                        (resource.contentType == null)
+                            ? ""
+                            : resource.contentType);
+                out.writeInt(resource.content.length);
+                out.write(resource.content);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file))
+                throw new IOException("Cannot rename " + tmpFile);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot write XCAP cache file " + file, e);
+            if (tmpFile.exists() && !tmpFile.delete())
+                logger.warn("Cannot delete " + tmpFile);
+        }
+    }
+
+    /**
+     * Removes the least recently written files if there are too many.
+     */
+    private void trim()
+    {
+        File[] files
+            = directory.listFiles(
+                    new FileFilter()
+                    {
+                        public boolean accept(File file)
+                        {
+                            return file.getName().endsWith(FILE_EXTENSION);
+                        }
+                    });
+
+        if ((files == null) || (files.length <= MAX_FILES))
+            return;
+
+        Arrays.sort(
+                files,
+                new Comparator<File>()
+                {
+                    public int compare(File f1, File f2)
+                    {
+                        long m1 = f1.lastModified();
+                        long m2 = f2.lastModified();
+
+                        return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+                    }
+                });
+        for (int i = 0; i < files.length - MAX_FILES; i++)
+        {
+            if (!files[i].delete())
+                logger.warn("Cannot delete " + files[i]);
+        }
+    }
+
+    /**
+     * Returns the file of a resource, named after the SHA-1 digest of its
+     * URI.
+     *
+     * @param key the URI of the resource
+     * @return the file of the resource
+     */
+    private File getFile(String key)
+    {
+        StringBuilder name = new StringBuilder(40 + FILE_EXTENSION.length());
+
+        try
+        {
+            byte[] digest
+                = MessageDigest.getInstance("SHA-1").digest(
+                        key.getBytes("UTF-8"));
+
+            for (byte b : digest)
+            {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+        }
+        catch (Exception e)
+        {
+            // SHA-1 and UTF-8 are always supported
+            throw new IllegalStateException(e);
+        }
+        return new File(directory, name.append(FILE_EXTENSION).toString());
+    }
+
+    /**
+     * A resource kept in the cache.
+     */
+    static class Resource
+    {
+        /**
+         * The entity tag of the resource.
+         */
+        final String eTag;
+
+        /**
+         * The content type of the resource or <tt>null</tt>.
+         */
+        final String contentType;
+
+        /**
+         * The content of the resource.
+         */
+        final byte[] content;
+
+        Resource(String eTag, String contentType, byte[] content)
+        {
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.content = content;
+        }
+    }
+}
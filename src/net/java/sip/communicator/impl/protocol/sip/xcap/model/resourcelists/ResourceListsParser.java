@@ -153,6 +153,33 @@ public final class ResourceListsParser
         }
     }
 
+    /**
+     * Creates XML from the entry element, to be put on its own as an XCAP
+     * element resource.
+     *
+     * @param entry the entry to analyze.
+     * @return the entry xml.
+     * @throws ParsingException if there is some error during parsing.
+     */
+    public static String toXml(EntryType entry)
+            throws ParsingException
+    {
+        if (entry == null)
+        {
+            throw new IllegalArgumentException("entry cannot be null");
+        }
+        try
+        {
+            Document document = createDocument();
+            document.appendChild(elementFromEntry(document, entry));
+            return createXml(document);
+        }
+        catch (Exception ex)
+        {
+            throw new ParsingException(ex);
+        }
+    }
+
     /**
      * Creates list object from the element.
      *
@@ -0,0 +1,105 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap.model.rlsservices;
+
+import static org.jitsi.util.xml.XMLUtils.createDocument;
+import static org.jitsi.util.xml.XMLUtils.createXml;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.protocol.sip.xcap.model.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Utility class that helps to create rls-services xml describing a single
+ * service made of external resource lists.
+ */
+public final class RlsServicesParser
+{
+    private static final String NAMESPACE =
+            "urn:ietf:params:xml:ns:rls-services";
+
+    private static final String RESOURCE_LISTS_NAMESPACE =
+            "urn:ietf:params:xml:ns:resource-lists";
+
+    private static final String RLS_SERVICES_ELEMENT = "rls-services";
+
+    private static final String SERVICE_ELEMENT = "service";
+
+    private static final String SERVICE_URI_ATTR = "uri";
+
+    private static final String LIST_ELEMENT = "list";
+
+    private static final String EXTERNAL_ELEMENT = "external";
+
+    private static final String EXTERNAL_ANCHOR_ATTR = "anchor";
+
+    private static final String PACKAGES_ELEMENT = "packages";
+
+    private static final String PACKAGE_ELEMENT = "package";
+
+    /**
+     * Creates rls-services xml with a single service.
+     *
+     * @param serviceUri the SIP URI of the service.
+     * @param anchors    the HTTP URIs of the lists the service is made of.
+     * @param packages   the event packages of the service.
+     * @return the rls-services xml.
+     * @throws ParsingException if there is some error during converting.
+     */
+    public static String toXml(
+            String serviceUri,
+            List<String> anchors,
+            String... packages)
+            throws ParsingException
+    {
+        if (serviceUri == null)
+        {
+            throw new IllegalArgumentException("service uri cannot be null");
+        }
+        try
+        {
+            Document document = createDocument();
+            Element rlsServicesElement =
+                    document.createElementNS(NAMESPACE, RLS_SERVICES_ELEMENT);
+            Element serviceElement =
+                    document.createElementNS(NAMESPACE, SERVICE_ELEMENT);
+            serviceElement.setAttribute(SERVICE_URI_ATTR, serviceUri);
+
+            Element listElement = document.createElementNS(
+                    RESOURCE_LISTS_NAMESPACE, LIST_ELEMENT);
+            for (String anchor : anchors)
+            {
+                Element externalElement = document.createElementNS(
+                        RESOURCE_LISTS_NAMESPACE, EXTERNAL_ELEMENT);
+                externalElement.setAttribute(EXTERNAL_ANCHOR_ATTR, anchor);
+                listElement.appendChild(externalElement);
+            }
+            serviceElement.appendChild(listElement);
+
+            Element packagesElement =
+                    document.createElementNS(NAMESPACE, PACKAGES_ELEMENT);
+            for (String eventPackage : packages)
+            {
+                Element packageElement =
+                        document.createElementNS(NAMESPACE, PACKAGE_ELEMENT);
+                packageElement.setTextContent(eventPackage);
+                packagesElement.appendChild(packageElement);
+            }
+            serviceElement.appendChild(packagesElement);
+
+            rlsServicesElement.appendChild(serviceElement);
+            document.appendChild(rlsServicesElement);
+            return createXml(document);
+        }
+        catch (Exception ex)
+        {
+            throw new ParsingException(ex);
+        }
+    }
+}
@@ -48,7 +48,8 @@ public class BliptvActivator
         Hashtable<String, String> hashtable = new Hashtable<String, String>();
         hashtable.put(ReplacementService.SOURCE_NAME,
             ReplacementServiceBliptvImpl.BLIPTV_CONFIG_LABEL);
-        bliptvSource = new ReplacementServiceBliptvImpl();
+        bliptvSource = new ReplacementServiceBliptvImpl(
+                ServiceUtils.getService(context, PreviewResolver.class));
 
         bliptvServReg =
             context.registerService(ReplacementService.class.getName(),
@@ -27,7 +27,7 @@ public class ReplacementServiceDirectImageImpl
      * The regex used to match the link in the message.
      */
     public static final String URL_PATTERN =
-        "[^<>]+\\.(?:jpg|png|gif)[^<>]*(?=</a>)";
+        "(?<=>)[^<>]+\\.(?:jpg|png|gif)[^<>]*(?=</a>)";
 
     /**
      * Configuration label shown in the config form. 
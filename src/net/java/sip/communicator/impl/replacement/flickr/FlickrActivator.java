@@ -48,7 +48,8 @@ public class FlickrActivator
         Hashtable<String, String> hashtable = new Hashtable<String, String>();
         hashtable.put(ReplacementService.SOURCE_NAME,
             ReplacementServiceFlickrImpl.FLICKR_CONFIG_LABEL);
-        flickrSource = new ReplacementServiceFlickrImpl();
+        flickrSource = new ReplacementServiceFlickrImpl(
+                ServiceUtils.getService(context, PreviewResolver.class));
 
         flickrServReg =
             context.registerService(ReplacementService.class.getName(),
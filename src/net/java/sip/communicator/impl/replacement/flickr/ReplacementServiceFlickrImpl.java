@@ -5,8 +5,6 @@
  */
 package net.java.sip.communicator.impl.replacement.flickr;
 
-import java.io.*;
-import java.net.*;
 import java.util.regex.*;
 
 import net.java.sip.communicator.service.replacement.*;
@@ -21,7 +19,8 @@ import org.json.*;
  * @author Purvesh Sahoo
  */
 public class ReplacementServiceFlickrImpl
-    implements ReplacementService
+    implements DelayedReplacementService,
+               PreviewFetcher
 {
     /**
      * The logger for this class.
@@ -51,76 +50,96 @@ public class ReplacementServiceFlickrImpl
      */
     public static final String SOURCE_NAME = "FLICKR";
 
+    /**
+     * The <tt>PreviewResolver</tt> which caches the previews fetched by this
+     * source.
+     */
+    private final PreviewResolver previewResolver;
+
     /**
      * Constructor for <tt>ReplacementServiceFlickrImpl</tt>. 
+     *
+     * @param previewResolver the <tt>PreviewResolver</tt> which caches the
+     * previews fetched by this source
      */
-    public ReplacementServiceFlickrImpl()
+    public ReplacementServiceFlickrImpl(PreviewResolver previewResolver)
     {
+        this.previewResolver = previewResolver;
         logger.trace("Creating a Flickr Source.");
     }
 
     /**
-     * Replaces the Flickr image links with their corresponding thumbnails.
+     * Returns the thumbnail URL of the image link provided, fetching it if it
+     * is not cached.
      *
-     * @param sourceString the original flickr image link.
-     * @return replaced thumbnail image link; the original image link in case of
-     *         no match.
+     * @param sourceString the original image link.
+     * @return the thumbnail image link; the original link in case of no match.
      */
     public String getReplacement(String sourceString)
+    {
+        return previewResolver.resolve(sourceString, this);
+    }
+
+    /**
+     * Returns the thumbnail URL of the image link provided if it is cached.
+     * Otherwise, starts fetching it.
+     *
+     * @param sourceString the original image link.
+     * @param listener the <tt>ReplacementListener</tt> to notify of the
+     * thumbnail image link if it is not cached
+     * @return the thumbnail image link; the original link in case of no
+     * match; <tt>null</tt> if it is being fetched.
+     */
+    public String getReplacement(
+            String sourceString,
+            ReplacementListener listener)
+    {
+        return previewResolver.resolve(sourceString, this, listener);
+    }
+
+    /**
+     * Fetches the thumbnail URL of the image link provided.
+     *
+     * @param sourceString the original image link.
+     * @return the thumbnail image link; <tt>null</tt> in case of no match.
+     * @throws Exception if the thumbnail image link cannot be fetched.
+     */
+    public String fetchPreview(String sourceString)
+        throws Exception
     {
         final Pattern p =
             Pattern.compile(
                 "\\/photos\\/[0-9a-zA-Z_\\-\\@]+\\/([0-9]+)(\\/[^\"\\<]*)*",
                 Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
         Matcher m = p.matcher(sourceString);
-        String thumbUrl = sourceString;
+        String thumbUrl = null;
 
         while (m.find())
         {
-            try
-            {
-                // API URL
-                String url =
-                    "http://api.flickr.com/services/rest/"
-                    + "?method=flickr.photos.getInfo&api_key="
-                        + API_KEY + "&photo_id=" + m.group(1)
-                        + "&format=json&nojsoncallback=1";
-
-                URL flickrURL = new URL(url);
-                URLConnection conn = flickrURL.openConnection();
+            // API URL
+            String url =
+                "http://api.flickr.com/services/rest/"
+                + "?method=flickr.photos.getInfo&api_key="
+                    + API_KEY + "&photo_id=" + m.group(1)
+                    + "&format=json&nojsoncallback=1";
 
-                BufferedReader in =
-                    new BufferedReader(new InputStreamReader(conn
-                        .getInputStream()));
+            JSONObject wrapper = new JSONObject(previewResolver.readURL(url));
 
-                String inputLine, holder = "";
-
-                while ((inputLine = in.readLine()) != null)
-                    holder = inputLine;
-                in.close();
-
-                JSONObject wrapper = new JSONObject(holder);
-
-                if (wrapper.getString("stat").equals("ok"))
+            if (wrapper.getString("stat").equals("ok"))
+            {
+                JSONObject result = wrapper.getJSONObject("photo");
+                if (!(result.length() == 0))
                 {
-                    JSONObject result = wrapper.getJSONObject("photo");
-                    if (!(result.length() == 0))
-                    {
-                        String farmID = result.getString("farm");
-                        String serverID = result.getString("server");
-                        String secret = result.getString("secret");
-
-                        thumbUrl =
-                            "http://farm" + farmID + ".static.flickr.com/"
-                                + serverID + "/" + m.group(1) + "_" + secret
-                                + "_t.jpg";
-                    }
+                    String farmID = result.getString("farm");
+                    String serverID = result.getString("server");
+                    String secret = result.getString("secret");
+
+                    thumbUrl =
+                        "http://farm" + farmID + ".static.flickr.com/"
+                            + serverID + "/" + m.group(1) + "_" + secret
+                            + "_t.jpg";
                 }
             }
-            catch(Exception e)
-            {
-                e.printStackTrace();
-            }
         }
 
         return thumbUrl;
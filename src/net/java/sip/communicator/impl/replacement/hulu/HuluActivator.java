@@ -47,7 +47,8 @@ public class HuluActivator
         Hashtable<String, String> hashtable = new Hashtable<String, String>();
         hashtable.put(ReplacementService.SOURCE_NAME,
             ReplacementServiceHuluImpl.HULU_CONFIG_LABEL);
-        huluSource = new ReplacementServiceHuluImpl();
+        huluSource = new ReplacementServiceHuluImpl(
+                ServiceUtils.getService(context, PreviewResolver.class));
 
         huluServReg =
             context.registerService(ReplacementService.class.getName(),
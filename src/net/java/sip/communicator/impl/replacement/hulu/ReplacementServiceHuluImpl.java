@@ -5,9 +5,6 @@
  */
 package net.java.sip.communicator.impl.replacement.hulu;
 
-import java.io.*;
-import java.net.*;
-
 import net.java.sip.communicator.service.replacement.*;
 import net.java.sip.communicator.util.*;
 
@@ -19,7 +16,8 @@ import org.json.*;
  * @author Purvesh Sahoo
  */
 public class ReplacementServiceHuluImpl
-    implements ReplacementService
+    implements DelayedReplacementService,
+               PreviewFetcher
 {
     /**
      * The logger for this class.
@@ -44,53 +42,67 @@ public class ReplacementServiceHuluImpl
      */
     public static final String SOURCE_NAME = "HULU";
 
+    /**
+     * The <tt>PreviewResolver</tt> which caches the previews fetched by this
+     * source.
+     */
+    private final PreviewResolver previewResolver;
+
     /**
      * Constructor for <tt>ReplacementServiceHuluImpl</tt>. 
+     *
+     * @param previewResolver the <tt>PreviewResolver</tt> which caches the
+     * previews fetched by this source
      */
-    public ReplacementServiceHuluImpl()
+    public ReplacementServiceHuluImpl(PreviewResolver previewResolver)
     {
+        this.previewResolver = previewResolver;
         logger.trace("Creating a Hulu Source.");
     }
 
     /**
-     * Replaces the Hulu video links with their corresponding thumbnails.
+     * Returns the thumbnail URL of the video link provided, fetching it if it
+     * is not cached.
      *
      * @param sourceString the original video link.
-     * @return thumbnail image link; the original video link in case of no
-     *         match.
+     * @return the thumbnail image link; the original link in case of no match.
      */
     public String getReplacement(String sourceString)
     {
-        try
-        {
-            String url = "http://oohembed.com/oohembed/?url=" + sourceString;
-            URL sourceURL = new URL(url);
-            URLConnection conn = sourceURL.openConnection();
-
-            BufferedReader in =
-                new BufferedReader(new InputStreamReader(conn.getInputStream()));
-
-            String inputLine, holder = "";
-
-            while ((inputLine = in.readLine()) != null)
-                holder = inputLine;
-            in.close();
-
-            JSONObject wrapper = new JSONObject(holder);
+        return previewResolver.resolve(sourceString, this);
+    }
 
-            String thumbUrl = wrapper.getString("thumbnail_url");
+    /**
+     * Returns the thumbnail URL of the video link provided if it is cached.
+     * Otherwise, starts fetching it.
+     *
+     * @param sourceString the original video link.
+     * @param listener the <tt>ReplacementListener</tt> to notify of the
+     * thumbnail image link if it is not cached
+     * @return the thumbnail image link; the original link in case of no
+     * match; <tt>null</tt> if it is being fetched.
+     */
+    public String getReplacement(
+            String sourceString,
+            ReplacementListener listener)
+    {
+        return previewResolver.resolve(sourceString, this, listener);
+    }
 
-            if (thumbUrl != null)
-            {
-                return thumbUrl;
-            }
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
+    /**
+     * Fetches the thumbnail URL of the video link provided.
+     *
+     * @param sourceString the original video link.
+     * @return the thumbnail image link; <tt>null</tt> in case of no match.
+     * @throws Exception if the thumbnail image link cannot be fetched.
+     */
+    public String fetchPreview(String sourceString)
+        throws Exception
+    {
+        String url = "http://oohembed.com/oohembed/?url=" + sourceString;
+        JSONObject wrapper = new JSONObject(previewResolver.readURL(url));
 
-        return sourceString;
+        return wrapper.optString("thumbnail_url", null);
     }
 
     /**
@@ -0,0 +1,87 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.replacement.preview;
+
+import java.io.*;
+
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.fileaccess.*;
+import org.osgi.framework.*;
+
+/**
+ * Activator for the link preview bundle, which registers the
+ * <tt>PreviewResolver</tt> shared by the replacement sources.
+ */
+public class PreviewActivator
+    implements BundleActivator
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>PreviewActivator</tt> class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(PreviewActivator.class);
+
+    /**
+     * The name of the file in which the previews are kept across sessions.
+     */
+    private static final String CACHE_FILE_NAME = "previewcache.properties";
+
+    /**
+     * The <tt>PreviewResolver</tt> service registration.
+     */
+    private ServiceRegistration previewResolverServReg = null;
+
+    /**
+     * Starts the link preview bundle.
+     *
+     * @param context the <tt>BundleContext</tt> as provided from the OSGi
+     * framework
+     * @throws Exception if anything goes wrong
+     */
+    public void start(BundleContext context) throws Exception
+    {
+        File file = null;
+
+        try
+        {
+            FileAccessService fileAccessService
+                = ServiceUtils.getService(context, FileAccessService.class);
+
+            if (fileAccessService != null)
+            {
+                file
+                    = fileAccessService.getPrivatePersistentFile(
+                            CACHE_FILE_NAME);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Cannot keep link previews across sessions", e);
+        }
+
+        previewResolverServReg
+            = context.registerService(
+                    PreviewResolver.class.getName(),
+                    new PreviewResolverImpl(file),
+                    null);
+        logger.info("Link preview implementation [STARTED].");
+    }
+
+    /**
+     * Unregisters the <tt>PreviewResolver</tt> service.
+     *
+     * @param context BundleContext
+     * @throws Exception if anything goes wrong
+     */
+    public void stop(BundleContext context) throws Exception
+    {
+        previewResolverServReg.unregister();
+        logger.info("Link preview implementation [STOPPED].");
+    }
+}
@@ -0,0 +1,747 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.impl.replacement.preview;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * The <tt>PreviewResolver</tt> implementation.
+ * <p>
+ * Fetches run on a small pool of threads with a bounded queue. Concurrent
+ * requests for the same link share one fetch. Results are cached by canonical
+ * link, the previews found for a long time and the failures for a short time,
+ * in memory and in a file kept across sessions.
+ */
+public class PreviewResolverImpl
+    implements PreviewResolver
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>PreviewResolverImpl</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(PreviewResolverImpl.class);
+
+    /**
+     * The number of threads fetching previews.
+     */
+    private static final int FETCH_THREADS = 4;
+
+    /**
+     * The maximum number of fetches waiting for a thread. Previews requested
+     * beyond that are not fetched.
+     */
+    private static final int MAX_QUEUED_FETCHES = 64;
+
+    /**
+     * The maximum number of cached results.
+     */
+    private static final int MAX_ENTRIES = 1024;
+
+    /**
+     * The time in milliseconds a preview is cached.
+     */
+    private static final long PREVIEW_TTL = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * The time in milliseconds a link without preview, or whose preview could
+     * not be fetched, is cached.
+     */
+    private static final long NO_PREVIEW_TTL = 15 * 60 * 1000L;
+
+    /**
+     * The timeout in milliseconds of the connections to the web services.
+     */
+    static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The read timeout in milliseconds of the connections to the web services.
+     */
+    static final int READ_TIMEOUT = 10000;
+
+    /**
+     * The file in which the previews are kept across sessions or
+     * <tt>null</tt> if they are kept in memory only.
+     */
+    private final File file;
+
+    /**
+     * The threads fetching the previews.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The cached results by canonical link, least recently used first.
+     */
+    private final Map<String, CachedPreview> entries
+        = new LinkedHashMap<String, CachedPreview>(64, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CachedPreview> eldest)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    /**
+     * The fetches in progress by canonical link.
+     */
+    private final Map<String, Resolution> resolutions
+        = new HashMap<String, Resolution>();
+
+    /**
+     * Whether {@link #entries} has been loaded from {@link #file}.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Whether {@link #entries} is to be saved in {@link #file}.
+     */
+    private boolean saveScheduled = false;
+
+    /**
+     * The lock which keeps the saves of {@link #entries} in {@link #file} from
+     * overlapping.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * Creates a <tt>PreviewResolverImpl</tt> with its own threads and cache.
+     *
+     * @param file the file in which the previews are kept across sessions or
+     * <tt>null</tt> to keep them in memory only
+     */
+    public PreviewResolverImpl(File file)
+    {
+        this.file = file;
+
+        executor
+            = new ThreadPoolExecutor(
+                    FETCH_THREADS, FETCH_THREADS,
+                    60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_FETCHES),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "PreviewResolver");
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Implements {@link PreviewResolver#resolve(String, PreviewFetcher,
+     * ReplacementListener)}.
+     *
+     * @param link the link
+     * @param fetcher the <tt>PreviewFetcher</tt> which fetches the preview of
+     * <tt>link</tt> if it is not cached
+     * @param listener the <tt>ReplacementListener</tt> to notify, from a fetch
+     * thread, if the preview is not cached
+     * @return the URL of the preview of <tt>link</tt>, <tt>link</tt> itself if
+     * it has none or <tt>null</tt> if it is being fetched and
+     * <tt>listener</tt> is to be notified
+     */
+    public String resolve(
+            String link,
+            PreviewFetcher fetcher,
+            ReplacementListener listener)
+    {
+        Resolution resolution = getResolution(link, fetcher);
+
+        return resolution.addListener(link, listener);
+    }
+
+    /**
+     * Implements {@link PreviewResolver#resolve(String, PreviewFetcher)}.
+     *
+     * @param link the link
+     * @param fetcher the <tt>PreviewFetcher</tt> which fetches the preview of
+     * <tt>link</tt> if it is not cached
+     * @return the URL of the preview of <tt>link</tt> or <tt>link</tt> itself
+     * if it has none or it could not be fetched in time
+     */
+    public String resolve(String link, PreviewFetcher fetcher)
+    {
+        Resolution resolution = getResolution(link, fetcher);
+
+        return resolution.waitFor(
+                link,
+                2 * (CONNECT_TIMEOUT + READ_TIMEOUT));
+    }
+
+    /**
+     * Returns the <tt>Resolution</tt> of the preview of a link: a completed one
+     * if the preview is cached, the one in progress if it is being fetched or
+     * a new one otherwise.
+     *
+     * @param link the link
+     * @param fetcher the <tt>PreviewFetcher</tt> which fetches the preview of
+     * <tt>link</tt> if it is not cached
+     * @return the <tt>Resolution</tt> of the preview of <tt>link</tt>
+     */
+    private Resolution getResolution(String link, PreviewFetcher fetcher)
+    {
+        final String key = getKey(link);
+        final Resolution resolution;
+
+        synchronized (this)
+        {
+            load();
+
+            CachedPreview cached = entries.get(key);
+
+            if (cached != null)
+            {
+                if (cached.expires > System.currentTimeMillis())
+                    return new Resolution(cached.preview);
+                entries.remove(key);
+            }
+
+            Resolution inProgress = resolutions.get(key);
+
+            if (inProgress != null)
+                return inProgress;
+
+            resolution = new Resolution(key, link, fetcher);
+            resolutions.put(key, resolution);
+        }
+
+        try
+        {
+            executor.execute(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            fetch(resolution);
+                        }
+                    });
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.warn("Too many link previews to fetch, skipping " + link);
+            synchronized (this)
+            {
+                resolutions.remove(key);
+            }
+            resolution.complete(null);
+        }
+        return resolution;
+    }
+
+    /**
+     * Fetches a preview and completes its <tt>Resolution</tt>.
+     *
+     * @param resolution the <tt>Resolution</tt> of the preview
+     */
+    private void fetch(Resolution resolution)
+    {
+        String preview = null;
+        long ttl = NO_PREVIEW_TTL;
+
+        try
+        {
+            preview = resolution.fetcher.fetchPreview(resolution.link);
+            if ((preview != null) && (preview.length() != 0))
+                ttl = PREVIEW_TTL;
+            else
+                preview = null;
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+            logger.info("Failed to fetch the preview of " + resolution.link
+                    + ": " + t);
+        }
+
+        synchronized (this)
+        {
+            entries.put(
+                    resolution.key,
+                    new CachedPreview(
+                            preview,
+                            System.currentTimeMillis() + ttl));
+            resolutions.remove(resolution.key);
+            scheduleSave();
+        }
+        resolution.complete(preview);
+    }
+
+    /**
+     * Loads the cached results from {@link #file} if they have not been loaded
+     * yet.
+     */
+    private synchronized void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+        if ((file == null) || !file.isFile())
+            return;
+
+        Properties properties = new Properties();
+        InputStream in = null;
+
+        try
+        {
+            in = new FileInputStream(file);
+            properties.load(in);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to load link previews from " + file, e);
+            return;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+
+        // oldest first, so that the most recent are the last to be evicted
+        List<Map.Entry<Object, Object>> loadedEntries
+            = new ArrayList<Map.Entry<Object, Object>>(properties.entrySet());
+        final Map<Object, Long> expiries = new HashMap<Object, Long>();
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Map.Entry<Object, Object>> i = loadedEntries.iterator();
+                i.hasNext();)
+        {
+            Map.Entry<Object, Object> e = i.next();
+            String value = (String) e.getValue();
+            int space = value.indexOf(' ');
+            long expires;
+
+            try
+            {
+                expires
+                    = Long.parseLong(
+                            (space == -1) ? value : value.substring(0, space));
+            }
+            catch (NumberFormatException ex)
+            {
+                expires = 0;
+            }
+            if (expires <= now)
+                i.remove();
+            else
+                expiries.put(e.getKey(), expires);
+        }
+        Collections.sort(
+                loadedEntries,
+                new Comparator<Map.Entry<Object, Object>>()
+                {
+                    public int compare(
+                            Map.Entry<Object, Object> e1,
+                            Map.Entry<Object, Object> e2)
+                    {
+                        long x1 = expiries.get(e1.getKey());
+                        long x2 = expiries.get(e2.getKey());
+
+                        return (x1 < x2) ? -1 : ((x1 == x2) ? 0 : 1);
+                    }
+                });
+
+        for (Map.Entry<Object, Object> e : loadedEntries)
+        {
+            String value = (String) e.getValue();
+            int space = value.indexOf(' ');
+            String preview
+                = ((space == -1) || (space == value.length() - 1))
+                    ? null
+                    : value.substring(space + 1);
+
+            entries.put(
+                    (String) e.getKey(),
+                    new CachedPreview(preview, expiries.get(e.getKey())));
+        }
+    }
+
+    /**
+     * Schedules the saving of the cached results in {@link #file}, so that
+     * the results of fetches completing together are saved at once.
+     */
+    private synchronized void scheduleSave()
+    {
+        if ((file == null) || saveScheduled)
+            return;
+        saveScheduled = true;
+
+        try
+        {
+            executor.execute(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            save();
+                        }
+                    });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // saved along with the results of the next fetch
+            saveScheduled = false;
+        }
+    }
+
+    /**
+     * Saves the cached results in {@link #file}.
+     */
+    private void save()
+    {
+        // a save started later writes the cache as it is later
+        synchronized (saveLock)
+        {
+            Properties properties = new Properties();
+            long now = System.currentTimeMillis();
+
+            synchronized (this)
+            {
+                saveScheduled = false;
+                for (Map.Entry<String, CachedPreview> e : entries.entrySet())
+                {
+                    CachedPreview cached = e.getValue();
+
+                    if (cached.expires > now)
+                    {
+                        properties.setProperty(
+                                e.getKey(),
+                                cached.expires + " "
+                                    + ((cached.preview == null)
+                                            ? ""
+                                            : cached.preview));
+                    }
+                }
+            }
+
+            File tmpFile = new File(file.getPath() + ".tmp");
+            OutputStream out = null;
+
+            try
+            {
+                out = new FileOutputStream(tmpFile);
+                properties.store(out, null);
+                out.close();
+                out = null;
+                if (!tmpFile.renameTo(file))
+                {
+                    file.delete();
+                    if (!tmpFile.renameTo(file))
+                        throw new IOException("Cannot rename " + tmpFile);
+                }
+            }
+            catch (IOException e)
+            {
+                logger.warn("Failed to save link previews to " + file, e);
+            }
+            finally
+            {
+                if (out != null)
+                {
+                    try
+                    {
+                        out.close();
+                    }
+                    catch (IOException e)
+                    {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the canonical form of a link under which its preview is cached:
+     * the link without its scheme, with its host in lower case and without
+     * its <tt>www.</tt> prefix, its default port and its fragment.
+     *
+     * @param link the link
+     * @return the canonical form of <tt>link</tt>
+     */
+    public static String getKey(String link)
+    {
+        String s = link.trim();
+        int schemeEnd = s.indexOf("://");
+
+        if (schemeEnd != -1)
+            s = s.substring(schemeEnd + 3);
+
+        int fragment = s.indexOf('#');
+
+        if (fragment != -1)
+            s = s.substring(0, fragment);
+
+        int hostEnd = s.length();
+
+        for (int i = 0; i < hostEnd; i++)
+        {
+            char c = s.charAt(i);
+
+            if ((c == '/') || (c == '?'))
+                hostEnd = i;
+        }
+
+        String host = s.substring(0, hostEnd).toLowerCase(Locale.ENGLISH);
+        String rest = s.substring(hostEnd);
+
+        if (host.startsWith("www."))
+            host = host.substring(4);
+        if (host.endsWith(":80"))
+            host = host.substring(0, host.length() - 3);
+        else if (host.endsWith(":443"))
+            host = host.substring(0, host.length() - 4);
+        if (rest.length() == 0)
+            rest = "/";
+        return host + rest;
+    }
+
+    /**
+     * Implements {@link PreviewResolver#readURL(String)}.
+     *
+     * @param url the URL of the web service
+     * @return the response of the web service as a string, its lines
+     * concatenated
+     * @throws IOException if the web service cannot be read
+     */
+    public String readURL(String url)
+        throws IOException
+    {
+        URLConnection conn = new URL(url).openConnection();
+
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+
+        BufferedReader in
+            = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), "UTF-8"));
+
+        try
+        {
+            StringBuilder response = new StringBuilder();
+            String line;
+
+            while ((line = in.readLine()) != null)
+                response.append(line);
+            return response.toString();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static class CachedPreview
+    {
+        /**
+         * The URL of the preview or <tt>null</tt> if there is none.
+         */
+        final String preview;
+
+        /**
+         * The time in milliseconds at which the result expires.
+         */
+        final long expires;
+
+        CachedPreview(String preview, long expires)
+        {
+            this.preview = preview;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The resolution of the preview of a link, which the requests for links
+     * with the same canonical form share.
+     */
+    private static class Resolution
+    {
+        /**
+         * The canonical form of the link.
+         */
+        final String key;
+
+        /**
+         * The link the preview is fetched for.
+         */
+        final String link;
+
+        /**
+         * The <tt>PreviewFetcher</tt> fetching the preview.
+         */
+        final PreviewFetcher fetcher;
+
+        /**
+         * The links requested and the <tt>ReplacementListener</tt>s to notify
+         * of their previews.
+         */
+        private List<Object[]> listeners;
+
+        /**
+         * Whether the preview is known.
+         */
+        private boolean completed;
+
+        /**
+         * The URL of the preview or <tt>null</tt> if there is none.
+         */
+        private String preview;
+
+        /**
+         * Creates a completed <tt>Resolution</tt> for a cached result.
+         *
+         * @param preview the URL of the preview or <tt>null</tt> if there is
+         * none
+         */
+        Resolution(String preview)
+        {
+            this.key = null;
+            this.link = null;
+            this.fetcher = null;
+            this.preview = preview;
+            this.completed = true;
+        }
+
+        /**
+         * Creates a <tt>Resolution</tt> which is to fetch a preview.
+         *
+         * @param key the canonical form of the link
+         * @param link the link
+         * @param fetcher the <tt>PreviewFetcher</tt> fetching the preview
+         */
+        Resolution(String key, String link, PreviewFetcher fetcher)
+        {
+            this.key = key;
+            this.link = link;
+            this.fetcher = fetcher;
+        }
+
+        /**
+         * Returns the preview of a link if it is known. Otherwise, adds a
+         * listener to notify once it is known.
+         *
+         * @param link the link
+         * @param listener the listener
+         * @return the URL of the preview, <tt>link</tt> if there is none or
+         * <tt>null</tt> if it is not known yet
+         */
+        synchronized String addListener(
+                String link,
+                ReplacementListener listener)
+        {
+            if (completed)
+                return (preview == null) ? link : preview;
+
+            if (listeners == null)
+                listeners = new ArrayList<Object[]>(2);
+            listeners.add(new Object[] { link, listener });
+            return null;
+        }
+
+        /**
+         * Waits for the preview of a link to be known.
+         *
+         * @param link the link
+         * @param timeout the maximum time in milliseconds to wait
+         * @return the URL of the preview or <tt>link</tt> if there is none or
+         * it is not known in time
+         */
+        synchronized String waitFor(String link, long timeout)
+        {
+            long deadline = System.currentTimeMillis() + timeout;
+            boolean interrupted = false;
+
+            while (!completed)
+            {
+                long wait = deadline - System.currentTimeMillis();
+
+                if (wait <= 0)
+                    break;
+                try
+                {
+                    wait(wait);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            return (!completed || (preview == null)) ? link : preview;
+        }
+
+        /**
+         * Completes this <tt>Resolution</tt> and notifies the listeners.
+         *
+         * @param preview the URL of the preview or <tt>null</tt> if there is
+         * none
+         */
+        void complete(String preview)
+        {
+            List<Object[]> listeners;
+
+            synchronized (this)
+            {
+                this.preview = preview;
+                completed = true;
+                listeners = this.listeners;
+                this.listeners = null;
+                notifyAll();
+            }
+
+            if (listeners != null)
+            {
+                for (Object[] l : listeners)
+                {
+                    String link = (String) l[0];
+                    ReplacementListener listener = (ReplacementListener) l[1];
+
+                    try
+                    {
+                        listener.replacementResolved(
+                                link,
+                                (preview == null) ? link : preview);
+                    }
+                    catch (Throwable t)
+                    {
+                        if (t instanceof ThreadDeath)
+                            throw (ThreadDeath) t;
+                        logger.error("Failed to notify of the preview of "
+                                + link, t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -35,6 +35,12 @@ public class ReplacementServiceSmileyImpl
      */
     private static final List<String> smileyStrings = new ArrayList<String>();
 
+    /**
+     * The <tt>Collection</tt> of <tt>Smiley</tt>s {@link #smileyRegex} was
+     * last checked against.
+     */
+    private static Collection<Smiley> smileyPack;
+
     /**
      * Configuration label shown in the config form.
      */
@@ -84,6 +90,10 @@ public class ReplacementServiceSmileyImpl
     {
         synchronized (smileyStrings)
         {
+            // the smilies pack is kept until it is reloaded
+            if ((smileyRegex != null) && (smileys == smileyPack))
+                return smileyRegex;
+
             boolean smileyStringsIsEqual;
 
             if (smileyRegex == null)
@@ -132,6 +142,7 @@ public class ReplacementServiceSmileyImpl
 
                 smileyRegex = regex.toString();
             }
+            smileyPack = smileys;
             return smileyRegex;
         }
     }
@@ -5,9 +5,6 @@
  */
 package net.java.sip.communicator.impl.replacement.viddler;
 
-import java.io.*;
-import java.net.*;
-
 import net.java.sip.communicator.service.replacement.*;
 import net.java.sip.communicator.util.*;
 
@@ -18,7 +15,8 @@ import net.java.sip.communicator.util.*;
  * @author Purvesh Sahoo
  */
 public class ReplacementServiceViddlerImpl
-    implements ReplacementService
+    implements DelayedReplacementService,
+               PreviewFetcher
 {
     /**
      * The logger for this class.
@@ -56,60 +54,75 @@ public class ReplacementServiceViddlerImpl
      */
     public static final String SOURCE_NAME = "VIDDLER";
 
+    /**
+     * The <tt>PreviewResolver</tt> which caches the previews fetched by this
+     * source.
+     */
+    private final PreviewResolver previewResolver;
+
     /**
      * Constructor for <tt>ReplacementServiceViddlerImpl</tt>. 
+     *
+     * @param previewResolver the <tt>PreviewResolver</tt> which caches the
+     * previews fetched by this source
      */
-    public ReplacementServiceViddlerImpl()
+    public ReplacementServiceViddlerImpl(PreviewResolver previewResolver)
     {
+        this.previewResolver = previewResolver;
         logger.trace("Creating a Viddler Source.");
     }
 
     /**
-     * Returns the thumbnail URL of the video link provided.
+     * Returns the thumbnail URL of the video link provided, fetching it if it
+     * is not cached.
      *
      * @param sourceString the original video link.
      * @return the thumbnail image link; the original link in case of no match.
      */
     public String getReplacement(String sourceString)
     {
-        try
-        {
-            String url = sourceURL + "&url=" + sourceString + "/";
-
-            URL sourceURL = new URL(url);
-            URLConnection conn = sourceURL.openConnection();
-
-            BufferedReader in =
-                new BufferedReader(new InputStreamReader(conn
-                    .getInputStream()));
-
-            String inputLine;
-            StringBuffer holder = new StringBuffer();
-
-            while ((inputLine = in.readLine()) != null)
-                holder.append(inputLine);
-            in.close();
+        return previewResolver.resolve(sourceString, this);
+    }
 
-            String startTag = "<thumbnail_url>";
-            String endTag = "</thumbnail_url>";
+    /**
+     * Returns the thumbnail URL of the video link provided if it is cached.
+     * Otherwise, starts fetching it.
+     *
+     * @param sourceString the original video link.
+     * @param listener the <tt>ReplacementListener</tt> to notify of the
+     * thumbnail image link if it is not cached
+     * @return the thumbnail image link; the original link in case of no
+     * match; <tt>null</tt> if it is being fetched.
+     */
+    public String getReplacement(
+            String sourceString,
+            ReplacementListener listener)
+    {
+        return previewResolver.resolve(sourceString, this, listener);
+    }
 
-            String response = holder.toString();
+    /**
+     * Fetches the thumbnail URL of the video link provided.
+     *
+     * @param sourceString the original video link.
+     * @return the thumbnail image link; <tt>null</tt> in case of no match.
+     * @throws Exception if the thumbnail image link cannot be fetched.
+     */
+    public String fetchPreview(String sourceString)
+        throws Exception
+    {
+        String url = sourceURL + "&url=" + sourceString + "/";
+        String response = previewResolver.readURL(url);
 
-            int start = response.indexOf(startTag) + startTag.length();
-            int end = response.toString().indexOf(endTag);
-            String thumbUrl = response.substring(start, end);
+        String startTag = "<thumbnail_url>";
+        String endTag = "</thumbnail_url>";
 
-            if (thumbUrl != null)
-            {
-                return thumbUrl;
-            }
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
+        int start = response.indexOf(startTag);
+        int end = response.indexOf(endTag);
 
-        return sourceString;
+        if ((start == -1) || (end < start))
+            return null;
+        return response.substring(start + startTag.length(), end);
     }
 
     /**
@@ -49,7 +49,8 @@ public class ViddlerActivator
         Hashtable<String, String> hashtable = new Hashtable<String, String>();
         hashtable.put(ReplacementService.SOURCE_NAME,
             ReplacementServiceViddlerImpl.VIDDLER_CONFIG_LABEL);
-        viddlerSource = new ReplacementServiceViddlerImpl();
+        viddlerSource = new ReplacementServiceViddlerImpl(
+                ServiceUtils.getService(context, PreviewResolver.class));
 
         viddlerServReg =
             context.registerService(ReplacementService.class.getName(),
@@ -5,8 +5,6 @@
  */
 package net.java.sip.communicator.impl.replacement.vimeo;
 
-import java.io.*;
-import java.net.*;
 import java.util.regex.*;
 
 import net.java.sip.communicator.service.replacement.*;
@@ -21,7 +19,8 @@ import org.json.*;
  * @author Purvesh Sahoo
  */
 public class ReplacementServiceVimeoImpl
-    implements ReplacementService
+    implements DelayedReplacementService,
+               PreviewFetcher
 {
     /**
      * The logger for this class.
@@ -46,59 +45,80 @@ public class ReplacementServiceVimeoImpl
      */
     public static final String SOURCE_NAME = "VIMEO";
 
+    /**
+     * The <tt>PreviewResolver</tt> which caches the previews fetched by this
+     * source.
+     */
+    private final PreviewResolver previewResolver;
+
     /**
      * Constructor for <tt>ReplacementServiceVimeoImpl</tt>. 
+     *
+     * @param previewResolver the <tt>PreviewResolver</tt> which caches the
+     * previews fetched by this source
      */
-    public ReplacementServiceVimeoImpl()
+    public ReplacementServiceVimeoImpl(PreviewResolver previewResolver)
     {
+        this.previewResolver = previewResolver;
         logger.trace("Creating a Vimeo Source.");
     }
 
     /**
-     * Returns the thumbnail URL of the video link provided.
-     * 
+     * Returns the thumbnail URL of the video link provided, fetching it if it
+     * is not cached.
+     *
      * @param sourceString the original video link.
      * @return the thumbnail image link; the original link in case of no match.
      */
     public String getReplacement(String sourceString)
+    {
+        return previewResolver.resolve(sourceString, this);
+    }
+
+    /**
+     * Returns the thumbnail URL of the video link provided if it is cached.
+     * Otherwise, starts fetching it.
+     *
+     * @param sourceString the original video link.
+     * @param listener the <tt>ReplacementListener</tt> to notify of the
+     * thumbnail image link if it is not cached
+     * @return the thumbnail image link; the original link in case of no
+     * match; <tt>null</tt> if it is being fetched.
+     */
+    public String getReplacement(
+            String sourceString,
+            ReplacementListener listener)
+    {
+        return previewResolver.resolve(sourceString, this, listener);
+    }
+
+    /**
+     * Fetches the thumbnail URL of the video link provided.
+     *
+     * @param sourceString the original video link.
+     * @return the thumbnail image link; <tt>null</tt> in case of no match.
+     * @throws Exception if the thumbnail image link cannot be fetched.
+     */
+    public String fetchPreview(String sourceString)
+        throws Exception
     {
         final Pattern p =
             Pattern.compile(".+\\.com\\/([a-zA-Z0-9_\\-]+)",
                 Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
         Matcher m = p.matcher(sourceString);
 
-        String thumbUrl = sourceString;
+        String thumbUrl = null;
 
         while (m.find())
         {
-            try
-            {
-                String url =
-                    "http://vimeo.com/api/v2/video/" + m.group(1) + ".json";
-                URL vimeoURL = new URL(url);
-                URLConnection conn = vimeoURL.openConnection();
+            String url =
+                "http://vimeo.com/api/v2/video/" + m.group(1) + ".json";
+            JSONArray result = new JSONArray(previewResolver.readURL(url));
 
-                BufferedReader in =
-                    new BufferedReader(new InputStreamReader(conn
-                        .getInputStream()));
-
-                String inputLine, holder = "";
-
-                while ((inputLine = in.readLine()) != null)
-                    holder = inputLine;
-                in.close();
-
-                JSONArray result = new JSONArray(holder);
-
-                if (!(result.length() == 0))
-                {
-                    thumbUrl
-                        = result.getJSONObject(0).getString("thumbnail_medium");
-                }
-            }
-            catch (Exception e)
+            if (!(result.length() == 0))
             {
-                e.printStackTrace();
+                thumbUrl
+                    = result.getJSONObject(0).getString("thumbnail_medium");
             }
         }
 
@@ -47,7 +47,8 @@ public class VimeoActivator
         Hashtable<String, String> hashtable = new Hashtable<String, String>();
         hashtable.put(ReplacementService.SOURCE_NAME,
             ReplacementServiceVimeoImpl.VIMEO_CONFIG_LABEL);
-        vimeoSource = new ReplacementServiceVimeoImpl();
+        vimeoSource = new ReplacementServiceVimeoImpl(
+                ServiceUtils.getService(context, PreviewResolver.class));
 
         vimeoServReg =
             context.registerService(ReplacementService.class.getName(),
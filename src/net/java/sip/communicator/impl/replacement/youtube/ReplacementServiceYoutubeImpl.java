@@ -5,9 +5,6 @@
  */
 package net.java.sip.communicator.impl.replacement.youtube;
 
-import java.io.*;
-import java.net.*;
-
 import net.java.sip.communicator.service.replacement.*;
 import net.java.sip.communicator.util.*;
 
@@ -20,7 +17,8 @@ import org.json.*;
  * @author Purvesh Sahoo
  */
 public class ReplacementServiceYoutubeImpl
-    implements ReplacementService
+    implements DelayedReplacementService,
+               PreviewFetcher
 {
     /**
      * The logger for this class.
@@ -45,52 +43,67 @@ public class ReplacementServiceYoutubeImpl
      */
     public static final String SOURCE_NAME = "YOUTUBE";
 
+    /**
+     * The <tt>PreviewResolver</tt> which caches the previews fetched by this
+     * source.
+     */
+    private final PreviewResolver previewResolver;
+
     /**
      * Constructor for <tt>ReplacementServiceYoutubeImpl</tt>. 
+     *
+     * @param previewResolver the <tt>PreviewResolver</tt> which caches the
+     * previews fetched by this source
      */
-    public ReplacementServiceYoutubeImpl()
+    public ReplacementServiceYoutubeImpl(PreviewResolver previewResolver)
     {
+        this.previewResolver = previewResolver;
         logger.trace("Creating a Youtube Source.");
     }
 
     /**
-     * Returns the thumbnail URL of the video link provided.
+     * Returns the thumbnail URL of the video link provided, fetching it if it
+     * is not cached.
      *
      * @param sourceString the original video link.
      * @return the thumbnail image link; the original link in case of no match.
      */
     public String getReplacement(String sourceString)
     {
-        try
-        {
-            String url = "http://youtube.com/oembed/?url=" + sourceString;
-            URL sourceURL = new URL(url);
-            URLConnection conn = sourceURL.openConnection();
-
-            BufferedReader in =
-                new BufferedReader(new InputStreamReader(conn.getInputStream()));
-
-            String inputLine, holder = "";
-
-            while ((inputLine = in.readLine()) != null)
-                holder = inputLine;
-            in.close();
-
-            JSONObject wrapper = new JSONObject(holder);
+        return previewResolver.resolve(sourceString, this);
+    }
 
-            String thumbUrl = wrapper.getString("thumbnail_url");
+    /**
+     * Returns the thumbnail URL of the video link provided if it is cached.
+     * Otherwise, starts fetching it.
+     *
+     * @param sourceString the original video link.
+     * @param listener the <tt>ReplacementListener</tt> to notify of the
+     * thumbnail image link if it is not cached
+     * @return the thumbnail image link; the original link in case of no
+     * match; <tt>null</tt> if it is being fetched.
+     */
+    public String getReplacement(
+            String sourceString,
+            ReplacementListener listener)
+    {
+        return previewResolver.resolve(sourceString, this, listener);
+    }
 
-            if (thumbUrl != null)
-            {
-                return thumbUrl;
-            }
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
+    /**
+     * Fetches the thumbnail URL of the video link provided.
+     *
+     * @param sourceString the original video link.
+     * @return the thumbnail image link; <tt>null</tt> in case of no match.
+     * @throws Exception if the thumbnail image link cannot be fetched.
+     */
+    public String fetchPreview(String sourceString)
+        throws Exception
+    {
+        String url = "http://youtube.com/oembed/?url=" + sourceString;
+        JSONObject wrapper = new JSONObject(previewResolver.readURL(url));
 
-        return sourceString;
+        return wrapper.optString("thumbnail_url", null);
     }
 
     /**
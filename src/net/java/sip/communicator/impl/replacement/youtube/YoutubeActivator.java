@@ -48,7 +48,8 @@ public class YoutubeActivator
         Hashtable<String, String> hashtable = new Hashtable<String, String>();
         hashtable.put(ReplacementService.SOURCE_NAME,
             ReplacementServiceYoutubeImpl.YOUTUBE_CONFIG_LABEL);
-        youtubeSource = new ReplacementServiceYoutubeImpl();
+        youtubeSource = new ReplacementServiceYoutubeImpl(
+                ServiceUtils.getService(context, PreviewResolver.class));
 
         youtubeSourceServReg =
             context.registerService(ReplacementService.class.getName(),
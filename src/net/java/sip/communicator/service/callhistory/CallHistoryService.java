@@ -128,6 +128,13 @@ public interface CallHistoryService
     public CallHistoryQuery findByPeer(String address, int recordCount)
         throws RuntimeException;
 
+    /**
+     * Returns the number of missed calls from the supplied peer address
+     * @param address the address of the peer
+     * @return the number of missed calls from the peer
+     */
+    public int countMissedCalls(String address);
+
     /**
      * Adding progress listener for monitoring progress of search process
      *
@@ -0,0 +1,89 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.history;
+
+/**
+ * Exposes the state of the cache of parsed history documents kept by the
+ * history service. It is registered as a service next to the
+ * <tt>HistoryService</tt> so that other bundles (e.g. diagnostics plugins)
+ * can monitor how well the cache performs.
+ *
+ * @see HistoryService#CACHE_ENABLED_PROPERTY
+ * @see HistoryService#CACHE_MAX_ENTRIES_PROPERTY
+ * @see HistoryService#CACHE_MAX_SIZE_PROPERTY
+ */
+public interface HistoryCacheStatistics
+{
+    /**
+     * Returns the number of lookups which found their document in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount();
+
+    /**
+     * Returns the number of lookups which found their document only through
+     * the soft references kept to evicted documents.
+     *
+     * @return the number of hits on evicted documents not collected yet
+     */
+    public long getSoftHitCount();
+
+    /**
+     * Returns the number of lookups which had to parse their document.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount();
+
+    /**
+     * Returns the number of documents evicted from the cache because it
+     * exceeded its bounds.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount();
+
+    /**
+     * Returns the number of documents currently held by the cache, pinned
+     * ones included.
+     *
+     * @return the number of documents currently held by the cache
+     */
+    public int getEntryCount();
+
+    /**
+     * Returns the number of documents which are pinned in the cache because
+     * they have changes not written to disk yet or are being written to.
+     *
+     * @return the number of pinned documents
+     */
+    public int getPinnedCount();
+
+    /**
+     * Returns the estimated memory used by the documents held by the cache.
+     *
+     * @return the estimated size in bytes of the cached documents
+     */
+    public long getEstimatedSize();
+
+    /**
+     * Returns the maximum number of documents kept by the cache, pinned
+     * documents excluded.
+     *
+     * @return the maximum number of cached documents
+     */
+    public int getMaxEntries();
+
+    /**
+     * Returns the maximum estimated memory used by the documents kept by the
+     * cache, pinned documents excluded.
+     *
+     * @return the maximum estimated size in bytes of the cached documents
+     */
+    public long getMaxSize();
+}
@@ -30,6 +30,67 @@ public interface HistoryService {
     public static String CACHE_ENABLED_PROPERTY =
         "net.java.sip.communicator.service.history.CACHE_ENABLED";
 
+    /**
+     * The name of the configuration property holding the maximum number of
+     * parsed history documents kept in the cache when it is enabled.
+     */
+    public static String CACHE_MAX_ENTRIES_PROPERTY =
+        "net.java.sip.communicator.service.history.CACHE_MAX_ENTRIES";
+
+    /**
+     * The name of the configuration property holding the maximum estimated
+     * memory, in bytes, taken by the parsed history documents kept in the
+     * cache when it is enabled.
+     */
+    public static String CACHE_MAX_SIZE_PROPERTY =
+        "net.java.sip.communicator.service.history.CACHE_MAX_SIZE";
+
+    /**
+     * The name of the configuration property enabling the write-behind mode
+     * of the XML histories. In this mode the records are appended to a
+     * journal forced to disk and the XML files are rewritten in batches
+     * rather than once per record. Disabled by default.
+     */
+    public static String WRITE_BEHIND_ENABLED_PROPERTY =
+        "net.java.sip.communicator.service.history.WRITE_BEHIND_ENABLED";
+
+    /**
+     * The name of the configuration property holding the maximum time, in
+     * milliseconds, a record waits in the journal before the XML files are
+     * rewritten in write-behind mode.
+     */
+    public static String WRITE_BEHIND_MAX_DELAY_PROPERTY =
+        "net.java.sip.communicator.service.history.WRITE_BEHIND_MAX_DELAY";
+
+    /**
+     * The name of the configuration property holding the number of records
+     * waiting in the journal which triggers a rewrite of the XML files in
+     * write-behind mode.
+     */
+    public static String WRITE_BEHIND_MAX_RECORDS_PROPERTY =
+        "net.java.sip.communicator.service.history.WRITE_BEHIND_MAX_RECORDS";
+
+    /**
+     * The name of the configuration property selecting the format the
+     * histories are stored in. Its value is one of
+     * {@link #STORAGE_FORMAT_XML} (the default) or
+     * {@link #STORAGE_FORMAT_BINARY}.
+     */
+    public static String STORAGE_FORMAT_PROPERTY =
+        "net.java.sip.communicator.service.history.STORAGE_FORMAT";
+
+    /**
+     * Stores every history as a set of XML files.
+     */
+    public static String STORAGE_FORMAT_XML = "xml";
+
+    /**
+     * Stores every history in an indexed, append-only binary log. The records
+     * of the XML files of a history written since it was last opened in this
+     * format are copied into its log when it is opened.
+     */
+    public static String STORAGE_FORMAT_BINARY = "binary";
+
     /**
      * Returns the IDs of all existing histories.
      *
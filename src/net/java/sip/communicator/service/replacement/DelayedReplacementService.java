@@ -0,0 +1,32 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.replacement;
+
+/**
+ * A <tt>ReplacementService</tt> whose replacements may take a network round
+ * trip, e.g. previews provided by the web service of a video site. Such a
+ * source can be asked for a replacement without blocking.
+ */
+public interface DelayedReplacementService
+    extends ReplacementService
+{
+    /**
+     * Returns the replacement of a source string if it is known already.
+     * Otherwise, starts looking it up and notifies a listener once it is
+     * known.
+     *
+     * @param sourceString the original source string
+     * @param listener the <tt>ReplacementListener</tt> to notify of the
+     * replacement, from another thread, if it is not known already
+     * @return the replacement of <tt>sourceString</tt>, <tt>sourceString</tt>
+     * itself if it has none, or <tt>null</tt> if it is being looked up and
+     * <tt>listener</tt> is to be notified
+     */
+    public String getReplacement(
+            String sourceString,
+            ReplacementListener listener);
+}
@@ -0,0 +1,26 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.replacement;
+
+/**
+ * Fetches the preview of a link, usually from the web service of the site the
+ * link points to. Called by a <tt>PreviewResolver</tt> from one of its fetch
+ * threads.
+ */
+public interface PreviewFetcher
+{
+    /**
+     * Fetches the preview of a link.
+     *
+     * @param link the link
+     * @return the URL of the preview of <tt>link</tt> or <tt>null</tt> if it
+     * has none
+     * @throws Exception if the preview cannot be fetched
+     */
+    public String fetchPreview(String link)
+        throws Exception;
+}
@@ -0,0 +1,62 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.replacement;
+
+import java.io.*;
+
+/**
+ * Resolves the previews of links for the replacement sources which fetch them
+ * from the web, so that a link repeated in a chat room is fetched once rather
+ * than once for each message, and so that fetching does not block rendering.
+ * The replacement sources share the <tt>PreviewResolver</tt> registered as an
+ * OSGi service.
+ */
+public interface PreviewResolver
+{
+    /**
+     * Returns the preview of a link if it is cached. Otherwise, starts fetching
+     * it, unless it is being fetched already, and notifies a listener once it
+     * is known.
+     *
+     * @param link the link
+     * @param fetcher the <tt>PreviewFetcher</tt> which fetches the preview of
+     * <tt>link</tt> if it is not cached
+     * @param listener the <tt>ReplacementListener</tt> to notify, from a fetch
+     * thread, if the preview is not cached
+     * @return the URL of the preview of <tt>link</tt>, <tt>link</tt> itself if
+     * it has none or <tt>null</tt> if it is being fetched and
+     * <tt>listener</tt> is to be notified
+     */
+    public String resolve(
+            String link,
+            PreviewFetcher fetcher,
+            ReplacementListener listener);
+
+    /**
+     * Returns the preview of a link, fetching it and waiting for it if it is
+     * not cached.
+     *
+     * @param link the link
+     * @param fetcher the <tt>PreviewFetcher</tt> which fetches the preview of
+     * <tt>link</tt> if it is not cached
+     * @return the URL of the preview of <tt>link</tt> or <tt>link</tt> itself
+     * if it has none or it could not be fetched in time
+     */
+    public String resolve(String link, PreviewFetcher fetcher);
+
+    /**
+     * Reads the response of a web service with the timeouts suitable for
+     * fetching previews.
+     *
+     * @param url the URL of the web service
+     * @return the response of the web service as a string, its lines
+     * concatenated
+     * @throws IOException if the web service cannot be read
+     */
+    public String readURL(String url)
+        throws IOException;
+}
@@ -0,0 +1,23 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.service.replacement;
+
+/**
+ * Notified of the replacement of a source string which a
+ * <tt>DelayedReplacementService</tt> could not provide right away.
+ */
+public interface ReplacementListener
+{
+    /**
+     * Indicates that the replacement of a source string is known.
+     *
+     * @param sourceString the source string
+     * @param replacement the replacement of <tt>sourceString</tt>;
+     * <tt>sourceString</tt> itself if it has none
+     */
+    public void replacementResolved(String sourceString, String replacement);
+}
@@ -0,0 +1,149 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+
+/**
+ * Reads and writes the CRC-checked frames of the append-only files used by
+ * the journals and logs of the history and contact list storage. A frame is
+ * the length of its payload and the CRC32 of its payload, both as big-endian
+ * ints, followed by the payload. A frame cut short by a crash or damaged on
+ * disk fails its CRC check and ends the readable part of the file.
+ */
+public final class CrcFrames
+{
+    /**
+     * The size in bytes of the header of a frame: payload length and CRC32.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * Prevents the creation of <tt>CrcFrames</tt> instances.
+     */
+    private CrcFrames()
+    {
+    }
+
+    /**
+     * Computes the CRC32 of the given bytes.
+     *
+     * @param bytes the bytes
+     * @return the CRC32 of <tt>bytes</tt>
+     */
+    public static int crc(byte[] bytes)
+    {
+        CRC32 crc = new CRC32();
+
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Creates the frame of a payload.
+     *
+     * @param payload the payload
+     * @return a buffer holding the frame of <tt>payload</tt>, ready to be
+     * written
+     */
+    public static ByteBuffer frame(byte[] payload)
+    {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+
+        frame.putInt(payload.length);
+        frame.putInt(crc(payload));
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Writes the frame of a payload.
+     *
+     * @param out the stream to write to
+     * @param payload the payload
+     * @throws IOException if writing fails
+     */
+    public static void writeFrame(DataOutput out, byte[] payload)
+        throws IOException
+    {
+        out.writeInt(payload.length);
+        out.writeInt(crc(payload));
+        out.write(payload);
+    }
+
+    /**
+     * Reads a frame, stopping at the end of the stream or at the first torn
+     * or damaged frame.
+     *
+     * @param in the stream to read from
+     * @return the payload of the frame or <tt>null</tt> at the end of the
+     * readable frames
+     * @throws IOException if reading fails
+     */
+    public static byte[] readFrame(DataInput in)
+        throws IOException
+    {
+        try
+        {
+            int length = in.readInt();
+            int crc = in.readInt();
+
+            if (length < 0)
+                return null;
+
+            byte[] payload = new byte[length];
+
+            in.readFully(payload);
+            return (crc == crc(payload)) ? payload : null;
+        }
+        catch (EOFException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a string as the length of its UTF-8 bytes followed by these
+     * bytes. Unlike <tt>DataOutput.writeUTF</tt> this is not limited to 64K.
+     *
+     * @param out the stream to write to
+     * @param s the string to write
+     * @throws IOException if writing fails
+     */
+    public static void writeString(DataOutput out, String s)
+        throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written with {@link #writeString(DataOutput, String)}.
+     *
+     * @param in the stream to read from
+     * @return the string
+     * @throws IOException if reading fails
+     */
+    public static String readString(DataInput in)
+        throws IOException
+    {
+        int length = in.readInt();
+
+        if (length < 0)
+            throw new IOException("Negative string length " + length);
+
+        byte[] bytes = new byte[length];
+
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
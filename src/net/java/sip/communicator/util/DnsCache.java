@@ -0,0 +1,456 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.util;
+
+import java.beans.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.dns.*;
+
+import org.xbill.DNS.*;
+
+/**
+ * Keeps the results of the DNS queries made by {@link NetworkUtils} so that
+ * the protocols connecting, failing over or registering again at the same
+ * time do not each query the same records.
+ * <p>
+ * Records are kept for their time to live and the fact that a name or a type
+ * of record does not exist for a short time. Failures to get an answer, be it
+ * because no server could be reached or because of a DNSSEC validation
+ * failure, are not kept. Concurrent identical queries are made once, the
+ * threads asking for the same records waiting for the one querying them.
+ * Queries are made with whatever resolver {@link NetworkUtils} has set up,
+ * i.e. the parallel or the DNSSEC resolver. The results are forgotten when
+ * the network or the DNS configuration changes.
+ */
+class DnsCache
+    implements PropertyChangeListener
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>DnsCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(DnsCache.class);
+
+    /**
+     * The maximum number of query results to keep.
+     */
+    private static final int MAX_SIZE = 512;
+
+    /**
+     * The maximum time in seconds records are kept, whatever their time to
+     * live.
+     */
+    static final long MAX_TIME_TO_LIVE = 60 * 60;
+
+    /**
+     * The time in seconds the fact that a name or a type of record does not
+     * exist is kept.
+     */
+    static final long NEGATIVE_TIME_TO_LIVE = 30;
+
+    /**
+     * The names of the properties which change the results of the queries.
+     */
+    private static final Set<String> CONFIG_NAMES
+        = new HashSet<String>(Arrays.asList(
+                NetworkUtils.PNAME_BACKUP_RESOLVER_ENABLED,
+                NetworkUtils.PNAME_BACKUP_RESOLVER,
+                NetworkUtils.PNAME_BACKUP_RESOLVER_FALLBACK_IP,
+                NetworkUtils.PNAME_BACKUP_RESOLVER_PORT,
+                NetworkUtils.PNAME_DNS_ALWAYS_ABSOLUTE,
+                DnsUtilActivator.PNAME_DNSSEC_RESOLVER_ENABLED,
+                DnsUtilActivator.PNAME_DNSSEC_NAMESERVERS,
+                ConfigurableDnssecResolver.PNAME_DNSSEC_VALIDATION_MODE));
+
+    /**
+     * The prefix of the names of the properties which pin the DNSSEC
+     * validation behavior of specific domains, changing the results of their
+     * queries.
+     */
+    private static final String CONFIG_PREFIX
+        = ConfigurableDnssecResolver.PNAME_BASE_DNSSEC_PIN + ".";
+
+    /**
+     * The kept query results, the least recently used first.
+     */
+    private final LRUCache<Key, Entry> entries
+        = new LRUCache<Key, Entry>(MAX_SIZE);
+
+    /**
+     * The queries being made.
+     */
+    private final Map<Key, Query> queries = new HashMap<Key, Query>();
+
+    /**
+     * The number of times the kept query results have been forgotten. Queries
+     * started before are not kept when they complete.
+     */
+    private int generation = 0;
+
+    /**
+     * Returns the records of a specific type for a domain, querying them if
+     * they are not kept or waiting for them if they are being queried
+     * already.
+     *
+     * @param domain the domain to get the records for
+     * @param type the type of the records
+     * @return the records of type <tt>type</tt> for <tt>domain</tt> or
+     * <tt>null</tt> if there are none or they could not be queried
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain
+     * name
+     * @throws DnssecRuntimeException if the records failed DNSSEC validation
+     */
+    Record[] lookup(String domain, int type)
+        throws TextParseException
+    {
+        Key key = new Key(domain, type);
+        Query query;
+        boolean querying = false;
+
+        synchronized (this)
+        {
+            Entry entry = entries.get(key);
+
+            if (entry != null)
+            {
+                if (!entry.isExpired())
+                    return copy(entry.records);
+                entries.remove(key);
+            }
+
+            query = queries.get(key);
+            if (query == null)
+            {
+                query = new Query(generation);
+                queries.put(key, query);
+                querying = true;
+            }
+        }
+
+        if (querying)
+            run(key, query);
+        return copy(query.getRecords());
+    }
+
+    /**
+     * Forgets the kept query results. The queries being made are not waited
+     * for by the lookups started from now on, nor are their results kept.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        queries.clear();
+        generation++;
+    }
+
+    /**
+     * Forgets the kept query results when a property changing them changes.
+     *
+     * @param evt the <tt>PropertyChangeEvent</tt> describing the change
+     */
+    public void propertyChange(PropertyChangeEvent evt)
+    {
+        String propertyName = evt.getPropertyName();
+
+        if ((propertyName != null)
+                && (CONFIG_NAMES.contains(propertyName)
+                    || propertyName.startsWith(CONFIG_PREFIX)))
+        {
+            clear();
+            if (logger.isDebugEnabled())
+                logger.debug("DNS cache cleared: " + propertyName);
+        }
+    }
+
+    /**
+     * Creates the <tt>Lookup</tt> querying the records of a specific type for
+     * a domain.
+     *
+     * @param domain the domain to get the records for
+     * @param type the type of the records
+     * @return the <tt>Lookup</tt> querying the records of type <tt>type</tt>
+     * for <tt>domain</tt>
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain
+     * name
+     */
+    Lookup createLookup(String domain, int type)
+        throws TextParseException
+    {
+        return NetworkUtils.createLookup(domain, type);
+    }
+
+    /**
+     * Makes a query, keeps its result if it is to be kept and hands it to the
+     * threads waiting for it.
+     *
+     * @param key the domain and the type of the records to query
+     * @param query the <tt>Query</tt> waited for
+     * @throws TextParseException if the domain is not a valid domain name
+     */
+    private void run(Key key, Query query)
+        throws TextParseException
+    {
+        Record[] records = null;
+        int result = Lookup.UNRECOVERABLE;
+        Throwable exception = null;
+
+        try
+        {
+            Lookup lookup = createLookup(key.domain, key.type);
+
+            // Records are kept here for their time to live. Have the lookup
+            // use a cache of its own rather than the shared one of dnsjava,
+            // which is not cleared with ours and would keep them longer.
+            lookup.setCache(null);
+            records = lookup.run();
+            result = lookup.getResult();
+        }
+        catch (TextParseException e)
+        {
+            exception = e;
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            exception = e;
+            throw e;
+        }
+        catch (Error e)
+        {
+            exception = e;
+            throw e;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                if (queries.get(key) == query)
+                    queries.remove(key);
+
+                if ((exception == null) && (query.generation == generation))
+                {
+                    long timeToLive = getTimeToLive(records, result);
+
+                    if (timeToLive > 0)
+                    {
+                        entries.put(
+                                key,
+                                new Entry(
+                                        records,
+                                        System.currentTimeMillis()
+                                            + timeToLive * 1000));
+                    }
+                }
+            }
+            query.complete(records, exception);
+        }
+    }
+
+    /**
+     * Returns the time in seconds the result of a query is to be kept.
+     *
+     * @param records the records returned by the query
+     * @param result the result of the query as returned by
+     * {@link Lookup#getResult()}
+     * @return the time in seconds the result of the query is to be kept or
+     * <tt>0</tt> if it is not to be kept
+     */
+    private static long getTimeToLive(Record[] records, int result)
+    {
+        switch (result)
+        {
+        case Lookup.SUCCESSFUL:
+            if ((records == null) || (records.length == 0))
+                return 0;
+
+            long timeToLive = MAX_TIME_TO_LIVE;
+
+            for (Record record : records)
+                timeToLive = Math.min(timeToLive, record.getTTL());
+            return timeToLive;
+        case Lookup.HOST_NOT_FOUND:
+        case Lookup.TYPE_NOT_FOUND:
+            return NEGATIVE_TIME_TO_LIVE;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a copy of an array of records so that the kept ones may not be
+     * modified by the callers.
+     *
+     * @param records the records to copy
+     * @return a copy of <tt>records</tt> or <tt>null</tt> if <tt>records</tt>
+     * is <tt>null</tt>
+     */
+    private static Record[] copy(Record[] records)
+    {
+        return (records == null) ? null : records.clone();
+    }
+
+    /**
+     * The result of a query along with the time it expires at.
+     */
+    private static class Entry
+    {
+        /**
+         * The records returned by the query or <tt>null</tt> if there are
+         * none.
+         */
+        final Record[] records;
+
+        /**
+         * The time in milliseconds the result expires at.
+         */
+        final long expirationTime;
+
+        Entry(Record[] records, long expirationTime)
+        {
+            this.records = records;
+            this.expirationTime = expirationTime;
+        }
+
+        /**
+         * Determines whether the result has expired.
+         *
+         * @return <tt>true</tt> if the result has expired; otherwise,
+         * <tt>false</tt>
+         */
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() >= expirationTime;
+        }
+    }
+
+    /**
+     * Identifies a query by the domain and the type of the records it gets.
+     */
+    private static class Key
+    {
+        /**
+         * The domain to get the records for.
+         */
+        final String domain;
+
+        /**
+         * The domain in lower case, domain names being case insensitive.
+         */
+        private final String name;
+
+        /**
+         * The type of the records.
+         */
+        final int type;
+
+        Key(String domain, int type)
+        {
+            this.domain = domain;
+            this.name = domain.toLowerCase(Locale.ENGLISH);
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+
+            return (type == other.type) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode() * 31 + type;
+        }
+    }
+
+    /**
+     * A query being made, waited for by the threads asking for the same
+     * records.
+     */
+    private static class Query
+    {
+        /**
+         * The value of {@link DnsCache#generation} when the query started.
+         */
+        final int generation;
+
+        /**
+         * Whether the query has completed.
+         */
+        private boolean completed = false;
+
+        /**
+         * The records returned by the query.
+         */
+        private Record[] records;
+
+        /**
+         * The exception thrown by the query if it failed.
+         */
+        private Throwable exception;
+
+        Query(int generation)
+        {
+            this.generation = generation;
+        }
+
+        /**
+         * Sets the result of the query and wakes the threads waiting for it.
+         *
+         * @param records the records returned by the query
+         * @param exception the exception thrown by the query if it failed
+         */
+        synchronized void complete(Record[] records, Throwable exception)
+        {
+            this.records = records;
+            this.exception = exception;
+            completed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the query to complete and returns its result.
+         *
+         * @return the records returned by the query
+         * @throws TextParseException if the query failed because the domain
+         * is not a valid domain name
+         */
+        synchronized Record[] getRecords()
+            throws TextParseException
+        {
+            boolean interrupted = false;
+
+            while (!completed)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (exception instanceof TextParseException)
+                throw (TextParseException) exception;
+            if (exception instanceof RuntimeException)
+                throw (RuntimeException) exception;
+            if (exception instanceof Error)
+                throw (Error) exception;
+            return records;
+        }
+    }
+}
@@ -431,11 +431,37 @@ class Entities {
          * @return entity value associated with the specified name
          */
         int value(String name);
+
+        /**
+         * <p>
+         * Returns the value of the entity identified by the specified region of a character sequence.
+         * </p>
+         * 
+         * @param name
+         *            the character sequence containing the name to locate
+         * @param start
+         *            the index of the first character of the name
+         * @param end
+         *            the index after the last character of the name
+         * @return entity value associated with the specified name
+         */
+        int value(CharSequence name, int start, int end);
     }
 
     static class PrimitiveEntityMap implements EntityMap {
-        private final Map<String, Integer> mapNameToValue
-            = new HashMap<String, Integer>();
+        /**
+         * The names of the entities, in an open-addressing hash table whose
+         * length is a power of two, so that a name can be looked up in a
+         * character sequence without creating a <tt>String</tt> for it.
+         */
+        private String[] names = new String[16];
+
+        /**
+         * The values of the entities, at the indexes of their names.
+         */
+        private int[] values = new int[16];
+
+        private int size = 0;
 
         private IntHashMap mapValueToName = new IntHashMap();
 
@@ -443,7 +469,29 @@ class Entities {
          * {@inheritDoc}
          */
         public void add(String name, int value) {
-            mapNameToValue.put(name, value);
+            if (2 * (size + 1) > names.length) {
+                String[] oldNames = names;
+                int[] oldValues = values;
+
+                names = new String[2 * oldNames.length];
+                values = new int[names.length];
+                for (int i = 0; i < oldNames.length; i++) {
+                    if (oldNames[i] != null) {
+                        int index = indexOf(oldNames[i], 0, oldNames[i].length());
+
+                        names[index] = oldNames[i];
+                        values[index] = oldValues[i];
+                    }
+                }
+            }
+
+            int index = indexOf(name, 0, name.length());
+
+            if (names[index] == null) {
+                names[index] = name;
+                size++;
+            }
+            values[index] = value;
             mapValueToName.put(value, name);
         }
 
@@ -458,8 +506,72 @@ class Entities {
          * {@inheritDoc}
          */
         public int value(String name) {
-            Integer value = mapNameToValue.get(name);
-            return (value == null) ? -1 : value;
+            return value(name, 0, name.length());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int value(CharSequence name, int start, int end) {
+            int index = indexOf(name, start, end);
+
+            return (names[index] == null) ? -1 : values[index];
+        }
+
+        /**
+         * <p>
+         * Returns the index in the hash table of the specified name, or of the free slot where it is to be added.
+         * </p>
+         * 
+         * @param name
+         *            the character sequence containing the name to locate
+         * @param start
+         *            the index of the first character of the name
+         * @param end
+         *            the index after the last character of the name
+         * @return the index in the hash table of the name
+         */
+        private int indexOf(CharSequence name, int start, int end) {
+            int length = end - start;
+            int hash = 0;
+
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + name.charAt(i);
+            }
+            hash ^= (hash >>> 16);
+
+            int mask = names.length - 1;
+
+            for (int index = hash & mask;; index = (index + 1) & mask) {
+                String candidate = names[index];
+
+                if ((candidate == null)
+                        || ((candidate.length() == length) && regionMatches(candidate, name, start))) {
+                    return index;
+                }
+            }
+        }
+
+        /**
+         * <p>
+         * Determines whether a name equals the region of a character sequence of the same length.
+         * </p>
+         * 
+         * @param name
+         *            the name
+         * @param sequence
+         *            the character sequence
+         * @param start
+         *            the index of the region in the character sequence
+         * @return <code>true</code> if the name equals the region
+         */
+        private static boolean regionMatches(String name, CharSequence sequence, int start) {
+            for (int i = 0, length = name.length(); i < length; i++) {
+                if (name.charAt(i) != sequence.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
@@ -490,6 +602,13 @@ class Entities {
             Integer value = mapNameToValue.get(name);
             return (value == null) ? -1 : value;
         }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int value(CharSequence name, int start, int end) {
+            return value(name.subSequence(start, end).toString());
+        }
     }
 
     static class HashEntityMap extends MapIntMap {
@@ -635,6 +754,13 @@ class Entities {
             }
             return -1;
         }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int value(CharSequence name, int start, int end) {
+            return value(name.subSequence(start, end).toString());
+        }
     }
 
     static class BinaryEntityMap extends ArrayEntityMap {
@@ -770,6 +896,23 @@ class Entities {
         return map.value(name);
     }
 
+    /**
+     * <p>
+     * Returns the value of the entity identified by the specified region of a character sequence.
+     * </p>
+     * 
+     * @param name
+     *            the character sequence containing the name to locate
+     * @param start
+     *            the index of the first character of the name
+     * @param end
+     *            the index after the last character of the name
+     * @return entity value associated with the specified name
+     */
+    public int entityValue(CharSequence name, int start, int end) {
+        return map.value(name, start, end);
+    }
+
     /**
      * <p>
      * Escapes the characters in a <code>String</code>.
@@ -785,15 +928,10 @@ class Entities {
      * @return A new escaped <code>String</code>.
      */
     public String escape(String str) {
-        StringWriter stringWriter = createStringWriter(str);
-        try {
-            this.escape(stringWriter, str);
-        } catch (IOException e) {
-            // This should never happen because ALL the StringWriter methods called by #escape(Writer, String) do not
-            // throw IOExceptions.
-            throw new RuntimeException(e);
-        }
-        return stringWriter.toString();
+        StringBuilder builder = createStringBuilder(str);
+
+        escape(str, builder);
+        return builder.toString();
     }
 
     /**
@@ -814,22 +952,36 @@ class Entities {
      * @see Writer
      */
     public void escape(Writer writer, String str) throws IOException {
+        writer.write(escape(str));
+    }
+
+    /**
+     * <p>
+     * Escapes the characters in the <code>CharSequence</code> passed and appends the result to the
+     * <code>StringBuilder</code> passed.
+     * </p>
+     * 
+     * @param str
+     *            The <code>CharSequence</code> to escape. Assumed to be a non-null value.
+     * @param builder
+     *            The <code>StringBuilder</code> to append the results of the escaping to. Assumed to be a non-null
+     *            value.
+     * 
+     * @see #escape(String)
+     */
+    public void escape(CharSequence str, StringBuilder builder) {
         int len = str.length();
         for (int i = 0; i < len; i++) {
             char c = str.charAt(i);
             String entityName = this.entityName(c);
             if (entityName == null) {
                 if (c > 0x7F) {
-                    writer.write("&#");
-                    writer.write(Integer.toString(c, 10));
-                    writer.write(';');
+                    builder.append("&#").append((int) c).append(';');
                 } else {
-                    writer.write(c);
+                    builder.append(c);
                 }
             } else {
-                writer.write('&');
-                writer.write(entityName);
-                writer.write(';');
+                builder.append('&').append(entityName).append(';');
             }
         }
     }
@@ -853,26 +1005,20 @@ class Entities {
         if (firstAmp < 0) {
             return str;
         } else {
-            StringWriter stringWriter = createStringWriter(str);
-            try {
-                this.doUnescape(stringWriter, str, firstAmp);
-            } catch (IOException e) {
-                // This should never happen because ALL the StringWriter methods called by #escape(Writer, String) 
-                // do not throw IOExceptions.
-                throw new RuntimeException(e);
-            }
-            return stringWriter.toString();
+            StringBuilder builder = createStringBuilder(str);
+            doUnescape(builder, str, firstAmp);
+            return builder.toString();
         }
     }
 
     /**
-     * Make the StringWriter 10% larger than the source String to avoid growing the writer
+     * Make the StringBuilder 10% larger than the source String to avoid growing the builder
      *
      * @param str The source string
-     * @return A newly created StringWriter
+     * @return A newly created StringBuilder
      */
-    private StringWriter createStringWriter(String str) {
-        return new StringWriter((int) (str.length() + (str.length() * 0.1)));
+    private StringBuilder createStringBuilder(String str) {
+        return new StringBuilder((int) (str.length() + (str.length() * 0.1)));
     }
 
     /**
@@ -893,89 +1039,146 @@ class Entities {
      * @see Writer
      */
     public void unescape(Writer writer, String str) throws IOException {
-        int firstAmp = str.indexOf('&');
-        if (firstAmp < 0) {
-            writer.write(str);
-            return;
-        } else {
-            doUnescape(writer, str, firstAmp);
-        }
+        writer.write(unescape(str));
+    }
+
+    /**
+     * <p>
+     * Unescapes the escaped entities in the <code>CharSequence</code> passed and appends the result to the
+     * <code>StringBuilder</code> passed.
+     * </p>
+     * 
+     * @param str
+     *            The source <code>CharSequence</code> to unescape; assumed to be non-null.
+     * @param builder
+     *            The <code>StringBuilder</code> to append the results to; assumed to be non-null.
+     * 
+     * @see #unescape(String)
+     */
+    public void unescape(CharSequence str, StringBuilder builder) {
+        doUnescape(builder, str, 0);
     }
 
     /**
      * Underlying unescape method that allows the optimisation of not starting from the 0 index again.
+     * <p>
+     * The semicolon ending an entity is looked up once for all the ampersands preceding it, so that text with many
+     * ampersands is unescaped in linear time.
+     * </p>
      *
-     * @param writer
-     *            The <code>Writer</code> to write the results to; assumed to be non-null.
+     * @param builder
+     *            The <code>StringBuilder</code> to append the results to; assumed to be non-null.
      * @param str
-     *            The source <code>String</code> to unescape; assumed to be non-null.
+     *            The source <code>CharSequence</code> to unescape; assumed to be non-null.
      * @param firstAmp
-     *            The <code>int</code> index of the first ampersand in the source String.
-     * @throws IOException
-     *             when <code>Writer</code> passed throws the exception from calls to the {@link Writer#write(int)}
-     *             methods.
+     *            The <code>int</code> index of the first ampersand in the source String or of a character preceding
+     *            it.
      */
-    private void doUnescape(Writer writer, String str, int firstAmp) throws IOException {
-        writer.write(str, 0, firstAmp);
+    private void doUnescape(StringBuilder builder, CharSequence str, int firstAmp) {
+        builder.append(str, 0, firstAmp);
         int len = str.length();
+        int semiColonIdx = -1;
         for (int i = firstAmp; i < len; i++) {
             char c = str.charAt(i);
             if (c == '&') {
                 int nextIdx = i + 1;
-                int semiColonIdx = str.indexOf(';', nextIdx);
+                if (semiColonIdx < nextIdx) {
+                    semiColonIdx = indexOf(str, ';', nextIdx, len);
+                }
                 if (semiColonIdx == -1) {
-                    writer.write(c);
-                    continue;
+                    builder.append(str, i, len);
+                    return;
                 }
-                int amphersandIdx = str.indexOf('&', i + 1);
-                if (amphersandIdx != -1 && amphersandIdx < semiColonIdx) {
+                if (indexOf(str, '&', nextIdx, semiColonIdx) != -1) {
                     // Then the text looks like &...&...;
-                    writer.write(c);
+                    builder.append(c);
                     continue;
                 }
-                String entityContent = str.substring(nextIdx, semiColonIdx);
                 int entityValue = -1;
-                int entityContentLen = entityContent.length();
+                int entityContentLen = semiColonIdx - nextIdx;
                 if (entityContentLen > 0) {
-                    if (entityContent.charAt(0) == '#') { // escaped value content is an integer (decimal or
+                    if (str.charAt(nextIdx) == '#') { // escaped value content is an integer (decimal or
                         // hexidecimal)
                         if (entityContentLen > 1) {
-                            char isHexChar = entityContent.charAt(1);
-                            try {
-                                switch (isHexChar) {
-                                    case 'X' :
-                                    case 'x' : {
-                                        entityValue = Integer.parseInt(entityContent.substring(2), 16);
-                                        break;
-                                    }
-                                    default : {
-                                        entityValue = Integer.parseInt(entityContent.substring(1), 10);
-                                    }
+                            char isHexChar = str.charAt(nextIdx + 1);
+                            switch (isHexChar) {
+                                case 'X' :
+                                case 'x' : {
+                                    entityValue = parseCharValue(str, nextIdx + 2, semiColonIdx, 16);
+                                    break;
                                 }
-                                if (entityValue > 0xFFFF) {
-                                    entityValue = -1;
+                                default : {
+                                    entityValue = parseCharValue(str, nextIdx + 1, semiColonIdx, 10);
                                 }
-                            } catch (NumberFormatException e) {
-                                entityValue = -1;
                             }
                         }
                     } else { // escaped value content is an entity name
-                        entityValue = this.entityValue(entityContent);
+                        entityValue = this.entityValue(str, nextIdx, semiColonIdx);
                     }
                 }
 
                 if (entityValue == -1) {
-                    writer.write('&');
-                    writer.write(entityContent);
-                    writer.write(';');
+                    builder.append(str, i, semiColonIdx + 1);
                 } else {
-                    writer.write(entityValue);
+                    builder.append((char) entityValue);
                 }
                 i = semiColonIdx; // move index up to the semi-colon
             } else {
-                writer.write(c);
+                builder.append(c);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first occurrence of a character in a region of a character sequence.
+     *
+     * @param str the character sequence
+     * @param c the character to look for
+     * @param start the index to start looking at
+     * @param end the index to stop looking at
+     * @return the index of the first occurrence of the character in the region, or <code>-1</code> if it does not
+     *         occur in it
+     */
+    private static int indexOf(CharSequence str, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (str.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the value of a numeric character reference the way {@link Integer#parseInt(String, int)} does, without
+     * creating a <code>String</code> unless the region holds something other than digits.
+     *
+     * @param str the character sequence
+     * @param start the index of the first digit
+     * @param end the index after the last digit
+     * @param radix the radix of the digits
+     * @return the value of the character reference, or <code>-1</code> if it is not a valid one
+     */
+    private static int parseCharValue(CharSequence str, int start, int end, int radix) {
+        if (start >= end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(str.charAt(i), radix);
+            if (digit < 0) {
+                // signs and the like, rare enough to let Integer sort them out
+                try {
+                    value = Integer.parseInt(str.subSequence(start, end).toString(), radix);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+                return (value > 0xFFFF) ? -1 : value;
+            }
+            if (value <= 0xFFFF) {
+                value = value * radix + digit;
             }
         }
+        return (value > 0xFFFF) ? -1 : value;
     }
 
     /**
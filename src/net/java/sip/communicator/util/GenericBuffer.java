@@ -5,42 +5,38 @@
  */
 package net.java.sip.communicator.util;
 
-import java.util.*;
-
 /**
  * The GenericBuffer class provides a way to minimize the effort needed to
  * buffer any kind of information. This class is particularly suited to
  * optimizations based on reusing already computed data.
+ * <p>
+ * The values are kept in an {@link LRUCache} so that adding one to a full
+ * buffer takes constant time, the least recently used value being the one
+ * overwritten. New code should use <tt>LRUCache</tt> directly.
  *
  * @author Benoit Pradelle
  */
 public class GenericBuffer<T>
 {
-    private final Hashtable<String, GenericBufferPair> buffer;
-
-    private int minAge = 0;
-
-    private int curAge = 0;
-
-    private final int maxCapacity;
+    private final LRUCache<String, T> buffer;
 
     /**
      * Sole constructor.
      * 
      * @param bufferSize The buffer size. Adding data to a full buffer will
-     *            cause the oldest data present in the buffer to be overwritten;
+     *            cause the least recently used data present in the buffer to
+     *            be overwritten;
      */
     public GenericBuffer(final int bufferSize)
     {
         assert bufferSize > 0;
 
-        buffer = new Hashtable<String, GenericBufferPair>(bufferSize);
-        maxCapacity = bufferSize;
+        buffer = new LRUCache<String, T>(bufferSize);
     }
 
     /**
-     * Adds a value to the buffer. If the buffer is full, the oldest value in
-     * the buffer will be overwritten by this new value.
+     * Adds a value to the buffer. If the buffer is full, the least recently
+     * used value in the buffer will be overwritten by this new value.
      * 
      * @param value The value to add. Can't be null.
      * @param context The context for which this value is valid. This basically
@@ -53,35 +49,7 @@ public class GenericBuffer<T>
     {
         assert value != null && context != null;
 
-        GenericBufferPair storage = buffer.get(context);
-
-        if (storage == null)
-        {
-            storage = new GenericBufferPair();
-        }
-        else
-        {
-            return; // don't override values
-        }
-
-        // if the amount of data has reach the limit, search the oldest data
-        if (buffer.size() == maxCapacity)
-        {
-            for (Map.Entry<String, GenericBufferPair> e : buffer.entrySet())
-            {
-                if (e.getValue().age == minAge)
-                {
-                    buffer.remove(e.getKey());
-                    minAge++;
-                    break;
-                }
-            }
-        }
-
-        storage.age = curAge++;
-        storage.value = value;
-
-        buffer.put(context, storage);
+        buffer.putIfAbsent(context, value);
     }
 
     /**
@@ -97,23 +65,6 @@ public class GenericBuffer<T>
     {
         assert context != null;
 
-        GenericBufferPair res = buffer.get(context);
-
-        if (res == null)
-        {
-            return null;
-        }
-
-        return res.value;
-    }
-
-    /**
-     * This class is a simple structure to store a pair context-value
-     */
-    private class GenericBufferPair
-    {
-        public T value = null;
-
-        public int age = 0;
+        return buffer.get(context);
     }
 }
@@ -1,6 +1,6 @@
 /*
  * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
- * 
+ *
  * Distributable under LGPL license.
  * See terms of license at gnu.org.
  */
@@ -14,7 +14,16 @@ import javax.swing.text.html.parser.*;
 /**
  * A utility class that allows to extract the text content of an HTML page
  * stripped from all formatting tags.
- * 
+ * <p>
+ * The text is the one the Swing HTML parser would extract. The markup found in
+ * messages and status messages, i.e. text level tags, paragraphs, divisions,
+ * line breaks, preformatted text and character references, is scanned in a
+ * single pass by a {@link TextExtractor} which reproduces the way the parser
+ * collapses white space. Each thread reuses its own <tt>TextExtractor</tt> so
+ * that callers neither wait for each other nor allocate more than the
+ * extracted text. Anything else, e.g. comments, scripts, tables, lists or
+ * malformed tags, is handed to the parser.
+ *
  * @author Emil Ivov <emcho at sip-communicator.org>
  * @author Yana Stamcheva
  * @author Lubomir Marinov
@@ -29,34 +38,43 @@ public class Html2Text
         = Logger.getLogger(Html2Text.class);
 
     /**
-     * The HTML parser used by {@link #extractText(String)} to parse HTML so
-     * that plain text can be extracted from it.
+     * The <tt>TextExtractor</tt> of each thread.
      */
-    private static HTMLParserCallback parser;
+    private static final ThreadLocal<TextExtractor> extractors
+        = new ThreadLocal<TextExtractor>()
+        {
+            @Override
+            protected TextExtractor initialValue()
+            {
+                return new TextExtractor();
+            }
+        };
 
     /**
-     * A utility method that allows to extract the text content of an HTML page 
-     * stripped from all formatting tags. Method is synchronized to avoid 
-     * concurrent access to the underlying <tt>HTMLEditorKit</tt>.
-     * 
+     * A utility method that allows to extract the text content of an HTML page
+     * stripped from all formatting tags. The method may be called from any
+     * number of threads at once.
+     *
      * @param html the HTML string that we will extract the text from.
      * @return the text content of the <tt>html</tt> parameter.
      */
-    public static synchronized String extractText(String html)
+    public static String extractText(CharSequence html)
     {
         if(html == null)
             return null;
 
-        if (parser == null)
-            parser = new HTMLParserCallback();
+        String text = extractors.get().extract(html);
+
+        if (text != null)
+            return text;
 
         try
         {
-            StringReader in = new StringReader(html);
+            StringReader in = new StringReader(html.toString());
 
             try
             {
-                return parser.parse(in);
+                return new HTMLParserCallback().parse(in);
             }
             finally
             {
@@ -67,7 +85,7 @@ public class Html2Text
         {
             if (logger.isInfoEnabled())
                 logger.info("Failed to extract plain text from html="+html, ex);
-            return html;
+            return html.toString();
         }
     }
 
@@ -81,11 +99,11 @@ public class Html2Text
          * The <tt>StringBuilder</tt> which accumulates the parsed text while it
          * is being parsed.
          */
-        private StringBuilder sb;
+        private final StringBuilder sb = new StringBuilder();
 
         /**
          * Parses the text contained in the given reader.
-         * 
+         *
          * @param in the reader to parse.
          * @return the parsed text
          * @throws IOException thrown if we fail to parse the reader.
@@ -93,29 +111,8 @@ public class Html2Text
         public String parse(Reader in)
             throws IOException
         {
-            sb = new StringBuilder();
-
-            String s;
-
-            try
-            {
-                new ParserDelegator().parse(in, this, /* ignoreCharSet */ true);
-                s = sb.toString();
-            }
-            finally
-            {
-                /*
-                 * Since the Html2Text class keeps this instance in a static
-                 * reference, the field sb should be reset to null as soon as
-                 * completing its goad in order to avoid keeping the parsed
-                 * text in memory after it is no longer needed i.e. to prevent
-                 * a memory leak. This method has been converted to return the
-                 * parsed string instead of having a separate getter method for
-                 * the parsed string for the same purpose.
-                 */
-                sb = null;
-            }
-            return s;
+            new ParserDelegator().parse(in, this, /* ignoreCharSet */ true);
+            return sb.toString();
         }
 
         /**
@@ -132,4 +129,865 @@ public class Html2Text
             sb.append(text);
         }
     }
+
+    /**
+     * Extracts the text of HTML made of the elements listed in
+     * {@link #ELEMENT_NAMES} only, properly nested, in a single pass.
+     * <p>
+     * The state kept while scanning and the way it changes mirror the fields
+     * and methods of the Swing <tt>Parser</tt> of the same names: text is
+     * buffered until a tag ends it, white space is collapsed into a pending
+     * <tt>space</tt> which is output in front of the next text or before a
+     * tag, and a tag which breaks the flow of text drops the pending space and
+     * the white space following it.
+     */
+    private static class TextExtractor
+    {
+        /**
+         * The kind of the <tt>html</tt> element.
+         */
+        private static final int HTML = 0;
+
+        /**
+         * The kind of the <tt>body</tt> element.
+         */
+        private static final int BODY = 1;
+
+        /**
+         * The kind of the elements which may contain blocks.
+         */
+        private static final int FLOW = 2;
+
+        /**
+         * The kind of the blocks which may contain text level elements only.
+         */
+        private static final int TEXT_BLOCK = 3;
+
+        /**
+         * The kind of the <tt>pre</tt> element.
+         */
+        private static final int PRE = 4;
+
+        /**
+         * The kind of the text level elements.
+         */
+        private static final int INLINE = 5;
+
+        /**
+         * The kind of the <tt>a</tt> element, which may not contain itself.
+         */
+        private static final int ANCHOR = 6;
+
+        /**
+         * The kind of the <tt>img</tt> element.
+         */
+        private static final int IMG = 7;
+
+        /**
+         * The kind of the <tt>br</tt> element.
+         */
+        private static final int BREAK = 8;
+
+        /**
+         * The kind of the <tt>hr</tt> element.
+         */
+        private static final int RULE = 9;
+
+        /**
+         * The names of the elements the <tt>TextExtractor</tt> knows of.
+         */
+        private static final String[] ELEMENT_NAMES
+            = {
+                "html", "body",
+                "div", "center", "blockquote",
+                "p", "h1", "h2", "h3", "h4", "h5", "h6",
+                "pre",
+                "b", "i", "u", "s", "strike", "em", "strong", "span", "tt",
+                "code", "cite", "dfn", "kbd", "samp", "var", "font", "big",
+                "small", "sub", "sup",
+                "a",
+                "img",
+                "br", "hr"
+            };
+
+        /**
+         * The kinds of the elements in {@link #ELEMENT_NAMES}.
+         */
+        private static final int[] ELEMENT_KINDS
+            = {
+                HTML, BODY,
+                FLOW, FLOW, FLOW,
+                TEXT_BLOCK, TEXT_BLOCK, TEXT_BLOCK, TEXT_BLOCK, TEXT_BLOCK,
+                TEXT_BLOCK, TEXT_BLOCK,
+                PRE,
+                INLINE, INLINE, INLINE, INLINE, INLINE, INLINE, INLINE,
+                INLINE, INLINE, INLINE, INLINE, INLINE, INLINE, INLINE,
+                INLINE, INLINE, INLINE, INLINE, INLINE, INLINE,
+                ANCHOR,
+                IMG,
+                BREAK, RULE
+            };
+
+        /**
+         * The maximum capacity of {@link #text} kept between extractions.
+         */
+        private static final int MAX_KEPT_CAPACITY = 4096;
+
+        /**
+         * The extracted text followed by the text buffered since the last tag.
+         */
+        private StringBuilder text = new StringBuilder();
+
+        /**
+         * The index in {@link #text} of the text buffered since the last tag.
+         */
+        private int textStart;
+
+        /**
+         * The indexes in {@link #ELEMENT_NAMES} of the open elements.
+         */
+        private int[] stack = new int[16];
+
+        /**
+         * The number of open elements.
+         */
+        private int depth;
+
+        /**
+         * The number of open <tt>pre</tt> elements.
+         */
+        private int preDepth;
+
+        /**
+         * Whether an <tt>a</tt> element is open.
+         */
+        private boolean inAnchor;
+
+        /**
+         * Whether a <tt>html</tt> element has been opened.
+         */
+        private boolean seenHtml;
+
+        /**
+         * Whether a <tt>body</tt> element has been opened.
+         */
+        private boolean seenBody;
+
+        /**
+         * Whether white space is pending.
+         */
+        private boolean space;
+
+        /**
+         * Whether white space is to be ignored.
+         */
+        private boolean ignoreSpace;
+
+        /**
+         * Whether the last tag breaks the flow of text.
+         */
+        private boolean lastBreaksFlow;
+
+        /**
+         * Extracts the text of HTML.
+         *
+         * @param html the HTML to extract the text of
+         * @return the text of <tt>html</tt> or <tt>null</tt> if it has to be
+         * extracted by the Swing HTML parser
+         */
+        String extract(CharSequence html)
+        {
+            if (text.capacity() > MAX_KEPT_CAPACITY)
+                text = new StringBuilder();
+            else
+                text.setLength(0);
+            textStart = 0;
+            depth = 0;
+            preDepth = 0;
+            inAnchor = false;
+            seenHtml = false;
+            seenBody = false;
+            space = false;
+            ignoreSpace = false;
+            lastBreaksFlow = true;
+
+            int length = html.length();
+            int i = 0;
+
+            while (i < length)
+            {
+                char c = html.charAt(i);
+
+                switch (c)
+                {
+                case '<':
+                    i = parseTag(html, i + 1, length);
+                    if (i < 0)
+                        return null;
+                    continue;
+
+                case '&':
+                    if (!startText())
+                        return null;
+                    i = parseEntityReference(html, i + 1, length);
+                    if (i < 0)
+                        return null;
+                    ignoreSpace = false;
+                    continue;
+
+                case '\r':
+                    i++;
+                    if ((i < length) && (html.charAt(i) == '\n'))
+                        i++;
+                    c = '\n';
+                    break;
+
+                case '\n':
+                case '\t':
+                case ' ':
+                    i++;
+                    break;
+
+                default:
+                    if (!startText())
+                        return null;
+                    i++;
+                    append(c);
+                    continue;
+                }
+
+                // white space
+                if (preDepth > 0)
+                    append(c);
+                else if (!ignoreSpace)
+                    space = true;
+            }
+
+            while (depth > 0)
+                endTag();
+
+            return text.toString();
+        }
+
+        /**
+         * Prepares for text to be buffered: opens the implied <tt>html</tt>
+         * and <tt>body</tt> elements if they are not open and drops the
+         * pending space after a tag which breaks the flow of text.
+         *
+         * @return <tt>true</tt> if text may be buffered; <tt>false</tt> if it
+         * appears after the <tt>body</tt> element
+         */
+        private boolean startText()
+        {
+            if (text.length() == textStart)
+            {
+                if (!openBody())
+                    return false;
+                if (lastBreaksFlow)
+                    space = false;
+            }
+            return true;
+        }
+
+        /**
+         * Opens the implied <tt>html</tt> and <tt>body</tt> elements if they
+         * are not open.
+         *
+         * @return <tt>true</tt> if the <tt>body</tt> element is open;
+         * <tt>false</tt> if it has been closed
+         */
+        private boolean openBody()
+        {
+            if (depth == 0)
+            {
+                if (seenHtml)
+                    return false;
+                startTag(0);
+            }
+            if (ELEMENT_KINDS[stack[depth - 1]] == HTML)
+            {
+                if (seenBody)
+                    return false;
+                startTag(1);
+            }
+            return true;
+        }
+
+        /**
+         * Appends a character to the buffered text, preceded by the pending
+         * space.
+         *
+         * @param c the character to append
+         */
+        private void append(char c)
+        {
+            if (space)
+            {
+                text.append(' ');
+                space = false;
+            }
+            text.append(c);
+            ignoreSpace = false;
+        }
+
+        /**
+         * Parses a tag.
+         *
+         * @param html the HTML being parsed
+         * @param i the index in <tt>html</tt> following the <tt>&lt;</tt>
+         * starting the tag
+         * @param length the length of <tt>html</tt>
+         * @return the index in <tt>html</tt> following the tag or <tt>-1</tt>
+         * if the tag is not supported
+         */
+        private int parseTag(CharSequence html, int i, int length)
+        {
+            boolean end = (i < length) && (html.charAt(i) == '/');
+
+            if (end)
+                i++;
+
+            int nameEnd = skipIdentifier(html, i, length);
+
+            if (nameEnd == i)
+                return -1;
+
+            int element = getElement(html, i, nameEnd);
+
+            if (element < 0)
+                return -1;
+
+            int kind = ELEMENT_KINDS[element];
+            boolean empty = isEmpty(kind);
+
+            i = skipSpace(html, nameEnd, length);
+
+            if (end)
+            {
+                if ((i == length) || (html.charAt(i) != '>')
+                        || (depth == 0) || (stack[depth - 1] != element))
+                    return -1;
+
+                // ignore RE before end tag
+                int textLength = text.length();
+
+                if ((textLength > textStart)
+                        && (text.charAt(textLength - 1) == '\n'))
+                {
+                    if (preDepth == 0)
+                        text.setLength(textLength - 1);
+                    else if ((textLength - 1 > textStart)
+                            && (text.charAt(textLength - 2) != '\n'))
+                        text.setLength(textLength - 1);
+                }
+
+                endTag();
+                return i + 1;
+            }
+
+            i = skipAttributes(html, i, length);
+            if (i == length)
+                return -1;
+            if (html.charAt(i) == '/')
+            {
+                // only empty elements may end with "/>"
+                if (!empty || (i + 1 == length) || (html.charAt(i + 1) != '>'))
+                    return -1;
+                i++;
+            }
+            else if (html.charAt(i) != '>')
+                return -1;
+            i++;
+
+            // ignore RE after start tag
+            if (!empty && (i < length))
+            {
+                char c = html.charAt(i);
+
+                if (c == '\n')
+                    i++;
+                else if (c == '\r')
+                {
+                    i++;
+                    if ((i < length) && (html.charAt(i) == '\n'))
+                        i++;
+                }
+            }
+
+            switch (kind)
+            {
+            case HTML:
+                if (seenHtml)
+                    return -1;
+                break;
+
+            case BODY:
+                if (depth == 0)
+                {
+                    if (seenHtml)
+                        return -1;
+                    startTag(0);
+                }
+                if ((ELEMENT_KINDS[stack[depth - 1]] != HTML) || seenBody)
+                    return -1;
+                break;
+
+            default:
+                if (!openBody() || !canContain(stack[depth - 1], kind))
+                    return -1;
+                break;
+            }
+
+            startTag(element);
+            return i;
+        }
+
+        /**
+         * Determines whether an element may contain elements of a specific
+         * kind.
+         *
+         * @param parent the index in {@link #ELEMENT_NAMES} of the element
+         * @param kind the kind of the elements
+         * @return <tt>true</tt> if <tt>parent</tt> may contain elements of the
+         * specified <tt>kind</tt>; otherwise, <tt>false</tt>
+         */
+        private boolean canContain(int parent, int kind)
+        {
+            switch (ELEMENT_KINDS[parent])
+            {
+            case BODY:
+            case FLOW:
+                return true;
+            case TEXT_BLOCK:
+            case PRE:
+            case INLINE:
+            case ANCHOR:
+                return (kind == INLINE)
+                    || ((kind == ANCHOR) && !inAnchor)
+                    || (kind == IMG)
+                    || (kind == BREAK);
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * Handles the start of an element.
+         *
+         * @param element the index in {@link #ELEMENT_NAMES} of the element
+         */
+        private void startTag(int element)
+        {
+            int kind = ELEMENT_KINDS[element];
+            boolean empty = isEmpty(kind);
+            boolean breaksFlow = breaksFlow(kind);
+
+            if (!empty || !lastBreaksFlow || (text.length() != textStart))
+                handleText(breaksFlow, empty);
+            else
+            {
+                lastBreaksFlow = breaksFlow;
+                space = false;
+            }
+
+            if (!empty)
+            {
+                if (depth == stack.length)
+                {
+                    int[] newStack = new int[2 * depth];
+
+                    System.arraycopy(stack, 0, newStack, 0, depth);
+                    stack = newStack;
+                }
+                stack[depth++] = element;
+
+                switch (kind)
+                {
+                case HTML:
+                    seenHtml = true;
+                    break;
+                case BODY:
+                    seenBody = true;
+                    break;
+                case PRE:
+                    preDepth++;
+                    break;
+                case ANCHOR:
+                    inAnchor = true;
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Handles the end of the innermost open element.
+         */
+        private void endTag()
+        {
+            int kind = ELEMENT_KINDS[stack[depth - 1]];
+
+            handleText(breaksFlow(kind), false);
+            depth--;
+
+            if (kind == PRE)
+                preDepth--;
+            else if (kind == ANCHOR)
+                inAnchor = false;
+        }
+
+        /**
+         * Ends the buffered text before a tag.
+         *
+         * @param breaksFlow whether the tag breaks the flow of text
+         * @param empty whether the tag is the one of an empty element
+         */
+        private void handleText(boolean breaksFlow, boolean empty)
+        {
+            if (breaksFlow)
+            {
+                space = false;
+                ignoreSpace = true;
+            }
+            if (text.length() == textStart)
+            {
+                if (!space
+                        || (depth == 0)
+                        || lastBreaksFlow
+                        || (ELEMENT_KINDS[stack[depth - 1]] == HTML))
+                {
+                    lastBreaksFlow = breaksFlow;
+                    space = false;
+                    return;
+                }
+            }
+            if (space)
+            {
+                if (!ignoreSpace)
+                {
+                    text.append(' ');
+                    if (!empty)
+                        ignoreSpace = true;
+                }
+                space = false;
+            }
+            textStart = text.length();
+            lastBreaksFlow = breaksFlow;
+        }
+
+        /**
+         * Parses a character reference, appending the character it stands for
+         * to the buffered text.
+         *
+         * @param html the HTML being parsed
+         * @param i the index in <tt>html</tt> following the <tt>&amp;</tt>
+         * starting the reference
+         * @param length the length of <tt>html</tt>
+         * @return the index in <tt>html</tt> following the reference or
+         * <tt>-1</tt> if the reference is not supported
+         */
+        private int parseEntityReference(CharSequence html, int i, int length)
+        {
+            if (space)
+            {
+                text.append(' ');
+                space = false;
+            }
+
+            char c = (i < length) ? html.charAt(i) : 0;
+
+            if (c == '#')
+            {
+                i++;
+                c = (i < length) ? html.charAt(i) : 0;
+
+                int radix;
+
+                if ((c >= '0') && (c <= '9'))
+                    radix = 10;
+                else if ((c == 'x') || (c == 'X'))
+                {
+                    radix = 16;
+                    i++;
+                }
+                else if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')))
+                    return -1;
+                else
+                {
+                    text.append("&#");
+                    return i;
+                }
+
+                int value = 0;
+                int digitCount = 0;
+                int digit;
+
+                while ((i < length)
+                        && ((digit = Character.digit(html.charAt(i), radix))
+                                >= 0)
+                        && (html.charAt(i) < 0x80))
+                {
+                    // larger values wrap around in the parser
+                    if (++digitCount > 6)
+                        return -1;
+                    value = value * radix + digit;
+                    i++;
+                }
+                // the numbers Windows-1252 maps to other characters
+                if ((value >= 130) && (value <= 159))
+                    return -1;
+
+                i = skipReferenceEnd(html, i, length);
+                if (value < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+                    text.append((char) value);
+                else if (value <= Character.MAX_CODE_POINT)
+                    text.append(Character.toChars(value));
+                return i;
+            }
+
+            int nameEnd = skipIdentifier(html, i, length);
+
+            if (nameEnd == i)
+            {
+                text.append('&');
+                return i;
+            }
+
+            int value = Entities.HTML40.entityValue(html, i, nameEnd);
+
+            if (value == -1)
+            {
+                // the parser looks the name up in lower case then
+                return -1;
+            }
+
+            text.append((char) value);
+            return skipReferenceEnd(html, nameEnd, length);
+        }
+
+        /**
+         * Skips the <tt>;</tt> or the line break ending a character
+         * reference.
+         *
+         * @param html the HTML being parsed
+         * @param i the index in <tt>html</tt> following the name or the number
+         * of the reference
+         * @param length the length of <tt>html</tt>
+         * @return the index in <tt>html</tt> following the reference
+         */
+        private static int skipReferenceEnd(
+                CharSequence html,
+                int i,
+                int length)
+        {
+            if (i < length)
+            {
+                switch (html.charAt(i))
+                {
+                case ';':
+                case '\n':
+                    return i + 1;
+                case '\r':
+                    i++;
+                    if ((i < length) && (html.charAt(i) == '\n'))
+                        i++;
+                    return i;
+                }
+            }
+            return i;
+        }
+
+        /**
+         * Skips the attributes of a start tag.
+         *
+         * @param html the HTML being parsed
+         * @param i the index in <tt>html</tt> following the name of the
+         * element and the white space after it
+         * @param length the length of <tt>html</tt>
+         * @return the index in <tt>html</tt> of the character ending the
+         * attributes or <tt>length</tt> if they are not supported
+         */
+        private static int skipAttributes(
+                CharSequence html,
+                int i,
+                int length)
+        {
+            while (i < length)
+            {
+                char c = html.charAt(i);
+
+                if ((c == '>') || (c == '/'))
+                    return i;
+                if (!(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))))
+                    return length;
+
+                i = skipSpace(html, skipIdentifier(html, i, length), length);
+                if ((i < length) && (html.charAt(i) == '='))
+                {
+                    i = skipSpace(html, i + 1, length);
+                    if (i == length)
+                        return length;
+
+                    c = html.charAt(i);
+                    if ((c == '"') || (c == '\''))
+                    {
+                        int valueEnd = i + 1;
+
+                        while ((valueEnd < length)
+                                && (html.charAt(valueEnd) != c))
+                            valueEnd++;
+                        if (valueEnd == length)
+                            return length;
+                        i = valueEnd + 1;
+
+                        // a value followed by the next attribute right away
+                        if ((i < length) && !isSpace(html.charAt(i))
+                                && (html.charAt(i) != '>')
+                                && (html.charAt(i) != '/'))
+                            return length;
+                    }
+                    else
+                    {
+                        int valueStart = i;
+
+                        while (i < length)
+                        {
+                            c = html.charAt(i);
+                            if (isSpace(c) || (c == '>'))
+                                break;
+                            if ((c == '<') || (c == '"') || (c == '\'')
+                                    || (c == '=') || (c == '&'))
+                                return length;
+                            i++;
+                        }
+                        if (i == valueStart)
+                            return length;
+                    }
+                    i = skipSpace(html, i, length);
+                }
+            }
+            return length;
+        }
+
+        /**
+         * Skips the characters of an identifier, i.e. of the name of an
+         * element, of an attribute or of an entity.
+         *
+         * @param html the HTML being parsed
+         * @param i the index in <tt>html</tt> of the identifier
+         * @param length the length of <tt>html</tt>
+         * @return the index in <tt>html</tt> following the identifier or
+         * <tt>i</tt> if there is no identifier at <tt>i</tt>
+         */
+        private static int skipIdentifier(
+                CharSequence html,
+                int i,
+                int length)
+        {
+            if (i == length)
+                return i;
+
+            char c = html.charAt(i);
+
+            if (!(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))))
+                return i;
+
+            for (i++; i < length; i++)
+            {
+                c = html.charAt(i);
+                if (!(((c >= 'a') && (c <= 'z'))
+                        || ((c >= 'A') && (c <= 'Z'))
+                        || ((c >= '0') && (c <= '9'))
+                        || (c == '.') || (c == '-') || (c == '_')))
+                    break;
+            }
+            return i;
+        }
+
+        /**
+         * Skips white space.
+         *
+         * @param html the HTML being parsed
+         * @param i the index in <tt>html</tt> to start skipping at
+         * @param length the length of <tt>html</tt>
+         * @return the index in <tt>html</tt> of the first character which is
+         * not white space
+         */
+        private static int skipSpace(CharSequence html, int i, int length)
+        {
+            while ((i < length) && isSpace(html.charAt(i)))
+                i++;
+            return i;
+        }
+
+        /**
+         * Determines whether a character is white space for the parser.
+         *
+         * @param c the character
+         * @return <tt>true</tt> if <tt>c</tt> is white space; otherwise,
+         * <tt>false</tt>
+         */
+        private static boolean isSpace(char c)
+        {
+            return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\r');
+        }
+
+        /**
+         * Determines whether the elements of a kind have no content and no end
+         * tag.
+         *
+         * @param kind the kind of the elements
+         * @return <tt>true</tt> if the elements of the specified <tt>kind</tt>
+         * are empty; otherwise, <tt>false</tt>
+         */
+        private static boolean isEmpty(int kind)
+        {
+            return (kind == IMG) || (kind == BREAK) || (kind == RULE);
+        }
+
+        /**
+         * Determines whether the tags of a kind of elements break the flow of
+         * text.
+         *
+         * @param kind the kind of the elements
+         * @return <tt>true</tt> if the tags of elements of the specified
+         * <tt>kind</tt> break the flow of text; otherwise, <tt>false</tt>
+         */
+        private static boolean breaksFlow(int kind)
+        {
+            return (kind != INLINE) && (kind != ANCHOR) && (kind != IMG);
+        }
+
+        /**
+         * Returns the index in {@link #ELEMENT_NAMES} of the element with a
+         * specific name, ignoring case.
+         *
+         * @param html the HTML being parsed
+         * @param start the index in <tt>html</tt> of the name
+         * @param end the index in <tt>html</tt> following the name
+         * @return the index in {@link #ELEMENT_NAMES} of the element or
+         * <tt>-1</tt> if the <tt>TextExtractor</tt> does not know of it
+         */
+        private static int getElement(CharSequence html, int start, int end)
+        {
+            int length = end - start;
+
+            for (int element = 0; element < ELEMENT_NAMES.length; element++)
+            {
+                String name = ELEMENT_NAMES[element];
+
+                if (name.length() == length)
+                {
+                    int i = 0;
+
+                    while ((i < length)
+                            && (Character.toLowerCase(html.charAt(start + i))
+                                    == name.charAt(i)))
+                        i++;
+                    if (i == length)
+                        return element;
+                }
+            }
+            return -1;
+        }
+    }
 }
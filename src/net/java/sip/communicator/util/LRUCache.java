@@ -0,0 +1,408 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+
+/**
+ * A thread-safe cache which forgets the least recently used values once the
+ * total weight of the values it keeps exceeds a maximum.
+ * <p>
+ * Each value weighs 1 unless a {@link Weigher} is specified, in which case
+ * the maximum weight may stand for a number of bytes, of pixels, etc. Values
+ * may also be kept for a limited time only. Looking a value up, adding and
+ * forgetting one take constant time, the values being kept in the order they
+ * have been used in. The cache counts the lookups which found a value, the
+ * ones which did not and the values forgotten to stay within the maximum
+ * weight.
+ *
+ * @param <K> the type of the keys of the values
+ * @param <V> the type of the values
+ */
+public class LRUCache<K, V>
+{
+    /**
+     * Computes the weight of the values kept by an <tt>LRUCache</tt>.
+     *
+     * @param <K> the type of the keys of the values
+     * @param <V> the type of the values
+     */
+    public interface Weigher<K, V>
+    {
+        /**
+         * Returns the weight of a value.
+         *
+         * @param key the key of the value
+         * @param value the value
+         * @return the weight of <tt>value</tt>, not negative
+         */
+        public int weigh(K key, V value);
+    }
+
+    /**
+     * The values, the least recently used first.
+     */
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * The maximum total weight of the values.
+     */
+    private final long maxWeight;
+
+    /**
+     * The time in milliseconds a value is kept or <tt>0</tt> to keep values
+     * until they are forgotten to stay within the maximum weight.
+     */
+    private final long timeToLive;
+
+    /**
+     * The <tt>Weigher</tt> computing the weight of the values or
+     * <tt>null</tt> if each value weighs 1.
+     */
+    private final Weigher<? super K, ? super V> weigher;
+
+    /**
+     * The total weight of the values.
+     */
+    private long weight = 0;
+
+    /**
+     * The time in milliseconds before which no value expires, i.e. the time
+     * the values kept expire at, or earlier. The expired values are looked
+     * for only from then on.
+     */
+    private long nextExpirationTime = Long.MAX_VALUE;
+
+    /**
+     * The number of lookups which found a value.
+     */
+    private long hitCount = 0;
+
+    /**
+     * The number of lookups which did not find a value.
+     */
+    private long missCount = 0;
+
+    /**
+     * The number of values forgotten to stay within the maximum weight.
+     */
+    private long evictionCount = 0;
+
+    /**
+     * Initializes a new <tt>LRUCache</tt> which keeps at most a specific
+     * number of values for an unlimited time.
+     *
+     * @param maxSize the maximum number of values to keep
+     */
+    public LRUCache(int maxSize)
+    {
+        this(maxSize, 0, null);
+    }
+
+    /**
+     * Initializes a new <tt>LRUCache</tt>.
+     *
+     * @param maxWeight the maximum total weight of the values to keep
+     * @param timeToLive the time in milliseconds a value is kept or <tt>0</tt>
+     * to keep values until they are forgotten to stay within
+     * <tt>maxWeight</tt>
+     * @param weigher the <tt>Weigher</tt> computing the weight of the values
+     * or <tt>null</tt> if each value weighs 1
+     */
+    public LRUCache(
+            long maxWeight,
+            long timeToLive,
+            Weigher<? super K, ? super V> weigher)
+    {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("maxWeight");
+        if (timeToLive < 0)
+            throw new IllegalArgumentException("timeToLive");
+
+        this.maxWeight = maxWeight;
+        this.timeToLive = timeToLive;
+        this.weigher = weigher;
+
+        int initialCapacity
+            = (weigher == null) ? (int) Math.min(maxWeight, 16) : 16;
+
+        entries = new LinkedHashMap<K, Entry<V>>(initialCapacity, 0.75f, true);
+    }
+
+    /**
+     * Returns the value associated with a key and marks it as the most
+     * recently used one.
+     *
+     * @param key the key of the value
+     * @return the value associated with <tt>key</tt> or <tt>null</tt> if
+     * there is none or it has expired
+     */
+    public synchronized V get(K key)
+    {
+        Entry<V> entry = entries.get(key);
+
+        if ((entry != null) && isExpired(entry))
+        {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null)
+        {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Associates a value with a key, replacing the value associated with it
+     * if any, and forgets the least recently used values if the maximum
+     * weight is exceeded.
+     *
+     * @param key the key of the value
+     * @param value the value, not <tt>null</tt>
+     * @return the value previously associated with <tt>key</tt> or
+     * <tt>null</tt> if there was none
+     * @throws IllegalArgumentException if the <tt>Weigher</tt> of this cache
+     * returns a negative weight for <tt>value</tt>
+     */
+    public synchronized V put(K key, V value)
+    {
+        if (value == null)
+            throw new NullPointerException("value");
+
+        int valueWeight = (weigher == null) ? 1 : weigher.weigh(key, value);
+
+        if (valueWeight < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Negative weight " + valueWeight + " for key " + key);
+        }
+
+        Entry<V> entry
+            = new Entry<V>(
+                    value,
+                    valueWeight,
+                    (timeToLive == 0)
+                        ? 0
+                        : (System.currentTimeMillis() + timeToLive));
+        Entry<V> old = entries.put(key, entry);
+
+        if ((entry.expirationTime != 0)
+                && (entry.expirationTime < nextExpirationTime))
+            nextExpirationTime = entry.expirationTime;
+
+        if (old != null)
+            weight -= old.weight;
+        weight += entry.weight;
+        evict();
+
+        return ((old == null) || isExpired(old)) ? null : old.value;
+    }
+
+    /**
+     * Associates a value with a key unless a value which has not expired is
+     * associated with it already.
+     *
+     * @param key the key of the value
+     * @param value the value, not <tt>null</tt>
+     * @return the value associated with <tt>key</tt> already or <tt>null</tt>
+     * if <tt>value</tt> has been associated with it
+     */
+    public synchronized V putIfAbsent(K key, V value)
+    {
+        Entry<V> entry = entries.get(key);
+
+        if ((entry != null) && !isExpired(entry))
+            return entry.value;
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Forgets the value associated with a key.
+     *
+     * @param key the key of the value
+     * @return the value associated with <tt>key</tt> or <tt>null</tt> if
+     * there was none or it had expired
+     */
+    public synchronized V remove(K key)
+    {
+        Entry<V> entry = entries.remove(key);
+
+        if (entry == null)
+            return null;
+        weight -= entry.weight;
+        return isExpired(entry) ? null : entry.value;
+    }
+
+    /**
+     * Forgets all the values.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        weight = 0;
+        nextExpirationTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of values kept, including the ones which have
+     * expired but have not been forgotten yet.
+     *
+     * @return the number of values kept
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the values kept.
+     *
+     * @return the total weight of the values kept
+     */
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * Returns the number of lookups which found a value.
+     *
+     * @return the number of lookups which found a value
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups which did not find a value.
+     *
+     * @return the number of lookups which did not find a value
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of values forgotten to stay within the maximum
+     * weight.
+     *
+     * @return the number of values forgotten to stay within the maximum
+     * weight
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Forgets the values which have expired and then, if the maximum weight is
+     * still exceeded, the least recently used values until it is no longer
+     * exceeded, except the most recently used one i.e. the one just added.
+     * Only the latter count as evictions.
+     */
+    private void evict()
+    {
+        if (weight <= maxWeight)
+            return;
+
+        long now = System.currentTimeMillis();
+
+        if (now >= nextExpirationTime)
+            purge(now);
+
+        Iterator<Map.Entry<K, Entry<V>>> iter = entries.entrySet().iterator();
+
+        while ((weight > maxWeight) && (entries.size() > 1))
+        {
+            Map.Entry<K, Entry<V>> eldest = iter.next();
+
+            iter.remove();
+            weight -= eldest.getValue().weight;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Forgets the values which have expired and determines the time the next
+     * of the values kept expires at. The values are in the order they have
+     * been used in rather than in the one they expire in so all of them are
+     * looked at, which happens at most once for each time a value expires.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void purge(long now)
+    {
+        Iterator<Entry<V>> iter = entries.values().iterator();
+
+        nextExpirationTime = Long.MAX_VALUE;
+        while (iter.hasNext())
+        {
+            Entry<V> entry = iter.next();
+
+            if (entry.expirationTime == 0)
+                continue;
+            if (now >= entry.expirationTime)
+            {
+                iter.remove();
+                weight -= entry.weight;
+            }
+            else if (entry.expirationTime < nextExpirationTime)
+                nextExpirationTime = entry.expirationTime;
+        }
+    }
+
+    /**
+     * Determines whether a value has expired.
+     *
+     * @param entry the value
+     * @return <tt>true</tt> if <tt>entry</tt> has expired; otherwise,
+     * <tt>false</tt>
+     */
+    private boolean isExpired(Entry<V> entry)
+    {
+        return (entry.expirationTime != 0)
+            && (System.currentTimeMillis() >= entry.expirationTime);
+    }
+
+    /**
+     * A value kept by an <tt>LRUCache</tt> along with its weight and the time
+     * it expires at.
+     *
+     * @param <V> the type of the value
+     */
+    private static class Entry<V>
+    {
+        /**
+         * The value.
+         */
+        final V value;
+
+        /**
+         * The weight of the value.
+         */
+        final int weight;
+
+        /**
+         * The time in milliseconds the value expires at or <tt>0</tt> if it
+         * does not expire.
+         */
+        final long expirationTime;
+
+        Entry(V value, int weight, long expirationTime)
+        {
+            this.value = value;
+            this.weight = weight;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
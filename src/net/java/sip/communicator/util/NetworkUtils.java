@@ -154,6 +154,11 @@ public class NetworkUtils
      */
     private static final NetworkListener netListener = new NetworkListener();
 
+    /**
+     * The results of the DNS queries, shared by all the lookups.
+     */
+    private static final DnsCache dnsCache = new DnsCache();
+
     /**
      * Determines whether the address is the result of windows auto configuration.
      * (i.e. One that is in the 169.254.0.0 network)
@@ -600,8 +605,7 @@ public class NetworkUtils
         Record[] records = null;
         try
         {
-            Lookup lookup = createLookup(domain, Type.SRV);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.SRV);
         }
         catch (TextParseException tpe)
         {
@@ -724,8 +728,7 @@ public class NetworkUtils
         Record[] records = null;
         try
         {
-            Lookup lookup = createLookup(domain, Type.NAPTR);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.NAPTR);
         }
         catch (TextParseException tpe)
         {
@@ -903,21 +906,17 @@ public class NetworkUtils
 
         for(int i = 0; i < 2; i++)
         {
-            Lookup lookup;
+            Record[] records = null;
             try
             {
-                lookup = createLookup(domain, v6lookup ? Type.AAAA : Type.A);
+                records
+                    = dnsCache.lookup(domain, v6lookup ? Type.AAAA : Type.A);
             }
             catch (TextParseException tpe)
             {
                 logger.error("Failed to parse domain <" + domain + ">", tpe);
                 throw new ParseException(tpe.getMessage(), 0);
             }
-            Record[] records = null;
-            try
-            {
-                records = lookup.run();
-            }
             catch(DnssecRuntimeException e)
             {
                 throw new DnssecException(e);
@@ -992,8 +991,7 @@ public class NetworkUtils
             //for starters we'd like to make sure that it works well enough
             //with SRV and NAPTR queries. We may then also adopt it for As
             //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.A);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.A);
         }
         catch (TextParseException tpe)
         {
@@ -1066,8 +1064,7 @@ public class NetworkUtils
             //for starters we'd like to make sure that it works well enough
             //with SRV and NAPTR queries. We may then also adopt it for As
             //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.AAAA);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.AAAA);
         }
         catch (TextParseException tpe)
         {
@@ -1222,7 +1219,7 @@ public class NetworkUtils
      *
      * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
      */
-    private static Lookup createLookup(String domain, int type)
+    static Lookup createLookup(String domain, int type)
         throws TextParseException
     {
         // listens for network changes up/down so we can reset
@@ -1234,6 +1231,8 @@ public class NetworkUtils
                     + netListener.hashCode());
             UtilActivator.getNetworkAddressManagerService()
                 .addNetworkConfigurationChangeListener(netListener);
+            UtilActivator.getConfigurationService()
+                .addPropertyChangeListener(dnsCache);
         }
 
         // make domain name absolute if requested
@@ -1359,7 +1358,8 @@ public class NetworkUtils
 
     /**
      * Listens when network is going from down to up and
-     * resets dns configuration.
+     * resets dns configuration. Forgets the results of the DNS queries on any
+     * other change.
      */
     private static class NetworkListener
         implements NetworkConfigurationChangeListener
@@ -1372,12 +1372,19 @@ public class NetworkUtils
          */
         public void configurationChanged(ChangeEvent event)
         {
-            if((event.getType() == ChangeEvent.IFACE_UP
+            if(event.isInitial())
+                return;
+
+            if(event.getType() == ChangeEvent.IFACE_UP
                 || event.getType() == ChangeEvent.DNS_CHANGE)
-                && !event.isInitial())
             {
                 reloadDnsResolverConfig();
             }
+            else
+            {
+                // the same names may resolve differently on another network
+                dnsCache.clear();
+            }
         }
     }
 
@@ -1433,6 +1440,9 @@ public class NetworkUtils
             }
         }
 
+        // forget what was resolved with the previous configuration
+        dnsCache.clear();
+
         if(logger.isTraceEnabled())
         {
             StringBuilder sb = new StringBuilder();
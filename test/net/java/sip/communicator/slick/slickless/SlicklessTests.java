@@ -34,6 +34,14 @@ public class SlicklessTests
     private static final String TEST_LIST_PROPERTY_NAME =
         "net.java.sip.communicator.slick.runner.SLICKLESS_TEST_LIST";
 
+    /**
+     * The package of the tests which use the implementation classes of
+     * bundles directly. These are not exported so such tests only run
+     * outside felix.
+     */
+    private static final String IMPL_TESTS_PACKAGE =
+        "net.java.sip.communicator.slick.slickless.impl.";
+
     /**
      * Start the Configuration Sevice Implementation Compatibility Kit.
      *
@@ -104,6 +112,14 @@ public class SlicklessTests
             String testName = ids[i];
             if (testName != null && testName.trim().length() > 0)
             {
+                if ((bc != null) && testName.startsWith(IMPL_TESTS_PACKAGE))
+                {
+                    // run-simple-tests, part of the test target, runs it
+                    if (logger.isDebugEnabled())
+                        logger.debug("test " + testName
+                                + " skipped - it runs outside felix");
+                    continue;
+                }
                 try
                 {
                     Class<?> testClass = Class.forName(testName);
@@ -0,0 +1,186 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.contactlist;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.contactlist.*;
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Measures the time looking meta contacts and groups up in a contact list of
+ * 10000 meta contacts takes with the index of the list, compared to the walk
+ * of the whole list the lookups did before. It is not part of the tests and
+ * is run on its own with the test classes and the libraries on the class
+ * path.
+ */
+public class MetaContactListIndexBenchmark
+{
+    /**
+     * The number of groups of the list.
+     */
+    private static final int GROUP_COUNT = 100;
+
+    /**
+     * The number of meta contacts of every group.
+     */
+    private static final int CONTACTS_PER_GROUP = 100;
+
+    /**
+     * The number of lookups in a measurement.
+     */
+    private static final int LOOKUPS = 2000;
+
+    /**
+     * The number of measurements, the first ones of which warm the JIT up.
+     */
+    private static final int MEASUREMENTS = 6;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        MetaContactListServiceImpl mcl = new MetaContactListServiceImpl();
+        MockProvider provider = new MockProvider("benchmark");
+        List<MetaContact> metaContacts = new ArrayList<MetaContact>();
+        List<MetaContactGroup> groups = new ArrayList<MetaContactGroup>();
+
+        for (int g = 0; g < GROUP_COUNT; g++)
+        {
+            MetaContactGroup group
+                = mcl.createMetaContactGroup(mcl.getRoot(), "group" + g);
+
+            groups.add(group);
+            for (int i = 0; i < CONTACTS_PER_GROUP; i++)
+            {
+                metaContacts.add(
+                        mcl.createMetaContact(
+                                provider, group, "contact" + g + "x" + i));
+            }
+        }
+
+        MetaContactGroupImpl root = (MetaContactGroupImpl) mcl.getRoot();
+        String accountID = provider.getAccountID().getAccountUniqueID();
+        Random random = new Random(20130611L);
+        MetaContact[] lookedUp = new MetaContact[LOOKUPS];
+        MetaContactGroup[] groupsLookedUp = new MetaContactGroup[LOOKUPS];
+
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            lookedUp[i] = metaContacts.get(random.nextInt(metaContacts.size()));
+            groupsLookedUp[i] = groups.get(random.nextInt(groups.size()));
+        }
+
+        long[] best = new long[8];
+        int misses = 0;
+
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int m = 0; m < MEASUREMENTS; m++)
+        {
+            long[] times = new long[best.length + 1];
+
+            times[0] = System.nanoTime();
+            for (MetaContact metaContact : lookedUp)
+            {
+                if (mcl.findMetaContactByMetaUID(metaContact.getMetaUID())
+                        != metaContact)
+                    misses++;
+            }
+            times[1] = System.nanoTime();
+            for (MetaContact metaContact : lookedUp)
+            {
+                if (root.findMetaContactByMetaUID(metaContact.getMetaUID())
+                        != metaContact)
+                    misses++;
+            }
+            times[2] = System.nanoTime();
+            for (MetaContact metaContact : lookedUp)
+            {
+                Contact contact = metaContact.getDefaultContact();
+
+                if (mcl.findMetaContactByContact(contact) != metaContact)
+                    misses++;
+            }
+            times[3] = System.nanoTime();
+            for (MetaContact metaContact : lookedUp)
+            {
+                Contact contact = metaContact.getDefaultContact();
+
+                if (root.findMetaContactByContact(contact) != metaContact)
+                    misses++;
+            }
+            times[4] = System.nanoTime();
+            for (MetaContact metaContact : lookedUp)
+            {
+                String address = metaContact.getDefaultContact().getAddress();
+
+                if (mcl.findMetaContactByContact(address, accountID)
+                        != metaContact)
+                    misses++;
+            }
+            times[5] = System.nanoTime();
+            for (MetaContact metaContact : lookedUp)
+            {
+                String address = metaContact.getDefaultContact().getAddress();
+
+                if (root.findMetaContactByContact(address, accountID)
+                        != metaContact)
+                    misses++;
+            }
+            times[6] = System.nanoTime();
+            for (MetaContactGroup group : groupsLookedUp)
+            {
+                if (mcl.findMetaContactGroupByMetaUID(group.getMetaUID())
+                        != group)
+                    misses++;
+            }
+            times[7] = System.nanoTime();
+            for (MetaContactGroup group : groupsLookedUp)
+            {
+                if (root.findMetaContactGroupByMetaUID(group.getMetaUID())
+                        != group)
+                    misses++;
+            }
+            times[8] = System.nanoTime();
+
+            for (int i = 0; i < best.length; i++)
+                best[i] = Math.min(best[i], times[i + 1] - times[i]);
+        }
+
+        System.out.println(
+                metaContacts.size() + " meta contacts in " + groups.size()
+                    + " groups, " + misses + " wrong answers");
+        print("findMetaContactByMetaUID", best[0], best[1]);
+        print("findMetaContactByContact(Contact)", best[2], best[3]);
+        print("findMetaContactByContact(String, String)", best[4], best[5]);
+        print("findMetaContactGroupByMetaUID", best[6], best[7]);
+    }
+
+    /**
+     * Prints the time a lookup takes with the index and with the walk.
+     *
+     * @param name the name of the lookup
+     * @param indexTime the best time of {@link #LOOKUPS} lookups with the
+     * index in nanoseconds
+     * @param walkTime the best time of {@link #LOOKUPS} lookups with the walk
+     * in nanoseconds
+     */
+    private static void print(String name, long indexTime, long walkTime)
+    {
+        System.out.println(
+                name + ": index "
+                    + String.format("%.2f", indexTime / (LOOKUPS * 1000.0))
+                    + " us, walk "
+                    + String.format("%.2f", walkTime / (LOOKUPS * 1000.0))
+                    + " us");
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.parsers.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.contactlist.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+
+/**
+ * Tests that replaying the journal of the changes made to a contact list over
+ * the contact list file gives the contact list the changes were made to.
+ * The changes are made to a live document, journaled and replayed over a
+ * copy of the document as it was in the file.
+ */
+public class TestMclStorageJournal
+    extends TestCase
+{
+    private static final String MC = "meta-contact";
+
+    private static final String GROUP = "group";
+
+    /**
+     * A contact list with a root group holding a meta contact and two
+     * subgroups.
+     */
+    private static final String CONTACT_LIST
+        = "<sip-communicator>\n"
+            + "  <group name=\"RootMetaContactGroup\" uid=\"root\">\n"
+            + "    <proto-groups/>\n"
+            + "    <subgroups>\n"
+            + "      " + group("g1", "Work", "acc1",
+                    metaContact("mc1", "Alice", "alice@example.com", "acc1")
+                    + metaContact("mc2", "Bob", "bob@example.com", "acc1"))
+            + "\n      " + group("g2", "Family", "acc1",
+                    metaContact("mc3", "Carol", "carol@example.com", "acc1"))
+            + "\n    </subgroups>\n"
+            + "    <child-contacts>\n"
+            + "      " + metaContact("mc0", "Dave", "dave@example.com", "acc2")
+            + "\n    </child-contacts>\n"
+            + "  </group>\n"
+            + "</sip-communicator>\n";
+
+    private DocumentBuilder builder;
+
+    private File journalFile;
+
+    private MclStorageJournal journal;
+
+    /**
+     * The document the changes are made to.
+     */
+    private MclStorageDocument live;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        journalFile = File.createTempFile("contactlist", ".journal");
+        journal = new MclStorageJournal(journalFile);
+        live = new MclStorageDocument(parse(CONTACT_LIST));
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        journal.close();
+        journalFile.delete();
+    }
+
+    private static String metaContact(String uid, String displayName,
+                                      String address, String accountID)
+    {
+        return "<meta-contact uid=\"" + uid + "\">"
+            + "<display-name>" + displayName + "</display-name>"
+            + "<contact address=\"" + address + "\" account-id=\""
+            + accountID + "\"><persistent-data/></contact>"
+            + "</meta-contact>";
+    }
+
+    private static String group(String uid, String name, String accountID,
+                                String metaContacts)
+    {
+        return "<group name=\"" + name + "\" uid=\"" + uid + "\">"
+            + "<proto-groups><proto-group uid=\"" + name + "\" account-id=\""
+            + accountID + "\"/></proto-groups>"
+            + "<subgroups/>"
+            + "<child-contacts>" + metaContacts + "</child-contacts>"
+            + "</group>";
+    }
+
+    private Document parse(String xml)
+        throws Exception
+    {
+        return builder.parse(new InputSource(new StringReader(xml)));
+    }
+
+    private Element parseElement(Document document, String xml)
+        throws Exception
+    {
+        return
+            (Element) document.importNode(
+                    parse(xml).getDocumentElement(), true);
+    }
+
+    /**
+     * Returns the container of the subgroups or child meta contacts of a
+     * group of the live document.
+     *
+     * @param groupUID the UID of the group
+     * @param containerName the name of the container
+     * @return the container
+     */
+    private Element liveContainer(String groupUID, String containerName)
+    {
+        NodeList children
+            = live.findNode(GROUP, groupUID).getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++)
+        {
+            if (containerName.equals(children.item(i).getNodeName()))
+                return (Element) children.item(i);
+        }
+        throw new AssertionFailedError("No " + containerName);
+    }
+
+    /**
+     * Journals the current state of nodes of the live document.
+     *
+     * @param nodes the names and UIDs of the nodes, in pairs
+     * @throws IOException if the journal cannot be written
+     */
+    private void journal(String... nodes)
+        throws IOException
+    {
+        List<MclStorageJournal.Entry> entries
+            = new ArrayList<MclStorageJournal.Entry>();
+
+        for (int i = 0; i < nodes.length; i += 2)
+            entries.add(live.createJournalEntry(nodes[i], nodes[i + 1]));
+        journal.append(entries);
+    }
+
+    /**
+     * Replays the journal over a document.
+     *
+     * @param xml the document
+     * @return the document the journal has been replayed over
+     * @throws Exception if the document cannot be parsed
+     */
+    private MclStorageDocument replay(String xml)
+        throws Exception
+    {
+        MclStorageDocument copy = new MclStorageDocument(parse(xml));
+
+        copy.replay(builder, journal.read());
+        return copy;
+    }
+
+    /**
+     * Serializes a node with the attributes of its elements sorted and
+     * without the whitespace between them, which the journal does not keep.
+     *
+     * @param node the node
+     * @return the canonical form of <tt>node</tt>
+     */
+    private static String canonical(Node node)
+    {
+        StringBuilder s = new StringBuilder();
+
+        canonical(node, s);
+        return s.toString();
+    }
+
+    private static void canonical(Node node, StringBuilder s)
+    {
+        if (node instanceof Document)
+        {
+            canonical(((Document) node).getDocumentElement(), s);
+            return;
+        }
+        if (node.getNodeType() == Node.TEXT_NODE)
+        {
+            String text = node.getNodeValue().trim();
+
+            if (text.length() > 0)
+                s.append(text);
+            return;
+        }
+        if (node.getNodeType() != Node.ELEMENT_NODE)
+            return;
+
+        NamedNodeMap attributes = node.getAttributes();
+        SortedMap<String, String> sorted = new TreeMap<String, String>();
+
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            sorted.put(attributes.item(i).getNodeName(),
+                    attributes.item(i).getNodeValue());
+        }
+        s.append('<').append(node.getNodeName());
+        for (Map.Entry<String, String> e : sorted.entrySet())
+            s.append(' ').append(e.getKey()).append("=\"")
+                .append(e.getValue()).append('"');
+        s.append('>');
+        for (Node child = node.getFirstChild();
+                child != null;
+                child = child.getNextSibling())
+            canonical(child, s);
+        s.append("</").append(node.getNodeName()).append('>');
+    }
+
+    private void assertSameDocument(MclStorageDocument expected,
+                                    MclStorageDocument actual)
+    {
+        assertEquals(canonical(expected.getDocument()),
+                canonical(actual.getDocument()));
+    }
+
+    /**
+     * Changes made to the live document: a meta contact renamed, one moved to
+     * another group, one removed and a group added with a meta contact.
+     *
+     * @throws Exception if the document cannot be changed
+     */
+    private void makeChanges()
+        throws Exception
+    {
+        Document document = live.getDocument();
+        Element alice = live.findNode(MC, "mc1");
+
+        alice.getElementsByTagName("display-name").item(0).setTextContent(
+                "Alice Smith");
+
+        Element bob = live.findNode(MC, "mc2");
+
+        bob.getParentNode().removeChild(bob);
+        liveContainer("g2", "child-contacts").appendChild(bob);
+
+        Element carol = live.findNode(MC, "mc3");
+
+        carol.getParentNode().removeChild(carol);
+
+        Element friends
+            = parseElement(document,
+                    group("g3", "Friends", "acc2",
+                        metaContact("mc4", "Eve", "eve@example.com", "acc2")));
+
+        liveContainer("root", "subgroups").appendChild(friends);
+        live.indexNodes(friends);
+
+        journal(MC, "mc1", MC, "mc2", MC, "mc3", GROUP, "g3", MC, "mc4");
+    }
+
+    /**
+     * Replaying the journal over the file gives the live contact list.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testReplay()
+        throws Exception
+    {
+        makeChanges();
+
+        MclStorageDocument copy = replay(CONTACT_LIST);
+
+        assertSameDocument(live, copy);
+        assertNull(copy.findNode(MC, "mc3"));
+        assertEquals("g2",
+                ((Element) copy.findNode(MC, "mc2").getParentNode()
+                    .getParentNode()).getAttribute("uid"));
+    }
+
+    /**
+     * Replaying the journal again, or over a file which already has the
+     * changes, gives the same contact list.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testIdempotentReplay()
+        throws Exception
+    {
+        makeChanges();
+
+        MclStorageDocument copy = replay(CONTACT_LIST);
+
+        copy.replay(builder, journal.read());
+        assertSameDocument(live, copy);
+
+        // the file has been written but the journal not reset
+        assertSameDocument(live, replay(canonical(live.getDocument())));
+    }
+
+    /**
+     * The entry of a group which changed does not contain its members, which
+     * it keeps when it is replayed.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testGroupEntryKeepsItsMembers()
+        throws Exception
+    {
+        live.findNode(GROUP, "g1").setAttribute("name", "Office");
+        journal(GROUP, "g1");
+
+        assertTrue(journal.read().size() == 1);
+
+        MclStorageDocument copy = replay(CONTACT_LIST);
+
+        assertSameDocument(live, copy);
+        assertEquals("Office",
+                copy.findNode(GROUP, "g1").getAttribute("name"));
+        assertNotNull(copy.findNode(MC, "mc1"));
+        assertNotNull(copy.findNode(MC, "mc2"));
+    }
+
+    /**
+     * A meta contact whose group is missing from the file is restored into
+     * the root group rather than lost.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testMissingParentRestoredIntoRootGroup()
+        throws Exception
+    {
+        Element frank
+            = parseElement(live.getDocument(),
+                    metaContact("mc5", "Frank", "frank@example.com", "acc1"));
+
+        liveContainer("g1", "child-contacts").appendChild(frank);
+        live.indexNodes(frank);
+        journal(MC, "mc5");
+
+        // the file without the group of the new meta contact
+        Document damaged = parse(CONTACT_LIST);
+        Element g1 = new MclStorageDocument(damaged).findNode(GROUP, "g1");
+
+        g1.getParentNode().removeChild(g1);
+
+        MclStorageDocument copy = new MclStorageDocument(damaged);
+
+        copy.replay(builder, journal.read());
+        frank = copy.findNode(MC, "mc5");
+        assertNotNull(frank);
+        assertEquals("root",
+                ((Element) frank.getParentNode().getParentNode())
+                    .getAttribute("uid"));
+    }
+
+    /**
+     * The entries before a torn or corrupted entry at the end of the journal
+     * are replayed.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDamagedTail()
+        throws Exception
+    {
+        live.findNode(GROUP, "g1").setAttribute("name", "Office");
+        journal(GROUP, "g1");
+
+        String expected = canonical(live.getDocument());
+        long validLength = journalFile.length();
+
+        makeChanges();
+        journal.close();
+
+        // torn
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+
+        try
+        {
+            raf.setLength(raf.length() - 5);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertEquals(1 + 4, journal.read().size());
+
+        // corrupted
+        raf = new RandomAccessFile(journalFile, "rw");
+        try
+        {
+            raf.seek(validLength + 20);
+            raf.write(raf.read() ^ 0xff);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertEquals(1, journal.read().size());
+        assertEquals(expected, canonical(replay(CONTACT_LIST).getDocument()));
+    }
+
+    /**
+     * Once the journal has grown larger than the file, the file is written
+     * and the journal emptied, the changes journaled afterwards replaying
+     * over the new file.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testCompaction()
+        throws Exception
+    {
+        long fileLength = CONTACT_LIST.length();
+        int changes = 0;
+
+        assertFalse(journal.isCompactionDue(fileLength));
+        while (!journal.isCompactionDue(fileLength))
+        {
+            live.findNode(MC, "mc1")
+                .getElementsByTagName("display-name").item(0)
+                    .setTextContent("Alice " + (++changes));
+            journal(MC, "mc1");
+        }
+        assertTrue(changes > 1);
+        assertEquals(changes, journal.read().size());
+
+        // compaction
+        String compacted = canonical(live.getDocument());
+
+        journal.reset();
+        assertEquals(0, journal.read().size());
+        assertFalse(journal.isCompactionDue(fileLength));
+
+        makeChanges();
+        assertEquals(5, journal.read().size());
+        assertSameDocument(live, replay(compacted));
+    }
+}
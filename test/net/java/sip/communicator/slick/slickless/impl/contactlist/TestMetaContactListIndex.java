@@ -0,0 +1,229 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.contactlist;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.contactlist.*;
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tests that the index of the meta contacts and meta contact groups of a
+ * contact list by UID and by protocol contact address holds exactly what the
+ * tree of the list holds as meta contacts and groups are added, moved and
+ * removed.
+ */
+public class TestMetaContactListIndex
+    extends TestCase
+{
+    private MetaContactListServiceImpl mcl;
+
+    private MockProvider provider;
+
+    private MetaContactGroup root;
+
+    @Override
+    protected void setUp()
+    {
+        mcl = new MetaContactListServiceImpl();
+        provider = new MockProvider("index");
+        root = mcl.getRoot();
+    }
+
+    /**
+     * Fills the list with two groups, one with a subgroup, and meta contacts
+     * in all of them. The root group has no protocol group to create meta
+     * contacts in without the provider being registered with the list.
+     *
+     * @return the groups, the root group first
+     */
+    private MetaContactGroup[] fill()
+    {
+        MetaContactGroup work = mcl.createMetaContactGroup(root, "Work");
+        MetaContactGroup family = mcl.createMetaContactGroup(root, "Family");
+        MetaContactGroup team = mcl.createMetaContactGroup(work, "Team");
+        MetaContactGroup[] groups = { root, work, family, team };
+
+        for (int g = 1; g < groups.length; g++)
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                mcl.createMetaContact(
+                        provider, groups[g], "contact" + g + "x" + i);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Walks the tree of a group and collects its meta contacts and groups by
+     * UID and its meta contacts by protocol contact address, as the index
+     * maps them.
+     *
+     * @param group the group
+     * @param contacts the meta contacts by UID
+     * @param groups the meta contact groups by UID
+     * @param addresses the meta contacts by account ID and address
+     */
+    private static void walk(MetaContactGroup group,
+                             Map<String, MetaContact> contacts,
+                             Map<String, MetaContactGroup> groups,
+                             Map<String, MetaContact> addresses)
+    {
+        groups.put(group.getMetaUID(), group);
+
+        Iterator<MetaContact> metaContacts = group.getChildContacts();
+
+        while (metaContacts.hasNext())
+        {
+            MetaContact metaContact = metaContacts.next();
+
+            contacts.put(metaContact.getMetaUID(), metaContact);
+
+            Iterator<Contact> protoContacts = metaContact.getContacts();
+
+            while (protoContacts.hasNext())
+            {
+                Contact protoContact = protoContacts.next();
+
+                addresses.put(
+                        protoContact.getProtocolProvider().getAccountID()
+                                .getAccountUniqueID()
+                            + " " + protoContact.getAddress(),
+                        metaContact);
+            }
+        }
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            walk(subgroups.next(), contacts, groups, addresses);
+    }
+
+    /**
+     * Asserts that the index maps the same meta contacts and groups as the
+     * tree of the list, and that the lookups find them.
+     */
+    private void assertConsistent()
+    {
+        Map<String, MetaContact> contacts = new HashMap<String, MetaContact>();
+        Map<String, MetaContactGroup> groups
+            = new HashMap<String, MetaContactGroup>();
+        Map<String, MetaContact> addresses
+            = new HashMap<String, MetaContact>();
+
+        walk(root, contacts, groups, addresses);
+
+        MetaContactListIndex index = mcl.getIndex();
+
+        assertEquals(contacts, index.getMetaContactsByUID());
+        assertEquals(groups, index.getMetaContactGroupsByUID());
+        assertEquals(addresses, index.getMetaContactsByAddress());
+
+        for (MetaContact metaContact : contacts.values())
+        {
+            assertSame(metaContact,
+                    mcl.findMetaContactByMetaUID(metaContact.getMetaUID()));
+
+            Iterator<Contact> protoContacts = metaContact.getContacts();
+
+            while (protoContacts.hasNext())
+            {
+                Contact protoContact = protoContacts.next();
+
+                assertSame(metaContact,
+                        mcl.findMetaContactByContact(protoContact));
+                assertSame(metaContact,
+                        mcl.findMetaContactByContact(
+                                protoContact.getAddress(),
+                                provider.getAccountID().getAccountUniqueID()));
+            }
+        }
+        for (MetaContactGroup group : groups.values())
+        {
+            assertSame(group,
+                    mcl.findMetaContactGroupByMetaUID(group.getMetaUID()));
+        }
+
+        // the lookups did not have to fix the index
+        assertEquals(contacts, index.getMetaContactsByUID());
+        assertEquals(groups, index.getMetaContactGroupsByUID());
+        assertEquals(addresses, index.getMetaContactsByAddress());
+    }
+
+    /**
+     * Meta contacts and groups added to the list, including to nested groups,
+     * are indexed.
+     */
+    public void testAdd()
+    {
+        fill();
+        assertEquals(9, mcl.getIndex().getMetaContactsByUID().size());
+        assertEquals(4, mcl.getIndex().getMetaContactGroupsByUID().size());
+        assertConsistent();
+    }
+
+    /**
+     * Meta contacts moved to another group, and protocol contacts moved to
+     * another meta contact or to a new one, are indexed where they went, and
+     * the meta contacts they left empty are removed from the index.
+     */
+    public void testMove()
+    {
+        MetaContactGroup[] groups = fill();
+        MetaContact moved = groups[1].getMetaContact(0);
+
+        mcl.moveMetaContact(moved, groups[2]);
+        assertSame(groups[2], moved.getParentMetaContactGroup());
+        assertConsistent();
+
+        MetaContact merged = groups[3].getMetaContact(0);
+        MetaContact target = groups[2].getMetaContact(0);
+
+        mcl.moveContact(merged.getDefaultContact(), target);
+        assertConsistent();
+        assertEquals(2, target.getContactCount());
+        assertNull(mcl.findMetaContactByMetaUID(merged.getMetaUID()));
+
+        Contact split = target.getDefaultContact();
+
+        mcl.moveContact(split, groups[3]);
+        assertConsistent();
+        assertEquals(1, target.getContactCount());
+        assertNotSame(target, mcl.findMetaContactByContact(split));
+    }
+
+    /**
+     * The meta contacts and the subgroups of a removed group are removed from
+     * the index along with it.
+     */
+    public void testRemove()
+    {
+        MetaContactGroup[] groups = fill();
+        MetaContactGroup work = groups[1];
+        MetaContactGroup team = groups[3];
+        MetaContact member = team.getMetaContact(0);
+
+        mcl.removeMetaContactGroup(work);
+        assertConsistent();
+        assertNull(mcl.findMetaContactGroupByMetaUID(work.getMetaUID()));
+        assertNull(mcl.findMetaContactGroupByMetaUID(team.getMetaUID()));
+        assertNull(mcl.findMetaContactByMetaUID(member.getMetaUID()));
+        assertEquals(3, mcl.getIndex().getMetaContactsByUID().size());
+        assertEquals(2, mcl.getIndex().getMetaContactGroupsByUID().size());
+        assertConsistent();
+
+        // a group of the same name can be added again
+        MetaContactGroup newWork = mcl.createMetaContactGroup(root, "Work");
+
+        mcl.createMetaContact(provider, newWork, "contact1x0");
+        assertConsistent();
+    }
+}
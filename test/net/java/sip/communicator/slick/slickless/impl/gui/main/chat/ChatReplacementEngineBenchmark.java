@@ -0,0 +1,160 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.gui.main.chat;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.service.replacement.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Measures the time replacing a corpus of chat messages takes with the
+ * matches of <tt>ChatReplacementEngine</tt>, compared to applying the pattern
+ * of each source in turn as done before, and the time compiling the rules of
+ * the engine again takes. The sources have the patterns of the real ones but
+ * do not access the network, so that only the matching is measured. It is not
+ * part of the tests and is run on its own with the test classes and the
+ * libraries on the class path.
+ */
+public class ChatReplacementEngineBenchmark
+{
+    /**
+     * The number of messages of the corpus.
+     */
+    private static final int CORPUS_SIZE = 2000;
+
+    /**
+     * The number of times the corpus is replaced in a measurement.
+     */
+    private static final int ROUNDS = 10;
+
+    /**
+     * The number of times the rules are compiled in a measurement.
+     */
+    private static final int COMPILATIONS = 100;
+
+    /**
+     * The number of measurements, the first ones of which warm the JIT up.
+     */
+    private static final int MEASUREMENTS = 8;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        List<String> corpus
+            = ChatReplacements.corpus(CORPUS_SIZE, 20130611L);
+        List<ReplacementService> sources = ChatReplacements.getSources();
+        ConfigurationService cfg = ChatReplacements.getConfiguration();
+        ChatReplacementEngine engine = new ChatReplacementEngine(cfg, sources);
+        ChatReplacements.StubSmileySource smileySource
+            = (ChatReplacements.StubSmileySource) sources.get(
+                    sources.size() - 1);
+        int mismatches = 0;
+        int replaced = 0;
+        long chars = 0;
+
+        for (String message : corpus)
+        {
+            boolean plainText = ChatReplacements.isPlainText(message);
+            String expected
+                = ChatReplacements.replaceOld(message, sources, plainText);
+
+            chars += message.length();
+            if (!expected.equals(message))
+                replaced++;
+            if (!expected.equals(
+                    ChatReplacements.replace(engine, message, plainText)))
+                mismatches++;
+        }
+
+        long bestEngine = Long.MAX_VALUE;
+        long bestOld = Long.MAX_VALUE;
+        long bestCompile = Long.MAX_VALUE;
+        int hash = 0;
+
+        for (int m = 0; m < MEASUREMENTS; m++)
+        {
+            long start = System.nanoTime();
+
+            for (int r = 0; r < ROUNDS; r++)
+            {
+                for (String message : corpus)
+                {
+                    hash
+                        += ChatReplacements.replace(
+                                    engine,
+                                    message,
+                                    ChatReplacements.isPlainText(message))
+                            .length();
+                }
+            }
+
+            long middle = System.nanoTime();
+
+            for (int r = 0; r < ROUNDS; r++)
+            {
+                for (String message : corpus)
+                {
+                    hash
+                        += ChatReplacements.replaceOld(
+                                    message,
+                                    sources,
+                                    ChatReplacements.isPlainText(message))
+                            .length();
+                }
+            }
+
+            long end = System.nanoTime();
+
+            // a reload of the smilies pack makes the engine compile again
+            for (int c = 0; c < COMPILATIONS; c++)
+            {
+                smileySource.reloadSmiliesPack();
+                hash += engine.find(corpus.get(c)).size();
+            }
+
+            long compiled = System.nanoTime();
+
+            bestEngine = Math.min(bestEngine, middle - start);
+            bestOld = Math.min(bestOld, end - middle);
+            bestCompile = Math.min(bestCompile, compiled - end);
+        }
+
+        System.out.println(
+                corpus.size() + " messages of " + (chars / corpus.size())
+                    + " characters on average, " + replaced
+                    + " with replacements, " + mismatches
+                    + " replaced differently (" + hash + ")");
+        print("engine", bestEngine, ROUNDS * CORPUS_SIZE, "message");
+        print("pattern of each source", bestOld, ROUNDS * CORPUS_SIZE,
+                "message");
+        print("compilation of the rules", bestCompile, COMPILATIONS,
+                "compilation");
+    }
+
+    /**
+     * Prints the time an operation takes.
+     *
+     * @param name the name of the operation
+     * @param time the best time of <tt>count</tt> operations in nanoseconds
+     * @param count the number of operations
+     * @param unit what an operation is done on
+     */
+    private static void print(String name, long time, int count, String unit)
+    {
+        System.out.println(
+                name + ": "
+                    + String.format("%.2f", time / (count * 1000.0))
+                    + " us per " + unit);
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.gui.main.chat;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.impl.replacement.dailymotion.*;
+import net.java.sip.communicator.impl.replacement.directimage.*;
+import net.java.sip.communicator.impl.replacement.flickr.*;
+import net.java.sip.communicator.impl.replacement.twitpic.*;
+import net.java.sip.communicator.impl.replacement.vimeo.*;
+import net.java.sip.communicator.impl.replacement.youtube.*;
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.service.replacement.smilies.*;
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Replacement sources with the patterns of the real ones, the replacement of
+ * chat messages done before <tt>ChatReplacementEngine</tt> by applying the
+ * pattern of each source in turn, the one done by
+ * <tt>ChatConversationPanel</tt> with the matches of the engine, and chat
+ * messages to replace.
+ */
+class ChatReplacements
+{
+    /**
+     * The tag starting the plain text of a message.
+     */
+    static final String START_PLAINTEXT_TAG = "<PLAINTEXT>";
+
+    /**
+     * The tag ending the plain text of a message.
+     */
+    static final String END_PLAINTEXT_TAG = "</PLAINTEXT>";
+
+    /**
+     * The URLs of the links of the messages, the last ones of which no
+     * source previews.
+     */
+    private static final String[] URLS
+        = {
+            "http://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://youtube.com/watch?v=9bZkp7q19f0&feature=share",
+            "http://vimeo.com/22439234",
+            "http://www.flickr.com/photos/jitsi/5342189764/in/photostream",
+            "http://www.dailymotion.com/video/x2b4ok",
+            "http://twitpic.com/4x2c1k",
+            "http://example.com/photos/cat.jpg",
+            "https://images.example.org/2013/06/screenshot.PNG?size=large",
+            "http://jitsi.org/",
+            "https://example.com/nopreview/index.html?q=sip"
+        };
+
+    /**
+     * The words of the messages.
+     */
+    private static final String[] WORDS
+        = {
+            "hi", "ok", "the", "call", "dropped", "again", "can", "you",
+            "hear", "me", "now", "?", "lol", "sure", "meeting", "at", "3pm",
+            "&amp;", "&lt;", "&gt;", "&quot;nice&quot;", "B-", ":-", "O:-",
+            "(y",
+            "J\u00f6rg", "\u00e7a", "va", "\u2013", "brb", "thanks!"
+        };
+
+    /**
+     * Returns the smilies used by the tests, the ones whose strings start
+     * with the string of another one coming first as they would in a pattern.
+     *
+     * @return the smilies used by the tests
+     */
+    static List<Smiley> getSmilies()
+    {
+        return Arrays.asList(new Smiley[]
+                {
+                    new StubSmiley("laugh", ":))", ":-))"),
+                    new StubSmiley("smile", ":-)", ":)"),
+                    new StubSmiley("grin", ":-D", ":D"),
+                    new StubSmiley("wink", ";-)", ";)"),
+                    new StubSmiley("sad", ":-(", ":("),
+                    new StubSmiley("cool", "B-)"),
+                    new StubSmiley("angel", "O:-)"),
+                    new StubSmiley("heart", "&lt;3"),
+                    new StubSmiley("yes", "(y)", "(Y)")
+                });
+    }
+
+    /**
+     * Returns sources with the patterns of the real ones previewing links and
+     * a smiley source, in the order in which the engine applies them.
+     *
+     * @return the sources
+     */
+    static List<ReplacementService> getSources()
+    {
+        return new ArrayList<ReplacementService>(Arrays.asList(
+                new ReplacementService[]
+                {
+                    new StubSource(
+                            ReplacementServiceDailymotionImpl.SOURCE_NAME,
+                            ReplacementServiceDailymotionImpl
+                                .DAILYMOTION_PATTERN),
+                    new StubSource(
+                            ReplacementServiceFlickrImpl.SOURCE_NAME,
+                            ReplacementServiceFlickrImpl.FLICKR_PATTERN),
+                    new StubSource(
+                            ReplacementServiceTwitpicImpl.SOURCE_NAME,
+                            ReplacementServiceTwitpicImpl.TWITPIC_PATTERN),
+                    new StubSource(
+                            ReplacementServiceVimeoImpl.SOURCE_NAME,
+                            ReplacementServiceVimeoImpl.VIMEO_PATTERN),
+                    new StubSource(
+                            ReplacementServiceYoutubeImpl.SOURCE_NAME,
+                            ReplacementServiceYoutubeImpl.YOUTUBE_PATTERN),
+                    new StubSource(
+                            ReplacementServiceDirectImageImpl.SOURCE_NAME,
+                            ReplacementServiceDirectImageImpl.URL_PATTERN),
+                    new StubSmileySource(getSmilies())
+                }));
+    }
+
+    /**
+     * Returns a <tt>ConfigurationService</tt> in which only given replacement
+     * properties are disabled.
+     *
+     * @param disabled the names of the disabled properties
+     * @return the <tt>ConfigurationService</tt>
+     */
+    static ConfigurationService getConfiguration(String... disabled)
+    {
+        final List<String> disabledNames = Arrays.asList(disabled);
+
+        return (ConfigurationService) Proxy.newProxyInstance(
+                ChatReplacements.class.getClassLoader(),
+                new Class<?>[] { ConfigurationService.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(
+                            Object proxy,
+                            Method method,
+                            Object[] args)
+                    {
+                        if (method.getName().equals("getBoolean"))
+                            return !disabledNames.contains(args[0]);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Replaces the text of a message matched by the pattern of each source in
+     * turn, as <tt>ChatConversationPanel</tt> did before
+     * <tt>ChatReplacementEngine</tt>.
+     *
+     * @param message the HTML of the message
+     * @param sources the enabled sources in the order they are applied
+     * @param plainText whether the message is plain text
+     * @return the replaced message
+     */
+    static String replaceOld(
+            String message,
+            List<ReplacementService> sources,
+            boolean plainText)
+    {
+        String msgStore = message;
+        String startPlainTextTag = plainText ? START_PLAINTEXT_TAG : "";
+        String endPlainTextTag = plainText ? END_PLAINTEXT_TAG : "";
+
+        for (ReplacementService source : sources)
+        {
+            boolean isSmiley = source instanceof SmiliesReplacementService;
+            Pattern p
+                = Pattern.compile(
+                        source.getPattern(),
+                        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+            Matcher m = p.matcher(msgStore);
+            int startPos = 0;
+            StringBuffer msgBuff = new StringBuffer();
+
+            while (m.find())
+            {
+                msgBuff.append(msgStore.substring(startPos, m.start()));
+                startPos = m.end();
+
+                String temp = source.getReplacement(m.group());
+
+                if (!temp.equals(m.group(0))
+                        || source.getSourceName().equals("DIRECTIMAGE"))
+                {
+                    if (isSmiley)
+                    {
+                        msgBuff.append(endPlainTextTag);
+                        msgBuff.append("<IMG SRC=\"");
+                    }
+                    else
+                    {
+                        msgBuff.append(
+                                "<IMG HEIGHT=\"90\" WIDTH=\"120\" SRC=\"");
+                    }
+                    msgBuff.append(temp);
+                    msgBuff.append("\" BORDER=\"0\" ALT=\"");
+                    msgBuff.append(m.group(0));
+                    msgBuff.append("\"></IMG>");
+                    if (isSmiley)
+                        msgBuff.append(startPlainTextTag);
+                }
+                else
+                    msgBuff.append(msgStore.substring(m.start(), m.end()));
+            }
+            msgBuff.append(msgStore.substring(startPos));
+            msgStore = msgBuff.toString();
+        }
+        return msgStore;
+    }
+
+    /**
+     * Replaces the text of a message matched by a
+     * <tt>ChatReplacementEngine</tt>, as <tt>ChatConversationPanel</tt> does
+     * once the previews are known.
+     *
+     * @param engine the <tt>ChatReplacementEngine</tt>
+     * @param message the HTML of the message
+     * @param plainText whether the message is plain text
+     * @return the replaced message
+     */
+    static String replace(
+            ChatReplacementEngine engine,
+            String message,
+            boolean plainText)
+    {
+        String startPlainTextTag = plainText ? START_PLAINTEXT_TAG : "";
+        String endPlainTextTag = plainText ? END_PLAINTEXT_TAG : "";
+        int startPos = 0;
+        StringBuilder msgBuff = new StringBuilder(message.length());
+
+        for (ChatReplacementEngine.Match m : engine.find(message))
+        {
+            msgBuff.append(message, startPos, m.start);
+            startPos = m.end;
+
+            String temp = m.getReplacement();
+
+            if (!temp.equals(m.text)
+                    || ChatReplacementEngine.DIRECT_IMAGE_SOURCE_NAME.equals(
+                            m.source.getSourceName()))
+            {
+                if (m.isSmiley())
+                {
+                    msgBuff.append(endPlainTextTag);
+                    msgBuff.append("<IMG SRC=\"");
+                }
+                else
+                    msgBuff.append("<IMG HEIGHT=\"90\" WIDTH=\"120\" SRC=\"");
+                msgBuff.append(temp);
+                msgBuff.append("\" BORDER=\"0\" ALT=\"");
+                msgBuff.append(m.text);
+                msgBuff.append("\"></IMG>");
+                if (m.isSmiley())
+                    msgBuff.append(startPlainTextTag);
+            }
+            else
+                msgBuff.append(m.text);
+        }
+        msgBuff.append(message, startPos, message.length());
+        return msgBuff.toString();
+    }
+
+    /**
+     * Returns the HTML of a message the way <tt>ChatConversationPanel</tt>
+     * appends it, with its header, its links and its plain text tags.
+     *
+     * @param sender the address of the sender
+     * @param body the HTML of the body of the message
+     * @param plainText whether the message is plain text
+     * @return the HTML of the message
+     */
+    static String message(String sender, String body, boolean plainText)
+    {
+        return "<h2 identifier=\"messageHeader\" date=\"1370944800000\">"
+            + "<a style=\"color:#ef7b1e;font-weight:bold;"
+            + "text-decoration:none;\" href=\"" + sender + "\">"
+            + sender + " at 10:00:00</a></h2>"
+            + "<DIV identifier=\"message\">"
+            + (plainText ? START_PLAINTEXT_TAG : "")
+            + body
+            + (plainText ? END_PLAINTEXT_TAG : "")
+            + "</DIV>";
+    }
+
+    /**
+     * Determines whether a message returned by {@link #message(String, String,
+     * boolean)} is plain text.
+     *
+     * @param message the HTML of the message
+     * @return <tt>true</tt> if <tt>message</tt> is plain text; otherwise,
+     * <tt>false</tt>
+     */
+    static boolean isPlainText(String message)
+    {
+        return message.contains(START_PLAINTEXT_TAG);
+    }
+
+    /**
+     * Returns the HTML of a link the way <tt>ChatConversationPanel</tt>
+     * formats the URLs of messages.
+     *
+     * @param url the URL
+     * @return the HTML of the link
+     */
+    static String link(String url)
+    {
+        return "<A href=\"" + url + "\">" + url + "</A>";
+    }
+
+    /**
+     * Generates chat messages made of words, smiley strings and links, most
+     * of them without anything to replace as in a busy chat room.
+     *
+     * @param size the number of messages
+     * @param seed the seed of the generation
+     * @return the HTML of the messages
+     */
+    static List<String> corpus(int size, long seed)
+    {
+        Random random = new Random(seed);
+        List<String> smileyStrings = new ArrayList<String>();
+        List<String> messages = new ArrayList<String>(size);
+
+        for (Smiley smiley : getSmilies())
+            smileyStrings.addAll(smiley.getSmileyStrings());
+
+        for (int i = 0; i < size; i++)
+        {
+            StringBuilder body = new StringBuilder();
+            int kind = random.nextInt(10);
+            int wordCount = 3 + random.nextInt(25);
+
+            for (int w = 0; w < wordCount; w++)
+            {
+                if (w != 0)
+                    body.append(' ');
+
+                int r = random.nextInt(40);
+
+                if ((kind < 3) && (r < 4))
+                    body.append(
+                            smileyStrings.get(
+                                    random.nextInt(smileyStrings.size())));
+                else if ((kind == 3) && (r == 0))
+                    body.append(link(URLS[random.nextInt(URLS.length)]));
+                else
+                    body.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            messages.add(
+                    message(
+                            "user" + random.nextInt(50) + "@example.com",
+                            body.toString(),
+                            random.nextBoolean()));
+        }
+        return messages;
+    }
+
+    /**
+     * A source with the pattern of a real one replacing the text it matches
+     * with the URL of a preview named after it, unless the text is to have no
+     * preview.
+     */
+    static class StubSource
+        implements ReplacementService
+    {
+        private final String sourceName;
+
+        private final String pattern;
+
+        StubSource(String sourceName, String pattern)
+        {
+            this.sourceName = sourceName;
+            this.pattern = pattern;
+        }
+
+        public String getReplacement(String sourceString)
+        {
+            return sourceString.contains("nopreview")
+                ? sourceString
+                : "http://previews.example.com/" + sourceName + ".png";
+        }
+
+        public String getSourceName()
+        {
+            return sourceName;
+        }
+
+        public String getPattern()
+        {
+            return pattern;
+        }
+    }
+
+    /**
+     * A smiley source with the pattern of the real one.
+     */
+    static class StubSmileySource
+        implements SmiliesReplacementService
+    {
+        private List<Smiley> smilies;
+
+        StubSmileySource(List<Smiley> smilies)
+        {
+            this.smilies = smilies;
+        }
+
+        public String getReplacement(String sourceString)
+        {
+            for (Smiley smiley : smilies)
+            {
+                if (smiley.getSmileyStrings().contains(sourceString.trim()))
+                    return smiley.getImagePath();
+            }
+            return sourceString;
+        }
+
+        public String getSourceName()
+        {
+            return "SMILEY";
+        }
+
+        public String getPattern()
+        {
+            StringBuffer regex = new StringBuffer();
+
+            regex.append("(?<!(alt='|alt=\"))(");
+            for (Smiley smiley : smilies)
+            {
+                for (String smileyString : smiley.getSmileyStrings())
+                {
+                    regex.append(
+                            GuiUtils.replaceSpecialRegExpChars(smileyString))
+                        .append("|");
+                }
+            }
+            regex = regex.deleteCharAt(regex.length() - 1);
+            regex.append(')');
+            return regex.toString();
+        }
+
+        public Collection<Smiley> getSmiliesPack()
+        {
+            return smilies;
+        }
+
+        /**
+         * Reloads the smilies pack the way the real source does, which makes
+         * it a new one.
+         */
+        public void reloadSmiliesPack()
+        {
+            smilies = new ArrayList<Smiley>(smilies);
+        }
+
+        /**
+         * Replaces the smilies pack, as a reload changing the smilies does.
+         *
+         * @param smilies the new smilies
+         */
+        void setSmiliesPack(List<Smiley> smilies)
+        {
+            this.smilies = smilies;
+        }
+    }
+
+    /**
+     * A smiley with an image named after it.
+     */
+    static class StubSmiley
+        implements Smiley
+    {
+        private final String description;
+
+        private final List<String> smileyStrings;
+
+        StubSmiley(String description, String... smileyStrings)
+        {
+            this.description = description;
+            this.smileyStrings = Arrays.asList(smileyStrings);
+        }
+
+        public String getDescription()
+        {
+            return description;
+        }
+
+        public List<String> getSmileyStrings()
+        {
+            return smileyStrings;
+        }
+
+        public String getDefaultString()
+        {
+            return smileyStrings.get(0);
+        }
+
+        public String getImageID()
+        {
+            return "service.gui.smileys." + description;
+        }
+
+        public String getImagePath()
+        {
+            return "smilies/" + description + ".png";
+        }
+    }
+}
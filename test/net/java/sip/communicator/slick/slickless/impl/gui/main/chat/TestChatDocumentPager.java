@@ -0,0 +1,302 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.gui.main.chat;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+import javax.swing.*;
+import javax.swing.text.*;
+import javax.swing.text.html.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.gui.main.chat.*;
+
+/**
+ * Tests paging the messages of a chat in and out of its document with
+ * <tt>ChatDocumentPager</tt> the way <tt>ChatConversationPanel</tt> does: the
+ * most recent chat messages are removed while older ones are paged in, and
+ * the system messages and the file transfers, which cannot be paged in again,
+ * are kept in place among the chat messages paged in again later.
+ */
+public class TestChatDocumentPager
+    extends TestCase
+{
+    /**
+     * The number of entries <tt>ChatConversationPanel</tt> keeps in its
+     * document when paging older messages in.
+     */
+    private static final int MAX_ENTRIES = 200;
+
+    /**
+     * The number of messages of a page.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    private HTMLDocument document;
+
+    @Override
+    protected void setUp()
+    {
+        document
+            = (HTMLDocument) new HTMLEditorKit().createDefaultDocument();
+    }
+
+    /**
+     * Returns the HTML of the chat message of a given number, the way
+     * <tt>ChatConversationPanel</tt> formats an incoming message.
+     */
+    private static String message(int number)
+    {
+        return "<h2 identifier=\"messageHeader\" date='" + date(number)
+            + "'><a href=\"alice\">alice " + number + "</a></h2>"
+            + "<DIV identifier=\"message\" style=\"color:#707070;\">"
+            + "<PLAINTEXT>message " + number + "</PLAINTEXT></DIV>";
+    }
+
+    /**
+     * Returns the date of the chat message of a given number.
+     */
+    private static long date(int number)
+    {
+        return 1370000000000L + number * 1000L;
+    }
+
+    /**
+     * Appends HTML at the end of the document.
+     */
+    private void append(String chatString)
+        throws Exception
+    {
+        Element root = document.getDefaultRootElement();
+
+        document.insertAfterEnd(
+            root.getElement(root.getElementCount() - 1), chatString);
+    }
+
+    /**
+     * Returns the text of an element.
+     */
+    private String getText(Element element)
+        throws Exception
+    {
+        return document.getText(
+                element.getStartOffset(),
+                element.getEndOffset() - element.getStartOffset())
+            .trim();
+    }
+
+    /**
+     * Returns the component held by an element or by one of its descendants.
+     */
+    private static Object getComponent(Element element)
+    {
+        Object component
+            = element.getAttributes().getAttribute(
+                    StyleConstants.ComponentAttribute);
+
+        for (int i = 0; (component == null) && (i < element.getElementCount());
+                i++)
+            component = getComponent(element.getElement(i));
+        return component;
+    }
+
+    /**
+     * Returns a description of each entry of the document: the number of a
+     * chat message or the text of another entry.
+     */
+    private List<String> describeEntries()
+        throws Exception
+    {
+        List<String> descriptions = new ArrayList<String>();
+
+        for (Element entry : ChatDocumentPager.getEntries(document))
+        {
+            String text = getText(entry);
+
+            if (ChatDocumentPager.isHistoryEntry(entry))
+            {
+                assertTrue(text, text.startsWith("alice "));
+                descriptions.add(text.substring("alice ".length()));
+            }
+            else if (getComponent(entry) != null)
+                descriptions.add("component");
+            else
+                descriptions.add(text);
+        }
+        return descriptions;
+    }
+
+    /**
+     * Returns the descriptions of the entries of a range of chat messages.
+     */
+    private static List<String> describeMessages(int from, int to)
+    {
+        List<String> descriptions = new ArrayList<String>();
+
+        for (int number = from; number < to; number++)
+            descriptions.add(String.valueOf(number));
+        return descriptions;
+    }
+
+    /**
+     * Pages older messages in before the first one, removing the most recent
+     * ones as <tt>ChatConversationPanel.insertMessagesAtStart</tt> does.
+     *
+     * @return whether messages have been removed
+     */
+    private boolean insertPage(int from)
+        throws Exception
+    {
+        for (int number = from + PAGE_SIZE - 1; number >= from; number--)
+        {
+            Element elem
+                = ChatDocumentPager.insertAtStart(document, message(number));
+
+            // the replacements are processed in the body of the message
+            assertEquals("message " + number, getText(elem));
+        }
+        return ChatDocumentPager.removeNewest(document, MAX_ENTRIES);
+    }
+
+    /**
+     * Pages removed messages in again after the last chat message, as
+     * <tt>ChatConversationPanel.appendPageToEnd</tt> does.
+     */
+    private void appendPage(int from, int to)
+        throws Exception
+    {
+        for (int number = from; number < to; number++)
+        {
+            Element elem
+                = ChatDocumentPager.appendPaged(document, message(number));
+
+            assertEquals("message " + number, getText(elem));
+        }
+    }
+
+    /**
+     * Paging older messages in past the maximum number of entries removes the
+     * most recent chat messages only, keeping a system message and a file
+     * transfer in place, and the removed messages paged in again are inserted
+     * before them by date.
+     */
+    public void testKeepEntriesNotInHistory()
+        throws Exception
+    {
+        JPanel fileTransfer = new JPanel(new BorderLayout());
+
+        for (int number = 300; number < 346; number++)
+            append(message(number));
+        append("<DIV identifier=\"systemMessage\" date='" + (date(345) + 200)
+                + "' style=\"color:#627EB7;\"><PLAINTEXT>"
+                + "Failed to send the message</PLAINTEXT></DIV>");
+        ChatDocumentPager.appendComponent(
+                document, fileTransfer, date(345) + 500);
+        for (int number = 346; number < 350; number++)
+            append(message(number));
+
+        List<String> expected = new ArrayList<String>();
+
+        expected.addAll(describeMessages(300, 346));
+        expected.add("Failed to send the message");
+        expected.add("component");
+        expected.addAll(describeMessages(346, 350));
+        assertEquals(expected, describeEntries());
+
+        assertFalse(insertPage(250));
+        assertFalse(insertPage(200));
+        assertTrue(insertPage(150));
+        assertTrue(insertPage(100));
+
+        // 198 chat messages and the two entries kept after them
+        expected.clear();
+        expected.addAll(describeMessages(100, 298));
+        expected.add("Failed to send the message");
+        expected.add("component");
+        assertEquals(expected, describeEntries());
+
+        List<Element> entries = ChatDocumentPager.getEntries(document);
+
+        assertSame(fileTransfer,
+                getComponent(entries.get(entries.size() - 1)));
+
+        for (int from = 298; from < 350; from += PAGE_SIZE)
+            appendPage(from, Math.min(from + PAGE_SIZE, 350));
+
+        expected.clear();
+        expected.addAll(describeMessages(100, 346));
+        expected.add("Failed to send the message");
+        expected.add("component");
+        expected.addAll(describeMessages(346, 350));
+        assertEquals(expected, describeEntries());
+
+        entries = ChatDocumentPager.getEntries(document);
+        assertSame(fileTransfer,
+                getComponent(entries.get(expected.indexOf("component"))));
+        assertEquals(date(349),
+                ChatDocumentPager.getDate(entries.get(entries.size() - 1)));
+    }
+
+    /**
+     * The chat messages removed on both sides of kept entries leave them in
+     * place with their attributes, an error message being kept although its
+     * header is a message header, and no chat message is removed while the
+     * document holds at most the maximum number of entries.
+     */
+    public void testRemoveAroundKeptEntries()
+        throws Exception
+    {
+        for (int number = 0; number < 5; number++)
+            append(message(number));
+        append("<h4 identifier=\"statusMessage\" date=\"" + (date(4) + 100)
+                + "\">bob is away</h4>");
+        for (int number = 5; number < 8; number++)
+            append(message(number));
+        append("<h6 identifier=\"messageHeader\" date=\"" + (date(7) + 100)
+                + "\">Message delivery failed</h6><h5>No route</h5>");
+        for (int number = 8; number < 10; number++)
+            append(message(number));
+        ChatDocumentPager.appendComponent(
+                document, new JPanel(), date(9) + 100);
+
+        assertFalse(ChatDocumentPager.removeNewest(document, 13));
+        assertTrue(ChatDocumentPager.removeNewest(document, 5));
+
+        List<String> expected = describeMessages(0, 2);
+
+        expected.add("bob is away");
+        expected.add("Message delivery failed");
+        expected.add("component");
+        assertEquals(expected, describeEntries());
+
+        List<Element> entries = ChatDocumentPager.getEntries(document);
+
+        assertEquals("statusMessage",
+                entries.get(2).getAttributes().getAttribute("identifier"));
+        assertEquals(date(4) + 100,
+                ChatDocumentPager.getDate(entries.get(2)));
+        assertEquals(date(7) + 100,
+                ChatDocumentPager.getDate(entries.get(3)));
+        assertEquals(date(9) + 100,
+                ChatDocumentPager.getDate(entries.get(4)));
+
+        // the body of the error message is kept with its header
+        Element root = document.getDefaultRootElement();
+
+        assertEquals("No route",
+                getText(root.getElement(root.getElementCount() - 2)));
+
+        // only chat messages are removed, even below the maximum
+        assertTrue(ChatDocumentPager.removeNewest(document, 0));
+        assertEquals(
+                Arrays.asList(
+                        "bob is away", "Message delivery failed", "component"),
+                describeEntries());
+    }
+}
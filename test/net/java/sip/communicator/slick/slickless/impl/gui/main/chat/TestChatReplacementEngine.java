@@ -0,0 +1,306 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.gui.main.chat;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.service.replacement.smilies.*;
+
+/**
+ * Tests the replacement of chat messages with the matches of
+ * <tt>ChatReplacementEngine</tt> against golden messages, which the pattern
+ * of each source applied in turn as done before has to give as well: the
+ * smiley strings matched by its automaton, the links matched by the combined
+ * pattern of the other sources with or without the lookbehind they share and
+ * the sources told apart by the groups of their patterns.
+ */
+public class TestChatReplacementEngine
+    extends TestCase
+{
+    private static final String SENDER = "alice@example.com";
+
+    private List<ReplacementService> sources;
+
+    @Override
+    protected void setUp()
+    {
+        sources = ChatReplacements.getSources();
+    }
+
+    /**
+     * Asserts that a message is replaced as expected by the engine and by the
+     * pattern of each source applied in turn.
+     *
+     * @param expected the body of the replaced message
+     * @param body the body of the message
+     * @param plainText whether the message is plain text
+     */
+    private void assertReplaced(String expected, String body,
+                                boolean plainText)
+    {
+        String message = ChatReplacements.message(SENDER, body, plainText);
+
+        expected = ChatReplacements.message(SENDER, expected, plainText);
+        assertEquals(expected,
+                ChatReplacements.replace(
+                        new ChatReplacementEngine(
+                                ChatReplacements.getConfiguration(),
+                                sources),
+                        message,
+                        plainText));
+        assertEquals(expected,
+                ChatReplacements.replaceOld(message, sources, plainText));
+    }
+
+    /**
+     * Returns the HTML replacing a smiley string.
+     */
+    private static String smiley(String description, String text,
+                                 boolean plainText)
+    {
+        return (plainText ? ChatReplacements.END_PLAINTEXT_TAG : "")
+            + "<IMG SRC=\"smilies/" + description + ".png\" BORDER=\"0\""
+            + " ALT=\"" + text + "\"></IMG>"
+            + (plainText ? ChatReplacements.START_PLAINTEXT_TAG : "");
+    }
+
+    /**
+     * Returns the HTML replacing the text of a link.
+     */
+    private static String preview(String sourceName, String url)
+    {
+        return "<A href=\"" + url + "\"><IMG HEIGHT=\"90\" WIDTH=\"120\""
+            + " SRC=\"http://previews.example.com/" + sourceName + ".png\""
+            + " BORDER=\"0\" ALT=\"" + url + "\"></IMG></A>";
+    }
+
+    /**
+     * Smiley strings are matched wherever they start, also after the start of
+     * another one, and the longest one where several start at the same
+     * character.
+     */
+    public void testSmilies()
+    {
+        for (boolean plainText : new boolean[] { true, false })
+        {
+            assertReplaced(
+                    "hi " + smiley("laugh", ":-))", plainText)
+                        + " " + smiley("laugh", ":))", plainText)
+                        + smiley("smile", ":)", plainText)
+                        + " :-" + smiley("smile", ":-)", plainText)
+                        + " B-" + smiley("yes", "(y)", plainText)
+                        + smiley("yes", "(Y)", plainText)
+                        + " " + smiley("heart", "&lt;3", plainText)
+                        + " &lt; 3 :-/ ;-" + smiley("wink", ";)", plainText)
+                        + " " + smiley("angel", "O:-)", plainText)
+                        + " O" + smiley("grin", ":-D", plainText),
+                    "hi :-)) :)):) :-:-) B-(y)(Y) &lt;3 &lt; 3 :-/ ;-;)"
+                        + " O:-) O:-D",
+                    plainText);
+        }
+        assertReplaced(
+                "nothing to replace here",
+                "nothing to replace here",
+                true);
+    }
+
+    /**
+     * Smiley strings are not matched in tags nor in the text replaced by the
+     * other sources, where the pattern of the smiley source matched them
+     * before.
+     */
+    public void testSmiliesInTagsAndLinks()
+    {
+        String flickr
+            = "http://www.flickr.com/photos/jitsi/5342189764/in/set-(y)";
+        String message
+            = ChatReplacements.message(
+                    SENDER,
+                    "<SPAN title=\"wink ;) and :-D\">:-D</SPAN> "
+                        + ChatReplacements.link(flickr),
+                    false);
+
+        assertEquals(
+                ChatReplacements.message(
+                        SENDER,
+                        "<SPAN title=\"wink ;) and :-D\">"
+                            + smiley("grin", ":-D", false) + "</SPAN> "
+                            + preview("FLICKR", flickr),
+                        false),
+                ChatReplacements.replace(
+                        new ChatReplacementEngine(
+                                ChatReplacements.getConfiguration(),
+                                sources),
+                        message,
+                        false));
+    }
+
+    /**
+     * The text of each link is replaced by the source whose pattern matches
+     * it, the smiley strings in it being left as they are, and is left as it
+     * is when the source has no preview for it unless the source previews any
+     * image.
+     */
+    public void testLinks()
+    {
+        String youtube = "http://www.youtube.com/watch?v=dQw4w9WgXcQ&t=42";
+        String vimeo = "https://vimeo.com/22439234";
+        String flickr
+            = "http://www.flickr.com/photos/jitsi/5342189764/in/photostream";
+        String twitpic = "http://twitpic.com/4x2c1k";
+        String image = "http://example.com/photos/cat.jpg";
+        String noPreview = "http://vimeo.com/nopreview";
+        String plain = "http://jitsi.org/";
+
+        assertReplaced(
+                "watch " + preview("YOUTUBE", youtube)
+                    + " or " + preview("VIMEO", vimeo)
+                    + smiley("smile", ":)", true)
+                    + " " + preview("FLICKR", flickr)
+                    + ", " + preview("TWITPIC", twitpic)
+                    + " " + preview("DIRECTIMAGE", image)
+                    + " " + ChatReplacements.link(noPreview)
+                    + " " + ChatReplacements.link(plain),
+                "watch " + ChatReplacements.link(youtube)
+                    + " or " + ChatReplacements.link(vimeo) + ":)"
+                    + " " + ChatReplacements.link(flickr)
+                    + ", " + ChatReplacements.link(twitpic)
+                    + " " + ChatReplacements.link(image)
+                    + " " + ChatReplacements.link(noPreview)
+                    + " " + ChatReplacements.link(plain),
+                true);
+    }
+
+    /**
+     * A source whose pattern does not start with the lookbehind of the others
+     * keeps them from sharing it, and the groups of its pattern do not shift
+     * the ones of the sources after it.
+     */
+    public void testPatternWithoutLookbehind()
+    {
+        sources.add(2,
+                new ChatReplacements.StubSource(
+                        "TICKET", "((bug|issue) ?#)(\\d+)"));
+
+        String youtube = "http://youtube.com/watch?v=dQw4w9WgXcQ";
+
+        assertReplaced(
+                "fixed <IMG HEIGHT=\"90\" WIDTH=\"120\""
+                    + " SRC=\"http://previews.example.com/TICKET.png\""
+                    + " BORDER=\"0\" ALT=\"issue #1234\"></IMG>, see "
+                    + preview("YOUTUBE", youtube)
+                    + smiley("wink", ";-)", false),
+                "fixed issue #1234, see " + ChatReplacements.link(youtube)
+                    + ";-)",
+                false);
+    }
+
+    /**
+     * The sources disabled in the configuration are not applied, and only the
+     * smiley source is when replacements are disabled.
+     */
+    public void testDisabledSources()
+    {
+        String youtube = "http://youtube.com/watch?v=dQw4w9WgXcQ";
+        String vimeo = "http://vimeo.com/22439234";
+        String message
+            = ChatReplacements.message(
+                    SENDER,
+                    ChatReplacements.link(youtube) + " "
+                        + ChatReplacements.link(vimeo) + " :D",
+                    false);
+
+        assertEquals(
+                ChatReplacements.message(
+                        SENDER,
+                        ChatReplacements.link(youtube) + " "
+                            + preview("VIMEO", vimeo) + " "
+                            + smiley("grin", ":D", false),
+                        false),
+                ChatReplacements.replace(
+                        new ChatReplacementEngine(
+                                ChatReplacements.getConfiguration(
+                                        ReplacementProperty.getPropertyName(
+                                                "YOUTUBE")),
+                                sources),
+                        message,
+                        false));
+        assertEquals(
+                ChatReplacements.message(
+                        SENDER,
+                        ChatReplacements.link(youtube) + " "
+                            + ChatReplacements.link(vimeo) + " "
+                            + smiley("grin", ":D", false),
+                        false),
+                ChatReplacements.replace(
+                        new ChatReplacementEngine(
+                                ChatReplacements.getConfiguration(
+                                        ReplacementProperty
+                                            .REPLACEMENT_ENABLE),
+                                sources),
+                        message,
+                        false));
+    }
+
+    /**
+     * The smiley strings are matched again once the smilies pack has been
+     * reloaded.
+     */
+    public void testReloadedSmiliesPack()
+    {
+        ChatReplacements.StubSmileySource smileySource
+            = (ChatReplacements.StubSmileySource) sources.get(
+                    sources.size() - 1);
+        ChatReplacementEngine engine
+            = new ChatReplacementEngine(
+                    ChatReplacements.getConfiguration(), sources);
+        String message = ChatReplacements.message(SENDER, "o/ :)", false);
+
+        assertEquals(
+                ChatReplacements.message(
+                        SENDER, "o/ " + smiley("smile", ":)", false), false),
+                ChatReplacements.replace(engine, message, false));
+
+        smileySource.setSmiliesPack(
+                Arrays.asList(new Smiley[]
+                        {
+                            new ChatReplacements.StubSmiley("wave", "o/")
+                        }));
+        assertEquals(
+                ChatReplacements.message(
+                        SENDER, smiley("wave", "o/", false) + " :)", false),
+                ChatReplacements.replace(engine, message, false));
+    }
+
+    /**
+     * The engine and the pattern of each source applied in turn replace a
+     * corpus of generated chat messages the same.
+     */
+    public void testCorpus()
+    {
+        ChatReplacementEngine engine
+            = new ChatReplacementEngine(
+                    ChatReplacements.getConfiguration(), sources);
+        int replaced = 0;
+
+        for (String message : ChatReplacements.corpus(2000, 20130611L))
+        {
+            boolean plainText = ChatReplacements.isPlainText(message);
+            String expected
+                = ChatReplacements.replaceOld(message, sources, plainText);
+
+            assertEquals(message, expected,
+                    ChatReplacements.replace(engine, message, plainText));
+            if (!expected.equals(message))
+                replaced++;
+        }
+        assertTrue(String.valueOf(replaced), replaced > 200);
+    }
+}
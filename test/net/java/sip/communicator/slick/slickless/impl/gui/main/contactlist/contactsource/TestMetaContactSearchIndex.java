@@ -0,0 +1,203 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.gui.main.contactlist.contactsource;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.contactlist.*;
+import net.java.sip.communicator.impl.gui.main.contactlist.contactsource.*;
+import net.java.sip.communicator.impl.protocol.mock.*;
+import net.java.sip.communicator.service.contactlist.*;
+
+/**
+ * Tests that searching the contact list through its search index refines the
+ * results of the previous search while the filter string extends its one and
+ * the list does not change, and searches the whole list again with up to
+ * date search texts once the list has changed.
+ */
+public class TestMetaContactSearchIndex
+    extends TestCase
+{
+    /**
+     * A display name with diacritics.
+     */
+    private static final String JORG = "J\u00f6rg M\u00fcller";
+
+    private MetaContactListServiceImpl mcl;
+
+    private MockProvider provider;
+
+    private MetaContactSearchIndex index;
+
+    private MetaContactGroup friends;
+
+    private MetaContactGroup work;
+
+    /**
+     * Whether the last search refined the results of the previous one.
+     */
+    private boolean refined;
+
+    @Override
+    protected void setUp()
+    {
+        mcl = new MetaContactListServiceImpl();
+        provider = new MockProvider("search");
+        index = new MetaContactSearchIndex();
+        mcl.addMetaContactListListener(index);
+        friends = mcl.createMetaContactGroup(mcl.getRoot(), "Friends");
+        work = mcl.createMetaContactGroup(mcl.getRoot(), "Work");
+    }
+
+    /**
+     * Creates a meta contact with a protocol contact of an address.
+     */
+    private MetaContact create(MetaContactGroup group, String address,
+                               String displayName)
+    {
+        MetaContact metaContact
+            = mcl.createMetaContact(provider, group, address);
+
+        mcl.renameMetaContact(metaContact, displayName);
+        return metaContact;
+    }
+
+    /**
+     * Searches the contact list the way <tt>MetaContactListSource</tt> does,
+     * checking that the results are the ones of a search of the whole list.
+     *
+     * @param filterString the filter string
+     * @return the sorted display names of the matching meta contacts
+     */
+    private List<String> search(String filterString)
+    {
+        String filter = MetaContactSearchIndex.normalize(filterString);
+        long version = index.getVersion();
+        List<MetaContact> candidates = index.getLastResults(filter, version);
+        List<MetaContact> results = new ArrayList<MetaContact>();
+
+        refined = (candidates != null);
+        if (refined)
+        {
+            for (MetaContact metaContact : candidates)
+            {
+                if (index.isMatching(metaContact, filter))
+                    results.add(metaContact);
+            }
+        }
+        else
+            walk(mcl.getRoot(), filter, results);
+        index.setLastResults(filter, version, results);
+
+        List<MetaContact> all = new ArrayList<MetaContact>();
+
+        walk(mcl.getRoot(), filter, all);
+        assertEquals(filterString, all, results);
+
+        List<String> names = new ArrayList<String>();
+
+        for (MetaContact metaContact : results)
+            names.add(metaContact.getDisplayName());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Collects the meta contacts of a group and its subgroups matching a
+     * filter string.
+     */
+    private void walk(MetaContactGroup group, String filter,
+                      List<MetaContact> results)
+    {
+        Iterator<MetaContact> metaContacts = group.getChildContacts();
+
+        while (metaContacts.hasNext())
+        {
+            MetaContact metaContact = metaContacts.next();
+
+            if (index.isMatching(metaContact, filter))
+                results.add(metaContact);
+        }
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+
+        while (subgroups.hasNext())
+            walk(subgroups.next(), filter, results);
+    }
+
+    /**
+     * A filter string extending the previous one refines its results, while
+     * another one searches the whole list. Both ignore case and diacritics
+     * and match display names and addresses.
+     */
+    public void testRefine()
+    {
+        create(friends, "jmueller@example.com", JORG);
+        create(friends, "bob@example.com", "Bob");
+        create(work, "jsmith@example.com", "John Smith");
+        create(work, "joanna@example.com", "Joanna");
+
+        assertEquals(Arrays.asList("Joanna", "John Smith", JORG),
+                search("jo"));
+        assertFalse(refined);
+        assertEquals(Arrays.asList(JORG), search("jor"));
+        assertTrue(refined);
+        assertEquals(Arrays.asList(JORG), search("J\u00d6RG"));
+        assertTrue(refined);
+        assertEquals(Arrays.asList("Bob"), search("b"));
+        assertFalse(refined);
+        assertEquals(Arrays.asList("Bob"), search("bob@"));
+        assertTrue(refined);
+        assertEquals(Arrays.asList("Bob"), search("bob@example"));
+        assertTrue(refined);
+        assertEquals(Collections.emptyList(), search("bob@examples"));
+        assertTrue(refined);
+    }
+
+    /**
+     * Renaming, adding and moving meta contacts and adding protocol contacts
+     * invalidate the results of the previous search and the search texts of
+     * the changed meta contacts.
+     */
+    public void testInvalidate()
+    {
+        MetaContact jorg = create(friends, "jmueller@example.com", JORG);
+        MetaContact bob = create(friends, "bob@example.com", "Bob");
+        MetaContact john = create(work, "jsmith@example.com", "John Smith");
+
+        assertEquals(Arrays.asList("John Smith", JORG), search("j"));
+        assertEquals(Arrays.asList("Bob"), search("bo"));
+
+        // a protocol contact added to a meta contact
+        search("j");
+        mcl.addNewContactToMetaContact(provider, bob, "jordan@example.com");
+        assertEquals(Arrays.asList("Bob", JORG), search("jor"));
+        assertFalse(refined);
+
+        // renamed meta contacts
+        mcl.renameMetaContact(jorg, "George");
+        mcl.renameMetaContact(john, "Jorge");
+        assertEquals(Arrays.asList("Bob", "Jorge"), search("jor"));
+        assertFalse(refined);
+        assertEquals(Arrays.asList("Jorge"), search("jorge"));
+        assertTrue(refined);
+        assertEquals(Arrays.asList("George"), search("geo"));
+
+        // an added meta contact
+        create(work, "georgia@example.com", "Georgia");
+        assertEquals(Arrays.asList("George", "Georgia"), search("geor"));
+        assertFalse(refined);
+
+        // a moved meta contact
+        search("ge");
+        mcl.moveMetaContact(jorg, work);
+        assertEquals(Arrays.asList("George", "Georgia", "Jorge"),
+                search("ge"));
+        assertFalse(refined);
+    }
+}
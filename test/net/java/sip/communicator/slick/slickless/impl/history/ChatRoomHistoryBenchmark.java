@@ -0,0 +1,150 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+/**
+ * Measures the time adding the messages of a busy chat room to an XML history
+ * takes when every record rewrites its file and when records are written
+ * behind a journal. The messages arrive at 50 per second as in a busy chat
+ * room, and then as fast as they can be added. It is not part of the tests and
+ * is run on its own with the test classes and the libraries on the class
+ * path, preferably with the temporary directory on the disk the histories
+ * would be on.
+ */
+public class ChatRoomHistoryBenchmark
+{
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "chatroom", "benchmark" });
+
+    /**
+     * The number of messages the chat room receives per second.
+     */
+    private static final int MESSAGES_PER_SECOND = 50;
+
+    /**
+     * The number of messages received at {@link #MESSAGES_PER_SECOND}.
+     */
+    private static final int PACED_MESSAGES = 500;
+
+    /**
+     * The number of messages added as fast as possible.
+     */
+    private static final int UNPACED_MESSAGES = 3000;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     * @throws Exception if the history cannot be written
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        run("rewrite", false);
+        run("write-behind", true);
+    }
+
+    /**
+     * Adds the messages of a chat room to a new history and prints the
+     * latencies of the additions and the throughput.
+     *
+     * @param name the name of the mode
+     * @param writeBehind whether the records are written behind a journal
+     * @throws Exception if the history cannot be written
+     */
+    private static void run(String name, boolean writeBehind)
+        throws Exception
+    {
+        HistoryServiceFixture fixture = new HistoryServiceFixture();
+
+        try
+        {
+            fixture.setProperty(
+                    HistoryService.STORAGE_FORMAT_PROPERTY,
+                    HistoryService.STORAGE_FORMAT_XML);
+            fixture.setProperty(
+                    HistoryService.WRITE_BEHIND_ENABLED_PROPERTY,
+                    Boolean.toString(writeBehind));
+
+            History history
+                = HistoryServiceFixture.getHistory(fixture.createService(), ID);
+            HistoryWriter writer = history.getWriter();
+            long[] latencies = new long[PACED_MESSAGES];
+            long period = 1000000000L / MESSAGES_PER_SECOND;
+            long next = System.nanoTime();
+
+            for (int i = 0; i < PACED_MESSAGES; i++)
+            {
+                long wait = next - System.nanoTime();
+
+                if (wait > 0)
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+
+                long start = System.nanoTime();
+
+                add(writer, i);
+                latencies[i] = System.nanoTime() - start;
+                next += period;
+            }
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < UNPACED_MESSAGES; i++)
+                add(writer, PACED_MESSAGES + i);
+
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+
+            long total = 0;
+
+            for (long latency : latencies)
+                total += latency;
+
+            System.out.println(
+                    name + ": addRecord at " + MESSAGES_PER_SECOND
+                        + " msg/s average "
+                        + String.format("%.2f",
+                                total / (PACED_MESSAGES * 1000000.0))
+                        + " ms, 99th percentile "
+                        + String.format("%.2f",
+                                latencies[PACED_MESSAGES * 99 / 100]
+                                    / 1000000.0)
+                        + " ms; unpaced "
+                        + (UNPACED_MESSAGES * 1000000000L / elapsed)
+                        + " records/s");
+        }
+        finally
+        {
+            fixture.delete();
+        }
+    }
+
+    /**
+     * Adds a chat room message to a history.
+     *
+     * @param writer the writer of the history
+     * @param i the number of the message
+     * @throws Exception if the history cannot be written
+     */
+    private static void add(HistoryWriter writer, int i)
+        throws Exception
+    {
+        writer.addRecord(
+                new String[]
+                {
+                    "participant" + (i % 12),
+                    "message " + i + " of a busy chat room, long enough to"
+                        + " look like what people actually write"
+                },
+                new Date(1000000000000L + i * 20L));
+    }
+}
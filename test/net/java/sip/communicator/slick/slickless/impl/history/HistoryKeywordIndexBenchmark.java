@@ -0,0 +1,256 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import javax.xml.parsers.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+import org.w3c.dom.*;
+
+/**
+ * Measures the time the keyword queries of an XML history take when they are
+ * answered from its keyword index, compared to the regular expression matched
+ * against every record of every file the history did before. The files of
+ * the scan are parsed once, as the document cache of the history would keep
+ * them, so that only the matching is measured. It is not part of the tests
+ * and is run on its own with the test classes and the libraries on the class
+ * path.
+ */
+public class HistoryKeywordIndexBenchmark
+{
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "keywords", "benchmark" });
+
+    /**
+     * The number of records of the history.
+     */
+    private static final int RECORD_COUNT = 30000;
+
+    /**
+     * The number of times a query is run in a measurement.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * The number of measurements, the first ones of which warm the JIT up.
+     */
+    private static final int MEASUREMENTS = 6;
+
+    /**
+     * The words of the messages, the first ones being the most frequent.
+     */
+    private static final String[] WORDS
+        = {
+            "the", "you", "to", "and", "it", "is", "a", "that", "on", "for",
+            "call", "meeting", "tomorrow", "today", "thanks", "ok", "see",
+            "send", "file", "later", "lunch", "review", "build", "release",
+            "conference", "video", "audio", "network", "server", "client"
+        };
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     * @throws Exception if the history cannot be written or read
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        HistoryServiceFixture fixture = new HistoryServiceFixture();
+
+        try
+        {
+            fixture.setProperty(
+                    HistoryService.STORAGE_FORMAT_PROPERTY,
+                    HistoryService.STORAGE_FORMAT_XML);
+
+            History history = createHistory(fixture);
+            List<Document> documents = parse(fixture.getHistoryDirectory(ID));
+
+            // loads the index, which the first query of a session does
+            long time0 = System.nanoTime();
+
+            count(history, "warmup");
+            System.out.println(
+                    "index loaded in "
+                        + (System.nanoTime() - time0) / 1000000 + " ms");
+
+            run(history, documents, "rare", "zebra17");
+            run(history, documents, "uncommon", "conference");
+            run(history, documents, "frequent", "the");
+            run(history, documents, "substring", "eeti");
+            run(history, documents, "absent", "xylophone");
+        }
+        finally
+        {
+            fixture.delete();
+        }
+    }
+
+    /**
+     * Creates a history of {@link #RECORD_COUNT} messages made of the words
+     * of {@link #WORDS}, the first ones being the most frequent, and of a few
+     * rare words.
+     *
+     * @param fixture the fixture to create the history with
+     * @return the history
+     * @throws Exception if the history cannot be written
+     */
+    private static History createHistory(HistoryServiceFixture fixture)
+        throws Exception
+    {
+        History history
+            = HistoryServiceFixture.getHistory(fixture.createService(), ID);
+        HistoryWriter writer = history.getWriter();
+        Random random = new Random(20130611L);
+        long time = 1000000000000L;
+
+        for (int i = 0; i < RECORD_COUNT; i++)
+        {
+            StringBuilder message = new StringBuilder();
+
+            for (int w = 5 + random.nextInt(10); w > 0; w--)
+            {
+                double r = random.nextDouble();
+
+                message.append(WORDS[(int) (r * r * WORDS.length)]);
+                message.append(' ');
+            }
+            if (random.nextInt(500) == 0)
+                message.append("zebra").append(random.nextInt(20));
+            writer.addRecord(
+                    new String[] { "user" + (i % 7), message.toString() },
+                    new Date(time += 1000));
+        }
+        return history;
+    }
+
+    /**
+     * Parses all the XML files of a history.
+     *
+     * @param directory the directory of the history
+     * @return the documents of the XML files of the history
+     * @throws Exception if a file cannot be parsed
+     */
+    private static List<Document> parse(File directory)
+        throws Exception
+    {
+        DocumentBuilder builder
+            = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        List<Document> documents = new ArrayList<Document>();
+
+        for (File file : directory.listFiles())
+        {
+            if (file.getName().endsWith(".xml"))
+                documents.add(builder.parse(file));
+        }
+        return documents;
+    }
+
+    /**
+     * Measures a keyword query and prints the best time it takes with the
+     * index and with the scan.
+     *
+     * @param history the history
+     * @param documents the documents of the files of the history
+     * @param name the name of the query
+     * @param keyword the keyword
+     */
+    private static void run(
+            History history,
+            List<Document> documents,
+            String name,
+            String keyword)
+    {
+        long best = Long.MAX_VALUE;
+        long bestScan = Long.MAX_VALUE;
+        int found = 0;
+        int scanned = 0;
+
+        for (int m = 0; m < MEASUREMENTS; m++)
+        {
+            long time0 = System.nanoTime();
+
+            for (int i = 0; i < ROUNDS; i++)
+                found = count(history, keyword);
+
+            long time1 = System.nanoTime();
+
+            for (int i = 0; i < ROUNDS; i++)
+                scanned = scan(documents, keyword);
+
+            long time2 = System.nanoTime();
+
+            best = Math.min(best, time1 - time0);
+            bestScan = Math.min(bestScan, time2 - time1);
+        }
+
+        System.out.println(
+                name + " (" + keyword + "): index "
+                    + String.format("%.2f", best / (ROUNDS * 1000000.0))
+                    + " ms, scan "
+                    + String.format("%.2f", bestScan / (ROUNDS * 1000000.0))
+                    + " ms, " + found + " records (" + scanned
+                    + " by the scan)");
+    }
+
+    /**
+     * Counts the records of a history containing a keyword.
+     *
+     * @param history the history
+     * @param keyword the keyword
+     * @return the number of records containing <tt>keyword</tt>
+     */
+    private static int count(History history, String keyword)
+    {
+        QueryResultSet<HistoryRecord> records
+            = history.getReader().findByKeyword(keyword, "message");
+        int count = 0;
+
+        while (records.hasNext())
+        {
+            records.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the records containing a keyword the way the history did before
+     * the index, matching a regular expression against the message of every
+     * record.
+     *
+     * @param documents the documents of the files of the history
+     * @param keyword the keyword
+     * @return the number of records containing <tt>keyword</tt>
+     */
+    private static int scan(List<Document> documents, String keyword)
+    {
+        String regex = "(?si)^.*" + Pattern.quote(keyword) + ".*$";
+        int count = 0;
+
+        for (Document document : documents)
+        {
+            NodeList messages = document.getElementsByTagName("message");
+
+            for (int i = 0; i < messages.getLength(); i++)
+            {
+                Node text = messages.item(i).getFirstChild();
+
+                if ((text != null) && text.getNodeValue().matches(regex))
+                    count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import net.java.sip.communicator.impl.history.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
+import org.osgi.framework.*;
+
+/**
+ * Runs <tt>HistoryServiceImpl</tt> instances outside of felix, over a
+ * temporary directory and a configuration kept in memory, so that the same
+ * histories can be reopened as after a restart of the application.
+ */
+public class HistoryServiceFixture
+{
+    /**
+     * The structure of the records of the histories created by the tests.
+     */
+    public static final HistoryRecordStructure STRUCTURE
+        = new HistoryRecordStructure(new String[] { "name", "message" });
+
+    /**
+     * The directory the histories are stored in.
+     */
+    private final File directory;
+
+    /**
+     * The configuration properties read by the history services.
+     */
+    private final Map<String, Object> properties
+        = new HashMap<String, Object>();
+
+    /**
+     * Creates a fixture storing its histories in a new temporary directory.
+     *
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public HistoryServiceFixture()
+        throws IOException
+    {
+        directory = File.createTempFile("history", ".test");
+        if (!directory.delete() || !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+    }
+
+    /**
+     * Sets a configuration property read by the history services created
+     * afterwards.
+     *
+     * @param name the name of the property
+     * @param value the value of the property
+     */
+    public void setProperty(String name, Object value)
+    {
+        properties.put(name, value);
+    }
+
+    /**
+     * Creates a new history service over the directory of this fixture, as
+     * when the application starts.
+     *
+     * @return the new history service
+     * @throws Exception if the history service cannot be created
+     */
+    public HistoryServiceImpl createService()
+        throws Exception
+    {
+        return new HistoryServiceImpl(createBundleContext());
+    }
+
+    /**
+     * Returns the history with the given identifier of a history service,
+     * creating it if it does not exist yet.
+     *
+     * @param service the history service
+     * @param id the identifier of the history
+     * @return the history
+     * @throws IOException if the history cannot be created
+     */
+    public static History getHistory(HistoryService service, HistoryID id)
+        throws IOException
+    {
+        return service.isHistoryExisting(id)
+            ? service.getHistory(id)
+            : service.createHistory(id, STRUCTURE);
+    }
+
+    /**
+     * Returns the directory a history is stored in.
+     *
+     * @param id the identifier of the history
+     * @return the directory of the history
+     */
+    public File getHistoryDirectory(HistoryID id)
+    {
+        File dir = new File(directory, HistoryServiceImpl.DATA_DIRECTORY);
+
+        for (String part : id.getID())
+            dir = new File(dir, part);
+        return dir;
+    }
+
+    /**
+     * Deletes the directory of this fixture.
+     */
+    public void delete()
+    {
+        delete(directory);
+    }
+
+    /**
+     * Deletes a file or a directory and its contents.
+     *
+     * @param file the file or directory to delete
+     */
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Creates a <tt>BundleContext</tt> providing the configuration and file
+     * access services the history service needs.
+     *
+     * @return the <tt>BundleContext</tt>
+     */
+    private BundleContext createBundleContext()
+    {
+        final Object configurationService
+            = proxy(ConfigurationService.class, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (args == null)
+                        return "ConfigurationService";
+
+                    Object value = properties.get(args[0]);
+
+                    if (method.getName().equals("getString"))
+                    {
+                        return (value != null)
+                            ? value.toString()
+                            : ((args.length > 1) ? args[1] : null);
+                    }
+                    if (value == null)
+                        return (args.length > 1) ? args[1] : null;
+                    if (method.getName().equals("getBoolean"))
+                        return Boolean.valueOf(value.toString());
+                    if (method.getName().equals("getInt"))
+                        return Integer.valueOf(value.toString());
+                    if (method.getName().equals("getLong"))
+                        return Long.valueOf(value.toString());
+                    return value;
+                }
+            });
+        final Object fileAccessService
+            = proxy(FileAccessService.class, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (args == null)
+                        return "FileAccessService";
+
+                    File file = directory;
+
+                    if (args[0] instanceof String[])
+                    {
+                        for (String part : (String[]) args[0])
+                            file = new File(file, part);
+                    }
+                    else
+                        file = new File(file, (String) args[0]);
+
+                    if (method.getName().equals("getPrivatePersistentDirectory"))
+                        file.mkdirs();
+                    return file;
+                }
+            });
+
+        return proxy(BundleContext.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (args == null)
+                    return "BundleContext";
+                if (method.getName().equals("getServiceReference"))
+                {
+                    final String name = (String) args[0];
+
+                    return proxy(ServiceReference.class, new InvocationHandler()
+                    {
+                        public Object invoke(
+                                Object proxy, Method method, Object[] args)
+                        {
+                            if (method.getName().equals("toString"))
+                                return name;
+                            return null;
+                        }
+                    });
+                }
+                if (method.getName().equals("getService"))
+                {
+                    String name = args[0].toString();
+
+                    if (name.equals(ConfigurationService.class.getName()))
+                        return configurationService;
+                    if (name.equals(FileAccessService.class.getName()))
+                        return fileAccessService;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Creates a dynamic proxy implementing an interface.
+     *
+     * @param type the interface to implement
+     * @param handler the handler of the calls
+     * @return the proxy
+     */
+    private static <T> T proxy(Class<T> type, final InvocationHandler handler)
+    {
+        return
+            type.cast(
+                    Proxy.newProxyInstance(
+                            type.getClassLoader(),
+                            new Class<?>[] { type },
+                            new InvocationHandler()
+                            {
+                                public Object invoke(
+                                        Object proxy,
+                                        Method method,
+                                        Object[] args)
+                                    throws Throwable
+                                {
+                                    String name = method.getName();
+
+                                    if (name.equals("equals"))
+                                        return proxy == args[0];
+                                    if (name.equals("hashCode"))
+                                        return System.identityHashCode(proxy);
+                                    if ((args == null)
+                                            && !name.equals("toString"))
+                                        return null;
+                                    return handler.invoke(proxy, method, args);
+                                }
+                            }));
+    }
+}
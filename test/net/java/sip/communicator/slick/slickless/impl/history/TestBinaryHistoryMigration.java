@@ -0,0 +1,152 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests the copy of the XML histories into the binary logs when the storage
+ * format is switched back and forth.
+ */
+public class TestBinaryHistoryMigration
+    extends TestCase
+{
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "migration", "test" });
+
+    private HistoryServiceFixture fixture;
+
+    private long time = 1000000000000L;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        fixture = new HistoryServiceFixture();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        fixture.delete();
+    }
+
+    /**
+     * Opens the history with the given storage format, as after a restart of
+     * the application.
+     *
+     * @param format the storage format
+     * @return the history
+     * @throws Exception if the history cannot be opened
+     */
+    private History open(String format)
+        throws Exception
+    {
+        fixture.setProperty(HistoryService.STORAGE_FORMAT_PROPERTY, format);
+        return HistoryServiceFixture.getHistory(fixture.createService(), ID);
+    }
+
+    /**
+     * Adds records to a history.
+     *
+     * @param history the history
+     * @param messages the messages of the records
+     * @throws Exception if writing fails
+     */
+    private void add(History history, String... messages)
+        throws Exception
+    {
+        for (String message : messages)
+        {
+            history.getWriter().addRecord(
+                    new String[] { "user", message },
+                    new Date(time));
+            time += 1000;
+        }
+    }
+
+    /**
+     * Returns the messages of all the records of a history.
+     *
+     * @param history the history
+     * @return the messages of the records, oldest first
+     */
+    private static List<String> read(History history)
+    {
+        // the records all have different timestamps
+        SortedMap<Long, String> messages = new TreeMap<Long, String>();
+        QueryResultSet<HistoryRecord> records
+            = history.getReader().findByEndDate(new Date(Long.MAX_VALUE));
+
+        while (records.hasNext())
+        {
+            HistoryRecord record = records.next();
+
+            messages.put(
+                    record.getTimestamp(),
+                    record.getPropertyValues()[
+                            Arrays.asList(record.getPropertyNames())
+                                .indexOf("message")]);
+        }
+        return new ArrayList<String>(messages.values());
+    }
+
+    /**
+     * Records written in XML after a first migration are copied into the log
+     * when the binary format is selected again, without copying the others
+     * twice.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testSwitchBackAndForth()
+        throws Exception
+    {
+        History xml = open(HistoryService.STORAGE_FORMAT_XML);
+
+        add(xml, "x1", "x2", "x3");
+
+        History binary = open(HistoryService.STORAGE_FORMAT_BINARY);
+
+        assertEquals(Arrays.asList("x1", "x2", "x3"), read(binary));
+        add(binary, "b1", "b2");
+
+        xml = open(HistoryService.STORAGE_FORMAT_XML);
+        assertEquals(Arrays.asList("x1", "x2", "x3"), read(xml));
+        add(xml, "x4", "x5");
+
+        binary = open(HistoryService.STORAGE_FORMAT_BINARY);
+        assertEquals(
+                Arrays.asList("x1", "x2", "x3", "b1", "b2", "x4", "x5"),
+                read(binary));
+
+        binary = open(HistoryService.STORAGE_FORMAT_BINARY);
+        assertEquals(
+                Arrays.asList("x1", "x2", "x3", "b1", "b2", "x4", "x5"),
+                read(binary));
+    }
+
+    /**
+     * The values of updated records have their <tt>\0</tt> characters
+     * replaced with spaces, as the ones of added records.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testUpdateReplacesNulCharacters()
+        throws Exception
+    {
+        History binary = open(HistoryService.STORAGE_FORMAT_BINARY);
+
+        add(binary, "first\0message");
+        binary.getWriter().updateRecord("name", "user", "message", "a\0b");
+
+        assertEquals(Arrays.asList("a b"), read(binary));
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.history.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests that the records written behind to the journal of an XML history
+ * survive the application stopping before they get to their files, and that
+ * the files are replaced as a whole when they are written.
+ */
+public class TestHistoryJournal
+    extends TestCase
+{
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "journal", "test" });
+
+    private HistoryServiceFixture fixture;
+
+    private long time = 1000000000000L;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        fixture = new HistoryServiceFixture();
+        fixture.setProperty(
+                HistoryService.STORAGE_FORMAT_PROPERTY,
+                HistoryService.STORAGE_FORMAT_XML);
+        fixture.setProperty(
+                HistoryService.WRITE_BEHIND_ENABLED_PROPERTY, "true");
+        // the records stay in the journal until the history is flushed
+        fixture.setProperty(
+                HistoryService.WRITE_BEHIND_MAX_DELAY_PROPERTY, "3600000");
+        fixture.setProperty(
+                HistoryService.WRITE_BEHIND_MAX_RECORDS_PROPERTY, "1000");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        fixture.delete();
+    }
+
+    /**
+     * Opens the history with a new history service, as after the application
+     * stopped without closing it.
+     *
+     * @return the history
+     * @throws Exception if the history cannot be opened
+     */
+    private History open()
+        throws Exception
+    {
+        return HistoryServiceFixture.getHistory(fixture.createService(), ID);
+    }
+
+    /**
+     * Adds records to a history.
+     *
+     * @param history the history
+     * @param messages the messages of the records
+     * @throws Exception if writing fails
+     */
+    private void add(History history, String... messages)
+        throws Exception
+    {
+        for (String message : messages)
+            history.getWriter().addRecord(new String[] { "user", message },
+                    new Date(time += 1000));
+    }
+
+    /**
+     * Writes the records written behind to their files.
+     *
+     * @param history the history
+     * @throws Exception if writing fails
+     */
+    private static void flush(History history)
+        throws Exception
+    {
+        // updating a record flushes the records written behind first
+        history.getWriter().updateRecord("name", "nobody", "message", "");
+    }
+
+    /**
+     * Returns the messages of all the records of a history, oldest first.
+     *
+     * @param history the history
+     * @return the messages of the records
+     */
+    private static List<String> read(History history)
+    {
+        // the records all have different timestamps
+        SortedMap<Long, String> messages = new TreeMap<Long, String>();
+        QueryResultSet<HistoryRecord> records
+            = history.getReader().findByEndDate(new Date(Long.MAX_VALUE));
+
+        while (records.hasNext())
+        {
+            HistoryRecord record = records.next();
+
+            messages.put(record.getTimestamp(), record.getPropertyValues()[1]);
+        }
+        return new ArrayList<String>(messages.values());
+    }
+
+    private File getJournalFile()
+    {
+        return new File(fixture.getHistoryDirectory(ID),
+                HistoryJournal.JOURNAL_FILE);
+    }
+
+    /**
+     * Records only in the journal get to their files when the history is
+     * opened again.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testReplay()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first", "second");
+        flush(history);
+        add(history, "third", "fourth");
+        assertTrue(getJournalFile().length() > 0);
+
+        history = open();
+        assertEquals(Arrays.asList("first", "second", "third", "fourth"),
+                read(history));
+        assertFalse(getJournalFile().exists());
+    }
+
+    /**
+     * Records which got to their files before the journal was emptied are
+     * not added twice.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testReplayOfWrittenRecords()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first", "second");
+
+        byte[] journal = readFile(getJournalFile());
+
+        flush(history);
+        writeFile(getJournalFile(), journal);
+
+        history = open();
+        assertEquals(Arrays.asList("first", "second"), read(history));
+    }
+
+    /**
+     * A torn entry at the end of the journal does not prevent the entries
+     * before it from being replayed.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testTornEntry()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first", "second");
+
+        OutputStream out = new FileOutputStream(getJournalFile(), true);
+
+        try
+        {
+            out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 5, 6, 7 });
+        }
+        finally
+        {
+            out.close();
+        }
+
+        history = open();
+        assertEquals(Arrays.asList("first", "second"), read(history));
+    }
+
+    /**
+     * A history file is replaced by the complete file written in its place,
+     * which is recovered if the application stops right before.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testTemporaryFile()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first", "second");
+        flush(history);
+
+        File[] files = fixture.getHistoryDirectory(ID).listFiles();
+        File xmlFile = null;
+
+        for (File file : files)
+        {
+            assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+            if (file.getName().endsWith(".xml"))
+                xmlFile = file;
+        }
+        assertNotNull(xmlFile);
+        assertTrue(
+                xmlFile.renameTo(new File(xmlFile.getPath() + ".tmp")));
+
+        history = open();
+        assertEquals(Arrays.asList("first", "second"), read(history));
+        assertTrue(xmlFile.exists());
+    }
+
+    private static byte[] readFile(File file)
+        throws IOException
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try
+        {
+            in.readFully(bytes);
+        }
+        finally
+        {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes)
+        throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
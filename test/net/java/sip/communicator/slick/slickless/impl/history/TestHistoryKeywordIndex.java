@@ -0,0 +1,356 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.history.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests that the keyword queries of the XML histories, answered from their
+ * keyword index, find the same records as a scan of the history would.
+ */
+public class TestHistoryKeywordIndex
+    extends TestCase
+{
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "keywords", "test" });
+
+    private HistoryServiceFixture fixture;
+
+    private long time = 1000000000000L;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        fixture = new HistoryServiceFixture();
+        fixture.setProperty(
+                HistoryService.STORAGE_FORMAT_PROPERTY,
+                HistoryService.STORAGE_FORMAT_XML);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        fixture.delete();
+    }
+
+    /**
+     * Opens the history, as after a restart of the application.
+     *
+     * @return the history
+     * @throws Exception if the history cannot be opened
+     */
+    private History open()
+        throws Exception
+    {
+        return HistoryServiceFixture.getHistory(fixture.createService(), ID);
+    }
+
+    /**
+     * Adds records to a history.
+     *
+     * @param history the history
+     * @param messages the messages of the records
+     * @throws Exception if writing fails
+     */
+    private void add(History history, String... messages)
+        throws Exception
+    {
+        for (String message : messages)
+            history.getWriter().addRecord(new String[] { "user", message },
+                    new Date(time += 1000));
+    }
+
+    /**
+     * Returns the messages of the records containing a keyword, in no
+     * particular order.
+     *
+     * @param history the history
+     * @param keyword the keyword
+     * @return the messages of the records containing <tt>keyword</tt>
+     */
+    private static Set<String> find(History history, String keyword)
+    {
+        Set<String> messages = new HashSet<String>();
+        QueryResultSet<HistoryRecord> records
+            = history.getReader().findByKeyword(keyword, "message");
+
+        while (records.hasNext())
+            messages.add(records.next().getPropertyValues()[1]);
+        return messages;
+    }
+
+    private static Set<String> set(String... messages)
+    {
+        return new HashSet<String>(Arrays.asList(messages));
+    }
+
+    /**
+     * Keywords are found anywhere in the terms, whatever their length and
+     * the length of the terms.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testSubstrings()
+        throws Exception
+    {
+        StringBuilder longTerm = new StringBuilder();
+
+        for (int i = 0; i < 300; i++)
+            longTerm.append((char) ('a' + i % 26));
+        longTerm.append("needle");
+
+        History history = open();
+
+        add(history, "Hello world", "yellow submarine", longTerm.toString());
+
+        assertEquals(set("Hello world", "yellow submarine"),
+                find(history, "ello"));
+        assertEquals(set("Hello world", "yellow submarine"),
+                find(history, "LL"));
+        assertEquals(set("Hello world"), find(history, "o w"));
+        assertEquals(set("yellow submarine", longTerm.toString()),
+                find(history, "b"));
+        assertEquals(set(longTerm.toString()), find(history, "needle"));
+        assertEquals(set(longTerm.toString()),
+                find(history, longTerm.substring(100)));
+        assertEquals(set(), find(history, "elloo"));
+
+        // the same answers from the index loaded from its file
+        history = open();
+        assertEquals(set(longTerm.toString()), find(history, "needle"));
+        assertEquals(set("Hello world"), find(history, "o w"));
+    }
+
+    /**
+     * Records which made it to a history file but not to the index are found
+     * once the history is opened again.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testRecordsMissingFromTheIndex()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first message", "second message");
+        assertEquals(set("first message", "second message"),
+                find(history, "message"));
+
+        File xmlFile = getXmlFile();
+        String xml = read(xmlFile);
+
+        write(xmlFile,
+                xml.replace("</history>",
+                        "<record timestamp=\"" + (time += 1000) + "\">"
+                            + "<name>user</name>"
+                            + "<message>third message</message>"
+                            + "</record></history>"));
+
+        history = open();
+        assertEquals(set("first message", "second message", "third message"),
+                find(history, "message"));
+    }
+
+    /**
+     * Adding records does not load the index, which catches up with them on
+     * the first keyword query, including the records written behind and not
+     * in their files yet.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testIndexCatchesUpOnQuery()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first message");
+        assertEquals(set("first message"), find(history, "message"));
+
+        File indexFile
+            = new File(fixture.getHistoryDirectory(ID),
+                    HistoryKeywordIndex.INDEX_FILE);
+        long indexLength = indexFile.length();
+
+        history = open();
+        add(history, "second message");
+        assertEquals(indexLength, indexFile.length());
+        assertEquals(set("first message", "second message"),
+                find(history, "message"));
+
+        fixture.setProperty(
+                HistoryService.WRITE_BEHIND_ENABLED_PROPERTY, "true");
+        fixture.setProperty(
+                HistoryService.WRITE_BEHIND_MAX_DELAY_PROPERTY, "3600000");
+        fixture.setProperty(
+                HistoryService.WRITE_BEHIND_MAX_RECORDS_PROPERTY, "1000");
+        history = open();
+        add(history, "third message");
+        assertEquals(set("first message", "second message", "third message"),
+                find(history, "message"));
+        add(history, "fourth message");
+        assertEquals(set("fourth message"), find(history, "fourth"));
+    }
+
+    /**
+     * A torn entry at the end of the index file does not lose the records of
+     * the history.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testTornIndexEntry()
+        throws Exception
+    {
+        History history = open();
+
+        add(history, "first message");
+        assertEquals(set("first message"), find(history, "message"));
+        add(history, "second message");
+
+        File indexFile
+            = new File(fixture.getHistoryDirectory(ID),
+                    HistoryKeywordIndex.INDEX_FILE);
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+
+        try
+        {
+            raf.setLength(raf.length() - 3);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        history = open();
+        assertEquals(set("first message", "second message"),
+                find(history, "message"));
+        add(history, "third message");
+
+        history = open();
+        assertEquals(set("first message", "second message", "third message"),
+                find(history, "message"));
+    }
+
+    /**
+     * Records added by several threads at once are all found.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testConcurrentWriters()
+        throws Exception
+    {
+        final History history = open();
+
+        add(history, "first message");
+        assertEquals(set("first message"), find(history, "message"));
+
+        final int threadCount = 4;
+        final int recordCount = 50;
+        final List<Throwable> failures
+            = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; t++)
+        {
+            final int thread = t;
+
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < recordCount; i++)
+                        {
+                            history.getWriter().addRecord(
+                                new String[] { "user", "t" + thread + "x" + i },
+                                new Date(1000000000000L + i));
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(Collections.emptyList(), failures);
+        for (int t = 0; t < threadCount; t++)
+        {
+            for (int i = 0; i < recordCount; i += 7)
+            {
+                String message = "t" + t + "x" + i;
+
+                assertEquals(set(message), find(history, message));
+            }
+        }
+    }
+
+    /**
+     * Returns the XML file of the history, which holds a single file.
+     *
+     * @return the XML file of the history
+     */
+    private File getXmlFile()
+    {
+        File[] files
+            = fixture.getHistoryDirectory(ID).listFiles(
+                    new FilenameFilter()
+                    {
+                        public boolean accept(File dir, String name)
+                        {
+                            return name.endsWith(".xml");
+                        }
+                    });
+
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static String read(File file)
+        throws IOException
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try
+        {
+            in.readFully(bytes);
+        }
+        finally
+        {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void write(File file, String s)
+        throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+
+        try
+        {
+            out.write(s.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.history;
+
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.history.*;
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests the order of the records returned by the period and keyword queries
+ * of the histories.
+ */
+public class TestHistoryReader
+    extends TestCase
+{
+    private static final HistoryID ID
+        = HistoryID.createFromRawID(new String[] { "reader", "test" });
+
+    /**
+     * The number of records added, enough to fill several XML files.
+     */
+    private static final int RECORD_COUNT
+        = 2 * HistoryWriterImpl.MAX_RECORDS_PER_FILE + 10;
+
+    private static final long START = 1000000000000L;
+
+    private HistoryServiceFixture fixture;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        fixture = new HistoryServiceFixture();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        fixture.delete();
+    }
+
+    /**
+     * Creates a history with records spanning several files.
+     *
+     * @param format the storage format
+     * @return the history
+     * @throws Exception if writing fails
+     */
+    private History createHistory(String format)
+        throws Exception
+    {
+        fixture.setProperty(HistoryService.STORAGE_FORMAT_PROPERTY, format);
+
+        History history
+            = HistoryServiceFixture.getHistory(fixture.createService(), ID);
+
+        for (int i = 0; i < RECORD_COUNT; i++)
+        {
+            history.getWriter().addRecord(
+                    new String[] { "user", "message " + i },
+                    new Date(START + i * 1000L));
+        }
+        return history;
+    }
+
+    /**
+     * Asserts that records are in chronological order.
+     *
+     * @param records the records
+     * @param expectedCount the expected number of records
+     */
+    private static void assertChronological(
+            QueryResultSet<HistoryRecord> records,
+            int expectedCount)
+    {
+        long last = Long.MIN_VALUE;
+        int count = 0;
+
+        while (records.hasNext())
+        {
+            long timestamp = records.next().getTimestamp();
+
+            assertTrue("record " + count + " out of order", timestamp > last);
+            last = timestamp;
+            count++;
+        }
+        assertEquals(expectedCount, count);
+    }
+
+    private void testChronologicalOrder(String format)
+        throws Exception
+    {
+        HistoryReader reader = createHistory(format).getReader();
+
+        assertChronological(
+                reader.findByEndDate(new Date(Long.MAX_VALUE)),
+                RECORD_COUNT);
+        assertChronological(
+                reader.findByPeriod(
+                        new Date(START + 99 * 1000L),
+                        new Date(START + 300 * 1000L)),
+                200);
+        assertChronological(
+                reader.findByKeyword("message", "message"),
+                RECORD_COUNT);
+    }
+
+    /**
+     * The period and keyword queries of the XML histories return their
+     * records in chronological order, across files.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testXmlChronologicalOrder()
+        throws Exception
+    {
+        testChronologicalOrder(HistoryService.STORAGE_FORMAT_XML);
+    }
+
+    /**
+     * The period and keyword queries of the binary histories return their
+     * records in the same order as the XML ones.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testBinaryChronologicalOrder()
+        throws Exception
+    {
+        testChronologicalOrder(HistoryService.STORAGE_FORMAT_BINARY);
+    }
+}
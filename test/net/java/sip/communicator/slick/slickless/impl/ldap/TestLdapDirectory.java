@@ -0,0 +1,717 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.ldap;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.ldap.*;
+import net.java.sip.communicator.service.ldap.*;
+import net.java.sip.communicator.service.ldap.event.*;
+
+/**
+ * Tests the searches of an LDAP directory against a stub LDAPv3 server
+ * running in the same process: paging, the connection pool, the supersession
+ * of type-ahead queries and the cache of the results.
+ */
+public class TestLdapDirectory
+    extends TestCase
+{
+    private static final String BASE_DN = "o=test";
+
+    /**
+     * The number of entries of the directory, enough for several pages.
+     */
+    private static final int ENTRY_COUNT = 450;
+
+    private StubLdapServer server;
+
+    private LdapDirectory directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        server = new StubLdapServer();
+        for (int i = 0; i < ENTRY_COUNT; i++)
+        {
+            Map<String, String> entry = new HashMap<String, String>();
+
+            entry.put("cn", "Person " + i);
+            entry.put("sn", "Person");
+            entry.put("givenName", "Number " + i);
+            entry.put("mail", "person" + i + "@example.com");
+            server.entries.put("cn=Person " + i + "," + BASE_DN, entry);
+        }
+
+        LdapDirectorySettings settings = new LdapDirectorySettingsImpl();
+
+        settings.setName("test");
+        settings.setHostname("127.0.0.1");
+        settings.setPort(server.getPort());
+        settings.setEncryption(LdapConstants.Encryption.CLEAR);
+        settings.setAuth(LdapConstants.Auth.NONE);
+        settings.setBaseDN(BASE_DN);
+        directory = new LdapDirectoryImpl(settings);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        server.stop();
+    }
+
+    /**
+     * Starts a search.
+     *
+     * @param queryString the query string
+     * @param delay the delay of the search in milliseconds
+     * @return the search
+     */
+    private Search search(String queryString, int delay)
+    {
+        LdapSearchSettings searchSettings = new LdapSearchSettingsImpl();
+
+        searchSettings.setDelay(delay);
+
+        Search search = new Search(new LdapQueryImpl(queryString));
+
+        directory.searchPerson(search.query, search, searchSettings);
+        return search;
+    }
+
+    /**
+     * A search larger than a page reads all the pages through one
+     * connection.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testPagedSearch()
+        throws Exception
+    {
+        Search search = search("person", 0);
+
+        assertEquals(LdapEvent.LdapEventCause.SEARCH_ACHIEVED, search.await());
+        assertEquals(ENTRY_COUNT, search.results.size());
+        assertEquals(3, server.searches.get());
+        assertEquals(1, server.connections.get());
+    }
+
+    /**
+     * A query superseded by the next typed character does not reach the
+     * server, a repeated query is answered from the cache and sequential
+     * searches share a connection.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testTypeAheadAndCache()
+        throws Exception
+    {
+        Search superseded = search("person 4", 500);
+        Search search = search("person 42", 500);
+
+        assertEquals(LdapEvent.LdapEventCause.SEARCH_CANCELLED,
+                superseded.await());
+        assertEquals(LdapEvent.LdapEventCause.SEARCH_ACHIEVED, search.await());
+
+        // "Person 42" and "Person 420" to "Person 429"
+        assertEquals(11, search.results.size());
+
+        // "*person 42*" and "42*person", none for the superseded query
+        int searches = server.searches.get();
+
+        assertEquals(2, searches);
+
+        // the same query differing in case only
+        search = search("PERSON 42", 0);
+        assertEquals(LdapEvent.LdapEventCause.SEARCH_ACHIEVED, search.await());
+        assertEquals(11, search.results.size());
+        assertEquals(searches, server.searches.get());
+
+        int connections = server.connections.get();
+
+        for (int i = 0; i < 5; i++)
+        {
+            search = search("person1" + i, 0);
+            assertEquals(LdapEvent.LdapEventCause.SEARCH_ACHIEVED,
+                    search.await());
+        }
+        assertEquals(connections, server.connections.get());
+    }
+
+    /**
+     * A search started by a test, collecting the persons found until the end
+     * of the search.
+     */
+    private static class Search
+        implements LdapListener
+    {
+        final LdapQuery query;
+
+        final Set<String> results
+            = Collections.synchronizedSet(new HashSet<String>());
+
+        private final CountDownLatch end = new CountDownLatch(1);
+
+        private volatile LdapEvent.LdapEventCause endCause;
+
+        Search(LdapQuery query)
+        {
+            this.query = query;
+        }
+
+        public void ldapEventReceived(LdapEvent event)
+        {
+            if (event.getCause() == LdapEvent.LdapEventCause.NEW_SEARCH_RESULT)
+            {
+                results.add(
+                        ((LdapPersonFound) event.getContent()).getDN());
+            }
+            else if (endCause == null)
+            {
+                endCause = event.getCause();
+                end.countDown();
+            }
+        }
+
+        /**
+         * Waits for the end of the search.
+         *
+         * @return the cause of the end of the search
+         * @throws InterruptedException if interrupted while waiting
+         */
+        LdapEvent.LdapEventCause await()
+            throws InterruptedException
+        {
+            assertTrue("search timed out", end.await(10, TimeUnit.SECONDS));
+            return endCause;
+        }
+    }
+
+    /**
+     * An LDAPv3 server answering bind and search requests from the entries
+     * it holds in memory. It supports the paged results control (RFC 2696)
+     * and the filters built from the and, or, not, equality, substrings and
+     * present conditions.
+     */
+    private static class StubLdapServer
+        implements Runnable
+    {
+        private static final String PAGED_RESULTS_OID
+            = "1.2.840.113556.1.4.319";
+
+        private static final int SEQUENCE = 0x30;
+
+        private static final int SET = 0x31;
+
+        private static final int INTEGER = 0x02;
+
+        private static final int OCTET_STRING = 0x04;
+
+        private static final int ENUMERATED = 0x0A;
+
+        private static final int BIND_REQUEST = 0x60;
+
+        private static final int BIND_RESPONSE = 0x61;
+
+        private static final int UNBIND_REQUEST = 0x42;
+
+        private static final int SEARCH_REQUEST = 0x63;
+
+        private static final int SEARCH_RESULT_ENTRY = 0x64;
+
+        private static final int SEARCH_RESULT_DONE = 0x65;
+
+        private static final int CONTROLS = 0xA0;
+
+        /**
+         * The entries by DN, with their attributes.
+         */
+        final Map<String, Map<String, String>> entries
+            = new LinkedHashMap<String, Map<String, String>>();
+
+        final AtomicInteger connections = new AtomicInteger();
+
+        final AtomicInteger searches = new AtomicInteger();
+
+        private final ServerSocket serverSocket;
+
+        private final List<Socket> sockets
+            = Collections.synchronizedList(new ArrayList<Socket>());
+
+        StubLdapServer()
+            throws IOException
+        {
+            serverSocket
+                = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+            Thread thread = new Thread(this, "StubLdapServer");
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort()
+        {
+            return serverSocket.getLocalPort();
+        }
+
+        void stop()
+        {
+            try
+            {
+                serverSocket.close();
+                synchronized (sockets)
+                {
+                    for (Socket socket : sockets)
+                        socket.close();
+                }
+            }
+            catch (IOException e)
+            {
+            }
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    final Socket socket = serverSocket.accept();
+                    Thread thread
+                        = new Thread("StubLdapConnection")
+                        {
+                            @Override
+                            public void run()
+                            {
+                                serve(socket);
+                            }
+                        };
+
+                    connections.incrementAndGet();
+                    sockets.add(socket);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            }
+            catch (IOException e)
+            {
+                // stopped
+            }
+        }
+
+        /**
+         * Answers the requests of a connection until it is closed.
+         *
+         * @param socket the connection
+         */
+        private void serve(Socket socket)
+        {
+            try
+            {
+                InputStream in
+                    = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                Tlv message;
+
+                while ((message = Tlv.read(in)) != null)
+                {
+                    List<Tlv> parts = message.children();
+                    byte[] id = parts.get(0).encode();
+                    Tlv operation = parts.get(1);
+                    Tlv controls
+                        = ((parts.size() > 2)
+                                && (parts.get(2).tag == CONTROLS))
+                            ? parts.get(2)
+                            : null;
+
+                    if (operation.tag == BIND_REQUEST)
+                    {
+                        out.write(
+                                tlv(SEQUENCE, id,
+                                    tlv(BIND_RESPONSE, result())));
+                    }
+                    else if (operation.tag == SEARCH_REQUEST)
+                    {
+                        searches.incrementAndGet();
+                        out.write(search(id, operation, controls));
+                    }
+                    else if (operation.tag == UNBIND_REQUEST)
+                        break;
+                    out.flush();
+                }
+            }
+            catch (IOException e)
+            {
+                // closed
+            }
+            finally
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+
+        /**
+         * Answers a search request.
+         *
+         * @param id the encoded message ID of the request
+         * @param request the search request
+         * @param controls the controls of the request or <tt>null</tt>
+         * @return the encoded answer
+         * @throws IOException if the request is malformed
+         */
+        private byte[] search(byte[] id, Tlv request, Tlv controls)
+            throws IOException
+        {
+            Tlv filter = request.children().get(6);
+            List<Map.Entry<String, Map<String, String>>> found
+                = new ArrayList<Map.Entry<String, Map<String, String>>>();
+
+            synchronized (entries)
+            {
+                for (Map.Entry<String, Map<String, String>> entry
+                        : entries.entrySet())
+                {
+                    if (matches(filter, entry.getValue()))
+                        found.add(entry);
+                }
+            }
+
+            // the page asked for, if any, the cookie being the offset
+            int offset = 0;
+            int pageSize = found.size();
+            boolean paged = false;
+
+            if (controls != null)
+            {
+                for (Tlv control : controls.children())
+                {
+                    List<Tlv> fields = control.children();
+
+                    if (PAGED_RESULTS_OID.equals(fields.get(0).string()))
+                    {
+                        List<Tlv> value
+                            = Tlv.parse(fields.get(fields.size() - 1).value)
+                                .children();
+                        String cookie = value.get(1).string();
+
+                        paged = true;
+                        pageSize = (int) value.get(0).integer();
+                        if (cookie.length() > 0)
+                            offset = Integer.parseInt(cookie);
+                    }
+                }
+            }
+
+            int end = Math.min(found.size(), offset + pageSize);
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+
+            for (Map.Entry<String, Map<String, String>> entry
+                    : found.subList(offset, end))
+            {
+                ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+
+                for (Map.Entry<String, String> attribute
+                        : entry.getValue().entrySet())
+                {
+                    attributes.write(
+                            tlv(SEQUENCE,
+                                string(attribute.getKey()),
+                                tlv(SET, string(attribute.getValue()))));
+                }
+                answer.write(
+                        tlv(SEQUENCE, id,
+                            tlv(SEARCH_RESULT_ENTRY,
+                                string(entry.getKey()),
+                                tlv(SEQUENCE, attributes.toByteArray()))));
+            }
+
+            byte[] done = tlv(SEARCH_RESULT_DONE, result());
+
+            if (paged)
+            {
+                String cookie
+                    = (end < found.size()) ? Integer.toString(end) : "";
+                byte[] value
+                    = tlv(SEQUENCE, integer(INTEGER, found.size()),
+                            string(cookie));
+
+                answer.write(
+                        tlv(SEQUENCE, id, done,
+                            tlv(CONTROLS,
+                                tlv(SEQUENCE,
+                                    string(PAGED_RESULTS_OID),
+                                    tlv(OCTET_STRING, value)))));
+            }
+            else
+                answer.write(tlv(SEQUENCE, id, done));
+            return answer.toByteArray();
+        }
+
+        /**
+         * Determines whether an entry matches a search filter.
+         *
+         * @param filter the filter
+         * @param entry the attributes of the entry
+         * @return <tt>true</tt> if <tt>entry</tt> matches <tt>filter</tt>
+         * @throws IOException if the filter is malformed
+         */
+        private static boolean matches(Tlv filter, Map<String, String> entry)
+            throws IOException
+        {
+            switch (filter.tag)
+            {
+            case 0xA0: // and
+                for (Tlv child : filter.children())
+                    if (!matches(child, entry))
+                        return false;
+                return true;
+            case 0xA1: // or
+                for (Tlv child : filter.children())
+                    if (matches(child, entry))
+                        return true;
+                return false;
+            case 0xA2: // not
+                return !matches(filter.children().get(0), entry);
+            case 0xA3: // equality
+            {
+                List<Tlv> children = filter.children();
+                String value = get(entry, children.get(0).string());
+
+                return (value != null)
+                    && value.equalsIgnoreCase(children.get(1).string());
+            }
+            case 0xA4: // substrings
+            {
+                List<Tlv> children = filter.children();
+                String value = get(entry, children.get(0).string());
+
+                if (value == null)
+                    return false;
+                value = value.toLowerCase();
+
+                int index = 0;
+
+                for (Tlv substring : children.get(1).children())
+                {
+                    String s = substring.string().toLowerCase();
+
+                    if (substring.tag == 0x80)
+                    {
+                        if (!value.startsWith(s))
+                            return false;
+                        index = s.length();
+                    }
+                    else if (substring.tag == 0x81)
+                    {
+                        index = value.indexOf(s, index);
+                        if (index < 0)
+                            return false;
+                        index += s.length();
+                    }
+                    else if (!value.endsWith(s)
+                            || (value.length() - s.length() < index))
+                        return false;
+                }
+                return true;
+            }
+            case 0x87: // present
+                return get(entry, filter.string()) != null;
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * Returns the value of an attribute of an entry, the name of the
+         * attribute being case insensitive.
+         */
+        private static String get(Map<String, String> entry, String name)
+        {
+            for (Map.Entry<String, String> attribute : entry.entrySet())
+                if (attribute.getKey().equalsIgnoreCase(name))
+                    return attribute.getValue();
+            return null;
+        }
+
+        /**
+         * Encodes a successful LDAPResult.
+         */
+        private static byte[] result()
+            throws IOException
+        {
+            return
+                concat(integer(ENUMERATED, 0), string(""), string(""));
+        }
+
+        private static byte[] string(String s)
+            throws IOException
+        {
+            return tlv(OCTET_STRING, s.getBytes("UTF-8"));
+        }
+
+        private static byte[] integer(int tag, long value)
+            throws IOException
+        {
+            int length = 1;
+
+            while ((length < 8)
+                    && ((value >> (length * 8 - 1)) != 0)
+                    && ((value >> (length * 8 - 1)) != -1))
+                length++;
+
+            byte[] bytes = new byte[length];
+
+            for (int i = 0; i < length; i++)
+                bytes[i] = (byte) (value >> ((length - 1 - i) * 8));
+            return tlv(tag, bytes);
+        }
+
+        private static byte[] tlv(int tag, byte[]... contents)
+            throws IOException
+        {
+            byte[] value = concat(contents);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            out.write(tag);
+            if (value.length < 0x80)
+                out.write(value.length);
+            else
+            {
+                out.write(0x84);
+                out.write(value.length >> 24);
+                out.write(value.length >> 16);
+                out.write(value.length >> 8);
+                out.write(value.length);
+            }
+            out.write(value);
+            return out.toByteArray();
+        }
+
+        private static byte[] concat(byte[]... arrays)
+            throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            for (byte[] array : arrays)
+                out.write(array);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A BER tag, length and value, with single byte tags as in LDAP.
+     */
+    private static class Tlv
+    {
+        final int tag;
+
+        final byte[] value;
+
+        Tlv(int tag, byte[] value)
+        {
+            this.tag = tag;
+            this.value = value;
+        }
+
+        /**
+         * Reads a TLV from a stream.
+         *
+         * @param in the stream
+         * @return the TLV or <tt>null</tt> at the end of the stream
+         * @throws IOException if reading fails
+         */
+        static Tlv read(InputStream in)
+            throws IOException
+        {
+            int tag = in.read();
+
+            if (tag < 0)
+                return null;
+
+            int length = in.read();
+
+            if (length < 0)
+                throw new EOFException();
+            if (length >= 0x80)
+            {
+                int count = length & 0x7F;
+
+                length = 0;
+                for (int i = 0; i < count; i++)
+                {
+                    int b = in.read();
+
+                    if (b < 0)
+                        throw new EOFException();
+                    length = (length << 8) | b;
+                }
+            }
+
+            byte[] value = new byte[length];
+
+            new DataInputStream(in).readFully(value);
+            return new Tlv(tag, value);
+        }
+
+        static Tlv parse(byte[] bytes)
+            throws IOException
+        {
+            return read(new ByteArrayInputStream(bytes));
+        }
+
+        /**
+         * Parses the value of a constructed TLV into the TLVs it contains.
+         */
+        List<Tlv> children()
+            throws IOException
+        {
+            InputStream in = new ByteArrayInputStream(value);
+            List<Tlv> children = new ArrayList<Tlv>();
+            Tlv child;
+
+            while ((child = read(in)) != null)
+                children.add(child);
+            return children;
+        }
+
+        String string()
+            throws IOException
+        {
+            return new String(value, "UTF-8");
+        }
+
+        long integer()
+        {
+            long result = (value.length > 0 && value[0] < 0) ? -1 : 0;
+
+            for (byte b : value)
+                result = (result << 8) | (b & 0xFF);
+            return result;
+        }
+
+        /**
+         * Encodes this TLV back.
+         */
+        byte[] encode()
+            throws IOException
+        {
+            return StubLdapServer.tlv(tag, value);
+        }
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.packetlogging;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.packetlogging.*;
+
+import org.jitsi.service.configuration.*;
+import org.jitsi.service.packetlogging.*;
+
+/**
+ * Tests that the packet logger saves the packets it is given to pcap files,
+ * with the right record headers whatever batches they are saved in, drops
+ * the newest or the oldest packets when too many are waiting and rotates its
+ * files.
+ */
+public class TestPacketLoggingService
+    extends TestCase
+{
+    /**
+     * The length of the pcap global header.
+     */
+    private static final int GLOBAL_HEADER_LENGTH = 24;
+
+    private static final byte[] LOCAL_IPV4 = { (byte) 192, (byte) 168, 0, 52 };
+
+    private static final byte[] REMOTE_IPV4 = { 10, 1, 2, 3 };
+
+    private static final byte[] LOCAL_IPV6 = new byte[16];
+
+    private static final byte[] REMOTE_IPV6 = new byte[16];
+
+    static
+    {
+        for (int i = 0; i < 16; i++)
+        {
+            LOCAL_IPV6[i] = (byte) (0x20 + i);
+            REMOTE_IPV6[i] = (byte) (0x40 + i);
+        }
+    }
+
+    /**
+     * The directory of the log files.
+     */
+    private File directory;
+
+    /**
+     * The log files, the current one first.
+     */
+    private File[] files;
+
+    /**
+     * The configuration properties of the packet logger.
+     */
+    private final Map<String, Object> properties
+        = new HashMap<String, Object>();
+
+    @Override
+    protected void setUp()
+        throws IOException
+    {
+        directory = File.createTempFile("packetlogging", ".test");
+        if (!directory.delete() || !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        files = new File[3];
+        for (int i = 0; i < files.length; i++)
+            files[i] = new File(directory, "jitsi" + i + ".pcap");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Creates a packet logger configured with {@link #properties}, saving
+     * the packets to {@link #files}.
+     *
+     * @return the packet logger
+     */
+    private PacketLoggingServiceImpl createService()
+    {
+        ConfigurationService configService
+            = (ConfigurationService) Proxy.newProxyInstance(
+                    ConfigurationService.class.getClassLoader(),
+                    new Class<?>[] { ConfigurationService.class },
+                    new InvocationHandler()
+                    {
+                        public Object invoke(
+                                Object proxy, Method method, Object[] args)
+                        {
+                            if (method.getName().startsWith("get")
+                                    && (args != null)
+                                    && (args.length == 2))
+                            {
+                                Object value = properties.get(args[0]);
+
+                                return (value == null) ? args[1] : value;
+                            }
+                            return null;
+                        }
+                    });
+
+        return
+            new PacketLoggingServiceImpl(
+                    new PacketLoggingConfigurationImpl(configService),
+                    files);
+    }
+
+    /**
+     * Logs a packet whose content is its number.
+     *
+     * @param service the packet logger
+     * @param i the number of the packet
+     */
+    private static void log(PacketLoggingService service, int i)
+    {
+        boolean ipv4 = (i % 3) != 2;
+
+        service.logPacket(
+                PacketLoggingService.ProtocolName.SIP,
+                ipv4 ? LOCAL_IPV4 : LOCAL_IPV6,
+                5060 + i % 7,
+                ipv4 ? REMOTE_IPV4 : REMOTE_IPV6,
+                5061,
+                (i % 2 == 0)
+                    ? PacketLoggingService.TransportName.UDP
+                    : PacketLoggingService.TransportName.TCP,
+                (i % 4) < 2,
+                content(i));
+    }
+
+    private static byte[] content(int i)
+    {
+        StringBuilder s = new StringBuilder("packet ").append(i);
+
+        for (int j = 0; j < i % 13; j++)
+            s.append(" padding");
+        return s.toString().getBytes();
+    }
+
+    /**
+     * Saves the queued packets by starting and stopping a packet logger.
+     *
+     * @param service the packet logger
+     */
+    private static void save(PacketLoggingServiceImpl service)
+    {
+        service.start();
+        service.stop();
+    }
+
+    /**
+     * Reads the pcap records of files, the oldest file last, and checks the
+     * fake headers of the packets.
+     *
+     * @param files the files
+     * @return the contents of the packets in the order they were saved
+     * @throws IOException if a file cannot be read
+     */
+    private static List<byte[]> readPackets(File... files)
+        throws IOException
+    {
+        List<byte[]> packets = new ArrayList<byte[]>();
+        long[] tcpSequences = { 1, 1 };
+
+        for (int f = files.length - 1; f >= 0; f--)
+        {
+            if (!files[f].exists())
+                continue;
+
+            ByteBuffer in = ByteBuffer.wrap(read(files[f]));
+
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(0xa1b2c3d4, in.getInt());
+            in.position(GLOBAL_HEADER_LENGTH);
+            while (in.hasRemaining())
+                packets.add(readPacket(in, tcpSequences));
+        }
+        return packets;
+    }
+
+    /**
+     * Reads a pcap record and checks its headers.
+     *
+     * @param in the buffer to read from, in little endian order
+     * @param tcpSequences the next sequence numbers of the packets we send
+     * and receive over TCP
+     * @return the content of the packet
+     */
+    private static byte[] readPacket(ByteBuffer in, long[] tcpSequences)
+    {
+        in.getInt();
+        in.getInt();
+
+        int inclLen = in.getInt();
+
+        assertEquals(inclLen, in.getInt());
+
+        ByteBuffer packet = ByteBuffer.allocate(inclLen);
+
+        in.get(packet.array());
+        packet.order(ByteOrder.BIG_ENDIAN);
+        packet.position(12);
+        assertEquals(0x0800, packet.getShort());
+
+        int ipStart = packet.position();
+        boolean ipv4 = (packet.get(ipStart) >> 4) == 4;
+        int protocol;
+        int transportStart;
+        byte[] source;
+        byte[] destination;
+
+        if (ipv4)
+        {
+            transportStart = ipStart + 20;
+            assertEquals(inclLen - ipStart, packet.getShort(ipStart + 2));
+            protocol = packet.get(ipStart + 9);
+            assertEquals(0, checksum(packet.array(), ipStart, 20));
+            source = new byte[4];
+            destination = new byte[4];
+            packet.position(ipStart + 12);
+        }
+        else
+        {
+            transportStart = ipStart + 40;
+            assertEquals(inclLen - transportStart,
+                    packet.getShort(ipStart + 4));
+            protocol = packet.get(ipStart + 6);
+            source = new byte[16];
+            destination = new byte[16];
+            packet.position(ipStart + 8);
+        }
+        packet.get(source);
+        packet.get(destination);
+
+        int sourcePort = packet.getShort(transportStart) & 0xffff;
+        int contentStart;
+
+        assertEquals(5061, packet.getShort(transportStart + 2));
+        if (protocol == 0x11)
+        {
+            contentStart = transportStart + 8;
+            assertEquals(inclLen - transportStart,
+                    packet.getShort(transportStart + 4));
+        }
+        else
+        {
+            assertEquals(0x06, protocol);
+            contentStart = transportStart + 32;
+        }
+
+        byte[] content = new byte[inclLen - contentStart];
+
+        packet.position(contentStart);
+        packet.get(content);
+
+        int i = Integer.parseInt(new String(content).split(" ")[1]);
+
+        assertEquals(5060 + i % 7, sourcePort);
+        assertEquals((i % 2 == 0) ? 0x11 : 0x06, protocol);
+        assertEquals((i % 3) != 2, ipv4);
+        assertTrue(Arrays.equals(ipv4 ? LOCAL_IPV4 : LOCAL_IPV6, source));
+        assertTrue(
+                Arrays.equals(ipv4 ? REMOTE_IPV4 : REMOTE_IPV6, destination));
+        if (protocol == 0x06)
+        {
+            int sent = (i % 4) < 2 ? 0 : 1;
+
+            assertEquals((int) tcpSequences[sent],
+                    packet.getInt(transportStart + 4));
+            assertEquals((int) tcpSequences[1 - sent],
+                    packet.getInt(transportStart + 8));
+            tcpSequences[sent] += content.length;
+        }
+        return content;
+    }
+
+    /**
+     * Computes the internet checksum of a header, which is <tt>0</tt> over a
+     * header with its checksum.
+     */
+    private static int checksum(byte[] data, int offset, int length)
+    {
+        int total = 0;
+
+        for (int i = offset; i < offset + length; i += 2)
+            total += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+        while ((total >>> 16) != 0)
+            total = (total & 0xffff) + (total >>> 16);
+        return ~total & 0xffff;
+    }
+
+    /**
+     * Asserts that packets have the contents of consecutively numbered
+     * packets.
+     *
+     * @param first the number of the first packet
+     * @param count the number of packets
+     * @param packets the contents of the packets
+     */
+    private static void assertPackets(int first, int count,
+                                      List<byte[]> packets)
+    {
+        assertEquals(count, packets.size());
+        for (int i = 0; i < count; i++)
+        {
+            assertEquals(new String(content(first + i)),
+                    new String(packets.get(i)));
+        }
+    }
+
+    /**
+     * Packets saved in several batches, over TCP and UDP, IPv4 and IPv6, are
+     * saved in order with the right fake headers.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testBatchedRecordHeaders()
+        throws Exception
+    {
+        PacketLoggingServiceImpl service = createService();
+
+        for (int i = 0; i < 300; i++)
+            log(service, i);
+        save(service);
+
+        assertPackets(0, 300, readPackets(files));
+        assertEquals(0, service.getDroppedPacketCount());
+        assertFalse(files[1].exists());
+    }
+
+    /**
+     * Packets logged while the saver thread runs are all saved.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testConcurrentSaving()
+        throws Exception
+    {
+        PacketLoggingServiceImpl service = createService();
+
+        service.start();
+        for (int i = 0; i < 2000; i++)
+        {
+            log(service, i);
+            if (i % 100 == 0)
+                Thread.sleep(1);
+        }
+        service.stop();
+
+        assertPackets(0, 2000, readPackets(files));
+    }
+
+    /**
+     * When too many packets are waiting, the new packets are dropped by
+     * default and counted.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDropNewest()
+        throws Exception
+    {
+        properties.put(
+                PacketLoggingConfigurationImpl
+                    .PACKET_LOGGING_QUEUE_SIZE_PROPERTY_NAME,
+                16);
+
+        PacketLoggingServiceImpl service = createService();
+
+        for (int i = 0; i < 40; i++)
+            log(service, i);
+        assertEquals(24, service.getDroppedPacketCount());
+        save(service);
+
+        assertPackets(0, 16, readPackets(files));
+    }
+
+    /**
+     * When configured to, the packets waiting the longest are dropped to
+     * make room for the new ones, and counted.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testDropOldest()
+        throws Exception
+    {
+        properties.put(
+                PacketLoggingConfigurationImpl
+                    .PACKET_LOGGING_QUEUE_SIZE_PROPERTY_NAME,
+                16);
+        properties.put(
+                PacketLoggingConfigurationImpl
+                    .PACKET_LOGGING_DROP_OLDEST_PROPERTY_NAME,
+                true);
+
+        PacketLoggingServiceImpl service = createService();
+
+        for (int i = 0; i < 40; i++)
+            log(service, i);
+        assertEquals(24, service.getDroppedPacketCount());
+        save(service);
+
+        assertPackets(24, 16, readPackets(files));
+    }
+
+    /**
+     * Writes a batch of a single record.
+     *
+     * @param writer the writer
+     * @param record the record
+     * @throws IOException if writing fails
+     */
+    private static void write(PcapFileWriter writer, String record)
+        throws IOException
+    {
+        writer.write(
+                new ByteBuffer[] { ByteBuffer.wrap(record.getBytes()) }, 1);
+    }
+
+    /**
+     * Asserts that a file holds the global header and records.
+     *
+     * @param records the records
+     * @param file the file
+     * @throws IOException if the file cannot be read
+     */
+    private static void assertRecords(String records, File file)
+        throws IOException
+    {
+        byte[] bytes = read(file);
+
+        assertEquals(records,
+                new String(
+                        bytes,
+                        GLOBAL_HEADER_LENGTH,
+                        bytes.length - GLOBAL_HEADER_LENGTH));
+    }
+
+    /**
+     * Once the current file is over the size limit, the files are shifted
+     * and the next batch goes to a new file, the oldest file being dropped.
+     * A batch is written with a single gathering write.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testSizeRotation()
+        throws Exception
+    {
+        PcapFileWriter writer = new PcapFileWriter(files, 40, 0);
+        String padding = "..............";
+        String large = padding + padding;
+
+        try
+        {
+            write(writer, "a");
+            // up to the limit, not over it
+            writer.write(
+                    new ByteBuffer[]
+                    {
+                        ByteBuffer.wrap("b".getBytes()),
+                        ByteBuffer.wrap(padding.getBytes())
+                    },
+                    2);
+            write(writer, "c");
+            assertFalse(files[1].exists());
+            write(writer, "d" + large);
+            write(writer, "e" + large);
+            assertRecords("e" + large, files[0]);
+            assertRecords("d" + large, files[1]);
+            assertRecords("ab" + padding + "c", files[2]);
+
+            write(writer, "f" + large);
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        assertRecords("f" + large, files[0]);
+        assertRecords("e" + large, files[1]);
+        assertRecords("d" + large, files[2]);
+    }
+
+    /**
+     * The current file is rotated once it has been written to for longer
+     * than the rotation interval, even if it is small.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testIntervalRotation()
+        throws Exception
+    {
+        PcapFileWriter writer = new PcapFileWriter(files, 0, 50);
+
+        try
+        {
+            writer.write(
+                    new ByteBuffer[] { ByteBuffer.wrap("first".getBytes()) },
+                    1);
+            writer.write(
+                    new ByteBuffer[] { ByteBuffer.wrap("second".getBytes()) },
+                    1);
+            assertFalse(files[1].exists());
+            Thread.sleep(100);
+            writer.write(
+                    new ByteBuffer[] { ByteBuffer.wrap("third".getBytes()) },
+                    1);
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        assertEquals("firstsecond",
+                new String(read(files[1]), GLOBAL_HEADER_LENGTH, 11));
+        assertEquals("third",
+                new String(read(files[0]), GLOBAL_HEADER_LENGTH, 5));
+    }
+
+    /**
+     * The packets saved by a packet logger with a size limit are spread over
+     * its files without being lost or reordered.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testServiceRotation()
+        throws Exception
+    {
+        properties.put(
+                PacketLoggingConfiguration
+                    .PACKET_LOGGING_FILE_SIZE_PROPERTY_NAME,
+                2000L);
+
+        PacketLoggingServiceImpl service = createService();
+
+        for (int i = 0; i < 100; i++)
+            log(service, i);
+        save(service);
+
+        assertTrue(files[1].exists());
+        assertPackets(0, 100, readPackets(files));
+    }
+
+    private static byte[] read(File file)
+        throws IOException
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try
+        {
+            in.readFully(bytes);
+        }
+        finally
+        {
+            in.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.packetlogging;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.packetlogging.*;
+
+/**
+ * Tests the bounded lock-free queue the packet logger queues the packets to
+ * save in.
+ */
+public class TestPacketQueue
+    extends TestCase
+{
+    /**
+     * The capacity is rounded up to a power of two.
+     */
+    public void testCapacity()
+    {
+        assertEquals(1, new PacketQueue<Integer>(1).capacity());
+        assertEquals(8, new PacketQueue<Integer>(5).capacity());
+        assertEquals(8, new PacketQueue<Integer>(8).capacity());
+        assertEquals(4096, new PacketQueue<Integer>(4000).capacity());
+    }
+
+    /**
+     * A queue takes as many elements as its capacity, refuses more while it
+     * is full and gives them back in order until it is empty.
+     */
+    public void testFullAndEmpty()
+    {
+        PacketQueue<Integer> queue = new PacketQueue<Integer>(8);
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        for (int i = 0; i < 8; i++)
+            assertTrue(queue.offer(i));
+        assertFalse(queue.offer(8));
+        assertFalse(queue.isEmpty());
+
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(8));
+        assertFalse(queue.offer(9));
+
+        for (int i = 1; i <= 8; i++)
+            assertEquals(Integer.valueOf(i), queue.poll());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    /**
+     * The positions of the queue wrap around its slots many times without
+     * losing or reordering elements, whatever the number of elements in the
+     * queue when they do.
+     */
+    public void testWrapAround()
+    {
+        PacketQueue<Integer> queue = new PacketQueue<Integer>(4);
+        int next = 0;
+        int expected = 0;
+
+        for (int round = 0; round < 1000; round++)
+        {
+            int puts = 1 + round % 4;
+
+            for (int i = 0; i < puts; i++)
+            {
+                if (queue.offer(next))
+                    next++;
+            }
+
+            int polls = 1 + (round * 7) % 4;
+
+            for (int i = 0; i < polls; i++)
+            {
+                Integer element = queue.poll();
+
+                if (element == null)
+                    break;
+                assertEquals(expected++, element.intValue());
+            }
+        }
+
+        Integer element;
+
+        while ((element = queue.poll()) != null)
+            assertEquals(expected++, element.intValue());
+        assertEquals(next, expected);
+        assertTrue(next > 1000);
+    }
+
+    /**
+     * Draining takes out at most the requested number of elements, in order.
+     */
+    public void testDrainTo()
+    {
+        PacketQueue<Integer> queue = new PacketQueue<Integer>(16);
+        Integer[] batch = new Integer[16];
+
+        assertEquals(0, queue.drainTo(batch, 16));
+        for (int i = 0; i < 10; i++)
+            queue.offer(i);
+
+        assertEquals(4, queue.drainTo(batch, 4));
+        for (int i = 0; i < 4; i++)
+            assertEquals(Integer.valueOf(i), batch[i]);
+        assertEquals(6, queue.drainTo(batch, 16));
+        for (int i = 0; i < 6; i++)
+            assertEquals(Integer.valueOf(4 + i), batch[i]);
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Elements offered by several producers to a small queue, while several
+     * consumers take them out, are all taken out exactly once, each consumer
+     * seeing the elements of a producer in the order they were offered.
+     *
+     * @throws Exception if a thread is interrupted
+     */
+    public void testConcurrentProducersAndConsumers()
+        throws Exception
+    {
+        final int producerCount = 4;
+        final int consumerCount = 3;
+        final int elementCount = 50000;
+        final PacketQueue<long[]> queue = new PacketQueue<long[]>(64);
+        final AtomicInteger consumed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures
+            = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Set<Long> seen
+            = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int p = 0; p < producerCount; p++)
+        {
+            final int producer = p;
+
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < elementCount; i++)
+                        {
+                            long[] element = { producer, i };
+
+                            while (!queue.offer(element))
+                                Thread.yield();
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        failures.add(t);
+                    }
+                }
+            });
+        }
+        for (int c = 0; c < consumerCount; c++)
+        {
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    long[] last = new long[producerCount];
+
+                    Arrays.fill(last, -1);
+                    try
+                    {
+                        start.await();
+                        while (consumed.get() < producerCount * elementCount)
+                        {
+                            long[] element = queue.poll();
+
+                            if (element == null)
+                            {
+                                Thread.yield();
+                                continue;
+                            }
+                            consumed.incrementAndGet();
+
+                            int producer = (int) element[0];
+
+                            assertTrue(element[1] > last[producer]);
+                            last[producer] = element[1];
+                            assertTrue(
+                                    seen.add(
+                                        element[0] * elementCount
+                                            + element[1]));
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        failures.add(t);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join(60000);
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(producerCount * elementCount, consumed.get());
+        assertEquals(producerCount * elementCount, seen.size());
+        assertTrue(queue.isEmpty());
+    }
+}
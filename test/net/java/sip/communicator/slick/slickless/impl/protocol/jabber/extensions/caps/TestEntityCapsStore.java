@@ -0,0 +1,476 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.protocol.jabber.extensions.caps;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.jabber.extensions.caps.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Tests the file the entity capabilities are remembered in across
+ * application instances: its records, the recovery of a truncated tail, the
+ * expiry and the bounding of the entries, the rewriting of the file and the
+ * migration of the capabilities remembered in the configuration before.
+ */
+public class TestEntityCapsStore
+    extends TestCase
+{
+    /**
+     * The value identifying the format of the file.
+     */
+    private static final int MAGIC = 0x43415053;
+
+    private static final byte PUT = 1;
+
+    private static final byte TOUCH = 2;
+
+    private static final byte REMOVE = 3;
+
+    /**
+     * The prefix of the configuration properties the entity capabilities were
+     * remembered in.
+     */
+    private static final String CAPS_PROPERTY_NAME_PREFIX
+        = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
+            + "EntityCapsManager.CAPS.";
+
+    private static final String KEY1 = "http://jitsi.org#sha-1#k1=";
+
+    private static final String KEY2 = "http://pidgin.im#sha-1#k2=";
+
+    private static final String KEY3 = "http://psi-im.org#sha-1#k3=";
+
+    private static final String XML1
+        = "<query xmlns=\"http://jabber.org/protocol/disco#info\">"
+            + "<feature var=\"urn:xmpp:jingle:1\"/></query>";
+
+    private static final String XML2
+        = "<query xmlns=\"http://jabber.org/protocol/disco#info\">"
+            + "<identity category=\"client\" type=\"pc\" name=\"\u00e9\"/>"
+            + "</query>";
+
+    private static final String XML3
+        = "<query xmlns=\"http://jabber.org/protocol/disco#info\"/>";
+
+    /**
+     * The directory of {@link #file}.
+     */
+    private File directory;
+
+    /**
+     * The file of the stores.
+     */
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws IOException
+    {
+        directory = File.createTempFile("entitycaps", ".test");
+        if (!directory.delete() || !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        file = new File(directory, "entitycaps.bin");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete(directory);
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Returns the current day as the store counts them.
+     */
+    private static int today()
+    {
+        return (int) (System.currentTimeMillis() / (24L * 60 * 60 * 1000));
+    }
+
+    /**
+     * Writes a record the way the store does.
+     */
+    private static void writeRecord(DataOutputStream out, byte type,
+                                    String key, int day, String xml)
+        throws IOException
+    {
+        byte[] keyBytes = key.getBytes("UTF-8");
+
+        out.writeByte(type);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(day);
+        if (type == PUT)
+        {
+            byte[] xmlBytes = xml.getBytes("UTF-8");
+
+            out.writeInt(xmlBytes.length);
+            out.write(xmlBytes);
+        }
+    }
+
+    private static byte[] readFile(File file)
+        throws IOException
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try
+        {
+            in.readFully(bytes);
+        }
+        finally
+        {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * The file starts with the magic number and an entry is added, marked as
+     * used at most once a day and removed by appending records to it, which
+     * another store reads back.
+     *
+     * @throws IOException if the file cannot be read or written
+     */
+    public void testRecords()
+        throws IOException
+    {
+        EntityCapsStore store = new EntityCapsStore(file);
+        int today = today();
+
+        assertEquals(0, store.size());
+        assertFalse(file.exists());
+
+        store.put(KEY1, XML1);
+        store.put(KEY2, XML2);
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML2, store.get(KEY2));
+        store.remove(KEY1);
+        assertFalse(store.contains(KEY1));
+        assertNull(store.get(KEY1));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(expected);
+
+        out.writeInt(MAGIC);
+        writeRecord(out, PUT, KEY1, today, XML1);
+        writeRecord(out, PUT, KEY2, today, XML2);
+        writeRecord(out, REMOVE, KEY1, 0, null);
+        out.close();
+        assertTrue(Arrays.equals(expected.toByteArray(), readFile(file)));
+
+        store = new EntityCapsStore(file);
+        assertEquals(1, store.size());
+        assertFalse(store.contains(KEY1));
+        assertEquals(XML2, store.get(KEY2));
+
+        // without a file, the entries are kept in memory
+        store = new EntityCapsStore(null);
+        store.put(KEY3, XML3);
+        assertEquals(XML3, store.get(KEY3));
+        assertEquals(1, store.size());
+    }
+
+    /**
+     * A record cut short when the application stopped is dropped with the
+     * rest of the file, the file being rewritten so that the records
+     * appended after it are read back.
+     *
+     * @throws IOException if the file cannot be read or written
+     */
+    public void testTruncatedTail()
+        throws IOException
+    {
+        EntityCapsStore store = new EntityCapsStore(file);
+
+        store.put(KEY1, XML1);
+        store.put(KEY2, XML2);
+        store.put(KEY3, XML3);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try
+        {
+            raf.setLength(raf.length() - 3);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        store = new EntityCapsStore(file);
+        assertEquals(2, store.size());
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML2, store.get(KEY2));
+        assertFalse(store.contains(KEY3));
+        store.put(KEY3, XML3);
+
+        store = new EntityCapsStore(file);
+        assertEquals(3, store.size());
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML2, store.get(KEY2));
+        assertEquals(XML3, store.get(KEY3));
+
+        // a record cut in its key
+        raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.seek(raf.length());
+            raf.writeByte(PUT);
+            raf.writeShort(100);
+            raf.write("http://".getBytes("UTF-8"));
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertEquals(3, new EntityCapsStore(file).size());
+    }
+
+    /**
+     * The entries which have not been used for {@link
+     * EntityCapsStore#EXPIRY_DAYS} days are dropped when the file is read, a
+     * later use of an entry counting as much as its addition.
+     *
+     * @throws IOException if the file cannot be read or written
+     */
+    public void testExpiry()
+        throws IOException
+    {
+        int today = today();
+        DataOutputStream out
+            = new DataOutputStream(new FileOutputStream(file));
+
+        try
+        {
+            out.writeInt(MAGIC);
+            writeRecord(out, PUT, KEY1,
+                    today - EntityCapsStore.EXPIRY_DAYS - 1, XML1);
+            writeRecord(out, PUT, KEY2,
+                    today - EntityCapsStore.EXPIRY_DAYS, XML2);
+            writeRecord(out, PUT, KEY3, today - 200, XML3);
+            writeRecord(out, TOUCH, KEY3, today - 10, null);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        long length = file.length();
+        EntityCapsStore store = new EntityCapsStore(file);
+
+        assertEquals(2, store.size());
+        assertFalse(store.contains(KEY1));
+        assertTrue(store.contains(KEY2));
+        assertTrue(store.contains(KEY3));
+        // the file has been rewritten without the expired entry
+        assertTrue(file.length() < length);
+
+        // getting the entry marks it as used today
+        assertEquals(XML2, store.get(KEY2));
+        store = new EntityCapsStore(file);
+        assertEquals(XML2, store.get(KEY2));
+        assertEquals(XML3, store.get(KEY3));
+    }
+
+    /**
+     * There are at most {@link EntityCapsStore#MAX_ENTRIES} entries, the
+     * least recently used being dropped first, in memory and in the file.
+     *
+     * @throws IOException if the file cannot be read or written
+     */
+    public void testLeastRecentlyUsedDropped()
+        throws IOException
+    {
+        EntityCapsStore store = new EntityCapsStore(file);
+        int count = EntityCapsStore.MAX_ENTRIES + 10;
+
+        for (int i = 0; i < count; i++)
+        {
+            store.put("node#sha-1#" + i, "<query>" + i + "</query>");
+            // the first entries stay in use
+            if (i >= EntityCapsStore.MAX_ENTRIES - 5)
+            {
+                for (int j = 0; j < 5; j++)
+                    assertNotNull(store.get("node#sha-1#" + j));
+            }
+        }
+
+        assertEquals(EntityCapsStore.MAX_ENTRIES, store.size());
+        for (EntityCapsStore s
+                : new EntityCapsStore[] { store, new EntityCapsStore(file) })
+        {
+            assertEquals(EntityCapsStore.MAX_ENTRIES, s.size());
+            for (int i = 0; i < count; i++)
+            {
+                String key = "node#sha-1#" + i;
+                boolean dropped = (i >= 5) && (i < 15);
+
+                assertEquals(key, !dropped, s.contains(key));
+                if (!dropped)
+                    assertEquals("<query>" + i + "</query>", s.get(key));
+            }
+        }
+    }
+
+    /**
+     * The file is rewritten through a temporary file once the superseded
+     * records take more space than the live ones, and a failed rewrite leaves
+     * the file as it was.
+     *
+     * @throws IOException if the file cannot be read or written
+     */
+    public void testRewrite()
+        throws IOException
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        EntityCapsStore store = new EntityCapsStore(file);
+        long maxLength = 0;
+
+        store.put(KEY1, XML1);
+        for (int i = 0; i < 200; i++)
+        {
+            store.put(KEY2, XML2 + i);
+            maxLength = Math.max(maxLength, file.length());
+        }
+        assertTrue(maxLength < 2 * 4096);
+        assertFalse(tmpFile.exists());
+
+        store = new EntityCapsStore(file);
+        assertEquals(2, store.size());
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML2 + 199, store.get(KEY2));
+
+        // the temporary file cannot be written
+        if (!tmpFile.mkdir() || !new File(tmpFile, "busy").createNewFile())
+            throw new IOException("Could not create " + tmpFile);
+        for (int i = 0; i < 200; i++)
+            store.put(KEY3, XML3 + i);
+        assertTrue(file.length() > 8192);
+
+        store = new EntityCapsStore(file);
+        assertEquals(3, store.size());
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML2 + 199, store.get(KEY2));
+        assertEquals(XML3 + 199, store.get(KEY3));
+        assertTrue(tmpFile.isDirectory());
+
+        // the next rewrite succeeds
+        delete(tmpFile);
+        store.put(KEY3, XML3);
+        assertTrue(file.length() < 4096);
+        assertFalse(tmpFile.exists());
+
+        store = new EntityCapsStore(file);
+        assertEquals(3, store.size());
+        assertEquals(XML3, store.get(KEY3));
+    }
+
+    /**
+     * The entity capabilities remembered in the configuration by previous
+     * versions are moved to the store, the properties being removed with a
+     * single save of the configuration.
+     */
+    public void testMigrateCapsProperties()
+    {
+        final Map<String, Object> properties
+            = new TreeMap<String, Object>();
+        final List<Map<String, Object>> saves
+            = new ArrayList<Map<String, Object>>();
+
+        properties.put(CAPS_PROPERTY_NAME_PREFIX + KEY1, XML1);
+        properties.put(CAPS_PROPERTY_NAME_PREFIX + KEY2, XML2);
+        properties.put(CAPS_PROPERTY_NAME_PREFIX + KEY3, "");
+        properties.put("net.java.sip.communicator.impl.gui.other", "value");
+
+        ConfigurationService configService
+            = (ConfigurationService) Proxy.newProxyInstance(
+                    ConfigurationService.class.getClassLoader(),
+                    new Class<?>[] { ConfigurationService.class },
+                    new InvocationHandler()
+                    {
+                        @SuppressWarnings("unchecked")
+                        public Object invoke(
+                                Object proxy, Method method, Object[] args)
+                        {
+                            String name = method.getName();
+
+                            if (name.equals("getPropertyNamesByPrefix"))
+                            {
+                                List<String> names = new ArrayList<String>();
+
+                                for (String p : properties.keySet())
+                                {
+                                    if (p.startsWith((String) args[0]))
+                                        names.add(p);
+                                }
+                                return names;
+                            }
+                            else if (name.equals("getString"))
+                                return properties.get(args[0]);
+                            else if (name.equals("setProperties"))
+                            {
+                                Map<String, Object> save
+                                    = (Map<String, Object>) args[0];
+
+                                saves.add(save);
+                                for (Map.Entry<String, Object> e
+                                        : save.entrySet())
+                                {
+                                    if (e.getValue() == null)
+                                        properties.remove(e.getKey());
+                                    else
+                                        properties.put(
+                                                e.getKey(), e.getValue());
+                                }
+                                return null;
+                            }
+                            throw new UnsupportedOperationException(name);
+                        }
+                    });
+        EntityCapsStore store = new EntityCapsStore(file);
+
+        // an entry already in the store is kept
+        store.put(KEY2, XML3);
+        EntityCapsManager.migrateCapsProperties(configService, store);
+
+        assertEquals(1, saves.size());
+        assertEquals(
+                Collections.singleton(
+                        "net.java.sip.communicator.impl.gui.other"),
+                properties.keySet());
+        assertEquals(2, store.size());
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML3, store.get(KEY2));
+        assertFalse(store.contains(KEY3));
+
+        store = new EntityCapsStore(file);
+        assertEquals(XML1, store.get(KEY1));
+        assertEquals(XML3, store.get(KEY2));
+
+        // nothing left to migrate
+        EntityCapsManager.migrateCapsProperties(configService, store);
+        assertEquals(1, saves.size());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.protocol.sip;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.protocol.sip.*;
+
+/**
+ * Measures the time reading the PIDF bodies of a corpus of presence NOTIFYs
+ * takes with <tt>PresenceDocumentReader</tt>, compared to the parsing and the
+ * walk of their DOM tree done before. Both describe what they read the same
+ * way, so that they do the same work besides the reading and their results
+ * can be compared. It is not part of the tests and is run on its own with the
+ * test classes and the libraries on the class path.
+ */
+public class PresenceDocumentReaderBenchmark
+{
+    /**
+     * The number of documents of the corpus.
+     */
+    private static final int CORPUS_SIZE = 200;
+
+    /**
+     * The number of times the corpus is read in a measurement.
+     */
+    private static final int ROUNDS = 50;
+
+    /**
+     * The number of measurements, the first ones of which warm the JIT up.
+     */
+    private static final int MEASUREMENTS = 8;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     * @throws Exception if a document cannot be read
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        List<String> corpus
+            = PresenceDocuments.corpus(CORPUS_SIZE, 20130611L);
+        int mismatches = 0;
+        long bytes = 0;
+
+        for (String document : corpus)
+        {
+            bytes += document.length();
+            if (!PresenceDocuments.walkPresence(document).equals(
+                    PresenceDocuments.describe(
+                            PresenceDocumentReader.readPresence(document))))
+                mismatches++;
+        }
+
+        long bestStax = Long.MAX_VALUE;
+        long bestDom = Long.MAX_VALUE;
+        int hash = 0;
+
+        for (int m = 0; m < MEASUREMENTS; m++)
+        {
+            long start = System.nanoTime();
+
+            for (int r = 0; r < ROUNDS; r++)
+            {
+                for (String document : corpus)
+                {
+                    hash
+                        += PresenceDocuments.describe(
+                                PresenceDocumentReader.readPresence(document))
+                            .length();
+                }
+            }
+
+            long middle = System.nanoTime();
+
+            for (int r = 0; r < ROUNDS; r++)
+            {
+                for (String document : corpus)
+                    hash += PresenceDocuments.walkPresence(document).length();
+            }
+
+            long end = System.nanoTime();
+
+            bestStax = Math.min(bestStax, middle - start);
+            bestDom = Math.min(bestDom, end - middle);
+        }
+
+        System.out.println(
+                corpus.size() + " documents of " + (bytes / corpus.size())
+                    + " characters on average, " + mismatches
+                    + " read differently (" + hash + ")");
+        print("StAX reader", bestStax);
+        print("DOM walk", bestDom);
+    }
+
+    /**
+     * Prints the time reading a document takes.
+     *
+     * @param name the name of the way the documents are read
+     * @param time the best time of {@link #ROUNDS} readings of the corpus in
+     * nanoseconds
+     */
+    private static void print(String name, long time)
+    {
+        System.out.println(
+                name + ": "
+                    + String.format(
+                            "%.2f",
+                            time / (ROUNDS * CORPUS_SIZE * 1000.0))
+                    + " us per document");
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.protocol.sip;
+
+import java.util.*;
+
+import net.java.sip.communicator.impl.protocol.sip.*;
+
+import org.jitsi.util.xml.XMLUtils;
+import org.w3c.dom.*;
+
+/**
+ * Describes what <tt>OperationSetPresenceSipImpl</tt> uses from PIDF and
+ * watcherinfo documents, either as read by <tt>PresenceDocumentReader</tt> or
+ * as read by the walk of the DOM tree of the documents it did before, and
+ * generates a corpus of PIDF documents like the ones of presence NOTIFYs.
+ */
+class PresenceDocuments
+{
+    static final String PIDF_NS = "urn:ietf:params:xml:ns:pidf";
+
+    static final String RPID_NS = "urn:ietf:params:xml:ns:pidf:rpid";
+
+    static final String DM_NS = "urn:ietf:params:xml:ns:pidf:data-model";
+
+    static final String WATCHERINFO_NS = "urn:ietf:params:xml:ns:watcherinfo";
+
+    private static final String ANY_NS = "*";
+
+    /**
+     * Describes a presence read by <tt>PresenceDocumentReader</tt>.
+     *
+     * @param presence the presence or <tt>null</tt>
+     * @return the description of <tt>presence</tt>
+     */
+    static String describe(PresenceDocumentReader.Presence presence)
+    {
+        if (presence == null)
+            return null;
+
+        StringBuilder s = new StringBuilder();
+
+        appendPresence(s, presence.entity, presence.activity,
+                presence.statusIcon);
+        for (PresenceDocumentReader.Tuple tuple : presence.tuples)
+        {
+            List<String> contacts = new ArrayList<String>();
+
+            for (PresenceDocumentReader.TupleContact contact : tuple.contacts)
+                contacts.add(contact.uri + ";" + nonNull(contact.priority));
+            appendTuple(s, contacts, tuple.hasStatus, tuple.basic,
+                    tuple.notes);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Describes the watchers of a resource read by
+     * <tt>PresenceDocumentReader</tt>.
+     *
+     * @param watcherInfo the watcherinfo or <tt>null</tt>
+     * @param resource the URI of the resource
+     * @return the description of the watchers of <tt>resource</tt>
+     */
+    static String describe(PresenceDocumentReader.WatcherInfo watcherInfo,
+                           String resource)
+    {
+        if (watcherInfo == null)
+            return null;
+
+        StringBuilder s = new StringBuilder();
+        PresenceDocumentReader.WatcherList watcherList
+            = watcherInfo.getWatcherList(resource);
+
+        s.append(watcherInfo.state).append(' ').append(watcherInfo.version)
+            .append('\n');
+        if (watcherList != null)
+        {
+            s.append(nonNull(watcherList.eventPackage)).append('\n');
+            for (PresenceDocumentReader.Watcher watcher : watcherList.watchers)
+            {
+                s.append(nonNull(watcher.status)).append(' ')
+                    .append(nonNull(watcher.uri)).append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Describes a PIDF document by walking its DOM tree the way
+     * <tt>OperationSetPresenceSipImpl</tt> did before it used
+     * <tt>PresenceDocumentReader</tt>.
+     *
+     * @param document the PIDF document
+     * @return the description of <tt>document</tt> or <tt>null</tt> if it has
+     * no presence element
+     * @throws Exception if <tt>document</tt> cannot be parsed
+     */
+    static String walkPresence(String document)
+        throws Exception
+    {
+        Document doc = XMLUtils.createDocument(document);
+        NodeList presList = doc.getElementsByTagNameNS(PIDF_NS, "presence");
+
+        if (presList.getLength() == 0)
+        {
+            presList = doc.getElementsByTagNameNS(ANY_NS, "presence");
+            if (presList.getLength() == 0)
+                return null;
+        }
+
+        Element presence = (Element) presList.item(0);
+        String activity = null;
+        String statusIcon = null;
+        NodeList personList
+            = presence.getElementsByTagNameNS(ANY_NS, "person");
+
+        if (personList.getLength() > 0)
+        {
+            Element person = (Element) personList.item(0);
+            NodeList activityList
+                = person.getElementsByTagNameNS(ANY_NS, "activities");
+
+            // the first known activity of the first activities having one
+            for (int i = 0;
+                    (i < activityList.getLength()) && (activity == null);
+                    i++)
+            {
+                NodeList statusList = activityList.item(i).getChildNodes();
+
+                for (int j = 0; j < statusList.getLength(); j++)
+                {
+                    Node statusNode = statusList.item(j);
+
+                    if (statusNode.getNodeType() != Node.ELEMENT_NODE)
+                        continue;
+
+                    String statusName = statusNode.getLocalName();
+
+                    if (PresenceDocumentReader.Presence.AWAY.equals(statusName)
+                            || PresenceDocumentReader.Presence.BUSY.equals(
+                                    statusName)
+                            || PresenceDocumentReader.Presence.ON_THE_PHONE
+                                    .equals(statusName))
+                    {
+                        activity = statusName;
+                        break;
+                    }
+                }
+            }
+
+            NodeList statusIconList
+                = person.getElementsByTagNameNS(ANY_NS, "status-icon");
+
+            if (statusIconList.getLength() > 0)
+                statusIcon = getTextContent((Element) statusIconList.item(0));
+        }
+
+        StringBuilder s = new StringBuilder();
+
+        appendPresence(s, presence.getAttribute("entity"), activity,
+                statusIcon);
+
+        NodeList tupleList = getPidfChilds(presence, "tuple");
+
+        for (int i = 0; i < tupleList.getLength(); i++)
+        {
+            Element tuple = (Element) tupleList.item(i);
+            NodeList contactList = getPidfChilds(tuple, "contact");
+            List<String> contacts = new ArrayList<String>();
+
+            for (int j = 0; j < contactList.getLength(); j++)
+            {
+                Element contact = (Element) contactList.item(j);
+
+                contacts.add(
+                        getTextContent(contact) + ";"
+                            + contact.getAttribute("priority"));
+            }
+
+            // the last status and the last basic of the status win
+            NodeList statusList = getPidfChilds(tuple, "status");
+            Element status
+                = (statusList.getLength() == 0)
+                    ? null
+                    : (Element) statusList.item(statusList.getLength() - 1);
+            String basic = null;
+
+            if (status != null)
+            {
+                NodeList basicList = getPidfChilds(status, "basic");
+
+                if (basicList.getLength() != 0)
+                {
+                    basic
+                        = getTextContent(
+                                (Element)
+                                    basicList.item(
+                                            basicList.getLength() - 1));
+                }
+            }
+
+            NodeList noteList = getPidfChilds(tuple, "note");
+            List<String> notes = new ArrayList<String>();
+
+            for (int j = 0; j < noteList.getLength(); j++)
+                notes.add(getTextContent((Element) noteList.item(j)));
+
+            appendTuple(s, contacts, status != null, basic, notes);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Describes the watchers of a resource in a watcherinfo document by
+     * walking its DOM tree the way <tt>OperationSetPresenceSipImpl</tt> did
+     * before it used <tt>PresenceDocumentReader</tt>.
+     *
+     * @param document the watcherinfo document
+     * @param resource the URI of the resource
+     * @return the description of the watchers of <tt>resource</tt> or
+     * <tt>null</tt> if <tt>document</tt> has no watcherinfo element
+     * @throws Exception if <tt>document</tt> cannot be parsed
+     */
+    static String walkWatcherInfo(String document, String resource)
+        throws Exception
+    {
+        Document doc = XMLUtils.createDocument(document);
+        NodeList watchList
+            = doc.getElementsByTagNameNS(WATCHERINFO_NS, "watcherinfo");
+
+        if (watchList.getLength() == 0)
+        {
+            watchList = doc.getElementsByTagNameNS(ANY_NS, "watcherinfo");
+            if (watchList.getLength() == 0)
+                return null;
+        }
+
+        Element watcherInfo = (Element) watchList.item(0);
+        StringBuilder s = new StringBuilder();
+        Element wlist
+            = XMLUtils.locateElement(
+                    watcherInfo, "watcher-list", "resource", resource);
+
+        s.append(watcherInfo.getAttribute("state")).append(' ')
+            .append(watcherInfo.getAttribute("version")).append('\n');
+        if (wlist != null)
+        {
+            s.append(wlist.getAttribute("package")).append('\n');
+
+            NodeList watcherList
+                = wlist.getElementsByTagNameNS(ANY_NS, "watcher");
+
+            for (int i = 0; i < watcherList.getLength(); i++)
+            {
+                Element watcher = (Element) watcherList.item(i);
+
+                s.append(watcher.getAttribute("status")).append(' ')
+                    .append(getTextContent(watcher)).append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * Generates PIDF documents like the ones of presence NOTIFYs: in the PIDF
+     * namespace, with a prefix for it or without a namespace, with one to
+     * three tuples with a contact or two, notes, several statuses and an RPID
+     * person with an activity and a status icon.
+     *
+     * @param size the number of documents
+     * @param seed the seed of the generation
+     * @return the documents
+     */
+    static List<String> corpus(int size, long seed)
+    {
+        Random random = new Random(seed);
+        String[] basics = { "open", "closed" };
+        String[] activities
+            = {
+                null,
+                PresenceDocumentReader.Presence.AWAY,
+                PresenceDocumentReader.Presence.BUSY,
+                PresenceDocumentReader.Presence.ON_THE_PHONE,
+                "meeting"
+            };
+        String[] notes = { null, "Online", "Away", "Busy (DND)", "Offline" };
+        List<String> corpus = new ArrayList<String>(size);
+
+        for (int i = 0; i < size; i++)
+        {
+            String entity = "sip:user" + i + "@example.com";
+            int style = random.nextInt(3);
+            // the PIDF prefix with the colon, if any
+            String p = (style == 1) ? "p:" : "";
+            StringBuilder s
+                = new StringBuilder(
+                        "<?xml version=\"1.0\" encoding=\"UTF-8\""
+                            + " standalone=\"no\"?>\n");
+
+            s.append('<').append(p).append("presence");
+            if (style == 0)
+                s.append(" xmlns=\"").append(PIDF_NS).append('"');
+            else if (style == 1)
+                s.append(" xmlns:p=\"").append(PIDF_NS).append('"');
+            s.append(" xmlns:dm=\"").append(DM_NS).append('"')
+                .append(" xmlns:rpid=\"").append(RPID_NS).append('"')
+                .append(" entity=\"").append(entity).append("\">\n");
+
+            String activity = activities[random.nextInt(activities.length)];
+            boolean statusIcon = random.nextBoolean();
+
+            if ((activity != null) || statusIcon)
+            {
+                s.append("<dm:person id=\"p").append(i).append("\">");
+                if (activity != null)
+                {
+                    s.append("<rpid:activities><rpid:").append(activity)
+                        .append("/></rpid:activities>");
+                }
+                if (statusIcon)
+                {
+                    s.append("<rpid:status-icon>http://example.com/avatars/")
+                        .append(i).append(".png</rpid:status-icon>");
+                }
+                s.append("</dm:person>\n");
+            }
+
+            int tupleCount = 1 + random.nextInt(3);
+
+            for (int t = 0; t < tupleCount; t++)
+            {
+                s.append('<').append(p).append("tuple id=\"t").append(i)
+                    .append('x').append(t).append("\">");
+
+                int statusCount = 1 + ((random.nextInt(8) == 0) ? 1 : 0);
+
+                for (int k = 0; k < statusCount; k++)
+                {
+                    s.append('<').append(p).append("status><").append(p)
+                        .append("basic>")
+                        .append(basics[random.nextInt(basics.length)])
+                        .append("</").append(p).append("basic></").append(p)
+                        .append("status>");
+                }
+
+                int contactCount = random.nextInt(3);
+
+                for (int k = 0; k < contactCount; k++)
+                {
+                    s.append('<').append(p).append("contact");
+                    if (random.nextBoolean())
+                        s.append(" priority=\"0.").append(k + 1).append('"');
+                    s.append(">sip:user").append(i).append('x').append(k)
+                        .append("@example.com</").append(p).append("contact>");
+                }
+
+                String note = notes[random.nextInt(notes.length)];
+
+                if (note != null)
+                {
+                    s.append('<').append(p).append("note>").append(note)
+                        .append("</").append(p).append("note>");
+                }
+                s.append("<timestamp>2013-06-11T10:00:00Z</timestamp></")
+                    .append(p).append("tuple>\n");
+            }
+            s.append("</").append(p).append("presence>");
+            corpus.add(s.toString());
+        }
+        return corpus;
+    }
+
+    /**
+     * Appends the line of the presence element to a description.
+     */
+    private static void appendPresence(StringBuilder s, String entity,
+                                       String activity, String statusIcon)
+    {
+        s.append(entity).append(' ').append(activity).append(' ')
+            .append(nonNull(statusIcon)).append('\n');
+    }
+
+    /**
+     * Appends the line of a tuple to a description.
+     */
+    private static void appendTuple(StringBuilder s, List<String> contacts,
+                                    boolean hasStatus, String basic,
+                                    List<String> notes)
+    {
+        s.append("tuple ").append(contacts).append(' ').append(hasStatus)
+            .append(' ').append(basic).append(' ').append(notes).append('\n');
+    }
+
+    /**
+     * Returns the descendants of an element in the PIDF namespace if there
+     * are some there, in any namespace otherwise.
+     */
+    private static NodeList getPidfChilds(Element element, String childName)
+    {
+        NodeList res = element.getElementsByTagNameNS(PIDF_NS, childName);
+
+        if (res.getLength() == 0)
+            res = element.getElementsByTagNameNS(ANY_NS, childName);
+        return res;
+    }
+
+    /**
+     * Returns the first text child of an element or the empty string.
+     */
+    private static String getTextContent(Element element)
+    {
+        return nonNull(XMLUtils.getText(element));
+    }
+
+    private static String nonNull(String s)
+    {
+        return (s == null) ? "" : s;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+import javax.sip.header.*;
+
+import gov.nist.javax.sip.header.*;
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.sip.*;
+
+/**
+ * Tests the parsing of the multipart/related bodies of the NOTIFY requests of
+ * a resource list server (RFC 4662) and the following of the versions of
+ * their RLMI documents.
+ */
+public class TestEventListNotification
+    extends TestCase
+{
+    private static final String CRLF = "\r\n";
+
+    private static final String PIDF_TYPE = "application/pidf+xml";
+
+    /**
+     * Returns an RLMI document.
+     *
+     * @param version the version of the document
+     * @param fullState whether the document carries the full state of the
+     * list
+     * @param resources the resource elements of the document
+     * @return the RLMI document
+     */
+    private static String rlmi(int version, boolean fullState,
+                               String... resources)
+    {
+        StringBuilder s
+            = new StringBuilder(
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CRLF
+                        + "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\""
+                        + " uri=\"sip:buddies@example.com\" version=\""
+                        + version + "\" fullState=\"" + fullState + "\">"
+                        + CRLF);
+
+        for (String resource : resources)
+            s.append(resource).append(CRLF);
+        return s.append("</list>").toString();
+    }
+
+    /**
+     * Returns a resource element of an RLMI document with a single instance.
+     *
+     * @param uri the URI of the resource
+     * @param state the state of the instance
+     * @param cid the Content-ID of the body of the instance or <tt>null</tt>
+     * @return the resource element
+     */
+    private static String resource(String uri, String state, String cid)
+    {
+        return "<resource uri=\"" + uri + "\"><instance id=\"i" + uri.length()
+            + "\" state=\"" + state + "\""
+            + ((cid == null) ? "" : " cid=\"" + cid + "\"")
+            + "/></resource>";
+    }
+
+    /**
+     * Returns a part of a multipart body.
+     *
+     * @param contentID the Content-ID of the part
+     * @param contentType the Content-Type of the part
+     * @param body the body of the part
+     * @return the headers and the body of the part
+     */
+    private static String part(String contentID, String contentType,
+                               String body)
+    {
+        return "Content-Transfer-Encoding: binary" + CRLF
+            + "Content-ID: <" + contentID + ">" + CRLF
+            + "Content-Type: " + contentType + CRLF
+            + CRLF
+            + body;
+    }
+
+    /**
+     * Returns a multipart body.
+     *
+     * @param boundary the boundary of the parts
+     * @param parts the parts
+     * @return the multipart body
+     */
+    private static String multipart(String boundary, String... parts)
+    {
+        StringBuilder s = new StringBuilder();
+
+        for (String part : parts)
+            s.append("--").append(boundary).append(CRLF).append(part)
+                .append(CRLF);
+        return s.append("--").append(boundary).append("--").append(CRLF)
+            .toString();
+    }
+
+    private static String pidf(String entity, String basic)
+    {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CRLF
+            + "<presence xmlns=\"urn:ietf:params:xml:ns:pidf\" entity=\""
+            + entity + "\"><tuple id=\"t1\"><status><basic>" + basic
+            + "</basic></status></tuple></presence>";
+    }
+
+    private static EventListNotification parse(String boundary, String start,
+                                               String body)
+        throws IOException
+    {
+        return
+            new EventListNotification(boundary, start, body.getBytes("UTF-8"));
+    }
+
+    private static void assertResource(String uri, String state, String body,
+                                       EventListNotification.Resource resource)
+        throws IOException
+    {
+        assertEquals(uri, resource.uri);
+        assertEquals(state, resource.state);
+        assertEquals(body,
+                (resource.content == null)
+                    ? null
+                    : new String(resource.content, "UTF-8"));
+    }
+
+    /**
+     * The RLMI document and the bodies of the resources of a notification are
+     * found from the Content-Type header of the NOTIFY.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testNotification()
+        throws Exception
+    {
+        String alice = pidf("sip:alice@example.com", "open");
+        String body
+            = multipart("50UBfW7LSCVLtggUPe5z",
+                    part("rlmi@example.com", "application/rlmi+xml",
+                            rlmi(3, true,
+                                resource("sip:alice@example.com", "active",
+                                    "alice@example.com"),
+                                resource("sip:bob@example.com", "pending",
+                                    null),
+                                resource("sip:carol@example.com",
+                                    "terminated", null))),
+                    part("alice@example.com", PIDF_TYPE, alice));
+        ContentType contentType = new ContentType("multipart", "related");
+
+        contentType.setParameter("type", "\"application/rlmi+xml\"");
+        contentType.setParameter("start", "\"<rlmi@example.com>\"");
+        contentType.setParameter("boundary", "\"50UBfW7LSCVLtggUPe5z\"");
+        assertTrue(EventListNotification.isEventList(contentType));
+
+        EventListNotification notification
+            = new EventListNotification(
+                    (ContentTypeHeader) contentType,
+                    body.getBytes("UTF-8"));
+        List<EventListNotification.Resource> resources
+            = notification.getResources();
+
+        assertEquals(3, notification.getVersion());
+        assertTrue(notification.isFullState());
+        assertEquals(3, resources.size());
+        assertResource("sip:alice@example.com", "active", alice,
+                resources.get(0));
+        assertResource("sip:bob@example.com", "pending", null,
+                resources.get(1));
+        assertResource("sip:carol@example.com", "terminated", null,
+                resources.get(2));
+    }
+
+    /**
+     * The parts are delimited by the boundary lines only: not by the boundary
+     * inside a body, nor by the boundary of a nested list starting with the
+     * boundary of the outer body. The root part is the one named by the start
+     * parameter wherever it is, and the preamble and the epilogue are
+     * ignored.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testMultipartBoundary()
+        throws Exception
+    {
+        String alice = pidf("sip:alice@example.com", "open");
+        String bob = pidf("sip:bob@example.com", "closed");
+        // a note mentioning the boundary, not at the start of a line
+        String dave
+            = pidf("sip:dave@example.com", "open").replace(
+                    "</tuple>",
+                    "<note>see --b and --b-- and --b2</note></tuple>");
+        String nested
+            = multipart("b2",
+                    part("nested-rlmi", "application/rlmi+xml",
+                            "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\""
+                                + " uri=\"sip:friends@example.com\""
+                                + " version=\"1\" fullState=\"true\">"
+                                + resource("sip:bob@example.com", "active",
+                                    "bob")
+                                + "</list>"),
+                    part("bob", PIDF_TYPE, bob));
+        String body
+            = "This is the preamble." + CRLF
+                + multipart("b",
+                    part("alice", PIDF_TYPE, alice),
+                    part("rlmi", "application/rlmi+xml",
+                            rlmi(7, false,
+                                resource("sip:alice@example.com", "active",
+                                    "alice"),
+                                resource("sip:friends@example.com",
+                                    "active", "friends"),
+                                resource("sip:dave@example.com", "active",
+                                    "dave"))),
+                    part("friends",
+                            "multipart/related;type=\"application/rlmi+xml\""
+                                + ";start=\"<nested-rlmi>\";boundary=\"b2\"",
+                            nested),
+                    part("dave", PIDF_TYPE, dave))
+                + "This is the epilogue." + CRLF;
+        EventListNotification notification = parse("b", "<rlmi>", body);
+        List<EventListNotification.Resource> resources
+            = notification.getResources();
+
+        assertEquals(7, notification.getVersion());
+        assertFalse(notification.isFullState());
+        assertEquals(3, resources.size());
+        assertResource("sip:alice@example.com", "active", alice,
+                resources.get(0));
+        assertResource("sip:bob@example.com", "active", bob,
+                resources.get(1));
+        assertResource("sip:dave@example.com", "active", dave,
+                resources.get(2));
+
+        // bare LF line ends
+        notification
+            = parse("b", null,
+                    multipart("b",
+                            part("rlmi", "application/rlmi+xml",
+                                rlmi(1, true,
+                                    resource("sip:alice@example.com",
+                                        "active", "alice"))),
+                            part("alice", PIDF_TYPE, alice))
+                        .replace(CRLF, "\n"));
+        assertResource("sip:alice@example.com", "active",
+                alice.replace(CRLF, "\n"),
+                notification.getResources().get(0));
+    }
+
+    /**
+     * A body without its close delimiter, or without a boundary, is
+     * rejected.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testInvalidBody()
+        throws Exception
+    {
+        String body
+            = multipart("b",
+                    part("rlmi", "application/rlmi+xml",
+                            rlmi(1, true,
+                                resource("sip:alice@example.com", "active",
+                                    null))));
+
+        assertEquals(1, parse("b", null, body).getResources().size());
+        try
+        {
+            parse("b", null, body.substring(0, body.lastIndexOf("--b")));
+            fail("Unterminated body accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+        try
+        {
+            parse(null, null, body);
+            fail("Body without a boundary accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+        try
+        {
+            parse("c", null, body);
+            fail("Body with another boundary accepted");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    /**
+     * Consecutive partial notifications are applied and older ones ignored.
+     */
+    public void testConsecutiveVersions()
+    {
+        EventListVersion versions = new EventListVersion();
+
+        assertEquals(EventListVersion.APPLY, versions.update(5, false));
+        assertEquals(EventListVersion.APPLY, versions.update(6, false));
+        assertEquals(EventListVersion.IGNORE, versions.update(6, false));
+        assertEquals(EventListVersion.IGNORE, versions.update(4, true));
+        assertEquals(EventListVersion.APPLY, versions.update(7, true));
+        assertEquals(EventListVersion.APPLY, versions.update(8, false));
+    }
+
+    /**
+     * A gap in the versions of partial notifications requests the full state
+     * of the list once, until a full notification arrives, while a gap
+     * before a full notification does not.
+     */
+    public void testVersionGap()
+    {
+        EventListVersion versions = new EventListVersion();
+
+        assertEquals(EventListVersion.APPLY, versions.update(1, true));
+        assertEquals(EventListVersion.APPLY, versions.update(5, true));
+
+        assertEquals(EventListVersion.APPLY_AND_REQUEST_FULL_STATE,
+                versions.update(7, false));
+        // still waiting for the full state
+        assertEquals(EventListVersion.APPLY, versions.update(9, false));
+        assertEquals(EventListVersion.APPLY, versions.update(10, false));
+        assertEquals(EventListVersion.APPLY, versions.update(12, true));
+
+        assertEquals(EventListVersion.APPLY, versions.update(13, false));
+        assertEquals(EventListVersion.APPLY_AND_REQUEST_FULL_STATE,
+                versions.update(15, false));
+
+        // the request could not be sent, the next gap requests again
+        versions.fullStateRequestFailed();
+        assertEquals(EventListVersion.APPLY, versions.update(16, false));
+        assertEquals(EventListVersion.APPLY_AND_REQUEST_FULL_STATE,
+                versions.update(18, false));
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.protocol.sip;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.sip.*;
+
+/**
+ * Tests the reading of the PIDF and watcherinfo bodies of NOTIFYs against
+ * golden descriptions of what <tt>OperationSetPresenceSipImpl</tt> uses from
+ * them, which the walk of their DOM tree done before has to give as well.
+ * The descriptions are made of a line with the entity, the activity and the
+ * status icon of the presence, then a line per tuple with its contacts and
+ * their priorities, whether it has a status, its basic status and its notes.
+ */
+public class TestPresenceDocumentReader
+    extends TestCase
+{
+    private static final String XML_DECLARATION
+        = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    private static final String RPID_NAMESPACES
+        = " xmlns:dm=\"" + PresenceDocuments.DM_NS + "\""
+            + " xmlns:rpid=\"" + PresenceDocuments.RPID_NS + "\"";
+
+    private static final String OWN_URI = "sip:me@example.com";
+
+    /**
+     * Asserts that a PIDF document is read as described, by the reader and by
+     * the DOM walk.
+     */
+    private static void assertPresence(String expected, String document)
+        throws Exception
+    {
+        assertEquals(expected,
+                PresenceDocuments.describe(
+                        PresenceDocumentReader.readPresence(document)));
+        assertEquals(expected, PresenceDocuments.walkPresence(document));
+    }
+
+    /**
+     * Asserts that the watchers of our resource in a watcherinfo document are
+     * read as described, by the reader and by the DOM walk.
+     */
+    private static void assertWatcherInfo(String expected, String document)
+        throws Exception
+    {
+        assertEquals(expected,
+                PresenceDocuments.describe(
+                        PresenceDocumentReader.readWatcherInfo(document),
+                        OWN_URI));
+        assertEquals(expected,
+                PresenceDocuments.walkWatcherInfo(document, OWN_URI));
+    }
+
+    /**
+     * A PIDF document in the default namespace.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testDefaultNamespace()
+        throws Exception
+    {
+        assertPresence(
+                "sip:alice@example.com null \n"
+                    + "tuple [sip:alice@example.com;0.8] true open [Online]\n",
+                XML_DECLARATION
+                    + "<presence xmlns=\"" + PresenceDocuments.PIDF_NS + "\""
+                    + " entity=\"sip:alice@example.com\">"
+                    + "<tuple id=\"t1\">"
+                    + "<status><basic>open</basic></status>"
+                    + "<contact priority=\"0.8\">sip:alice@example.com"
+                    + "</contact>"
+                    + "<note>Online</note>"
+                    + "<timestamp>2013-06-11T10:00:00Z</timestamp>"
+                    + "</tuple></presence>");
+    }
+
+    /**
+     * A PIDF document with a prefix for the PIDF namespace and a document
+     * without any namespace.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testPrefixAndNoNamespace()
+        throws Exception
+    {
+        String expected
+            = "pres:bob@example.com null \n"
+                + "tuple [] true closed [Offline]\n";
+
+        assertPresence(expected,
+                XML_DECLARATION
+                    + "<p:presence xmlns:p=\"" + PresenceDocuments.PIDF_NS
+                    + "\" entity=\"pres:bob@example.com\">"
+                    + "<p:tuple id=\"t1\">"
+                    + "<p:status><p:basic>closed</p:basic></p:status>"
+                    + "<p:note>Offline</p:note>"
+                    + "</p:tuple></p:presence>");
+        assertPresence(expected,
+                XML_DECLARATION
+                    + "<presence entity=\"pres:bob@example.com\">"
+                    + "<tuple id=\"t1\">"
+                    + "<status><basic>closed</basic></status>"
+                    + "<note>Offline</note>"
+                    + "</tuple></presence>");
+    }
+
+    /**
+     * Several tuples with several contacts, statuses and basics, the last
+     * status and basic winning, and elements of other namespaces ignored
+     * where there are some in the PIDF namespace.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testTuplesAndContacts()
+        throws Exception
+    {
+        assertPresence(
+                "sip:carol@example.com null \n"
+                    + "tuple [sip:carol@example.com;1.0,"
+                    + " sip:carol@work.example.com;] true open"
+                    + " [Busy (DND)]\n"
+                    + "tuple [sip:carol@home.example.com;] true closed []\n"
+                    + "tuple [] false null [Away]\n"
+                    + "tuple [] true  []\n",
+                XML_DECLARATION
+                    + "<presence xmlns=\"" + PresenceDocuments.PIDF_NS + "\""
+                    + " xmlns:x=\"urn:example:extension\""
+                    + " entity=\"sip:carol@example.com\">"
+                    + "<tuple id=\"t1\">"
+                    + "<status><basic>closed</basic></status>"
+                    + "<status><basic>closed</basic><basic>open</basic>"
+                    + "</status>"
+                    + "<contact priority=\"1.0\">sip:carol@example.com"
+                    + "</contact>"
+                    + "<contact>sip:carol@work.example.com</contact>"
+                    + "<x:contact>sip:ignored@example.com</x:contact>"
+                    + "<x:note>Ignored</x:note>"
+                    + "<note>Busy (DND)</note>"
+                    + "</tuple>"
+                    + "<tuple id=\"t2\">"
+                    + "<status><basic>closed</basic></status>"
+                    + "<contact>sip:carol@home.example.com</contact>"
+                    + "</tuple>"
+                    + "<tuple id=\"t3\"><note>Away</note></tuple>"
+                    + "<tuple id=\"t4\"><status><basic/></status></tuple>"
+                    + "</presence>");
+    }
+
+    /**
+     * The first known RPID activity of the person is taken whatever its
+     * namespace, the activities of other persons and the unknown or nested
+     * ones being ignored.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testActivities()
+        throws Exception
+    {
+        String tuple
+            = "<tuple id=\"t1\"><status><basic>open</basic></status>"
+                + "</tuple>";
+
+        assertPresence(
+                "sip:dave@example.com on-the-phone \n"
+                    + "tuple [] true open []\n",
+                XML_DECLARATION
+                    + "<presence xmlns=\"" + PresenceDocuments.PIDF_NS + "\""
+                    + RPID_NAMESPACES + " entity=\"sip:dave@example.com\">"
+                    + "<dm:person id=\"p1\">"
+                    + "<rpid:activities><rpid:meeting/>"
+                    + "<rpid:other><rpid:away/></rpid:other>"
+                    + "</rpid:activities>"
+                    + "<rpid:activities><rpid:on-the-phone/><rpid:busy/>"
+                    + "</rpid:activities>"
+                    + "</dm:person>"
+                    + "<dm:person id=\"p2\"><rpid:activities><rpid:away/>"
+                    + "</rpid:activities></dm:person>"
+                    + tuple + "</presence>");
+        assertPresence(
+                "sip:dave@example.com busy \n"
+                    + "tuple [] true open []\n",
+                XML_DECLARATION
+                    + "<presence xmlns=\"" + PresenceDocuments.PIDF_NS + "\""
+                    + " xmlns:r=\"urn:example:activities\""
+                    + " entity=\"sip:dave@example.com\">"
+                    + "<person id=\"p1\"><r:activities><r:busy/>"
+                    + "</r:activities></person>"
+                    + tuple + "</presence>");
+    }
+
+    /**
+     * The status icon is the text of the first status-icon of the person.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testStatusIcon()
+        throws Exception
+    {
+        String presence
+            = XML_DECLARATION
+                + "<presence xmlns=\"" + PresenceDocuments.PIDF_NS + "\""
+                + RPID_NAMESPACES + " entity=\"sip:erin@example.com\">"
+                + "<dm:person id=\"p1\">%s</dm:person>"
+                + "<tuple id=\"t1\"><status><basic>open</basic></status>"
+                + "</tuple></presence>";
+
+        assertPresence(
+                "sip:erin@example.com away http://example.com/erin.png\n"
+                    + "tuple [] true open []\n",
+                String.format(presence,
+                        "<rpid:activities><rpid:away/></rpid:activities>"
+                            + "<rpid:status-icon>http://example.com/erin.png"
+                            + "</rpid:status-icon>"
+                            + "<rpid:status-icon>http://example.com/x.png"
+                            + "</rpid:status-icon>"));
+        assertPresence(
+                "sip:erin@example.com null \n"
+                    + "tuple [] true open []\n",
+                String.format(presence, "<rpid:status-icon/>"));
+    }
+
+    /**
+     * A document without a presence element is not a presence.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testNoPresence()
+        throws Exception
+    {
+        assertPresence(null, XML_DECLARATION + "<presences/>");
+    }
+
+    /**
+     * The watchers of our resource are read from the first watcher list of
+     * the resource, the ones of other resources being ignored.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testWatcherInfo()
+        throws Exception
+    {
+        String document
+            = XML_DECLARATION
+                + "<watcherinfo xmlns=\"" + PresenceDocuments.WATCHERINFO_NS
+                + "\" version=\"4\" state=\"full\">"
+                + "<watcher-list resource=\"sip:other@example.com\""
+                + " package=\"presence\">"
+                + "<watcher id=\"w0\" event=\"subscribe\" status=\"active\">"
+                + "sip:nobody@example.com</watcher>"
+                + "</watcher-list>"
+                + "<watcher-list resource=\"" + OWN_URI + "\""
+                + " package=\"presence\">"
+                + "<watcher id=\"w1\" event=\"subscribe\" status=\"pending\">"
+                + "sip:frank@example.com</watcher>"
+                + "<watcher id=\"w2\" event=\"approved\" status=\"active\">"
+                + "sip:grace@example.com</watcher>"
+                + "<watcher id=\"w3\" event=\"timeout\"/>"
+                + "</watcher-list>"
+                + "<watcher-list resource=\"" + OWN_URI + "\""
+                + " package=\"presence\">"
+                + "<watcher id=\"w4\" status=\"active\">"
+                + "sip:ignored@example.com</watcher>"
+                + "</watcher-list>"
+                + "</watcherinfo>";
+
+        assertWatcherInfo(
+                "full 4\n"
+                    + "presence\n"
+                    + "pending sip:frank@example.com\n"
+                    + "active sip:grace@example.com\n"
+                    + " \n",
+                document);
+        assertWatcherInfo(
+                "partial 5\n",
+                XML_DECLARATION
+                    + "<watcherinfo xmlns=\""
+                    + PresenceDocuments.WATCHERINFO_NS
+                    + "\" version=\"5\" state=\"partial\"/>");
+        assertWatcherInfo(null, XML_DECLARATION + "<presence/>");
+    }
+
+    /**
+     * The reader and the DOM walk read the same from a corpus of generated
+     * PIDF documents.
+     *
+     * @throws Exception if a document cannot be read
+     */
+    public void testCorpus()
+        throws Exception
+    {
+        for (String document : PresenceDocuments.corpus(200, 20130611L))
+        {
+            assertEquals(document,
+                    PresenceDocuments.walkPresence(document),
+                    PresenceDocuments.describe(
+                            PresenceDocumentReader.readPresence(document)));
+        }
+    }
+}
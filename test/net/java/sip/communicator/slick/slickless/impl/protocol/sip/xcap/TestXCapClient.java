@@ -0,0 +1,351 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.protocol.sip.xcap;
+
+import java.io.*;
+import java.net.*;
+import java.net.URI;
+import java.util.*;
+
+import javax.sip.*;
+import javax.sip.address.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.protocol.sip.xcap.*;
+import net.java.sip.communicator.impl.protocol.sip.xcap.model.resourcelists.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Tests the caching of the XCAP documents by ETag and the partial updates of
+ * the resource-lists against a stub XCAP server.
+ */
+public class TestXCapClient
+    extends TestCase
+{
+    private static final String USER = "sip:alice@example.com";
+
+    private static final String XCAP_CAPS
+        = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<xcap-caps xmlns=\"urn:ietf:params:xml:ns:xcap-caps\">"
+            + "<auids><auid>resource-lists</auid></auids>"
+            + "<extensions/>"
+            + "<namespaces>"
+            + "<namespace>" + ResourceListsClient.NAMESPACE + "</namespace>"
+            + "<namespace>urn:ietf:params:xml:ns:resource-lists</namespace>"
+            + "</namespaces>"
+            + "</xcap-caps>";
+
+    private StubXCapServer server;
+
+    private Address userAddress;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        server = new StubXCapServer();
+        server.put("/xcap-caps/global/index",
+                XCapCapsClient.CONTENT_TYPE, XCAP_CAPS);
+        server.put("/resource-lists/users/" + USER + "/index",
+                ResourceListsClient.RESOURCE_LISTS_CONTENT_TYPE,
+                createResourceLists(200));
+        userAddress
+            = SipFactory.getInstance().createAddressFactory().createAddress(
+                    USER);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        server.stop();
+    }
+
+    /**
+     * Creates a resource-lists document with a list of entries.
+     *
+     * @param entryCount the number of entries of the list
+     * @return the resource-lists document
+     * @throws Exception if the document cannot be created
+     */
+    private static String createResourceLists(int entryCount)
+        throws Exception
+    {
+        ResourceListsType resourceLists = new ResourceListsType();
+        ListType list = new ListType();
+
+        list.setName("friends");
+        for (int i = 0; i < entryCount; i++)
+            list.getEntries().add(
+                    new EntryType("sip:friend" + i + "@example.com"));
+        resourceLists.getList().add(list);
+        return ResourceListsParser.toXml(resourceLists);
+    }
+
+    private XCapClient connect()
+        throws Exception
+    {
+        XCapClient client = new XCapClientImpl();
+
+        client.connect(server.getURI(), userAddress, "alice", "secret");
+        return client;
+    }
+
+    /**
+     * A document read before is not downloaded again as long as it has not
+     * changed, even by another client.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testUnchangedDocumentsAreNotDownloaded()
+        throws Exception
+    {
+        XCapClient client = connect();
+
+        assertEquals(200,
+                client.getResourceLists().getList().get(0).getEntries()
+                    .size());
+        assertTrue(server.bodyBytes > 0);
+        client.disconnect();
+
+        int requests = server.requests;
+
+        server.bodyBytes = 0;
+        client = connect();
+        assertEquals(200,
+                client.getResourceLists().getList().get(0).getEntries()
+                    .size());
+        assertEquals(requests + 2, server.requests);
+        assertEquals(2, server.notModified);
+        assertEquals(0, server.bodyBytes);
+    }
+
+    /**
+     * Adding and removing a contact only sends its entry, and only if the
+     * document on the server is the one last read.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testEntryUpdates()
+        throws Exception
+    {
+        XCapClient client = connect();
+        List<String> listPath = Arrays.asList("friends");
+        EntryType entry = new EntryType("sip:bob@example.com");
+
+        // without a version of the document the entry cannot be put
+        assertFalse(client.putResourceListsEntry(listPath, entry));
+        assertEquals(0, server.elementRequests);
+
+        client.getResourceLists();
+        assertTrue(client.putResourceListsEntry(listPath, entry));
+        assertEquals(1, server.elementRequests);
+        assertTrue(server.lastRequestBody.length() > 0);
+        assertTrue(server.lastRequestBody.contains("sip:bob@example.com"));
+        assertFalse(server.lastRequestBody.contains("friend0"));
+
+        assertTrue(
+                client.deleteResourceListsEntry(
+                        listPath, "sip:bob@example.com"));
+        assertEquals(2, server.elementRequests);
+
+        // the document changed underneath
+        server.touch("/resource-lists/users/" + USER + "/index");
+        assertFalse(client.putResourceListsEntry(listPath, entry));
+        assertEquals(412, server.lastStatus);
+    }
+
+    /**
+     * An XCAP server serving documents from memory, with an ETag per
+     * document and the conditional requests of RFC 4825.
+     */
+    private static class StubXCapServer
+        implements HttpHandler
+    {
+        private final HttpServer server;
+
+        /**
+         * The documents by path.
+         */
+        private final Map<String, String> documents
+            = new HashMap<String, String>();
+
+        /**
+         * The content types of the documents by path.
+         */
+        private final Map<String, String> contentTypes
+            = new HashMap<String, String>();
+
+        /**
+         * The ETags of the documents by path.
+         */
+        private final Map<String, String> eTags
+            = new HashMap<String, String>();
+
+        private int version = 0;
+
+        int requests = 0;
+
+        int notModified = 0;
+
+        int elementRequests = 0;
+
+        int bodyBytes = 0;
+
+        int lastStatus = 0;
+
+        String lastRequestBody;
+
+        StubXCapServer()
+            throws IOException
+        {
+            server
+                = HttpServer.create(
+                        new InetSocketAddress(
+                                InetAddress.getByName("127.0.0.1"), 0),
+                        0);
+            server.createContext("/", this);
+            server.start();
+        }
+
+        URI getURI()
+            throws URISyntaxException
+        {
+            return
+                new URI("http://127.0.0.1:" + server.getAddress().getPort());
+        }
+
+        void stop()
+        {
+            server.stop(0);
+        }
+
+        /**
+         * Adds a document.
+         *
+         * @param path the path of the document
+         * @param contentType the content type of the document
+         * @param document the document
+         */
+        synchronized void put(String path, String contentType,
+                              String document)
+        {
+            documents.put(path, document);
+            contentTypes.put(path, contentType);
+        }
+
+        /**
+         * Changes the version of a document, as another client would.
+         *
+         * @param path the path of the document
+         */
+        synchronized void touch(String path)
+        {
+            eTags.put(path, "\"v" + (++version) + "\"");
+        }
+
+        private synchronized String getETag(String path)
+        {
+            if (!eTags.containsKey(path))
+                touch(path);
+            return eTags.get(path);
+        }
+
+        public synchronized void handle(HttpExchange exchange)
+            throws IOException
+        {
+            requests++;
+
+            String path = exchange.getRequestURI().getPath();
+            int selector = path.indexOf("/~~/");
+            String document
+                = (selector < 0) ? path : path.substring(0, selector);
+            String method = exchange.getRequestMethod();
+            Headers request = exchange.getRequestHeaders();
+
+            lastRequestBody = read(exchange.getRequestBody());
+
+            if (!documents.containsKey(document))
+            {
+                respond(exchange, 404, null);
+                return;
+            }
+
+            String eTag = getETag(document);
+
+            if ("GET".equals(method) && (selector < 0))
+            {
+                if (eTag.equals(request.getFirst("If-None-Match")))
+                {
+                    notModified++;
+                    exchange.getResponseHeaders().set("ETag", eTag);
+                    respond(exchange, 304, null);
+                }
+                else
+                {
+                    exchange.getResponseHeaders().set("ETag", eTag);
+                    exchange.getResponseHeaders().set(
+                            "Content-Type", contentTypes.get(document));
+                    respond(exchange, 200, documents.get(document));
+                }
+                return;
+            }
+
+            if (selector >= 0)
+                elementRequests++;
+
+            String ifMatch = request.getFirst("If-Match");
+
+            if ((ifMatch != null) && !ifMatch.equals(eTag))
+            {
+                respond(exchange, 412, null);
+                return;
+            }
+            if (selector < 0)
+            {
+                if ("PUT".equals(method))
+                    documents.put(document, lastRequestBody);
+                else
+                    documents.remove(document);
+            }
+            touch(document);
+            exchange.getResponseHeaders().set("ETag", getETag(document));
+            respond(exchange, 200, null);
+        }
+
+        private void respond(HttpExchange exchange, int status, String body)
+            throws IOException
+        {
+            lastStatus = status;
+
+            byte[] bytes
+                = (body == null) ? new byte[0] : body.getBytes("UTF-8");
+
+            bodyBytes += bytes.length;
+            exchange.sendResponseHeaders(
+                    status,
+                    (bytes.length == 0) ? -1 : bytes.length);
+
+            OutputStream out = exchange.getResponseBody();
+
+            out.write(bytes);
+            out.close();
+        }
+
+        private static String read(InputStream in)
+            throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+
+            while ((count = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, count);
+            return bytes.toString("UTF-8");
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.impl.replacement;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.replacement.preview.*;
+import net.java.sip.communicator.service.replacement.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Tests the coalescing, the caching and the persistence of the link previews
+ * against a stub web service.
+ */
+public class TestPreviewResolver
+    extends TestCase
+{
+    private StubPreviewServer server;
+
+    private File file;
+
+    private PreviewResolverImpl resolver;
+
+    private PreviewFetcher fetcher;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        server = new StubPreviewServer();
+        file = File.createTempFile("previewcache", ".properties");
+        file.delete();
+        resolver = createResolver(null);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        server.stop();
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * Creates a resolver whose fetcher asks the stub web service for the
+     * preview of the last path segment of the links.
+     *
+     * @param file the file in which the resolver keeps the previews or
+     * <tt>null</tt> to keep them in memory only
+     * @return the resolver
+     */
+    private PreviewResolverImpl createResolver(File file)
+    {
+        final PreviewResolverImpl resolver = new PreviewResolverImpl(file);
+
+        fetcher
+            = new PreviewFetcher()
+            {
+                public String fetchPreview(String link)
+                    throws Exception
+                {
+                    String id = link.substring(link.lastIndexOf('/') + 1);
+                    String preview
+                        = resolver.readURL(server.getURL() + "/preview/" + id);
+
+                    return (preview.length() == 0) ? null : preview;
+                }
+            };
+        return resolver;
+    }
+
+    /**
+     * Concurrent requests for the same link, even spelled differently, share
+     * one fetch.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testConcurrentRequestsShareOneFetch()
+        throws Exception
+    {
+        server.delay = 100;
+
+        final String[] links
+            = new String[]
+            {
+                "http://www.Example.com/v/1",
+                "https://example.com:443/v/1#t=10"
+            };
+        final int threadCount = 20;
+        final List<String> previews
+            = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] threads = new Thread[threadCount];
+
+        for (int t = 0; t < threadCount; t++)
+        {
+            final String link = links[t % links.length];
+
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    previews.add(resolver.resolve(link, fetcher));
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(1, server.hits.get());
+        assertEquals(threadCount, previews.size());
+        for (String preview : previews)
+            assertEquals("thumb-1", preview);
+    }
+
+    /**
+     * A preview which is not cached is reported to the listener, and is then
+     * returned right away.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testAsynchronousResolution()
+        throws Exception
+    {
+        final CountDownLatch resolved = new CountDownLatch(1);
+        final String[] replacement = new String[1];
+        String link = "http://example.com/v/2";
+
+        assertNull(
+                resolver.resolve(
+                        link,
+                        fetcher,
+                        new ReplacementListener()
+                        {
+                            public void replacementResolved(
+                                    String sourceString,
+                                    String r)
+                            {
+                                replacement[0] = r;
+                                resolved.countDown();
+                            }
+                        }));
+        assertTrue(resolved.await(10, TimeUnit.SECONDS));
+        assertEquals("thumb-2", replacement[0]);
+
+        assertEquals("thumb-2", resolver.resolve(link, fetcher, null));
+        assertEquals(1, server.hits.get());
+    }
+
+    /**
+     * Links without a preview and links whose preview cannot be fetched are
+     * shown as they are, and are not fetched again for a while.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testLinksWithoutPreview()
+        throws Exception
+    {
+        String empty = "http://example.com/v/empty";
+        String missing = "http://example.com/v/missing";
+
+        assertEquals(empty, resolver.resolve(empty, fetcher));
+        assertEquals(missing, resolver.resolve(missing, fetcher));
+        assertEquals(2, server.hits.get());
+
+        assertEquals(empty, resolver.resolve(empty, fetcher));
+        assertEquals(missing, resolver.resolve(missing, fetcher));
+        assertEquals(2, server.hits.get());
+    }
+
+    /**
+     * Links beyond the capacity of the fetch threads and their queue are
+     * shown without a preview rather than waiting.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testBurstOfLinks()
+        throws Exception
+    {
+        server.delay = 200;
+
+        int linkCount = 100;
+        int immediate = 0;
+        final CountDownLatch resolved = new CountDownLatch(linkCount);
+        ReplacementListener listener
+            = new ReplacementListener()
+            {
+                public void replacementResolved(
+                        String sourceString,
+                        String replacement)
+                {
+                    resolved.countDown();
+                }
+            };
+        long time0 = System.currentTimeMillis();
+
+        for (int i = 0; i < linkCount; i++)
+        {
+            String link = "http://example.com/v/burst" + i;
+            String replacement = resolver.resolve(link, fetcher, listener);
+
+            if (replacement != null)
+            {
+                assertEquals(link, replacement);
+                immediate++;
+                resolved.countDown();
+            }
+        }
+        assertTrue(System.currentTimeMillis() - time0 < 1000);
+        assertTrue(immediate > 0);
+        assertTrue(resolved.await(30, TimeUnit.SECONDS));
+        assertEquals(linkCount - immediate, server.hits.get());
+    }
+
+    /**
+     * The previews are kept across sessions.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testPersistence()
+        throws Exception
+    {
+        resolver = createResolver(file);
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("thumb-p" + i,
+                    resolver.resolve("http://example.com/v/p" + i, fetcher));
+        }
+
+        // the cache is saved by the fetch threads after the fetches
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!savedAll(5) && (System.currentTimeMillis() < deadline))
+            Thread.sleep(20);
+        assertTrue(savedAll(5));
+
+        server.hits.set(0);
+        resolver = createResolver(file);
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("thumb-p" + i,
+                    resolver.resolve("http://www.example.com/v/p" + i,
+                            fetcher));
+        }
+        assertEquals(0, server.hits.get());
+    }
+
+    /**
+     * Determines whether the cache file holds a number of previews.
+     *
+     * @param count the number of previews
+     * @return <tt>true</tt> if the cache file holds <tt>count</tt> previews
+     * @throws IOException if the cache file cannot be read
+     */
+    private boolean savedAll(int count)
+        throws IOException
+    {
+        if (!file.isFile())
+            return false;
+
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+
+        try
+        {
+            properties.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        return properties.size() == count;
+    }
+
+    /**
+     * The links are cached by their canonical form.
+     */
+    public void testKeys()
+    {
+        assertEquals("example.com/v/1",
+                PreviewResolverImpl.getKey("http://www.Example.COM/v/1"));
+        assertEquals("example.com/v/1",
+                PreviewResolverImpl.getKey("https://example.com:443/v/1#x"));
+        assertEquals("example.com/",
+                PreviewResolverImpl.getKey("http://example.com:80"));
+        assertEquals("example.com/v?Id=A",
+                PreviewResolverImpl.getKey("example.com/v?Id=A"));
+    }
+
+    /**
+     * A web service answering <tt>/preview/&lt;id&gt;</tt> with
+     * <tt>thumb-&lt;id&gt;</tt>, with nothing for the <tt>empty</tt> id and
+     * with a 404 for the <tt>missing</tt> one.
+     */
+    private static class StubPreviewServer
+        implements HttpHandler
+    {
+        private final HttpServer server;
+
+        /**
+         * The number of requests.
+         */
+        final AtomicInteger hits = new AtomicInteger();
+
+        /**
+         * The time in milliseconds each response takes.
+         */
+        volatile long delay = 0;
+
+        StubPreviewServer()
+            throws IOException
+        {
+            server
+                = HttpServer.create(
+                        new InetSocketAddress(
+                                InetAddress.getByName("127.0.0.1"), 0),
+                        0);
+            server.createContext("/preview/", this);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+        }
+
+        String getURL()
+        {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void stop()
+        {
+            server.stop(0);
+        }
+
+        public void handle(HttpExchange exchange)
+            throws IOException
+        {
+            hits.incrementAndGet();
+
+            String path = exchange.getRequestURI().getPath();
+            String id = path.substring(path.lastIndexOf('/') + 1);
+
+            if (delay > 0)
+            {
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            byte[] bytes
+                = "empty".equals(id)
+                    ? new byte[0]
+                    : ("thumb-" + id).getBytes("UTF-8");
+            int status = "missing".equals(id) ? 404 : 200;
+
+            exchange.sendResponseHeaders(
+                    status,
+                    (bytes.length == 0) ? -1 : bytes.length);
+
+            OutputStream out = exchange.getResponseBody();
+
+            out.write(bytes);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Measures the time <tt>Html2Text</tt> takes to extract the text of the
+ * documents of the corpus of {@link TestHtml2Text} and of generated documents,
+ * compared to the Swing HTML parser it used for every document before. It is
+ * not part of the tests and is run on its own with the test classes and the
+ * libraries on the class path.
+ */
+public class Html2TextBenchmark
+{
+    /**
+     * The number of times the documents are extracted in a measurement.
+     */
+    private static final int ROUNDS = 2000;
+
+    /**
+     * The number of measurements, the first ones of which warm the JIT up.
+     */
+    private static final int MEASUREMENTS = 8;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     * @throws Exception if a document cannot be parsed
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        List<String> generated = new ArrayList<String>();
+        TestHtml2Text.DocumentGenerator generator
+            = new TestHtml2Text.DocumentGenerator(20130611L);
+
+        for (int i = 0; i < 200; i++)
+            generated.add(generator.next());
+
+        run("corpus", Arrays.asList(TestHtml2Text.CORPUS));
+        run("status messages", getStatusMessages());
+        run("generated", generated);
+    }
+
+    /**
+     * Returns documents such as the status messages and the messages rendered
+     * in the contact list and in notifications.
+     *
+     * @return the documents
+     */
+    private static List<String> getStatusMessages()
+    {
+        return
+            Arrays.asList(
+                "Available",
+                "In a meeting until 3 pm",
+                "<b>Busy</b> - call me later",
+                "<font color=\"#ff0000\">Away</font>",
+                "<html><body>Working from home</body></html>",
+                "Listening to <i>Kind of Blue</i> &amp; coffee",
+                "See <a href=\"http://jitsi.org\">http://jitsi.org</a>",
+                "<p>Out of office</p><p>Back on Monday</p>",
+                "line one<br>line two",
+                "caf&eacute; &ndash; &#9749;");
+    }
+
+    /**
+     * Measures the extraction of the text of documents and prints the best
+     * time per document.
+     *
+     * @param name the name of the documents
+     * @param documents the documents
+     * @throws Exception if a document cannot be parsed
+     */
+    private static void run(String name, List<String> documents)
+        throws Exception
+    {
+        long best = Long.MAX_VALUE;
+        long bestParser = Long.MAX_VALUE;
+        int length = 0;
+
+        for (int m = 0; m < MEASUREMENTS; m++)
+        {
+            long time0 = System.nanoTime();
+
+            for (int i = 0; i < ROUNDS; i++)
+            {
+                for (String html : documents)
+                    length += Html2Text.extractText(html).length();
+            }
+
+            long time1 = System.nanoTime();
+
+            for (int i = 0; i < ROUNDS; i++)
+            {
+                for (String html : documents)
+                    length += TestHtml2Text.parse(html).length();
+            }
+
+            long time2 = System.nanoTime();
+
+            best = Math.min(best, time1 - time0);
+            bestParser = Math.min(bestParser, time2 - time1);
+        }
+
+        double calls = (double) ROUNDS * documents.size();
+
+        System.out.println(
+                name + ": Html2Text "
+                    + String.format("%.2f", best / calls / 1000)
+                    + " us, parser "
+                    + String.format("%.2f", bestParser / calls / 1000)
+                    + " us per document (" + length + " chars)");
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Measures the time adding a value to a full <tt>GenericBuffer</tt> and
+ * looking one up take now that it is backed by an <tt>LRUCache</tt>, compared
+ * to the linear search for the oldest value it did before. It is not part of
+ * the tests and is run on its own with the test classes on the class path.
+ */
+public class LRUCacheBenchmark
+{
+    /**
+     * The sizes of the buffers measured.
+     */
+    private static final int[] SIZES = { 100, 1000, 10000 };
+
+    /**
+     * The number of values added to a full buffer in a measurement.
+     */
+    private static final int ADDITIONS = 20000;
+
+    /**
+     * The number of measurements, the first ones of which warm the JIT up.
+     */
+    private static final int MEASUREMENTS = 8;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        for (int size : SIZES)
+            run(size);
+    }
+
+    /**
+     * Measures the additions to and the lookups in full buffers of a specific
+     * size and prints the best time per operation.
+     *
+     * @param size the size of the buffers
+     */
+    private static void run(int size)
+    {
+        String[] contexts = new String[size + ADDITIONS];
+
+        for (int i = 0; i < contexts.length; i++)
+            contexts[i] = "context" + i;
+
+        long bestAdd = Long.MAX_VALUE;
+        long bestOldAdd = Long.MAX_VALUE;
+        long bestGet = Long.MAX_VALUE;
+        int found = 0;
+
+        for (int m = 0; m < MEASUREMENTS; m++)
+        {
+            GenericBuffer<String> buffer = new GenericBuffer<String>(size);
+            LinearBuffer<String> oldBuffer = new LinearBuffer<String>(size);
+
+            for (int i = 0; i < size; i++)
+            {
+                buffer.addValue(contexts[i], contexts[i]);
+                oldBuffer.addValue(contexts[i], contexts[i]);
+            }
+
+            long time0 = System.nanoTime();
+
+            for (int i = size; i < contexts.length; i++)
+                buffer.addValue(contexts[i], contexts[i]);
+
+            long time1 = System.nanoTime();
+
+            for (int i = size; i < contexts.length; i++)
+                oldBuffer.addValue(contexts[i], contexts[i]);
+
+            long time2 = System.nanoTime();
+
+            for (int i = contexts.length - size; i < contexts.length; i++)
+            {
+                if (buffer.getValue(contexts[i]) != null)
+                    found++;
+            }
+
+            long time3 = System.nanoTime();
+
+            bestAdd = Math.min(bestAdd, time1 - time0);
+            bestOldAdd = Math.min(bestOldAdd, time2 - time1);
+            bestGet = Math.min(bestGet, (time3 - time2) * ADDITIONS / size);
+        }
+
+        System.out.println(
+                size + " entries: add "
+                    + String.format("%.2f", bestAdd / (ADDITIONS * 1000.0))
+                    + " us, linear add "
+                    + String.format("%.2f", bestOldAdd / (ADDITIONS * 1000.0))
+                    + " us, get "
+                    + String.format("%.3f", bestGet / (ADDITIONS * 1000.0))
+                    + " us (" + found + " found)");
+    }
+
+    /**
+     * The <tt>GenericBuffer</tt> before it was backed by an
+     * <tt>LRUCache</tt>, which looked for the oldest value among all the
+     * values when adding one to a full buffer.
+     *
+     * @param <T> the type of the values
+     */
+    private static class LinearBuffer<T>
+    {
+        private final Hashtable<String, Pair<T>> buffer;
+
+        private int minAge = 0;
+
+        private int curAge = 0;
+
+        private final int maxCapacity;
+
+        LinearBuffer(int bufferSize)
+        {
+            buffer = new Hashtable<String, Pair<T>>(bufferSize);
+            maxCapacity = bufferSize;
+        }
+
+        void addValue(T value, String context)
+        {
+            if (buffer.get(context) != null)
+                return;
+
+            if (buffer.size() == maxCapacity)
+            {
+                for (Map.Entry<String, Pair<T>> e : buffer.entrySet())
+                {
+                    if (e.getValue().age == minAge)
+                    {
+                        buffer.remove(e.getKey());
+                        minAge++;
+                        break;
+                    }
+                }
+            }
+
+            Pair<T> storage = new Pair<T>();
+
+            storage.age = curAge++;
+            storage.value = value;
+            buffer.put(context, storage);
+        }
+    }
+
+    /**
+     * A value of a <tt>LinearBuffer</tt> and the order it was added in.
+     *
+     * @param <T> the type of the value
+     */
+    private static class Pair<T>
+    {
+        T value;
+
+        int age;
+    }
+}
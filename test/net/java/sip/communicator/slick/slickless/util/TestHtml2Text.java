@@ -0,0 +1,287 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import java.io.*;
+import java.util.*;
+
+import javax.swing.text.html.*;
+import javax.swing.text.html.parser.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Tests that <tt>Html2Text</tt> extracts the same text as the Swing HTML
+ * parser, which it used for every document before, from a corpus of the
+ * markup found in messages and status messages and from generated documents.
+ */
+public class TestHtml2Text
+    extends TestCase
+{
+    /**
+     * Documents such as the ones found in messages and status messages, and
+     * ones which the single pass extraction leaves to the parser.
+     */
+    static final String[] CORPUS
+        = new String[]
+        {
+            "",
+            "plain text",
+            "  leading and trailing  ",
+            "several   spaces\tand\ttabs\nand\r\nnewlines",
+            "<b>bold</b> and <i>italic</i> and <u>underlined</u>",
+            "<b><i>nested</i> inline</b> tags",
+            "<font color=\"#ff0000\" size=\"3\">Away</font> until 5 pm",
+            "<span style='color: red'>busy</span>",
+            "<a href=\"http://jitsi.org\">http://jitsi.org</a>",
+            "<a href='http://example.com/?a=1&amp;b=2'>link</a> text",
+            "line<br>break<br/>and<BR />more",
+            "<p>first paragraph</p><p>second paragraph</p>",
+            "<div>a division</div> after",
+            "text <div> spaced division </div> text",
+            "<h1>Title</h1>text<h2> Sub </h2>",
+            "<pre>  preformatted\n    text  </pre>",
+            "<pre>\nfirst line\n\n</pre>after",
+            "<html><body>wrapped</body></html>",
+            "<html><head></head><body><p>status</p></body></html>",
+            "<html>\n  <body>\n    <b>Hello</b>   world\n  </body>\n</html>",
+            "&lt;not a tag&gt; &amp; &quot;quoted&quot;",
+            "caf&eacute; &copy; 2013 &trade; &euro;",
+            "&#65;&#66;&#x43;&#x64;",
+            "non&nbsp;breaking&nbsp;&nbsp;spaces",
+            "a &amp b & c &unknown; d &",
+            "&nsub; &lang; &rang;",
+            "<img src=\"smiley.png\" alt=\":)\"> smile",
+            "text<hr>rule",
+            "<strong>strong</strong><em>em</em><code>code</code>",
+            "<sub>sub</sub><sup>sup</sup><small>small</small><big>big</big>",
+            "<b>unclosed bold",
+            "</b>stray end tag",
+            "<b><i>misnested</b></i>",
+            "<!-- a comment --> after the comment",
+            "<script>var x = 1 < 2;</script>script",
+            "<style>p { color: red }</style>style",
+            "<table><tr><td>cell 1</td><td>cell 2</td></tr></table>",
+            "<ul><li>one</li><li>two</li></ul>",
+            "<ol><li>first<li>second</ol>",
+            "<unknown>tag</unknown>",
+            "<b attr>bare attribute</b>",
+            "a < b and c > d",
+            "<>empty tag",
+            "<p>unclosed paragraph<p>another",
+            "<div><p>nested blocks</p></div>",
+            "<title>Title</title>body",
+            "<textarea>text area</textarea>",
+            "\u00e9t\u00e9 \u4e2d\u6587 \ud83d\ude00"
+        };
+
+    /**
+     * Extracts the text of a document with the Swing HTML parser.
+     *
+     * @param html the document
+     * @return the text of <tt>html</tt>
+     * @throws IOException if the document cannot be parsed
+     */
+    static String parse(String html)
+        throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        new ParserDelegator().parse(
+                new StringReader(html),
+                new HTMLEditorKit.ParserCallback()
+                {
+                    @Override
+                    public void handleText(char[] text, int pos)
+                    {
+                        sb.append(text);
+                    }
+                },
+                true);
+        return sb.toString();
+    }
+
+    /**
+     * The text of the documents of the corpus is the one the parser extracts.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testCorpus()
+        throws Exception
+    {
+        for (String html : CORPUS)
+            assertEquals(html, parse(html), Html2Text.extractText(html));
+
+        assertNull(Html2Text.extractText(null));
+        assertEquals("builder",
+                Html2Text.extractText(new StringBuilder("<b>builder</b>")));
+    }
+
+    /**
+     * The text of generated documents is the one the parser extracts.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testGeneratedDocuments()
+        throws Exception
+    {
+        DocumentGenerator generator = new DocumentGenerator(20130611L);
+
+        for (int i = 0; i < 20000; i++)
+        {
+            String html = generator.next();
+
+            assertEquals(html, parse(html), Html2Text.extractText(html));
+        }
+    }
+
+    /**
+     * Threads extracting text at once get the text of their own documents.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void testConcurrentCallers()
+        throws Exception
+    {
+        final Map<String, String> expected = new HashMap<String, String>();
+
+        for (String html : CORPUS)
+            expected.put(html, parse(html));
+
+        final List<String> failures
+            = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 500; i++)
+                    {
+                        for (String html : CORPUS)
+                        {
+                            String text = Html2Text.extractText(html);
+
+                            if (!expected.get(html).equals(text))
+                                failures.add(html);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    /**
+     * Generates documents made of the markup of the corpus, mostly properly
+     * nested.
+     */
+    static class DocumentGenerator
+    {
+        private static final String[] INLINE_TAGS
+            = new String[]
+            {
+                "b", "i", "u", "em", "strong", "font color=\"red\"",
+                "span style='x'", "a href=\"http://x/?a&amp;b\"", "code",
+                "sub", "sup", "small", "big", "s", "tt"
+            };
+
+        private static final String[] BLOCK_TAGS
+            = new String[] { "p", "div", "h1", "h3", "pre", "blockquote" };
+
+        private static final String[] EMPTY_TAGS
+            = new String[] { "br", "br/", "BR /", "hr", "img src=\"x.png\"" };
+
+        private static final String[] TEXTS
+            = new String[]
+            {
+                "word", "two words", " ", "  ", "\n", "\t", " spaced ",
+                "line\nbreak", "&amp;", "&lt;", "&gt;", "&quot;", "&nbsp;",
+                "&eacute;", "&#65;", "&#x42;", "&euro;", "&nsub;", "&bogus;",
+                "&", "a & b", "\u00e9t\u00e9", "1 < 2", "3 > 2"
+            };
+
+        private static final String[] ODD_MARKUP
+            = new String[]
+            {
+                "<!-- c -->", "<script>x</script>", "<ul><li>l</li></ul>",
+                "<table><tr><td>t</td></tr></table>", "<unknown>", "</b>",
+                "<b", "<>"
+            };
+
+        private final Random random;
+
+        DocumentGenerator(long seed)
+        {
+            random = new Random(seed);
+        }
+
+        /**
+         * Generates a document.
+         *
+         * @return the document
+         */
+        String next()
+        {
+            StringBuilder html = new StringBuilder();
+            boolean wrapped = random.nextInt(5) == 0;
+
+            if (wrapped)
+                html.append(random.nextBoolean() ? "<html><body>" : "<html>");
+            append(html, 3);
+            if (wrapped)
+                html.append(random.nextBoolean() ? "</body></html>" : "");
+            return html.toString();
+        }
+
+        private void append(StringBuilder html, int depth)
+        {
+            int count = 1 + random.nextInt(4);
+
+            for (int i = 0; i < count; i++)
+            {
+                int kind = random.nextInt(20);
+
+                if (kind < 8)
+                    html.append(pick(TEXTS));
+                else if (kind < 10)
+                    html.append('<').append(pick(EMPTY_TAGS)).append('>');
+                else if (kind < 15 && depth > 0)
+                    appendElement(html, pick(INLINE_TAGS), depth);
+                else if (kind < 19 && depth > 0)
+                    appendElement(html, pick(BLOCK_TAGS), depth);
+                else if (random.nextInt(4) == 0)
+                    html.append(pick(ODD_MARKUP));
+                else
+                    html.append(pick(TEXTS));
+            }
+        }
+
+        private void appendElement(StringBuilder html, String tag, int depth)
+        {
+            int space = tag.indexOf(' ');
+            String name = (space < 0) ? tag : tag.substring(0, space);
+
+            html.append('<').append(tag).append('>');
+            append(html, depth - 1);
+            html.append("</").append(name).append('>');
+        }
+
+        private String pick(String[] strings)
+        {
+            return strings[random.nextInt(strings.length)];
+        }
+    }
+}
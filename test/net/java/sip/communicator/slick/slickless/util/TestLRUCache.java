@@ -0,0 +1,126 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package net.java.sip.communicator.slick.slickless.util;
+
+import junit.framework.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Tests the order in which an <tt>LRUCache</tt> forgets its values and the
+ * weights it accepts.
+ */
+public class TestLRUCache
+    extends TestCase
+{
+    /**
+     * Weighs a string by its length, or by the number it stands for if it
+     * starts with a minus sign.
+     */
+    private static final LRUCache.Weigher<String, String> LENGTH
+        = new LRUCache.Weigher<String, String>()
+        {
+            public int weigh(String key, String value)
+            {
+                return
+                    value.startsWith("-")
+                        ? Integer.parseInt(value)
+                        : value.length();
+            }
+        };
+
+    /**
+     * The least recently used value is forgotten first, looking a value up
+     * counting as using it.
+     */
+    public void testLeastRecentlyUsedOrder()
+    {
+        LRUCache<String, String> cache = new LRUCache<String, String>(3);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        cache.put("d", "4");
+
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    /**
+     * The values which have expired are forgotten before any value which has
+     * not, however recently they have been used.
+     *
+     * @throws Exception if the test is interrupted
+     */
+    public void testExpiredValuesAreForgottenFirst()
+        throws Exception
+    {
+        LRUCache<String, String> cache
+            = new LRUCache<String, String>(3, 100, null);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        Thread.sleep(150);
+        cache.put("c", "3");
+        cache.put("d", "4");
+        cache.put("e", "5");
+
+        // a and b have expired, the room they took is enough for d and e
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+        assertEquals("5", cache.get("e"));
+
+        cache.put("f", "6");
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("c"));
+    }
+
+    /**
+     * The weight of the values is kept within the maximum.
+     */
+    public void testWeight()
+    {
+        LRUCache<String, String> cache
+            = new LRUCache<String, String>(10, 0, LENGTH);
+
+        cache.put("a", "xxxx");
+        cache.put("b", "yyyy");
+        assertEquals(8, cache.getWeight());
+        cache.put("c", "zzzz");
+        assertEquals(8, cache.getWeight());
+        assertNull(cache.get("a"));
+        cache.put("b", "");
+        assertEquals(4, cache.getWeight());
+    }
+
+    /**
+     * A negative weight is rejected and leaves the cache as it was.
+     */
+    public void testNegativeWeight()
+    {
+        LRUCache<String, String> cache
+            = new LRUCache<String, String>(10, 0, LENGTH);
+
+        cache.put("a", "xxxx");
+        try
+        {
+            cache.put("b", "-5");
+            fail("negative weight accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.getWeight());
+        assertNull(cache.get("b"));
+    }
+}